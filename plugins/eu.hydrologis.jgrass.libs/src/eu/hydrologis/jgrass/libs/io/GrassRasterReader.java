@@ -23,6 +23,7 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.DoubleBuffer;
@@ -32,6 +33,7 @@ import java.util.BitSet;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 import java.util.Vector;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -44,11 +46,14 @@ import eu.hydrologis.jgrass.libs.map.color.ColorTable;
 import eu.hydrologis.jgrass.libs.map.color.GrassColorTable;
 import eu.hydrologis.jgrass.libs.messages.Messages;
 import eu.hydrologis.jgrass.libs.object.GDataObject;
+import eu.hydrologis.jgrass.libs.object.MappedScratchStore;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.FileUtilities;
 import eu.hydrologis.jgrass.libs.utils.Format;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.JlsTokenizer;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 
 /**
@@ -91,6 +96,18 @@ public class GrassRasterReader extends MapReader {
 
     private RandomAccessFile nullFile = null;
 
+    /*
+     * the files behind cellFile and nullFile, needed to open one reader per thread
+     */
+    private File cellFileLocation = null;
+
+    private File nullFileLocation = null;
+
+    /*
+     * the number of threads used to decode the rows, 1 means sequential reading
+     */
+    private int readingThreads = 1;
+
     private String filename = null;
 
     private String locationPath = null;
@@ -107,7 +124,15 @@ public class GrassRasterReader extends MapReader {
      */
     private long[] addressesofrows = null;
 
-    private ByteBuffer rasterByteBuffer = null;
+    /**
+     * The values of the data window read by {@link #hasMoreData(IProgressMonitorJGrass)}.
+     */
+    private RasterValues rasterValues = null;
+
+    /**
+     * The data object holding the raster buffer, closed to release its scratch file.
+     */
+    private GDataObject.GridData rasterGridData = null;
 
     private boolean moreData = false;
 
@@ -163,6 +188,7 @@ public class GrassRasterReader extends MapReader {
      */
     public boolean open( String fileName, String locationPath, String mapsetName ) {
         cellFile = nullFile = null;
+        cellFileLocation = nullFileLocation = null;
 
         filename = fileName;
         this.locationPath = locationPath;
@@ -205,10 +231,23 @@ public class GrassRasterReader extends MapReader {
             JGrassLibsPlugin.log("JGrassLibsPlugin problem", e); //$NON-NLS-1$
             e.printStackTrace();
         }
+        releaseRasterBuffer();
         hasChanged(true);
         moreData = true;
     }
 
+    /**
+     * Releases the buffer of the data read, unmapping and deleting its scratch file. The data
+     * returned by {@link #getNextData()} are copies, so they stay valid.
+     */
+    private void releaseRasterBuffer() {
+        if (rasterGridData != null) {
+            rasterGridData.close();
+            rasterGridData = null;
+            rasterValues = null;
+        }
+    }
+
     /**
      * 
      */
@@ -303,20 +342,33 @@ public class GrassRasterReader extends MapReader {
                     if (colorTable.isEmpty())
                         colorTable = null;
                 }
-                /* Allocate the space for the map data. */
-                int bufferSize = dataWindow.getRows() * dataWindow.getCols()
+                /*
+                 * Allocate the space for the map data. Maps bigger than a segment of the scratch
+                 * store are kept in its segments, within the resident budget, instead of being
+                 * mapped whole.
+                 */
+                long bufferSize = (long) dataWindow.getRows() * dataWindow.getCols()
                         * numberOfBytesPerValue;
-                rasterByteBuffer = null;
-                // rasterByteBuffer = ByteBuffer.allocate(bufferSize*
-                // numberOfBytesPerValue);
-                rasterByteBuffer = new GDataObject.GridData(bufferSize,
-                        GDataObject.USE_BACKING_FILE).getReadBuffer();
-                rasterByteBuffer.rewind();
+                releaseRasterBuffer();
+                if (bufferSize > MappedScratchStore.DEFAULT_SEGMENT_SIZE) {
+                    rasterGridData = new GDataObject.GridData(bufferSize);
+                    rasterValues = new RasterValues(rasterGridData.getScratchStore());
+                } else {
+                    rasterGridData = new GDataObject.GridData((int) bufferSize,
+                            GDataObject.USE_BACKING_FILE);
+                    rasterValues = new RasterValues(rasterGridData.getReadBuffer());
+                }
+                rasterValues.rewind();
 
                 // System.out.println("retrieveing data in window: " +
                 // dataWindow.toString());
 
                 try {
+                    if (readingThreads > 1 && cellFileLocation != null) {
+                        readRowsParallel(monitor);
+                        rasterValues.rewind();
+                        return moreData;
+                    }
                     /* Byte array that will hold a complete null row */
                     byte[] nullRow = null;
                     /* The rowDataArray holds the unpacked row data */
@@ -332,6 +384,8 @@ public class GrassRasterReader extends MapReader {
                     rowCacheRow = -1;
                     firstDataRow = -1;
                     int rowindex = -1;
+                    RowReadContext sequentialContext = new RowReadContext(cellFile, nullFile,
+                            dataRange);
                     /* Get a local reference to speed things up */
                     int filerows = fileWindow.getRows();
                     double filenorth = fileWindow.getNorth();
@@ -372,19 +426,20 @@ public class GrassRasterReader extends MapReader {
                              */
                             if (nullRow == null)
                                 nullRow = initNullRow();
-                            rasterByteBuffer.put(nullRow);
+                            rasterValues.put(nullRow);
                         } else {
                             // System.out.println(", DATA ROW");
                             if (firstDataRow == -1)
                                 firstDataRow = rowindex + 1;
                             /* Read row and put in raster buffer */
                             if (filerow == rowCacheRow) {
-                                rasterByteBuffer.put(rowDataCache);
+                                rasterValues.put(rowDataCache);
                                 cmapBuffer.put(rowColorDataCache);
                             } else {
-                                readRasterRow((int) filerow, rowDataCache, rowColorDataCache);
+                                readRasterRow((int) filerow, rowDataCache, rowColorDataCache,
+                                        sequentialContext);
                                 rowCacheRow = (int) filerow;
-                                rasterByteBuffer.put(rowDataCache);
+                                rasterValues.put(rowDataCache);
                                 cmapBuffer.put(rowColorDataCache);
                             }
                         }
@@ -404,7 +459,7 @@ public class GrassRasterReader extends MapReader {
                 } catch (DataFormatException e) {
                     moreData = false;
                 }
-                rasterByteBuffer.rewind();
+                rasterValues.rewind();
             }
 
         } catch (Exception e) {
@@ -419,6 +474,111 @@ public class GrassRasterReader extends MapReader {
         return moreData;
     }
 
+    /**
+     * Reads the rows of the data window concurrently, using {@link #readingThreads} threads.
+     * <p>
+     * Every thread opens its own readers on the map files and writes the decoded rows and their
+     * colors into its own slices of the raster and color map buffers. The buffers, the first data
+     * row and the data range are the same as the ones of the sequential reading.
+     * </p>
+     * 
+     * @param monitor the monitor to report the progress to
+     * @throws Exception
+     */
+    private void readRowsParallel( final IProgressMonitorJGrass monitor ) throws Exception {
+        int rows = dataWindow.getRows();
+        final int rowBytes = dataWindow.getCols() * numberOfBytesPerValue;
+        final int rowColorBytes = dataWindow.getCols() * 4;
+
+        /*
+         * Calculate the map file row of every data window row (-1 for null rows), the position of
+         * the row colors (null rows have no colors) and which rows would be read by the sequential
+         * reading, since only those update the data range.
+         */
+        final int[] filerows = new int[rows];
+        final int[] colorRows = new int[rows];
+        final boolean[] updatesRange = new boolean[rows];
+        int filerowsNum = fileWindow.getRows();
+        double filenorth = fileWindow.getNorth();
+        double filensres = fileWindow.getNSResolution();
+        double datanorth = dataWindow.getNorth();
+        double datansres = dataWindow.getNSResolution();
+        firstDataRow = -1;
+        int dataRows = 0;
+        int lastReadRow = -1;
+        for( int row = 0; row < rows; row++ ) {
+            double filerow = (filenorth - (datanorth - (row * datansres))) / filensres;
+            filerow = Math.floor(filerow);
+            colorRows[row] = dataRows;
+            if (filerow < 0 || filerow >= filerowsNum) {
+                filerows[row] = -1;
+            } else {
+                if (firstDataRow == -1)
+                    firstDataRow = row;
+                filerows[row] = (int) filerow;
+                updatesRange[row] = filerows[row] != lastReadRow;
+                lastReadRow = filerows[row];
+                dataRows++;
+            }
+        }
+
+        final byte[] nullRow = initNullRow();
+        final RasterValues values = rasterValues;
+        final ByteBuffer colorBuffer = cmapBuffer;
+        /* The contexts of the chunks, ordered by row, to merge the data range in order */
+        final TreeMap<Integer, RowReadContext> contexts = new TreeMap<Integer, RowReadContext>();
+
+        monitor.beginTask(Messages.getString("GrassRasterReader.readingraster") + filename, rows); //$NON-NLS-1$
+        ParallelUtilities.runInChunks(0, rows, readingThreads, new RangeTask(){
+            public void run( int start, int end ) throws Exception {
+                RandomAccessFile chunkNullFile = null;
+                if (nullFileLocation != null)
+                    chunkNullFile = new RandomAccessFile(nullFileLocation, "r"); //$NON-NLS-1$
+                RowReadContext context = new RowReadContext(new RandomAccessFile(
+                        cellFileLocation, "r"), chunkNullFile, null); //$NON-NLS-1$
+                try {
+                    ByteBuffer colorSlice = colorBuffer != null ? colorBuffer.duplicate() : null;
+                    byte[] rowDataCache = new byte[rowBytes];
+                    byte[] rowColorDataCache = new byte[rowColorBytes];
+                    int cachedRow = -1;
+                    for( int row = start; row < end; row++ ) {
+                        long position = (long) row * rowBytes;
+                        if (filerows[row] == -1) {
+                            values.put(position, nullRow);
+                            continue;
+                        }
+                        if (filerows[row] != cachedRow) {
+                            context.recordRange = updatesRange[row];
+                            readRasterRow(filerows[row], rowDataCache, rowColorDataCache, context);
+                            cachedRow = filerows[row];
+                        }
+                        values.put(position, rowDataCache);
+                        if (colorSlice != null) {
+                            colorSlice.position(colorRows[row] * rowColorBytes);
+                            colorSlice.put(rowColorDataCache);
+                        }
+                    }
+                } finally {
+                    context.close();
+                }
+                synchronized (contexts) {
+                    contexts.put(start, context);
+                }
+                synchronized (monitor) {
+                    monitor.worked(end - start);
+                }
+            }
+        });
+        monitor.done();
+
+        for( RowReadContext context : contexts.values() ) {
+            context.mergeRange(dataRange);
+        }
+        if (cmapBuffer != null)
+            cmapBuffer.position(dataRows * rowColorBytes);
+        rowCacheRow = -1;
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -517,13 +677,13 @@ public class GrassRasterReader extends MapReader {
 
         ColorMapBuffer colorBuffer = new ColorMapBuffer();
         colorBuffer.setRowOffset(firstDataRow);
-        int dataOffset = firstDataRow * dataWindow.getCols() * numberOfBytesPerValue;
+        long dataOffset = (long) firstDataRow * dataWindow.getCols() * numberOfBytesPerValue;
         // interpolate the data to get the color map
-        colorBuffer.setRGBBuffer((cmapBuffer = colorTable.interpolateColorMap(rasterMapType,
-                rasterByteBuffer, dataOffset)));
+        colorBuffer.setRGBBuffer((cmapBuffer = rasterValues.interpolateColorMap(colorTable,
+                rasterMapType, numberOfBytesPerValue, dataOffset)));
         System.out.println("GET_NEXT_DATA_COLOR (2) DATA_OFFSET=" + dataOffset //$NON-NLS-1$
                 + ", RGB_BUFFER " + cmapBuffer + ", RASTER_BYTE_BUFFER " //$NON-NLS-1$ //$NON-NLS-2$
-                + rasterByteBuffer);
+                + rasterValues);
 
         return colorBuffer;
     }
@@ -630,13 +790,15 @@ public class GrassRasterReader extends MapReader {
     private Object getIntBuffer() {
         if (numberOfBytesPerValue == 8) {
             for( int i = 0; i < ((IntBuffer) dataObject).capacity(); i++ ) {
-                ((IntBuffer) dataObject).put((int) rasterByteBuffer.getDouble());
+                ((IntBuffer) dataObject).put((int) rasterValues.getDouble());
             }
         } else if (numberOfBytesPerValue == 4 && rasterMapType < 0) {
-            dataObject = rasterByteBuffer.asIntBuffer();
+            for( int i = 0; i < ((IntBuffer) dataObject).capacity(); i++ ) {
+                ((IntBuffer) dataObject).put((int) rasterValues.getFloat());
+            }
         } else if (rasterMapType > -1) {
-            for( int i = 0; i < ((DoubleBuffer) dataObject).capacity(); i++ ) {
-                ((IntBuffer) dataObject).put(rasterByteBuffer.getInt());
+            for( int i = 0; i < ((IntBuffer) dataObject).capacity(); i++ ) {
+                ((IntBuffer) dataObject).put(rasterValues.getInt());
             }
         }
         ((IntBuffer) dataObject).rewind();
@@ -649,7 +811,7 @@ public class GrassRasterReader extends MapReader {
     private Object getFloatBuffer() {
         if (numberOfBytesPerValue == 8) {
             for( int i = 0; i < ((FloatBuffer) dataObject).capacity(); i++ ) {
-                float val = (float) rasterByteBuffer.getDouble();
+                float val = (float) rasterValues.getDouble();
                 if (val != val)
                     ((FloatBuffer) dataObject).put(((Float) novalue).floatValue());
                 else
@@ -657,7 +819,7 @@ public class GrassRasterReader extends MapReader {
             }
         } else if (numberOfBytesPerValue == 4 && rasterMapType < 0) {
             // dataObject = rasterByteBuffer.asFloatBuffer();
-            float val = rasterByteBuffer.getFloat();
+            float val = rasterValues.getFloat();
             if (val != val)
                 ((FloatBuffer) dataObject).put(((Float) novalue).floatValue());
             else
@@ -665,8 +827,8 @@ public class GrassRasterReader extends MapReader {
         } else if (rasterMapType > -1) {
             for( int i = 0; i < ((FloatBuffer) dataObject).capacity(); i++ ) {
                 // ((FloatBuffer) dataObject).put((float)
-                // rasterByteBuffer.getInt());
-                float val = rasterByteBuffer.getInt();
+                // rasterValues.getInt());
+                float val = rasterValues.getInt();
                 if (val != val)
                     ((FloatBuffer) dataObject).put(((Float) novalue).floatValue());
                 else
@@ -683,15 +845,17 @@ public class GrassRasterReader extends MapReader {
     private Object getDoubleBuffer() {
         if (numberOfBytesPerValue == 8) {
             // dataObject = rasterByteBuffer.asDoubleBuffer();
-            ((DoubleBuffer) dataObject).put(rasterByteBuffer.asDoubleBuffer());
+            for( int i = 0; i < ((DoubleBuffer) dataObject).capacity(); i++ ) {
+                ((DoubleBuffer) dataObject).put(rasterValues.getDouble());
+            }
 
         } else if (numberOfBytesPerValue == 4 && rasterMapType < 0) {
             for( int i = 0; i < ((DoubleBuffer) dataObject).capacity(); i++ ) {
-                ((DoubleBuffer) dataObject).put(rasterByteBuffer.getFloat());
+                ((DoubleBuffer) dataObject).put(rasterValues.getFloat());
             }
         } else if (rasterMapType > -1) {
             for( int i = 0; i < ((DoubleBuffer) dataObject).capacity(); i++ ) {
-                ((DoubleBuffer) dataObject).put(rasterByteBuffer.getInt());
+                ((DoubleBuffer) dataObject).put(rasterValues.getInt());
             }
         }
         ((DoubleBuffer) dataObject).rewind();
@@ -763,6 +927,9 @@ public class GrassRasterReader extends MapReader {
             matrixType = dmtype.intValue();
         } else if (key.equals("donotloadcolortable")) { //$NON-NLS-1$
             cmapBuffer = null;
+        } else if (key.equals("readingthreads")) { //$NON-NLS-1$
+            Integer threads = (Integer) obj;
+            readingThreads = Math.max(1, threads.intValue());
         }
     }
 
@@ -962,6 +1129,7 @@ public class GrassRasterReader extends MapReader {
                                 + reclassFile);
                     if (ds.exists()) {
                         cellFile = new RandomAccessFile(ds, "r"); //$NON-NLS-1$
+                        cellFileLocation = ds;
                         if (cellFile == null) {
                             // if (logger.isDebugEnabled())
                             // logger
@@ -975,6 +1143,7 @@ public class GrassRasterReader extends MapReader {
                         }
                         /* Check if null file exists. */
                         nullFile = null;
+                        nullFileLocation = null;
                         if (reclassPath == null)
                             ds = new File(mapsetPath + File.separator + JGrassConstants.CELL_MISC
                                     + File.separator + filename + File.separator
@@ -984,6 +1153,7 @@ public class GrassRasterReader extends MapReader {
                                     + reclassFile + File.separator + JGrassConstants.CELLMISC_NULL);
                         if (ds.exists()) {
                             nullFile = new RandomAccessFile(ds, "r"); //$NON-NLS-1$
+                            nullFileLocation = ds;
                             if (nullFile == null) {
                                 isOldIntegerMap = false;
                                 // if (logger.isDebugEnabled())
@@ -1069,6 +1239,7 @@ public class GrassRasterReader extends MapReader {
                                 + reclassFile);
                     if (ds5.exists()) {
                         cellFile = new RandomAccessFile(ds5, "r"); //$NON-NLS-1$
+                        cellFileLocation = ds5;
                         if (cellFile == null) {
                             // if (logger.isDebugEnabled())
                             // logger
@@ -1083,6 +1254,7 @@ public class GrassRasterReader extends MapReader {
                             // + ds5.toString());
                         }
                         nullFile = null;
+                        nullFileLocation = null;
                         if (reclassPath == null)
                             ds5 = new File(mapsetPath + File.separator + JGrassConstants.CELL_MISC
                                     + File.separator + filename + File.separator
@@ -1092,6 +1264,7 @@ public class GrassRasterReader extends MapReader {
                                     + reclassFile + File.separator + JGrassConstants.CELLMISC_NULL);
                         if (ds5.exists()) {
                             nullFile = new RandomAccessFile(ds5, "r"); //$NON-NLS-1$
+                            nullFileLocation = ds5;
                             if (nullFile == null) {
                                 // if (logger.isDebugEnabled())
                                 // logger.debug("cannot open null file: "
@@ -1143,12 +1316,15 @@ public class GrassRasterReader extends MapReader {
      * 
      * @param currentfilerow the current row to be extracted from the file
      * @param rowDataCache the byte array to store the unpacked row data
+     * @param rowColorDataCache the byte array to store the row colors
+     * @param context the files to read from and the data range to update
      * @return boolean TRUE for success, FALSE for failure.
      * @throws IOException
      * @throws DataFormatException
      */
-    private boolean readRasterRow( int currentfilerow, byte[] rowDataCache, byte[] rowColorDataCache )
-            throws IOException, DataFormatException {
+    private boolean readRasterRow( int currentfilerow, byte[] rowDataCache,
+            byte[] rowColorDataCache, RowReadContext context ) throws IOException,
+            DataFormatException {
         ByteBuffer rowBuffer = ByteBuffer.wrap(rowDataCache);
         ByteBuffer rowColorBuffer = ByteBuffer.wrap(rowColorDataCache);
         /*
@@ -1176,7 +1352,7 @@ public class GrassRasterReader extends MapReader {
         ByteBuffer rowCache = ByteBuffer.allocate(fileWindow.getCols()
                 * ((rasterMapType == -2) ? 8 : 4));
         // rowCache.rewind();
-        getMapRow(currentfilerow, rowCache, iscompressed);
+        getMapRow(currentfilerow, rowCache, iscompressed, context.cellFile);
         // rowCacheRow = currentfilerow;
 
         // if the northing is inside the file boundaries, calculate the values
@@ -1217,7 +1393,7 @@ public class GrassRasterReader extends MapReader {
                 } else {
                     /* Don't know what to do. Probably throw some exception? */
                 }
-            } else if (readNullValueAtRowCol(currentfilerow, (int) x)) {
+            } else if (readNullValueAtRowCol(currentfilerow, (int) x, context.nullFile)) {
                 // System.out.println("COL="+col+", X="+x+", NULL VALUE(2)");
                 /*
                  * Depending on the map type we store a different 'NO VALUE' value.
@@ -1267,10 +1443,7 @@ public class GrassRasterReader extends MapReader {
                         if (colorTable != null)
                             colorTable.interpolateColorValue(rowColorBuffer, cell);
                         /* Update data range value */
-                        if (cell < dataRange[0])
-                            dataRange[0] = cell;
-                        else if (cell > dataRange[1])
-                            dataRange[1] = cell;
+                        context.updateRange(cell);
                     }
                 } else if (rasterMapType == -1) {
                     /* Floating point map with float values. */
@@ -1282,10 +1455,7 @@ public class GrassRasterReader extends MapReader {
                     if (colorTable != null)
                         colorTable.interpolateColorValue(rowColorBuffer, cell);
                     /* Update data range value */
-                    if (cell < dataRange[0])
-                        dataRange[0] = cell;
-                    else if (cell > dataRange[1])
-                        dataRange[1] = cell;
+                    context.updateRange(cell);
                 } else if (rasterMapType == -2) {
                     /* Floating point map with double values. */
                     /*
@@ -1304,10 +1474,7 @@ public class GrassRasterReader extends MapReader {
                     if (colorTable != null)
                         colorTable.interpolateColorValue(rowColorBuffer, cell);
                     /* Update data range value */
-                    if (cell < dataRange[0])
-                        dataRange[0] = cell;
-                    else if (cell > dataRange[1])
-                        dataRange[1] = cell;
+                    context.updateRange(cell);
                 } else {
                     /* Don't know what to do. Probably throw some exception? */
                 }
@@ -1353,12 +1520,13 @@ public class GrassRasterReader extends MapReader {
      * 
      * @param currentrow
      * @param iscompressed
+     * @param cellFile the file to read the row from
      * @return
      * @throws IOException
      * @throws DataFormatException
      */
-    private void getMapRow( int currentrow, ByteBuffer rowdata, boolean iscompressed )
-            throws IOException, DataFormatException {
+    private void getMapRow( int currentrow, ByteBuffer rowdata, boolean iscompressed,
+            RandomAccessFile cellFile ) throws IOException, DataFormatException {
         // if (logger.isDebugEnabled())
         // {
         // logger.debug("ACCESSING THE FILE at row: " + currentrow +
@@ -1611,10 +1779,11 @@ public class GrassRasterReader extends MapReader {
      * 
      * @param currentfilerow
      * @param currentfilecol
+     * @param nullFile the null file, or null if there is none
      * @return
      */
-    private boolean readNullValueAtRowCol( int currentfilerow, int currentfilecol )
-            throws IOException {
+    private boolean readNullValueAtRowCol( int currentfilerow, int currentfilecol,
+            RandomAccessFile nullFile ) throws IOException {
         /*
          * If the null file doesn't exist and the map is an integer, than it is an old integer-map
          * format, where the novalues are the cells that contain the values 0
@@ -1688,7 +1857,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getDouble();
+                    tmp = rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -1708,7 +1877,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getDouble();
+                    tmp = rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -1729,7 +1898,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getDouble();
+                    tmp = rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -1755,7 +1924,7 @@ public class GrassRasterReader extends MapReader {
             dataObject = new double[ny + 1][nx + 1];
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getDouble();
+                    tmp = rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -1786,7 +1955,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -1806,7 +1975,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -1826,7 +1995,7 @@ public class GrassRasterReader extends MapReader {
             dataObject = new double[ny][nx];
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -1846,7 +2015,7 @@ public class GrassRasterReader extends MapReader {
             dataObject = new double[ny + 1][nx + 1];
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -1877,7 +2046,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getInt();
+                    tmp = rasterValues.getInt();
                     // the value has to be different from NaN
                     if (tmp == tmp && tmp != Integer.MAX_VALUE) {
                         // set the range
@@ -1907,7 +2076,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -1940,7 +2109,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -1973,7 +2142,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -2007,7 +2176,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = (float) rasterByteBuffer.getDouble();
+                    tmp = (float) rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2027,7 +2196,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = (float) rasterByteBuffer.getDouble();
+                    tmp = (float) rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2047,7 +2216,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = (float) rasterByteBuffer.getDouble();
+                    tmp = (float) rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2067,7 +2236,7 @@ public class GrassRasterReader extends MapReader {
             dataObject = new float[ny + 1][nx + 1];
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = (float) rasterByteBuffer.getDouble();
+                    tmp = (float) rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2098,7 +2267,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2118,7 +2287,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2138,7 +2307,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2158,7 +2327,7 @@ public class GrassRasterReader extends MapReader {
             dataObject = new float[ny + 1][nx + 1];
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2189,7 +2358,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getInt();
+                    tmp = rasterValues.getInt();
                     // the value has to be different from max_value
                     if (tmp == tmp && tmp != Integer.MAX_VALUE) {
                         // set the range
@@ -2219,7 +2388,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -2252,7 +2421,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -2285,7 +2454,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -2319,7 +2488,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getDouble();
+                    tmp = rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2339,7 +2508,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getDouble();
+                    tmp = rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2359,7 +2528,7 @@ public class GrassRasterReader extends MapReader {
             double tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getDouble();
+                    tmp = rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2379,7 +2548,7 @@ public class GrassRasterReader extends MapReader {
             dataObject = new int[ny + 1][nx + 1];
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getDouble();
+                    tmp = rasterValues.getDouble();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2410,7 +2579,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2430,7 +2599,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2450,7 +2619,7 @@ public class GrassRasterReader extends MapReader {
             float tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2470,7 +2639,7 @@ public class GrassRasterReader extends MapReader {
             dataObject = new int[ny + 1][nx + 1];
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getFloat();
+                    tmp = rasterValues.getFloat();
                     // the value has to be different from NaN
                     if (tmp == tmp) {
                         // set the range
@@ -2501,7 +2670,7 @@ public class GrassRasterReader extends MapReader {
             int tmp;
             for( int i = 0; i < nx; i++ ) {
                 for( int k = 0; k < ny; k++ ) {
-                    tmp = rasterByteBuffer.getInt();
+                    tmp = rasterValues.getInt();
                     // the value has to be different from max_value
                     if (tmp == tmp && tmp != Integer.MAX_VALUE) {
                         // set the range
@@ -2531,7 +2700,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -2564,7 +2733,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -2597,7 +2766,7 @@ public class GrassRasterReader extends MapReader {
                         tmpbuf.put((byte) 0);
                     }
                     for( int j = 0; j < rasterMapType; j++ ) {
-                        tmpbuf.put(rasterByteBuffer.get());
+                        tmpbuf.put(rasterValues.get());
                     }
                     tmpbuf.rewind();
                     tmp = tmpbuf.getInt();
@@ -2641,4 +2810,225 @@ public class GrassRasterReader extends MapReader {
     public double[] getRange() {
         return range;
     }
+
+    /**
+     * The files a row is read from and the data range that the read values update.
+     * <p>
+     * The sequential reading updates the range of the reader directly. The concurrent reading
+     * gives every chunk of rows its own context, that records what is needed to later merge the
+     * range in row order, so that the result is the same as with the sequential reading.
+     * </p>
+     */
+    private static class RowReadContext {
+        private final RandomAccessFile cellFile;
+
+        private final RandomAccessFile nullFile;
+
+        /* the range to update directly, null if the range is recorded */
+        private final double[] range;
+
+        /* false if the values of the next row don't update the range */
+        private boolean recordRange = true;
+
+        /* the values that were a new minimum when read, in reading order */
+        private double[] newMinimums = new double[16];
+
+        private int newMinimumsCount = 0;
+
+        private double min = Double.POSITIVE_INFINITY;
+
+        private double max = Double.NEGATIVE_INFINITY;
+
+        private RowReadContext( RandomAccessFile cellFile, RandomAccessFile nullFile,
+                double[] range ) {
+            this.cellFile = cellFile;
+            this.nullFile = nullFile;
+            this.range = range;
+        }
+
+        private void updateRange( double cell ) {
+            if (!recordRange)
+                return;
+            if (range != null) {
+                if (cell < range[0])
+                    range[0] = cell;
+                else if (cell > range[1])
+                    range[1] = cell;
+            } else if (cell < min) {
+                /*
+                 * whether a new minimum also updates the maximum depends on the values read before
+                 * this chunk, so it is decided at merge time.
+                 */
+                min = cell;
+                if (newMinimumsCount == newMinimums.length) {
+                    double[] tmp = new double[newMinimums.length * 2];
+                    System.arraycopy(newMinimums, 0, tmp, 0, newMinimumsCount);
+                    newMinimums = tmp;
+                }
+                newMinimums[newMinimumsCount++] = cell;
+            } else if (cell > max) {
+                max = cell;
+            }
+        }
+
+        /**
+         * Applies the recorded values to the range, as if they had been read one after the other.
+         */
+        private void mergeRange( double[] theRange ) {
+            for( int i = 0; i < newMinimumsCount; i++ ) {
+                double cell = newMinimums[i];
+                if (cell < theRange[0])
+                    theRange[0] = cell;
+                else if (cell > theRange[1])
+                    theRange[1] = cell;
+            }
+            if (max > theRange[1])
+                theRange[1] = max;
+        }
+
+        private void close() throws IOException {
+            cellFile.close();
+            if (nullFile != null)
+                nullFile.close();
+        }
+    }
+
+    /**
+     * The values of the data window, written row by row and then read in order like a buffer.
+     * <p>
+     * Maps up to a segment of the scratch store are mapped in a single buffer. Bigger ones stay in
+     * the segments of the store, so that they are kept within its resident budget and can be
+     * bigger than 2 GB, and are read through a small buffer refilled from the store.
+     * </p>
+     */
+    private static class RasterValues {
+        private static final int CHUNK_SIZE = 1 << 16;
+
+        private final MappedScratchStore store;
+
+        private final long size;
+
+        private final byte[] chunk;
+
+        /* the buffer the values are read from and the position of its first byte in the store */
+        private ByteBuffer buffer;
+
+        private long bufferStart = 0;
+
+        private long writePosition = 0;
+
+        private RasterValues( ByteBuffer whole ) {
+            store = null;
+            chunk = null;
+            size = whole.capacity();
+            buffer = whole;
+        }
+
+        private RasterValues( MappedScratchStore store ) {
+            this.store = store;
+            size = store.size();
+            chunk = new byte[CHUNK_SIZE];
+            buffer = ByteBuffer.wrap(chunk, 0, 0);
+        }
+
+        /**
+         * Writes a row after the last one written.
+         */
+        private void put( byte[] row ) throws IOException {
+            put(writePosition, row);
+            writePosition += row.length;
+        }
+
+        /**
+         * Writes a row at the given position, also from concurrent threads.
+         */
+        private void put( long position, byte[] row ) throws IOException {
+            if (store != null) {
+                store.put(position, row, 0, row.length);
+            } else {
+                ByteBuffer slice = buffer.duplicate();
+                slice.position((int) position);
+                slice.put(row);
+            }
+        }
+
+        /**
+         * Sets the reading back to the first value.
+         */
+        private void rewind() {
+            if (store != null) {
+                bufferStart = 0;
+                buffer = ByteBuffer.wrap(chunk, 0, 0);
+            } else {
+                buffer.rewind();
+            }
+        }
+
+        /**
+         * @return the buffer holding at least the given number of bytes at the reading position.
+         */
+        private ByteBuffer fill( int bytes ) {
+            if (store == null || buffer.remaining() >= bytes) {
+                return buffer;
+            }
+            bufferStart += buffer.position();
+            int length = (int) Math.min(CHUNK_SIZE, size - bufferStart);
+            if (length < bytes) {
+                throw new BufferUnderflowException();
+            }
+            try {
+                store.get(bufferStart, chunk, 0, length);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to read the scratch file: " //$NON-NLS-1$
+                        + e.getLocalizedMessage());
+            }
+            buffer = ByteBuffer.wrap(chunk, 0, length);
+            return buffer;
+        }
+
+        private byte get() {
+            return fill(1).get();
+        }
+
+        private int getInt() {
+            return fill(4).getInt();
+        }
+
+        private float getFloat() {
+            return fill(4).getFloat();
+        }
+
+        private double getDouble() {
+            return fill(8).getDouble();
+        }
+
+        /**
+         * Calculates the colors of the values from the given position on.
+         * 
+         * @see ColorTable#interpolateColorMap(int, ByteBuffer, int)
+         */
+        private ByteBuffer interpolateColorMap( ColorTable colorTable, int mapType,
+                int bytesPerValue, long dataOffset ) throws IOException {
+            if (store == null) {
+                return colorTable.interpolateColorMap(mapType, buffer, (int) dataOffset);
+            }
+            ByteBuffer cmapBuffer = ByteBuffer.allocate((int) ((size - dataOffset)
+                    / bytesPerValue * 4));
+            byte[] values = new byte[CHUNK_SIZE];
+            for( long position = dataOffset; position < size; position += CHUNK_SIZE ) {
+                int length = (int) Math.min(CHUNK_SIZE, size - position);
+                store.get(position, values, 0, length);
+                ByteBuffer colors = colorTable.interpolateColorMap(mapType, ByteBuffer.wrap(
+                        values, 0, length), 0);
+                colors.flip();
+                cmapBuffer.put(colors);
+            }
+            return cmapBuffer;
+        }
+
+        @Override
+        public String toString() {
+            return store != null ? "RasterValues[segmented, size=" + size + "]" : buffer.toString(); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
 }
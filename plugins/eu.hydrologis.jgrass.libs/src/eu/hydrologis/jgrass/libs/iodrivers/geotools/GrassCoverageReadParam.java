@@ -58,6 +58,16 @@ public class GrassCoverageReadParam {
      */
     private JGrassRegion requestedWorldRegion = null;
 
+    /**
+     * The width of the tiles in which the map is read. If <= 0, the map is not read in tiles.
+     */
+    private int tileWidth = 0;
+
+    /**
+     * The height of the tiles in which the map is read. If <= 0, the map is not read in tiles.
+     */
+    private int tileHeight = 0;
+
     /**
      * Constructs a {@link GrassCoverageReadParam}.
      * 
@@ -67,6 +77,20 @@ public class GrassCoverageReadParam {
         this.requestedWorldRegion = requestedWorldRegion;
     }
 
+    /**
+     * Constructs a {@link GrassCoverageReadParam} for tiled reading.
+     * 
+     * @param requestedWorldRegion the active region to which to set read region to.
+     * @param tileWidth the width of the tiles in which the map is read.
+     * @param tileHeight the height of the tiles in which the map is read.
+     * @see #isTiled()
+     */
+    public GrassCoverageReadParam( JGrassRegion requestedWorldRegion, int tileWidth, int tileHeight ) {
+        this.requestedWorldRegion = requestedWorldRegion;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+    }
+
     /**
      * Getter for the {@linkplain GrassCoverageReadParam#requestedWorldRegion active region}
      * 
@@ -77,4 +101,56 @@ public class GrassCoverageReadParam {
         return requestedWorldRegion;
     }
 
+    /**
+     * Getter for the tile width.
+     * 
+     * @return the width of the tiles in which the map is read.
+     */
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    /**
+     * Setter for the tile width.
+     * 
+     * @param tileWidth the width of the tiles in which the map is read.
+     */
+    public void setTileWidth( int tileWidth ) {
+        this.tileWidth = tileWidth;
+    }
+
+    /**
+     * Getter for the tile height.
+     * 
+     * @return the height of the tiles in which the map is read.
+     */
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Setter for the tile height.
+     * 
+     * @param tileHeight the height of the tiles in which the map is read.
+     */
+    public void setTileHeight( int tileHeight ) {
+        this.tileHeight = tileHeight;
+    }
+
+    /**
+     * Checks if the map has to be read in tiles.
+     * 
+     * <p>
+     * When reading in tiles, only the tiles of the native map that cover the
+     * requested region are decoded. The decoded tiles are kept in the JAI
+     * {@link javax.media.jai.TileCache tile cache}, so that subsequent reads
+     * of the same map can reuse them.
+     * </p>
+     * 
+     * @return true if both tile sizes are set.
+     */
+    public boolean isTiled() {
+        return tileWidth > 0 && tileHeight > 0;
+    }
+
 }
@@ -17,6 +17,8 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 
 import javax.imageio.ImageIO;
@@ -87,6 +89,10 @@ public class GrassCoverageReader {
 
     private boolean castDoubleToFloating = false;
 
+    private boolean useMemoryMappedReading = false;
+
+    private int readingThreads = 1;
+
     private IProgressMonitorJGrass monitor = new DummyProgressMonitor();
 
     private JGrassMapEnvironment jgMapEnvironment;
@@ -97,6 +103,18 @@ public class GrassCoverageReader {
 
     private String categoriesString;
 
+    /**
+     * The maximum number of tiled images kept in {@link #tiledImagesCache}.
+     */
+    private static final int MAX_TILED_IMAGES = 16;
+
+    /**
+     * The tiled images of the maps read in tiles, kept to reuse the cached tiles, in access order
+     * so that the least recently used is evicted first.
+     */
+    private static final LinkedHashMap<String, CachedTiledImage> tiledImagesCache = new LinkedHashMap<String, CachedTiledImage>(
+            16, 0.75f, true);
+
     /**
      * Constructor for the {@link GrassCoverageReader}.
      * 
@@ -148,10 +166,44 @@ public class GrassCoverageReader {
     public void setInput( File input ) {
         imageReader = new GrassBinaryImageReader(new GrassBinaryImageReaderSpi());
         imageReader.setInput(input);
+        imageReader.setUseMemoryMappedReading(useMemoryMappedReading);
+        imageReader.setReadingThreads(readingThreads);
         jgMapEnvironment = new JGrassMapEnvironment(input);
         name = input.getName();
     }
 
+    /**
+     * Sets the flag that defines whether the map files are read through memory
+     * mapping.
+     * 
+     * @param useMemoryMappedReading
+     *            if true, the data and null files are memory mapped and the
+     *            rows are decoded from the mapped buffers.
+     * @see GrassBinaryRasterReadHandler#setUseMemoryMappedReading(boolean)
+     */
+    public void setUseMemoryMappedReading( boolean useMemoryMappedReading ) {
+        this.useMemoryMappedReading = useMemoryMappedReading;
+        if (imageReader != null) {
+            imageReader.setUseMemoryMappedReading(useMemoryMappedReading);
+        }
+    }
+
+    /**
+     * Sets the number of threads used to decode the rows of the map.
+     * 
+     * @param readingThreads
+     *            the number of threads, 1 for sequential reading. With more
+     *            threads the rows are decompressed concurrently from the
+     *            memory mapped map files.
+     * @see GrassBinaryRasterReadHandler#setReadingThreads(int)
+     */
+    public void setReadingThreads( int readingThreads ) {
+        this.readingThreads = readingThreads;
+        if (imageReader != null) {
+            imageReader.setReadingThreads(readingThreads);
+        }
+    }
+
     /**
      * Performs the reading of the coverage.
      * <p>
@@ -405,8 +457,18 @@ public class GrassCoverageReader {
         imageReadParam.setSourceSubsampling(subSamplingX, subSamplingY, 0, 0);
         RenderedImage finalImage = null;
 
-        BufferedImage image = imageReader.read(0, imageReadParam, useSubSamplingAsRequestedColsRows, castDoubleToFloating,
-                monitor);
+        RenderedImage image = null;
+        if (readParam != null && readParam.isTiled() && sourceRegion.width <= requestedCols
+                && sourceRegion.height <= requestedRows) {
+            /*
+             * no subsampling is needed, so only the tiles covering the source
+             * region are decoded.
+             */
+            image = readTiled(sourceRegion, readParam.getTileWidth(), readParam.getTileHeight());
+        }
+        if (image == null) {
+            image = imageReader.read(0, imageReadParam, useSubSamplingAsRequestedColsRows, castDoubleToFloating, monitor);
+        }
         int imageWidth = image.getWidth();
         int imageHeight = image.getHeight();
         if (requestedSouth < fileSouth || requestedWest < fileWest || requestedEast > fileEast || requestedNorth > fileNorth) {
@@ -484,6 +546,114 @@ public class GrassCoverageReader {
 
     }
 
+    /**
+     * Reads the source region out of the tiled image of the map.
+     * 
+     * <p>
+     * The parts of the source region that are east and south of the map are
+     * filled with novalues, as the imageio reader does.
+     * </p>
+     * 
+     * @param sourceRegion
+     *            the region to read in image space.
+     * @param tileWidth
+     *            the width of the tiles.
+     * @param tileHeight
+     *            the height of the tiles.
+     * @return the image of the source region with origin in 0,0 or
+     *         <code>null</code>, if the region doesn't intersect the map.
+     * @throws IOException
+     */
+    private RenderedImage readTiled( Rectangle sourceRegion, int tileWidth, int tileHeight ) throws IOException {
+        RenderedImage tiledImage = getTiledImage(tileWidth, tileHeight);
+        Rectangle bounds = new Rectangle(tiledImage.getMinX(), tiledImage.getMinY(), tiledImage.getWidth(), tiledImage
+                .getHeight());
+        Rectangle inside = sourceRegion.intersection(bounds);
+        if (inside.isEmpty()) {
+            return null;
+        }
+
+        ParameterBlock block = new ParameterBlock();
+        block.addSource(tiledImage);
+        block.add((float) inside.x);
+        block.add((float) inside.y);
+        block.add((float) inside.width);
+        block.add((float) inside.height);
+        RenderedOp croppedImage = JAI.create("crop", block);
+
+        block = new ParameterBlock();
+        block.addSource(croppedImage);
+        block.add((float) -inside.x);
+        block.add((float) -inside.y);
+        RenderedImage windowImage = JAI.create("translate", block);
+
+        int xPaddingDx = (sourceRegion.x + sourceRegion.width) - (inside.x + inside.width);
+        int yPaddingBottom = (sourceRegion.y + sourceRegion.height) - (inside.y + inside.height);
+        if (xPaddingDx > 0 || yPaddingBottom > 0) {
+            block = new ParameterBlock();
+            block.addSource(windowImage);
+            block.add(0);
+            block.add(xPaddingDx);
+            block.add(0);
+            block.add(yPaddingBottom);
+            block.add(new BorderExtenderConstant(new double[]{Double.NaN}));
+            windowImage = JAI.create("Border", block);
+        }
+        return windowImage;
+    }
+
+    /**
+     * Gets the tiled image of the whole map at native resolution.
+     * 
+     * <p>
+     * The images are shared between readers, so that the tiles already
+     * decoded and kept in the JAI tile cache are reused by subsequent reads of
+     * the same map. At most {@link #MAX_TILED_IMAGES} images are kept, the
+     * least recently used being evicted, and an image is recreated if the map
+     * has been modified. The reader of an evicted image is disposed, closing
+     * its files, which are opened again if the image is still read.
+     * </p>
+     * 
+     * @param tileWidth
+     *            the width of the tiles.
+     * @param tileHeight
+     *            the height of the tiles.
+     * @return the tiled image.
+     */
+    private RenderedImage getTiledImage( int tileWidth, int tileHeight ) {
+        File cellFile = jgMapEnvironment.getCELL();
+        long lastModified = jgMapEnvironment.getCELLHD().lastModified();
+        String key = cellFile.getAbsolutePath() + ":" + tileWidth + "x" + tileHeight + ":" + castDoubleToFloating; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        synchronized (tiledImagesCache) {
+            CachedTiledImage tiledImage = tiledImagesCache.get(key);
+            if (tiledImage != null && tiledImage.lastModified == lastModified) {
+                return tiledImage.image;
+            }
+            if (tiledImage != null) {
+                tiledImagesCache.remove(key);
+                tiledImage.dispose();
+            } else if (tiledImagesCache.size() >= MAX_TILED_IMAGES) {
+                Iterator<CachedTiledImage> iterator = tiledImagesCache.values().iterator();
+                CachedTiledImage eldest = iterator.next();
+                iterator.remove();
+                eldest.dispose();
+            }
+
+            GrassBinaryImageReader tilesReader = new GrassBinaryImageReader(new GrassBinaryImageReaderSpi());
+            tilesReader.setInput(cellFile);
+            tilesReader.setUseMemoryMappedReading(useMemoryMappedReading);
+
+            ImageLayout layout = new ImageLayout();
+            layout.setTileWidth(tileWidth);
+            layout.setTileHeight(tileHeight);
+            RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+            RenderedImage image = GrassFileReadDescriptor.create(cellFile, 0, false, false, null, null,
+                    new ImageReadParam(), tilesReader, monitor, false, castDoubleToFloating, hints);
+            tiledImagesCache.put(key, new CachedTiledImage(image, tilesReader, lastModified));
+            return image;
+        }
+    }
+
     private RenderedImage setPadding( int xPaddingSx, int xPaddingDx, int yPaddingTop, int yPaddingBottom, RenderedImage image ) {
         ParameterBlock block = new ParameterBlock();
         block.addSource(image);
@@ -734,4 +904,30 @@ public class GrassCoverageReader {
     public double[] getRange() {
         return range;
     }
+
+    /**
+     * A tiled image of {@link #tiledImagesCache} with the reader of its tiles.
+     */
+    private static class CachedTiledImage {
+        private final RenderedImage image;
+
+        private final GrassBinaryImageReader reader;
+
+        private final long lastModified;
+
+        public CachedTiledImage( RenderedImage image, GrassBinaryImageReader reader, long lastModified ) {
+            this.image = image;
+            this.reader = reader;
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Closes the files of the reader, the tiles being read holding its lock.
+         */
+        public void dispose() {
+            synchronized (reader) {
+                reader.dispose();
+            }
+        }
+    }
 }
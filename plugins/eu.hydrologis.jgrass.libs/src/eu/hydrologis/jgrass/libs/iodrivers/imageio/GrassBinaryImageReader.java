@@ -17,6 +17,7 @@
  */
 package eu.hydrologis.jgrass.libs.iodrivers.imageio;
 
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
@@ -138,6 +139,8 @@ public class GrassBinaryImageReader extends ImageReader {
 
     private boolean useSubSamplingAsRequestedRowcols = false;
     private boolean castDoubleToFloating = false;
+    private boolean useMemoryMappedReading = false;
+    private int readingThreads = 1;
 
     /**
      * A progress monitor, set to a dummy one, in the case it is not set by the user.
@@ -152,6 +155,34 @@ public class GrassBinaryImageReader extends ImageReader {
         this.castDoubleToFloating = castDoubleToFloating;
     }
 
+    /**
+     * Sets the memory mapped reading mode of the underlying {@link GrassBinaryRasterReadHandler}.
+     * 
+     * @param useMemoryMappedReading if true, the raster files are memory mapped instead of being
+     *        read through seeks.
+     * @see GrassBinaryRasterReadHandler#setUseMemoryMappedReading(boolean)
+     */
+    public void setUseMemoryMappedReading( boolean useMemoryMappedReading ) {
+        this.useMemoryMappedReading = useMemoryMappedReading;
+        if (rasterHandler != null) {
+            rasterHandler.setUseMemoryMappedReading(useMemoryMappedReading);
+        }
+    }
+
+    /**
+     * Sets the number of threads the underlying {@link GrassBinaryRasterReadHandler} uses to
+     * decode the rows.
+     * 
+     * @param readingThreads the number of threads, 1 for sequential reading.
+     * @see GrassBinaryRasterReadHandler#setReadingThreads(int)
+     */
+    public void setReadingThreads( int readingThreads ) {
+        this.readingThreads = readingThreads;
+        if (rasterHandler != null) {
+            rasterHandler.setReadingThreads(readingThreads);
+        }
+    }
+
     /**
      * constructs an {@link ImageReader} able to read grass raster maps.
      * 
@@ -178,6 +209,8 @@ public class GrassBinaryImageReader extends ImageReader {
     private void ensureOpen() throws IOException {
         if (rasterHandler == null) {
             rasterHandler = new GrassBinaryRasterReadHandler((File) input);
+            rasterHandler.setUseMemoryMappedReading(useMemoryMappedReading);
+            rasterHandler.setReadingThreads(readingThreads);
             rasterHandler.parseHeaderAndAccessoryFiles();
         }
     }
@@ -327,6 +360,29 @@ public class GrassBinaryImageReader extends ImageReader {
         }
     }
 
+    /**
+     * Reads a tile of the image at its native resolution.
+     * 
+     * <p>
+     * Only the rows and columns of the map covering the tile are decoded.
+     * </p>
+     * 
+     * @param imageIndex the index of the image.
+     * @param tileRect the tile to read in image space.
+     * @return the read tile, with origin in 0,0.
+     * @throws IOException
+     * @see GrassBinaryRasterReadHandler#readRasterTile(java.awt.Rectangle)
+     */
+    public WritableRaster readTile( final int imageIndex, Rectangle tileRect ) throws IOException {
+        ensureOpen();
+        rasterHandler.setUseMemoryMappedReading(useMemoryMappedReading);
+        try {
+            return rasterHandler.readRasterTile(tileRect);
+        } catch (DataFormatException e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+    }
+
     /**
      * A simple method which returns the proper {@link GrassBinaryRasterReadHandler} used to perform
      * reading operations
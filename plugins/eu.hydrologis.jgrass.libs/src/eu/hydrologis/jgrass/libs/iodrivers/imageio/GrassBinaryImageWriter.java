@@ -31,6 +31,7 @@ import eu.hydrologis.jgrass.libs.iodrivers.JGrassMapEnvironment;
 import eu.hydrologis.jgrass.libs.iodrivers.imageio.io.core.GrassBinaryRasterWriteHandler;
 import eu.hydrologis.jgrass.libs.iodrivers.imageio.spi.GrassBinaryImageWriterSpi;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
 import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 
@@ -55,6 +56,8 @@ public class GrassBinaryImageWriter extends ImageWriter {
 
     private IProgressMonitorJGrass monitor = new DummyProgressMonitor();
 
+    private int writingThreads = ParallelUtilities.getAvailableProcessors();
+
     public GrassBinaryImageWriter( GrassBinaryImageWriterSpi originatingProvider,
             IProgressMonitorJGrass monitor ) {
         super(originatingProvider);
@@ -78,6 +81,7 @@ public class GrassBinaryImageWriter extends ImageWriter {
             JGrassMapEnvironment tmp = new JGrassMapEnvironment(outFile);
             rasterWriter = new GrassBinaryRasterWriteHandler(tmp.getMAPSET(), tmp.getMapName(),
                     monitor);
+            rasterWriter.setWritingThreads(writingThreads);
             try {
                 if (writeRegion==null) {
                     writeRegion = rasterWriter.getWriteRegion();
@@ -94,6 +98,19 @@ public class GrassBinaryImageWriter extends ImageWriter {
         }
     }
 
+    /**
+     * Sets the number of threads used to compress the rows of the written map.
+     * 
+     * @param writingThreads the number of threads, 1 to compress on the writing thread.
+     * @see GrassBinaryRasterWriteHandler#setWritingThreads(int)
+     */
+    public void setWritingThreads( int writingThreads ) {
+        this.writingThreads = writingThreads;
+        if (rasterWriter != null) {
+            rasterWriter.setWritingThreads(writingThreads);
+        }
+    }
+
     public void write( IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param )
             throws IOException {
 
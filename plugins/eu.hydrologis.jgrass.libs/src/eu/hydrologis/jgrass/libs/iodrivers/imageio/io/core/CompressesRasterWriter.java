@@ -19,9 +19,22 @@ package eu.hydrologis.jgrass.libs.iodrivers.imageio.io.core;
 
 import java.awt.Rectangle;
 import java.awt.image.RenderedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.zip.Deflater;
 
 import javax.imageio.stream.ImageOutputStream;
@@ -31,6 +44,7 @@ import javax.media.jai.iterator.RectIter;
 import javax.media.jai.iterator.RectIterFactory;
 
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
 import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 
@@ -244,6 +258,208 @@ public class CompressesRasterWriter {
             theCreatedFile.writeInt((int) rowaddresses[i]);
         }
     }
+
+    /**
+     * Compress and write data read row by row from a {@link RasterRowSource}.
+     * <p>
+     * The rows are pulled in order on the calling thread and deflated concurrently by
+     * <code>threads</code> threads, reusing pooled {@link Deflater}s. The compressed rows are
+     * written in order through a single {@link FileChannel} and the row addresses are written in the
+     * header once all the rows are done. Only a few rows per thread are kept in memory. The written
+     * files are the same as the ones of
+     * {@link #compressAndWrite(ImageOutputStream, ImageOutputStream, RenderedImage)}.
+     * </p>
+     * 
+     * @param dataFile the file of the map (in fcell).
+     * @param nullFile the file of the null map (in cell_misc).
+     * @param rowSource the source of the rows to write.
+     * @param threads the number of threads used to compress the rows.
+     * @throws IOException
+     */
+    public void compressAndWrite( File dataFile, File nullFile, RasterRowSource rowSource,
+            int threads ) throws IOException {
+        final int numberofbytes = outputToDiskType * 4;
+        final int dataWindowCols = dataWindow.getCols();
+        int dataWindowRows = dataWindow.getRows();
+        final int nullRowBytes = (dataWindowCols + 7) / 8;
+
+        FileOutputStream dataStream = new FileOutputStream(dataFile);
+        FileChannel dataChannel = dataStream.getChannel();
+        OutputStream nullStream = new BufferedOutputStream(new FileOutputStream(nullFile));
+        ExecutorService pool = threads > 1 ? ParallelUtilities.newFixedThreadPool(threads) : null;
+        final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+        LinkedList<Future<CompressedRow>> pendingRows = new LinkedList<Future<CompressedRow>>();
+        int maxPendingRows = Math.max(1, threads) * 4;
+        try {
+            /*
+             * the header: the size of a row address followed by the addresses, that are filled
+             * after the compression
+             */
+            ByteBuffer header = ByteBuffer.allocate(1 + 4 * rowaddresses.length);
+            header.put(0, (byte) 4);
+            writeFully(dataChannel, header);
+            rowaddresses[0] = pointerInFilePosition = dataChannel.position();
+
+            monitor.beginTask("Writing map to disk: " + mapName, dataWindowRows);
+            int writtenRows = 0;
+            for( int i = 0; i < dataWindowRows; i++ ) {
+                final double[] values = new double[dataWindowCols];
+                rowSource.readRow(i, values);
+                Callable<CompressedRow> task = new Callable<CompressedRow>(){
+                    public CompressedRow call() {
+                        return compressRow(values, numberofbytes, nullRowBytes, deflaters);
+                    }
+                };
+                if (pool != null) {
+                    pendingRows.add(pool.submit(task));
+                } else {
+                    FutureTask<CompressedRow> futureTask = new FutureTask<CompressedRow>(task);
+                    futureTask.run();
+                    pendingRows.add(futureTask);
+                }
+                while( pendingRows.size() >= maxPendingRows ) {
+                    writeRow(dataChannel, nullStream, pendingRows.removeFirst(), writtenRows++);
+                }
+            }
+            while( !pendingRows.isEmpty() ) {
+                writeRow(dataChannel, nullStream, pendingRows.removeFirst(), writtenRows++);
+            }
+            monitor.done();
+
+            /*
+             * now that all the compressed rows are written to file, we have to write their
+             * addresses in the header
+             */
+            ByteBuffer addresses = ByteBuffer.allocate(4 * rowaddresses.length);
+            for( int i = 0; i < rowaddresses.length; i++ ) {
+                addresses.putInt((int) rowaddresses[i]);
+            }
+            addresses.flip();
+            dataChannel.position(1);
+            writeFully(dataChannel, addresses);
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            Deflater deflater;
+            while( (deflater = deflaters.poll()) != null ) {
+                deflater.end();
+            }
+            dataChannel.close();
+            dataStream.close();
+            nullStream.close();
+        }
+    }
+
+    /**
+     * Converts a row to the bytes of the map and of the null map and deflates it.
+     * <p>
+     * This runs concurrently on different rows and only touches the row it is given.
+     * </p>
+     */
+    private CompressedRow compressRow( double[] values, int numberofbytes, int nullRowBytes,
+            Queue<Deflater> deflaters ) {
+        CompressedRow compressedRow = new CompressedRow();
+        compressedRow.nullRow = new byte[nullRowBytes];
+        byte[] rowAsBytes = new byte[values.length * numberofbytes];
+        ByteBuffer rowAsByteBuffer = ByteBuffer.wrap(rowAsBytes);
+        for( int j = 0; j < values.length; j++ ) {
+            double value = values[j];
+            if (Double.isNaN(value) || value == novalue) {
+                // put in the map the placeholder = 0.0 and set the bit of the null map
+                if (numberofbytes == 8) {
+                    rowAsByteBuffer.putDouble(0.0);
+                } else {
+                    rowAsByteBuffer.putFloat(0f);
+                }
+                compressedRow.nullRow[j >> 3] |= (byte) (0x80 >>> (j & 7));
+            } else {
+                if (value < compressedRow.min)
+                    compressedRow.min = value;
+                if (value > compressedRow.max)
+                    compressedRow.max = value;
+                if (numberofbytes == 8) {
+                    rowAsByteBuffer.putDouble(value);
+                } else {
+                    rowAsByteBuffer.putFloat((float) value);
+                }
+            }
+        }
+
+        Deflater compresser = deflaters.poll();
+        if (compresser == null) {
+            compresser = new Deflater();
+        } else {
+            compresser.reset();
+        }
+        try {
+            compresser.setInput(rowAsBytes);
+            compresser.finish();
+            /*
+             * jgrass always uses compression, so the first byte of the row will always be 49, i.e.
+             * 1 which means that the row is compressed
+             */
+            byte[] output = new byte[rowAsBytes.length * 2 + 1];
+            output[0] = 49;
+            int length = 1;
+            while( !compresser.finished() ) {
+                if (length == output.length) {
+                    byte[] tmp = new byte[output.length * 2];
+                    System.arraycopy(output, 0, tmp, 0, length);
+                    output = tmp;
+                }
+                length += compresser.deflate(output, length, output.length - length);
+            }
+            compressedRow.data = output;
+            compressedRow.length = length;
+        } finally {
+            deflaters.add(compresser);
+        }
+        return compressedRow;
+    }
+
+    /**
+     * Writes a compressed row to the map files, sets its address and updates the range.
+     */
+    private void writeRow( FileChannel dataChannel, OutputStream nullStream,
+            Future<CompressedRow> pendingRow, int row ) throws IOException {
+        CompressedRow compressedRow;
+        try {
+            compressedRow = pendingRow.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e.getLocalizedMessage());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getLocalizedMessage());
+        }
+        monitor.worked(1);
+        nullStream.write(compressedRow.nullRow);
+        writeFully(dataChannel, ByteBuffer.wrap(compressedRow.data, 0, compressedRow.length));
+        rowaddresses[row + 1] = pointerInFilePosition = dataChannel.position();
+
+        if (compressedRow.min < range[0])
+            range[0] = compressedRow.min;
+        if (compressedRow.max > range[1])
+            range[1] = compressedRow.max;
+    }
+
+    private static void writeFully( FileChannel channel, ByteBuffer buffer ) throws IOException {
+        while( buffer.hasRemaining() ) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * A row ready to be written: the compressed data, the null map bytes and the range of the
+     * values.
+     */
+    private static class CompressedRow {
+        private byte[] data;
+        private int length;
+        private byte[] nullRow;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+    }
+
     public JGrassRegion getDataWindow() {
         return dataWindow;
     }
@@ -27,9 +27,6 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.util.Date;
 
-import javax.imageio.ImageIO;
-import javax.imageio.stream.ImageOutputStream;
-
 import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -39,6 +36,7 @@ import eu.hydrologis.jgrass.libs.iodrivers.imageio.GrassBinaryImageReader;
 import eu.hydrologis.jgrass.libs.iodrivers.imageio.metadata.GrassBinaryImageMetadata;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
 import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 
@@ -56,16 +54,6 @@ import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
  */
 public class GrassBinaryRasterWriteHandler {
 
-    /**
-     * {@linkplain ImageOutputStream} used to write the data to file.
-     */
-    private ImageOutputStream imageOS = null;
-
-    /**
-     * {@linkplain ImageOutputStream} used to write the data's null bitmap to file.
-     */
-    private ImageOutputStream imageNullFileOS = null;
-
     /**
      * the value used to represent non existing data for in the raster.
      */
@@ -82,11 +70,6 @@ public class GrassBinaryRasterWriteHandler {
      */
     private long[] addressesOfRows;
 
-    /**
-     * the current position of the pointer in the file.
-     */
-    private long pointerInFilePosition = 0l;
-
     /**
      * the range of the raster map as an array of minimum value and maximum value.
      */
@@ -104,6 +87,11 @@ public class GrassBinaryRasterWriteHandler {
     private boolean jump = false;
 
     private boolean abortRequired;
+
+    /**
+     * the number of threads used to compress the rows.
+     */
+    private int writingThreads = ParallelUtilities.getAvailableProcessors();
     
     private JGrassRegion writeRegion = null;
 
@@ -140,37 +128,54 @@ public class GrassBinaryRasterWriteHandler {
      */
     public void writeRaster( RenderedImage renderedImage, int columns, int rows, double west,
             double south, double xRes, double yRes, double noDataValue ) throws IOException {
+        writeRaster(new RenderedImageRowSource(renderedImage), columns, rows, west, south, xRes,
+                yRes, noDataValue);
+    }
+
+    /**
+     * Writes the raster, given a source of rows and region metadata.
+     * <p>
+     * The rows are pulled one after the other from the source, so the raster never has to be
+     * completely in memory. They are compressed by {@link #setWritingThreads(int) concurrent
+     * threads} and written in order.
+     * </p>
+     * 
+     * @param rowSource the {@link RasterRowSource} supplying the rows to write.
+     * @param columns the columns of the raster to write.
+     * @param rows the rows of the raster to write.
+     * @param west the western bound of the raster to write.
+     * @param south the southern bound of the raster to write.
+     * @param xRes the east-west resolution of the raster to write.
+     * @param yRes the north-south resolution of the raster to write.
+     * @param noDataValue the value representing noData.
+     * @throws IOException
+     */
+    public void writeRaster( RasterRowSource rowSource, int columns, int rows, double west,
+            double south, double xRes, double yRes, double noDataValue ) throws IOException {
         boolean hasListeners = false;
         if (!checkStructure())
             throw new IOException("Inconsistent output structure for grass map. Check your paths.");
 
-        /*
-         * open the streams: the file for the map to create but also the needed null-file inside of
-         * the cell_misc folder
-         */
-        imageOS = ImageIO.createImageOutputStream(writerGrassEnv.getFCELL());
-        imageNullFileOS = ImageIO.createImageOutputStream(writerGrassEnv.getCELLMISC_NULL());
-
         double east = west + ((double) columns) * xRes;
         double north = south + ((double) rows) * yRes;
 
         JGrassRegion dataWindow = new JGrassRegion(west, east, south, north, rows, columns);
 
-        createEmptyHeader(rows);
+        addressesOfRows = new long[rows + 1];
 
         if (hasListeners && abortRequired) {
             return;
         }
 
         /*
-         * finally writing to disk
+         * finally writing to disk: the file for the map to create but also the needed null-file
+         * inside of the cell_misc folder
          */
         CompressesRasterWriter crwriter = new CompressesRasterWriter(outputToDiskType, noDataValue,
-                jump, range, pointerInFilePosition, addressesOfRows, dataWindow, monitor,
-                writerGrassEnv.getMapName());
-        crwriter.compressAndWrite(imageOS, imageNullFileOS, renderedImage);
+                jump, range, 0, addressesOfRows, dataWindow, monitor, writerGrassEnv.getMapName());
+        crwriter.compressAndWrite(writerGrassEnv.getFCELL(), writerGrassEnv.getCELLMISC_NULL(),
+                rowSource, writingThreads);
         createUtilityFiles(dataWindow);
-
     }
 
     /**
@@ -193,12 +198,31 @@ public class GrassBinaryRasterWriteHandler {
 
     /**
      * Closes the I/O streams.
+     * <p>
+     * The map files are closed as soon as they are written, this is kept for the writers that
+     * expect it.
+     * </p>
      */
     public void close() throws IOException {
-        if (imageOS != null) {
-            imageOS.close();
-            imageNullFileOS.close();
-        }
+    }
+
+    /**
+     * Setter for the number of threads used to compress the rows.
+     * 
+     * @param writingThreads the number of threads, 1 to compress on the writing thread. The
+     *        default is the number of available processors.
+     */
+    public void setWritingThreads( int writingThreads ) {
+        this.writingThreads = Math.max(1, writingThreads);
+    }
+
+    /**
+     * Getter for the number of threads used to compress the rows.
+     * 
+     * @return the number of writing threads.
+     */
+    public int getWritingThreads() {
+        return writingThreads;
     }
 
     /**
@@ -255,31 +279,6 @@ public class GrassBinaryRasterWriteHandler {
         return true;
     }
 
-    /**
-     * Creates the binary header for the raster file.
-     * <p>
-     * The space for the header of the rasterfile is created, filling the spaces with zeros. After
-     * the compression the values will be rewritten
-     * </p>
-     * 
-     * @param rows number of rows that will be written.
-     * @throws IOException if an error occurs while trying to write the header.
-     */
-    private void createEmptyHeader( int rows ) throws IOException {
-        addressesOfRows = new long[rows + 1];
-        // the size of a long in C?
-        imageOS.write(4);
-        // write the addresses of the row begins. Since we don't know how
-        // much
-        // they will be compressed, they will be filled after the
-        // compression
-        for( int i = 0; i < rows + 1; i++ ) {
-            imageOS.writeInt(0);
-        }
-        pointerInFilePosition = imageOS.getStreamPosition();
-        addressesOfRows[0] = pointerInFilePosition;
-    }
-
     /**
      * Creates all support files needed in the grass filesystem for a raster map.
      * 
@@ -0,0 +1,152 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.iodrivers.imageio.io.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read only, memory mapped view of a grass raster file.
+ *
+ * <p>
+ * Since a single {@link MappedByteBuffer} can't address more than 2 GB, the file
+ * is mapped in consecutive segments. Reads that cross a segment boundary are
+ * handled transparently.
+ * </p>
+ * <p>
+ * Reads use absolute positions on duplicates of the mapped segments, so one
+ * instance can be shared between threads.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 1.2.0
+ * @see GrassBinaryRasterReadHandler
+ */
+public class MappedRasterFile {
+
+    /**
+     * The default size of a mapped segment (1 GB).
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final long length;
+    private final int segmentSize;
+    private MappedByteBuffer[] segments;
+
+    /**
+     * Maps the given file with the {@link #DEFAULT_SEGMENT_SIZE default segment size}.
+     *
+     * @param file the file to map.
+     * @throws IOException
+     */
+    public MappedRasterFile( File file ) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Maps the given file.
+     *
+     * @param file the file to map.
+     * @param segmentSize the size in bytes of the single mapped segments.
+     * @throws IOException
+     */
+    public MappedRasterFile( File file, int segmentSize ) throws IOException {
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("The segment size has to be positive.");
+        }
+        this.segmentSize = segmentSize;
+        raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        length = channel.size();
+
+        int segmentsNum = (int) ((length + segmentSize - 1) / segmentSize);
+        segments = new MappedByteBuffer[segmentsNum];
+        for( int i = 0; i < segmentsNum; i++ ) {
+            long start = (long) i * segmentSize;
+            long size = Math.min(segmentSize, length - start);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+    }
+
+    /**
+     * @return the length of the mapped file in bytes.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Reads a single byte.
+     *
+     * @param position the absolute position in the file.
+     * @return the unsigned value of the byte.
+     */
+    public int read( long position ) {
+        int segment = (int) (position / segmentSize);
+        int offset = (int) (position % segmentSize);
+        return segments[segment].get(offset) & 0xff;
+    }
+
+    /**
+     * Reads a block of bytes into the supplied array.
+     *
+     * @param position the absolute position in the file.
+     * @param dst the array to fill.
+     * @param off the offset in the array.
+     * @param len the number of bytes to read.
+     */
+    public void read( long position, byte[] dst, int off, int len ) {
+        if (position + len > length) {
+            throw new IndexOutOfBoundsException("Read beyond the end of the mapped file: "
+                    + (position + len) + " > " + length);
+        }
+        while( len > 0 ) {
+            int segment = (int) (position / segmentSize);
+            int offset = (int) (position % segmentSize);
+            ByteBuffer view = segments[segment].duplicate();
+            int chunk = Math.min(len, view.limit() - offset);
+            view.position(offset);
+            view.get(dst, off, chunk);
+            position += chunk;
+            off += chunk;
+            len -= chunk;
+        }
+    }
+
+    /**
+     * Releases the mapping and closes the underlying file.
+     *
+     * <p>
+     * The mapped memory is given back as soon as the buffers are garbage collected.
+     * </p>
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        segments = null;
+        channel.close();
+        raf.close();
+    }
+
+}
@@ -0,0 +1,50 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.iodrivers.imageio.io.core;
+
+import java.io.IOException;
+
+/**
+ * A source of raster rows, used to write a map without having the whole
+ * raster in memory.
+ *
+ * <p>
+ * The rows are always requested in order, from the northern row to the
+ * southern one, and always from the same thread, so implementations don't
+ * need to be thread safe.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 3.0
+ * @see CompressesRasterWriter#compressAndWrite(java.io.File, java.io.File,
+ *      RasterRowSource, int)
+ */
+public interface RasterRowSource {
+
+    /**
+     * Fills the supplied array with the values of a row.
+     *
+     * @param row
+     *            the index of the row, starting from the northern row.
+     * @param values
+     *            the array to fill, as long as the number of columns.
+     * @throws IOException
+     */
+    public void readRow( int row, double[] values ) throws IOException;
+
+}
@@ -0,0 +1,65 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.iodrivers.imageio.io.core;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+
+/**
+ * A {@link RasterRowSource} reading the first band of a {@link RenderedImage}.
+ *
+ * <p>
+ * The image is pulled in strips of rows, following its tile layout, so that
+ * only a strip at a time is copied out of the image instead of the whole
+ * raster.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ * @since 3.0
+ */
+public class RenderedImageRowSource implements RasterRowSource {
+
+    /**
+     * The maximum number of rows pulled at once from images with very high
+     * tiles.
+     */
+    private static final int MAX_STRIP_HEIGHT = 256;
+
+    private final RenderedImage renderedImage;
+    private final int stripHeight;
+    private Raster strip = null;
+
+    /**
+     * @param renderedImage
+     *            the image to read the rows from.
+     */
+    public RenderedImageRowSource( RenderedImage renderedImage ) {
+        this.renderedImage = renderedImage;
+        stripHeight = Math.max(1, Math.min(renderedImage.getTileHeight(), MAX_STRIP_HEIGHT));
+    }
+
+    public void readRow( int row, double[] values ) {
+        if (strip == null || row >= strip.getMinY() + strip.getHeight()) {
+            int height = Math.min(stripHeight, renderedImage.getHeight() - row);
+            strip = renderedImage.getData(new Rectangle(0, row, values.length, height));
+        }
+        strip.getSamples(0, row, values.length, 1, 0, values);
+    }
+
+}
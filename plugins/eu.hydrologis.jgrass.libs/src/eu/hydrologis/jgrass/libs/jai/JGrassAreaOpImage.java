@@ -2,6 +2,7 @@ package eu.hydrologis.jgrass.libs.jai;
 
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
@@ -14,6 +15,11 @@ import javax.media.jai.ImageLayout;
 import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.messages.Messages;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 /**
  * An useful extension of AreaOpImage which adpat the Image to the geographical map.
  * <p>
@@ -25,12 +31,22 @@ import eu.hydrologis.jgrass.libs.messages.Messages;
  * <p>
  * I have also modified (overriden) some methods to handled the tile.
  * </p>
+ * <p>
+ * When the whole image is computed at once (no tiling) the subclasses can split the work in row
+ * stripes that are computed concurrently, see {@link #computeInStripes}. The number of threads is
+ * passed with the {@link #KEY_COMPUTING_THREADS} rendering hint.
+ * </p>
  * 
  * @author <a href="daniele.andreis@gmail.com">daniele andreis</a>
  * @since 1.1.0
  */
 
 public class JGrassAreaOpImage extends AreaOpImage {
+    /**
+     * The rendering hint holding the number of threads ({@link Integer}) used to compute the
+     * image in row stripes.
+     */
+    public static final RenderingHints.Key KEY_COMPUTING_THREADS = new ThreadsKey(0);
     /**
      * the x resolution.
      */
@@ -55,6 +71,14 @@ public class JGrassAreaOpImage extends AreaOpImage {
      *  the number of tile to be computed.
      */
     protected int numTile = 0;
+    /**
+     * the number of threads used to compute the stripes.
+     */
+    protected int computingThreads = 1;
+    /**
+     * true while the image is computed in stripes.
+     */
+    private volatile boolean inStripes = false;
 
     public JGrassAreaOpImage( RenderedImage source, ImageLayout layout, Map configuration,
             boolean cobbleSources, BorderExtender extender, int leftPadding, int rightPadding,
@@ -66,6 +90,12 @@ public class JGrassAreaOpImage extends AreaOpImage {
         this.yRes = dy;
         this.err = err;
         this.out = out;
+        if (configuration != null) {
+            Object threads = configuration.get(KEY_COMPUTING_THREADS);
+            if (threads instanceof Integer) {
+                computingThreads = (Integer) threads;
+            }
+        }
         if (cobbleSources) {
             // if the cobbleSource is true (doTile=true) then print some information about the tiles
             out.println("tile size = " + this.tileHeight); //$NON-NLS-1$
@@ -142,4 +172,110 @@ public class JGrassAreaOpImage extends AreaOpImage {
 
     }
 
+    /**
+     * @param computingThreads the number of threads used to compute the image in stripes.
+     */
+    public void setComputingThreads( int computingThreads ) {
+        this.computingThreads = computingThreads;
+    }
+
+    /**
+     * @return the number of threads used to compute the image in stripes.
+     */
+    public int getComputingThreads() {
+        return computingThreads;
+    }
+
+    /**
+     * @return true if the region has to be computed through {@link #computeInStripes}.
+     */
+    protected boolean isComputingInStripes() {
+        return computingThreads > 1;
+    }
+
+    /**
+     * Computes a region of the destination in row stripes, on {@link #computingThreads} threads.
+     * <p>
+     * Every stripe gets the part of the source it covers plus the padding around it and is
+     * passed to {@link #computeRect(Raster[], WritableRaster, Rectangle)}, so the subclass has
+     * to compute exactly the rectangle it gets there, using only the source pixels within the
+     * padding. The stripes are disjoint, so they are written into the same destination without
+     * locking. The source is read one stripe at the time, since the sources (for example the
+     * file readers) are not always safe to be read concurrently.
+     * </p>
+     * 
+     * @param source the source image.
+     * @param dest the destination raster.
+     * @param region the region of the destination to compute, the pixels in the padding around it
+     *        have to be inside the source.
+     */
+    protected void computeInStripes( final PlanarImage source, final WritableRaster dest,
+            final Rectangle region ) {
+        if (region.width <= 0 || region.height <= 0) {
+            return;
+        }
+        final Rectangle sourceBounds = source.getBounds();
+        final IProgressMonitorJGrass pm = new PrintStreamProgressMonitor(out);
+        pm.beginTask(Messages.getString("working") + " " + region.height + " rows on " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + computingThreads + " threads...", region.height); //$NON-NLS-1$
+        inStripes = true;
+        try {
+            ParallelUtilities.runInChunks(region.y, region.y + region.height, computingThreads,
+                    new RangeTask(){
+                        public void run( int start, int end ) throws Exception {
+                            Rectangle stripe = new Rectangle(region.x, start, region.width, end
+                                    - start);
+                            Rectangle srcRect = new Rectangle(stripe.x - leftPadding, stripe.y
+                                    - topPadding, stripe.width + leftPadding + rightPadding,
+                                    stripe.height + topPadding + bottomPadding)
+                                    .intersection(sourceBounds);
+                            Raster stripeData;
+                            synchronized (source) {
+                                stripeData = source.getData(srcRect);
+                            }
+                            computeRect(new Raster[]{stripeData}, dest, stripe);
+                            synchronized (pm) {
+                                pm.worked(end - start);
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            inStripes = false;
+        }
+        pm.done();
+    }
+
+    /**
+     * Creates the progress monitor for the computation of a rectangle.
+     * <p>
+     * While computing in stripes the single stripes don't report their progress, since it is
+     * reported for the whole region by {@link #computeInStripes}.
+     * </p>
+     * 
+     * @return the progress monitor.
+     */
+    protected IProgressMonitorJGrass createProgressMonitor() {
+        if (inStripes) {
+            return new DummyProgressMonitor();
+        }
+        return new PrintStreamProgressMonitor(out);
+    }
+
+    /**
+     * The key of the {@link #KEY_COMPUTING_THREADS} hint.
+     */
+    private static class ThreadsKey extends RenderingHints.Key {
+        private ThreadsKey( int privateKey ) {
+            super(privateKey);
+        }
+
+        public boolean isCompatibleValue( Object value ) {
+            return value instanceof Integer && ((Integer) value) > 0;
+        }
+    }
+
 }
@@ -0,0 +1,106 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.jai;
+
+import javax.media.jai.iterator.RandomIter;
+
+import eu.hydrologis.jgrass.libs.map.RasterData;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+
+/**
+ * A {@link RandomIter} over the values of a {@link RasterData}, so that the models reading their
+ * inputs through iterators can read the raster shared between linked models without copying it.
+ * <p>
+ * The iterator has a single band, x being the column and y the row. The cells on the border of
+ * the raster can be read as novalue, the same as iterating over an image with a border of
+ * novalues, in which case the cells outside of the raster are novalue too.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class RasterDataRandomIter implements RandomIter {
+
+    private final RasterData data;
+
+    private final int rows;
+
+    private final int cols;
+
+    private final boolean novalueBorder;
+
+    /**
+     * @param data the values to read.
+     */
+    public RasterDataRandomIter( RasterData data ) {
+        this(data, false);
+    }
+
+    /**
+     * @param data the values to read.
+     * @param novalueBorder if true, the cells on the border of the raster are read as novalue.
+     */
+    public RasterDataRandomIter( RasterData data, boolean novalueBorder ) {
+        this.data = data;
+        this.novalueBorder = novalueBorder;
+        rows = data.getRows();
+        cols = data.getCols();
+    }
+
+    public void done() {
+    }
+
+    public int[] getPixel( int x, int y, int[] iArray ) {
+        if (iArray == null) {
+            iArray = new int[1];
+        }
+        iArray[0] = getSample(x, y, 0);
+        return iArray;
+    }
+
+    public float[] getPixel( int x, int y, float[] fArray ) {
+        if (fArray == null) {
+            fArray = new float[1];
+        }
+        fArray[0] = getSampleFloat(x, y, 0);
+        return fArray;
+    }
+
+    public double[] getPixel( int x, int y, double[] dArray ) {
+        if (dArray == null) {
+            dArray = new double[1];
+        }
+        dArray[0] = getSampleDouble(x, y, 0);
+        return dArray;
+    }
+
+    public int getSample( int x, int y, int b ) {
+        return (int) getSampleDouble(x, y, b);
+    }
+
+    public float getSampleFloat( int x, int y, int b ) {
+        return (float) getSampleDouble(x, y, b);
+    }
+
+    public double getSampleDouble( int x, int y, int b ) {
+        if (novalueBorder && (x < 1 || y < 1 || x >= cols - 1 || y >= rows - 1)) {
+            return JGrassConstants.doubleNovalue;
+        }
+        return data.getValueAt(y, x);
+    }
+
+}
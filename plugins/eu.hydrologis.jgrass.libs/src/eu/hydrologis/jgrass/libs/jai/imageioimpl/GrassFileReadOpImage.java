@@ -65,6 +65,7 @@ import javax.media.jai.OpImage;
 
 import com.sun.media.jai.operator.ImageReadDescriptor;
 
+import eu.hydrologis.jgrass.libs.iodrivers.imageio.GrassBinaryImageReader;
 import eu.hydrologis.jgrass.libs.messages.Messages;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 /**
@@ -547,9 +548,18 @@ public class GrassFileReadOpImage extends OpImage {
         WritableRaster readerTile = null;
         try {
             synchronized (reader) {
-                param.setSourceRegion(srcRect);
-                BufferedImage bi = reader.read(imageIndex, param);
-                WritableRaster ras = bi.getRaster();
+                WritableRaster ras;
+                if (reader instanceof GrassBinaryImageReader && scaleX == 1 && scaleY == 1) {
+                    /*
+                     * at native resolution decode only the rows and columns
+                     * of the map that cover the tile.
+                     */
+                    ras = ((GrassBinaryImageReader) reader).readTile(imageIndex, srcRect);
+                } else {
+                    param.setSourceRegion(srcRect);
+                    BufferedImage bi = reader.read(imageIndex, param);
+                    ras = bi.getRaster();
+                }
                 readerTile = ras.createWritableChild(0, 0, ras.getWidth(), ras.getHeight(), org.x,
                         org.y, null);
             }
@@ -0,0 +1,100 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.map;
+
+/**
+ * <p>
+ * A {@link RasterData} reading the values of a raster shared with others until the first value is
+ * set. At that point the values are copied into a {@link DoubleRasterData} of its own, so that the
+ * shared raster is never changed.
+ * </p>
+ * <p>
+ * This lets a model that changes only some of the values of an input raster, or changes them only
+ * in some cases, start without copying the input up front.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @see DoubleRasterData
+ */
+public class CopyOnWriteRasterData extends FlatRasterData {
+
+    /**
+     * The shared raster, replaced by the copy at the first change.
+     */
+    private FlatRasterData data;
+
+    private boolean copied = false;
+
+    /**
+     * @param shared the raster to read the values from until the first change. It is never
+     *        changed through this raster.
+     */
+    public CopyOnWriteRasterData( FlatRasterData shared ) {
+        super(shared.getRows(), shared.getCols(), shared.getRows());
+        data = shared;
+    }
+
+    /**
+     * @return <code>true</code> if the values were copied because of a change.
+     */
+    public boolean isCopied() {
+        return copied;
+    }
+
+    public double getValueAt( int row, int col ) {
+        return data.getValueAt(row, col);
+    }
+
+    public double getValueAt( int index ) {
+        return data.getValueAt(index);
+    }
+
+    public void setValueAt( int row, int col, double value ) {
+        copy();
+        data.setValueAt(row, col, value);
+    }
+
+    public void setValueAt( int index, double value ) {
+        copy();
+        data.setValueAt(index, value);
+    }
+
+    public void getRow( int row, double[] values ) {
+        data.getRow(row, values);
+    }
+
+    public void setRow( int row, double[] values ) {
+        copy();
+        data.setRow(row, values);
+    }
+
+    private void copy() {
+        if (copied) {
+            return;
+        }
+        DoubleRasterData copy = new DoubleRasterData(rows, cols);
+        double[] values = new double[cols];
+        for( int row = 0; row < rows; row++ ) {
+            data.getRow(row, values);
+            copy.setRow(row, values);
+        }
+        data = copy;
+        copied = true;
+    }
+
+}
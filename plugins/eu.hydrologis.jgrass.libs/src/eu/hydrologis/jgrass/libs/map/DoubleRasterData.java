@@ -0,0 +1,182 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * A {@link RasterData} keeping the values as doubles in row major order.
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @see FlatRasterData
+ */
+public class DoubleRasterData extends FlatRasterData {
+
+    private final DoubleBuffer[] buffers;
+
+    /**
+     * The buffer of every row.
+     */
+    private final DoubleBuffer[] rowBuffers;
+
+    /**
+     * The only buffer if all the values fit in one, else null.
+     */
+    private final DoubleBuffer singleBuffer;
+
+    /**
+     * Creates a raster with the values on the heap.
+     *
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     */
+    public DoubleRasterData( int rows, int cols ) {
+        super(rows, cols, getRowsPerBuffer(rows, cols, 8));
+        buffers = new DoubleBuffer[getBufferCount()];
+        for( int i = 0; i < buffers.length; i++ ) {
+            buffers[i] = DoubleBuffer.wrap(new double[getBufferSize(i)]);
+        }
+        rowBuffers = new DoubleBuffer[rows];
+        singleBuffer = init();
+    }
+
+    /**
+     * Creates a raster with the values in direct memory or mapped on a file.
+     *
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     * @param file the file to map the values on, if null the values are kept in direct memory.
+     * @throws IOException
+     */
+    public DoubleRasterData( int rows, int cols, File file ) throws IOException {
+        super(rows, cols, getRowsPerBuffer(rows, cols, 8));
+        ByteBuffer[] byteBuffers = allocateBuffers(file, 8);
+        buffers = new DoubleBuffer[byteBuffers.length];
+        for( int i = 0; i < buffers.length; i++ ) {
+            buffers[i] = byteBuffers[i].asDoubleBuffer();
+        }
+        rowBuffers = new DoubleBuffer[rows];
+        singleBuffer = init();
+    }
+
+    /**
+     * Creates a raster over existing buffers.
+     *
+     * @param buffers the buffers holding the values in row major order. Every buffer but the last
+     *        has to hold the same whole number of rows.
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     */
+    public DoubleRasterData( DoubleBuffer[] buffers, int rows, int cols ) {
+        super(rows, cols, buffers[0].capacity() / cols);
+        this.buffers = buffers;
+        if (buffers.length != getBufferCount()) {
+            throw new IllegalArgumentException("The buffers don't match the size of the raster."); //$NON-NLS-1$
+        }
+        rowBuffers = new DoubleBuffer[rows];
+        singleBuffer = init();
+    }
+
+    private DoubleBuffer init() {
+        for( int row = 0; row < rows; row++ ) {
+            rowBuffers[row] = buffers[rowBuffer[row]];
+        }
+        return buffers.length == 1 ? buffers[0] : null;
+    }
+
+    /**
+     * Creates a raster with the values on the heap, initializing them.
+     *
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     * @param value the initial value.
+     * @return the raster.
+     */
+    public static DoubleRasterData create( int rows, int cols, double value ) {
+        DoubleRasterData rasterData = new DoubleRasterData(rows, cols);
+        rasterData.fill(value);
+        return rasterData;
+    }
+
+    /**
+     * Sets all the values of the raster.
+     *
+     * @param value the value to set.
+     */
+    public void fill( double value ) {
+        for( DoubleBuffer buffer : buffers ) {
+            for( int i = 0; i < buffer.capacity(); i++ ) {
+                buffer.put(i, value);
+            }
+        }
+    }
+
+    public double getValueAt( int row, int col ) {
+        return rowBuffers[row].get(rowOffset[row] + col);
+    }
+
+    public double getValueAt( int index ) {
+        if (singleBuffer != null) {
+            return singleBuffer.get(index);
+        }
+        int row = index / cols;
+        return rowBuffers[row].get(rowOffset[row] + index - row * cols);
+    }
+
+    public void setValueAt( int row, int col, double value ) {
+        rowBuffers[row].put(rowOffset[row] + col, value);
+    }
+
+    public void setValueAt( int index, double value ) {
+        if (singleBuffer != null) {
+            singleBuffer.put(index, value);
+            return;
+        }
+        int row = index / cols;
+        rowBuffers[row].put(rowOffset[row] + index - row * cols, value);
+    }
+
+    public void getRow( int row, double[] values ) {
+        DoubleBuffer buffer = rowBuffers[row];
+        int offset = rowOffset[row];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, values, 0, cols);
+            return;
+        }
+        // direct, mapped or read only buffers, bulk read through a duplicate to keep the position
+        DoubleBuffer duplicate = buffer.duplicate();
+        duplicate.position(offset);
+        duplicate.get(values, 0, cols);
+    }
+
+    public void setRow( int row, double[] values ) {
+        DoubleBuffer buffer = rowBuffers[row];
+        int offset = rowOffset[row];
+        if (buffer.hasArray()) {
+            System.arraycopy(values, 0, buffer.array(), buffer.arrayOffset() + offset, cols);
+            return;
+        }
+        for( int col = 0; col < cols; col++ ) {
+            buffer.put(offset + col, values[col]);
+        }
+    }
+
+}
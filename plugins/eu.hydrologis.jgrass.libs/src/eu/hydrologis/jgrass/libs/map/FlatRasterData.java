@@ -0,0 +1,218 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>
+ * Base class of the {@link RasterData} implementations that keep the values in row major order in
+ * primitive buffers instead of a matrix.
+ * </p>
+ * <p>
+ * The values are split in one or more buffers, every buffer holding a whole number of rows and at
+ * most {@link #MAX_BUFFER_BYTES} bytes, so that rasters bigger than the size of a java array can
+ * be handled. The buffer and the position of every row are calculated once, so that accessing a
+ * value by row and column costs two array lookups and a sum.
+ * </p>
+ * <p>
+ * The buffers can live on the heap, in direct memory outside of the heap or in a file mapped into
+ * memory. The direct and mapped buffers use the native byte order.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @see DoubleRasterData
+ * @see FloatRasterData
+ * @see IntRasterData
+ */
+public abstract class FlatRasterData implements RasterData {
+
+    /**
+     * The maximum size in bytes of a single buffer.
+     */
+    public static final long MAX_BUFFER_BYTES = 1L << 30;
+
+    protected final int rows;
+
+    protected final int cols;
+
+    /**
+     * The number of rows in every buffer, the last buffer can hold less.
+     */
+    protected final int rowsPerBuffer;
+
+    /**
+     * The index of the buffer holding every row.
+     */
+    protected final int[] rowBuffer;
+
+    /**
+     * The position in its buffer of the first value of every row.
+     */
+    protected final int[] rowOffset;
+
+    /**
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     * @param rowsPerBuffer the number of rows in every buffer.
+     */
+    protected FlatRasterData( int rows, int cols, int rowsPerBuffer ) {
+        if (rows < 1 || cols < 1 || rowsPerBuffer < 1) {
+            throw new IllegalArgumentException("The raster has to have at least one row and one column."); //$NON-NLS-1$
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.rowsPerBuffer = Math.min(rowsPerBuffer, rows);
+        rowBuffer = new int[rows];
+        rowOffset = new int[rows];
+        for( int row = 0; row < rows; row++ ) {
+            rowBuffer[row] = row / this.rowsPerBuffer;
+            rowOffset[row] = (row % this.rowsPerBuffer) * cols;
+        }
+    }
+
+    /**
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     * @param bytesPerValue the size of a value.
+     * @return the number of rows that fit in a buffer of at most {@link #MAX_BUFFER_BYTES} bytes.
+     */
+    protected static int getRowsPerBuffer( int rows, int cols, int bytesPerValue ) {
+        long rowBytes = (long) cols * bytesPerValue;
+        return (int) Math.max(1, Math.min(rows, MAX_BUFFER_BYTES / rowBytes));
+    }
+
+    /**
+     * @return the number of buffers holding the values.
+     */
+    public int getBufferCount() {
+        return (rows + rowsPerBuffer - 1) / rowsPerBuffer;
+    }
+
+    /**
+     * @param buffer the index of a buffer.
+     * @return the number of values held by the buffer.
+     */
+    protected int getBufferSize( int buffer ) {
+        return Math.min(rowsPerBuffer, rows - buffer * rowsPerBuffer) * cols;
+    }
+
+    /**
+     * Allocates the byte buffers for the values, in direct memory or mapped on a file.
+     *
+     * @param file the file to map the buffers on, if null the buffers are allocated in direct
+     *        memory. The file is created or resized as needed.
+     * @param bytesPerValue the size of a value.
+     * @return the buffers, in native byte order.
+     * @throws IOException
+     */
+    protected ByteBuffer[] allocateBuffers( File file, int bytesPerValue ) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[getBufferCount()];
+        if (file == null) {
+            for( int i = 0; i < buffers.length; i++ ) {
+                buffers[i] = ByteBuffer.allocateDirect(getBufferSize(i) * bytesPerValue);
+                buffers[i].order(ByteOrder.nativeOrder());
+            }
+            return buffers;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            raf.setLength((long) rows * cols * bytesPerValue);
+            FileChannel channel = raf.getChannel();
+            long position = 0;
+            for( int i = 0; i < buffers.length; i++ ) {
+                long size = (long) getBufferSize(i) * bytesPerValue;
+                buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+                buffers[i].order(ByteOrder.nativeOrder());
+                position += size;
+            }
+        } finally {
+            // the mapping stays valid after the file is closed
+            raf.close();
+        }
+        return buffers;
+    }
+
+    /**
+     * Copies a row into an array.
+     *
+     * @param row the row to copy.
+     * @param values the array into which the row is copied, at least as long as a row.
+     */
+    public abstract void getRow( int row, double[] values );
+
+    /**
+     * Sets the values of a row.
+     *
+     * @param row the row to set.
+     * @param values the new values of the row.
+     */
+    public abstract void setRow( int row, double[] values );
+
+    public double getValueAt( java.awt.Point point ) {
+        return getValueAt(point.x, point.y);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The row is a copy, changing it doesn't change the raster.
+     * </p>
+     */
+    public double[] getRowValue( int row ) {
+        double[] values = new double[cols];
+        getRow(row, values);
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The matrix is a copy of the whole raster, so this should be used only for small rasters.
+     * </p>
+     */
+    public double[][] getData() {
+        double[][] data = new double[rows][cols];
+        for( int row = 0; row < rows; row++ ) {
+            getRow(row, data[row]);
+        }
+        return data;
+    }
+
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append(getClass().getSimpleName()).append(": rows = ").append(rows).append(" cols = ") //$NON-NLS-1$ //$NON-NLS-2$
+                .append(cols).append(" buffers = ").append(getBufferCount()); //$NON-NLS-1$
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,228 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A {@link RasterData} keeping the values as floats in row major order, using half of the memory
+ * of a {@link DoubleRasterData}.
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @see FlatRasterData
+ */
+public class FloatRasterData extends FlatRasterData {
+
+    private final FloatBuffer[] buffers;
+
+    /**
+     * The buffer of every row.
+     */
+    private final FloatBuffer[] rowBuffers;
+
+    /**
+     * The only buffer if all the values fit in one, else null.
+     */
+    private final FloatBuffer singleBuffer;
+
+    /**
+     * Creates a raster with the values on the heap.
+     *
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     */
+    public FloatRasterData( int rows, int cols ) {
+        super(rows, cols, getRowsPerBuffer(rows, cols, 4));
+        buffers = new FloatBuffer[getBufferCount()];
+        for( int i = 0; i < buffers.length; i++ ) {
+            buffers[i] = FloatBuffer.wrap(new float[getBufferSize(i)]);
+        }
+        rowBuffers = new FloatBuffer[rows];
+        singleBuffer = init();
+    }
+
+    /**
+     * Creates a raster with the values in direct memory or mapped on a file.
+     *
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     * @param file the file to map the values on, if null the values are kept in direct memory.
+     * @throws IOException
+     */
+    public FloatRasterData( int rows, int cols, File file ) throws IOException {
+        super(rows, cols, getRowsPerBuffer(rows, cols, 4));
+        ByteBuffer[] byteBuffers = allocateBuffers(file, 4);
+        buffers = new FloatBuffer[byteBuffers.length];
+        for( int i = 0; i < buffers.length; i++ ) {
+            buffers[i] = byteBuffers[i].asFloatBuffer();
+        }
+        rowBuffers = new FloatBuffer[rows];
+        singleBuffer = init();
+    }
+
+    /**
+     * Creates a raster over existing buffers.
+     *
+     * @param buffers the buffers holding the values in row major order. Every buffer but the last
+     *        has to hold the same whole number of rows.
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     */
+    public FloatRasterData( FloatBuffer[] buffers, int rows, int cols ) {
+        super(rows, cols, buffers[0].capacity() / cols);
+        this.buffers = buffers;
+        if (buffers.length != getBufferCount()) {
+            throw new IllegalArgumentException("The buffers don't match the size of the raster."); //$NON-NLS-1$
+        }
+        rowBuffers = new FloatBuffer[rows];
+        singleBuffer = init();
+    }
+
+    private FloatBuffer init() {
+        for( int row = 0; row < rows; row++ ) {
+            rowBuffers[row] = buffers[rowBuffer[row]];
+        }
+        return buffers.length == 1 ? buffers[0] : null;
+    }
+
+    /**
+     * Creates a raster with the values on the heap, initializing them.
+     *
+     * @param rows the number of rows.
+     * @param cols the number of columns.
+     * @param value the initial value.
+     * @return the raster.
+     */
+    public static FloatRasterData create( int rows, int cols, float value ) {
+        FloatRasterData rasterData = new FloatRasterData(rows, cols);
+        rasterData.fill(value);
+        return rasterData;
+    }
+
+    /**
+     * Sets all the values of the raster.
+     *
+     * @param value the value to set.
+     */
+    public void fill( float value ) {
+        for( FloatBuffer buffer : buffers ) {
+            for( int i = 0; i < buffer.capacity(); i++ ) {
+                buffer.put(i, value);
+            }
+        }
+    }
+
+    /**
+     * @param row the row.
+     * @param col the column.
+     * @return the value at the given row and column.
+     */
+    public float getFloat( int row, int col ) {
+        return rowBuffers[row].get(rowOffset[row] + col);
+    }
+
+    /**
+     * @param row the row.
+     * @param col the column.
+     * @param value the value to set at the given row and column.
+     */
+    public void setFloat( int row, int col, float value ) {
+        rowBuffers[row].put(rowOffset[row] + col, value);
+    }
+
+    public double getValueAt( int row, int col ) {
+        return rowBuffers[row].get(rowOffset[row] + col);
+    }
+
+    public double getValueAt( int index ) {
+        if (singleBuffer != null) {
+            return singleBuffer.get(index);
+        }
+        int row = index / cols;
+        return rowBuffers[row].get(rowOffset[row] + index - row * cols);
+    }
+
+    public void setValueAt( int row, int col, double value ) {
+        rowBuffers[row].put(rowOffset[row] + col, (float) value);
+    }
+
+    public void setValueAt( int index, double value ) {
+        if (singleBuffer != null) {
+            singleBuffer.put(index, (float) value);
+            return;
+        }
+        int row = index / cols;
+        rowBuffers[row].put(rowOffset[row] + index - row * cols, (float) value);
+    }
+
+    public void getRow( int row, double[] values ) {
+        FloatBuffer buffer = rowBuffers[row];
+        int offset = rowOffset[row];
+        for( int col = 0; col < cols; col++ ) {
+            values[col] = buffer.get(offset + col);
+        }
+    }
+
+    public void setRow( int row, double[] values ) {
+        FloatBuffer buffer = rowBuffers[row];
+        int offset = rowOffset[row];
+        for( int col = 0; col < cols; col++ ) {
+            buffer.put(offset + col, (float) values[col]);
+        }
+    }
+
+    /**
+     * Copies a row into an array.
+     *
+     * @param row the row to copy.
+     * @param values the array into which the row is copied, at least as long as a row.
+     */
+    public void getRow( int row, float[] values ) {
+        FloatBuffer buffer = rowBuffers[row];
+        int offset = rowOffset[row];
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, values, 0, cols);
+            return;
+        }
+        for( int col = 0; col < cols; col++ ) {
+            values[col] = buffer.get(offset + col);
+        }
+    }
+
+    /**
+     * Sets the values of a row.
+     *
+     * @param row the row to set.
+     * @param values the new values of the row.
+     */
+    public void setRow( int row, float[] values ) {
+        FloatBuffer buffer = rowBuffers[row];
+        int offset = rowOffset[row];
+        if (buffer.hasArray()) {
+            System.arraycopy(values, 0, buffer.array(), buffer.arrayOffset() + offset, cols);
+            return;
+        }
+        for( int col = 0; col < cols; col++ ) {
+            buffer.put(offset + col, values[col]);
+        }
+    }
+
+}
@@ -57,6 +57,7 @@ public class JGrassRasterMapReader {
      * <li>the number to use internally instead of the map novalues</li>
      * <li>the raster map type to read (ex. {@link JGrassConstants#GRASSBINARYRASTERMAP})</li>
      * <li>a monitor object</li>
+     * <li>the number of threads used to decode the map rows</li>
      * </ul>
      * </p>
      */
@@ -68,6 +69,7 @@ public class JGrassRasterMapReader {
         private double novalue = JGrassConstants.doubleNovalue;
         private String maptype = JGrassConstants.GRASSBINARYRASTERMAP;
         private IProgressMonitorJGrass monitor = new DummyProgressMonitor();
+        private int readingThreads = 1;
 
         /**
          * Constructor for the {@link BuilderFromGeoresource} with the required parameters.
@@ -113,6 +115,17 @@ public class JGrassRasterMapReader {
             return this;
         }
 
+        /**
+         * Sets the optional number of threads used to decode the map rows.
+         * 
+         * @param readingThreads the number of threads, 1 for sequential reading.
+         * @return the builder object to allow chaining.
+         */
+        public BuilderFromMapPath readingThreads( int readingThreads ) {
+            this.readingThreads = readingThreads;
+            return this;
+        }
+
         /**
          * Builds the {@link JGrassRasterMapReader}.
          * 
@@ -140,6 +153,7 @@ public class JGrassRasterMapReader {
      * <li>the number to use internally instead of the map novalues</li>
      * <li>the raster map type to read (ex. {@link JGrassConstants#GRASSBINARYRASTERMAP})</li>
      * <li>a monitor object</li>
+     * <li>the number of threads used to decode the map rows</li>
      * </ul>
      * </p>
      */
@@ -153,6 +167,7 @@ public class JGrassRasterMapReader {
         private double novalue = JGrassConstants.doubleNovalue;
         private String maptype = JGrassConstants.GRASSBINARYRASTERMAP;
         private IProgressMonitorJGrass monitor = new DummyProgressMonitor();
+        private int readingThreads = 1;
 
         /**
          * Constructor for the {@link BuilderFromGeoresource} with the required paraeters.
@@ -201,6 +216,17 @@ public class JGrassRasterMapReader {
             return this;
         }
 
+        /**
+         * Sets the optional number of threads used to decode the map rows.
+         * 
+         * @param readingThreads the number of threads, 1 for sequential reading.
+         * @return the builder object to allow chaining.
+         */
+        public BuilderFromPathAndNames readingThreads( int readingThreads ) {
+            this.readingThreads = readingThreads;
+            return this;
+        }
+
         /**
          * Builds the {@link JGrassRasterMapReader}.
          * 
@@ -233,6 +259,7 @@ public class JGrassRasterMapReader {
         this.locationPath = builder.locationPath;
         reader = MapIOFactory.CreateRasterMapReader(builder.maptype);
         reader.setParameter("novalue", builder.novalue);
+        reader.setParameter("readingthreads", builder.readingThreads);
         reader.setDataWindow(builder.readWindow);
         reader.setOutputDataObject(new double[0][0]);
 
@@ -251,6 +278,7 @@ public class JGrassRasterMapReader {
         this.mapPath = builder.mapPath;
         reader = MapIOFactory.CreateRasterMapReader(builder.maptype);
         reader.setParameter("novalue", builder.novalue);
+        reader.setParameter("readingthreads", builder.readingThreads);
         reader.setDataWindow(builder.readWindow);
         reader.setOutputDataObject(new double[0][0]);
         fullMapPath = mapPath;
@@ -71,7 +71,10 @@ public abstract class GDataObject extends Object {
     /* Column names */
     private ArrayList columnNames = null;
 
-    /* vector of random access handels to temporary files */
+    /**
+     * @deprecated the handles of the backing files are closed by {@link #close()} and are not
+     *             kept here any more.
+     */
     public static Vector rafHandles = new Vector(20);
 
     /**
@@ -120,6 +123,16 @@ public abstract class GDataObject extends Object {
         dstore = new DataStore(dtype, null, null, len, use);
     }
 
+    /**
+     * Constructor for Raster data object of len size backed by a {@link MappedScratchStore}, for
+     * sizes beyond the 2 GB a single buffer can address.
+     */
+    public GDataObject( int dtype, long len ) {
+        columnNames = null;
+        dataIsVolatile = false;
+        dstore = new DataStore(dtype, len);
+    }
+
     /**
      * 
      */
@@ -143,6 +156,27 @@ public abstract class GDataObject extends Object {
         return dstore.readBuffer;
     }
 
+    /**
+     * @return the store mapping the raster data on a scratch file, null if the data are kept in
+     *         memory.
+     */
+    public MappedScratchStore getScratchStore() {
+        return dstore == null ? null : dstore.scratchStore;
+    }
+
+    /**
+     * Releases the backing file of the data, if any.
+     * <p>
+     * The scratch file is deleted, while a mapped raster buffer returned by
+     * {@link #getReadBuffer()} stays readable until it is garbage collected.
+     * </p>
+     */
+    public void close() {
+        if (dstore != null) {
+            dstore.close();
+        }
+    }
+
     /**
      * 
      */
@@ -301,6 +335,14 @@ public abstract class GDataObject extends Object {
             super(RASTER_DATA, size, USE_BACKING_MEMORY);
         }
 
+        /**
+         * Raster data object on a {@link MappedScratchStore} of the given size, which can be
+         * bigger than 2 GB. The data are accessed through {@link #getScratchStore()}.
+         */
+        public GridData( long size ) {
+            super(RASTER_DATA, size);
+        }
+
         /**
          * Default constructor for Raster data object.
          */
@@ -326,6 +368,9 @@ public abstract class GDataObject extends Object {
 
         private RandomAccessFile backingFile = null;
 
+        /* Mapped scratch store of the raster data */
+        private MappedScratchStore scratchStore = null;
+
         /* Number of rows in data object */
         protected int rows = 0;
 
@@ -360,28 +405,24 @@ public abstract class GDataObject extends Object {
             if (dtype == RASTER_DATA) {
                 columns = null;
                 columnwidth = 0;
-                if (backingType == USE_BACKING_MEMORY || backingType == USE_BACKING_FILE) {
-                    readBuffer = ByteBuffer.allocate(len);
-
-                    // if (JGrassLibsPlugin.isReallyDebugging()) {
-                    // Logger.trace(getClass(), "ALLOCATING RASTER BUFFER -
-                    // LENGTH = " + len
-                    // + " - BUFFER.CAPACITY=" + readBuffer, null);
-                    // }
-                } else if (backingType == USE_BACKING_FILE) {
+                if (backingType == USE_BACKING_FILE) {
                     try {
-                        /* Create an empty file */
-                        backingFile = createBackingFile(len);
-                        readBuffer = null;
-                        readBuffer = ((MappedByteBuffer) (backingFile.getChannel().map(
-                                FileChannel.MapMode.READ_WRITE, 0, backingFile.length()))).force()
-                                .load();
+                        /* Map the buffer on a scratch file */
+                        scratchStore = new MappedScratchStore(len);
+                        readBuffer = scratchStore.mapWhole();
                         readBuffer.rewind();
                     } catch (Exception e) {
-                        backingTempFile = null;
-                        backingFile = null;
+                        /* Fall back to memory */
+                        if (scratchStore != null) {
+                            scratchStore.close();
+                        }
+                        scratchStore = null;
+                        backing = USE_BACKING_MEMORY;
                     }
                 }
+                if (readBuffer == null) {
+                    readBuffer = ByteBuffer.allocate(len);
+                }
             } else if (dtype == POINT_DATA) {
                 columns = new int[3 + (c == null ? 0 : c.length)];
                 // columns[0] = COLUMN_TYPE_FLOAT;
@@ -423,6 +464,22 @@ public abstract class GDataObject extends Object {
             }
         }
 
+        /**
+         * 
+         */
+        private DataStore( int dtype, long len ) {
+            dataType = dtype;
+            columns = null;
+            columnwidth = 0;
+            backing = USE_BACKING_FILE;
+            try {
+                scratchStore = new MappedScratchStore(len);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to create the scratch file: " //$NON-NLS-1$
+                        + e.getLocalizedMessage());
+            }
+        }
+
         /**
          * 
          */
@@ -679,10 +736,31 @@ public abstract class GDataObject extends Object {
             RandomAccessFile raf = new RandomAccessFile(backingTempFile, "rw");
             if (len > 0)
                 raf.setLength(len);
-            rafHandles.add(raf);
             return raf;
         }
 
+        /**
+         * Releases the backing file and the mapped buffers.
+         */
+        private void close() {
+            if (scratchStore != null) {
+                scratchStore.close();
+                scratchStore = null;
+                readBuffer = null;
+            }
+            if (backingFile != null) {
+                try {
+                    backingFile.close();
+                } catch (IOException e) {
+                    // nothing to do, the file is deleted anyway
+                }
+                backingFile = null;
+            }
+            if (backingTempFile != null) {
+                backingTempFile.delete();
+            }
+        }
+
         /**
          * 
          */
@@ -692,7 +770,9 @@ public abstract class GDataObject extends Object {
                             ? "POINT"
                             : "VECTOR") + ", rows=" + rows + ", columns="
                     + (columns == null ? "" : "" + columns.length) + ", backing="
-                    + (backing == USE_BACKING_FILE ? backingTempFile.getName() : "MEMORY")
+                    + (scratchStore != null && scratchStore.getFile() != null ? scratchStore
+                            .getFile().getName() : backingTempFile != null ? backingTempFile
+                            .getName() : "MEMORY")
                     + ", limit=" + (readBuffer == null ? "" : "" + readBuffer.limit());
         }
     }
@@ -0,0 +1,458 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.object;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import eu.hydrologis.jgrass.libs.JGrassLibsPlugin;
+
+/**
+ * <p>
+ * A scratch store of bytes kept in a temporary file mapped into memory.
+ * </p>
+ * <p>
+ * The file is mapped in segments of fixed size, so that the store can be bigger than the 2 GB
+ * that a single buffer can address. Only a limited number of segments stays mapped at the same
+ * time: when a segment that is not mapped is accessed, the least recently used one is unmapped.
+ * This bounds the address space used by the store, while the operating system decides which
+ * pages of the mapped segments stay in memory.
+ * </p>
+ * <p>
+ * The temporary files are created in the directory set through
+ * {@link #setScratchDirectory(File)}, or in the one given by the
+ * {@link #SCRATCH_DIRECTORY_PROPERTY} system property, or else in the default temporary
+ * directory. The segments are unmapped and the file is deleted by {@link #close()}.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @since 3.0
+ */
+public class MappedScratchStore {
+
+    /**
+     * The system property holding the directory of the scratch files.
+     */
+    public static final String SCRATCH_DIRECTORY_PROPERTY = "jgrass.scratchdir"; //$NON-NLS-1$
+
+    /**
+     * The default size of a segment, 256 MB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 28;
+
+    private static File scratchDirectory = null;
+
+    private static int defaultMaxResidentSegments = 8;
+
+    private static boolean unmapFailureLogged = false;
+
+    private final long size;
+
+    private final int segmentSize;
+
+    private final int maxResidentSegments;
+
+    private File file;
+
+    private RandomAccessFile randomAccessFile;
+
+    private FileChannel channel;
+
+    /**
+     * The mapped segments, in access order.
+     */
+    private final LinkedHashMap<Integer, MappedByteBuffer> residentSegments;
+
+    /**
+     * The mapping of the whole store, if requested.
+     */
+    private MappedByteBuffer wholeBuffer = null;
+
+    /**
+     * Creates a store with the default segment size and number of resident segments.
+     *
+     * @param size the size of the store in bytes.
+     * @throws IOException if the scratch file can't be created.
+     */
+    public MappedScratchStore( long size ) throws IOException {
+        this(size, DEFAULT_SEGMENT_SIZE, getDefaultMaxResidentSegments());
+    }
+
+    /**
+     * @param size the size of the store in bytes.
+     * @param segmentSize the size of a segment in bytes, a multiple of 8.
+     * @param maxResidentSegments the maximum number of segments mapped at the same time.
+     * @throws IOException if the scratch file can't be created.
+     */
+    public MappedScratchStore( long size, int segmentSize, int maxResidentSegments )
+            throws IOException {
+        if (size < 0 || segmentSize < 8 || segmentSize % 8 != 0 || maxResidentSegments < 1) {
+            throw new IllegalArgumentException("Invalid size of the scratch store."); //$NON-NLS-1$
+        }
+        this.size = size;
+        this.segmentSize = segmentSize;
+        this.maxResidentSegments = maxResidentSegments;
+        residentSegments = new LinkedHashMap<Integer, MappedByteBuffer>(16, 0.75f, true);
+
+        file = File.createTempFile("jgrass", ".scratch", getScratchDirectory()); //$NON-NLS-1$ //$NON-NLS-2$
+        file.deleteOnExit();
+        randomAccessFile = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            randomAccessFile.setLength(size);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        channel = randomAccessFile.getChannel();
+    }
+
+    /**
+     * @param directory the directory in which the scratch files are created, null to use the
+     *        default one.
+     */
+    public static synchronized void setScratchDirectory( File directory ) {
+        scratchDirectory = directory;
+    }
+
+    /**
+     * @return the directory in which the scratch files are created, null for the default
+     *         temporary directory.
+     */
+    public static synchronized File getScratchDirectory() {
+        if (scratchDirectory != null) {
+            return scratchDirectory;
+        }
+        String property = System.getProperty(SCRATCH_DIRECTORY_PROPERTY);
+        if (property != null && property.length() > 0) {
+            return new File(property);
+        }
+        return null;
+    }
+
+    /**
+     * @param maxResidentSegments the number of segments that every new store keeps mapped at
+     *        the same time.
+     */
+    public static synchronized void setDefaultMaxResidentSegments( int maxResidentSegments ) {
+        defaultMaxResidentSegments = Math.max(1, maxResidentSegments);
+    }
+
+    /**
+     * @return the number of segments that every new store keeps mapped at the same time.
+     */
+    public static synchronized int getDefaultMaxResidentSegments() {
+        return defaultMaxResidentSegments;
+    }
+
+    /**
+     * @return the size of the store in bytes.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return the file backing the store, null after the store has been closed.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of segments currently mapped.
+     */
+    public synchronized int getResidentSegmentCount() {
+        return residentSegments.size();
+    }
+
+    /**
+     * Maps the whole store in a single buffer.
+     * <p>
+     * The buffer is handed to the caller, so it is never unmapped by the store: closing the store
+     * deletes the file, while the mapping stays valid until the buffer is garbage collected. It
+     * doesn't count for the resident segments.
+     * </p>
+     *
+     * @return the buffer mapping the whole store.
+     * @throws IOException
+     * @throws IllegalStateException if the store is bigger than a single buffer can address.
+     */
+    public synchronized ByteBuffer mapWhole() throws IOException {
+        checkOpen();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The store is too big to be mapped in one buffer."); //$NON-NLS-1$
+        }
+        if (wholeBuffer == null) {
+            wholeBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        return wholeBuffer;
+    }
+
+    private void checkOpen() {
+        if (channel == null) {
+            throw new IllegalStateException("The scratch store has been closed."); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Gets a segment, mapping it and unmapping the least recently used one if needed.
+     */
+    private MappedByteBuffer segment( int index ) throws IOException {
+        MappedByteBuffer buffer = residentSegments.get(index);
+        if (buffer != null) {
+            return buffer;
+        }
+        checkOpen();
+        if (residentSegments.size() >= maxResidentSegments) {
+            Iterator<Map.Entry<Integer, MappedByteBuffer>> iterator = residentSegments.entrySet()
+                    .iterator();
+            MappedByteBuffer eldest = iterator.next().getValue();
+            iterator.remove();
+            unmap(eldest);
+        }
+        long start = (long) index * segmentSize;
+        long length = Math.min(segmentSize, size - start);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, start, length);
+        residentSegments.put(index, buffer);
+        return buffer;
+    }
+
+    private void checkRange( long position, int length ) {
+        if (position < 0 || position + length > size) {
+            throw new IndexOutOfBoundsException("Position " + position + " outside of the store."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * Reads bytes from the store.
+     *
+     * @param position the position of the first byte.
+     * @param dst the array into which the bytes are read.
+     * @param offset the offset in the array.
+     * @param length the number of bytes to read.
+     * @throws IOException
+     */
+    public synchronized void get( long position, byte[] dst, int offset, int length )
+            throws IOException {
+        checkRange(position, length);
+        while( length > 0 ) {
+            int index = (int) (position / segmentSize);
+            int inSegment = (int) (position - (long) index * segmentSize);
+            int count = Math.min(length, segmentSize - inSegment);
+            ByteBuffer buffer = segment(index).duplicate();
+            buffer.position(inSegment);
+            buffer.get(dst, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Writes bytes into the store.
+     *
+     * @param position the position of the first byte.
+     * @param src the array holding the bytes to write.
+     * @param offset the offset in the array.
+     * @param length the number of bytes to write.
+     * @throws IOException
+     */
+    public synchronized void put( long position, byte[] src, int offset, int length )
+            throws IOException {
+        checkRange(position, length);
+        while( length > 0 ) {
+            int index = (int) (position / segmentSize);
+            int inSegment = (int) (position - (long) index * segmentSize);
+            int count = Math.min(length, segmentSize - inSegment);
+            ByteBuffer buffer = segment(index).duplicate();
+            buffer.position(inSegment);
+            buffer.put(src, offset, count);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Reads a value of up to 8 bytes, big endian, also when it spans two segments.
+     */
+    private long getBits( long position, int bytes ) throws IOException {
+        checkRange(position, bytes);
+        int index = (int) (position / segmentSize);
+        int inSegment = (int) (position - (long) index * segmentSize);
+        MappedByteBuffer buffer = segment(index);
+        if (inSegment + bytes <= buffer.limit()) {
+            switch( bytes ) {
+            case 8:
+                return buffer.getLong(inSegment);
+            default:
+                return buffer.getInt(inSegment);
+            }
+        }
+        byte[] b = new byte[bytes];
+        get(position, b, 0, bytes);
+        long bits = 0;
+        for( int i = 0; i < bytes; i++ ) {
+            bits = (bits << 8) | (b[i] & 0xff);
+        }
+        return bytes == 4 ? (int) bits : bits;
+    }
+
+    /**
+     * Writes a value of up to 8 bytes, big endian, also when it spans two segments.
+     */
+    private void putBits( long position, long bits, int bytes ) throws IOException {
+        checkRange(position, bytes);
+        int index = (int) (position / segmentSize);
+        int inSegment = (int) (position - (long) index * segmentSize);
+        MappedByteBuffer buffer = segment(index);
+        if (inSegment + bytes <= buffer.limit()) {
+            switch( bytes ) {
+            case 8:
+                buffer.putLong(inSegment, bits);
+                return;
+            default:
+                buffer.putInt(inSegment, (int) bits);
+                return;
+            }
+        }
+        byte[] b = new byte[bytes];
+        for( int i = bytes - 1; i >= 0; i-- ) {
+            b[i] = (byte) bits;
+            bits >>>= 8;
+        }
+        put(position, b, 0, bytes);
+    }
+
+    /**
+     * @param position the position of the value.
+     * @return the int at the given position.
+     * @throws IOException
+     */
+    public synchronized int getInt( long position ) throws IOException {
+        return (int) getBits(position, 4);
+    }
+
+    /**
+     * @param position the position of the value.
+     * @param value the int to write at the given position.
+     * @throws IOException
+     */
+    public synchronized void putInt( long position, int value ) throws IOException {
+        putBits(position, value, 4);
+    }
+
+    /**
+     * @param position the position of the value.
+     * @return the float at the given position.
+     * @throws IOException
+     */
+    public synchronized float getFloat( long position ) throws IOException {
+        return Float.intBitsToFloat((int) getBits(position, 4));
+    }
+
+    /**
+     * @param position the position of the value.
+     * @param value the float to write at the given position.
+     * @throws IOException
+     */
+    public synchronized void putFloat( long position, float value ) throws IOException {
+        putBits(position, Float.floatToRawIntBits(value), 4);
+    }
+
+    /**
+     * @param position the position of the value.
+     * @return the double at the given position.
+     * @throws IOException
+     */
+    public synchronized double getDouble( long position ) throws IOException {
+        return Double.longBitsToDouble(getBits(position, 8));
+    }
+
+    /**
+     * @param position the position of the value.
+     * @param value the double to write at the given position.
+     * @throws IOException
+     */
+    public synchronized void putDouble( long position, double value ) throws IOException {
+        putBits(position, Double.doubleToRawLongBits(value), 8);
+    }
+
+    /**
+     * Unmaps all the segments, closes and deletes the scratch file.
+     * <p>
+     * The buffer returned by {@link #mapWhole()} is not unmapped, since it may still be held by
+     * its users; its mapping is released by the garbage collector.
+     * </p>
+     */
+    public synchronized void close() {
+        for( MappedByteBuffer buffer : residentSegments.values() ) {
+            unmap(buffer);
+        }
+        residentSegments.clear();
+        wholeBuffer = null;
+        try {
+            if (randomAccessFile != null) {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            // nothing to do, the file is deleted anyway
+        }
+        randomAccessFile = null;
+        channel = null;
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * Releases the mapping of a segment right away instead of waiting for the garbage collector,
+     * which would keep the file and the address space in use. If the running virtual machine
+     * doesn't allow it the mapping is left to the garbage collector, which is logged once.
+     * <p>
+     * Only the segments are unmapped, since they are never handed out of the store.
+     * </p>
+     */
+    private static void unmap( MappedByteBuffer buffer ) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner"); //$NON-NLS-1$
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner); //$NON-NLS-1$
+            }
+        } catch (Throwable e) {
+            synchronized (MappedScratchStore.class) {
+                if (!unmapFailureLogged) {
+                    unmapFailureLogged = true;
+                    JGrassLibsPlugin.log("The scratch segments can't be unmapped, they are left to the garbage collector.", e); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * <p>
+ * Utilities to split an index range (usually raster rows) in chunks that are
+ * processed concurrently.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @since 3.0
+ */
+public class ParallelUtilities {
+
+    /**
+     * The number of chunks created for every thread, to balance rows that take
+     * longer than others.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /**
+     * A task working on a range of indexes.
+     */
+    public static interface RangeTask {
+        /**
+         * Processes the indexes from <code>start</code> (inclusive) to
+         * <code>end</code> (exclusive).
+         *
+         * @param start the first index.
+         * @param end the index after the last.
+         * @throws Exception
+         */
+        public void run( int start, int end ) throws Exception;
+    }
+
+    private ParallelUtilities() {
+    }
+
+    /**
+     * @return the number of available processors.
+     */
+    public static int getAvailableProcessors() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Creates a pool with a fixed number of daemon threads, so that a pool that
+     * is not shut down never keeps the application alive.
+     *
+     * @param threads the number of threads of the pool.
+     * @return the thread pool.
+     */
+    public static ExecutorService newFixedThreadPool( int threads ) {
+        return Executors.newFixedThreadPool(threads, new DaemonThreadFactory());
+    }
+
+    /**
+     * Runs a {@link RangeTask} over the range <code>from</code>-<code>to</code>.
+     *
+     * <p>
+     * The range is split in contiguous chunks that are handed to a pool of
+     * <code>threads</code> threads. If <code>threads</code> is smaller than 2
+     * the task is run on the whole range in the calling thread. The method
+     * returns when all the chunks are done. The first exception thrown by a
+     * chunk is rethrown.
+     * </p>
+     *
+     * @param from the first index.
+     * @param to the index after the last.
+     * @param threads the number of threads to use.
+     * @param task the task to run.
+     * @throws Exception
+     */
+    public static void runInChunks( int from, int to, int threads, final RangeTask task )
+            throws Exception {
+        int size = to - from;
+        if (size <= 0) {
+            return;
+        }
+        if (threads < 2 || size < 2) {
+            task.run(from, to);
+            return;
+        }
+
+        ExecutorService pool = newFixedThreadPool(threads);
+        try {
+            runInChunks(pool, from, to, threads, task);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs a {@link RangeTask} over the range <code>from</code>-<code>to</code>
+     * on an existing pool.
+     *
+     * <p>
+     * Same as {@link #runInChunks(int, int, int, RangeTask)}, for callers that
+     * run many short tasks and keep a pool of <code>threads</code> threads
+     * instead of creating one every time. The pool is not shut down.
+     * </p>
+     *
+     * @param pool the pool to run the chunks on.
+     * @param from the first index.
+     * @param to the index after the last.
+     * @param threads the number of threads of the pool.
+     * @param task the task to run.
+     * @throws Exception
+     */
+    public static void runInChunks( ExecutorService pool, int from, int to, int threads,
+            final RangeTask task ) throws Exception {
+        int size = to - from;
+        if (size <= 0) {
+            return;
+        }
+        if (threads < 2 || size < 2) {
+            task.run(from, to);
+            return;
+        }
+
+        int chunks = Math.min(size, threads * CHUNKS_PER_THREAD);
+        int chunkSize = (size + chunks - 1) / chunks;
+
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for( int start = from; start < to; start += chunkSize ) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(to, start + chunkSize);
+            futures.add(pool.submit(new Callable<Object>(){
+                public Object call() throws Exception {
+                    task.run(chunkStart, chunkEnd);
+                    return null;
+                }
+            }));
+        }
+        Exception exception = null;
+        for( Future<Object> future : futures ) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (exception == null) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Exception) {
+                        exception = (Exception) cause;
+                    } else {
+                        exception = new RuntimeException(cause);
+                    }
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    /**
+     * Creates daemon threads.
+     */
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final ThreadFactory defaultFactory = Executors.defaultThreadFactory();
+
+        public Thread newThread( Runnable r ) {
+            Thread thread = defaultFactory.newThread(r);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,356 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.utils.raster;
+
+import java.util.Arrays;
+
+import javax.media.jai.iterator.RandomIter;
+import javax.media.jai.iterator.WritableRandomIter;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+
+import eu.hydrologis.jgrass.libs.messages.Messages;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+
+/**
+ * <p>
+ * Rasterizes polygons on the grid of a region with a scanline.
+ * </p>
+ * <p>
+ * The polygons are added one by one and only their edges are kept, in primitive arrays. The
+ * raster is then filled in a single pass over the rows for all the polygons together: the edges
+ * start being active on the first row whose center they cross and stop on the last one, and on
+ * every row the crossings of the active edges with the centers of the row are sorted by polygon
+ * and column, so that every pair of crossings of a polygon gives a span of cells to fill. A cell
+ * belongs to a polygon if its center is inside it, following the even-odd rule, so holes and the
+ * parts of multipolygons need no special handling. Where polygons overlap in a raster the last
+ * one added wins, as if they were rasterized one after the other, while as spans of cells every
+ * polygon keeps its own cells. Parts of the polygons outside of the region are clipped.
+ * </p>
+ * <p>
+ * Every polygon gets a feature id, starting from 1 in the order the polygons are added, that can
+ * be written to its own raster along with the values.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class PolygonRasterizer {
+
+    /**
+     * A receiver of the spans of cells covered by the polygons.
+     */
+    public static interface SpanCollector {
+        /**
+         * Receives a span of cells of a row covered by a polygon. The spans come row after row,
+         * from the first one, and the spans of a polygon in a row never overlap.
+         *
+         * @param row the row.
+         * @param fromCol the first column of the span.
+         * @param toCol the column after the last one of the span.
+         * @param id the feature id of the polygon.
+         */
+        public void collect( int row, int fromCol, int toCol, int id );
+    }
+
+    private final int rows;
+
+    private final int cols;
+
+    private final double west;
+
+    private final double north;
+
+    private final double ewres;
+
+    private final double nsres;
+
+    private int featuresNum = 0;
+
+    private double[] featureValues = new double[16];
+
+    private int edgesNum = 0;
+
+    /*
+     * the edges, in cells, with the column at the center of the first row they cross and the
+     * change of column from row to row
+     */
+    private int[] edgeFeatures = new int[64];
+
+    private int[] edgeStartRows = new int[64];
+
+    private int[] edgeEndRows = new int[64];
+
+    private double[] edgeStartCols = new double[64];
+
+    private double[] edgeSlopes = new double[64];
+
+    /**
+     * @param region the region giving the grid of the raster.
+     */
+    public PolygonRasterizer( JGrassRegion region ) {
+        rows = region.getRows();
+        cols = region.getCols();
+        west = region.getWest();
+        north = region.getNorth();
+        ewres = region.getWEResolution();
+        nsres = region.getNSResolution();
+    }
+
+    /**
+     * Adds a polygon.
+     *
+     * @param geometry a polygon, multipolygon or collection of them. Other geometries are ignored.
+     * @param value the value to fill the cells of the polygon with.
+     * @return the feature id of the polygon.
+     */
+    public int addPolygon( Geometry geometry, double value ) {
+        if (featuresNum == featureValues.length) {
+            featureValues = grow(featureValues, 2 * featuresNum);
+        }
+        featureValues[featuresNum] = value;
+        addEdges(geometry, featuresNum);
+        featuresNum++;
+        return featuresNum;
+    }
+
+    /**
+     * @return the number of polygons added.
+     */
+    public int getFeaturesNum() {
+        return featuresNum;
+    }
+
+    private void addEdges( Geometry geometry, int feature ) {
+        if (geometry instanceof Polygon) {
+            Polygon polygon = (Polygon) geometry;
+            addRing(polygon.getExteriorRing().getCoordinates(), feature);
+            for( int i = 0; i < polygon.getNumInteriorRing(); i++ ) {
+                addRing(polygon.getInteriorRingN(i).getCoordinates(), feature);
+            }
+        } else if (geometry != null) {
+            int num = geometry.getNumGeometries();
+            for( int i = 0; i < num; i++ ) {
+                Geometry part = geometry.getGeometryN(i);
+                if (part != geometry) {
+                    addEdges(part, feature);
+                }
+            }
+        }
+    }
+
+    private void addRing( Coordinate[] coordinates, int feature ) {
+        int num = coordinates.length;
+        if (num < 3) {
+            return;
+        }
+        for( int i = 0; i < num; i++ ) {
+            // the ring is closed also if the last coordinate is not the first
+            Coordinate from = coordinates[i];
+            Coordinate to = coordinates[(i + 1) % num];
+            addEdge((from.x - west) / ewres, (north - from.y) / nsres, (to.x - west) / ewres,
+                    (north - to.y) / nsres, feature);
+        }
+    }
+
+    /**
+     * Adds an edge, with coordinates in cells from the north west corner.
+     */
+    private void addEdge( double col1, double row1, double col2, double row2, int feature ) {
+        if (row1 == row2) {
+            // horizontal edges cross no center
+            return;
+        }
+        if (row1 > row2) {
+            double tmp = row1;
+            row1 = row2;
+            row2 = tmp;
+            tmp = col1;
+            col1 = col2;
+            col2 = tmp;
+        }
+        // the centers of the rows are at row + 0.5, the edge crosses the ones in [row1, row2)
+        int startRow = (int) Math.max(0, Math.ceil(row1 - 0.5));
+        int endRow = (int) Math.min(rows, Math.ceil(row2 - 0.5));
+        if (startRow >= endRow) {
+            return;
+        }
+        if (edgesNum == edgeFeatures.length) {
+            int size = 2 * edgesNum;
+            edgeFeatures = grow(edgeFeatures, size);
+            edgeStartRows = grow(edgeStartRows, size);
+            edgeEndRows = grow(edgeEndRows, size);
+            edgeStartCols = grow(edgeStartCols, size);
+            edgeSlopes = grow(edgeSlopes, size);
+        }
+        double slope = (col2 - col1) / (row2 - row1);
+        edgeFeatures[edgesNum] = feature;
+        edgeStartRows[edgesNum] = startRow;
+        edgeEndRows[edgesNum] = endRow;
+        edgeStartCols[edgesNum] = col1 + (startRow + 0.5 - row1) * slope;
+        edgeSlopes[edgesNum] = slope;
+        edgesNum++;
+    }
+
+    /**
+     * Fills primitive rasters with the polygons.
+     *
+     * @param values the raster to put the values of the polygons in, indexed by
+     *        <code>row * cols + col</code>, or <code>null</code>.
+     * @param ids the raster to put the feature ids in, indexed by <code>row * cols + col</code>,
+     *        or <code>null</code>.
+     * @param monitor
+     */
+    public void rasterize( double[] values, int[] ids, IProgressMonitor monitor ) {
+        scan(values, ids, null, null, null, null, monitor);
+    }
+
+    /**
+     * Fills rasters with the polygons.
+     *
+     * @param raster the raster to put the values in, or <code>null</code>.
+     * @param rasterToMap the map from which the values to fill the raster are taken (if null, the
+     *        values of the polygons are used)
+     * @param idRaster the raster to put the feature ids in, or <code>null</code>.
+     * @param monitor
+     */
+    public void rasterize( WritableRandomIter raster, RandomIter rasterToMap,
+            WritableRandomIter idRaster, IProgressMonitor monitor ) {
+        scan(null, null, raster, rasterToMap, idRaster, null, monitor);
+    }
+
+    /**
+     * Gives the spans of cells covered by every polygon, overlapping polygons all getting their
+     * own spans, instead of filling a raster where the last polygon wins.
+     *
+     * @param collector the collector of the spans.
+     * @param monitor
+     */
+    public void rasterize( SpanCollector collector, IProgressMonitor monitor ) {
+        scan(null, null, null, null, null, collector, monitor);
+    }
+
+    private void scan( double[] values, int[] ids, WritableRandomIter raster,
+            RandomIter rasterToMap, WritableRandomIter idRaster, SpanCollector collector,
+            IProgressMonitor monitor ) {
+        monitor.beginTask(Messages.getString("JGrassUtilities.rasterizing"), rows); //$NON-NLS-1$
+
+        // the edge table: the edges ordered by the row they start on
+        int[] rowFirstEdge = new int[rows + 1];
+        for( int e = 0; e < edgesNum; e++ ) {
+            rowFirstEdge[edgeStartRows[e] + 1]++;
+        }
+        for( int r = 0; r < rows; r++ ) {
+            rowFirstEdge[r + 1] = rowFirstEdge[r + 1] + rowFirstEdge[r];
+        }
+        int[] edgeTable = new int[edgesNum];
+        int[] position = rowFirstEdge.clone();
+        for( int e = 0; e < edgesNum; e++ ) {
+            edgeTable[position[edgeStartRows[e]]++] = e;
+        }
+
+        int[] active = new int[edgesNum];
+        long[] crossings = new long[edgesNum];
+        int activeNum = 0;
+        for( int r = 0; r < rows; r++ ) {
+            // drop the edges that ended and add the ones that start
+            int kept = 0;
+            for( int a = 0; a < activeNum; a++ ) {
+                if (edgeEndRows[active[a]] > r) {
+                    active[kept++] = active[a];
+                }
+            }
+            activeNum = kept;
+            for( int t = rowFirstEdge[r]; t < rowFirstEdge[r + 1]; t++ ) {
+                active[activeNum++] = edgeTable[t];
+            }
+
+            /*
+             * the crossings, as the first column with the center after them, ordered by feature
+             * and column
+             */
+            for( int a = 0; a < activeNum; a++ ) {
+                int e = active[a];
+                double col = edgeStartCols[e] + (r - edgeStartRows[e]) * edgeSlopes[e];
+                long firstCol = (long) Math.max(0.0, Math.min(cols, Math.ceil(col - 0.5)));
+                crossings[a] = ((long) edgeFeatures[e] << 32) | firstCol;
+            }
+            Arrays.sort(crossings, 0, activeNum);
+
+            for( int c = 0; c + 1 < activeNum; c++ ) {
+                int feature = (int) (crossings[c] >>> 32);
+                if (feature != (int) (crossings[c + 1] >>> 32)) {
+                    continue;
+                }
+                int fromCol = (int) (crossings[c] & 0xFFFFFFFFL);
+                int toCol = (int) (crossings[c + 1] & 0xFFFFFFFFL);
+                if (collector != null) {
+                    if (fromCol < toCol) {
+                        collector.collect(r, fromCol, toCol, feature + 1);
+                    }
+                } else {
+                    fillSpan(r, fromCol, toCol, feature, values, ids, raster, rasterToMap, idRaster);
+                }
+                c++;
+            }
+            monitor.worked(1);
+        }
+        monitor.done();
+    }
+
+    private static int[] grow( int[] array, int size ) {
+        int[] newArray = new int[size];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static double[] grow( double[] array, int size ) {
+        double[] newArray = new double[size];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private void fillSpan( int row, int fromCol, int toCol, int feature, double[] values,
+            int[] ids, WritableRandomIter raster, RandomIter rasterToMap,
+            WritableRandomIter idRaster ) {
+        double value = featureValues[feature];
+        int index = row * cols;
+        for( int col = fromCol; col < toCol; col++ ) {
+            if (values != null) {
+                values[index + col] = value;
+            }
+            if (ids != null) {
+                ids[index + col] = feature + 1;
+            }
+            if (raster != null) {
+                if (rasterToMap != null) {
+                    raster.setSample(col, row, 0, rasterToMap.getSampleDouble(col, row, 0));
+                } else {
+                    raster.setSample(col, row, 0, value);
+                }
+            }
+            if (idRaster != null) {
+                idRaster.setSample(col, row, 0, feature + 1);
+            }
+        }
+    }
+
+}
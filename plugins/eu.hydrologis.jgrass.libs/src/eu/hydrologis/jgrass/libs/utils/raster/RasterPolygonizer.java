@@ -0,0 +1,385 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.libs.utils.raster;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.media.jai.iterator.RandomIter;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+import eu.hydrologis.jgrass.libs.messages.Messages;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+
+/**
+ * <p>
+ * Vectorizes a raster on the grid of a region into polygons, one for every region of connected
+ * cells with the same value.
+ * </p>
+ * <p>
+ * The cells are first labelled in a single pass over the rows: every cell takes the label of the
+ * cell above or on the left if it has the same value, or a new one, and when both have the same
+ * value but different labels the two labels are joined with a union-find kept in primitive
+ * arrays. The labels are then resolved to region ids, from 1 in the order the regions are met,
+ * so that the whole raster is held as an <code>int</code> per cell. Cells are connected only
+ * through their sides, as in GRASS, and novalues belong to no region.
+ * </p>
+ * <p>
+ * The boundaries are then traced along the sides of the cells, keeping the region on the left
+ * and putting vertices only where the boundary turns. Every ring is started from the top side
+ * of a cell not yet traced, so the first ring met of a region is its exterior ring and the others
+ * are its holes. Where a region touches itself only at a corner the boundary passes from one
+ * cell to the other, so that no ring touches itself and the rings of a region touch at most in a
+ * point, as in valid polygons. A polygon is given to the
+ * {@link PolygonCollector collector} as soon as the rows of its region have been traced, so that
+ * only the rings of the regions still open are kept in memory.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class RasterPolygonizer {
+
+    /**
+     * A receiver of the polygons of the regions.
+     */
+    public static interface PolygonCollector {
+        /**
+         * Receives the polygon of a region.
+         *
+         * @param id the id of the region, from 1 in the order the regions are met.
+         * @param polygon the polygon, with its holes.
+         * @param value the value of the cells of the region.
+         * @throws Exception
+         */
+        public void collect( int id, Polygon polygon, double value ) throws Exception;
+    }
+
+    /*
+     * the directions of the boundaries, counterclockwise: east, north, west, south
+     */
+    private static final int WEST = 2;
+
+    private static final int[] ROW_STEPS = {0, -1, 0, 1};
+
+    private static final int[] COL_STEPS = {1, 0, -1, 0};
+
+    /*
+     * the cell on the left and on the right of a boundary going in a direction from a vertex, as
+     * offsets of row and column from the vertex
+     */
+    private static final int[] LEFT_ROWS = {-1, -1, 0, 0};
+
+    private static final int[] LEFT_COLS = {0, -1, -1, 0};
+
+    private static final int[] RIGHT_ROWS = {0, -1, -1, 0};
+
+    private static final int[] RIGHT_COLS = {0, 0, -1, -1};
+
+    private final int rows;
+
+    private final int cols;
+
+    private final double west;
+
+    private final double north;
+
+    private final double ewres;
+
+    private final double nsres;
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private int[] labels;
+
+    private int regionsNum;
+
+    private double[] regionValues;
+
+    private int[] regionLastRows;
+
+    /**
+     * @param region the region giving the grid of the raster.
+     */
+    public RasterPolygonizer( JGrassRegion region ) {
+        rows = region.getRows();
+        cols = region.getCols();
+        west = region.getWest();
+        north = region.getNorth();
+        ewres = region.getWEResolution();
+        nsres = region.getNSResolution();
+    }
+
+    /**
+     * Vectorizes a primitive raster.
+     *
+     * @param values the values of the raster, indexed by <code>row * cols + col</code>.
+     * @param collector the collector of the polygons.
+     * @param monitor
+     * @return the number of polygons.
+     * @throws Exception
+     */
+    public int polygonize( double[] values, PolygonCollector collector,
+            IProgressMonitorJGrass monitor ) throws Exception {
+        return polygonize(values, null, collector, monitor);
+    }
+
+    /**
+     * Vectorizes a raster.
+     *
+     * @param raster the raster, read on the first band.
+     * @param collector the collector of the polygons.
+     * @param monitor
+     * @return the number of polygons.
+     * @throws Exception
+     */
+    public int polygonize( RandomIter raster, PolygonCollector collector,
+            IProgressMonitorJGrass monitor ) throws Exception {
+        return polygonize(null, raster, collector, monitor);
+    }
+
+    private int polygonize( double[] values, RandomIter raster, PolygonCollector collector,
+            IProgressMonitorJGrass monitor ) throws Exception {
+        monitor.beginTask(Messages.getString("RasterPolygonizer.polygonizing"), 2 * rows); //$NON-NLS-1$
+        try {
+            label(values, raster, monitor);
+            trace(collector, monitor);
+            return regionsNum;
+        } finally {
+            labels = null;
+            regionValues = null;
+            regionLastRows = null;
+            monitor.done();
+        }
+    }
+
+    private void label( double[] values, RandomIter raster, IProgressMonitorJGrass monitor ) {
+        labels = new int[rows * cols];
+        // the provisional labels, from 1, with their parents in the union-find
+        int labelsNum = 0;
+        int[] parents = new int[64];
+        double[] labelValues = new double[64];
+
+        double[] previous = new double[cols];
+        double[] current = new double[cols];
+        for( int r = 0; r < rows; r++ ) {
+            int index = r * cols;
+            for( int c = 0; c < cols; c++ ) {
+                current[c] = values != null ? values[index + c] : raster.getSampleDouble(c, r, 0);
+            }
+            for( int c = 0; c < cols; c++ ) {
+                double value = current[c];
+                if (isNovalue(value)) {
+                    continue;
+                }
+                int up = r > 0 && previous[c] == value ? labels[index + c - cols] : 0;
+                int left = c > 0 && current[c - 1] == value ? labels[index + c - 1] : 0;
+                int label;
+                if (up == 0 && left == 0) {
+                    labelsNum++;
+                    if (labelsNum == parents.length) {
+                        parents = grow(parents, 2 * labelsNum);
+                        labelValues = grow(labelValues, 2 * labelsNum);
+                    }
+                    parents[labelsNum] = labelsNum;
+                    labelValues[labelsNum] = value;
+                    label = labelsNum;
+                } else if (up == 0) {
+                    label = left;
+                } else {
+                    label = up;
+                    if (left != 0 && left != up) {
+                        union(parents, up, left);
+                    }
+                }
+                labels[index + c] = label;
+            }
+            double[] tmp = previous;
+            previous = current;
+            current = tmp;
+            monitor.worked(1);
+        }
+
+        /*
+         * the roots are the smallest labels of their regions, so numbering them in order numbers
+         * the regions in the order they are met
+         */
+        regionsNum = 0;
+        int[] regionIds = new int[labelsNum + 1];
+        for( int l = 1; l <= labelsNum; l++ ) {
+            if (find(parents, l) == l) {
+                regionIds[l] = ++regionsNum;
+            }
+        }
+        regionValues = new double[regionsNum + 1];
+        regionLastRows = new int[regionsNum + 1];
+        for( int l = 1; l <= labelsNum; l++ ) {
+            regionIds[l] = regionIds[find(parents, l)];
+            regionValues[regionIds[l]] = labelValues[l];
+        }
+        for( int r = 0; r < rows; r++ ) {
+            int index = r * cols;
+            for( int c = 0; c < cols; c++ ) {
+                int label = labels[index + c];
+                if (label != 0) {
+                    labels[index + c] = regionIds[label];
+                    regionLastRows[regionIds[label]] = r;
+                }
+            }
+        }
+    }
+
+    private static int find( int[] parents, int label ) {
+        while( parents[label] != label ) {
+            // path halving
+            parents[label] = parents[parents[label]];
+            label = parents[label];
+        }
+        return label;
+    }
+
+    private static void union( int[] parents, int label1, int label2 ) {
+        int root1 = find(parents, label1);
+        int root2 = find(parents, label2);
+        if (root1 < root2) {
+            parents[root2] = root1;
+        } else if (root2 < root1) {
+            parents[root1] = root2;
+        }
+    }
+
+    private void trace( PolygonCollector collector, IProgressMonitorJGrass monitor ) throws Exception {
+        // the regions ordered by their last row
+        int[] rowFirstRegion = new int[rows + 1];
+        for( int id = 1; id <= regionsNum; id++ ) {
+            rowFirstRegion[regionLastRows[id] + 1]++;
+        }
+        for( int r = 0; r < rows; r++ ) {
+            rowFirstRegion[r + 1] = rowFirstRegion[r + 1] + rowFirstRegion[r];
+        }
+        int[] regionTable = new int[regionsNum];
+        int[] position = rowFirstRegion.clone();
+        for( int id = 1; id <= regionsNum; id++ ) {
+            regionTable[position[regionLastRows[id]]++] = id;
+        }
+
+        // the cells whose top side has been traced
+        BitSet traced = new BitSet(rows * cols);
+        Map<Integer, List<LinearRing>> openRings = new HashMap<Integer, List<LinearRing>>();
+        for( int r = 0; r < rows; r++ ) {
+            int index = r * cols;
+            for( int c = 0; c < cols; c++ ) {
+                int id = labels[index + c];
+                if (id == 0 || traced.get(index + c) || (r > 0 && labels[index + c - cols] == id)) {
+                    continue;
+                }
+                List<LinearRing> rings = openRings.get(id);
+                if (rings == null) {
+                    rings = new ArrayList<LinearRing>();
+                    openRings.put(id, rings);
+                }
+                rings.add(traceRing(id, r, c, traced));
+            }
+
+            for( int t = rowFirstRegion[r]; t < rowFirstRegion[r + 1]; t++ ) {
+                int id = regionTable[t];
+                List<LinearRing> rings = openRings.remove(id);
+                LinearRing[] holes = rings.subList(1, rings.size()).toArray(
+                        new LinearRing[rings.size() - 1]);
+                Polygon polygon = geometryFactory.createPolygon(rings.get(0), holes);
+                collector.collect(id, polygon, regionValues[id]);
+            }
+            monitor.worked(1);
+        }
+    }
+
+    /**
+     * Traces the ring starting from the top side of a cell, going west.
+     */
+    private LinearRing traceRing( int id, int row, int col, BitSet traced ) {
+        List<Coordinate> coordinates = new ArrayList<Coordinate>();
+        int vertexRow = row;
+        int vertexCol = col + 1;
+        int direction = WEST;
+        do {
+            if (direction == WEST) {
+                traced.set(vertexRow * cols + vertexCol - 1);
+            }
+            vertexRow = vertexRow + ROW_STEPS[direction];
+            vertexCol = vertexCol + COL_STEPS[direction];
+
+            /*
+             * turn right if possible, else straight, else left: at a corner touched twice by the
+             * region the ring closes there instead of going around and touching itself
+             */
+            int next = (direction + 3) % 4;
+            if (!isBoundary(id, vertexRow, vertexCol, next)) {
+                next = direction;
+                if (!isBoundary(id, vertexRow, vertexCol, next)) {
+                    next = (direction + 1) % 4;
+                }
+            }
+            if (next != direction) {
+                coordinates.add(new Coordinate(west + vertexCol * ewres, north - vertexRow * nsres));
+            }
+            direction = next;
+        } while( vertexRow != row || vertexCol != col + 1 || direction != WEST );
+
+        coordinates.add(new Coordinate(coordinates.get(0)));
+        return geometryFactory.createLinearRing(coordinates.toArray(new Coordinate[coordinates
+                .size()]));
+    }
+
+    /**
+     * Checks if the side going from a vertex in a direction has the region on the left and not on
+     * the right.
+     */
+    private boolean isBoundary( int id, int vertexRow, int vertexCol, int direction ) {
+        return labelAt(vertexRow + LEFT_ROWS[direction], vertexCol + LEFT_COLS[direction]) == id
+                && labelAt(vertexRow + RIGHT_ROWS[direction], vertexCol + RIGHT_COLS[direction]) != id;
+    }
+
+    private int labelAt( int row, int col ) {
+        if (row < 0 || row >= rows || col < 0 || col >= cols) {
+            return 0;
+        }
+        return labels[row * cols + col];
+    }
+
+    private static int[] grow( int[] array, int size ) {
+        int[] newArray = new int[size];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+    private static double[] grow( double[] array, int size ) {
+        double[] newArray = new double[size];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+}
@@ -34,6 +34,8 @@ import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -238,10 +240,8 @@ public class h_ab extends ModelsBackbone {
             CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
 
             if (tcaImage == null || planImage == null) {
-                IValueSet planValueSet = planLink.getSourceComponent().getValues(time,
-                        planLink.getID());
-                IValueSet tcaValueSet = tcaLink.getSourceComponent().getValues(time,
-                        tcaLink.getID());
+                IValueSet planValueSet = LinkValueCache.requestValues(planLink, time);
+                IValueSet tcaValueSet = LinkValueCache.requestValues(tcaLink, time);
                 GridCoverage2D planData = null;
                 GridCoverage2D tcaData = null;
                 if (planValueSet != null && tcaValueSet != null) {
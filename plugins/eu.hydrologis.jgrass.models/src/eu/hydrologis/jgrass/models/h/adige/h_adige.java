@@ -17,6 +17,15 @@
  */
 package eu.hydrologis.jgrass.models.h.adige;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.text.DateFormat;
 import java.util.ArrayList;
@@ -26,7 +35,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 
+import nl.alterra.openmi.sdk.backbone.IPersistentState;
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -50,6 +61,7 @@ import eu.hydrologis.libs.adige.Offtakes;
 import eu.hydrologis.libs.adige.PfafstetterNumber;
 import eu.hydrologis.libs.adige.Tributaries;
 import eu.hydrologis.libs.duffy.DischargeDistributor;
+import eu.hydrologis.libs.duffy.DuffyEnsemble;
 import eu.hydrologis.libs.duffy.DuffyModel;
 import eu.hydrologis.libs.duffy.RungeKuttaFelberg;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
@@ -57,16 +69,31 @@ import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIOException;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.openmi.DoubleScalarSet;
 import eu.hydrologis.openmi.JGrassFeatureValueSet;
 import eu.hydrologis.openmi.util.HydrologisDate;
 
 /**
  * The adige model.
  * 
+ * <p>
+ * The state of the model (discharges and storages of the hillslopes and the discharges
+ * distributed in time) can be written and read back through {@link IPersistentState}, to
+ * restart a simulation from a checkpoint. The model has to be initialized with the same
+ * arguments, start and end date included, as the one that wrote the state.
+ * </p>
+ * <p>
+ * With the <code>ensemble</code> argument an ensemble of simulations with perturbed rain and
+ * parameters is run beside the main one, see {@link DuffyEnsemble}. The members share the
+ * network read for the main simulation and the discharges of all the members at the output
+ * hillslopes are written to the <code>ensemblefile</code> file. The state of the ensemble is not
+ * part of the state of the model.
+ * </p>
+ * 
  * @author Silvia Franceschi (www.hydrologis.com)
  * @author Andrea Antonello (www.hydrologis.com)
  */
-public class h_adige extends ModelsBackbone {
+public class h_adige extends ModelsBackbone implements IPersistentState {
 
     private static final String OUTPUTPFAFSTETTER = "outpfafids"; //$NON-NLS-1$
     private static final String ENDELEVATTR = "endelevattr"; //$NON-NLS-1$
@@ -80,6 +107,11 @@ public class h_adige extends ModelsBackbone {
     private static final String RAINDURATION = "rainduration"; //$NON-NLS-1$
     private static final String VEGETATION = "vegetation"; //$NON-NLS-1$
     private static final String LOG = "log"; //$NON-NLS-1$
+    private static final String ENSEMBLE = "ensemble"; //$NON-NLS-1$
+    private static final String ENSEMBLERAINSD = "ensemblerainsd"; //$NON-NLS-1$
+    private static final String ENSEMBLEPARAMSD = "ensembleparamsd"; //$NON-NLS-1$
+    private static final String ENSEMBLESEED = "ensembleseed"; //$NON-NLS-1$
+    private static final String ENSEMBLEFILE = "ensemblefile"; //$NON-NLS-1$
 
     public final static String dischargeOutputID = "discharge"; //$NON-NLS-1$
     public final static String s1OutputID = "s1"; //$NON-NLS-1$
@@ -219,6 +251,9 @@ public class h_adige extends ModelsBackbone {
     private List<PfafstetterNumber> netPfaffsList;
     private boolean doLog = false;
     private DuffyModel duffyEvaluator;
+    private HashMap<Integer, DischargeDistributor> hillslopeId2DischargeDistributor;
+    /** a state read before the model was set up, applied at the first time step */
+    private byte[] pendingState = null;
 
     // hydrometers
     private DischargeContributor hydrometersHandler;
@@ -253,6 +288,15 @@ public class h_adige extends ModelsBackbone {
     private int[] indexesArray;
     private List<HillSlope> orderedHillslopes;
 
+    // ensemble
+    private int ensembleMembersNum = 0;
+    private double ensembleRainSd = 0.3;
+    private double ensembleParameterSd = 0.1;
+    private long ensembleSeed = 0;
+    private String ensembleFile = null;
+    private DuffyEnsemble ensemble;
+    private DataOutputStream ensembleOutput;
+
     public h_adige() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -319,6 +363,33 @@ public class h_adige extends ModelsBackbone {
                 } catch (Exception e) {
                 }
             }
+            if (key.equals(ENSEMBLE)) {
+                try {
+                    ensembleMembersNum = Integer.parseInt(argument.getValue());
+                } catch (Exception e) {
+                }
+            }
+            if (key.equals(ENSEMBLERAINSD)) {
+                try {
+                    ensembleRainSd = Double.parseDouble(argument.getValue());
+                } catch (Exception e) {
+                }
+            }
+            if (key.equals(ENSEMBLEPARAMSD)) {
+                try {
+                    ensembleParameterSd = Double.parseDouble(argument.getValue());
+                } catch (Exception e) {
+                }
+            }
+            if (key.equals(ENSEMBLESEED)) {
+                try {
+                    ensembleSeed = Long.parseLong(argument.getValue());
+                } catch (Exception e) {
+                }
+            }
+            if (key.equals(ENSEMBLEFILE)) {
+                ensembleFile = argument.getValue();
+            }
             if (key.equals(ModelsConstants.STARTDATE)) {
                 startDateArg = argument.getValue();
             }
@@ -514,14 +585,14 @@ public class h_adige extends ModelsBackbone {
                     }
                 }
                 // hydrometers values
-                IValueSet hydrometerValueSet = hydrometersDataInputLink.getSourceComponent()
-                        .getValues(time, hydrometersDataInputLink.getID());
+                IValueSet hydrometerValueSet =
+                        LinkValueCache.requestValues(hydrometersDataInputLink, time);
                 if (hydrometerValueSet != null && hydrometerValueSet instanceof ScalarSet) {
                     hydrometerScalarSet = (ScalarSet) hydrometerValueSet;
                     hydrometer_id2valuesMap.clear();
                     for( int i = 1; i < hydrometerScalarSet.size(); i = i + 2 ) {
-                        int id = hydrometerScalarSet.get(i).intValue();
-                        Double value = hydrometerScalarSet.get(i + 1);
+                        int id = (int) hydrometerScalarSet.getScalar(i);
+                        Double value = hydrometerScalarSet.getScalar(i + 1);
                         hydrometer_id2valuesMap.put(id, value);
                     }
                 } else {
@@ -539,8 +610,8 @@ public class h_adige extends ModelsBackbone {
                     dams_id2valuesQMap = new HashMap<Integer, Double>();
                     damsHandler = new Dams(dams_pfaff2idMap, dams_id2valuesQMap);
 
-                    IValueSet damsValueSet = damsFeaturesInputLink.getSourceComponent().getValues(
-                            null, damsFeaturesInputLink.getID());
+                    IValueSet damsValueSet =
+                            LinkValueCache.requestValues(damsFeaturesInputLink, null);
                     if (damsValueSet instanceof JGrassFeatureValueSet) {
                         damsFeatureCollection = ((JGrassFeatureValueSet) damsValueSet)
                                 .getFeatureCollection();
@@ -587,8 +658,8 @@ public class h_adige extends ModelsBackbone {
                     damsQScalarSet = (ScalarSet) damsDischargeValueSet;
                     dams_id2valuesQMap.clear();
                     for( int i = 1; i < damsQScalarSet.size(); i = i + 2 ) {
-                        int id = damsQScalarSet.get(i).intValue();
-                        Double value = damsQScalarSet.get(i + 1);
+                        int id = (int) damsQScalarSet.getScalar(i);
+                        Double value = damsQScalarSet.getScalar(i + 1);
                         dams_id2valuesQMap.put(id, value);
                     }
                 } else {
@@ -607,8 +678,8 @@ public class h_adige extends ModelsBackbone {
                     tributaryHandler = new Tributaries(tributary_pfaff2idMap,
                             tributary_id2valuesQMap);
 
-                    IValueSet tributaryValueSet = tributaryFeaturesInputLink.getSourceComponent()
-                            .getValues(null, tributaryFeaturesInputLink.getID());
+                    IValueSet tributaryValueSet =
+                            LinkValueCache.requestValues(tributaryFeaturesInputLink, null);
                     if (tributaryValueSet instanceof JGrassFeatureValueSet) {
                         tributaryFeatureCollection = ((JGrassFeatureValueSet) tributaryValueSet)
                                 .getFeatureCollection();
@@ -655,8 +726,8 @@ public class h_adige extends ModelsBackbone {
                     tributaryQScalarSet = (ScalarSet) tributaryDischargeValueSet;
                     tributary_id2valuesQMap.clear();
                     for( int i = 1; i < tributaryQScalarSet.size(); i = i + 2 ) {
-                        int id = tributaryQScalarSet.get(i).intValue();
-                        Double value = tributaryQScalarSet.get(i + 1);
+                        int id = (int) tributaryQScalarSet.getScalar(i);
+                        Double value = tributaryQScalarSet.getScalar(i + 1);
                         tributary_id2valuesQMap.put(id, value);
                     }
                 } else {
@@ -675,8 +746,8 @@ public class h_adige extends ModelsBackbone {
                     offtakesHandler = new Offtakes(offtakes_pfaff2idMap, offtakes_id2valuesQMap,
                             out);
 
-                    IValueSet offtakesValueSet = offtakesFeaturesInputLink.getSourceComponent()
-                            .getValues(null, offtakesFeaturesInputLink.getID());
+                    IValueSet offtakesValueSet =
+                            LinkValueCache.requestValues(offtakesFeaturesInputLink, null);
                     if (offtakesValueSet instanceof JGrassFeatureValueSet) {
                         offtakesFeatureCollection = ((JGrassFeatureValueSet) offtakesValueSet)
                                 .getFeatureCollection();
@@ -723,8 +794,8 @@ public class h_adige extends ModelsBackbone {
                     offtakesQScalarSet = (ScalarSet) offtakesDischargeValueSet;
                     offtakes_id2valuesQMap.clear();
                     for( int i = 1; i < offtakesQScalarSet.size(); i = i + 2 ) {
-                        int id = offtakesQScalarSet.get(i).intValue();
-                        Double value = offtakesQScalarSet.get(i + 1);
+                        int id = (int) offtakesQScalarSet.getScalar(i);
+                        Double value = offtakesQScalarSet.getScalar(i + 1);
                         offtakes_id2valuesQMap.put(id, value);
                     }
                 } else {
@@ -762,7 +833,7 @@ public class h_adige extends ModelsBackbone {
                         hillslopeFeatureCollection, netNumAttributeName, pfaffAttributeName,
                         startNetElevAttributeName, endNetElevAttributeName,
                         baricenterAttributeName, vegetationAttributeName, out);
-                HashMap<Integer, DischargeDistributor> hillslopeId2DischargeDistributor = new HashMap<Integer, DischargeDistributor>();
+                hillslopeId2DischargeDistributor = new HashMap<Integer, DischargeDistributor>();
                 outletHillslopeId = orderedHillslopes.get(0).getHillslopeId();
                 netPfaffsList = new ArrayList<PfafstetterNumber>();
                 pfaff2Index = new HashMap<String, Integer>();
@@ -822,17 +893,17 @@ public class h_adige extends ModelsBackbone {
                 if (boundaryInputSet != null) {
                     int dataIndex = 0;
                     for( int i = 0; i < (boundaryInputSet.size() - 1) / 5; i++ ) {
-                        Double idHillslope = boundaryInputSet.get(dataIndex + 1);
-                        Integer index = basinid2Index.get(idHillslope.intValue());
+                        int idHillslope = (int) boundaryInputSet.getScalar(dataIndex + 1);
+                        Integer index = basinid2Index.get(idHillslope);
                         if (index == null)
                             continue;
-                        initialConditions[index] = boundaryInputSet.get(dataIndex + 2);
+                        initialConditions[index] = boundaryInputSet.getScalar(dataIndex + 2);
                         initialConditions[index + hillsSlopeNum] = boundaryInputSet
-                                .get(dataIndex + 3);
+                                .getScalar(dataIndex + 3);
                         initialConditions[index + 2 * hillsSlopeNum] = boundaryInputSet
-                                .get(dataIndex + 4);
+                                .getScalar(dataIndex + 4);
                         initialConditions[index + 3 * hillsSlopeNum] = boundaryInputSet
-                                .get(dataIndex + 5);
+                                .getScalar(dataIndex + 5);
                         dataIndex = dataIndex + 5;
                     }
                 } else {
@@ -868,6 +939,27 @@ public class h_adige extends ModelsBackbone {
 
                 rainRunoffRaining = new RungeKuttaFelberg(duffyEvaluator, 1e-2, 10 / 60., out,
                         doLog);
+
+                if (pendingState != null) {
+                    out.println("Restoring the state of the hillslopes...");
+                    applyState(pendingState);
+                    pendingState = null;
+                }
+
+                if (ensembleMembersNum > 0) {
+                    out.println("Creating an ensemble of " + ensembleMembersNum + " members...");
+                    if (indexesArray == null) {
+                        indexesArray = createOutputIndexes();
+                    }
+                    ensemble = new DuffyEnsemble(duffyEvaluator, initialConditions,
+                            ensembleMembersNum, indexesArray, ensembleRainSd,
+                            ensembleParameterSd, ensembleSeed, out, doLog);
+                    if (ensembleFile != null) {
+                        ensembleOutput = new DataOutputStream(new BufferedOutputStream(
+                                new FileOutputStream(ensembleFile)));
+                        ensemble.setOutput(ensembleOutput);
+                    }
+                }
             }
 
             // deal with rain
@@ -901,38 +993,38 @@ public class h_adige extends ModelsBackbone {
                 snowWaterEquivalentArray = new double[hillsSlopeNum];
                 for( int i = 1; i < rainfallScalarSet.size(); i = i + 9 ) {
                     // rain
-                    Double basinId = rainfallScalarSet.get(i);
-                    Integer index = basinid2Index.get(basinId.intValue());
+                    int basinId = (int) rainfallScalarSet.getScalar(i);
+                    Integer index = basinid2Index.get(basinId);
                     if (index == null) {
 //                        System.out.println("Per il bacino " + basinId
 //                                + " non e' stata trovata una corrispondenza tra rete e bacini.");
                         continue;
                     }
-                    double rValue = rainfallScalarSet.get(i + 1);
+                    double rValue = rainfallScalarSet.getScalar(i + 1);
                     if (JGrassConstants.isNovalue(rValue)) {
                         rValue = 0.0;
                     }
                     rainArray[index] = rValue / (deltaTinMinutes / 60.0);
                     // radiation
-                    rValue = rainfallScalarSet.get(i + 2);
+                    rValue = rainfallScalarSet.getScalar(i + 2);
                     radiationArray[index] = rValue;
                     // netshort
-                    rValue = rainfallScalarSet.get(i + 3);
+                    rValue = rainfallScalarSet.getScalar(i + 3);
                     netshortArray[index] = rValue;
                     // temperature
-                    rValue = rainfallScalarSet.get(i + 4);
+                    rValue = rainfallScalarSet.getScalar(i + 4);
                     temperatureArray[index] = rValue;
                     // humidity
-                    rValue = rainfallScalarSet.get(i + 5);
+                    rValue = rainfallScalarSet.getScalar(i + 5);
                     humidityArray[index] = rValue;
                     // windspeed
-                    rValue = rainfallScalarSet.get(i + 6);
+                    rValue = rainfallScalarSet.getScalar(i + 6);
                     windspeedArray[index] = rValue;
                     // pressure
-                    rValue = rainfallScalarSet.get(i + 7);
+                    rValue = rainfallScalarSet.getScalar(i + 7);
                     pressureArray[index] = rValue;
                     // snow water equivalent
-                    rValue = rainfallScalarSet.get(i + 8);
+                    rValue = rainfallScalarSet.getScalar(i + 8);
                     snowWaterEquivalentArray[index] = rValue;
                 }
 
@@ -946,6 +1038,12 @@ public class h_adige extends ModelsBackbone {
                     humidityArray, windspeedArray, pressureArray, snowWaterEquivalentArray);
             initialConditions = rainRunoffRaining.getFinalCond();
             rainRunoffRaining.setBasicTimeStep(10 / 60.);
+
+            if (ensemble != null) {
+                ensemble.solve(intervalStartTimeInMinutes, intervalEndTimeInMinutes, rainArray,
+                        radiationArray, netshortArray, temperatureArray, humidityArray,
+                        windspeedArray, pressureArray, snowWaterEquivalentArray);
+            }
         }
         // return the output link -> create a chart with average rainfall and outlet discharge
         if (linkID.equals(dischargeOutputLink.getID())) {
@@ -956,10 +1054,10 @@ public class h_adige extends ModelsBackbone {
             }
             avgRain = avgRain / rainArray.length;
 
-            ScalarSet ret = new ScalarSet();
+            DoubleScalarSet ret = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
-                ret.add((double) (outNum + 1));
+                ret.addScalar((double) (outNum + 1));
 
                 if (indexesArray == null) {
                     indexesArray = new int[outNum];
@@ -972,11 +1070,11 @@ public class h_adige extends ModelsBackbone {
                 for( int index : indexesArray ) {
                     double dischargeToPrint = initialConditions[index]
                             + initialConditions[index + hillsSlopeNum];
-                    ret.add(dischargeToPrint);
+                    ret.addScalar(dischargeToPrint);
                     double supdischargetoprint = initialConditions[index];
-                    ret.add(supdischargetoprint);
+                    ret.addScalar(supdischargetoprint);
                     double subdischargetoprint = initialConditions[index + hillsSlopeNum];
-                    ret.add(subdischargetoprint);
+                    ret.addScalar(subdischargetoprint);
                     System.out.println("Bacino: " + outPfafIdsStrings[pfafindex]
                             + " Outlet Discharge " + initialConditions[index] + " qsub "
                             + initialConditions[index + hillsSlopeNum] + " S1 "
@@ -985,17 +1083,17 @@ public class h_adige extends ModelsBackbone {
                     pfafindex++;
                 }
             } else {
-                ret.add(4.0);
+                ret.addScalar(4.0);
                 if (indexesArray == null) {
                     indexesArray = new int[1];
                     indexesArray[0] = basinid2Index.get(outletHillslopeId);
                 }
-                ret.add(initialConditions[indexesArray[0]]
+                ret.addScalar(initialConditions[indexesArray[0]]
                         + initialConditions[indexesArray[0] + hillsSlopeNum]);
                 double supdischargetoprint = initialConditions[indexesArray[0]];
-                ret.add(supdischargetoprint);
+                ret.addScalar(supdischargetoprint);
                 double subdischargetoprint = initialConditions[indexesArray[0] + hillsSlopeNum];
-                ret.add(subdischargetoprint);
+                ret.addScalar(subdischargetoprint);
                 System.out.println("Outlet Discharge " + initialConditions[indexesArray[0]]
                         + " qsub " + initialConditions[indexesArray[0] + hillsSlopeNum] + " S1 "
                         + initialConditions[indexesArray[0] + 2 * hillsSlopeNum] + " S2 "
@@ -1004,25 +1102,25 @@ public class h_adige extends ModelsBackbone {
             }
 
             // add also the average rainfall
-            // ret.add(avgRain);
+            // ret.addScalar(avgRain);
             return ret;
         } else if (boundaryOutputLink != null && linkID.equals(boundaryOutputLink.getID())) {
-            ScalarSet outputBoundarySet = new ScalarSet();
-            outputBoundarySet.add((initialConditions.length / 4.0) * 5.0);
+            DoubleScalarSet outputBoundarySet = new DoubleScalarSet();
+            outputBoundarySet.addScalar((initialConditions.length / 4.0) * 5.0);
             for( int i = 0; i < initialConditions.length / 4; i++ ) {
                 Integer basinId = index2Basinid.get(i);
-                outputBoundarySet.add(basinId.doubleValue());
-                outputBoundarySet.add(initialConditions[i]);
-                outputBoundarySet.add(initialConditions[i + hillsSlopeNum]);
-                outputBoundarySet.add(initialConditions[i + 2 * hillsSlopeNum]);
-                outputBoundarySet.add(initialConditions[i + 3 * hillsSlopeNum]);
+                outputBoundarySet.addScalar(basinId.doubleValue());
+                outputBoundarySet.addScalar(initialConditions[i]);
+                outputBoundarySet.addScalar(initialConditions[i + hillsSlopeNum]);
+                outputBoundarySet.addScalar(initialConditions[i + 2 * hillsSlopeNum]);
+                outputBoundarySet.addScalar(initialConditions[i + 3 * hillsSlopeNum]);
             }
             return outputBoundarySet;
         } else if (s1OutputLink != null && linkID.equals(s1OutputLink.getID())) {
-            ScalarSet outputS1Set = new ScalarSet();
+            DoubleScalarSet outputS1Set = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
-                outputS1Set.add((double) (outNum));
+                outputS1Set.addScalar((double) (outNum));
                 if (indexesArray == null) {
                     indexesArray = new int[outNum];
                     for( int i = 0; i < outPfafIdsStrings.length; i++ ) {
@@ -1031,19 +1129,19 @@ public class h_adige extends ModelsBackbone {
                     }
                 }
                 for( int index : indexesArray ) {
-                    outputS1Set.add(initialConditions[index + 2 * hillsSlopeNum]);
+                    outputS1Set.addScalar(initialConditions[index + 2 * hillsSlopeNum]);
                 }
             } else {
-                outputS1Set.add(1.0);
+                outputS1Set.addScalar(1.0);
                 Integer outletIndex = basinid2Index.get(outletHillslopeId);
-                outputS1Set.add(initialConditions[outletIndex + 2 * hillsSlopeNum]);
+                outputS1Set.addScalar(initialConditions[outletIndex + 2 * hillsSlopeNum]);
             }
             return outputS1Set;
         } else if (s2OutputLink != null && linkID.equals(s2OutputLink.getID())) {
-            ScalarSet outputS2Set = new ScalarSet();
+            DoubleScalarSet outputS2Set = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
-                outputS2Set.add((double) (outNum));
+                outputS2Set.addScalar((double) (outNum));
                 if (indexesArray == null) {
                     indexesArray = new int[outNum];
                     for( int i = 0; i < outPfafIdsStrings.length; i++ ) {
@@ -1052,19 +1150,19 @@ public class h_adige extends ModelsBackbone {
                     }
                 }
                 for( int index : indexesArray ) {
-                    outputS2Set.add(initialConditions[index + 3 * hillsSlopeNum]);
+                    outputS2Set.addScalar(initialConditions[index + 3 * hillsSlopeNum]);
                 }
             } else {
-                outputS2Set.add(1.0);
+                outputS2Set.addScalar(1.0);
                 Integer outletIndex = basinid2Index.get(outletHillslopeId);
-                outputS2Set.add(initialConditions[outletIndex + 3 * hillsSlopeNum]);
+                outputS2Set.addScalar(initialConditions[outletIndex + 3 * hillsSlopeNum]);
             }
             return outputS2Set;
         } else if (s3OutputLink != null && linkID.equals(s3OutputLink.getID())) {
-            ScalarSet outputS3Set = new ScalarSet();
+            DoubleScalarSet outputS3Set = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
-                outputS3Set.add((double) (outNum));
+                outputS3Set.addScalar((double) (outNum));
                 if (indexesArray == null) {
                     indexesArray = new int[outNum];
                     for( int i = 0; i < outPfafIdsStrings.length; i++ ) {
@@ -1074,22 +1172,22 @@ public class h_adige extends ModelsBackbone {
                 }
                 for( int index : indexesArray ) {
                     HillSlope hillSlope = orderedHillslopes.get(index);
-                    outputS3Set.add(hillSlope.parameters.getS2Param()
+                    outputS3Set.addScalar(hillSlope.parameters.getS2Param()
                             * (initialConditions[index + 3 * hillsSlopeNum]));
                 }
             } else {
-                outputS3Set.add(1.0);
+                outputS3Set.addScalar(1.0);
                 Integer outletIndex = basinid2Index.get(outletHillslopeId);
                 HillSlope hillSlope = orderedHillslopes.get(outletIndex);
-                outputS3Set.add(hillSlope.parameters.getS2Param()
+                outputS3Set.addScalar(hillSlope.parameters.getS2Param()
                         * (initialConditions[outletIndex + 3 * hillsSlopeNum]));
             }
             return outputS3Set;
         } else if (basinrainOutputLink != null && linkID.equals(basinrainOutputLink.getID())) {
-            ScalarSet basinrainSet = new ScalarSet();
+            DoubleScalarSet basinrainSet = new DoubleScalarSet();
             if (outPfafIdsStrings != null) {
                 int outNum = outPfafIdsStrings.length;
-                basinrainSet.add((double) (outNum));
+                basinrainSet.addScalar((double) (outNum));
                 if (indexesArray == null) {
                     indexesArray = new int[outNum];
                     for( int i = 0; i < outPfafIdsStrings.length; i++ ) {
@@ -1098,12 +1196,12 @@ public class h_adige extends ModelsBackbone {
                     }
                 }
                 for( int index : indexesArray ) {
-                    basinrainSet.add(rainArray[index]);
+                    basinrainSet.addScalar(rainArray[index]);
                 }
             } else {
-                basinrainSet.add(1.0);
+                basinrainSet.addScalar(1.0);
                 Integer outletIndex = basinid2Index.get(outletHillslopeId);
-                basinrainSet.add(rainArray[outletIndex + 3 * hillsSlopeNum]);
+                basinrainSet.addScalar(rainArray[outletIndex + 3 * hillsSlopeNum]);
             }
             return basinrainSet;
         }
@@ -1164,7 +1262,7 @@ public class h_adige extends ModelsBackbone {
             HashMap<Integer, HashMap<Integer, Double>> vegindex2roughnessMap,
             HashMap<Integer, Double> vegindex2RGLMap, HashMap<Integer, Double> vegindex2rsMap,
             HashMap<Integer, Double> vegindex2rarcMap ) throws ModelsIOException {
-        Double columns = vegetationLibScalarSet.get(0);
+        Double columns = vegetationLibScalarSet.getScalar(0);
         int vegIndexesNum = 56;
         if (columns != vegIndexesNum) {
             throw new ModelsIOException(
@@ -1173,25 +1271,25 @@ public class h_adige extends ModelsBackbone {
         }
         for( int i = 1; i < vegetationLibScalarSet.size(); i = i + vegIndexesNum ) {
             // 0-id,1-architectural_resistance,2-min_stomatal_resistance,
-            int id = vegetationLibScalarSet.get(i + 0).intValue();
-            double archResistance = vegetationLibScalarSet.get(i + 1);
+            int id = (int) vegetationLibScalarSet.getScalar(i + 0);
+            double archResistance = vegetationLibScalarSet.getScalar(i + 1);
             vegindex2rarcMap.put(id, archResistance);
-            double minStomatalResistance = vegetationLibScalarSet.get(i + 2);
+            double minStomatalResistance = vegetationLibScalarSet.getScalar(i + 2);
             vegindex2rsMap.put(id, minStomatalResistance);
             // 3-lai_jan,4-lai_feb,5-lai_mar,6-lai_apr,7-lai_maj,8-lai_jun,
             // 9-lai_jul,9-lai_aug,11-lai_sep,12-lai_oct,13-lai_nov,14-lai_dec
-            double laiJan = vegetationLibScalarSet.get(i + 3);
-            double laiFeb = vegetationLibScalarSet.get(i + 4);
-            double laiMar = vegetationLibScalarSet.get(i + 5);
-            double laiApr = vegetationLibScalarSet.get(i + 6);
-            double laiMay = vegetationLibScalarSet.get(i + 7);
-            double laiGiu = vegetationLibScalarSet.get(i + 8);
-            double laiJul = vegetationLibScalarSet.get(i + 9);
-            double laiAug = vegetationLibScalarSet.get(i + 10);
-            double laiSep = vegetationLibScalarSet.get(i + 11);
-            double laiOct = vegetationLibScalarSet.get(i + 12);
-            double laiNov = vegetationLibScalarSet.get(i + 13);
-            double laiDec = vegetationLibScalarSet.get(i + 14);
+            double laiJan = vegetationLibScalarSet.getScalar(i + 3);
+            double laiFeb = vegetationLibScalarSet.getScalar(i + 4);
+            double laiMar = vegetationLibScalarSet.getScalar(i + 5);
+            double laiApr = vegetationLibScalarSet.getScalar(i + 6);
+            double laiMay = vegetationLibScalarSet.getScalar(i + 7);
+            double laiGiu = vegetationLibScalarSet.getScalar(i + 8);
+            double laiJul = vegetationLibScalarSet.getScalar(i + 9);
+            double laiAug = vegetationLibScalarSet.getScalar(i + 10);
+            double laiSep = vegetationLibScalarSet.getScalar(i + 11);
+            double laiOct = vegetationLibScalarSet.getScalar(i + 12);
+            double laiNov = vegetationLibScalarSet.getScalar(i + 13);
+            double laiDec = vegetationLibScalarSet.getScalar(i + 14);
             HashMap<Integer, Double> laiMap = new HashMap<Integer, Double>();
             laiMap.put(1, laiJan);
             laiMap.put(2, laiFeb);
@@ -1214,18 +1312,18 @@ public class h_adige extends ModelsBackbone {
             // 27-rough_jan,28-rough_feb,29-rough_mar,30-rough_apr,31-rough_maj,
             // 32-rough_jun,33-rough_jul,34-rough_ago,35-rough_sep,36-rough_oct,
             // 37-rough_nov,38-rough_dec
-            double roughnessJan = vegetationLibScalarSet.get(i + 27);
-            double roughnessFeb = vegetationLibScalarSet.get(i + 28);
-            double roughnessMar = vegetationLibScalarSet.get(i + 29);
-            double roughnessApr = vegetationLibScalarSet.get(i + 30);
-            double roughnessMay = vegetationLibScalarSet.get(i + 31);
-            double roughnessGiu = vegetationLibScalarSet.get(i + 32);
-            double roughnessJul = vegetationLibScalarSet.get(i + 33);
-            double roughnessAug = vegetationLibScalarSet.get(i + 34);
-            double roughnessSep = vegetationLibScalarSet.get(i + 35);
-            double roughnessOct = vegetationLibScalarSet.get(i + 36);
-            double roughnessNov = vegetationLibScalarSet.get(i + 37);
-            double roughnessDec = vegetationLibScalarSet.get(i + 38);
+            double roughnessJan = vegetationLibScalarSet.getScalar(i + 27);
+            double roughnessFeb = vegetationLibScalarSet.getScalar(i + 28);
+            double roughnessMar = vegetationLibScalarSet.getScalar(i + 29);
+            double roughnessApr = vegetationLibScalarSet.getScalar(i + 30);
+            double roughnessMay = vegetationLibScalarSet.getScalar(i + 31);
+            double roughnessGiu = vegetationLibScalarSet.getScalar(i + 32);
+            double roughnessJul = vegetationLibScalarSet.getScalar(i + 33);
+            double roughnessAug = vegetationLibScalarSet.getScalar(i + 34);
+            double roughnessSep = vegetationLibScalarSet.getScalar(i + 35);
+            double roughnessOct = vegetationLibScalarSet.getScalar(i + 36);
+            double roughnessNov = vegetationLibScalarSet.getScalar(i + 37);
+            double roughnessDec = vegetationLibScalarSet.getScalar(i + 38);
             HashMap<Integer, Double> roughnessMap = new HashMap<Integer, Double>();
             roughnessMap.put(1, roughnessJan);
             roughnessMap.put(2, roughnessFeb);
@@ -1244,18 +1342,18 @@ public class h_adige extends ModelsBackbone {
             // 39-displ_jan,40-displ_feb,41-displ_mar,
             // 42-displ_apr,43-displ_maj,44-displ_jun,45-displ_jul,46-displ_ago,
             // 47-displ_sep,48-displ_oct,49-displ_nov,50-displ_dec,
-            double displacementJan = vegetationLibScalarSet.get(i + 39);
-            double displacementFeb = vegetationLibScalarSet.get(i + 40);
-            double displacementMar = vegetationLibScalarSet.get(i + 41);
-            double displacementApr = vegetationLibScalarSet.get(i + 42);
-            double displacementMay = vegetationLibScalarSet.get(i + 43);
-            double displacementGiu = vegetationLibScalarSet.get(i + 44);
-            double displacementJul = vegetationLibScalarSet.get(i + 45);
-            double displacementAug = vegetationLibScalarSet.get(i + 46);
-            double displacementSep = vegetationLibScalarSet.get(i + 47);
-            double displacementOct = vegetationLibScalarSet.get(i + 48);
-            double displacementNov = vegetationLibScalarSet.get(i + 49);
-            double displacementDec = vegetationLibScalarSet.get(i + 50);
+            double displacementJan = vegetationLibScalarSet.getScalar(i + 39);
+            double displacementFeb = vegetationLibScalarSet.getScalar(i + 40);
+            double displacementMar = vegetationLibScalarSet.getScalar(i + 41);
+            double displacementApr = vegetationLibScalarSet.getScalar(i + 42);
+            double displacementMay = vegetationLibScalarSet.getScalar(i + 43);
+            double displacementGiu = vegetationLibScalarSet.getScalar(i + 44);
+            double displacementJul = vegetationLibScalarSet.getScalar(i + 45);
+            double displacementAug = vegetationLibScalarSet.getScalar(i + 46);
+            double displacementSep = vegetationLibScalarSet.getScalar(i + 47);
+            double displacementOct = vegetationLibScalarSet.getScalar(i + 48);
+            double displacementNov = vegetationLibScalarSet.getScalar(i + 49);
+            double displacementDec = vegetationLibScalarSet.getScalar(i + 50);
             HashMap<Integer, Double> displacementMap = new HashMap<Integer, Double>();
             displacementMap.put(1, displacementJan);
             displacementMap.put(2, displacementFeb);
@@ -1273,7 +1371,7 @@ public class h_adige extends ModelsBackbone {
 
             // 51-wind_height,
             // 52-rgl
-            double rgl = vegetationLibScalarSet.get(i + 52);
+            double rgl = vegetationLibScalarSet.getScalar(i + 52);
             vegindex2RGLMap.put(id, rgl);
             // 53-rad_atten,54-wind_atten,55-trunk_ratio,
         }
@@ -1323,6 +1421,111 @@ public class h_adige extends ModelsBackbone {
     }
 
     public void finish() {
+        if (duffyEvaluator != null) {
+            duffyEvaluator.dispose();
+        }
+        if (ensemble != null) {
+            ensemble.dispose();
+        }
+        if (ensembleOutput != null) {
+            try {
+                ensembleOutput.close();
+            } catch (IOException e) {
+                err.println("An error occurred while closing the ensemble file: "
+                        + e.getLocalizedMessage());
+            }
+            ensembleOutput = null;
+        }
+    }
+
+    /**
+     * @return the indexes of the hillslopes given by the output pfafstetter numbers, or the one
+     *         of the outlet if none was given.
+     */
+    private int[] createOutputIndexes() {
+        if (outPfafIdsStrings == null) {
+            return new int[]{basinid2Index.get(outletHillslopeId)};
+        }
+        int[] indexes = new int[outPfafIdsStrings.length];
+        for( int i = 0; i < outPfafIdsStrings.length; i++ ) {
+            indexes[i] = pfaff2Index.get(outPfafIdsStrings[i]);
+        }
+        return indexes;
+    }
+
+    public boolean isPersistent() {
+        return true;
+    }
+
+    public void writeState( DataOutput out ) throws IOException {
+        byte[] state = pendingState;
+        if (state == null) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream stateOut = new DataOutputStream(bytes);
+            if (initialConditions == null) {
+                // not yet started
+                stateOut.writeInt(-1);
+            } else {
+                stateOut.writeInt(hillsSlopeNum);
+                for( int i = 0; i < initialConditions.length; i++ ) {
+                    stateOut.writeDouble(initialConditions[i]);
+                }
+                stateOut.writeInt(orderedHillslopes.size());
+                for( HillSlope hillSlope : orderedHillslopes ) {
+                    stateOut.writeInt(hillSlope.getHillslopeId());
+                    hillslopeId2DischargeDistributor.get(hillSlope.getHillslopeId()).writeState(
+                            stateOut);
+                }
+            }
+            stateOut.flush();
+            state = bytes.toByteArray();
+        }
+        out.writeInt(state.length);
+        out.write(state);
+    }
+
+    public void readState( DataInput in ) throws IOException {
+        byte[] state = new byte[in.readInt()];
+        in.readFully(state);
+        if (initialConditions == null) {
+            // the hillslopes are created at the first time step
+            pendingState = state;
+        } else {
+            applyState(state);
+        }
+    }
+
+    /**
+     * Replaces the discharges and storages of the hillslopes and the state of the discharge
+     * distributors with the ones written by {@link #writeState(DataOutput)}.
+     * 
+     * @param state the written state.
+     * @throws IOException if the state does not fit the hillslopes of the model.
+     */
+    private void applyState( byte[] state ) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(state));
+        int num = in.readInt();
+        if (num == -1) {
+            return;
+        }
+        if (num != hillsSlopeNum) {
+            throw new IOException("The state was written for " + num + " hillslopes instead of "
+                    + hillsSlopeNum);
+        }
+        double[] conditions = new double[hillsSlopeNum * 4];
+        for( int i = 0; i < conditions.length; i++ ) {
+            conditions[i] = in.readDouble();
+        }
+        int distributorsNum = in.readInt();
+        for( int i = 0; i < distributorsNum; i++ ) {
+            int hillslopeId = in.readInt();
+            DischargeDistributor distributor = hillslopeId2DischargeDistributor.get(hillslopeId);
+            if (distributor == null) {
+                throw new IOException("The state holds the unknown hillslope " + hillslopeId);
+            }
+            distributor.readState(in);
+        }
+        initialConditions = conditions;
     }
 
     public IInputExchangeItem getInputExchangeItem( int inputExchangeItemIndex ) {
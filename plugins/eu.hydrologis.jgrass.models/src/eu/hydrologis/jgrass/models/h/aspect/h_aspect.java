@@ -127,6 +127,8 @@ public class h_aspect extends ModelsBackbone {
 
     private boolean doTile = false;
 
+    private int threads = 1;
+
     public h_aspect() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -226,7 +228,7 @@ public class h_aspect extends ModelsBackbone {
             double dx = activeRegion.getWEResolution();
             double dy = activeRegion.getNSResolution();
             PlanarImage pitImage = (PlanarImage) pitData.view(ViewType.GEOPHYSICS).getRenderedImage();
-            RenderedOp aspect = HMAspectDescriptor.create(pitImage, dx, dy, err, out, doTile);
+            RenderedOp aspect = HMAspectDescriptor.create(pitImage, dx, dy, err, out, doTile, threads);
             RenderedOp aspectNoV = FluidUtils.setJaiNovalueBorder(aspect);
             CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
             jgrValueSet = new JGrassGridCoverageValueSet(aspectNoV, activeRegion, crs);
@@ -277,6 +279,9 @@ public class h_aspect extends ModelsBackbone {
                     // }
 
                 }
+                if (key.compareTo(ModelsConstants.THREADS) == 0) {
+                    threads = Integer.parseInt(argument.getValue());
+                }
             }
         }
 
@@ -29,6 +29,8 @@ import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureCollections;
@@ -164,10 +166,10 @@ public class h_basinshape extends ModelsBackbone {
 
             GridCoverage2D pitData = null;
             if (pitLink != null) {
-                IValueSet pitValueSet = pitLink.getSourceComponent().getValues(time, pitLink.getID());
+                IValueSet pitValueSet = LinkValueCache.requestValues(pitLink, time);
                 pitData = ((JGrassGridCoverageValueSet) pitValueSet).getGridCoverage2D();
             }
-            IValueSet basinsValueSet = basinsLink.getSourceComponent().getValues(time, basinsLink.getID());
+            IValueSet basinsValueSet = LinkValueCache.requestValues(basinsLink, time);
             GridCoverage2D basinsData = ((JGrassGridCoverageValueSet) basinsValueSet).getGridCoverage2D();
             FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = basinShape((PlanarImage) basinsData
                     .getRenderedImage(), (PlanarImage) pitData.getRenderedImage());
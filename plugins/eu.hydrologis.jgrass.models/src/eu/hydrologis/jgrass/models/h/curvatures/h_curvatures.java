@@ -23,16 +23,21 @@
 package eu.hydrologis.jgrass.models.h.curvatures;
 
 import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.doubleNovalue;
-import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
 
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.WritableRaster;
+import java.awt.image.renderable.ParameterBlock;
 import java.io.File;
 import java.io.PrintStream;
 
+import javax.media.jai.BorderExtenderConstant;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
+import javax.media.jai.RenderedOp;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -45,8 +50,8 @@ import org.openmi.standard.IValueSet;
 
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
+import eu.hydrologis.jgrass.operations.jai.curvatures.HMCurvaturesDescriptor;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
@@ -72,7 +77,7 @@ import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
  * <LI>the file containing the matrix of planar curvatures (--plan);</LI>
  * </OL>
  * <P></DD> Usage: h.curvatures --igrass-pit pit --ograss-prof prof --ograss-plan plan --ograss-tang
- * tang
+ * tang [--threads n]
  * </p>
  * <p>
  * Note: The planar and normal (or tangent) curvatures are proportional to each other. To function,
@@ -126,6 +131,8 @@ public class h_curvatures extends ModelsBackbone {
 
     private WritableRaster tangMemImage;
 
+    private int threads = 1;
+
     public h_curvatures() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -269,6 +276,9 @@ public class h_curvatures extends ModelsBackbone {
                 if (key.compareTo(ModelsConstants.MAPSET) == 0) {
                     mapset = argument.getValue();
                 }
+                if (key.compareTo(ModelsConstants.THREADS) == 0) {
+                    threads = Integer.parseInt(argument.getValue());
+                }
             }
 
         }
@@ -326,9 +336,16 @@ public class h_curvatures extends ModelsBackbone {
     }
 
     /**
-     * Calculates the curvatures in every pixel of the map
-     * 
-     * @return
+     * Calculates the curvatures in every pixel of the map through the {@link HMCurvaturesDescriptor}
+     * operation, computed in row stripes on {@link #threads} threads.
+     * <p>
+     * The operation has no border extender, so its image is smaller than the source by one pixel
+     * on every side and it leaves one more pixel on every side uncomputed. The elevations are
+     * therefore padded with a border of novalues, so that all the cells but the ones on the border
+     * of the map are computed, reading the same neighbours as the map itself. The border cells
+     * stay novalue. The padded elevations are laid out in a single tile, which the operation
+     * takes over, since it leaves uncomputed the border of every tile too.
+     * </p>
      */
     private void curvatures( RenderedImage elevationImage, WritableRaster profImage, WritableRaster tangImage,
             WritableRaster planImage, double xRes, double yRes ) {
@@ -336,125 +353,41 @@ public class h_curvatures extends ModelsBackbone {
         int width = elevationImage.getWidth();
         int height = elevationImage.getHeight();
 
-        WritableRaster sxData = FluidUtils.createDoubleWritableRaster(width, height, null, null, doubleNovalue);
-        WritableRaster syData = FluidUtils.createDoubleWritableRaster(width, height, null, null, doubleNovalue);
-        // second derivative
-        WritableRaster sxxData = FluidUtils.createDoubleWritableRaster(width, height, null, null, doubleNovalue);
-        WritableRaster syyData = FluidUtils.createDoubleWritableRaster(width, height, null, null, doubleNovalue);
-        WritableRaster sxyData = FluidUtils.createDoubleWritableRaster(width, height, null, null, doubleNovalue);
-        double plan = 0.0;
-        double tang = 0.0;
-        double prof = 0.0;
-
-        RandomIter elevationIterator = RandomIterFactory.create(elevationImage, null);
-
-        // calculate ...
-
-        /*------------------------------------first derivative ----------------------------------------------*/
-
-        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
-        pm.beginTask("Calculating first derivates...", width - 2);
-        // calculate the firs order derivative
-        for( int x = 1; x < width - 1; x++ ) {
-            for( int y = 1; y < height - 1; y++ ) {
-
-                if (isNovalue(elevationIterator.getSampleDouble(x, y, 0))) {
-                    sxData.setSample(x, y, 0, doubleNovalue);
-                    syData.setSample(x, y, 0, doubleNovalue);
-                } else {
-                    sxData.setSample(x, y, 0, 0.5
-                            * (elevationIterator.getSampleDouble(x, y + 1, 0) - elevationIterator.getSampleDouble(x, y - 1, 0))
-                            / xRes);
-                    syData.setSample(x, y, 0, 0.5
-                            * (elevationIterator.getSampleDouble(x + 1, y, 0) - elevationIterator.getSampleDouble(x - 1, y, 0))
-                            / yRes);
-                }
-            }
-            pm.worked(1);
-        }
-        pm.done();
-
-        /*-------------------------------------second derivative----------------------------------------*/
-
-        pm.beginTask("Calculating second derivates...", height - 2);
-        double disXX = Math.pow(xRes, 2.0);
-        double disYY = Math.pow(yRes, 2.0);
-        // calculate the second order derivative
-        for( int j = 1; j < height - 1; j++ ) {
-            for( int i = 1; i < width - 1; i++ ) {
-                if (isNovalue(elevationIterator.getSampleDouble(i, j, 0))) {
-                    sxxData.setSample(i, j, 0, doubleNovalue);
-                    syyData.setSample(i, j, 0, doubleNovalue);
-                    sxyData.setSample(i, j, 0, doubleNovalue);
-
-                } else {
-                    sxxData
-                            .setSample(i, j, 0,
-                                    ((elevationIterator.getSampleDouble(i, j + 1, 0) - 2
-                                            * elevationIterator.getSampleDouble(i, j, 0) + elevationIterator.getSampleDouble(i,
-                                            j - 1, 0)) / disXX));
-                    syyData
-                            .setSample(i, j, 0,
-                                    ((elevationIterator.getSampleDouble(i + 1, j, 0) - 2
-                                            * elevationIterator.getSampleDouble(i, j, 0) + elevationIterator.getSampleDouble(
-                                            i - 1, j, 0)) / disYY));
-                    sxyData.setSample(i, j, 0, 0.25 * ((elevationIterator.getSampleDouble(i + 1, j + 1, 0)
-                            - elevationIterator.getSampleDouble(i + 1, j - 1, 0)
-                            - elevationIterator.getSampleDouble(i - 1, j + 1, 0) + elevationIterator.getSampleDouble(i - 1,
-                            j - 1, 0)) / (xRes * yRes)));
-                }
-            }
-            pm.worked(1);
-        }
-        pm.done();
-
-        /*---------------------------------------curvatures---------------------------------------------*/
-
-        double p, q;
-
-        // calculate curvatures
-        pm.beginTask("Calculating curvatures...", height - 2);
-        for( int j = 1; j < height - 1; j++ ) {
-            for( int i = 1; i < width - 1; i++ ) {
-                if (isNovalue(elevationIterator.getSampleDouble(i, j, 0))) {
-                    plan = doubleNovalue;
-                    tang = doubleNovalue;
-                    prof = doubleNovalue;
-
-                } else {
-                    double sxSample = sxData.getSampleDouble(i, j, 0);
-                    double sySample = syData.getSampleDouble(i, j, 0);
-                    p = Math.pow(sxSample, 2.0) + Math.pow(sySample, 2.0);
-                    q = p + 1;
-                    if (p == 0.0) {
-                        plan = 0.0;
-                        tang = 0.0;
-                        prof = 0.0;
-
-                    } else {
-
-                        double sxxSample = sxxData.getSampleDouble(i, j, 0);
-                        double sxySample = sxyData.getSampleDouble(i, j, 0);
-                        double syySample = syyData.getSampleDouble(i, j, 0);
-                        plan = (sxxSample * Math.pow(sySample, 2.0) - 2 * sxySample * sxSample * sySample + syySample
-                                * Math.pow(sxSample, 2.0))
-                                / (Math.pow(p, 1.5));
-                        tang = (sxxSample * Math.pow(sySample, 2.0) - 2 * sxySample * sxSample * sySample + syySample
-                                * Math.pow(sxSample, 2.0))
-                                / (p * Math.pow(q, 0.5));
-                        prof = (sxxSample * Math.pow(sxSample, 2.0) + 2 * sxySample * sxSample * sySample + syySample
-                                * Math.pow(sySample, 2.0))
-                                / (p * Math.pow(q, 1.5));
+        ParameterBlock block = new ParameterBlock();
+        block.addSource(elevationImage);
+        block.add(1);
+        block.add(1);
+        block.add(1);
+        block.add(1);
+        block.add(new BorderExtenderConstant(new double[]{doubleNovalue}));
+        ImageLayout layout = new ImageLayout();
+        layout.setTileGridXOffset(elevationImage.getMinX() - 1);
+        layout.setTileGridYOffset(elevationImage.getMinY() - 1);
+        layout.setTileWidth(width + 2);
+        layout.setTileHeight(height + 2);
+        RenderedOp paddedElevation = JAI.create("Border", block, new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout)); //$NON-NLS-1$
+
+        RenderedOp curvaturesImage = HMCurvaturesDescriptor.create(paddedElevation, xRes, yRes, err, out, false,
+                threads);
+
+        // copy the bands of plan, tang and prof, tile by tile
+        Rectangle inner = new Rectangle(elevationImage.getMinX() + 1, elevationImage.getMinY() + 1, width - 2,
+                height - 2);
+        for( int tileY = curvaturesImage.getMinTileY(); tileY <= curvaturesImage.getMaxTileY(); tileY++ ) {
+            for( int tileX = curvaturesImage.getMinTileX(); tileX <= curvaturesImage.getMaxTileX(); tileX++ ) {
+                Raster tile = curvaturesImage.getTile(tileX, tileY);
+                Rectangle rect = tile.getBounds().intersection(inner);
+                for( int y = rect.y; y < rect.y + rect.height; y++ ) {
+                    for( int x = rect.x; x < rect.x + rect.width; x++ ) {
+                        int i = x - elevationImage.getMinX();
+                        int j = y - elevationImage.getMinY();
+                        planImage.setSample(i, j, 0, tile.getSampleDouble(x, y, 0));
+                        tangImage.setSample(i, j, 0, tile.getSampleDouble(x, y, 1));
+                        profImage.setSample(i, j, 0, tile.getSampleDouble(x, y, 2));
                     }
-
                 }
-                profImage.setSample(i, j, 0, prof);
-                tangImage.setSample(i, j, 0, tang);
-                planImage.setSample(i, j, 0, plan);
             }
-            pm.worked(1);
         }
-        pm.done();
-
+        curvaturesImage.dispose();
     }
 }
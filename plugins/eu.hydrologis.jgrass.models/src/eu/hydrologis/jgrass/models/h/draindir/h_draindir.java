@@ -30,12 +30,10 @@ import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.PrintStream;
 
-import javax.media.jai.PlanarImage;
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
-import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
@@ -44,6 +42,8 @@ import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
+import eu.hydrologis.jgrass.libs.jai.RasterDataRandomIter;
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
@@ -256,22 +256,19 @@ public class h_draindir extends ModelsBackbone {
     public IValueSet safeGetValues( ITime time, String linkID ) throws Exception {
         if (linkID.equals(dirLink.getID()) || linkID.equals(tcaLink.getID())) {
             if (result == null) {
-                GridCoverage2D pitGC = ModelsConstants.getGridCoverage2DFromLink(pitLink, time, err);
-                GridCoverage2D flowGC = ModelsConstants.getGridCoverage2DFromLink(flowLink, time, err);
+                // the shared views of the maps, read without copying them
+                DoubleRasterData pitData = ModelsConstants.getSharedRasterDataFromLink(pitLink, time, err);
+                DoubleRasterData flowData = ModelsConstants.getSharedRasterDataFromLink(flowLink, time, err);
 
-                PlanarImage pitImage = (PlanarImage) pitGC.getRenderedImage();
-                PlanarImage flowImage = (PlanarImage) flowGC.getRenderedImage();
-
-                PlanarImage flowfixedImage = null;
+                DoubleRasterData flowfixedData = null;
                 if (fixedMode == 1 && flowFixedLink == null) {
                     err.println("Error! fowfixed map not set\n"); //$NON-NLS-1$
                     return null;
                 } else if (fixedMode == 1) {
                     // only if necessary reads this map (flow fixed on net)
-                    GridCoverage2D flowfixedGC = ModelsConstants.getGridCoverage2DFromLink(flowFixedLink, time, err);
-                    flowfixedImage = (PlanarImage) flowfixedGC.getRenderedImage();
+                    flowfixedData = ModelsConstants.getSharedRasterDataFromLink(flowFixedLink, time, err);
                 }
-                result = dirdren(mode, fixedMode, pitImage, flowImage, flowfixedImage);
+                result = dirdren(mode, fixedMode, pitData, flowData, flowfixedData);
             }
             if (result == null) {
                 return null;
@@ -386,39 +383,36 @@ public class h_draindir extends ModelsBackbone {
      * 
      * @throws Exception
      */
-    private WritableRaster[] dirdren( int mode, int fixedMode, PlanarImage pitTmpImage, PlanarImage flowTmpImage,
-            PlanarImage flowfixedImage ) throws Exception {
-        double[] orderedelev, indexes;
+    private WritableRaster[] dirdren( int mode, int fixedMode, DoubleRasterData pitData, DoubleRasterData flowData,
+            DoubleRasterData flowfixedData ) throws Exception {
+        double[] orderedelev;
         int nelev;
 
         // get rows and cols from the active region
-        int minX = pitTmpImage.getMinX();
-        int minY = pitTmpImage.getMinY();
-        int maxX = pitTmpImage.getMaxX();
-        int maxY = pitTmpImage.getMaxY();
-        int activecols = pitTmpImage.getWidth();
-        int activerows = pitTmpImage.getHeight();
-        // setting novalues...
-        PlanarImage flowImage = FluidUtils.setJaiNovalueBorder(flowTmpImage);
-        PlanarImage pitImage = FluidUtils.setJaiNovalueBorder(pitTmpImage);
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
+        int minX = 0;
+        int minY = 0;
+        int maxX = pitData.getCols();
+        int maxY = pitData.getRows();
+        int activecols = pitData.getCols();
+        int activerows = pitData.getRows();
+        // setting novalues on the border...
+        RandomIter flowRandomIter = new RasterDataRandomIter(flowData, true);
+        RandomIter pitRandomIter = new RasterDataRandomIter(pitData, true);
 
         // create new matrix
         orderedelev = new double[activecols * activerows];
-        indexes = new double[activecols * activerows];
 
         nelev = 0;
         for( int j = minY; j < maxY; j++ ) {
             for( int i = minX; i < maxX; i++ ) {
                 orderedelev[((j) * activecols) + i] = pitRandomIter.getSampleDouble(i, j, 0);
-                indexes[((j) * activecols) + i] = ((j) * activecols) + i + 1;
                 if (!isNovalue(pitRandomIter.getSampleDouble(i, j, 0))) {
                     nelev = nelev + 1;
                 }
             }
         }
 
-        FluidUtils.sort2DoubleVectors(orderedelev, indexes, null);
+        int[] indexes = FluidUtils.sortIndexes(orderedelev, null);
 
         // free the memory
         orderedelev = null;
@@ -433,15 +427,19 @@ public class h_draindir extends ModelsBackbone {
         WritableRaster deviationsImage = FluidUtils.createDoubleWritableRaster(activecols, activerows, null, null, null);
 
         if (mode == 1) {
-            OrlandiniD8_LAD(indexes, deviationsImage, analyzeImage, pitImage, flowImage, tcaImage, dirImage, nelev, activeRegion);
+            OrlandiniD8_LAD(indexes, deviationsImage, analyzeImage, pitRandomIter, flowRandomIter, tcaImage, dirImage,
+                    nelev, activerows, activecols, activeRegion);
         } else {
-            OrlandiniD8_LTD(indexes, deviationsImage, analyzeImage, pitImage, flowImage, tcaImage, dirImage, nelev, activeRegion);
+            OrlandiniD8_LTD(indexes, deviationsImage, analyzeImage, pitRandomIter, flowRandomIter, tcaImage, dirImage,
+                    nelev, activerows, activecols, activeRegion);
             // only if required executes this method
             if (fixedMode == 1) {
-                newDirections(flowfixedImage, pitImage, dirImage);
+                newDirections(flowfixedData, pitRandomIter, dirImage, activerows, activecols);
             }
 
         }
+        pitRandomIter.done();
+        flowRandomIter.done();
         return new WritableRaster[]{dirImage, tcaImage};
 
     };
@@ -450,18 +448,23 @@ public class h_draindir extends ModelsBackbone {
      * routine that defines the draining directions
      * 
      * @param indexes
-     *            vector containing the order of elevation
+     *            the indexes of the cells in ascending order of elevation
      * @param deviationsImage
      *            the map containing the deviation
      * @param analyzeImage
+     * @param pitRandomIter
+     *            the elevations, novalue on the border
+     * @param flowRandomIter
+     *            the flow directions, novalue on the border
      * @param nelev
+     * @param realrows
+     * @param realcols
      * @return
      */
-    private short OrlandiniD8_LAD( double[] indexes, WritableRaster deviationsImage, WritableRaster analyzeImage,
-            PlanarImage pitImage, PlanarImage flowImage, WritableRaster tcaImage, WritableRaster dirImage, int nelev,
-            JGrassRegion activeRegion ) {
+    private short OrlandiniD8_LAD( int[] indexes, WritableRaster deviationsImage, WritableRaster analyzeImage,
+            RandomIter pitRandomIter, RandomIter flowRandomIter, WritableRaster tcaImage, WritableRaster dirImage,
+            int nelev, int realrows, int realcols, JGrassRegion activeRegion ) {
         int row, col, ncelle, nr, nc;
-        int realrows, realcols;
         double dev1, dev2, sumdev1, sumdev2, sumdev;
         double[] dati = new double[10]; /*
                                          * it contains:
@@ -472,14 +475,7 @@ public class h_draindir extends ModelsBackbone {
 
         double[] u = {activeRegion.getWEResolution(), activeRegion.getNSResolution()};
         double[] v = {NaN, NaN};
-        // get rows and cols from the active region
-        realrows = pitImage.getHeight();
-        realcols = pitImage.getWidth();
-
         ncelle = 0;
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
-        RandomIter flowRandomIter = RandomIterFactory.create(flowImage, null);
-
         WritableRandomIter tcaRandomIter = RandomIterFactory.createWritable(tcaImage, null);
         WritableRandomIter analyseRandomIter = RandomIterFactory.createWritable(analyzeImage, null);
         WritableRandomIter deviationRandomIter = RandomIterFactory.createWritable(deviationsImage, null);
@@ -488,7 +484,7 @@ public class h_draindir extends ModelsBackbone {
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
         pm.beginTask(WORKING_ON + "OrlandiniD8 LAD", realrows * realcols);
         for( int i = realrows * realcols - 1; i >= 0; i-- ) {
-            count = indexes[i];
+            count = indexes[i] + 1;
             col = (int) count % realcols - 1;
             row = (int) count / realcols;
             if (!isNovalue(pitRandomIter.getSampleDouble(col, row, 0)) && !isNovalue(flowRandomIter.getSampleDouble(col, row, 0))) {
@@ -560,8 +556,6 @@ public class h_draindir extends ModelsBackbone {
         pm.done();
 
         dirRandomIter.done();
-        pitRandomIter.done();
-        flowRandomIter.done();
         deviationRandomIter.done();
         analyseRandomIter.done();
         tcaRandomIter.done();
@@ -572,19 +566,24 @@ public class h_draindir extends ModelsBackbone {
      * routine that defines the draining directions
      * 
      * @param indexes
-     *            vector containing the order of elevation
+     *            the indexes of the cells in ascending order of elevation
      * @param deviationsImage
      *            the map containing the deviation
      * @param analyzeImage
+     * @param pitRandomIter
+     *            the elevations, novalue on the border
+     * @param flowRandomIter
+     *            the flow directions, novalue on the border
      * @param nelev
+     * @param realrows
+     * @param realcols
      * @return
      */
-    private short OrlandiniD8_LTD( double[] indexes, WritableRaster deviationsImage, WritableRaster analyzeImage,
-            PlanarImage pitImage, PlanarImage flowImage, WritableRaster tcaImage, WritableRaster dirImage, int nelev,
-            JGrassRegion activeRegion ) {
+    private short OrlandiniD8_LTD( int[] indexes, WritableRaster deviationsImage, WritableRaster analyzeImage,
+            RandomIter pitRandomIter, RandomIter flowRandomIter, WritableRaster tcaImage, WritableRaster dirImage,
+            int nelev, int realrows, int realcols, JGrassRegion activeRegion ) {
 
         int row, col, ncelle, nr, nc;
-        int realrows, realcols;
         double dx, dev1, dev2, sumdev1, sumdev2, sumdev;
         double[] dati = new double[10]; /*
                                          * it contains:
@@ -595,13 +594,8 @@ public class h_draindir extends ModelsBackbone {
         /*
          * it indicates the position of the triangle's vertexes
          */
-        realrows = pitImage.getHeight();
-        realcols = pitImage.getWidth();
         dx = activeRegion.getWEResolution();
         ncelle = 0;
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
-        RandomIter flowRandomIter = RandomIterFactory.create(flowImage, null);
-
         WritableRandomIter tcaRandomIter = RandomIterFactory.createWritable(tcaImage, null);
         WritableRandomIter analyseRandomIter = RandomIterFactory.createWritable(analyzeImage, null);
         WritableRandomIter deviationRandomIter = RandomIterFactory.createWritable(deviationsImage, null);
@@ -609,15 +603,11 @@ public class h_draindir extends ModelsBackbone {
         double[] u = {activeRegion.getWEResolution(), activeRegion.getNSResolution()};
         double[] v = {NaN, NaN};
         dx = u[0];
-        // get rows and cols from the active region
-        realrows = pitImage.getHeight();
-        realcols = pitImage.getWidth();
-
         ncelle = 0;
         PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
         pm.beginTask(WORKING_ON + "OrlandiniD8 LAD", realrows * realcols);
         for( int i = realrows * realcols - 1; i >= 0; i-- ) {
-            count = indexes[i];
+            count = indexes[i] + 1;
             col = (int) count % realcols - 1;
             row = (int) count / realcols;
 
@@ -689,8 +679,6 @@ public class h_draindir extends ModelsBackbone {
         pm.done();
 
         dirRandomIter.done();
-        pitRandomIter.done();
-        flowRandomIter.done();
         deviationRandomIter.done();
         analyseRandomIter.done();
         tcaRandomIter.done();
@@ -865,28 +853,30 @@ public class h_draindir extends ModelsBackbone {
     /**
      * The fixed network method allows you to assign a known channel network and
      * to then correct the drainage directions.
+     * 
+     * @param flowfixedData the fixed network directions.
+     * @param pitRandomIter the elevations, novalue on the border.
+     * @param dirImage the drainage directions to correct.
+     * @param rows the rows of the maps.
+     * @param cols the cols of the maps.
      */
-    private void newDirections( PlanarImage flowfixedTmpImage, PlanarImage pitImage, WritableRaster dirImage ) {
+    private void newDirections( DoubleRasterData flowfixedData, RandomIter pitRandomIter, WritableRaster dirImage,
+            int rows, int cols ) {
         int[][] odir = {{0, 0, 0}, {0, 1, 1}, {-1, 1, 2}, {-1, 0, 3}, {-1, -1, 4}, {0, -1, 5}, {1, -1, 6}, {1, 0, 7}, {1, 1, 8},
                 {0, 0, 9}, {0, 0, 10}};
         double elev = 0.0;
         int[] flow = new int[2], nflow = new int[2];
-        int cols = pitImage.getWidth();
-        int rows = pitImage.getHeight();
-        int minX = pitImage.getMinX();
-        int minY = pitImage.getMinY();
-        int maxX = pitImage.getMaxX();
-        int maxY = pitImage.getMaxY();
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
+        int minX = 0;
+        int minY = 0;
+        int maxX = cols;
+        int maxY = rows;
 
         WritableRandomIter dirRandomIter = RandomIterFactory.createWritable(dirImage, null);
 
         // setting novalues...
-        PlanarImage flowFixedImage = FluidUtils.setJaiNovalueBorder(flowfixedTmpImage);
-        RandomIter flowRandomIter = RandomIterFactory.create(flowFixedImage, null);
+        RandomIter flowRandomIter = new RasterDataRandomIter(flowfixedData, true);
 
-        WritableRaster modflowImage = FluidUtils.createDoubleWritableRaster(pitImage.getWidth(), pitImage.getHeight(), null,
-                null, null);
+        WritableRaster modflowImage = FluidUtils.createDoubleWritableRaster(cols, rows, null, null, null);
 
         WritableRandomIter modflowRandomIter = RandomIterFactory.createWritable(modflowImage, null);
 
@@ -939,7 +929,6 @@ public class h_draindir extends ModelsBackbone {
         pm.done();
 
         dirRandomIter.done();
-        pitRandomIter.done();
         modflowRandomIter.done();
         flowRandomIter.done();
 
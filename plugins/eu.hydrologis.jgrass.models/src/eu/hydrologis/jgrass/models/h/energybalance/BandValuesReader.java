@@ -0,0 +1,117 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.h.energybalance;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+
+/**
+ * Reads the inputs of {@link h_energybalance} given per basin and elevation band, as rows made of
+ * the basin id followed by the values of the bands.
+ *
+ * <p>
+ * The array of the previous time step is reused, with the values of the basins missing in the
+ * input set to 0. The basin of a row is looked up only if its id is not the one found in the
+ * same row last time.
+ * </p>
+ *
+ * @author Silvia Franceschi (www.hydrologis.com)
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class BandValuesReader {
+
+    private final HashMap<Integer, Integer> basinid2BasinindexMap;
+
+    private final int basinNum;
+
+    private final int bandsNum;
+
+    /*
+     * the basin ids of the rows of the last values read and the indexes of the basins, -1 for
+     * unknown basins
+     */
+    private int[] rowBasinIds;
+
+    private int[] rowBasinIndexes;
+
+    /**
+     * @param basinid2BasinindexMap the index of every basin id.
+     * @param basinNum the number of basins.
+     * @param bandsNum the number of elevation bands.
+     */
+    public BandValuesReader( HashMap<Integer, Integer> basinid2BasinindexMap, int basinNum,
+            int bandsNum ) {
+        this.basinid2BasinindexMap = basinid2BasinindexMap;
+        this.basinNum = basinNum;
+        this.bandsNum = bandsNum;
+    }
+
+    /**
+     * Reads the values of a time step.
+     *
+     * @param scalarSet the values, after the header.
+     * @param values the values of the previous time step or <code>null</code>.
+     * @param pm the progress monitor.
+     * @param taskName the name of the task for the progress monitor.
+     * @return the values per basin and band.
+     */
+    public double[][] read( ScalarSet scalarSet, double[][] values, IProgressMonitorJGrass pm,
+            String taskName ) {
+        if (values == null) {
+            values = new double[basinNum][bandsNum];
+        } else {
+            for( double[] basinValues : values ) {
+                Arrays.fill(basinValues, 0.0);
+            }
+        }
+        // basinid, valeBand1, valueband2, valueband3,...
+        int perBasinColumns = bandsNum + 1;
+        int rowsNum = (scalarSet.getCount() - 2) / perBasinColumns + 1;
+        boolean isNewLayout = rowBasinIds == null || rowBasinIds.length != rowsNum;
+        if (isNewLayout) {
+            rowBasinIds = new int[rowsNum];
+            rowBasinIndexes = new int[rowsNum];
+        }
+        pm.beginTask(taskName, scalarSet.getCount() - 1);
+        int row = 0;
+        for( int i = 1; i < scalarSet.getCount(); i = i + perBasinColumns ) {
+            pm.worked(perBasinColumns);
+            int tempId = (int) scalarSet.getScalar(i);
+            if (isNewLayout || rowBasinIds[row] != tempId) {
+                Integer index = basinid2BasinindexMap.get(tempId);
+                rowBasinIds[row] = tempId;
+                rowBasinIndexes[row] = index == null ? -1 : index;
+            }
+            int index = rowBasinIndexes[row];
+            row++;
+            if (index == -1) {
+                continue;
+            }
+            double[] basinValues = values[index];
+            for( int j = 1; j < perBasinColumns; j++ ) {
+                basinValues[j - 1] = scalarSet.getScalar(i + j);
+            }
+        }
+        pm.done();
+        return values;
+    }
+
+}
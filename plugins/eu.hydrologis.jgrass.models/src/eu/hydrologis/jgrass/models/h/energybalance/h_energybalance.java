@@ -44,6 +44,7 @@ import java.util.List;
 import java.util.Locale;
 
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -67,6 +68,7 @@ import eu.hydrologis.libs.openmi.ModelsIOException;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.openmi.DoubleScalarSet;
 import eu.hydrologis.openmi.util.HydrologisDate;
 
 /**
@@ -208,6 +210,18 @@ public class h_energybalance extends ModelsBackbone {
     private double[][][] EI;
     private double[][][] A;
     private double[] rain;
+    /*
+     * the values per basin and elevation band of the current time step, reused by the following
+     * ones
+     */
+    private double[][] T;
+    private double[][] V;
+    private double[][] P;
+    private double[][] RH;
+    private double[][] DTd;
+    private double[][] DTm;
+    private double[][] canopy;
+    private BandValuesReader bandValuesReader;
     /*
      * Full adige vector data contains for every basin in the following order:
      * 1. net precipitation
@@ -531,16 +545,19 @@ public class h_energybalance extends ModelsBackbone {
             // get rain from scalar link
             IValueSet rainValueSet = null;
             if (rainInputLink != null) {
-                rainValueSet = rainInputLink.getSourceComponent().getValues(time,
-                        rainInputLink.getID());
+                rainValueSet = LinkValueCache.requestValues(rainInputLink, time);
                 if (rainValueSet instanceof ScalarSet) {
                     ScalarSet rainscalarSet = (ScalarSet) rainValueSet;
-                    rain = new double[basinNum];
+                    if (rain == null) {
+                        rain = new double[basinNum];
+                    } else {
+                        Arrays.fill(rain, 0.0);
+                    }
                     pm.beginTask("Read rain data.", rainValueSet.getCount() - 1);
                     for( int i = 1; i < rainValueSet.getCount(); i = i + 2 ) {
                         pm.worked(2);
-                        int rId = rainscalarSet.get(i).intValue();
-                        double rainValue = rainscalarSet.get(i + 1);
+                        int rId = (int) rainscalarSet.getScalar(i);
+                        double rainValue = rainscalarSet.getScalar(i + 1);
                         Integer index = basinid2BasinindexMap.get(rId);
                         if (index == null) {
                             basinid2BasinindexMap.remove(rId);
@@ -567,12 +584,11 @@ public class h_energybalance extends ModelsBackbone {
             IValueSet energyIndexValueSet = null;
             if (EI == null) {
                 if (energyIndexInputLink != null) {
-                    energyIndexValueSet = energyIndexInputLink.getSourceComponent().getValues(time,
-                            energyIndexInputLink.getID());
+                    energyIndexValueSet = LinkValueCache.requestValues(energyIndexInputLink, time);
                     if (energyIndexValueSet instanceof ScalarSet) {
                         ScalarSet energyIndexScalarSet = (ScalarSet) energyIndexValueSet;
                         // get the number of element for each "line"
-                        int energyIndexColumnNumber = energyIndexScalarSet.get(0).intValue();
+                        int energyIndexColumnNumber = (int) energyIndexScalarSet.getScalar(0);
                         // get the number of energy bands with the number of basins known
                         {
                             Integer index = null;
@@ -580,7 +596,7 @@ public class h_energybalance extends ModelsBackbone {
                             int ind = 0;
                             for( int i = 1; i < energyIndexValueSet.getCount(); i = i
                                     + energyIndexColumnNumber ) {
-                                int tempId = energyIndexScalarSet.get(i).intValue();
+                                int tempId = (int) energyIndexScalarSet.getScalar(i);
                                 index = basinid2BasinindexMap.get(tempId);
                                 if (index != null) {
                                     if (previndex == null || previndex.equals(index)) {
@@ -596,7 +612,7 @@ public class h_energybalance extends ModelsBackbone {
 
                         for( int i = 1; i < energyIndexValueSet.getCount(); i = i
                                 + energyIndexColumnNumber ) {
-                            int tempId = energyIndexScalarSet.get(i).intValue();
+                            int tempId = (int) energyIndexScalarSet.getScalar(i);
                             Integer index = basinid2BasinindexMap.get(tempId);
                             if (index == null) {
                                 basinid2BasinindexMap.remove(tempId);
@@ -607,7 +623,7 @@ public class h_energybalance extends ModelsBackbone {
                                 for( int k = 0; k < 12; k++ ) {
                                     int findex = 5;
                                     if (k < 6) {
-                                        EI[k][j][index] = energyIndexScalarSet.get(i + 3);
+                                        EI[k][j][index] = energyIndexScalarSet.getScalar(i + 3);
                                     } else {
                                         EI[k][j][index] = EI[findex][j][basinid2BasinindexMap
                                                 .get(tempId)];
@@ -631,13 +647,13 @@ public class h_energybalance extends ModelsBackbone {
             IValueSet areaHeigthEnergyValueSet = null;
             if (A == null) {
                 if (areaHeigthEnergyInputLink != null) {
-                    areaHeigthEnergyValueSet = areaHeigthEnergyInputLink.getSourceComponent()
-                            .getValues(time, areaHeigthEnergyInputLink.getID());
+                    areaHeigthEnergyValueSet =
+                            LinkValueCache.requestValues(areaHeigthEnergyInputLink, time);
                     if (areaHeigthEnergyValueSet instanceof ScalarSet) {
                         ScalarSet areaEigthEnergyScalarSet = (ScalarSet) areaHeigthEnergyValueSet;
                         // get the number of element for each "line"
-                        int areaEightEnergyColumnNumber = areaEigthEnergyScalarSet.get(0)
-                                .intValue();
+                        int areaEightEnergyColumnNumber = (int) areaEigthEnergyScalarSet
+                                .getScalar(0);
 
                         // get the number of elevation bands with the number of basins and energy
                         // bands known
@@ -647,7 +663,7 @@ public class h_energybalance extends ModelsBackbone {
                             int ind = 0;
                             for( int i = 1; i < areaHeigthEnergyValueSet.getCount(); i = i
                                     + areaEightEnergyColumnNumber ) {
-                                int tempId = areaEigthEnergyScalarSet.get(i).intValue();
+                                int tempId = (int) areaEigthEnergyScalarSet.getScalar(i);
                                 index = basinid2BasinindexMap.get(tempId);
                                 if (index != null) {
                                     if (previndex == null || previndex.equals(index)) {
@@ -666,7 +682,7 @@ public class h_energybalance extends ModelsBackbone {
 
                         HashMap<Integer, HashMap<Integer, HashMap<Integer, Double>>> idbasinMap = new HashMap<Integer, HashMap<Integer, HashMap<Integer, Double>>>();
                         for( int j = 1; j < areaEigthEnergyScalarSet.size(); ) {
-                            Integer idBas = areaEigthEnergyScalarSet.get(j).intValue();
+                            Integer idBas = (int) areaEigthEnergyScalarSet.getScalar(j);
                             HashMap<Integer, HashMap<Integer, Double>> idfasceMap = idbasinMap
                                     .get(idBas);
                             if (idfasceMap == null) {
@@ -674,7 +690,7 @@ public class h_energybalance extends ModelsBackbone {
                                 idbasinMap.put(idBas, idfasceMap);
                             }
                             j++;
-                            Integer idFasc = areaEigthEnergyScalarSet.get(j).intValue();
+                            Integer idFasc = (int) areaEigthEnergyScalarSet.getScalar(j);
                             HashMap<Integer, Double> idbandeMap = idfasceMap.get(idFasc);
                             if (idbandeMap == null) {
                                 idbandeMap = new HashMap<Integer, Double>();
@@ -682,9 +698,9 @@ public class h_energybalance extends ModelsBackbone {
                             }
 
                             j++;
-                            Integer idBand = areaEigthEnergyScalarSet.get(j).intValue();
+                            Integer idBand = (int) areaEigthEnergyScalarSet.getScalar(j);
                             j++;
-                            Double value = areaEigthEnergyScalarSet.get(j);
+                            Double value = areaEigthEnergyScalarSet.getScalar(j);
                             j++;
                             idbandeMap.put(idBand, value);
                             pm.worked(4);
@@ -718,31 +734,12 @@ public class h_energybalance extends ModelsBackbone {
 
             // get T (temperatures per basin per band) from scalar input link at each time step
             IValueSet temperatureValueSet = null;
-            double[][] T = null;
             if (temperatureInputLink != null) {
-                temperatureValueSet = temperatureInputLink.getSourceComponent().getValues(time,
-                        temperatureInputLink.getID());
+                temperatureValueSet = LinkValueCache.requestValues(temperatureInputLink, time);
                 if (temperatureValueSet instanceof ScalarSet) {
-                    ScalarSet temperaturescalarSet = (ScalarSet) temperatureValueSet;
-                    int allColumns = temperaturescalarSet.get(0).intValue();
-                    // basinid, valeBand1, valueband2, valueband3,...
-                    int perBasinColumns = num_ES + 1;
-                    // num_ES = perBasinColumns - 1;
-                    T = new double[basinNum][num_ES];
-                    pm.beginTask("Read temperature data.", temperatureValueSet.getCount() - 1);
-
-                    for( int i = 1; i < temperatureValueSet.getCount(); i = i + perBasinColumns ) {
-                        pm.worked(perBasinColumns);
-                        int tempId = temperaturescalarSet.get(i).intValue();
-                        Integer index = basinid2BasinindexMap.get(tempId);
-                        if (index != null) {
-                            for( int j = 1; j < perBasinColumns; j++ ) {
-                                T[index][j - 1] = temperaturescalarSet.get(i + j);
-                            }
-                        }
-                    }
+                    T = readBandValues((ScalarSet) temperatureValueSet, T,
+                            "Read temperature data.");
                 }
-                pm.done();
             }
             if (temperatureValueSet == null) {
                 throw new ModelsIOException(
@@ -752,33 +749,12 @@ public class h_energybalance extends ModelsBackbone {
 
             // get V (wind speed per basin per band) from scalar link at each time step
             IValueSet windValueSet = null;
-            double[][] V = null;
             if (windSpeedInputLink != null) {
-                windValueSet = windSpeedInputLink.getSourceComponent().getValues(time,
-                        windSpeedInputLink.getID());
+                windValueSet = LinkValueCache.requestValues(windSpeedInputLink, time);
                 if (windValueSet instanceof ScalarSet) {
-                    ScalarSet windScalarSet = (ScalarSet) windValueSet;
-                    int windColumnNumber = windScalarSet.get(0).intValue();
-                    // basinid, valeBand1, valueband2, valueband3,...
-                    int perBasinColumns = num_ES + 1;
-
-                    V = new double[basinNum][num_ES];
-                    pm.beginTask("Read wind speed data.", windValueSet.getCount() - 1);
-
-                    for( int i = 1; i < windValueSet.getCount(); i = i + perBasinColumns ) {
-                        int tempId = windScalarSet.get(i).intValue();
-                        pm.worked(perBasinColumns);
-                        for( int j = 1; j < perBasinColumns; j++ ) {
-                            Integer index = basinid2BasinindexMap.get(tempId);
-                            if (index == null) {
-                                basinid2BasinindexMap.remove(tempId);
-                                continue;
-                            }
-                            V[index][j - 1] = windScalarSet.get(i + j);
-                        }
-                    }
+                    V = readBandValues((ScalarSet) windValueSet, V,
+                            "Read wind speed data.");
                 }
-                pm.done();
             }
             if (windValueSet == null) {
                 throw new ModelsIOException(
@@ -788,33 +764,12 @@ public class h_energybalance extends ModelsBackbone {
 
             // get P (pressure per basin per band) from scalar link at each time step
             IValueSet pressurValueSet = null;
-            double[][] P = null;
             if (pressureInputLink != null) {
-                pressurValueSet = pressureInputLink.getSourceComponent().getValues(time,
-                        pressureInputLink.getID());
+                pressurValueSet = LinkValueCache.requestValues(pressureInputLink, time);
                 if (pressurValueSet instanceof ScalarSet) {
-                    ScalarSet pressureScalarSet = (ScalarSet) pressurValueSet;
-                    int pressureColumnNumber = pressureScalarSet.get(0).intValue();
-                    // basinid, valeBand1, valueband2, valueband3,...
-                    int perBasinColumns = num_ES + 1;
-
-                    P = new double[basinNum][num_ES];
-                    pm.beginTask("Read pressure data.", pressurValueSet.getCount() - 1);
-
-                    for( int i = 1; i < pressurValueSet.getCount(); i = i + perBasinColumns ) {
-                        pm.worked(perBasinColumns);
-                        int tempId = pressureScalarSet.get(i).intValue();
-                        for( int j = 1; j < perBasinColumns; j++ ) {
-                            Integer index = basinid2BasinindexMap.get(tempId);
-                            if (index == null) {
-                                basinid2BasinindexMap.remove(tempId);
-                                continue;
-                            }
-                            P[index][j - 1] = pressureScalarSet.get(i + j);
-                        }
-                    }
+                    P = readBandValues((ScalarSet) pressurValueSet, P,
+                            "Read pressure data.");
                 }
-                pm.done();
             }
             if (pressurValueSet == null) {
                 throw new ModelsIOException(
@@ -824,33 +779,12 @@ public class h_energybalance extends ModelsBackbone {
 
             // get RH (relative humidity per basin per band) from scalar link at each time step
             IValueSet relHumidValueSet = null;
-            double[][] RH = null;
             if (relativeHumidityInputLink != null) {
-                relHumidValueSet = relativeHumidityInputLink.getSourceComponent().getValues(time,
-                        relativeHumidityInputLink.getID());
+                relHumidValueSet = LinkValueCache.requestValues(relativeHumidityInputLink, time);
                 if (relHumidValueSet instanceof ScalarSet) {
-                    ScalarSet relHumidScalarSet = (ScalarSet) relHumidValueSet;
-                    int relHumidColumnNumber = relHumidScalarSet.get(0).intValue();
-                    // basinid, valeBand1, valueband2, valueband3,...
-                    int perBasinColumns = num_ES + 1;
-
-                    RH = new double[basinNum][num_ES];
-                    pm.beginTask("Read relative umidity data.", relHumidValueSet.getCount() - 1);
-
-                    for( int i = 1; i < relHumidValueSet.getCount(); i = i + perBasinColumns ) {
-                        pm.worked(perBasinColumns);
-                        int tempId = relHumidScalarSet.get(i).intValue();
-                        for( int j = 1; j < perBasinColumns; j++ ) {
-                            Integer index = basinid2BasinindexMap.get(tempId);
-                            if (index == null) {
-                                basinid2BasinindexMap.remove(tempId);
-                                continue;
-                            }
-                            RH[index][j - 1] = relHumidScalarSet.get(i + j);
-                        }
-                    }
+                    RH = readBandValues((ScalarSet) relHumidValueSet, RH,
+                            "Read relative umidity data.");
                 }
-                pm.done();
             }
             if (relHumidValueSet == null) {
                 throw new ModelsIOException(
@@ -861,35 +795,12 @@ public class h_energybalance extends ModelsBackbone {
             // get dtday (daily temperature range per basin per band) from scalar link at each time
             // step
             IValueSet dtDayValueSet = null;
-            double[][] DTd = null;
             if (dailyTempRangeInputLink != null) {
-                dtDayValueSet = dailyTempRangeInputLink.getSourceComponent().getValues(time,
-                        dailyTempRangeInputLink.getID());
+                dtDayValueSet = LinkValueCache.requestValues(dailyTempRangeInputLink, time);
                 if (dtDayValueSet instanceof ScalarSet) {
-                    ScalarSet dtDayScalarSet = (ScalarSet) dtDayValueSet;
-                    int dtDayColumnNumber = dtDayScalarSet.get(0).intValue();
-                    // basinid, valeBand1, valueband2, valueband3,...
-                    int perBasinColumns = num_ES + 1;
-
-                    DTd = new double[basinNum][num_ES];
-                    pm
-                            .beginTask("Read daily temperature range data.", dtDayValueSet
-                                    .getCount() - 1);
-
-                    for( int i = 1; i < dtDayValueSet.getCount(); i = i + perBasinColumns ) {
-                        pm.worked(perBasinColumns);
-                        int tempId = dtDayScalarSet.get(i).intValue();
-                        for( int j = 1; j < perBasinColumns; j++ ) {
-                            Integer index = basinid2BasinindexMap.get(tempId);
-                            if (index == null) {
-                                basinid2BasinindexMap.remove(tempId);
-                                continue;
-                            }
-                            DTd[index][j - 1] = dtDayScalarSet.get(i + j);
-                        }
-                    }
+                    DTd = readBandValues((ScalarSet) dtDayValueSet, DTd,
+                            "Read daily temperature range data.");
                 }
-                pm.done();
             }
             if (dtDayValueSet == null) {
                 throw new ModelsIOException(
@@ -900,32 +811,12 @@ public class h_energybalance extends ModelsBackbone {
             // get dtmonth (monthly temperature range per basin per band) from scalar link at each
             // time step
             IValueSet dtMonthValueSet = null;
-            double[][] DTm = null;
             if (montlyTempRangeInputLink != null) {
-                dtMonthValueSet = montlyTempRangeInputLink.getSourceComponent().getValues(time,
-                        montlyTempRangeInputLink.getID());
+                dtMonthValueSet = LinkValueCache.requestValues(montlyTempRangeInputLink, time);
                 if (dtMonthValueSet instanceof ScalarSet) {
-                    ScalarSet dtMonthScalarSet = (ScalarSet) dtMonthValueSet;
-                    int dtMonthColumnNumber = dtMonthScalarSet.get(0).intValue();
-                    // basinid, valeBand1, valueband2, valueband3,...
-                    int perBasinColumns = num_ES + 1;
-
-                    DTm = new double[basinNum][num_ES];
-                    pm.beginTask("Read monthly temperature range data.",
-                            dtMonthValueSet.getCount() - 1);
-
-                    for( int i = 1; i < dtMonthValueSet.getCount(); i = i + perBasinColumns ) {
-                        pm.worked(perBasinColumns);
-                        int tempId = dtMonthScalarSet.get(i).intValue();
-                        for( int j = 1; j < perBasinColumns; j++ ) {
-                            Integer index = basinid2BasinindexMap.get(tempId);
-                            if (index != null) {
-                                DTm[index][j - 1] = dtMonthScalarSet.get(i + j);
-                            }
-                        }
-                    }
+                    DTm = readBandValues((ScalarSet) dtMonthValueSet, DTm,
+                            "Read monthly temperature range data.");
                 }
-                pm.done();
             }
             if (dtMonthValueSet == null) {
                 throw new ModelsIOException(
@@ -996,10 +887,12 @@ public class h_energybalance extends ModelsBackbone {
             /*
              * if there is no canopy input matrix for the model create an empty canopy matrix for each elevation band and for each basin
              */
-            double[][] canopy = new double[num_ES][basinNum];
-            for( int i = 0; i < canopy.length; i++ ) {
-                for( int j = 0; j < canopy[0].length; j++ ) {
-                    canopy[i][j] = canopyconst;
+            if (canopy == null) {
+                canopy = new double[num_ES][basinNum];
+                for( int i = 0; i < canopy.length; i++ ) {
+                    for( int j = 0; j < canopy[0].length; j++ ) {
+                        canopy[i][j] = canopyconst;
+                    }
                 }
             }
             checkParametersAndRunEnergyBalance(deltaTinHours, rain, T, V, P, RH, currentMonth,
@@ -1007,50 +900,36 @@ public class h_energybalance extends ModelsBackbone {
         }
 
         if (netPrecipitationLink != null && linkID.equals(netPrecipitationLink.getID())) {
-            ScalarSet pnetScalarSet = new ScalarSet(Pnet);
-            pnetScalarSet.add(0, (double) 2.0 * basinNum);
-            return pnetScalarSet;
+            return createOutputSet(2.0 * basinNum, Pnet);
         } else if (rainPrecipitationLink != null && linkID.equals(rainPrecipitationLink.getID())) {
-            ScalarSet prnScalarSet = new ScalarSet(Prn);
-            prnScalarSet.add(0, (double) 2.0 * basinNum);
-            return prnScalarSet;
+            return createOutputSet(2.0 * basinNum, Prn);
         } else if (snowPrecipitationLink != null && linkID.equals(snowPrecipitationLink.getID())) {
-            ScalarSet psnScalarSet = new ScalarSet(Psn);
-            psnScalarSet.add(0, (double) 2.0 * basinNum);
-            return psnScalarSet;
+            return createOutputSet(2.0 * basinNum, Psn);
         } else if (snowWaterEquivalentLink != null
                 && linkID.equals(snowWaterEquivalentLink.getID())) {
-            ScalarSet sweScalarSet = new ScalarSet(SWEbasin);
-            sweScalarSet.add(0, (double) 2.0 * basinNum);
-            return sweScalarSet;
+            return createOutputSet(2.0 * basinNum, SWEbasin);
         } else if (outuptRainLink != null && linkID.equals(outuptRainLink.getID())) {
-            ScalarSet outRainScalarSet = new ScalarSet(rain);
-            outRainScalarSet.add(0, (double) 2.0 * basinNum);
-            return outRainScalarSet;
+            return createOutputSet(2.0 * basinNum, rain);
         } else if (AverageTemperatureLink != null && linkID.equals(AverageTemperatureLink.getID())) {
-            ScalarSet avgTempScalarSet = new ScalarSet(averageTemperature);
-            avgTempScalarSet.add(0, (double) 2.0 * basinNum);
-            return avgTempScalarSet;
+            return createOutputSet(2.0 * basinNum, averageTemperature);
         } else if (fullAdigeOutputLink != null && linkID.equals(fullAdigeOutputLink.getID())) {
-            ScalarSet fullAdigeScalarSet = new ScalarSet(fullAdigeData);
-            fullAdigeScalarSet.add(0, (double) 9.0 * basinNum);
-            return fullAdigeScalarSet;
+            return createOutputSet(9.0 * basinNum, fullAdigeData);
         } else if (mainOutputLink != null && linkID.equals(mainOutputLink.getID())) {
-            ScalarSet mainScalarSet = new ScalarSet();
-            mainScalarSet.add(5.0 * basinNum);
+            DoubleScalarSet mainScalarSet = new DoubleScalarSet();
+            mainScalarSet.addScalar(5.0 * basinNum);
 
             int index = 0;
             for( int i = 0; i < Psn.length; i++ ) {
                 // the id of the basin
-                mainScalarSet.add(Psn[i]);
+                mainScalarSet.addScalar(Psn[i]);
                 i++;
                 // the values
-                mainScalarSet.add(Psn[i]);
-                mainScalarSet.add(averageTemperature[i]);
-                mainScalarSet.add(SWEbasin[i]);
+                mainScalarSet.addScalar(Psn[i]);
+                mainScalarSet.addScalar(averageTemperature[i]);
+                mainScalarSet.addScalar(SWEbasin[i]);
 
                 // rain is on its own
-                mainScalarSet.add(rain[index]);
+                mainScalarSet.addScalar(rain[index]);
                 index++;
             }
 
@@ -1059,6 +938,34 @@ public class h_energybalance extends ModelsBackbone {
 
         return null;
     }
+
+    /**
+     * Reads values given per basin and elevation band, reusing the array of the previous time
+     * step.
+     * 
+     * @param scalarSet the values, after the header.
+     * @param values the values of the previous time step or <code>null</code>.
+     * @param taskName the name of the task for the progress monitor.
+     * @return the values per basin and band.
+     * @see BandValuesReader
+     */
+    private double[][] readBandValues( ScalarSet scalarSet, double[][] values, String taskName ) {
+        if (bandValuesReader == null) {
+            bandValuesReader = new BandValuesReader(basinid2BasinindexMap, basinNum, num_ES);
+        }
+        return bandValuesReader.read(scalarSet, values, pm, taskName);
+    }
+
+    /**
+     * Creates an output set made of the number of values followed by the values.
+     */
+    private DoubleScalarSet createOutputSet( double header, double[] values ) {
+        DoubleScalarSet outputSet = new DoubleScalarSet(values.length + 1);
+        outputSet.addScalar(header);
+        outputSet.addDoubles(values);
+        return outputSet;
+    }
+
     private SafePoint getSafePointData() {
         FileInputStream fis = null;
         ObjectInputStream in = null;
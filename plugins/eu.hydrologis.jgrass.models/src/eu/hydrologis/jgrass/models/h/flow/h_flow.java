@@ -28,12 +28,9 @@ import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
 
 import java.awt.image.WritableRaster;
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-
-import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IElementSet;
@@ -44,6 +41,7 @@ import org.openmi.standard.IQuantity;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.libs.messages.Messages;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
@@ -88,22 +86,30 @@ public class h_flow extends ModelsBackbone {
 
     private JGrassRegion activeRegion = null;
 
-    private double[][] elevations = null, transposedFlow = null;
+    /**
+     * The shared view of the elevations, read through {@link #elevation(int)}.
+     */
+    private DoubleRasterData elevations = null;
 
     // the hydrologic variables
-    private int i1, i2, n1, n2, nx, ny;
-
-    private int[] d1, d2, is, js, dn;
+    private int nx, ny;
 
-    private int[][] dir;
+    private int[] d1, d2, dn;
 
-    private int ccheck, useww;
-
-    private int[][] arr;
+    /**
+     * The offset of the flat index of the neighbour in every direction.
+     */
+    private int[] offsets;
 
-    private double[][] areaw, weight;
+    /**
+     * The flat indexes of the pixels on the flats stack.
+     */
+    private int[] flatPixels;
 
-    private final double ndv = FluidConstants.flownovalue;
+    /**
+     * The flow directions, in row major order.
+     */
+    private int[] dir;
 
     private double dx, dy;
 
@@ -217,23 +223,13 @@ public class h_flow extends ModelsBackbone {
             int rows = activeRegion.getRows();
             int cols = activeRegion.getCols();
 
-            GridCoverage2D pitGC = ModelsConstants.getGridCoverage2DFromLink(pitLink, time, err);
-            if (pitGC != null) {
-                RandomIter pitIter = RandomIterFactory.create(pitGC.getRenderedImage(), null);
-
-                // for this function it if necessary to transpose the matrix
-                elevations = new double[cols][rows];
-
-                for( int i = 0; i < cols; i++ ) {
-                    for( int j = 0; j < rows; j++ ) {
-                        double pitValue = pitIter.getSampleDouble(i, j, 0);
-                        if (!isNovalue(pitValue)) {
-                            elevations[i][j] = pitValue;
-                        } else {
-                            elevations[i][j] = FluidConstants.flownovalue;
-                        }
-                    }
+            // the shared view of the pit map, read without copying the map
+            DoubleRasterData pitData = ModelsConstants.getSharedRasterDataFromLink(pitLink, time, err);
+            if (pitData != null) {
+                if (pitData.getRows() != rows || pitData.getCols() != cols) {
+                    throw new IOException("The pit map doesn't match the active region."); //$NON-NLS-1$
                 }
+                elevations = pitData;
 
                 WritableRaster jgRasterData = setdird8s();
                 JGrassGridCoverageValueSet jgrValueSet = new JGrassGridCoverageValueSet(jgRasterData, activeRegion, crs);
@@ -245,9 +241,21 @@ public class h_flow extends ModelsBackbone {
         return null;
     }
 
+    /**
+     * @param index the index of the cell, in row major order.
+     * @return the elevation of the cell, {@link FluidConstants#flownovalue} for novalues.
+     */
+    private double elevation( int index ) {
+        double value = elevations.getValueAt(index);
+        if (isNovalue(value)) {
+            return FluidConstants.flownovalue;
+        }
+        return value;
+    }
+
     public void finish() {
         elevations = null;
-        transposedFlow = null;
+        dir = null;
     }
 
     public void removeLink( String linkID ) {
@@ -276,59 +284,62 @@ public class h_flow extends ModelsBackbone {
         ny = activeRegion.getRows();
         nx = activeRegion.getCols();
 
-        i1 = 0;
-        i2 = 0;
-        n1 = nx;
-        n2 = ny;
+        offsets = new int[9];
+        for( int k = 1; k <= 8; k++ ) {
+            offsets[k] = d1[k] * nx + d2[k];
+        }
 
         setdfnoflood();
+        // the elevations are no longer needed, free them before creating the output
+        elevations = null;
 
-        // it is necessaty to transpose the dir matrix and than it's possible to
-        // write the output
-        transposedFlow = new double[dir[0].length][dir.length];
-        for( int i = 0; i < dir[0].length; i++ ) {
-            for( int j = 0; j < dir.length; j++ ) {
-                if (dir[j][i] == 0) {
-                    return null;
-                }
-                if (dir[j][i] != FluidConstants.flownovalue) {
-                    transposedFlow[i][j] = dir[j][i];
+        for( int index = 0; index < dir.length; index++ ) {
+            if (dir[index] == 0) {
+                return null;
+            }
+        }
+        WritableRaster flowRaster = FluidUtils.createDoubleWritableRaster(nx, ny, null, null, null);
+        for( int i = 0, index = 0; i < ny; i++ ) {
+            for( int j = 0; j < nx; j++, index++ ) {
+                if (dir[index] != FluidConstants.flownovalue) {
+                    flowRaster.setSample(j, i, 0, dir[index]);
                 } else {
-                    transposedFlow[i][j] = doubleNovalue;
+                    flowRaster.setSample(j, i, 0, doubleNovalue);
                 }
             }
         }
-        return FluidUtils.createFromMatrix(transposedFlow);
+        return flowRaster;
     }
 
     /**
-     * 
+     *
      */
     private void setdfnoflood() {
         int n;
         double[] fact = new double[9];
 
-        dir = new int[elevations.length][elevations[0].length];
+        dir = new int[nx * ny];
 
         out.println(Messages.getString("h_flow.initbound")); //$NON-NLS-1$
         /* Initialize boundaries */
-        for( int i = i1; i < n1; i++ ) {
-            dir[i][i2] = -1;
-            dir[i][n2 - 1] = -1;
+        for( int j = 0; j < nx; j++ ) {
+            dir[j] = -1;
+            dir[(ny - 1) * nx + j] = -1;
         }
 
-        for( int i = i2; i < n2; i++ ) {
-            dir[i1][i] = -1;
-            dir[n1 - 1][i] = -1;
+        for( int i = 0; i < ny; i++ ) {
+            dir[i * nx] = -1;
+            dir[i * nx + nx - 1] = -1;
         }
         out.println(Messages.getString("h_flow.initpointers")); //$NON-NLS-1$
         /* initialize internal pointers */
-        for( int i = (i2 + 1); i < (n2 - 1); i++ ) {
-            for( int j = (i1 + 1); j < (n1 - 1); j++ ) {
-                if (elevations[j][i] <= FluidConstants.flownovalue) {
-                    dir[j][i] = -1;
+        for( int i = 1; i < (ny - 1); i++ ) {
+            for( int j = 1; j < (nx - 1); j++ ) {
+                int index = i * nx + j;
+                if (elevation(index) <= FluidConstants.flownovalue) {
+                    dir[index] = -1;
                 } else {
-                    dir[j][i] = 0;
+                    dir[index] = 0;
                 }
             }
         }
@@ -338,41 +349,29 @@ public class h_flow extends ModelsBackbone {
             fact[k] = 1.0 / (Math.sqrt(d1[k] * dy * d1[k] * dy + d2[k] * d2[k] * dx * dx));
         }
 
-        // Compute contrib area using overlayed directions for direction setting
-        ccheck = 0; // dont worry about edge contamination
-        useww = 0; // dont worry about weights
-
-        arr = new int[n2][n1];
-        for( int i = 0; i < arr.length; i++ ) {
-            for( int j = 0; j < arr[0].length; j++ ) {
-                arr[i][j] = 0;
-            }
-        }
-
-        for( int i = (i2 + 1); i < (n2 - 1); i++ ) {
-            for( int j = (i1 + 1); j < (n1 - 1); j++ ) {
-                // This allows for a stream overlay
-                if (dir[j][i] > 0)
-                    darea(i, j);
-            }
-        }
+        /*
+         * The TARDEM contributing area (darea) used to be computed here for the stream overlay,
+         * but at this point all the internal directions are still unset, so it never visited any
+         * pixel, and the area is not used to set the directions.
+         */
 
         out.println(Messages.getString("h_flow.setpos")); //$NON-NLS-1$
         /* Set positive slope directions */
         n = 0;
-        for( int i = (i2 + 1); i < (n2 - 1); i++ ) {
-            for( int j = (i1 + 1); j < (n1 - 1); j++ ) {
-                if (dir[j][i] == 0) {
-                    if (elevations[j][i] > FluidConstants.flownovalue) {
-                        set(i, j, fact);
-                         if (dir[j][i] == 0) {
-                             n++;
-                         }
+        for( int i = 1; i < (ny - 1); i++ ) {
+            for( int j = 1; j < (nx - 1); j++ ) {
+                int index = i * nx + j;
+                if (dir[index] == 0) {
+                    if (elevation(index) > FluidConstants.flownovalue) {
+                        set(index, fact);
+                        if (dir[index] == 0) {
+                            n++;
+                        }
                     }
                 }
             }
         }
-        
+
         out.println(Messages.getString("h_flow.solveflats")); //$NON-NLS-1$
         /*
          * Now resolve flats following the Procedure of Garbrecht and Martz, Journal of Hydrology,
@@ -380,116 +379,116 @@ public class h_flow extends ModelsBackbone {
          */
 
         /*
-         * Memory is utilized as follows is, js, dn, s and elev2 are unidimensional arrays storing
-         * information for flats. sloc is a indirect addressing array for accessing these - used
-         * during recursive iteration spos is a grid of pointers for accessing these to facilitate
-         * finding neighbors The routine flatrout is recursive and at each recursion allocates a new
+         * Memory is utilized as follows: flatPixels, dn, s and elev2 are unidimensional arrays
+         * storing information for flats. sloc is a indirect addressing array for accessing these -
+         * used during the iterations. spos is a grid of pointers for accessing these to facilitate
+         * finding neighbors. The routine flatrout iterates and at each iteration allocates a new
          * sloc for addressing these arrays and a new elev for keeping track of the elevations for
-         * that recursion level.
+         * that iteration.
          */
         if (n > 0) {
-            int iter = 1;
-            int[][] spos = new int[nx][ny];
+            int[] spos = new int[nx * ny];
             dn = new int[n];
-            is = new int[n];
-            js = new int[n];
+            flatPixels = new int[n];
             int[] s = new int[n];
             int[] sloc = new int[n];
             double[] elev2 = new double[n];
 
             /* Put unresolved pixels on stack */
             int ip = 0;
-            for( int i = i2; i < n2; i++ ) {
-                for( int j = i1; j < n1; j++ ) {
-                    spos[j][i] = -1; /* Initialize stack position */
-                    if (dir[j][i] == 0) {
-                        is[ip] = i;
-                        js[ip] = j;
-                        dn[ip] = 0;
-                        sloc[ip] = ip;
-                        /* Initialize the stage 1 array for flat routing */
-                        s[ip] = 1;
-                        spos[j][i] = ip; /* pointer for back tracking */
-                        ip++;
-                    }
+            for( int index = 0; index < spos.length; index++ ) {
+                spos[index] = -1; /* Initialize stack position */
+                if (dir[index] == 0) {
+                    flatPixels[ip] = index;
+                    dn[ip] = 0;
+                    sloc[ip] = ip;
+                    /* Initialize the stage 1 array for flat routing */
+                    s[ip] = 1;
+                    spos[index] = ip; /* pointer for back tracking */
+                    ip++;
                 }
             }
 
-            flatrout(n, sloc, s, spos, iter, elev2, elev2, fact, n);
+            flatrout(n, sloc, s, spos, elev2, fact);
+            flatPixels = null;
+            dn = null;
             /* The direction 19 was used to flag pits. Set these to 0 */
-            for( int i = i2; i < n2; i++ ) {
-                for( int j = i1; j < n1; j++ ) {
-                    if (dir[j][i] == 19)
-                        dir[j][i] = 0;
-                }
+            for( int index = 0; index < dir.length; index++ ) {
+                if (dir[index] == 19)
+                    dir[index] = 0;
             }
         }
     }
 
-    private void flatrout( int n, int[] sloc, int[] s, int[][] spos, int iter, double[] elev1, double[] elev2, double[] fact,
-            int ns ) {
-        int nu, ipp;
-        int[] sloc2;
-        double[] elev3;
+    /**
+     * Resolves the flats, one iteration for every level of nested flats.
+     * <p>
+     * Every iteration works on the pixels left unresolved by the previous one, using the
+     * incremental elevations of the previous iteration as elevations. This used to be done with a
+     * recursion for every iteration, now only the arrays of the current and previous iterations
+     * are kept alive.
+     * </p>
+     */
+    private void flatrout( int n, int[] sloc, int[] s, int[] spos, double[] elev2, double[] fact ) {
+        int ns = s.length;
+        int iter = 1;
+        double[] elev1 = elev2;
+        while( true ) {
+            incfall(n, elev1, s, spos, iter, sloc);
+            for( int ip = 0; ip < n; ip++ ) {
+                elev2[sloc[ip]] = (s[sloc[ip]]);
+                s[sloc[ip]] = 0; /* Initialize for pass 2 */
+            }
 
-        incfall(n, elev1, s, spos, iter, sloc);
-        for( int ip = 0; ip < n; ip++ ) {
-            elev2[sloc[ip]] = (s[sloc[ip]]);
-            s[sloc[ip]] = 0; /* Initialize for pass 2 */
-        }
+            incrise(n, elev1, s, spos, iter, sloc);
+            for( int ip = 0; ip < n; ip++ ) {
+                elev2[sloc[ip]] += (s[sloc[ip]]);
+            }
 
-        incrise(n, elev1, s, spos, iter, sloc);
-        for( int ip = 0; ip < n; ip++ ) {
-            elev2[sloc[ip]] += (s[sloc[ip]]);
-        }
+            int nu = 0;
+            for( int ip = 0; ip < n; ip++ ) {
+                set2(flatPixels[sloc[ip]], fact, elev1, elev2, iter, spos, s);
+                if (dir[flatPixels[sloc[ip]]] == 0)
+                    nu++;
+            }
 
-        nu = 0;
-        for( int ip = 0; ip < n; ip++ ) {
-            set2(is[sloc[ip]], js[sloc[ip]], fact, elev1, elev2, iter, spos, s);
-            if (dir[js[sloc[ip]]][is[sloc[ip]]] == 0)
-                nu++;
-        }
+            if (nu == 0) {
+                return;
+            }
 
-        if (nu > 0) {
-            /* Iterate Recursively */
             /*
-             * Now resolve flats following the Procedure of Garbrecht and Martz, Journal of
-             * Hydrology, 1997.
+             * Iterate on the unresolved pixels, following the Procedure of Garbrecht and Martz,
+             * Journal of Hydrology, 1997.
              */
             iter = iter + 1;
-            // printf("Resolving %d Flats, Iteration: %d \n",nu,iter);
-            sloc2 = new int[nu];
-            elev3 = new double[ns];
+            int[] sloc2 = new int[nu];
 
-            /* Initialize elev3 */
-            for( int ip = 0; ip < ns; ip++ ) {
-                elev3[ip] = 0.;
-            }
             /* Put unresolved pixels on new stacks - keeping in same positions */
-            ipp = 0;
+            int ipp = 0;
             for( int ip = 0; ip < n; ip++ ) {
-                if (dir[js[sloc[ip]]][is[sloc[ip]]] == 0) {
+                if (dir[flatPixels[sloc[ip]]] == 0) {
                     sloc2[ipp] = sloc[ip];
                     /* Initialize the stage 1 array for flat routing */
                     s[sloc[ip]] = 1;
                     ipp++;
-                    // if(ipp > nu)printf("PROBLEM - Stack logic\n");
                 } else {
-                    s[sloc[ip]] = -1; /*
-                                         * Used to designate out of remaining flat on higher
-                                         * iterations
-                                         */
+                    /*
+                     * Used to designate out of remaining flat on higher iterations
+                     */
+                    s[sloc[ip]] = -1;
                 }
                 dn[sloc[ip]] = 0; /* Reinitialize for next time round. */
             }
-            flatrout(nu, sloc2, s, spos, iter, elev2, elev3, fact, ns);
-        } /* end if nu > 0 */
 
+            n = nu;
+            sloc = sloc2;
+            elev1 = elev2;
+            elev2 = new double[ns];
+        }
     }
 
     /**
-     * @param i
-     * @param j
+     * @param p the flat index of the pixel.
      * @param fact
      * @param elev1
      * @param elev2
@@ -497,7 +496,8 @@ public class h_flow extends ModelsBackbone {
      * @param spos
      * @param s
      */
-    private void set2( int i, int j, double[] fact, double[] elev1, double[] elev2, int iter, int[][] spos, int[] s ) {
+    private void set2( int p, double[] fact, double[] elev1, double[] elev2, int iter, int[] spos,
+            int[] s ) {
         /*
          * This function sets directions based upon secondary elevations for assignment of flow
          * directions across flats according to Garbrecht and Martz scheme. There are two
@@ -509,16 +509,14 @@ public class h_flow extends ModelsBackbone {
          */
 
         double slope, slope2, smax, ed;
-        int spn, sp;
-        int in, jn;
+        int spn, sp, pn;
         smax = 0.;
-        sp = spos[j][i];
+        sp = spos[p];
         for( int k = 1; k <= 8; k++ ) {
-            jn = j + d2[k];
-            in = i + d1[k];
-            spn = spos[jn][in];
+            pn = p + offsets[k];
+            spn = spos[pn];
             if (iter <= 1) {
-                ed = elevations[j][i] - elevations[jn][in];
+                ed = elevation(p) - elevation(pn);
             } else {
                 ed = elev1[sp] - elev1[spn];
             }
@@ -536,7 +534,7 @@ public class h_flow extends ModelsBackbone {
                                                  */
             {
                 smax = slope2;
-                dir[j][i] = k;
+                dir[p] = k;
             }
         } /* End of for */
 
@@ -550,29 +548,27 @@ public class h_flow extends ModelsBackbone {
      * @param iter
      * @param sloc
      */
-    private void incrise( int n, double[] elev1, int[] s2, int[][] spos, int iter, int[] sloc ) {
+    private void incrise( int n, double[] elev1, int[] s2, int[] spos, int iter, int[] sloc ) {
         /*
          * This routine implements stage 2 drainage away from higher ground dn is used to flag
          * pixels still being incremented
          */
         int done = 0, ninc, nincold, spn;
         double ed;
-        int i, j, in, jn;
+        int p, pn;
         nincold = 0;
 
         while( done < 1 ) {
             done = 1;
             ninc = 0;
             for( int ip = 0; ip < n; ip++ ) {
+                p = flatPixels[sloc[ip]];
                 for( int k = 1; k <= 8; k++ ) {
-                    j = js[sloc[ip]];
-                    i = is[sloc[ip]];
-                    jn = j + d2[k];
-                    in = i + d1[k];
-                    spn = spos[jn][in];
+                    pn = p + offsets[k];
+                    spn = spos[pn];
 
                     if (iter <= 1) {
-                        ed = elevations[j][i] - elevations[jn][in];
+                        ed = elevation(p) - elevation(pn);
                     } else {
                         ed = elev1[sloc[ip]] - elev1[spn];
                     }
@@ -596,7 +592,6 @@ public class h_flow extends ModelsBackbone {
                 }
 
             }
-            // printf("incrise %d %d\n",ninc,n);
             if (ninc == nincold) {
                 done = 1;
             } /*
@@ -616,87 +611,33 @@ public class h_flow extends ModelsBackbone {
      * @param iter
      * @param sloc
      */
-    private void incfall( int n, double[] elev1, int[] s1, int[][] spos, int iter, int[] sloc ) {
+    private void incfall( int n, double[] elev1, int[] s1, int[] spos, int iter, int[] sloc ) {
         /* This routine implements drainage towards lower areas - stage 1 */
-        int done = 0, donothing, ninc, nincold, spn;
-        int st = 1, i, j, in, jn;
-        double ed;
+        int done = 0, ninc, nincold;
+        int st = 1;
         nincold = -1;
 
         while( done < 1 ) {
             done = 1;
             ninc = 0;
             for( int ip = 0; ip < n; ip++ ) {
-                /*
-                 * if adjacent to same level or lower that drains or adjacent to pixel with s1 < st
-                 * and dir not set do nothing
-                 */
-                donothing = 0;
-                j = js[sloc[ip]];
-                i = is[sloc[ip]];
-                for( int k = 1; k <= 8; k++ ) {
-                    jn = j + d2[k];
-                    in = i + d1[k];
-                    spn = spos[jn][in];
-                    if (iter <= 1) {
-                        ed = elevations[j][i] - elevations[jn][in];
-                    } else {
-                        ed = elev1[sloc[ip]] - elev1[spn];
-                    }
-                    if (ed >= 0. && dir[jn][in] != 0)
-                        donothing = 1; /* If neighbor drains */
-                    if (spn >= 0) /* if neighbor is in flat */
-                    {
-                        /* If neighbor is not being */
-                        if (s1[spn] >= 0 && s1[spn] < st && dir[jn][in] == 0) {
-                            donothing = 1; /* Incremented */
-                        }
-                    }
-                }
-
-                if (donothing == 0) {
+                if (!isFallBlocked(ip, elev1, s1, spos, iter, sloc, st)) {
                     s1[sloc[ip]]++;
                     ninc++;
                     done = 0;
                 }
             } /* End of loop over all flats */
             st = st + 1;
-            // printf("Incfall %d %d \n",ninc,n);
             if (ninc == nincold) {
                 done = 1;
-                // printf("There are pits remaining, direction will not be
-                // set\n");
-                /* Set the direction of these pits to 19 to flag them */
+                /*
+                 * There are pits remaining, direction will not be set. Set the direction of these
+                 * pits to 19 to flag them
+                 */
                 for( int ip = 0; ip < n; ip++ ) /* loop 2 over all flats */
                 {
-                    /*
-                     * if adjacent to same level or lower that drains or adjacent to pixel with s1 <
-                     * st and dir not set do nothing
-                     */
-                    donothing = 0;
-                    j = js[sloc[ip]];
-                    i = is[sloc[ip]];
-                    for( int k = 1; k <= 8; k++ ) {
-                        jn = j + d2[k];
-                        in = i + d1[k];
-                        spn = spos[jn][in];
-                        if (iter <= 1) {
-                            ed = elevations[j][i] - elevations[jn][in];
-                        } else {
-                            ed = elev1[sloc[ip]] - elev1[spn];
-                        }
-                        if (ed >= 0. && dir[jn][in] != 0)
-                            donothing = 1; /* If neighbor drains */
-                        if (spn >= 0) /* if neighbor is in flat */
-                        {
-                            /* If neighbor is not being */
-                            if (s1[spn] >= 0 && s1[spn] < st && dir[jn][in] == 0)
-                                donothing = 1; /* Incremented */
-                        }
-                    }
-                    if (donothing == 0) {
-                        dir[j][i] = 19;
-                        /* printf("%d %d\n",i,j); */
+                    if (!isFallBlocked(ip, elev1, s1, spos, iter, sloc, st)) {
+                        dir[flatPixels[sloc[ip]]] = 19;
                     }
                 } /* End of loop 2 over all flats */
             }
@@ -706,108 +647,69 @@ public class h_flow extends ModelsBackbone {
     }
 
     /**
-     * @param i
-     * @param j
+     * Checks if a pixel of a flat is adjacent to same level or lower that drains or adjacent to
+     * pixel with s1 < st and dir not set, in which case it is not incremented.
      */
-    private void darea( int i, int j ) {
-        int in, jn, con = 0;
-        /*
-         * con is a flag that signifies possible contaminatin of area due to edge effects
-         */
-        if (i != 0 && i != ny - 1 && j != 0 && j != nx - 1 && dir[j][i] > -1)
-        /* not on boundary */
-        {
-            if (arr[j][i] == 0) // not touched yet
+    private boolean isFallBlocked( int ip, double[] elev1, int[] s1, int[] spos, int iter,
+            int[] sloc, int st ) {
+        boolean donothing = false;
+        int p = flatPixels[sloc[ip]];
+        for( int k = 1; k <= 8; k++ ) {
+            int pn = p + offsets[k];
+            int spn = spos[pn];
+            double ed;
+            if (iter <= 1) {
+                ed = elevation(p) - elevation(pn);
+            } else {
+                ed = elev1[sloc[ip]] - elev1[spn];
+            }
+            if (ed >= 0. && dir[pn] != 0)
+                donothing = true; /* If neighbor drains */
+            if (spn >= 0) /* if neighbor is in flat */
             {
-                arr[j][i] = 1;
-                if (useww == 1)
-                    areaw[j][i] = weight[j][i];
-                for( int k = 1; k <= 8; k++ ) {
-                    in = i + d1[k];
-                    jn = j + d2[k];
-
-                    /*
-                     * test if neighbor drains towards cell excluding boundaryies
-                     */
-                    if (dir[jn][in] > 0 && (dir[jn][in] - k == 4 || dir[jn][in] - k == -4)) {
-                        darea(in, jn);
-                        if (arr[jn][in] < 0)
-                            con = -1;
-                        else
-                            arr[j][i] = arr[j][i] + arr[jn][in];
-                        if (useww == 1) {
-                            if (areaw[jn][in] <= ndv || areaw[j][i] <= ndv) {
-                                areaw[j][i] = ndv;
-                            } else
-                                areaw[j][i] = areaw[j][i] + areaw[jn][in];
-                        }
-                    }
-                    if (dir[jn][in] < 0)
-                        con = -1;
-                }
-                if (con == -1 && ccheck == 1) {
-                    arr[j][i] = -1;
-                    if (useww == 1)
-                        areaw[j][i] = ndv;
+                /* If neighbor is not being */
+                if (s1[spn] >= 0 && s1[spn] < st && dir[pn] == 0) {
+                    donothing = true; /* Incremented */
                 }
             }
-        } else
-            arr[j][i] = -1;
+        }
+        return donothing;
     }
 
     /**
-     * @param i
-     * @param j
+     * @param p the flat index of the pixel.
      * @param fact
      */
-    private void set( int i, int j, double[] fact ) {
+    private void set( int p, double[] fact ) {
         double slope, smax;
-        int amax, in, jn, aneigh = -1;
+        int pn;
 
-        dir[j][i] = 0; /* This necessary for repeat passes after level raised */
+        dir[p] = 0; /* This necessary for repeat passes after level raised */
         smax = 0.;
-        amax = 0;
 
         for( int k = 1; k <= 8; k = k + 2 ) // examine adjacent cells first
         {
-            in = i + d1[k];
-            jn = j + d2[k];
-            if (elevations[jn][in] <= FluidConstants.flownovalue) {
+            pn = p + offsets[k];
+            if (elevation(pn) <= FluidConstants.flownovalue) {
                 continue;
             }
-
-            if (dir[j][i] != -1) {
-                slope = fact[k] * (elevations[j][i] - elevations[jn][in]);
-
-                if (aneigh > amax && slope >= 0.) {
-                    amax = aneigh;
-                    if (Math.abs(dir[jn][in] - k) != 4)
-                        dir[j][i] = k; // Dont set opposing pointers
-                } else if (slope > smax && amax <= 0) {
-                    smax = slope;
-                    dir[j][i] = k;
-
-                }
+            slope = fact[k] * (elevation(p) - elevation(pn));
+            if (slope > smax) {
+                smax = slope;
+                dir[p] = k;
             }
         }
 
         for( int k = 2; k <= 8; k = k + 2 ) // examine diagonal cells
         {
-            in = i + d1[k];
-            jn = j + d2[k];
-            /* if(elev[jn][in] <= mval) dir[j][i] = -1; */
-            if (elevations[jn][in] <= FluidConstants.flownovalue) {
+            pn = p + offsets[k];
+            if (elevation(pn) <= FluidConstants.flownovalue) {
                 continue;
             }
-            if (dir[j][i] != -1) {
-                slope = fact[k] * (elevations[j][i] - elevations[jn][in]);
-                if (slope > smax && amax <= 0) // still need amax check to
-                // prevent crossing
-                {
-                    smax = slope;
-                    dir[j][i] = k;
-
-                }
+            slope = fact[k] * (elevation(p) - elevation(pn));
+            if (slope > smax) {
+                smax = slope;
+                dir[p] = k;
             }
         }
 
@@ -104,6 +104,8 @@ public class h_gradient extends ModelsBackbone {
 
     private boolean doTile = false;
 
+    private int threads = 1;
+
     private JGrassGridCoverageValueSet jgrValueSet;
 
     private String locationPath;
@@ -201,7 +203,7 @@ public class h_gradient extends ModelsBackbone {
             // gradient operation, input: map, x resolution, y resolution and if
             // set the tiling.
             if (pitImage != null) {
-                RenderedOp gradient = HMGradientDescriptor.create(pitImage, dx, dy, false, err, out);
+                RenderedOp gradient = HMGradientDescriptor.create(pitImage, dx, dy, false, err, out, threads);
                 // set the border to noValue
                 RenderedOp gradientNoV = FluidUtils.setJaiNovalueBorder(gradient);
                 CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
@@ -238,6 +240,9 @@ public class h_gradient extends ModelsBackbone {
                     doTile = Boolean.parseBoolean(argument.getValue());
 
                 }
+                if (key.compareTo(ModelsConstants.THREADS) == 0) {
+                    threads = Integer.parseInt(argument.getValue());
+                }
             }
         }
 
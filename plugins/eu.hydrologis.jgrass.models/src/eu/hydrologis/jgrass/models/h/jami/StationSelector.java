@@ -0,0 +1,110 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.h.jami;
+
+/**
+ * The selection of the stations of an elevation band used by a basin in {@link h_jami}.
+ *
+ * <p>
+ * The stations of the band are sorted once by distance from the basin baricenter, then at every
+ * time step the nearest stations having values are selected.
+ * </p>
+ *
+ * @author Silvia Franceschi (www.hydrologis.com)
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class StationSelector {
+
+    private StationSelector() {
+    }
+
+    /**
+     * Sorts the stations of a band by distance, keeping the band order for the same distances.
+     *
+     * @param stations the indexes of the stations, in the band order, sorted in place.
+     * @param distances the distances of the stations from the basin baricenter, sorted with them.
+     */
+    public static void sortByDistance( int[] stations, double[] distances ) {
+        // insertion sort, which is stable
+        for( int j = 1; j < stations.length; j++ ) {
+            int station = stations[j];
+            double distance = distances[j];
+            int k = j - 1;
+            while( k >= 0 && distances[k] > distance ) {
+                stations[k + 1] = stations[k];
+                distances[k + 1] = distances[k];
+                k--;
+            }
+            stations[k + 1] = station;
+            distances[k + 1] = distance;
+        }
+    }
+
+    /**
+     * Selects the stations of an elevation band used by a basin.
+     *
+     * <p>
+     * The nearest <code>stationNum</code> stations having values are used, of the ones at the
+     * same distance only the last one of the band. If there are not enough, stations without
+     * values are added in the band order, as many as half of the missing ones rounded up, as
+     * the interpolation always did. They count as stations of the basin but are not used for
+     * the interpolation.
+     * </p>
+     *
+     * @param stationsByDistance the indexes of the stations of the band, sorted by
+     *        {@link #sortByDistance(int[], double[])}.
+     * @param distances the distances of the sorted stations.
+     * @param bandStations the indexes of the stations of the band, in the band order.
+     * @param hasValue for every station index, whether the station has a value.
+     * @param stationNum the number of stations to use.
+     * @param selected the array to add the indexes of the selected stations to.
+     * @param selectedNum the number of stations already in the array.
+     * @return the number of stations in the array after the ones of the band.
+     */
+    public static int select( int[] stationsByDistance, double[] distances, int[] bandStations,
+            boolean[] hasValue, int stationNum, int[] selected, int selectedNum ) {
+        int used = 0;
+        for( int k = 0; k < stationsByDistance.length && used < stationNum; k++ ) {
+            if (!hasValue[stationsByDistance[k]]) {
+                continue;
+            }
+            // of the stations with values at the same distance only the last one is used
+            int next = k + 1;
+            while( next < stationsByDistance.length && !hasValue[stationsByDistance[next]] ) {
+                next++;
+            }
+            if (next < stationsByDistance.length && distances[next] == distances[k]) {
+                continue;
+            }
+            selected[selectedNum++] = stationsByDistance[k];
+            used++;
+        }
+
+        if (used < stationNum) {
+            int toAdd = (stationNum - used + 1) / 2;
+            for( int j = 0; j < bandStations.length && toAdd > 0; j++ ) {
+                if (!hasValue[bandStations[j]]) {
+                    selected[selectedNum++] = bandStations[j];
+                    toAdd--;
+                }
+            }
+        }
+        return selectedNum;
+    }
+
+}
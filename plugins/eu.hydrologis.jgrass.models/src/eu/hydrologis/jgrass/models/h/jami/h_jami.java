@@ -22,16 +22,15 @@ import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
 import java.io.File;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -49,6 +48,8 @@ import com.vividsolutions.jts.geom.Geometry;
 
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
 import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
@@ -58,6 +59,7 @@ import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.libs.utils.QuickSortAlgorithm;
+import eu.hydrologis.openmi.DoubleScalarSet;
 import eu.hydrologis.openmi.JGrassFeatureValueSet;
 import eu.hydrologis.openmi.util.HydrologisDate;
 
@@ -249,6 +251,75 @@ public class h_jami extends ModelsBackbone {
 
     private double[] DTmonth = null;
 
+    /**
+     * The minimum number of basins to interpolate them on more threads.
+     */
+    private static final int MIN_PARALLEL_BASINS = 64;
+
+    private int threads = 1;
+
+    private ExecutorService pool = null;
+
+    /**
+     * The ids of the basins, in the order of the basins.
+     */
+    private int[] basinIds;
+
+    /**
+     * The ids of the elevation bands of the stations.
+     */
+    private int[] bandIds;
+
+    /**
+     * The indexes of the stations of every elevation band, in the order of
+     * {@link #bin2StationsListMap}.
+     */
+    private int[][] bandStations;
+
+    /**
+     * The indexes of the stations of every basin and elevation band, sorted by
+     * distance from the basin baricenter.
+     */
+    private int[][][] bandStationsByDistance;
+
+    /**
+     * The distances of the stations in {@link #bandStationsByDistance}.
+     */
+    private double[][][] bandStationsDistances;
+
+    /**
+     * The indexes of the stations used by every basin, in ascending order.
+     */
+    private int[][] stationsPerBasin;
+
+    /**
+     * Whether the stations had values when {@link #stationsPerBasin} was
+     * filled.
+     */
+    private boolean[] stationsWithValues;
+
+    /**
+     * The station ids of the values of the last time step and the indexes of
+     * the stations, -1 for unknown stations.
+     */
+    private int[] valueStationIds;
+    private int[] valueStationIndexes;
+
+    /**
+     * The values of the current time step, in the order of the stations.
+     */
+    private double[] statValues;
+
+    /**
+     * The basin id and the values of the bands of every basin.
+     */
+    private double[] interpolatedValues;
+
+    /**
+     * Whether the basins could be interpolated in the current time step.
+     */
+    private boolean[] isInterpolated;
+
     public h_jami() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -351,6 +422,9 @@ public class h_jami extends ModelsBackbone {
                 if (key.compareTo("basinid") == 0) {
                     basinIdField = argument.getValue();
                 }
+                if (key.compareTo(ModelsConstants.THREADS) == 0) {
+                    threads = Integer.parseInt(argument.getValue());
+                }
             }
 
             if (type == -1) {
@@ -398,8 +472,7 @@ public class h_jami extends ModelsBackbone {
              * get stations
              */
             out.println("Read stations data.");
-            IValueSet stationsValueSet = stationsLink.getSourceComponent().getValues(time,
-                    stationsLink.getID());
+            IValueSet stationsValueSet = LinkValueCache.requestValues(stationsLink, time);
             FeatureCollection<SimpleFeatureType, SimpleFeature> stationFeatureCollection = ((JGrassFeatureValueSet) stationsValueSet)
                     .getFeatureCollection();
             stationCoordinates = new ArrayList<Coordinate>();
@@ -419,8 +492,7 @@ public class h_jami extends ModelsBackbone {
              * around.
              */
 
-            IValueSet basinsValueSet = basinsLink.getSourceComponent().getValues(time,
-                    basinsLink.getID());
+            IValueSet basinsValueSet = LinkValueCache.requestValues(basinsLink, time);
             FeatureCollection<SimpleFeatureType, SimpleFeature> basinsFeatureCollection = ((JGrassFeatureValueSet) basinsValueSet)
                     .getFeatureCollection();
             basinBaricenterCoordinates = new ArrayList<Coordinate>();
@@ -471,26 +543,25 @@ public class h_jami extends ModelsBackbone {
             /*
              * get the altimetric bands matrix
              */
-            IValueSet altimetryValueSet = altimetryLink.getSourceComponent().getValues(time,
-                    altimetryLink.getID());
+            IValueSet altimetryValueSet = LinkValueCache.requestValues(altimetryLink, time);
             if (altimetryValueSet instanceof ScalarSet) {
                 ScalarSet altimetryScalarSet = (ScalarSet) altimetryValueSet;
                 // the format is: idbasin, idfascia, elevfascia, rangefascia
-                int columns = altimetryScalarSet.get(0).intValue();
+                int columns = (int) altimetryScalarSet.getScalar(0);
                 int total = altimetryScalarSet.getCount() - 1;
                 int basinNum = basinBaricenterCoordinates.size();
                 int fascieNum = total / basinNum / columns;
 
                 bandsBasins = new double[fascieNum][basinNum];
                 for( int i = 1; i < altimetryScalarSet.size(); i = i + 4 ) {
-                    int idbasin = altimetryScalarSet.get(i).intValue();
-                    int idfascia = altimetryScalarSet.get(i + 1).intValue();
-                    double baricenter = altimetryScalarSet.get(i + 2);
+                    int idbasin = (int) altimetryScalarSet.getScalar(i);
+                    int idfascia = (int) altimetryScalarSet.getScalar(i + 1);
+                    double baricenter = altimetryScalarSet.getScalar(i + 2);
                     Integer index = basinid2BasinindexMap.get(idbasin);
                     if (index != null)
                         bandsBasins[idfascia][index] = baricenter;
                     // TODO make it range aware
-                    // double range = altimetryScalarSet.get(i + 3);
+                    // double range = altimetryScalarSet.getScalar(i + 3);
                     // bandsBasins[idfascia +
                     // 1][basinid2BasinindexMap.get(idbasin)] = baricenter
                     // + range / 2.0;
@@ -526,548 +597,541 @@ public class h_jami extends ModelsBackbone {
                 bin2StationsListMap.put(i, stationsIds);
             }
 
+            createInterpolationPlan();
         }
 
         /*
          * get values for current timestep and order them with the stations ids
          */
-        ScalarSet valuesValueSet = (ScalarSet) valuesLink.getSourceComponent().getValues(time,
-                valuesLink.getID());
-        double[] statValues = new double[stationCoordinates.size()];
-        for( int i = 0; i < statValues.length; i++ ) {
-            statValues[i] = JGrassConstants.doubleNovalue;
-        }
-        for( int i = 1; i < valuesValueSet.getCount(); i = i + 2 ) {
-            double id = valuesValueSet.get(i);
-            double value = valuesValueSet.get(i + 1);
-            Integer index = stationid2StationindexMap.get((int) id);
-            if (index == null)
-                continue;
-            statValues[index] = value;
+        ScalarSet valuesValueSet = (ScalarSet) LinkValueCache.requestValues(valuesLink, time);
+        readStationValues(valuesValueSet);
+        updateStationsPerBasin();
+
+        final int bandsNum = bandsBasins.length;
+        final int basinsNum = basinBaricenterCoordinates.size();
+
+        if (type == 5 || type == 6) {
+            /*
+             * calculate the DT month and day for each station
+             */
+            // System.out.println("Calculating the dayly and monthly Dt for each station...");
+            rangeT(statValues);
         }
 
-        // number of active stations for every basin
-        int[] activeStationsPerBasin = new int[basinBaricenterCoordinates.size()];
-        int[][] stazBacMatrix = createStationBasinsMatrix(statValues, activeStationsPerBasin);
-        int[][] stations = new int[stazBacMatrix.length][stazBacMatrix[0].length];
-        int contStations = 0;
-        // riempimento vettori/matrici
-        for( int i = 0; i < stazBacMatrix[0].length; i++ ) { // indice bacino
-            contStations = 0;
-            for( int j = 0; j < stazBacMatrix.length; j++ ) { // indice stazione
-                if (stazBacMatrix[j][i] == 1) {
-                    stations[contStations][i] = j;
-                    contStations += 1;
+        /*
+         * the basins are independent, so they can be interpolated concurrently
+         */
+        RangeTask task = new RangeTask(){
+            public void run( int start, int end ) {
+                double[] interpolatedMeteoForBand = new double[bandsNum];
+                int[] jj_av = new int[stationNum * stationBins];
+                for( int i = start; i < end; i++ ) {
+                    int[] selected = stationsPerBasin[i];
+                    if (jj_av.length < selected.length) {
+                        jj_av = new int[selected.length];
+                    }
+                    isInterpolated[i] = interpolateBasin(i, selected, jj_av,
+                            interpolatedMeteoForBand);
+                    int offset = i * (bandsNum + 1);
+                    interpolatedValues[offset] = basinIds[i];
+                    System.arraycopy(interpolatedMeteoForBand, 0, interpolatedValues, offset + 1,
+                            bandsNum);
                 }
             }
+        };
+        if (threads < 2 || basinsNum < MIN_PARALLEL_BASINS) {
+            task.run(0, basinsNum);
+        } else {
+            runInPool(basinsNum, task);
         }
 
-        ScalarSet interpolatedMeteoSet = new ScalarSet();
-        int bandsNum = bandsBasins.length;
         /*
          * the number of scalars exiting at every timestep is: basin number
          * (band number + 1) where 1 is the place for the basin id
          */
-        interpolatedMeteoSet.add((double) (bandsNum + 1) * basinBaricenterCoordinates.size());
-
-        if (type == 5 || type == 6) {
-            /*
-             * calculate the DT month and day for each station
-             */
-            // System.out.println("Calculating the dayly and monthly Dt for each station...");
-            rangeT(statValues);
+        DoubleScalarSet interpolatedMeteoSet = new DoubleScalarSet(interpolatedValues.length + 1);
+        interpolatedMeteoSet.addScalar((double) (bandsNum + 1) * basinsNum);
+        pm.beginTask("Interpolating over bands and basins...", basinsNum);
+        for( int i = 0; i < basinsNum; i++ ) {
+            pm.worked(1);
+            // only the basins with at least two stations are given back
+            if (isInterpolated[i]) {
+                interpolatedMeteoSet.addDoubles(interpolatedValues, i * (bandsNum + 1),
+                        bandsNum + 1);
+            }
         }
+        pm.done();
 
-        pm.beginTask("Interpolating over bands and basins...", basinBaricenterCoordinates.size());
+        return interpolatedMeteoSet;
+    }
 
-        // System.out.println("---");
-        // for (int s = 0; s < minTempPerStation.length; s++) {
-        // if (minTempPerStation[s] != 0) {
-        // System.out.println("Temperature: "
-        // + maxTempPerStation[s] + " "
-        // + minTempPerStation[s]);
-        //				
-        // }
-        // }
+    private synchronized void runInPool( int basinsNum, RangeTask task ) throws Exception {
+        if (pool == null) {
+            pool = ParallelUtilities.newFixedThreadPool(threads);
+        }
+        ParallelUtilities.runInChunks(pool, 0, basinsNum, threads, task);
+    }
 
-        for( int i = 0; i < basinBaricenterCoordinates.size(); i++ ) {
-            pm.worked(1);
-            // interpolated value for every band
-            double[] interpolatedMeteoForBand = new double[bandsNum];
-
-            int cont = 0;
-            double h;
-            int[] jj_av;
-
-            // trova le stazioni che forniscono dati
-            jj_av = new int[activeStationsPerBasin[i]]; // costruisco un nuovo
-            // vettore jj_av con le
-            // stazioni del bacino in studio
-            for( int j = 0; j < activeStationsPerBasin[i]; j++ ) {
-                if (type != 5 || type == 6) {
-                    if (!isNovalue(statValues[stations[j][i]])) {
-                        jj_av[cont] = stations[j][i]; // registro le stazioni
-                        // attive
-                        cont += 1;
-                    }
-                } else {
-                    // se per la stazione j del bacino i minT e maxT sono
-                    // diversi da
-                    // NODATA
-                    if (!isNovalue(minTempPerStation[stations[j][i]])
-                            && isNovalue(maxTempPerStation[stations[j][i]])) {
-                        // jj conterrà le stazioni che hanno dati di escursione
-                        // termica
-                        // giornaliera
-                        jj_av[cont] = stations[j][i]; // registro le stazioni
-                        // attive
-                        cont += 1;
-                    }
+    /**
+     * Interpolates the values of the stations over the elevation bands of a basin.
+     * 
+     * @param i the index of the basin.
+     * @param selected the indexes of the stations used by the basin, in ascending order.
+     * @param jj_av an array, at least as long as the selected stations, to put the active
+     *        stations in.
+     * @param interpolatedMeteoForBand the array to put the interpolated value for every band in.
+     * @return true if there were at least two active stations, which is the only case in which
+     *         the basin is part of the output.
+     */
+    private boolean interpolateBasin( int i, int[] selected, int[] jj_av,
+            double[] interpolatedMeteoForBand ) {
+        int bandsNum = bandsBasins.length;
+        int cont = 0;
+        double h;
+
+        // trova le stazioni che forniscono dati
+        // costruisco un nuovo
+        // vettore jj_av con le
+        // stazioni del bacino in studio
+        for( int j = 0; j < selected.length; j++ ) {
+            if (type != 5 || type == 6) {
+                if (!isNovalue(statValues[selected[j]])) {
+                    jj_av[cont] = selected[j]; // registro le stazioni
+                    // attive
+                    cont += 1;
+                }
+            } else {
+                // se per la stazione j del bacino i minT e maxT sono
+                // diversi da
+                // NODATA
+                if (!isNovalue(minTempPerStation[selected[j]])
+                        && isNovalue(maxTempPerStation[selected[j]])) {
+                    // jj conterrà le stazioni che hanno dati di escursione
+                    // termica
+                    // giornaliera
+                    jj_av[cont] = selected[j]; // registro le stazioni
+                    // attive
+                    cont += 1;
                 }
             }
+        }
 
-            // caso 0. se non c'e' nessuna stazione, cerco che il programma
-            // sopravviva
-            if (cont == 0) {
-                if (type == 1) { // caso dei dati di temperatura
-                    out
-                            .println("ERRORE: PER IL BACINO "
-                                    + i
-                                    + " NON SONO DISPONIBILI DATI DI TEMPERATURA, PER QUESTO BACINO STAND-BY");
-                    for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
-                        // altimetriche metto il
-                        // dato a -100
-                        interpolatedMeteoForBand[f] = JGrassConstants.doubleNovalue;
-                    }
-                } else if (type == 2) { // caso dei dati di pressione
-                    out.println("  -> Per il bacino " + i
-                            + " non sono disponibili dati di pressione, uso valori di default");
-                    for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
-                        // altimetriche considero
-                        // un'adiabatica
-                        interpolatedMeteoForBand[f] = 1013.25 * Math
-                                .exp(-(bandsBasins[f][i]) * 0.00013);
-                    }
-                } else if (type == 3) { // caso dei dati di umidità
-                    out.println("  -> Per il bacino " + i
-                            + " non sono disponibili dati di umidita', uso valori di default");
-                    for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
-                        // altimetriche metto NODATA
-                        interpolatedMeteoForBand[f] = defaultRhValue;
-                    }
-                } else if (type == 4) { // caso dei dati di velocità del vento
-                    out
-                            .println("  -> Per il bacino "
-                                    + i
-                                    + " non sono disponibili dati di velocita' del vento, uso valori di default");
-                    for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
-                        // altimetriche metto NODATA
-                        interpolatedMeteoForBand[f] = defaultVValue;
-                    }
-                } else if (type == 5) { // caso dei dati di escursione termica
+        // caso 0. se non c'e' nessuna stazione, cerco che il programma
+        // sopravviva
+        if (cont == 0) {
+            if (type == 1) { // caso dei dati di temperatura
+                out
+                        .println("ERRORE: PER IL BACINO "
+                                + i
+                                + " NON SONO DISPONIBILI DATI DI TEMPERATURA, PER QUESTO BACINO STAND-BY");
+                for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
+                    // altimetriche metto il
+                    // dato a -100
+                    interpolatedMeteoForBand[f] = JGrassConstants.doubleNovalue;
+                }
+            } else if (type == 2) { // caso dei dati di pressione
+                out.println("  -> Per il bacino " + i
+                        + " non sono disponibili dati di pressione, uso valori di default");
+                for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
+                    // altimetriche considero
+                    // un'adiabatica
+                    interpolatedMeteoForBand[f] = 1013.25 * Math
+                            .exp(-(bandsBasins[f][i]) * 0.00013);
+                }
+            } else if (type == 3) { // caso dei dati di umidità
+                out.println("  -> Per il bacino " + i
+                        + " non sono disponibili dati di umidita', uso valori di default");
+                for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
+                    // altimetriche metto NODATA
+                    interpolatedMeteoForBand[f] = defaultRhValue;
+                }
+            } else if (type == 4) { // caso dei dati di velocità del vento
+                out
+                        .println("  -> Per il bacino "
+                                + i
+                                + " non sono disponibili dati di velocita' del vento, uso valori di default");
+                for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
+                    // altimetriche metto NODATA
+                    interpolatedMeteoForBand[f] = defaultVValue;
+                }
+            } else if (type == 5) { // caso dei dati di escursione termica
+                // giornaliera
+                out
+                        .println("  -> Per il bacino "
+                                + i
+                                + " non sono disponibili dati di escursione termica giornaliera', uso valori di default");
+                for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
+                    // altimetriche del bacino
+                    // assegno all'escursione termica giornaliera il dato
+                    // DTd
+                    // messo nel file dei parametri
+                    interpolatedMeteoForBand[f] = DTd_default;
+                }
+            } else if (type == 6) { // caso dei dati di escursione termica
+                // mensile
+                out
+                        .println("  -> Per il bacino "
+                                + i
+                                + " non sono disponibili dati di escursione termica mensile', uso valori di default");
+                for( int f = 0; f < bandsNum; f++ ) {
+                    /*
+                     *  per tutte le fasce
+                     * altimetriche del bacino
+                     */
+                    // assegno all'escursione termica media mensile il
+                    // datoDTm
+                    // messo nel file dei parametri
+                    interpolatedMeteoForBand[f] = DTm_default;
+                }
+            }
+
+        } else if (cont == 1) {
+            // caso 1. c'e' solo una stazione presente . modello di
+            // atmosfera
+            // standard per T e P, valori costanti per RH e V
+            for( int f = 0; f < bandsNum; f++ ) { // ciclo sulle fascie
+                // altimetriche
+                if (type == 1) { // trasformo la temp in K e calcolo T con
+                    // l'adiabatica semplice
+                    interpolatedMeteoForBand[f] = (statValues[jj_av[0]] + FluidConstants.tk)
+                            * Math.exp(-(bandsBasins[f][i] - statElev[jj_av[0]])
+                                    * FluidConstants.GAMMA
+                                    / (statValues[jj_av[0]] + FluidConstants.tk))
+                            - FluidConstants.tk;
+                } else if (type == 2) { // calcolo P con il gradiente
+                    // adiabatico
+                    interpolatedMeteoForBand[f] = statValues[jj_av[0]]
+                            * Math.exp(-(bandsBasins[f][i] - statElev[jj_av[0]]) * 0.00013);
+                } else if (type == 5) {
+                    // se ho una sola stazione assegno il valore della
+                    // stazione a tutto il
+                    // bacino
+                    // altimetriche del bacino assegno il valore di
+                    // escursione massima
                     // giornaliera
-                    out
-                            .println("  -> Per il bacino "
-                                    + i
-                                    + " non sono disponibili dati di escursione termica giornaliera', uso valori di default");
-                    for( int f = 0; f < bandsNum; f++ ) { // per tutte le fasce
-                        // altimetriche del bacino
-                        // assegno all'escursione termica giornaliera il dato
-                        // DTd
-                        // messo nel file dei parametri
+                    interpolatedMeteoForBand[f] = maxTempPerStation[jj_av[0]]
+                            - minTempPerStation[jj_av[0]];
+                    if ((maxTempPerStation[jj_av[0]] - minTempPerStation[jj_av[0]]) <= 0) {
                         interpolatedMeteoForBand[f] = DTd_default;
                     }
-                } else if (type == 6) { // caso dei dati di escursione termica
-                    // mensile
-                    out
-                            .println("  -> Per il bacino "
-                                    + i
-                                    + " non sono disponibili dati di escursione termica mensile', uso valori di default");
-                    for( int f = 0; f < bandsNum; f++ ) {
-                        /*
-                         *  per tutte le fasce
-                         * altimetriche del bacino
-                         */
-                        // assegno all'escursione termica media mensile il
-                        // datoDTm
-                        // messo nel file dei parametri
-                        interpolatedMeteoForBand[f] = DTm_default;
-                    }
+                } else if (type == 6) {
+                    // se ho una sola stazione assegno il valore della
+                    // stazione a tutto il
+                    // bacino
+                    // altimetriche del bacino assegno il valore di
+                    // escursione massima mensile
+                    interpolatedMeteoForBand[f] = DTmonth[jj_av[0]];
+                } else { // RH e V sono costanti al variare delle fasce
+                    // altimetriche
+                    interpolatedMeteoForBand[f] = statValues[jj_av[0]];
                 }
+            }
+        } else {
+            // caso 2. ci sono almeno 2 stazioni (a quote inferiori alla
+            // stazioni piu' bassa considero atmosfera standard come a quote
+            // superiori alla staz. piu' alta, in mezzo calcolo LAPSE RATE)
+            // alloca L (vettore di dimensioni numero di stazioni attive-1)
+            double[] lapseRate = new double[cont - 1];
+
+            for( int j = 0; j < cont - 1; j++ ) { // le stazioni sono in
+                // ordine di
+                // quota
+                // L[j] e' il lapse rate tra la stazione j e j+1, puo'
+                // essere
+                // calcolato dai dati per j che va da 1 a n-1, dove n e' il
+                // numero di stazioni (cont)
+                lapseRate[j] = (statValues[jj_av[j]] - statValues[jj_av[j + 1]])
+                        / (statElev[jj_av[j + 1]] - statElev[jj_av[j]]);
+            }
 
-            } else if (cont == 1) {
-                // caso 1. c'e' solo una stazione presente . modello di
-                // atmosfera
-                // standard per T e P, valori costanti per RH e V
-                for( int f = 0; f < bandsNum; f++ ) { // ciclo sulle fascie
-                    // altimetriche
-                    if (type == 1) { // trasformo la temp in K e calcolo T con
-                        // l'adiabatica semplice
-                        interpolatedMeteoForBand[f] = (statValues[jj_av[0]] + FluidConstants.tk)
-                                * Math.exp(-(bandsBasins[f][i] - statElev[jj_av[0]])
-                                        * FluidConstants.GAMMA
-                                        / (statValues[jj_av[0]] + FluidConstants.tk))
-                                - FluidConstants.tk;
-                    } else if (type == 2) { // calcolo P con il gradiente
-                        // adiabatico
+            for( int f = 0; f < bandsNum; f++ ) { // ciclo sulle fascie
+                // altimetriche
+
+                // per le fasce altimetriche con quote piu' basse della
+                // quota
+                // della stazione piu' bassa prendo i dati della stazione
+                // più bassa
+                if (bandsBasins[f][i] <= statElev[jj_av[0]]) {
+                    if (type == 1) { // T
+                        interpolatedMeteoForBand[f] = statValues[jj_av[0]]
+                                - FluidConstants.GAMMA
+                                * (bandsBasins[f][i] - statElev[jj_av[0]]);
+                    } else if (type == 2) { // P
                         interpolatedMeteoForBand[f] = statValues[jj_av[0]]
-                                * Math.exp(-(bandsBasins[f][i] - statElev[jj_av[0]]) * 0.00013);
+                                - (statValues[jj_av[0]] * 0.00013)
+                                * (bandsBasins[f][i] - statElev[jj_av[0]]);
                     } else if (type == 5) {
-                        // se ho una sola stazione assegno il valore della
-                        // stazione a tutto il
-                        // bacino
-                        // altimetriche del bacino assegno il valore di
-                        // escursione massima
-                        // giornaliera
                         interpolatedMeteoForBand[f] = maxTempPerStation[jj_av[0]]
                                 - minTempPerStation[jj_av[0]];
                         if ((maxTempPerStation[jj_av[0]] - minTempPerStation[jj_av[0]]) <= 0) {
                             interpolatedMeteoForBand[f] = DTd_default;
                         }
                     } else if (type == 6) {
-                        // se ho una sola stazione assegno il valore della
-                        // stazione a tutto il
-                        // bacino
-                        // altimetriche del bacino assegno il valore di
-                        // escursione massima mensile
                         interpolatedMeteoForBand[f] = DTmonth[jj_av[0]];
-                    } else { // RH e V sono costanti al variare delle fasce
-                        // altimetriche
+                    } else { // RH e V
                         interpolatedMeteoForBand[f] = statValues[jj_av[0]];
                     }
-                }
-            } else {
-                // caso 2. ci sono almeno 2 stazioni (a quote inferiori alla
-                // stazioni piu' bassa considero atmosfera standard come a quote
-                // superiori alla staz. piu' alta, in mezzo calcolo LAPSE RATE)
-                // alloca L (vettore di dimensioni numero di stazioni attive-1)
-                double[] lapseRate = new double[cont - 1];
-
-                for( int j = 0; j < cont - 1; j++ ) { // le stazioni sono in
-                    // ordine di
-                    // quota
-                    // L[j] e' il lapse rate tra la stazione j e j+1, puo'
-                    // essere
-                    // calcolato dai dati per j che va da 1 a n-1, dove n e' il
-                    // numero di stazioni (cont)
-                    lapseRate[j] = (statValues[jj_av[j]] - statValues[jj_av[j + 1]])
-                            / (statElev[jj_av[j + 1]] - statElev[jj_av[j]]);
-                }
 
-                for( int f = 0; f < bandsNum; f++ ) { // ciclo sulle fascie
-                    // altimetriche
-
-                    // per le fasce altimetriche con quote piu' basse della
+                    // per le fasce altimetriche con quote piu' alte della
                     // quota
-                    // della stazione piu' bassa prendo i dati della stazione
-                    // più bassa
-                    if (bandsBasins[f][i] <= statElev[jj_av[0]]) {
-                        if (type == 1) { // T
-                            interpolatedMeteoForBand[f] = statValues[jj_av[0]]
-                                    - FluidConstants.GAMMA
-                                    * (bandsBasins[f][i] - statElev[jj_av[0]]);
-                        } else if (type == 2) { // P
-                            interpolatedMeteoForBand[f] = statValues[jj_av[0]]
-                                    - (statValues[jj_av[0]] * 0.00013)
-                                    * (bandsBasins[f][i] - statElev[jj_av[0]]);
-                        } else if (type == 5) {
-                            interpolatedMeteoForBand[f] = maxTempPerStation[jj_av[0]]
-                                    - minTempPerStation[jj_av[0]];
-                            if ((maxTempPerStation[jj_av[0]] - minTempPerStation[jj_av[0]]) <= 0) {
-                                interpolatedMeteoForBand[f] = DTd_default;
-                            }
-                        } else if (type == 6) {
-                            interpolatedMeteoForBand[f] = DTmonth[jj_av[0]];
-                        } else { // RH e V
-                            interpolatedMeteoForBand[f] = statValues[jj_av[0]];
+                    // della stazione piu' alta prendo i dati della stazione
+                    // più alta
+                } else if (bandsBasins[f][i] >= statElev[jj_av[cont - 1]]) {
+                    if (type == 1) { // T
+                        interpolatedMeteoForBand[f] = statValues[jj_av[cont - 1]]
+                                - FluidConstants.GAMMA
+                                * (bandsBasins[f][i] - statElev[jj_av[cont - 1]]);
+                    } else if (type == 2) { // P
+                        interpolatedMeteoForBand[f] = statValues[jj_av[cont - 1]]
+                                - (statValues[jj_av[cont - 1]] * 0.00013)
+                                * (bandsBasins[f][i] - statElev[jj_av[cont - 1]]);
+                    } else if (type == 5) {
+                        interpolatedMeteoForBand[f] = maxTempPerStation[jj_av[cont - 1]]
+                                - minTempPerStation[jj_av[cont - 1]];
+                        if ((maxTempPerStation[jj_av[0]] - minTempPerStation[jj_av[0]]) <= 0) {
+                            interpolatedMeteoForBand[f] = DTd_default;
                         }
+                    } else if (type == 6) {
+                        interpolatedMeteoForBand[f] = DTmonth[jj_av[cont - 1]];
+                    } else { // RH e V
+                        interpolatedMeteoForBand[f] = statValues[jj_av[cont - 1]];
+                    }
 
-                        // per le fasce altimetriche con quote piu' alte della
-                        // quota
-                        // della stazione piu' alta prendo i dati della stazione
-                        // più alta
-                    } else if (bandsBasins[f][i] >= statElev[jj_av[cont - 1]]) {
-                        if (type == 1) { // T
-                            interpolatedMeteoForBand[f] = statValues[jj_av[cont - 1]]
-                                    - FluidConstants.GAMMA
-                                    * (bandsBasins[f][i] - statElev[jj_av[cont - 1]]);
-                        } else if (type == 2) { // P
-                            interpolatedMeteoForBand[f] = statValues[jj_av[cont - 1]]
-                                    - (statValues[jj_av[cont - 1]] * 0.00013)
-                                    * (bandsBasins[f][i] - statElev[jj_av[cont - 1]]);
-                        } else if (type == 5) {
-                            interpolatedMeteoForBand[f] = maxTempPerStation[jj_av[cont - 1]]
-                                    - minTempPerStation[jj_av[cont - 1]];
-                            if ((maxTempPerStation[jj_av[0]] - minTempPerStation[jj_av[0]]) <= 0) {
-                                interpolatedMeteoForBand[f] = DTd_default;
-                            }
-                        } else if (type == 6) {
-                            interpolatedMeteoForBand[f] = DTmonth[jj_av[cont - 1]];
-                        } else { // RH e V
-                            interpolatedMeteoForBand[f] = statValues[jj_av[cont - 1]];
+                } else {
+                    int k = cont - 1;
+                    if (type == 5) {
+                        // per le fasce altimetriche intermedie devo
+                        // interpolare tra la min e
+                        // la max delle stazioni
+                        do {
+                            k -= 1;
+                            h = statElev[jj_av[k]];
+                        } while( bandsBasins[f][i] <= h );
+
+                        // for (int j = 0; j < cont; j++) {
+                        // if (f ==0 && i == 100) {
+                        // System.out.println(j + " "+ statElev[jj_av[j]]);
+                        // }
+                        // }
+
+                        // interpolatedMeteoForBand[f] =
+                        // ((maxTempPerStation[jj_av[k]] -
+                        // minTempPerStation[jj_av[k]])
+                        // * (statElev[jj_av[k + 1]] - bandsBasins[f][i]) +
+                        // (maxTempPerStation[jj_av[k + 1]] -
+                        // minTempPerStation[jj_av[k + 1]])
+                        // * (bandsBasins[f][i] - statElev[jj_av[k]]))
+                        // / (statElev[jj_av[k + 1]] - statElev[jj_av[k]]);
+                        interpolatedMeteoForBand[f] = ((maxTempPerStation[jj_av[k + 1]] - minTempPerStation[jj_av[k + 1]]) - (maxTempPerStation[jj_av[k]] - minTempPerStation[jj_av[k]]))
+                                * (bandsBasins[f][i] - statElev[jj_av[k]])
+                                / (statElev[jj_av[k + 1]] - statElev[jj_av[k]])
+                                + (maxTempPerStation[jj_av[k]] - minTempPerStation[jj_av[k]]);
+                        // if (i == 100) {
+                        // System.out.println("Banda " + f + " "
+                        // + bandsBasins[f][i]);
+                        // System.out.println("stazione1 " + k);
+                        // System.out.println("elevazione: "
+                        // + statElev[jj_av[k]]);
+                        // System.out.println("stazione2 " + k + 1);
+                        // System.out.println("max: "
+                        // + maxTempPerStation[jj_av[k + 1]]);
+                        // System.out.println("min: "
+                        // + minTempPerStation[jj_av[k + 1]]);
+                        // // System.out.println(statElev[jj_av[k + 1]]);
+                        // }
+
+                        if (interpolatedMeteoForBand[f] <= 0) {
+                            interpolatedMeteoForBand[f] = DTd_default;
                         }
-
+                    } else if (type == 6) {
+                        // per le fasce altimetriche intermedie devo
+                        // interpolare tra la min e
+                        // la max delle stazioni
+                        do {
+                            k -= 1;
+                            h = statElev[jj_av[k]];
+                        } while( bandsBasins[f][i] <= h );
+                        interpolatedMeteoForBand[f] = (DTmonth[jj_av[k]]
+                                * (statElev[jj_av[k + 1]] - bandsBasins[f][i]) + DTmonth[jj_av[k + 1]]
+                                * (bandsBasins[f][i] - statElev[jj_av[k]]))
+                                / (statElev[jj_av[k + 1]] - statElev[jj_av[k]]);
                     } else {
-                        int k = cont - 1;
-                        if (type == 5) {
-                            // per le fasce altimetriche intermedie devo
-                            // interpolare tra la min e
-                            // la max delle stazioni
-                            do {
-                                k -= 1;
-                                h = statElev[jj_av[k]];
-                            } while( bandsBasins[f][i] <= h );
-
-                            // for (int j = 0; j < cont; j++) {
-                            // if (f ==0 && i == 100) {
-                            // System.out.println(j + " "+ statElev[jj_av[j]]);
-                            // }
-                            // }
-
-                            // interpolatedMeteoForBand[f] =
-                            // ((maxTempPerStation[jj_av[k]] -
-                            // minTempPerStation[jj_av[k]])
-                            // * (statElev[jj_av[k + 1]] - bandsBasins[f][i]) +
-                            // (maxTempPerStation[jj_av[k + 1]] -
-                            // minTempPerStation[jj_av[k + 1]])
-                            // * (bandsBasins[f][i] - statElev[jj_av[k]]))
-                            // / (statElev[jj_av[k + 1]] - statElev[jj_av[k]]);
-                            interpolatedMeteoForBand[f] = ((maxTempPerStation[jj_av[k + 1]] - minTempPerStation[jj_av[k + 1]]) - (maxTempPerStation[jj_av[k]] - minTempPerStation[jj_av[k]]))
-                                    * (bandsBasins[f][i] - statElev[jj_av[k]])
-                                    / (statElev[jj_av[k + 1]] - statElev[jj_av[k]])
-                                    + (maxTempPerStation[jj_av[k]] - minTempPerStation[jj_av[k]]);
-                            // if (i == 100) {
-                            // System.out.println("Banda " + f + " "
-                            // + bandsBasins[f][i]);
-                            // System.out.println("stazione1 " + k);
-                            // System.out.println("elevazione: "
-                            // + statElev[jj_av[k]]);
-                            // System.out.println("stazione2 " + k + 1);
-                            // System.out.println("max: "
-                            // + maxTempPerStation[jj_av[k + 1]]);
-                            // System.out.println("min: "
-                            // + minTempPerStation[jj_av[k + 1]]);
-                            // // System.out.println(statElev[jj_av[k + 1]]);
-                            // }
-
-                            if (interpolatedMeteoForBand[f] <= 0) {
-                                interpolatedMeteoForBand[f] = DTd_default;
-                            }
-                        } else if (type == 6) {
-                            // per le fasce altimetriche intermedie devo
-                            // interpolare tra la min e
-                            // la max delle stazioni
-                            do {
-                                k -= 1;
-                                h = statElev[jj_av[k]];
-                            } while( bandsBasins[f][i] <= h );
-                            interpolatedMeteoForBand[f] = (DTmonth[jj_av[k]]
-                                    * (statElev[jj_av[k + 1]] - bandsBasins[f][i]) + DTmonth[jj_av[k + 1]]
-                                    * (bandsBasins[f][i] - statElev[jj_av[k]]))
-                                    / (statElev[jj_av[k + 1]] - statElev[jj_av[k]]);
-                        } else {
-                            do {
-                                k -= 1;
-                                h = statElev[jj_av[k]];
-                            } while( bandsBasins[f][i] <= h );
-                            interpolatedMeteoForBand[f] = statValues[jj_av[k]] - lapseRate[k]
-                                    * (bandsBasins[f][i] - statElev[jj_av[k]]);
-                        }
+                        do {
+                            k -= 1;
+                            h = statElev[jj_av[k]];
+                        } while( bandsBasins[f][i] <= h );
+                        interpolatedMeteoForBand[f] = statValues[jj_av[k]] - lapseRate[k]
+                                * (bandsBasins[f][i] - statElev[jj_av[k]]);
                     }
-
                 }
 
-                // ADDED
-                // controllo su RH>100 e v=0
-                if (type == 3) { // RH
-                    for( int f = 0; f < bandsNum; f++ ) {
-                        if (interpolatedMeteoForBand[f] > 100)
-                            interpolatedMeteoForBand[f] = 100;
-                        if (interpolatedMeteoForBand[f] < 5)
-                            interpolatedMeteoForBand[f] = 5;
-                    }
-                } else if (type == 4) { // V
-                    for( int f = 0; f < bandsNum; f++ ) {
-                        if (interpolatedMeteoForBand[f] < 0.01)
-                            interpolatedMeteoForBand[f] = 0.01;
-                    }
-                }
+            }
 
-                int basinid = ((Number) basinFeatures.get(i).getAttribute(basinIdFieldIndex))
-                        .intValue();
-                interpolatedMeteoSet.add((double) basinid);
-                for( double value : interpolatedMeteoForBand ) {
-                    interpolatedMeteoSet.add(value);
+            // ADDED
+            // controllo su RH>100 e v=0
+            if (type == 3) { // RH
+                for( int f = 0; f < bandsNum; f++ ) {
+                    if (interpolatedMeteoForBand[f] > 100)
+                        interpolatedMeteoForBand[f] = 100;
+                    if (interpolatedMeteoForBand[f] < 5)
+                        interpolatedMeteoForBand[f] = 5;
+                }
+            } else if (type == 4) { // V
+                for( int f = 0; f < bandsNum; f++ ) {
+                    if (interpolatedMeteoForBand[f] < 0.01)
+                        interpolatedMeteoForBand[f] = 0.01;
                 }
             }
+            return true;
         }
-        pm.done();
-
-        return interpolatedMeteoSet;
+        return false;
     }
 
     /**
-     * Creates the stations per basins matrix.
+     * Creates the parts of the interpolation that don't change in time.
      * 
      * <p>
-     * The matrix is a bitmap of the stations that will be used for every basin,
-     * following the schema:
-     * </p>
-     * <table>
-     * <tr>
-     * <td></td>
-     * <td>basin1</td>
-     * <td>basin2</td>
-     * <td>basin3</td>
-     * <td>basin...</td>
-     * <tr>
-     * <td>station1</td>
-     * <td>1</td>
-     * <td>0</td>
-     * <td>1</td>
-     * <td>0...</td>
-     * <tr>
-     * <td>station2</td>
-     * <td>1</td>
-     * <td>0</td>
-     * <td>1</td>
-     * <td>0...</td>
-     * <tr>
-     * <td>station3</td>
-     * <td>0</td>
-     * <td>1</td>
-     * <td>1</td>
-     * <td>0...</td>
-     * <tr>
-     * <td>station...</td>
-     * <td>0</td>
-     * <td>0</td>
-     * <td>0</td>
-     * <td>0...</td>
-     * </tr>
-     * </table>
-     * <p>
-     * In the above case basin1 will use station1 and station2, while basin2
-     * will use only station3, and so on.
+     * For every basin and elevation band of the stations, the stations of the band are sorted
+     * by distance from the basin baricenter, so that at every time step the stations to use are
+     * the nearest ones having values. The arrays of the values are created once and reused.
      * </p>
-     * 
-     * @param statValues
-     *            the station data values, properly ordered, containing
-     *            {@link JGrassConstants#defaultNovalue novalues}.
-     * @param activeStationsPerBasin
-     *            an array to be filled with the number of active stations per
-     *            basin.
-     * @return the matrix of active stations for every basin.
      */
-    private int[][] createStationBasinsMatrix( double[] statValues, int[] activeStationsPerBasin ) {
-        int[][] stationsBasins = new int[stationCoordinates.size()][basinBaricenterCoordinates
-                .size()];
+    private void createInterpolationPlan() {
+        int basinsNum = basinBaricenterCoordinates.size();
+        basinIds = new int[basinsNum];
+        for( int i = 0; i < basinsNum; i++ ) {
+            basinIds[i] = basinindex2basinidMap.get(i);
+        }
+
         Set<Integer> bandsIdSet = bin2StationsListMap.keySet();
-        Integer[] bandsIdArray = (Integer[]) bandsIdSet.toArray(new Integer[bandsIdSet.size()]);
-        // for every basin
-        for( int i = 0; i < basinBaricenterCoordinates.size(); i++ ) {
-            Coordinate basinBaricenterCoordinate = basinBaricenterCoordinates.get(i);
-            // for every stations band
-            int activeStationsForThisBasin = 0;
-            for( int j = 0; j < bandsIdArray.length; j++ ) {
-                int bandId = bandsIdArray[j];
-                List<Integer> stationIdsForBand = bin2StationsListMap.get(bandId);
-
-                /*
-                 * search for the nearest stations that have values.
-                 */
-                List<Integer> stationsToUse = extractStationsToUse(basinBaricenterCoordinate,
-                        stationIdsForBand, stationId2CoordinateMap, statValues,
-                        stationid2StationindexMap);
-                if (stationsToUse.size() < stationNum) {
-                    err.println("Found only " + stationsToUse.size() + " for basin "
-                            + basinindex2basinidMap.get(i) + " and bandid " + bandId + ".");
-                }
+        bandIds = new int[bandsIdSet.size()];
+        bandStations = new int[bandIds.length][];
+        int b = 0;
+        for( Integer bandId : bandsIdSet ) {
+            bandIds[b] = bandId;
+            List<Integer> stationIdsForBand = bin2StationsListMap.get(bandId);
+            bandStations[b] = new int[stationIdsForBand.size()];
+            for( int j = 0; j < bandStations[b].length; j++ ) {
+                bandStations[b][j] = stationid2StationindexMap.get(stationIdsForBand.get(j));
+            }
+            b++;
+        }
 
-                /*
-                 * now we have the list of stations to use. With this list we
-                 * need to enable (1) the proper matrix positions inside the
-                 * stations-basins matrix.
-                 */
-                // i is the column (basin) index
-                // the station id index can be taken from the idStationIndexMap
-                for( Integer stationIdToEnable : stationsToUse ) {
-                    int stIndex = stationid2StationindexMap.get(stationIdToEnable);
-                    stationsBasins[stIndex][i] = 1;
+        bandStationsByDistance = new int[basinsNum][bandIds.length][];
+        bandStationsDistances = new double[basinsNum][bandIds.length][];
+        for( int i = 0; i < basinsNum; i++ ) {
+            Coordinate basinBaricenterCoordinate = basinBaricenterCoordinates.get(i);
+            for( b = 0; b < bandIds.length; b++ ) {
+                int[] stations = bandStations[b].clone();
+                double[] distances = new double[stations.length];
+                for( int j = 0; j < stations.length; j++ ) {
+                    Coordinate stationCoord = stationId2CoordinateMap.get((int) statId[stations[j]]);
+                    distances[j] = basinBaricenterCoordinate.distance(stationCoord);
                 }
-                activeStationsForThisBasin = activeStationsForThisBasin + stationsToUse.size();
+                StationSelector.sortByDistance(stations, distances);
+                bandStationsByDistance[i][b] = stations;
+                bandStationsDistances[i][b] = distances;
             }
-
-            activeStationsPerBasin[i] = activeStationsForThisBasin;
         }
 
-        return stationsBasins;
+        statValues = new double[stationCoordinates.size()];
+        stationsPerBasin = new int[basinsNum][];
+        interpolatedValues = new double[basinsNum * (bandsBasins.length + 1)];
+        isInterpolated = new boolean[basinsNum];
     }
+
     /**
-     * @param basinBaricenterCoordinate the basin baricenter coordinate used to 
-     *                      Calculate distances with stations.
-     * @param stationIdsToSearch the list of stations.
-     * @param stationId2CoordinateMap
-     * @param statValues the array of data to consider. Used to identify stations
-     *                      that have no data for an instant.
-     * @param idStationIndexMap
-     * @return the list of needed nearest stations.
+     * Reads the values of the current time step into {@link #statValues}, ordered as the stations.
+     * 
+     * <p>
+     * The position of the station ids in the values is kept, so that the station of a value
+     * has to be looked up only if the ids change.
+     * </p>
+     * 
+     * @param valuesValueSet the values, as pairs of station id and value after the header.
      */
-    private List<Integer> extractStationsToUse( Coordinate basinBaricenterCoordinate,
-            List<Integer> stationIdsToSearch, HashMap<Integer, Coordinate> stationId2CoordinateMap,
-            double[] statValues, HashMap<Integer, Integer> idStationIndexMap ) {
-
-        List<Integer> stationsToUse = new ArrayList<Integer>();
-        List<Integer> stationsLeftOver = new ArrayList<Integer>();
-        Map<Double, Integer> sortedByDistanceStationsMap = new TreeMap<Double, Integer>();
-        for( Integer stId : stationIdsToSearch ) {
-            /*
-             * check the values of the stations. If there are novalues and there
-             * are enough stations left, disable them
-             */
-            double currentValue = statValues[stationid2StationindexMap.get(stId)];
-            if (isNovalue(currentValue)) {
-                // if the station has a novalue, jump over it, even without
-                // adding the station.
-                // out.println("Jump over station: " + stId);
-                stationsLeftOver.add(stId);
-                continue;
+    private void readStationValues( ScalarSet valuesValueSet ) {
+        Arrays.fill(statValues, JGrassConstants.doubleNovalue);
+        int valuesNum = (valuesValueSet.getCount() - 1) / 2;
+        boolean isNewLayout = valueStationIds == null || valueStationIds.length != valuesNum;
+        if (isNewLayout) {
+            valueStationIds = new int[valuesNum];
+            valueStationIndexes = new int[valuesNum];
+        }
+        for( int p = 0; p < valuesNum; p++ ) {
+            int id = (int) valuesValueSet.getScalar(2 * p + 1);
+            if (isNewLayout || valueStationIds[p] != id) {
+                Integer index = stationid2StationindexMap.get(id);
+                valueStationIds[p] = id;
+                valueStationIndexes[p] = index == null ? -1 : index;
+            }
+            int index = valueStationIndexes[p];
+            if (index != -1) {
+                statValues[index] = valuesValueSet.getScalar(2 * p + 2);
             }
+        }
+    }
 
-            /*
-             * if it gets here, the station has a value. 
-             * Put it to the list of stations to be checked 
-             * for which is nearer. 
-             */
-            Coordinate stationCoord = stationId2CoordinateMap.get(stId);
-            double distance = basinBaricenterCoordinate.distance(stationCoord);
-            sortedByDistanceStationsMap.put(distance, stId);
+    /**
+     * Selects the stations used by every basin, if the stations having values are not the same
+     * as in the previous time step.
+     * 
+     * <p>
+     * For every elevation band the nearest {@link #stationNum} stations having values are used.
+     * If there are not enough, some stations without values are added, which count as stations
+     * of the basin but are not used for the interpolation.
+     * </p>
+     */
+    private void updateStationsPerBasin() {
+        boolean changed = stationsWithValues == null;
+        if (changed) {
+            stationsWithValues = new boolean[statValues.length];
         }
-        Collection<Integer> statIds = sortedByDistanceStationsMap.values();
-        Iterator<Integer> iterator = statIds.iterator();
-        for( int i = 0; i < statIds.size(); i++ ) {
-            if (iterator.hasNext() && i < stationNum) {
-                stationsToUse.add(iterator.next());
-            } else if (iterator.hasNext() && i >= stationNum) {
-                stationsLeftOver.add(iterator.next());
-            } else {
-                System.out.println("SHOULD THIS EVER HAPPEN???");
-                break;
+        for( int j = 0; j < statValues.length; j++ ) {
+            boolean hasValue = !isNovalue(statValues[j]);
+            if (hasValue != stationsWithValues[j]) {
+                stationsWithValues[j] = hasValue;
+                changed = true;
             }
         }
+        if (!changed) {
+            return;
+        }
 
-        /*
-         * if not enough stations were collected, add also stations that
-         * don't have values. Those stations are taken in random way, 
-         * since their value won't be considered.  
-         */
-        if (stationsToUse.size() < stationNum) {
-            for( int i = 0; i < stationNum - stationsToUse.size(); i++ ) {
-                stationsToUse.add(stationsLeftOver.get(i));
+        int[] selected = new int[statValues.length];
+        for( int i = 0; i < stationsPerBasin.length; i++ ) {
+            int selectedNum = 0;
+            for( int b = 0; b < bandIds.length; b++ ) {
+                selectedNum = selectStations(i, b, selected, selectedNum);
             }
+            // the stations are used in the order of the station arrays, i.e. of elevation
+            Arrays.sort(selected, 0, selectedNum);
+            int[] basinStations = new int[selectedNum];
+            System.arraycopy(selected, 0, basinStations, 0, selectedNum);
+            stationsPerBasin[i] = basinStations;
         }
+    }
 
-        return stationsToUse;
+    /**
+     * Selects the stations of an elevation band used by a basin.
+     * 
+     * @param i the index of the basin.
+     * @param b the index of the band.
+     * @param selected the array to add the indexes of the selected stations to.
+     * @param selectedNum the number of stations already in the array.
+     * @return the number of stations in the array after the ones of the band.
+     * @see StationSelector#select(int[], double[], int[], boolean[], int, int[], int)
+     */
+    private int selectStations( int i, int b, int[] selected, int selectedNum ) {
+        int newSelectedNum = StationSelector.select(bandStationsByDistance[i][b],
+                bandStationsDistances[i][b], bandStations[b], stationsWithValues, stationNum,
+                selected, selectedNum);
+        int used = newSelectedNum - selectedNum;
+        if (used < stationNum) {
+            err.println("Found only " + used + " for basin " + basinIds[i] + " and bandid "
+                    + bandIds[b] + ".");
+        }
+        return newSelectedNum;
     }
 
     /**
@@ -1301,7 +1365,11 @@ public class h_jami extends ModelsBackbone {
         }
     }
 
-    public void finish() {
+    public synchronized void finish() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
     }
 
     public IInputExchangeItem getInputExchangeItem( int inputExchangeItemIndex ) {
@@ -34,6 +34,8 @@ import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -228,12 +230,11 @@ public class h_multitca extends ModelsBackbone {
             if (jgrValueSet != null) {
                 return jgrValueSet;
             }
-            IValueSet flowValueSet = flowLink.getSourceComponent()
-                    .getValues(time, flowLink.getID());
+            IValueSet flowValueSet = LinkValueCache.requestValues(flowLink, time);
             GridCoverage2D flowGC = null;
-            IValueSet pitValueSet = pitLink.getSourceComponent().getValues(time, pitLink.getID());
+            IValueSet pitValueSet = LinkValueCache.requestValues(pitLink, time);
             GridCoverage2D pitGC = null;
-            IValueSet cp9ValueSet = cp3Link.getSourceComponent().getValues(time, cp3Link.getID());
+            IValueSet cp9ValueSet = LinkValueCache.requestValues(cp3Link, time);
             GridCoverage2D cp9GC = null;
 
             if (flowValueSet != null && pitValueSet != null && cp9ValueSet != null) {
@@ -374,7 +375,6 @@ public class h_multitca extends ModelsBackbone {
 
         // create new matrix
         double[] vele = new double[cols * rows];
-        double[] dd = new double[cols * rows];
 
         out.println(Messages.getString("initializematrix"));
 
@@ -395,7 +395,6 @@ public class h_multitca extends ModelsBackbone {
         for( int t = 0; t < rows; t++ ) {
             for( int s = 0; s < cols; s++ ) {
                 vele[((t) * cols) + s] = pitRandomIter.getSampleDouble(s, t, 0);
-                dd[((t) * cols) + s] = ((t) * cols) + s + 1;
             }
         }
 
@@ -403,10 +402,12 @@ public class h_multitca extends ModelsBackbone {
          * sorted the array of elevation.
          */
         out.println(Messages.getString("sortvector"));
+        int[] order;
         try {
-            FluidUtils.sort2DoubleVectors(vele, dd, new PrintStreamProgressMonitor(out));
+            order = FluidUtils.sortIndexes(vele, new PrintStreamProgressMonitor(out));
         } catch (Exception e) {
             e.printStackTrace();
+            return null;
         }
 
         /*
@@ -414,11 +415,11 @@ public class h_multitca extends ModelsBackbone {
          */
         for( int l = cols * rows - 1; l >= 0; l-- ) {
             ncicli = cols * rows - l;
-            if (vele[l] <= 0) {
+            if (vele[order[l]] <= 0) {
                 break;
             } else {
 
-                pos = dd[l];
+                pos = order[l] + 1;
                 // extract the index of the matrix from the arrays index.
                 i = (int) (pos - 1) % cols;
                 j = (int) (pos - 1) / cols;
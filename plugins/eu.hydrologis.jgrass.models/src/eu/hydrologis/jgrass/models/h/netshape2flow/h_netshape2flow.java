@@ -35,6 +35,8 @@ import javax.media.jai.iterator.WritableRandomIter;
 
 import net.refractions.udig.project.ui.ApplicationGIS;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.MessageBox;
@@ -219,7 +221,7 @@ public class h_netshape2flow extends ModelsBackbone {
         if (netImage == null || flowImage == null) {
             if (linkID.equals(flowNetLink.getID()) || linkID.equals(channelNetLink.getID())) {
                 // the output links are calling
-                IValueSet netShapeValueSet = netShapeLink.getSourceComponent().getValues(time, netShapeLink.getID());
+                IValueSet netShapeValueSet = LinkValueCache.requestValues(netShapeLink, time);
                 FeatureCollection<SimpleFeatureType, SimpleFeature> fcNet = ((JGrassFeatureValueSet) netShapeValueSet)
                         .getFeatureCollection();
                 /*
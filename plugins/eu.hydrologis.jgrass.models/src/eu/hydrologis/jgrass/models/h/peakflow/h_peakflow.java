@@ -12,6 +12,7 @@ import java.util.Locale;
 import java.util.Map;
 
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
@@ -255,8 +256,7 @@ public class h_peakflow extends ModelsBackbone {
 
         if (widthFunctionSuperficial == null) {
             if (widthSupLink != null) {
-                amplitudeSuperficialValueSet = widthSupLink.getSourceComponent().getValues(time,
-                        widthSupLink.getID());
+                amplitudeSuperficialValueSet = LinkValueCache.requestValues(widthSupLink, time);
                 if (amplitudeSuperficialValueSet != null
                         && amplitudeSuperficialValueSet instanceof ScalarSet) {
                     setSuperficialAmplitude();
@@ -268,8 +268,7 @@ public class h_peakflow extends ModelsBackbone {
                         this);
             }
             if (widthSubLink != null) {
-                amplitudeSubSuperficialValueSet = widthSubLink.getSourceComponent().getValues(time,
-                        widthSubLink.getID());
+                amplitudeSubSuperficialValueSet = LinkValueCache.requestValues(widthSubLink, time);
                 if (amplitudeSubSuperficialValueSet != null
                         && amplitudeSubSuperficialValueSet instanceof ScalarSet) {
                     setSubSuperficialAmplitude();
@@ -277,7 +276,7 @@ public class h_peakflow extends ModelsBackbone {
             }
             // TODO timedependent
             if (cnLink != null)
-                cnValueSet = cnLink.getSourceComponent().getValues(time, cnLink.getID());
+                cnValueSet = LinkValueCache.requestValues(cnLink, time);
 
             // check the case
             if (a != -1 && n != -1 && amplitudeSuperficialValueSet != null && channelCelerity != -1
@@ -16,6 +16,8 @@ import java.util.StringTokenizer;
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureCollections;
@@ -207,8 +209,7 @@ public class h_pfafstetter extends ModelsBackbone {
     public IValueSet safeGetValues( ITime time, String linkID ) throws Exception {
         if (linkID.equals(netShapeOutLink.getID())) {
             if (netnumberData == null) {
-                IValueSet flowValueSet = flowLink.getSourceComponent().getValues(time,
-                        flowLink.getID());
+                IValueSet flowValueSet = LinkValueCache.requestValues(flowLink, time);
                 flowData = ((JGrassGridCoverageValueSet) flowValueSet).getGridCoverage2D();
                 RenderedImage flowImage = flowData.getRenderedImage();
                 flowRows = flowImage.getHeight();
@@ -217,36 +218,31 @@ public class h_pfafstetter extends ModelsBackbone {
                 FluidUtils.setJAInoValueBorderIT(flowWritableRaster);
                 flowIterator = RandomIterFactory.createWritable(flowWritableRaster, null);
 
-                IValueSet hacksValueSet = hacksLink.getSourceComponent().getValues(time,
-                        hacksLink.getID());
+                IValueSet hacksValueSet = LinkValueCache.requestValues(hacksLink, time);
                 hacksData = ((JGrassGridCoverageValueSet) hacksValueSet).getGridCoverage2D();
                 RenderedImage hacksImage = hacksData.getRenderedImage();
                 hacksIterator = RandomIterFactory.create(hacksImage, null);
 
-                IValueSet pitValueSet = pitLink.getSourceComponent().getValues(time,
-                        pitLink.getID());
+                IValueSet pitValueSet = LinkValueCache.requestValues(pitLink, time);
                 pitData = ((JGrassGridCoverageValueSet) pitValueSet).getGridCoverage2D();
                 RenderedImage pitImage = pitData.getRenderedImage();
                 pitIterator = RandomIterFactory.create(pitImage, null);
 
-                IValueSet netnumberValueSet = netnumberLink.getSourceComponent().getValues(time,
-                        netnumberLink.getID());
+                IValueSet netnumberValueSet = LinkValueCache.requestValues(netnumberLink, time);
                 netnumberData = ((JGrassGridCoverageValueSet) netnumberValueSet)
                         .getGridCoverage2D();
                 RenderedImage netnumberImage = netnumberData.getRenderedImage();
                 netnumberIterator = RandomIterFactory.create(netnumberImage, null);
 
                 if (channelLink != null) {
-                    IValueSet channelValueSet = channelLink.getSourceComponent().getValues(time,
-                            channelLink.getID());
+                    IValueSet channelValueSet = LinkValueCache.requestValues(channelLink, time);
                     channelData = ((JGrassGridCoverageValueSet) channelValueSet)
                             .getGridCoverage2D();
                     RenderedImage channelImage = channelData.getRenderedImage();
                     channelIterator = RandomIterFactory.create(channelImage, null);
 
                     HashMap<String, Object> geomMap = null;
-                    IValueSet netShapeValueSet = netShapeLink.getSourceComponent().getValues(time,
-                            netShapeLink.getID());
+                    IValueSet netShapeValueSet = LinkValueCache.requestValues(netShapeLink, time);
                     FeatureCollection<SimpleFeatureType, SimpleFeature> fcNet = ((JGrassFeatureValueSet) netShapeValueSet)
                             .getFeatureCollection();
                     List<String> key = new ArrayList<String>();
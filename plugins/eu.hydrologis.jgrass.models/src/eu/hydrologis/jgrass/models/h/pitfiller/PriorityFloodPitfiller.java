@@ -0,0 +1,601 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.jgrass.models.h.pitfiller;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+import jaitools.tiledimage.DiskMemImage;
+
+import java.awt.Rectangle;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import eu.hydrologis.jgrass.libs.map.FlatRasterData;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+import eu.hydrologis.libs.utils.DoubleIntMinHeap;
+
+/**
+ * Priority-flood depression filling.
+ * <p>
+ * The cells on the border of the map and the ones near novalues are the outlets: they are put in
+ * a priority queue ordered by elevation and the map is then flooded from the lowest one inwards.
+ * Every cell reached from a higher one is part of a depression and is raised to the elevation of
+ * the cell it was reached from (Barnes, Lehman, Mulla, 2014, Priority-Flood: An Optimal
+ * Depression-Filling and Watershed-Labeling Algorithm for Digital Elevation Models).
+ * </p>
+ * <p>
+ * In the plain variant the depressions become flat areas, as with the TARDEM pitfiller. In the
+ * epsilon variant every raised cell is set to the next representable value above the cell it was
+ * reached from, so that the filled depressions still have a drainage direction.
+ * </p>
+ * <p>
+ * The DEM can also be filled tile by tile, with only a tile in memory at a time, for maps that
+ * don't fit the heap (Barnes, 2016, Parallel Priority-Flood Depression Filling for Trillion Cell
+ * Digital Elevation Models). Every tile is flooded from its own border, labelling the watershed
+ * of every border cell, the spill elevations between the watersheds are then flooded from the
+ * outlets of the whole map, and the cells of every tile are finally raised to the spill
+ * elevation of their watershed. The tiled filling supports only the plain variant.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class PriorityFloodPitfiller {
+
+    private static final int[] DROW = {0, -1, -1, -1, 0, 1, 1, 1};
+
+    private static final int[] DCOL = {1, 1, 0, -1, -1, -1, 0, 1};
+
+    /**
+     * The label of the cells draining outside of the map.
+     */
+    private static final int OUTLET_LABEL = 1;
+
+    private final boolean useEpsilon;
+
+    /**
+     * @param useEpsilon if true, the filled depressions are given a minimal slope instead of being
+     *        flat.
+     */
+    public PriorityFloodPitfiller( boolean useEpsilon ) {
+        this.useEpsilon = useEpsilon;
+    }
+
+    /**
+     * Fills the depressions of a DEM held in memory.
+     *
+     * @param dem the elevations in row major order, with novalues as NaN. The array is filled in
+     *        place.
+     * @param cols the number of columns.
+     * @param rows the number of rows.
+     */
+    public void fill( double[] dem, int cols, int rows ) {
+        flood(null, dem, cols, rows);
+    }
+
+    /**
+     * Fills the depressions of a DEM without changing it.
+     * <p>
+     * The elevations are read from the DEM, which can be the view shared between linked models,
+     * and are copied only when the first cell has to be raised.
+     * </p>
+     *
+     * @param dem the elevations, with novalues as NaN.
+     * @return the filled elevations in row major order or <code>null</code> if the DEM has no
+     *         depressions.
+     */
+    public double[] fill( FlatRasterData dem ) {
+        return flood(dem, null, dem.getCols(), dem.getRows());
+    }
+
+    /**
+     * Floods the DEM from the outlets.
+     *
+     * @param source the elevations to read until a cell is raised or <code>null</code>.
+     * @param dem the elevations to fill in place or <code>null</code> to copy the source at the
+     *        first raised cell.
+     * @return the filled elevations, <code>null</code> if none was raised in the source.
+     */
+    private double[] flood( FlatRasterData source, double[] dem, int cols, int rows ) {
+        int size = cols * rows;
+        long[] closed = new long[(size + 63) >>> 6];
+        DoubleIntMinHeap open = new DoubleIntMinHeap(2 * (cols + rows));
+        IntQueue pit = new IntQueue(cols + rows);
+
+        for( int r = 0, index = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++, index++ ) {
+                double value = valueAt(source, dem, index);
+                if (isNovalue(value)) {
+                    setBit(closed, index);
+                } else if (isOutlet(source, dem, cols, rows, r, c)) {
+                    setBit(closed, index);
+                    open.push(value, index);
+                }
+            }
+        }
+
+        while( !open.isEmpty() || !pit.isEmpty() ) {
+            int index;
+            if (pit.isEmpty()
+                    || (!open.isEmpty() && open.peekKey() == valueAt(source, dem, pit.peek()))) {
+                index = open.pop();
+            } else {
+                index = pit.poll();
+            }
+            double elevation = valueAt(source, dem, index);
+            int r = index / cols;
+            int c = index % cols;
+            for( int k = 0; k < 8; k++ ) {
+                int nr = r + DROW[k];
+                int nc = c + DCOL[k];
+                if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) {
+                    continue;
+                }
+                int neighbour = nr * cols + nc;
+                if (getBit(closed, neighbour)) {
+                    continue;
+                }
+                setBit(closed, neighbour);
+                double neighbourElevation = valueAt(source, dem, neighbour);
+                if (neighbourElevation <= elevation) {
+                    if (dem == null) {
+                        dem = copy(source);
+                    }
+                    dem[neighbour] = useEpsilon ? Math.nextUp(elevation) : elevation;
+                    pit.push(neighbour);
+                } else {
+                    open.push(neighbourElevation, neighbour);
+                }
+            }
+        }
+        return dem;
+    }
+
+    private static double valueAt( FlatRasterData source, double[] dem, int index ) {
+        if (dem != null) {
+            return dem[index];
+        }
+        return source.getValueAt(index);
+    }
+
+    private static double[] copy( FlatRasterData source ) {
+        int cols = source.getCols();
+        double[] dem = new double[cols * source.getRows()];
+        double[] row = new double[cols];
+        for( int r = 0; r < source.getRows(); r++ ) {
+            source.getRow(r, row);
+            System.arraycopy(row, 0, dem, r * cols, cols);
+        }
+        return dem;
+    }
+
+    /**
+     * @return true if the cell is on the border of the map or near a novalue.
+     */
+    private static boolean isOutlet( FlatRasterData source, double[] dem, int cols, int rows,
+            int r, int c ) {
+        if (r == 0 || c == 0 || r == rows - 1 || c == cols - 1) {
+            return true;
+        }
+        for( int k = 0; k < 8; k++ ) {
+            if (isNovalue(valueAt(source, dem, (r + DROW[k]) * cols + c + DCOL[k]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Fills the depressions of a DEM tile by tile.
+     * <p>
+     * The result and the watershed labels are kept in disk backed images, so that only a tile of
+     * the DEM has to be in memory at a time. The result is the same as the plain {@link #fill}.
+     * </p>
+     *
+     * @param dem the DEM, with novalues as NaN.
+     * @param tileSize the size of the side of the tiles.
+     * @param pm the progress monitor.
+     * @return the filled DEM.
+     */
+    public DiskMemImage fillTiled( RenderedImage dem, int tileSize, IProgressMonitorJGrass pm ) {
+        if (useEpsilon) {
+            throw new IllegalStateException(
+                    "The tiled pitfiller supports only the plain variant."); //$NON-NLS-1$
+        }
+        int minX = dem.getMinX();
+        int minY = dem.getMinY();
+        int width = dem.getWidth();
+        int height = dem.getHeight();
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+
+        DiskMemImage filled = createTiledImage(width, height, tileSize, DataBuffer.TYPE_DOUBLE);
+        DiskMemImage labels = createTiledImage(width, height, tileSize, DataBuffer.TYPE_INT);
+        SpillGraph graph = new SpillGraph();
+
+        pm.beginTask("Filling the depressions by tiles...", 2 * tilesX * tilesY + 1); //$NON-NLS-1$
+        for( int ty = 0; ty < tilesY; ty++ ) {
+            for( int tx = 0; tx < tilesX; tx++ ) {
+                Rectangle tile = new Rectangle(tx * tileSize, ty * tileSize, Math.min(tileSize,
+                        width - tx * tileSize), Math.min(tileSize, height - ty * tileSize));
+                floodTile(dem, minX, minY, width, height, tile, filled, labels, graph, tx, ty);
+                pm.worked(1);
+            }
+        }
+
+        // connect the watersheds across the borders of the tiles
+        for( int ty = 1; ty < tilesY; ty++ ) {
+            connectAcrossRow(filled, labels, graph, ty * tileSize, width);
+        }
+        for( int tx = 1; tx < tilesX; tx++ ) {
+            connectAcrossColumn(filled, labels, graph, tx * tileSize, height);
+        }
+        double[] spill = graph.solve();
+        pm.worked(1);
+
+        for( int ty = 0; ty < tilesY; ty++ ) {
+            for( int tx = 0; tx < tilesX; tx++ ) {
+                WritableRaster filledTile = filled.getWritableTile(tx, ty);
+                Raster labelTile = labels.getTile(tx, ty);
+                int x0 = filledTile.getMinX();
+                int y0 = filledTile.getMinY();
+                int tileWidth = Math.min(tileSize, width - x0);
+                int tileHeight = Math.min(tileSize, height - y0);
+                for( int y = y0; y < y0 + tileHeight; y++ ) {
+                    for( int x = x0; x < x0 + tileWidth; x++ ) {
+                        double value = filledTile.getSampleDouble(x, y, 0);
+                        double spillElevation = spill[labelTile.getSample(x, y, 0)];
+                        if (!isNovalue(value) && spillElevation > value
+                                && !Double.isInfinite(spillElevation)) {
+                            filledTile.setSample(x, y, 0, spillElevation);
+                        }
+                    }
+                }
+                filled.releaseWritableTile(tx, ty);
+                pm.worked(1);
+            }
+        }
+        pm.done();
+        return filled;
+    }
+
+    private static DiskMemImage createTiledImage( int width, int height, int tileSize,
+            int dataType ) {
+        SampleModel sampleModel = new ComponentSampleModel(dataType, tileSize, tileSize, 1,
+                tileSize, new int[]{0});
+        return new DiskMemImage(0, 0, width, height, 0, 0, sampleModel, null);
+    }
+
+    /**
+     * Floods a tile from its border, labelling the watershed of every border cell and storing the
+     * spill elevations between the watersheds in the graph.
+     */
+    private void floodTile( RenderedImage dem, int minX, int minY, int width, int height,
+            Rectangle tile, DiskMemImage filled, DiskMemImage labels, SpillGraph graph, int tx,
+            int ty ) {
+        // read the tile with a border of one cell, to know the novalues around it
+        Rectangle halo = new Rectangle(tile.x - 1, tile.y - 1, tile.width + 2, tile.height + 2)
+                .intersection(new Rectangle(0, 0, width, height));
+        Raster haloRaster = dem.getData(new Rectangle(halo.x + minX, halo.y + minY, halo.width,
+                halo.height));
+
+        int cols = tile.width;
+        int rows = tile.height;
+        double[] elevations = new double[cols * rows];
+        haloRaster.getSamples(tile.x + minX, tile.y + minY, cols, rows, 0, elevations);
+        int[] label = new int[cols * rows];
+        long[] closed = new long[(cols * rows + 63) >>> 6];
+        DoubleIntMinHeap open = new DoubleIntMinHeap(2 * (cols + rows));
+        IntQueue pit = new IntQueue(cols + rows);
+
+        for( int r = 0, index = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++, index++ ) {
+                if (isNovalue(elevations[index])) {
+                    setBit(closed, index);
+                    continue;
+                }
+                int x = tile.x + c;
+                int y = tile.y + r;
+                boolean onTileBorder = r == 0 || c == 0 || r == rows - 1 || c == cols - 1;
+                boolean isOutlet = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+                if (!isOutlet && (onTileBorder || hasNovalueNeighbour(elevations, cols, r, c))) {
+                    for( int k = 0; k < 8 && !isOutlet; k++ ) {
+                        isOutlet = isNovalue(haloRaster.getSampleDouble(x + DCOL[k] + minX, y
+                                + DROW[k] + minY, 0));
+                    }
+                }
+                if (isOutlet) {
+                    label[index] = OUTLET_LABEL;
+                }
+                if (isOutlet || onTileBorder) {
+                    setBit(closed, index);
+                    open.push(elevations[index], index);
+                }
+            }
+        }
+
+        Map<Long, Integer> tileEdges = new HashMap<Long, Integer>();
+        while( !open.isEmpty() || !pit.isEmpty() ) {
+            int index;
+            if (pit.isEmpty() || (!open.isEmpty() && open.peekKey() == elevations[pit.peek()])) {
+                index = open.pop();
+            } else {
+                index = pit.poll();
+            }
+            if (label[index] == 0) {
+                // a border cell not yet reached by any watershed starts a new one
+                label[index] = graph.newLabel();
+            }
+            double elevation = elevations[index];
+            int r = index / cols;
+            int c = index % cols;
+            for( int k = 0; k < 8; k++ ) {
+                int nr = r + DROW[k];
+                int nc = c + DCOL[k];
+                if (nr < 0 || nr >= rows || nc < 0 || nc >= cols) {
+                    continue;
+                }
+                int neighbour = nr * cols + nc;
+                if (getBit(closed, neighbour)) {
+                    int neighbourLabel = label[neighbour];
+                    if (neighbourLabel != 0 && neighbourLabel != label[index]) {
+                        graph.addEdge(label[index], neighbourLabel, Math.max(elevation,
+                                elevations[neighbour]), tileEdges);
+                    }
+                    continue;
+                }
+                setBit(closed, neighbour);
+                label[neighbour] = label[index];
+                if (elevations[neighbour] <= elevation) {
+                    elevations[neighbour] = elevation;
+                    pit.push(neighbour);
+                } else {
+                    open.push(elevations[neighbour], neighbour);
+                }
+            }
+        }
+
+        WritableRaster filledTile = filled.getWritableTile(tx, ty);
+        filledTile.setSamples(tile.x, tile.y, cols, rows, 0, elevations);
+        filled.releaseWritableTile(tx, ty);
+        WritableRaster labelTile = labels.getWritableTile(tx, ty);
+        labelTile.setSamples(tile.x, tile.y, cols, rows, 0, label);
+        labels.releaseWritableTile(tx, ty);
+    }
+
+    private static boolean hasNovalueNeighbour( double[] elevations, int cols, int r, int c ) {
+        for( int k = 0; k < 8; k++ ) {
+            if (isNovalue(elevations[(r + DROW[k]) * cols + c + DCOL[k]])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Connects the watersheds of the cells above and below the first row of a row of tiles.
+     */
+    private static void connectAcrossRow( DiskMemImage filled, DiskMemImage labels,
+            SpillGraph graph, int y, int width ) {
+        Rectangle strip = new Rectangle(0, y - 1, width, 2);
+        double[] elevations = filled.getData(strip).getSamples(0, y - 1, width, 2, 0,
+                (double[]) null);
+        int[] label = labels.getData(strip).getSamples(0, y - 1, width, 2, 0, (int[]) null);
+        for( int x = 0; x < width; x++ ) {
+            for( int dx = -1; dx <= 1; dx++ ) {
+                int other = x + dx;
+                if (other >= 0 && other < width) {
+                    connect(graph, elevations, label, x, width + other);
+                }
+            }
+        }
+    }
+
+    /**
+     * Connects the watersheds of the cells left and right of the first column of a column of
+     * tiles.
+     */
+    private static void connectAcrossColumn( DiskMemImage filled, DiskMemImage labels,
+            SpillGraph graph, int x, int height ) {
+        Rectangle strip = new Rectangle(x - 1, 0, 2, height);
+        double[] elevations = filled.getData(strip).getSamples(x - 1, 0, 2, height, 0,
+                (double[]) null);
+        int[] label = labels.getData(strip).getSamples(x - 1, 0, 2, height, 0, (int[]) null);
+        for( int y = 0; y < height; y++ ) {
+            for( int dy = -1; dy <= 1; dy++ ) {
+                int other = y + dy;
+                if (other >= 0 && other < height) {
+                    connect(graph, elevations, label, 2 * y, 2 * other + 1);
+                }
+            }
+        }
+    }
+
+    private static void connect( SpillGraph graph, double[] elevations, int[] label, int a, int b ) {
+        if (isNovalue(elevations[a]) || isNovalue(elevations[b]) || label[a] == label[b]) {
+            return;
+        }
+        graph.addEdge(label[a], label[b], Math.max(elevations[a], elevations[b]), null);
+    }
+
+    /**
+     * The graph of the watersheds, with the lowest spill elevation between every couple.
+     */
+    private static class SpillGraph {
+        private int labelsCount = OUTLET_LABEL + 1;
+
+        private int edgesCount = 0;
+
+        private int[] from = new int[1024];
+
+        private int[] to = new int[1024];
+
+        private double[] elevation = new double[1024];
+
+        int newLabel() {
+            return labelsCount++;
+        }
+
+        /**
+         * Adds an edge, keeping only the lowest one between two watersheds if the map of the
+         * edges already added is supplied.
+         */
+        void addEdge( int a, int b, double spillElevation, Map<Long, Integer> edges ) {
+            if (edges != null) {
+                long key = ((long) Math.min(a, b) << 32) | Math.max(a, b);
+                Integer existing = edges.get(key);
+                if (existing != null) {
+                    if (spillElevation < elevation[existing]) {
+                        elevation[existing] = spillElevation;
+                    }
+                    return;
+                }
+                edges.put(key, edgesCount);
+            }
+            if (edgesCount == from.length) {
+                int newCapacity = from.length * 2;
+                int[] newFrom = new int[newCapacity];
+                int[] newTo = new int[newCapacity];
+                double[] newElevation = new double[newCapacity];
+                System.arraycopy(from, 0, newFrom, 0, edgesCount);
+                System.arraycopy(to, 0, newTo, 0, edgesCount);
+                System.arraycopy(elevation, 0, newElevation, 0, edgesCount);
+                from = newFrom;
+                to = newTo;
+                elevation = newElevation;
+            }
+            from[edgesCount] = a;
+            to[edgesCount] = b;
+            elevation[edgesCount] = spillElevation;
+            edgesCount++;
+        }
+
+        /**
+         * Floods the graph from the outlets.
+         *
+         * @return the elevation every watershed has to be raised to, indexed by label.
+         */
+        double[] solve() {
+            // adjacency in compressed rows
+            int[] start = new int[labelsCount + 1];
+            for( int i = 0; i < edgesCount; i++ ) {
+                start[from[i] + 1]++;
+                start[to[i] + 1]++;
+            }
+            for( int i = 0; i < labelsCount; i++ ) {
+                start[i + 1] += start[i];
+            }
+            int[] position = new int[labelsCount];
+            System.arraycopy(start, 0, position, 0, labelsCount);
+            int[] adjacent = new int[2 * edgesCount];
+            double[] adjacentElevation = new double[2 * edgesCount];
+            for( int i = 0; i < edgesCount; i++ ) {
+                adjacent[position[from[i]]] = to[i];
+                adjacentElevation[position[from[i]]++] = elevation[i];
+                adjacent[position[to[i]]] = from[i];
+                adjacentElevation[position[to[i]]++] = elevation[i];
+            }
+
+            double[] spill = new double[labelsCount];
+            Arrays.fill(spill, Double.POSITIVE_INFINITY);
+            spill[0] = Double.NEGATIVE_INFINITY;
+            spill[OUTLET_LABEL] = Double.NEGATIVE_INFINITY;
+            boolean[] done = new boolean[labelsCount];
+            DoubleIntMinHeap open = new DoubleIntMinHeap(labelsCount);
+            open.push(spill[OUTLET_LABEL], OUTLET_LABEL);
+            while( !open.isEmpty() ) {
+                int label = open.pop();
+                if (done[label]) {
+                    continue;
+                }
+                done[label] = true;
+                for( int i = start[label]; i < start[label + 1]; i++ ) {
+                    int next = adjacent[i];
+                    double nextSpill = Math.max(spill[label], adjacentElevation[i]);
+                    if (nextSpill < spill[next]) {
+                        spill[next] = nextSpill;
+                        open.push(nextSpill, next);
+                    }
+                }
+            }
+            return spill;
+        }
+    }
+
+    /**
+     * A growable first in first out queue of int values.
+     */
+    private static class IntQueue {
+        private int[] values;
+
+        private int head = 0;
+
+        private int size = 0;
+
+        IntQueue( int initialCapacity ) {
+            values = new int[Math.max(initialCapacity, 16)];
+        }
+
+        void push( int value ) {
+            if (size == values.length) {
+                int[] newValues = new int[values.length * 2];
+                for( int i = 0; i < size; i++ ) {
+                    newValues[i] = values[(head + i) % values.length];
+                }
+                values = newValues;
+                head = 0;
+            }
+            values[(head + size) % values.length] = value;
+            size++;
+        }
+
+        int peek() {
+            return values[head];
+        }
+
+        int poll() {
+            int value = values[head];
+            head = (head + 1) % values.length;
+            size--;
+            return value;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    private static void setBit( long[] bits, int index ) {
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private static boolean getBit( long[] bits, int index ) {
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+}
@@ -17,6 +17,8 @@
  */
 package eu.hydrologis.jgrass.models.h.pitfiller;
 
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.PrintStream;
 
@@ -25,6 +27,7 @@ import javax.media.jai.iterator.WritableRandomIter;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.jgrasstools.gears.libs.monitor.PrintStreamProgressMonitor;
 import org.jgrasstools.hortonmachine.modules.demmanipulation.pitfiller.Pitfiller;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
@@ -32,13 +35,16 @@ import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
+import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
 /**
  * <p>
@@ -47,6 +53,12 @@ import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
  * <p>
  * Translated to java and adapted to be opemi based.
  * </p>
+ * <p>
+ * With <code>--mode 1</code> or <code>--mode 2</code> the depressions are filled by the
+ * {@link PriorityFloodPitfiller} instead, plain or with the epsilon slope. With
+ * <code>--tilesize</code> the plain priority-flood works tile by tile, for DEMs that don't fit in
+ * memory.
+ * </p>
  * 
  * @author David Tarboton - http://www.neng.usu.edu/cee/faculty/dtarb/tardem.html#programs
  * @author Andrea Antonello - www.hydrologis.com
@@ -82,6 +94,28 @@ public class h_pitfiller extends ModelsBackbone {
     private String locationPath;
     WritableRandomIter fileRandomIter = null;
 
+    /**
+     * The TARDEM pitfiller.
+     */
+    static final int MODE_TARDEM = 0;
+
+    /**
+     * The plain priority-flood, filling the depressions with flat areas.
+     */
+    static final int MODE_FLOOD = 1;
+
+    /**
+     * The priority-flood leaving a minimal slope in the filled depressions.
+     */
+    static final int MODE_FLOOD_EPSILON = 2;
+
+    private int mode = MODE_TARDEM;
+
+    /**
+     * The size of the tiles of the tiled priority-flood, 0 to work in memory.
+     */
+    private int tileSize = 0;
+
     public h_pitfiller() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -111,8 +145,21 @@ public class h_pitfiller extends ModelsBackbone {
                 if (key.compareTo(ModelsConstants.MAPSET) == 0) {
                     mapset = argument.getValue();
                 }
+                if (key.compareTo("mode") == 0) {
+                    mode = Integer.parseInt(argument.getValue());
+                }
+                if (key.compareTo("tilesize") == 0) {
+                    tileSize = Integer.parseInt(argument.getValue());
+                }
             }
         }
+        if (mode < MODE_TARDEM || mode > MODE_FLOOD_EPSILON) {
+            throw new ModelsIllegalargumentException("The mode has to be 0, 1 or 2.", this);
+        }
+        if (tileSize > 0 && mode != MODE_FLOOD) {
+            throw new ModelsIllegalargumentException(
+                    "The tiled filling is supported only by the plain priority-flood (mode 1).", this);
+        }
 
         locationPath = grassDb + File.separator + location;
         String activeRegionPath = locationPath + File.separator + mapset + File.separator
@@ -139,6 +186,10 @@ public class h_pitfiller extends ModelsBackbone {
                 return jgrValueSet;
             }
             
+            if (mode != MODE_TARDEM) {
+                jgrValueSet = priorityFlood(time);
+                return jgrValueSet;
+            }
             GridCoverage2D elevData = ModelsConstants.getGridCoverage2DFromLink(elevLink, time, out);
             PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out, err);
             Pitfiller pitfiller = new Pitfiller();
@@ -153,6 +204,42 @@ public class h_pitfiller extends ModelsBackbone {
         return null;
     }
 
+    /**
+     * Fills the depressions with the {@link PriorityFloodPitfiller}.
+     * <p>
+     * The elevations are read from the shared view of the input map and copied only when the first
+     * cell is raised, the copy is filled in place and then becomes the buffer of the output map,
+     * which the following models can read without copying it again. A map without depressions is
+     * passed on as it is.
+     * </p>
+     * 
+     * @param time the time for which to read the elevations.
+     * @return the value set of the filled elevations.
+     * @throws Exception
+     */
+    private JGrassGridCoverageValueSet priorityFlood( ITime time ) throws Exception {
+        CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
+        PriorityFloodPitfiller pitfiller = new PriorityFloodPitfiller(mode == MODE_FLOOD_EPSILON);
+        if (tileSize > 0) {
+            GridCoverage2D elevData = ModelsConstants.getGridCoverage2DFromLink(elevLink, time, out);
+            RenderedImage pitImage = pitfiller.fillTiled(elevData.getRenderedImage(), tileSize,
+                    new eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor(out));
+            return new JGrassGridCoverageValueSet(pitImage, activeRegion, crs);
+        }
+
+        DoubleRasterData elevData = ModelsConstants.getSharedRasterDataFromLink(elevLink, time, out);
+        out.println("Filling the depressions...");
+        double[] dem = pitfiller.fill(elevData);
+        if (dem == null) {
+            // no depressions, the input map is already filled
+            return new JGrassGridCoverageValueSet(ModelsConstants.getGridCoverage2DFromLink(
+                    elevLink, time, out));
+        }
+        WritableRaster pitRaster = FluidUtils.createDoubleWritableRaster(elevData.getCols(),
+                elevData.getRows(), dem);
+        return new JGrassGridCoverageValueSet(pitRaster, activeRegion, crs);
+    }
+
     public void addLink( ILink link ) {
         String id = link.getID();
 
@@ -26,6 +26,7 @@ import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.feature.FeatureCollection;
@@ -159,8 +160,7 @@ public class h_profile extends ModelsBackbone {
     public IValueSet safeGetValues( ITime time, String linkID ) throws Exception {
         if (linkID.equals(profileLink.getID())) {
             if (featureLink != null) {
-                IValueSet featValueSet = featureLink.getSourceComponent().getValues(time,
-                        featureLink.getID());
+                IValueSet featValueSet = LinkValueCache.requestValues(featureLink, time);
                 FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = ((JGrassFeatureValueSet) featValueSet)
                         .getFeatureCollection();
                 // take just the first feature, we do not do them all
@@ -185,7 +185,7 @@ public class h_profile extends ModelsBackbone {
                         "We need at least two coordinates to create a profile. Check your syntax.", this);
             }
 
-            IValueSet mapValueSet = mapLink.getSourceComponent().getValues(time, mapLink.getID());
+            IValueSet mapValueSet = LinkValueCache.requestValues(mapLink, time);
             GridCoverage2D mapData = ((JGrassGridCoverageValueSet) mapValueSet).getGridCoverage2D();
             if (mapData != null) {
                 RandomIter mapIterator = RandomIterFactory.create(mapData.getRenderedImage(), null);
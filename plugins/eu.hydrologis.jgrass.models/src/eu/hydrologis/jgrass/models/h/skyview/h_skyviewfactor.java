@@ -18,6 +18,7 @@
 package eu.hydrologis.jgrass.models.h.skyview;
 
 import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+import static java.lang.Math.atan2;
 import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 import static java.lang.Math.toRadians;
@@ -34,6 +35,8 @@ import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -48,10 +51,13 @@ import com.sun.media.jai.codecimpl.util.RasterFactory;
 
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
 import eu.hydrologis.libs.messages.Messages;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.HorizonAngles;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
@@ -105,6 +111,13 @@ public class h_skyviewfactor extends ModelsBackbone {
 
     private final static double PI = Math.PI;
 
+    /**
+     * The step between the azimuths the horizon is calculated for, in degrees.
+     */
+    private static final int AZIMUTH_STEP = 10;
+
+    private int threads = 1;
+
     public h_skyviewfactor() {
         super();
         err = FluidUtils.newPrintStream(null, System.err);
@@ -190,7 +203,7 @@ public class h_skyviewfactor extends ModelsBackbone {
             if (jgrValueSet != null) {
                 return jgrValueSet;
             }
-            IValueSet tcaValueSet = pitLink.getSourceComponent().getValues(time, pitLink.getID());
+            IValueSet tcaValueSet = LinkValueCache.requestValues(pitLink, time);
             GridCoverage2D pitGC = null;
             if (tcaValueSet != null) {
                 pitGC = ((JGrassGridCoverageValueSet) tcaValueSet).getGridCoverage2D();
@@ -207,20 +220,25 @@ public class h_skyviewfactor extends ModelsBackbone {
 
             int height = pitImageTmp.getHeight();
             int width = pitImageTmp.getWidth();
+            // the elevations keep the novalues of the map, they don't cast shadows
+            double[] elevation = new double[width * height];
             for( int y = 0; y < height; y++ ) {
                 for( int x = 0; x < width; x++ ) {
-                    if (isNovalue(pitImageTmpRI.getSampleDouble(x, y, 0))) {
+                    double z = pitImageTmpRI.getSampleDouble(x, y, 0);
+                    elevation[y * width + x] = z;
+                    if (isNovalue(z)) {
                         pitImage.setSample(x, y, 0, -9999.0);
                     }
                 }
             }
+            pitImageTmpRI.done();
             pitImageTmp = null;
-            WritableRaster skyImage = skyviewfactor(pitImage);
+            WritableRaster skyImage = skyviewfactor(pitImage, elevation);
             WritableRandomIter skyRI = RandomIterFactory.createWritable(skyImage, null);
 
             for( int y = 2; y < height - 2; y++ ) {
                 for( int x = 2; x < width - 2; x++ ) {
-                    if (pitImage.getSampleDouble(x, y, 0) == -9999.0) {
+                    if (isNovalue(elevation[y * width + x])) {
                         skyRI.setSample(x, y, 0, NaN);
                     }
                 }
@@ -276,6 +294,9 @@ public class h_skyviewfactor extends ModelsBackbone {
                 if (key.compareTo(ModelsConstants.DOTILE) == 0) {
                     doTile = Boolean.getBoolean(argument.getValue());
                 }
+                if (key.compareTo(ModelsConstants.THREADS) == 0) {
+                    threads = Integer.parseInt(argument.getValue());
+                }
             }
         }
 
@@ -318,11 +339,20 @@ public class h_skyviewfactor extends ModelsBackbone {
 
     /**
      * Calculate the sky view factor.
+     * <p>
+     * For every azimuth the horizon of all the pixels is calculated with a single sweep of the
+     * map by {@link HorizonAngles}. The azimuths are split in stripes that are run in parallel,
+     * each one summing its own contributions, and the stripes are summed at the end in their
+     * order, so that the same number of threads always gives the same map.
+     * </p>
      * 
      * @param pitImage the dem ( the map of elevation).
+     * @param elevation the elevations of the dem by row, with the novalues of the map.
      * @return the map of sky view factor.
+     * @throws Exception
      */
-    private WritableRaster skyviewfactor( WritableRaster pitImage ) {
+    private WritableRaster skyviewfactor( WritableRaster pitImage, double[] elevation )
+            throws Exception {
         // get rows and cols from the active region
         double resX = activeRegion.getWEResolution();
         double resY = activeRegion.getNSResolution();
@@ -333,144 +363,68 @@ public class h_skyviewfactor extends ModelsBackbone {
         /*
          * evalutating the normal vector (in the center of the square compound of 4 pixel.
          */
-        WritableRaster normalVectorImage = createNormalizedNormal(pitImage, res);
-
-        WritableRaster skyviewFactorImage = FluidUtils.createDoubleWritableRaster(pitImage
-                .getWidth(), pitImage.getHeight(), null, null, 0.0);
-        WritableRandomIter skvFactorRandomIter = RandomIterFactory.createWritable(
-                skyviewFactorImage, null);
-
-        for( int i = 0; i < 360 - 10; i = i + 10 ) {
-            double azimuth = toRadians(i * 1.0);
-            WritableRaster skyviewImage = FluidUtils.createDoubleWritableRaster(
-                    pitImage.getWidth(), pitImage.getHeight(), null, null, toRadians(maxslope));
-            WritableRandomIter skvRandomIter = RandomIterFactory.createWritable(skyviewImage, null);
-            for( int j = (int) maxslope; j >= 0; j-- ) {
-                double elevation = toRadians(j * 1.0);
-                calculateFactor(azimuth, elevation, skyviewImage);
-
+        createNormalizedNormal(pitImage, res);
+
+        int width = pitImage.getWidth();
+        int height = pitImage.getHeight();
+        final double[] normalX = new double[width * height];
+        final double[] normalY = new double[width * height];
+        final double[] normalZ = new double[width * height];
+        for( int y = 0; y < height; y++ ) {
+            for( int x = 0; x < width; x++ ) {
+                int index = y * width + x;
+                normalX[index] = normalRandomIter.getSampleDouble(x, y, 0);
+                normalY[index] = normalRandomIter.getSampleDouble(x, y, 1);
+                normalZ[index] = normalRandomIter.getSampleDouble(x, y, 2);
             }
-            for( int t = normalVectorImage.getMinY(); t < normalVectorImage.getMinY()
-                    + normalVectorImage.getHeight(); t++ ) {
-                for( int k = normalVectorImage.getMinX(); k < normalVectorImage.getMinX()
-                        + normalVectorImage.getWidth(); k++ ) {
-                    double tmp = skvRandomIter.getSampleDouble(k, t, 0);
-                    skvRandomIter.setSample(k, t, 0, Math.cos(tmp) * Math.cos(tmp) * 10.0 / 360.0);
+        }
+        normalRandomIter.done();
+
+        final HorizonAngles horizonAngles = new HorizonAngles(elevation, width, height, res);
+        final double maxAngle = toRadians(maxslope);
+        final int pixels = width * height;
+        final int azimuths = (360 - AZIMUTH_STEP) / AZIMUTH_STEP;
+        final int stripesNum = Math.max(1, Math.min(threads, azimuths));
+        final int stripeAzimuths = (azimuths + stripesNum - 1) / stripesNum;
+        final double[][] stripes = new double[stripesNum][];
+        ParallelUtilities.runInChunks(0, stripesNum, threads, new RangeTask(){
+            public void run( int start, int end ) {
+                double[] horizon = new double[pixels];
+                for( int s = start; s < end; s++ ) {
+                    double[] factor = new double[pixels];
+                    int lastAzimuth = Math.min(azimuths, (s + 1) * stripeAzimuths);
+                    for( int i = s * stripeAzimuths; i < lastAzimuth; i++ ) {
+                        double azimuth = toRadians(i * AZIMUTH_STEP);
+                        horizonAngles.calculate(azimuth, horizon);
+                        double sinAzimuth = sin(azimuth);
+                        double cosAzimuth = cos(azimuth);
+                        for( int index = 0; index < pixels; index++ ) {
+                            /*
+                             * the sky is seen above the horizon and above the plane of the
+                             * pixel, up to the maximum slope.
+                             */
+                            double selfShadow = atan2(-(sinAzimuth * normalX[index] - cosAzimuth
+                                    * normalY[index]), normalZ[index]);
+                            double angle = Math.max(horizon[index], selfShadow);
+                            angle = Math.min(Math.max(angle, 0.0), maxAngle);
+                            factor[index] = factor[index] + cos(angle) * cos(angle)
+                                    * AZIMUTH_STEP / 360.0;
+                        }
+                    }
+                    stripes[s] = factor;
                 }
             }
-
-            for( int q = 0; q < skyviewFactorImage.getWidth(); q++ ) {
-                for( int k = 0; k < skyviewFactorImage.getHeight(); k++ ) {
-                    double tmp = skvFactorRandomIter.getSampleDouble(q, k, 0);
-                    skvFactorRandomIter.setSample(q, k, 0, tmp
-                            + skvRandomIter.getSampleDouble(q, k, 0));
-                }
+        });
+
+        // merge the stripes in their order
+        double[] skyviewFactor = stripes[0];
+        for( int s = 1; s < stripesNum; s++ ) {
+            double[] factor = stripes[s];
+            for( int index = 0; index < pixels; index++ ) {
+                skyviewFactor[index] = skyviewFactor[index] + factor[index];
             }
-            skvFactorRandomIter.done();
         }
-        skvFactorRandomIter.done();
-        return skyviewFactorImage;
-    }
-
-    /**
-     * Evalutate a component of the skyview factor (the components depends of the elevation and
-     * azimuth).
-     * 
-     * @param az the azimuth.
-     * @param el the elevation.
-     * @param skyview.
-     */
-    private void calculateFactor( double az, double el, WritableRaster skyview ) {
-
-        /*
-         * calculate the sun vector.
-         */
-        double SunVector[] = new double[]{sin(az) * cos(el), -cos(az) * cos(el), sin(el)};
-        double SolVector[] = new double[3];
-        double den = Math.max(Math.abs(sin(az) * cos(el)), Math.abs(-cos(az) * cos(el)));
-
-        for( int i = 0; i < SolVector.length; i++ ) {
-            SolVector[i] = -SunVector[i] / den;
-        }
-
-        double NormalSunVector[] = new double[3];
-        NormalSunVector[2] = Math.sqrt(SunVector[0] * SunVector[0] + SunVector[1] * SunVector[1]);
-        NormalSunVector[0] = -SunVector[0] * SunVector[2] / NormalSunVector[2];
-        NormalSunVector[1] = -SunVector[1] * SunVector[2] / NormalSunVector[2];
-
-        double casx = 1e6 * SunVector[0];
-        double casy = 1e6 * SunVector[1];
-        int f_i = 0;
-        int f_j = 0;
-
-        if (casx <= 0) {
-            f_i = 0;
-        } else {
-            f_i = skyview.getWidth() - 1;
-        }
-
-        if (casy <= 0) {
-            f_j = 0;
-        } else {
-            f_j = skyview.getHeight() - 1;
-        }
-
-        int j = f_j;
-        for( int i = 0; i < skyview.getWidth(); i++ ) {
-            shadow(el, i, j, SolVector, NormalSunVector, SunVector, skyview);
-        }
-        int i = f_i;
-        for( int k = 0; k < skyview.getHeight(); k++ ) {
-            shadow(el, i, k, SolVector, NormalSunVector, SunVector, skyview);
-        }
-    }
-
-    /**
-     * Calculate the angle.
-     * 
-     * @param elev, elevation in radians.
-     * @param i the x index.
-     * @param j the y index.
-     * @param SolVector
-     * @param normalSunVector
-     * @param sunVector
-     * @param skyRaster
-     */
-    private void shadow( double elev, int i, int j, double[] SolVector, double[] normalSunVector,
-            double[] sunVector, WritableRaster skyRaster ) {
-        int n = 0;
-        WritableRandomIter skyRandomIter = RandomIterFactory.createWritable(skyRaster, null);
-        double zcompare = -Double.MAX_VALUE;
-        double dx = (SolVector[0] * n);
-        double dy = (SolVector[1] * n);
-        int nCols = skyRaster.getWidth();
-        int nRows = skyRaster.getHeight();
-        int idx = (int) (i + dx);
-        int jdy = (int) (j + dy);
-        double vectorToOrigin[] = new double[3];
-        RandomIter pitRandomIter = RandomIterFactory.create(pitImage, null);
-        while( idx >= 0 && idx <= nCols - 1 && jdy >= 0 && jdy <= nRows - 1 ) {
-            vectorToOrigin[0] = dx * res;
-            vectorToOrigin[1] = dy * res;
-            vectorToOrigin[2] = (pitRandomIter.getSampleDouble(idx, jdy, 0) + pitRandomIter
-                    .getSampleDouble((int) (i + dx), (int) (j + dy), 0)) / 2;
-            double zprojection = scalarProduct(vectorToOrigin, normalSunVector);
-            double nGrad[] = normalRandomIter.getPixel(idx, jdy, new double[3]);
-            double cosinc = scalarProduct(sunVector, nGrad);
-            double elevRad = elev;
-            if ((cosinc >= 0) && (zprojection > zcompare)) {
-                skyRandomIter.setSample(idx, jdy, 0, elevRad);
-                zcompare = zprojection;
-            }
-            n = n + 1;
-            dy = (SolVector[1] * n);
-            dx = (SolVector[0] * n);
-            idx = (int) Math.round(i + dx);
-            jdy = (int) Math.round(j + dy);
-        }
-        skyRandomIter.done();
-        pitRandomIter.done();
-
+        return FluidUtils.createDoubleWritableRaster(width, height, skyviewFactor);
     }
 
     /**
@@ -593,12 +547,4 @@ public class h_skyviewfactor extends ModelsBackbone {
         return normalVectorImage;
     }
 
-    private double scalarProduct( double[] a, double[] b ) {
-        double c = 0;
-        for( int i = 0; i < a.length; i++ ) {
-            c = c + a[i] * b[i];
-        }
-        return c;
-    }
-
 }
@@ -109,6 +109,8 @@ public class h_slope extends ModelsBackbone {
     private JGrassGridCoverageValueSet jgrValueSet;
 
     private boolean doTile;
+
+    private int threads = 1;
     /** */
     public h_slope() {
         super();
@@ -209,7 +211,7 @@ public class h_slope extends ModelsBackbone {
             PlanarImage flowRaster = (PlanarImage) flowData.getRenderedImage();
             if (pitRaster != null && flowRaster != null) {
                 RenderedOp renderedOp = HMSlopeDescriptor.create(pitRaster, flowRaster, out, err, false, activeRegion
-                        .getWEResolution(), activeRegion.getNSResolution());
+                        .getWEResolution(), activeRegion.getNSResolution(), threads);
                 RenderedOp slope = FluidUtils.setJaiNovalueBorder(renderedOp);
                 if (slope != null) {
                     CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
@@ -242,6 +244,9 @@ public class h_slope extends ModelsBackbone {
                 if (key.compareTo(ModelsConstants.MAPSET) == 0) {
                     mapset = argument.getValue();
                 }
+                if (key.compareTo(ModelsConstants.THREADS) == 0) {
+                    threads = Integer.parseInt(argument.getValue());
+                }
             }
 
         }
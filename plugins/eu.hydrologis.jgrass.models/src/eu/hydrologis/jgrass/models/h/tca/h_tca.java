@@ -28,12 +28,10 @@ import java.io.File;
 import java.io.PrintStream;
 import java.text.MessageFormat;
 
-import javax.media.jai.PlanarImage;
 import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
-import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
@@ -42,6 +40,8 @@ import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
+import eu.hydrologis.jgrass.libs.jai.RasterDataRandomIter;
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
@@ -49,6 +49,7 @@ import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIOException;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.libs.utils.TopologicalFlowAccumulator;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.udig.catalog.jgrass.utils.JGrassCatalogUtilities;
 
@@ -111,6 +112,8 @@ public class h_tca extends ModelsBackbone {
 
     private RandomIter fileRandomIter;
 
+    private boolean useTopologicalEngine = true;
+
     /** */
     public h_tca() {
         super();
@@ -198,18 +201,24 @@ public class h_tca extends ModelsBackbone {
                 return jgrValueSet;
             }
 
-            GridCoverage2D flowData = ModelsConstants.getGridCoverage2DFromLink(flowLink, time, err);
-            PlanarImage flowImage = (PlanarImage) flowData.getRenderedImage();
+            // the shared view of the flow map, read without copying it
+            DoubleRasterData flowData = ModelsConstants.getSharedRasterDataFromLink(flowLink, time, err);
             xRes = activeRegion.getWEResolution();
             yRes = activeRegion.getNSResolution();
             CoordinateReferenceSystem crs = JGrassCatalogUtilities.getLocationCrs(locationPath);
 
-            WritableRaster tcaImage = FluidUtils.createDoubleWritableRaster(flowImage.getWidth(), flowImage.getHeight(), null,
-                    flowImage.getSampleModel(), null);
+            WritableRaster tcaImage = FluidUtils.createDoubleWritableRaster(flowData.getCols(), flowData.getRows(), null,
+                    null, null);
             tcaRandomIter = RandomIterFactory.createWritable(tcaImage, null);
-            fileRandomIter = RandomIterFactory.create(flowImage, null);
+            fileRandomIter = new RasterDataRandomIter(flowData);
 
-            if (!area()) {
+            boolean done;
+            if (useTopologicalEngine) {
+                done = topologicalArea();
+            } else {
+                done = area();
+            }
+            if (!done) {
                 return null;
             } else {
                 jgrValueSet = new JGrassGridCoverageValueSet(tcaImage, activeRegion, crs);
@@ -281,6 +290,70 @@ public class h_tca extends ModelsBackbone {
         }
     }
 
+    /**
+     * Defines the engine used to calculate the tca.
+     * 
+     * @param useTopologicalEngine if true, the default, the pixels are visited in topological
+     *        order by a {@link TopologicalFlowAccumulator}, else the drainage directions are walked
+     *        downstream from every pixel.
+     */
+    public void setUseTopologicalEngine( boolean useTopologicalEngine ) {
+        this.useTopologicalEngine = useTopologicalEngine;
+    }
+
+    /**
+     * Set the tca raster map visiting every pixel once in topological order.
+     * <p>
+     * The result and the loop detection are the same of {@link #area()}, but the cost is linear in
+     * the number of pixels instead of depending on the length of the drainage paths.
+     * </p>
+     * 
+     * @return true if the tca matrix is filled, otherwise return false.
+     * @throws ModelsIOException if the drainage directions contain a loop.
+     */
+    private boolean topologicalArea() throws ModelsIOException {
+        int rows = activeRegion.getRows();
+        int cols = activeRegion.getCols();
+
+        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
+        pm.beginTask("Working on tca...", 3);
+        TopologicalFlowAccumulator accumulator = new TopologicalFlowAccumulator(fileRandomIter,
+                cols, rows);
+        int[] flow = accumulator.getFlow();
+        pm.worked(1);
+
+        int[] loop = accumulator.getLoop();
+        if (loop != null) {
+            throw new ModelsIOException(MessageFormat.format(
+                    "Detected loop between rows/cols = {0}/{1} and {2}/{3}", loop[0], loop[1],
+                    loop[2], loop[3]), this);
+        }
+
+        // every pixel that receives water contributes with its own area
+        double[] weights = new double[flow.length];
+        for( int i = 0; i < flow.length; i++ ) {
+            if (TopologicalFlowAccumulator.isReceiving(flow[i])) {
+                weights[i] = 1.0;
+            }
+        }
+        double[] tca = accumulator.accumulate(weights);
+        pm.worked(1);
+
+        for( int i = 0, index = 0; i < rows; i++ ) {
+            for( int j = 0; j < cols; j++, index++ ) {
+                int flowValue = flow[index];
+                if (isNovalue(flowValue) || flowValue == 0) {
+                    tcaRandomIter.setSample(j, i, 0, JGrassConstants.doubleNovalue);
+                } else if (TopologicalFlowAccumulator.isReceiving(flowValue)) {
+                    tcaRandomIter.setSample(j, i, 0, tca[index]);
+                }
+            }
+        }
+        pm.worked(1);
+        pm.done();
+        return true;
+    }
+
     /**
      * Set the tca raster map.
      * <p>
@@ -34,6 +34,8 @@ import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -191,9 +193,9 @@ public class h_tca3d extends ModelsBackbone {
             if (jgrValueSet != null) {
                 return jgrValueSet;
             }
-            IValueSet pitValueSet = pitLink.getSourceComponent().getValues(time, pitLink.getID());
+            IValueSet pitValueSet = LinkValueCache.requestValues(pitLink, time);
             GridCoverage2D pitGC = null;
-            IValueSet flowValueSet = flowLink.getSourceComponent().getValues(time, flowLink.getID());
+            IValueSet flowValueSet = LinkValueCache.requestValues(flowLink, time);
             GridCoverage2D flowGC = null;
             if (pitValueSet != null && flowValueSet != null) {
                 pitGC = ((JGrassGridCoverageValueSet) pitValueSet).getGridCoverage2D();
@@ -33,6 +33,8 @@ import javax.media.jai.iterator.RandomIter;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 import org.openmi.standard.IArgument;
@@ -239,14 +241,14 @@ public class h_trasmissivity extends ModelsBackbone {
             slopeImage = (PlanarImage) slopeGC.getRenderedImage();
 
             IValueSet hsValueSet = null;
-            if (hsLink != null && (hsValueSet = hsLink.getSourceComponent().getValues(time, hsLink.getID())) != null) {
+            if (hsLink != null && (hsValueSet = LinkValueCache.requestValues(hsLink, time)) != null) {
                 GridCoverage2D hsData = ((JGrassGridCoverageValueSet) hsValueSet).getGridCoverage2D();
                 hsMapIterator = RandomIterFactory.create(hsData.getRenderedImage(), null);
             }
 
             IValueSet conducibilityValueSet = null;
             if (conducibilityLink != null
-                    && (conducibilityValueSet = conducibilityLink.getSourceComponent().getValues(time, conducibilityLink.getID())) != null) {
+                    && (conducibilityValueSet = LinkValueCache.requestValues(conducibilityLink, time)) != null) {
                 GridCoverage2D conducibilityData = ((JGrassGridCoverageValueSet) conducibilityValueSet).getGridCoverage2D();
                 conducibilityMapIterator = RandomIterFactory.create(conducibilityData.getRenderedImage(), null);
             }
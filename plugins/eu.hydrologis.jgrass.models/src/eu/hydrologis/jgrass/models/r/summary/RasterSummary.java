@@ -0,0 +1,352 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.jgrass.models.r.summary;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
+import eu.hydrologis.libs.utils.QuantileSketch;
+
+/**
+ * The summary of the values of a raster: count, sum, min, max, mean, standard deviation, a
+ * histogram and a {@link QuantileSketch quantile sketch}.
+ * <p>
+ * A summary is built adding values one by one, and summaries of different values can be merged,
+ * so that {@link #summarize(RenderedImage, int)} reads the tiles of an image in parallel, in
+ * blocks of rows taken directly from the tiles, each thread with its own summary. The summaries
+ * are merged in the order of the blocks, so the result depends only on the number of threads,
+ * and only for the rounding of the moments and the random choices of the sketch.
+ * </p>
+ * <p>
+ * The histogram has {@link #HISTOGRAM_BINS} bins, whose width is a power of two: when a value
+ * falls outside of the bins the width is doubled, merging the bins two by two, until all the
+ * values fit. So the histogram needs no range to be known before reading the values, histograms
+ * of different values can be merged exactly, and at least half of the bins cover the range of
+ * the values.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class RasterSummary {
+
+    /**
+     * The number of bins of the histogram.
+     */
+    public static final int HISTOGRAM_BINS = 64;
+
+    /**
+     * The capacity of the quantile sketch, for an error on the ranks of about 1%.
+     */
+    private static final int SKETCH_CAPACITY = 200;
+
+    /**
+     * The maximum number of rows of the blocks the tiles are read in.
+     */
+    private static final int BLOCK_ROWS = 64;
+
+    private long count = 0;
+
+    private double sum = 0.0;
+
+    private double min = Double.NaN;
+
+    private double max = Double.NaN;
+
+    private double mean = 0.0;
+
+    private double squares = 0.0;
+
+    private double histogramMin = 0.0;
+
+    /**
+     * The width of the bins, 0 while the histogram is empty.
+     */
+    private double binWidth = 0.0;
+
+    private long[] histogram = new long[HISTOGRAM_BINS];
+
+    private final QuantileSketch sketch;
+
+    /**
+     * @param seed the seed of the random choices of the quantile sketch.
+     */
+    public RasterSummary( long seed ) {
+        sketch = new QuantileSketch(SKETCH_CAPACITY, seed);
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, not a novalue.
+     */
+    public void add( double value ) {
+        count++;
+        sum = sum + value;
+        if (count == 1) {
+            min = value;
+            max = value;
+        } else {
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+        double delta = value - mean;
+        mean = mean + delta / count;
+        squares = squares + delta * (value - mean);
+
+        if (binWidth == 0.0) {
+            // the first value, in a narrow bin
+            int exponent = value == 0.0 ? -60 : Math.getExponent(value) - 20;
+            binWidth = Math.scalb(1.0, Math.max(exponent, Double.MIN_EXPONENT));
+            histogramMin = Math.floor(value / binWidth) * binWidth;
+        } else if (value < histogramMin || value >= histogramMin + HISTOGRAM_BINS * binWidth) {
+            rescale(min, max, binWidth);
+        }
+        histogram[bin(value)]++;
+
+        sketch.add(value);
+    }
+
+    private int bin( double value ) {
+        int bin = (int) Math.floor((value - histogramMin) / binWidth);
+        return Math.max(0, Math.min(HISTOGRAM_BINS - 1, bin));
+    }
+
+    /**
+     * Widens the histogram to cover a range, with bins at least of a width.
+     */
+    private void rescale( double from, double to, double width ) {
+        double newMin = Math.floor(from / width) * width;
+        while( to >= newMin + HISTOGRAM_BINS * width ) {
+            width = 2.0 * width;
+            newMin = Math.floor(from / width) * width;
+        }
+        long[] newHistogram = new long[HISTOGRAM_BINS];
+        if (binWidth > 0.0) {
+            for( int b = 0; b < HISTOGRAM_BINS; b++ ) {
+                if (histogram[b] > 0) {
+                    // every old bin is within a new one, the width being a power of two
+                    double binMin = histogramMin + b * binWidth;
+                    int newBin = (int) Math.floor((binMin - newMin) / width);
+                    newHistogram[Math.max(0, Math.min(HISTOGRAM_BINS - 1, newBin))] += histogram[b];
+                }
+            }
+        }
+        histogram = newHistogram;
+        histogramMin = newMin;
+        binWidth = width;
+    }
+
+    /**
+     * Adds the values of an other summary, which is not changed.
+     *
+     * @param other the summary to merge.
+     */
+    public void merge( RasterSummary other ) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+            histogramMin = other.histogramMin;
+            binWidth = other.binWidth;
+            histogram = other.histogram.clone();
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            rescale(min, max, Math.max(binWidth, other.binWidth));
+            for( int b = 0; b < HISTOGRAM_BINS; b++ ) {
+                if (other.histogram[b] > 0) {
+                    double binMin = other.histogramMin + b * other.binWidth;
+                    histogram[bin(binMin)] += other.histogram[b];
+                }
+            }
+        }
+        // the parallel formula of Chan et al. for the squares
+        long n = count + other.count;
+        double delta = other.mean - mean;
+        mean = mean + delta * other.count / n;
+        squares = squares + other.squares + delta * delta * count * other.count / n;
+        sum = sum + other.sum;
+        count = n;
+
+        sketch.merge(other.sketch);
+    }
+
+    /**
+     * Summarizes the first band of an image.
+     *
+     * @param image the image, novalues are not counted.
+     * @param threads the number of threads reading the tiles.
+     * @return the summary.
+     * @throws Exception
+     */
+    public static RasterSummary summarize( final RenderedImage image, int threads ) throws Exception {
+        final Rectangle bounds = new Rectangle(image.getMinX(), image.getMinY(), image.getWidth(),
+                image.getHeight());
+
+        // the blocks of rows of the tiles: tile x, tile y and first row of every block
+        int blocksNum = 0;
+        int[] blocks = new int[3 * 16];
+        for( int ty = image.getMinTileY(); ty < image.getMinTileY() + image.getNumYTiles(); ty++ ) {
+            for( int tx = image.getMinTileX(); tx < image.getMinTileX() + image.getNumXTiles(); tx++ ) {
+                Rectangle tileBounds = new Rectangle(image.getTileGridXOffset() + tx * image.getTileWidth(),
+                        image.getTileGridYOffset() + ty * image.getTileHeight(), image.getTileWidth(), image
+                                .getTileHeight()).intersection(bounds);
+                for( int row = tileBounds.y; row < tileBounds.y + tileBounds.height; row = row + BLOCK_ROWS ) {
+                    if (3 * blocksNum == blocks.length) {
+                        int[] newBlocks = new int[2 * blocks.length];
+                        System.arraycopy(blocks, 0, newBlocks, 0, blocks.length);
+                        blocks = newBlocks;
+                    }
+                    blocks[3 * blocksNum] = tx;
+                    blocks[3 * blocksNum + 1] = ty;
+                    blocks[3 * blocksNum + 2] = row;
+                    blocksNum++;
+                }
+            }
+        }
+
+        final int[] allBlocks = blocks;
+        final int stripesNum = Math.max(1, Math.min(threads, blocksNum));
+        final int stripeBlocks = (blocksNum + stripesNum - 1) / stripesNum;
+        final int lastBlock = blocksNum;
+        final RasterSummary[] stripes = new RasterSummary[stripesNum];
+        ParallelUtilities.runInChunks(0, stripesNum, threads, new RangeTask(){
+            public void run( int start, int end ) {
+                double[] samples = null;
+                for( int s = start; s < end; s++ ) {
+                    RasterSummary summary = new RasterSummary(s);
+                    Raster tile = null;
+                    int tileX = Integer.MIN_VALUE;
+                    int tileY = Integer.MIN_VALUE;
+                    for( int b = s * stripeBlocks; b < Math.min(lastBlock, (s + 1) * stripeBlocks); b++ ) {
+                        if (allBlocks[3 * b] != tileX || allBlocks[3 * b + 1] != tileY) {
+                            tileX = allBlocks[3 * b];
+                            tileY = allBlocks[3 * b + 1];
+                            tile = image.getTile(tileX, tileY);
+                        }
+                        Rectangle tileBounds = tile.getBounds().intersection(bounds);
+                        int row = allBlocks[3 * b + 2];
+                        int rows = Math.min(BLOCK_ROWS, tileBounds.y + tileBounds.height - row);
+                        samples = tile.getSamples(tileBounds.x, row, tileBounds.width, rows, 0, samples);
+                        int num = tileBounds.width * rows;
+                        for( int i = 0; i < num; i++ ) {
+                            if (!isNovalue(samples[i])) {
+                                summary.add(samples[i]);
+                            }
+                        }
+                    }
+                    stripes[s] = summary;
+                }
+            }
+        });
+
+        RasterSummary summary = stripes[0];
+        for( int s = 1; s < stripesNum; s++ ) {
+            summary.merge(stripes[s]);
+        }
+        return summary;
+    }
+
+    /**
+     * @return the number of values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the values.
+     */
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the min value, NaN if there are no values.
+     */
+    public double getMin() {
+        return min;
+    }
+
+    /**
+     * @return the max value, NaN if there are no values.
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * @return the mean, NaN if there are no values.
+     */
+    public double getMean() {
+        return count > 0 ? mean : Double.NaN;
+    }
+
+    /**
+     * @return the standard deviation (population), NaN if there are no values.
+     */
+    public double getStandardDeviation() {
+        return count > 0 ? Math.sqrt(squares / count) : Double.NaN;
+    }
+
+    /**
+     * @param probabilities the probabilities of the quantiles, between 0 and 1.
+     * @return the approximated quantiles, see {@link QuantileSketch}.
+     */
+    public double[] getQuantiles( double[] probabilities ) {
+        return sketch.getQuantiles(probabilities);
+    }
+
+    /**
+     * @return the lower bound of the first bin of the histogram.
+     */
+    public double getHistogramMin() {
+        return histogramMin;
+    }
+
+    /**
+     * @return the width of the bins of the histogram, 0 if there are no values.
+     */
+    public double getHistogramBinWidth() {
+        return binWidth;
+    }
+
+    /**
+     * @return the number of values in every bin of the histogram.
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+}
@@ -22,14 +22,9 @@
  */
 package eu.hydrologis.jgrass.models.r.summary;
 
-import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
-
 import java.io.File;
 import java.io.PrintStream;
 
-import javax.media.jai.iterator.RandomIter;
-import javax.media.jai.iterator.RandomIterFactory;
-
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
 
 import org.geotools.coverage.grid.GridCoverage2D;
@@ -37,14 +32,32 @@ import org.openmi.standard.IArgument;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
-import eu.hydrologis.jgrass.libs.map.RasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.libs.openmi.ModelsConstants;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.openmi.OneInOneOutModelsBackbone;
-import eu.hydrologis.openmi.JGrassRasterValueSet;
 
 /**
+ * Summarizes the values of a map, see {@link RasterSummary}.
+ * <p>
+ * The result is a {@link ScalarSet} with:
+ * <ul>
+ * <li>0: the min value</li>
+ * <li>1: the max value</li>
+ * <li>2: the mean</li>
+ * <li>3: the standard deviation</li>
+ * <li>4: the number of cells with value</li>
+ * <li>5: the area of the cells with value</li>
+ * <li>6: the sum of the values</li>
+ * <li>the quantiles, one for every probability of the <code>quantiles</code> argument</li>
+ * <li>the lower bound and the width of the bins of the histogram, followed by the number of values
+ * in every one of the {@link RasterSummary#HISTOGRAM_BINS} bins</li>
+ * </ul>
+ * The map is summarized for every new time, while the summary is reused for more requests of the
+ * same time.
+ * </p>
+ * 
  * @author Andrea Antonello - www.hydrologis.com
  */
 public class r_summary extends OneInOneOutModelsBackbone {
@@ -52,7 +65,16 @@ public class r_summary extends OneInOneOutModelsBackbone {
     private JGrassRegion activeRegion;
     private String mapset;
 
-    private double[] minMaxMeans;
+    private double[] quantiles = {0.05, 0.25, 0.5, 0.75, 0.95};
+
+    private int threads = 1;
+
+    private ScalarSet summarySet;
+
+    /**
+     * The time of {@link #summarySet}.
+     */
+    private ITime summaryTime;
 
     public r_summary() {
         super();
@@ -80,6 +102,19 @@ public class r_summary extends OneInOneOutModelsBackbone {
                 if (key.compareTo(ModelsConstants.MAPSET) == 0) {
                     mapset = argument.getValue();
                 }
+                if (key.compareTo("quantiles") == 0) {
+                    String[] quantilesStr = argument.getValue().split(","); //$NON-NLS-1$
+                    quantiles = new double[quantilesStr.length];
+                    for( int i = 0; i < quantilesStr.length; i++ ) {
+                        quantiles[i] = Double.parseDouble(quantilesStr[i].trim());
+                        if (quantiles[i] < 0.0 || quantiles[i] > 1.0) {
+                            throw new ModelsIllegalargumentException("The quantiles have to be between 0 and 1.", this);
+                        }
+                    }
+                }
+                if (key.compareTo(ModelsConstants.THREADS) == 0) {
+                    threads = Integer.parseInt(argument.getValue());
+                }
             }
 
         }
@@ -97,56 +132,59 @@ public class r_summary extends OneInOneOutModelsBackbone {
 
     public IValueSet safeGetValues( ITime time, String linkID ) throws Exception {
 
-        if (minMaxMeans == null) {
+        boolean sameTime = time == null ? summaryTime == null : time.equals(summaryTime);
+        if (summarySet == null || !sameTime) {
 
             GridCoverage2D inputGC = ModelsConstants.getGridCoverage2DFromLink(inLink, time, err);
-            RandomIter inputIter = RandomIterFactory.create(inputGC.getRenderedImage(), null);
-            /*
-             * calculate mean, max and min
-             */
-            double mean = 0.0;
-
-            minMaxMeans = new double[]{Double.MAX_VALUE, Double.MIN_VALUE, 0, 0, 0};
-            int cols = activeRegion.getCols();
-            int rows = activeRegion.getRows();
-            int validCells = 0;
-            for( int y = 0; y < rows; y++ ) {
-                for( int x = 0; x < cols; x++ ) {
-                    double value = inputIter.getSampleDouble(x, y, 0);
-                    if (!isNovalue(value)) {
-                        if (value < minMaxMeans[0])
-                            minMaxMeans[0] = value;
-                        if (value > minMaxMeans[1])
-                            minMaxMeans[1] = value;
-                        mean = mean + value;
-                        validCells++;
-                    }
-                }
+            RasterSummary summary = RasterSummary.summarize(inputGC.getRenderedImage(), threads);
+
+            double area = summary.getCount() * activeRegion.getWEResolution() * activeRegion.getNSResolution();
+            double[] quantileValues = summary.getQuantiles(quantiles);
+            long[] histogram = summary.getHistogram();
+
+            double[] values = new double[7 + quantiles.length + 2 + histogram.length];
+            values[0] = summary.getMin();
+            values[1] = summary.getMax();
+            values[2] = summary.getMean();
+            values[3] = summary.getStandardDeviation();
+            values[4] = summary.getCount();
+            values[5] = area;
+            values[6] = summary.getSum();
+            System.arraycopy(quantileValues, 0, values, 7, quantiles.length);
+            int index = 7 + quantiles.length;
+            values[index++] = summary.getHistogramMin();
+            values[index++] = summary.getHistogramBinWidth();
+            for( int b = 0; b < histogram.length; b++ ) {
+                values[index++] = histogram[b];
             }
 
-            mean = mean / (double) validCells;
-
-            minMaxMeans[2] = mean;
-            minMaxMeans[3] = validCells;
-            minMaxMeans[4] = validCells * activeRegion.getWEResolution() * activeRegion.getNSResolution();
-
             /*
              * print out some system out
              */
             out.print("*********************************************\n");
             out.print("summary for the map:\n");
             out.print("\n");
-            out.print("range: " + minMaxMeans[0] + " - " + minMaxMeans[1] + "\n");
-            out.print("mean: " + minMaxMeans[2] + "\n");
-            out.print("active cells: " + minMaxMeans[3] + "\n");
-            out.print("active area (assuming metric resolution): " + minMaxMeans[4] + "\n");
+            out.print("range: " + values[0] + " - " + values[1] + "\n");
+            out.print("mean: " + values[2] + "\n");
+            out.print("standard deviation: " + values[3] + "\n");
+            out.print("active cells: " + summary.getCount() + "\n");
+            out.print("active area (assuming metric resolution): " + area + "\n");
+            for( int i = 0; i < quantiles.length; i++ ) {
+                out.print("quantile " + quantiles[i] + ": " + quantileValues[i] + "\n");
+            }
+            out.print("histogram:\n");
+            for( int b = 0; b < histogram.length; b++ ) {
+                if (histogram[b] > 0) {
+                    double binMin = summary.getHistogramMin() + b * summary.getHistogramBinWidth();
+                    out.print(binMin + " - " + (binMin + summary.getHistogramBinWidth()) + ": " + histogram[b] + "\n");
+                }
+            }
             out.print(activeRegion.toString() + "\n");
             out.print("*********************************************\n");
 
-            ScalarSet scalarSet = new ScalarSet(0);
-            // scalarSet.add(0, 5.0);
-            return scalarSet;
+            summarySet = new ScalarSet(values);
+            summaryTime = time;
         }
-        return null;
+        return summarySet;
     }
 }
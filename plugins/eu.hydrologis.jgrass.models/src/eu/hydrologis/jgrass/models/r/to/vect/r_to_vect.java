@@ -39,18 +39,19 @@ import org.openmi.standard.IValueSet;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
 
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.JGrassUtilities;
+import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
 import eu.hydrologis.jgrass.libs.utils.monitor.PrintstreamProgress;
+import eu.hydrologis.jgrass.libs.utils.raster.RasterPolygonizer;
+import eu.hydrologis.jgrass.libs.utils.raster.RasterPolygonizer.PolygonCollector;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIOException;
 import eu.hydrologis.libs.openmi.OneInOneOutModelsBackbone;
-import eu.hydrologis.libs.utils.AreaExtractor;
-import eu.hydrologis.libs.utils.FluidConstants;
 import eu.hydrologis.openmi.JGrassFeatureValueSet;
-import eu.hydrologis.openmi.JGrassRasterValueSet;
 
 /**
  * @author Andrea Antonello - www.hydrologis.com
@@ -118,15 +119,16 @@ public class r_to_vect extends OneInOneOutModelsBackbone {
             int rows = activeRegion.getRows();
             int cols = activeRegion.getCols();
 
-            // create the feature type
-            SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
-            b.setName("pointtype");
-            b.add("the_geom", Point.class);
-            b.add("cat", Double.class);
-
-            // build the type
-            SimpleFeatureType type = b.buildFeatureType();
             if (mode.equals(POINT)) {
+                // create the feature type
+                SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+                b.setName("pointtype");
+                b.add("the_geom", Point.class);
+                b.add("cat", Double.class);
+
+                // build the type
+                SimpleFeatureType type = b.buildFeatureType();
+                SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
                 GeometryFactory gF = new GeometryFactory();
 
                 FeatureCollection<SimpleFeatureType, SimpleFeature> newCollection = FeatureCollections.newCollection();
@@ -145,7 +147,6 @@ public class r_to_vect extends OneInOneOutModelsBackbone {
 
                         Coordinate coord = JGrassUtilities.rowColToCenterCoordinates(activeRegion, y, x);
                         Point point = gF.createPoint(coord);
-                        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
                         Object[] values = new Object[]{point, value};
                         builder.addAll(values);
                         SimpleFeature feature = builder.buildFeature(type.getTypeName() + "." + index++);
@@ -156,11 +157,31 @@ public class r_to_vect extends OneInOneOutModelsBackbone {
                 return jgrassFeatureValueSet;
 
             } else if (mode.equals(POLYGON)) {
-
-                AreaExtractor aextra = new AreaExtractor(inputIter, activeRegion);
-                SimpleFeature extractedAreas = aextra.extract_areas(0);
-                FeatureCollection<SimpleFeatureType, SimpleFeature> newCollection = FeatureCollections.newCollection();
-                newCollection.add(extractedAreas);
+                // create the feature type
+                SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+                b.setName("polygontype");
+                b.add("the_geom", Polygon.class);
+                b.add("cat", Double.class);
+
+                // build the type
+                final SimpleFeatureType type = b.buildFeatureType();
+                final SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+
+                final FeatureCollection<SimpleFeatureType, SimpleFeature> newCollection = FeatureCollections.newCollection();
+
+                /*
+                 * one polygon for every region of connected cells with the same value, added to the
+                 * collection as soon as it is traced
+                 */
+                out.println("Processing raster...");
+                RasterPolygonizer polygonizer = new RasterPolygonizer(activeRegion);
+                int polygonsNum = polygonizer.polygonize(inputIter, new PolygonCollector(){
+                    public void collect( int id, Polygon polygon, double value ) {
+                        builder.addAll(new Object[]{polygon, value});
+                        newCollection.add(builder.buildFeature(type.getTypeName() + "." + id));
+                    }
+                }, new PrintStreamProgressMonitor(out));
+                out.println("Extracted " + polygonsNum + " polygons.");
 
                 JGrassFeatureValueSet jgrassFeatureValueSet = new JGrassFeatureValueSet(newCollection);
                 return jgrassFeatureValueSet;
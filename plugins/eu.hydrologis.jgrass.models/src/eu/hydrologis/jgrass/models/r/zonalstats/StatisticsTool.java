@@ -1,502 +1,319 @@
-//package eu.hydrologis.jgrass.models.r.zonalstats;
-//import static java.lang.Math.round;
-//import jaitools.media.jai.zonalstats.Result;
-//import jaitools.media.jai.zonalstats.ZonalStats;
-//import jaitools.media.jai.zonalstats.ZonalStatsDescriptor;
-//import jaitools.media.jai.zonalstats.ZonalStatsRIF;
-//import jaitools.numeric.Statistic;
-//
-//import java.awt.geom.AffineTransform;
-//import java.awt.geom.Ellipse2D;
-//import java.awt.geom.NoninvertibleTransformException;
-//import java.awt.geom.Point2D;
-//import java.awt.image.renderable.RenderedImageFactory;
-//import java.util.HashMap;
-//import java.util.List;
-//import java.util.Map;
-//import java.util.Set;
-//
-//import javax.media.jai.JAI;
-//import javax.media.jai.OperationRegistry;
-//import javax.media.jai.ROI;
-//import javax.media.jai.ROIShape;
-//import javax.media.jai.registry.RIFRegistry;
-//
-//import org.geotools.coverage.grid.GridCoverage2D;
-//import org.geotools.coverage.grid.GridGeometry2D;
-//import org.geotools.coverage.processing.AbstractProcessor;
-//import org.geotools.coverage.processing.CoverageProcessor;
-//import org.geotools.coverage.processing.OperationJAI;
-//import org.geotools.feature.FeatureCollection;
-//import org.geotools.feature.FeatureIterator;
-//import org.geotools.geometry.DirectPosition2D;
-//import org.geotools.geometry.jts.JTS;
-//import org.geotools.geometry.jts.ReferencedEnvelope;
-//import org.geotools.referencing.CRS;
-//import org.geotools.referencing.GeodeticCalculator;
-//import org.geotools.referencing.crs.DefaultGeographicCRS;
-//import org.geotools.referencing.operation.transform.ProjectiveTransform;
-//import org.opengis.feature.simple.SimpleFeature;
-//import org.opengis.feature.simple.SimpleFeatureType;
-//import org.opengis.geometry.BoundingBox;
-//import org.opengis.geometry.coordinate.Position;
-//import org.opengis.metadata.spatial.PixelOrientation;
-//import org.opengis.parameter.ParameterValueGroup;
-//import org.opengis.referencing.FactoryException;
-//import org.opengis.referencing.crs.CoordinateReferenceSystem;
-//import org.opengis.referencing.operation.MathTransform;
-//import org.opengis.referencing.operation.TransformException;
-//
-//import com.vividsolutions.jts.geom.Coordinate;
-//import com.vividsolutions.jts.geom.CoordinateSequence;
-//import com.vividsolutions.jts.geom.Geometry;
-//import com.vividsolutions.jts.geom.LineString;
-//import com.vividsolutions.jts.geom.MultiPoint;
-//import com.vividsolutions.jts.geom.MultiPolygon;
-//import com.vividsolutions.jts.geom.Point;
-//import com.vividsolutions.jts.geom.Polygon;
-//
-//import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
-//
-///**
-// * The statistic tool. 
-// * 
-// * Example usage:
-// * <pre>
-// *       GridCoverage2D gridCoverage2D = <your coverage>; 
-// *       FeatureCollection<SimpleFeatureType, SimpleFeature> polygonsCollection = <your collection>;
-// *       
-// *       // choose the stats 
-// *       Set<Statistic> statsSet = new LinkedHashSet<Statistic>();
-// *       statsSet.add(Statistic.MIN);
-// *       statsSet.add(Statistic.MAX);
-// *       statsSet.add(Statistic.MEAN);
-// *       statsSet.add(Statistic.MEDIAN);
-// *       statsSet.add(Statistic.VARIANCE);
-// *       statsSet.add(Statistic.SDEV);
-// *       statsSet.add(Statistic.RANGE);
-// *       statsSet.add(Statistic.APPROX_MEDIAN);
-// *       statsSet.add(Statistic.SUM);
-// *       statsSet.add(Statistic.ACTIVECELLS);
-// *       
-// *       // select the bands to work on
-// *       Integer[] bands = new Integer[]{0, 1, 2};
-// *       
-// *       // create the proper instance
-// *       StatisticsTool statisticsTool = null;
-// *       if (isPolygonMode) {
-// *           statisticsTool = StatisticsTool.getInstance(statsSet, coverage2D, bands,
-// *                   featureCollection);
-// *       } else if (isPointMode) {
-// *           statisticsTool = StatisticsTool.getInstance(statsSet, coverage2D, bands,
-// *                   featureCollection, buffer);
-// *       }
-// *       
-// *       // do analysis
-// *       statisticsTool.run();
-// *       
-// *       // get the results
-// *       featureIterator = featureCollection.features();
-// *       while( featureIterator.hasNext() ) {
-// *           SimpleFeature feature = featureIterator.next();
-// *           String id = feature.getID();
-// *           Map<Statistic, Double[]> statistics = statisticsTool.getStatistics(id);
-// *
-// *           System.out.println();
-// *           System.out.println("Stats for feature of fid: " + id);
-// *           for( Statistic statistic : statsSet ) {
-// *               System.out.println(statistic.toString() + ":" + statistics.get(statistic)[0]);
-// *           }
-// *       }
-// *       featureCollection.close(featureIterator);
-// * </pre>
-// * 
-// * @author Andrea Antonello (www.hydrologis.com)
-// */
-//@SuppressWarnings({"unchecked", "nls"})
-//public class StatisticsTool {
-//    // currently needed to make it work in uDig
-//    static {
-//        OperationRegistry or = JAI.getDefaultInstance().getOperationRegistry();
-//        or.registerDescriptor(new ZonalStatsDescriptor());
-//        RenderedImageFactory rif = new ZonalStatsRIF();
-//        RIFRegistry.register(or, "ZonalStats", "ZonalStatsOperation", rif);
-//    }
-//
-//    private enum Type {
-//        POLYGON, BUFFER
-//    };
-//
-//    /*
-//     * external user params
-//     */
-//    private Set<Statistic> statisticsSet;
-//    private Integer[] bands;
-//    private Double[] buffers;
-//    private GridCoverage2D gridCoverage2D;
-//    private FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection;
-//
-//    /*
-//     * results
-//     */
-//    private Map<String, Map<Statistic, Double[]>> feature2StatisticsMap = new HashMap<String, Map<Statistic, Double[]>>();
-//
-//    private Type analysisType = null;
-//
-//    private StatisticsTool( Set<Statistic> statisticsSet, GridCoverage2D gridCoverage2D,
-//            Integer[] bands, FeatureCollection<SimpleFeatureType, SimpleFeature> polygonsCollection ) {
-//        this.statisticsSet = statisticsSet;
-//        this.gridCoverage2D = gridCoverage2D;
-//        this.bands = bands;
-//        this.featureCollection = polygonsCollection;
-//        analysisType = Type.POLYGON;
-//    }
-//
-//    private StatisticsTool( Set<Statistic> statisticsSet, GridCoverage2D gridCoverage2D,
-//            Integer[] bands, FeatureCollection<SimpleFeatureType, SimpleFeature> pointsCollection,
-//            Double... buffers ) {
-//        this.statisticsSet = statisticsSet;
-//        this.gridCoverage2D = gridCoverage2D;
-//        this.bands = bands;
-//        this.featureCollection = pointsCollection;
-//        this.buffers = buffers;
-//        analysisType = Type.BUFFER;
-//    }
-//
-//    /**
-//     * Creates an instance of the {@link StatisticsTool}. 
-//     * 
-//     * <p>
-//     * In this case the statistics are calculated on the supplied
-//     * {@link GridCoverage2D coverage} in the areas of interest
-//     * defined by the polygonal features contained in the supplied 
-//     * {@link FeatureCollection feature collection}.
-//     * 
-//     * @param statisticsSet the {@link Set set} of requested {@link Statistic}s.
-//     *          If set to null, it will do all available ones.
-//     * @param gridCoverage2D the coverage on which to perform the analysis.
-//     * @param bands the array of bands to consider in the analysis. If null, 0 is used.
-//     * @param polygonsCollection the {@link FeatureCollection collection} of
-//     *          {@link Polygon}s or {@link MultiPolygon}s to use as region
-//     *          of interest. 
-//     * @return the instance of {@link StatisticsTool} on which 
-//     *          {@link #getStatisticProperty(String, Statistic)}
-//     *          can be called to gather the results.
-//     */
-//    public static StatisticsTool getInstance( Set<Statistic> statisticsSet,
-//            GridCoverage2D gridCoverage2D, Integer[] bands,
-//            FeatureCollection<SimpleFeatureType, SimpleFeature> polygonsCollection ) {
-//        return new StatisticsTool(statisticsSet, gridCoverage2D, bands, polygonsCollection);
-//    }
-//
-//    /**
-//     * Creates an instance of the {@link StatisticsTool}. 
-//     * 
-//     * <p>
-//     * In this case the statistics are calculated on the supplied
-//     * {@link GridCoverage2D coverage} in the areas of interest
-//     * defined by the circular buffer (given by the buffers parameter)
-//     * applied to the point features contained in the supplied 
-//     * {@link FeatureCollection feature collection}.
-//     * <p>
-//     * There are two ways to supply buffers: 
-//     * <ul>
-//     *  <li> 
-//     *      buffers values are of the same number and same ordering of 
-//     *      the feature collection, in which case each buffer is applied
-//     *      to each point. 
-//     *  </li>
-//     *  <li> 
-//     *      a single buffer value is passed, in which case that value is 
-//     *      applied to each point. 
-//     *  </li>
-//     * </ul>
-//     * 
-//     * 
-//     * @param statisticsSet the {@link Set set} of requested {@link Statistic}s.
-//     *          If set to null, it will do all available ones.
-//     * @param gridCoverage2D the coverage on which to perform the analysis.
-//     * @param bands the array of bands to consider in the analysis. If null, 0 is used.
-//     * @param pointsCollection the {@link FeatureCollection collection} of
-//     *          {@link Point}s or {@link MultiPoint}s to use as center point
-//     *          for the region of interest, which is created applying the
-//     *          buffer to the point. 
-//     * @param buffers the buffer value to be taken around the points to create the 
-//     *          region of analysis in <b>meters</b>. The buffer parameter can be:
-//     *          <ul>
-//     *            <li>
-//     *              a single value, in which case it is taken constant for all the
-//     *              points.
-//     *            </li>
-//     *            <li>
-//     *              an value for every point geometry, i.e. an array of the same size
-//     *              as the passed features.
-//     *            </li>
-//     *          </ul>
-//     * @return the instance of {@link StatisticsTool} on which 
-//     *          {@link #getStatisticProperty(String, Statistic)}
-//     *          can be called to gather the results.
-//     */
-//    public static StatisticsTool getInstance( Set<Statistic> statisticsSet,
-//            GridCoverage2D gridCoverage2D, Integer[] bands,
-//            FeatureCollection<SimpleFeatureType, SimpleFeature> pointsCollection, Double... buffers ) {
-//        return new StatisticsTool(statisticsSet, gridCoverage2D, bands, pointsCollection, buffers);
-//    }
-//
-//    /**
-//     * Run the requested analysis.
-//     * 
-//     * <p>
-//     * This is the moment in which the analysis takes place. This method
-//     * is intended to give the user the possibility to choose the moment
-//     * in which the workload is done.  
-//     * @throws Exception 
-//     */
-//    public void run() throws Exception {
-//        switch( analysisType ) {
-//        case POLYGON:
-//            processPolygonMode();
-//            break;
-//        case BUFFER:
-//            processPointAndBufferMode();
-//            break;
-//        default:
-//            break;
-//        }
-//    }
-//
-//    private void processPolygonMode() throws TransformException {
-//        final AffineTransform gridToWorldTransformCorrected = new AffineTransform(
-//                (AffineTransform) ((GridGeometry2D) gridCoverage2D.getGridGeometry())
-//                        .getGridToCRS2D(PixelOrientation.UPPER_LEFT));
-//        final MathTransform worldToGridTransform;
-//        try {
-//            worldToGridTransform = ProjectiveTransform.create(gridToWorldTransformCorrected
-//                    .createInverse());
-//        } catch (NoninvertibleTransformException e) {
-//            throw new ModelsIllegalargumentException(e.getLocalizedMessage(), this);
-//        }
-//
-//        FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
-//        while( featureIterator.hasNext() ) {
-//            SimpleFeature feature = featureIterator.next();
-//            String fid = feature.getID();
-//            Geometry geometry = (Geometry) feature.getDefaultGeometry();
-//            if (geometry instanceof Polygon || geometry instanceof MultiPolygon) {
-//                BoundingBox bbox = feature.getBounds();
-//                ReferencedEnvelope rEnvelope = new ReferencedEnvelope(bbox);
-//
-//                /*
-//                 * crop on region of interest
-//                 */
-//                final CoverageProcessor processor = CoverageProcessor.getInstance();
-//                ParameterValueGroup param = processor.getOperation("CoverageCrop").getParameters();
-//                param.parameter("Source").setValue(gridCoverage2D);
-//                param.parameter("Envelope").setValue(rEnvelope);
-//                GridCoverage2D cropped = (GridCoverage2D) processor.doOperation(param);
-//
-//                ROI roi = null;
-//                int numGeometries = geometry.getNumGeometries();
-//                for( int i = 0; i < numGeometries; i++ ) {
-//                    Geometry geometryN = geometry.getGeometryN(i);
-//                    java.awt.Polygon awtPolygon = toAWTPolygon((Polygon) geometryN,
-//                            worldToGridTransform);
-//                    if (roi == null) {
-//                        roi = new ROIShape(awtPolygon);
-//                    } else {
-//                        ROI newRoi = new ROIShape(awtPolygon);
-//                        roi.add(newRoi);
-//                    }
-//                }
-//
-//                Statistic[] statistis = statisticsSet.toArray(new Statistic[statisticsSet.size()]);
-//
-//                final OperationJAI op = new OperationJAI("ZonalStats");
-//                ParameterValueGroup params = op.getParameters();
-//                params.parameter("dataImage").setValue(cropped);
-//                // params.parameter("zoneImage").setValue(constantImage);
-//                params.parameter("stats").setValue(statistis);
-//                params.parameter("bands").setValue(bands);
-//                params.parameter("roi").setValue(roi);
-//
-//                GridCoverage2D coverage = (GridCoverage2D) op.doOperation(params, null);
-//                Map<Integer, ZonalStats> statsPerBand = (Map<Integer, ZonalStats>) coverage
-//                        .getProperty(ZonalStatsDescriptor.ZONAL_STATS_PROPERTY);
-//                int numBands = coverage.getNumSampleDimensions();
-//
-//                Map<Statistic, Double[]> statsMap = new HashMap<Statistic, Double[]>();
-//                for( Statistic statistic : statistis ) {
-//                    Double[] statsResults = new Double[statistis.length];
-//                    for( int i = 0; i < numBands; i++ ) {
-//                        ZonalStats zonalStats = statsPerBand.get(i);
-//                        
-//                        Map<Statistic, Double> zoneStats = zonalStats.getZoneStats(0);
-//                        statsResults[i] = zoneStats.get(statistic).doubleValue();
-//                    }
-//                    statsMap.put(statistic, statsResults);
-//                }
-//                feature2StatisticsMap.put(fid, statsMap);
-//            }
-//        }
-//        featureCollection.close(featureIterator);
-//
-//    }
-//
-//    private void processPointAndBufferMode() throws TransformException, FactoryException {
-//
-//        final AffineTransform gridToWorldTransformCorrected = new AffineTransform(
-//                (AffineTransform) ((GridGeometry2D) gridCoverage2D.getGridGeometry())
-//                        .getGridToCRS2D(PixelOrientation.UPPER_LEFT));
-//        final MathTransform worldToGridTransform;
-//        try {
-//            worldToGridTransform = ProjectiveTransform.create(gridToWorldTransformCorrected
-//                    .createInverse());
-//        } catch (NoninvertibleTransformException e) {
-//            throw new ModelsIllegalargumentException(e.getLocalizedMessage(), this);
-//        }
-//
-//        CoordinateReferenceSystem crs = gridCoverage2D.getCoordinateReferenceSystem();
-//        boolean isDegree = false;
-//        if (crs instanceof DefaultGeographicCRS) {
-//            isDegree = true;
-//        }
-//
-//        CoordinateReferenceSystem featuresCrs = featureCollection.getSchema()
-//                .getCoordinateReferenceSystem();
-//
-//        MathTransform transform = CRS.findMathTransform(featuresCrs, crs);
-//        GeodeticCalculator gCalc = new GeodeticCalculator(crs);
-//
-//        FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
-//
-//        int featureIndex = 0;
-//        while( featureIterator.hasNext() ) {
-//            SimpleFeature feature = featureIterator.next();
-//            String fid = feature.getID();
-//            double buffer = buffers.length == 1 ? buffers[0] : buffers[featureIndex];
-//            double radiusX = buffer;
-//            double radiusY = buffer;
-//
-//            Geometry geometry = (Geometry) feature.getDefaultGeometry();
-//            if (!transform.isIdentity()) {
-//                geometry = JTS.transform(geometry, transform);
-//            }
-//            ReferencedEnvelope rEnvelope = null;
-//            if (geometry instanceof Point || geometry instanceof MultiPoint) {
-//
-//                Coordinate coordinate = geometry.getCoordinate();
-//                /*
-//                 * create an envelope around the point of the size 
-//                 * of the buffer in the crs of the coverage to
-//                 * analyze.
-//                 */
-//                if (isDegree) {
-//                    // double convertedBuffer = converter.convert(buffer);
-//                    Position position = new DirectPosition2D(crs, coordinate.x, coordinate.y);
-//                    gCalc.setStartingPosition(position);
-//                    gCalc.setDirection(0, buffer);
-//                    Point2D destinationPoint = gCalc.getDestinationGeographicPoint();
-//                    radiusY = Math.abs(coordinate.y - destinationPoint.getY());
-//
-//                    gCalc.setStartingPosition(position);
-//                    gCalc.setDirection(90, buffer);
-//                    destinationPoint = gCalc.getDestinationGeographicPoint();
-//                    radiusX = Math.abs(coordinate.x - destinationPoint.getX());
-//                }
-//
-//                rEnvelope = new ReferencedEnvelope(coordinate.x - radiusX, coordinate.x + radiusX,
-//                        coordinate.y - radiusY, coordinate.y + radiusY, crs);
-//
-//                final CoverageProcessor processor = CoverageProcessor.getInstance();
-//                ParameterValueGroup param = processor.getOperation("CoverageCrop").getParameters();
-//                param.parameter("Source").setValue(gridCoverage2D);
-//                param.parameter("Envelope").setValue(rEnvelope);
-//                GridCoverage2D cropped = (GridCoverage2D) processor.doOperation(param);
-//
-//                java.awt.Shape awtEllipse = toAWTEllipse(coordinate, radiusX, radiusY,
-//                        worldToGridTransform);
-//                ROIShape roi = new ROIShape(awtEllipse);
-//                Statistic[] statistis = statisticsSet.toArray(new Statistic[statisticsSet.size()]);
-//
-//                final OperationJAI op = new OperationJAI("ZonalStats");
-//                ParameterValueGroup params = op.getParameters();
-//                params.parameter("dataImage").setValue(cropped);
-//                // params.parameter("zoneImage").setValue(constantImage);
-//                params.parameter("stats").setValue(statistis);
-//                params.parameter("bands").setValue(bands);
-//                params.parameter("roi").setValue(roi);
-//
-//                GridCoverage2D coverage = (GridCoverage2D) op.doOperation(params, null);
-//                Map<Integer, ZonalStats> statsPerBand = (Map<Integer, ZonalStats>) coverage
-//                        .getProperty(ZonalStatsDescriptor.ZONAL_STATS_PROPERTY);
-//                int numBands = coverage.getNumSampleDimensions();
-//
-//                Map<Statistic, Double[]> statsMap = new HashMap<Statistic, Double[]>();
-//                for( Statistic statistic : statistis ) {
-//                    Double[] statsResults = new Double[statistis.length];
-//                    for( int i = 0; i < numBands; i++ ) {
-//                        ZonalStats zonalStats = statsPerBand.get(i);
-//                        Map<Statistic, Double> zoneStats = zonalStats.getZoneStats(0);
-//                        statsResults[i] = zoneStats.get(statistic).doubleValue();
-//                    }
-//                    statsMap.put(statistic, statsResults);
-//                }
-//                feature2StatisticsMap.put(fid, statsMap);
-//            }
-//
-//            featureIndex++;
-//        }
-//        featureCollection.close(featureIterator);
-//
-//    }
-//
-//    private java.awt.Polygon toAWTPolygon( final Polygon roiInput,
-//            MathTransform worldToGridTransform ) throws TransformException {
-//        final boolean isIdentity = worldToGridTransform.isIdentity();
-//        final java.awt.Polygon retValue = new java.awt.Polygon();
-//        final double coords[] = new double[2];
-//        final LineString exteriorRing = roiInput.getExteriorRing();
-//        final CoordinateSequence exteriorRingCS = exteriorRing.getCoordinateSequence();
-//        final int numCoords = exteriorRingCS.size();
-//        for( int i = 0; i < numCoords; i++ ) {
-//            coords[0] = exteriorRingCS.getX(i);
-//            coords[1] = exteriorRingCS.getY(i);
-//            if (!isIdentity)
-//                worldToGridTransform.transform(coords, 0, coords, 0, 1);
-//            retValue.addPoint((int) round(coords[0] + 0.5d), (int) round(coords[1] + 0.5d));
-//        }
-//        return retValue;
-//    }
-//
-//    private java.awt.Shape toAWTEllipse( final Coordinate center, double radiusX, double radiusY,
-//            MathTransform worldToGridTransform ) throws TransformException {
-//        final boolean isIdentity = worldToGridTransform.isIdentity();
-//        final double ll[] = new double[2];
-//        ll[0] = center.x - radiusX;
-//        ll[1] = center.y - radiusY;
-//        final double ur[] = new double[2];
-//        ur[0] = center.x + radiusX;
-//        ur[1] = center.y + radiusY;
-//        if (!isIdentity) {
-//            worldToGridTransform.transform(ll, 0, ll, 0, 1);
-//            worldToGridTransform.transform(ur, 0, ur, 0, 1);
-//        }
-//        Ellipse2D circle = new Ellipse2D.Double(round(ll[0] + 0.5d), round(ur[1] + 0.5d), ur[0]
-//                - ll[0], Math.abs(ur[1] - ll[1]));
-//        return circle;
-//    }
-//
-//    /**
-//     * Gets the performed statistics.
-//     *
-//     * @param fId the id of the feature used as region for the analysis.
-//     * @return the {@link Map} of results of the analysis for all the 
-//     *          requested {@link Statistic} for the requested bands. Note 
-//     *          that the result contains for every {@link Statistic} a result
-//     *          value for every band.
-//     */
-//    public Map<Statistic, Double[]> getStatistics( String fId ) {
-//        return feature2StatisticsMap.get(fId);
-//    }
-//
-//}
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.r.zonalstats;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+
+import eu.hydrologis.jgrass.libs.map.FlatRasterData;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
+import eu.hydrologis.libs.utils.QuantileSketch;
+
+/**
+ * The statistic tool, calculating the statistics of the values of a raster in zones.
+ * <p>
+ * The zones are given as {@link ZoneSpans}, with ids from 1 to the number of zones, so that a cell
+ * can be in many zones, as where polygons overlap; cells with novalue are not part of any zone.
+ * All the statistics are kept in primitive arrays indexed by zone id, sparse ids being renumbered
+ * by {@link ZoneSpans#toDenseZones()} first.
+ * </p>
+ * <p>
+ * The raster is read once, in stripes of rows that are run in parallel, each one with its own
+ * accumulators: count, sum, min, max, mean and the sum of the squared differences from the mean,
+ * updated cell by cell so that the variance doesn't lose precision on large values. The
+ * accumulators of the stripes are merged at the end, in the order of the stripes, so the results
+ * don't depend on the number of threads but for the rounding.
+ * </p>
+ * <p>
+ * The quantiles are approximated in the same pass by a {@link QuantileSketch} for every zone of
+ * every stripe, created at the first value of the zone and merged as the other accumulators. The
+ * error on the rank of the quantiles is about 1% of the cells of the zone.
+ * </p>
+ *
+ * <pre>
+ * StatisticsTool tool = new StatisticsTool(zonesNum);
+ * tool.setQuantiles(new double[]{0.25, 0.5, 0.75});
+ * tool.run(values, spans);
+ * double median = tool.getQuantile(zone, 1);
+ * </pre>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class StatisticsTool {
+
+    /**
+     * The capacity of the sketches the quantiles are approximated from.
+     */
+    private static final int SKETCH_CAPACITY = 200;
+
+    private final int zonesNum;
+
+    private int threads = ParallelUtilities.getAvailableProcessors();
+
+    private double[] probabilities = new double[0];
+
+    private int[] count;
+
+    private double[] sum;
+
+    private double[] min;
+
+    private double[] max;
+
+    private double[] mean;
+
+    private double[] squares;
+
+    private QuantileSketch[] sketches;
+
+    /**
+     * The accumulators of a stripe of rows.
+     */
+    private class Stripe {
+        private final int[] count = new int[zonesNum + 1];
+        private final double[] sum = new double[zonesNum + 1];
+        private final double[] min = new double[zonesNum + 1];
+        private final double[] max = new double[zonesNum + 1];
+        private final double[] mean = new double[zonesNum + 1];
+        private final double[] squares = new double[zonesNum + 1];
+        private final QuantileSketch[] sketches = new QuantileSketch[probabilities.length > 0
+                ? zonesNum + 1
+                : 0];
+
+        private void add( int zone, double value ) {
+            int n = ++count[zone];
+            sum[zone] = sum[zone] + value;
+            if (n == 1) {
+                min[zone] = value;
+                max[zone] = value;
+            } else {
+                if (value < min[zone]) {
+                    min[zone] = value;
+                }
+                if (value > max[zone]) {
+                    max[zone] = value;
+                }
+            }
+            double delta = value - mean[zone];
+            mean[zone] = mean[zone] + delta / n;
+            squares[zone] = squares[zone] + delta * (value - mean[zone]);
+            if (sketches.length > 0) {
+                if (sketches[zone] == null) {
+                    sketches[zone] = new QuantileSketch(SKETCH_CAPACITY, zone);
+                }
+                sketches[zone].add(value);
+            }
+        }
+    }
+
+    /**
+     * @param zonesNum the number of zones, the highest zone id.
+     */
+    public StatisticsTool( int zonesNum ) {
+        this.zonesNum = zonesNum;
+    }
+
+    /**
+     * Sets the number of threads used to read the raster.
+     *
+     * @param threads the number of threads, 1 to read it in the calling thread. The default is
+     *        the number of available processors.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the quantiles to calculate.
+     *
+     * @param probabilities the probabilities of the quantiles, between 0 and 1, as 0.5 for the
+     *        median. No quantiles are calculated by default.
+     */
+    public void setQuantiles( double[] probabilities ) {
+        for( double probability : probabilities ) {
+            if (probability < 0.0 || probability > 1.0) {
+                throw new IllegalArgumentException("The probabilities of the quantiles have to be between 0 and 1."); //$NON-NLS-1$
+            }
+        }
+        this.probabilities = probabilities.clone();
+    }
+
+    /**
+     * Calculates the statistics.
+     *
+     * @param values the values.
+     * @param spans the zones, with ids from 1 to the number of zones.
+     * @throws Exception
+     */
+    public void run( final FlatRasterData values, final ZoneSpans spans ) throws Exception {
+        final int rows = values.getRows();
+        final int cols = values.getCols();
+        if (spans.getRows() != rows) {
+            throw new IllegalArgumentException("The zones don't match the size of the raster."); //$NON-NLS-1$
+        }
+        final int stripesNum = Math.max(1, Math.min(threads, rows));
+        final int stripeRows = (rows + stripesNum - 1) / stripesNum;
+        final Stripe[] stripes = new Stripe[stripesNum];
+
+        ParallelUtilities.runInChunks(0, stripesNum, threads, new RangeTask(){
+            public void run( int start, int end ) {
+                double[] rowValues = new double[cols];
+                for( int s = start; s < end; s++ ) {
+                    Stripe stripe = new Stripe();
+                    int lastRow = Math.min(rows, (s + 1) * stripeRows);
+                    for( int row = s * stripeRows; row < lastRow; row++ ) {
+                        int firstSpan = spans.firstSpan(row);
+                        int endSpan = spans.endSpan(row);
+                        if (firstSpan == endSpan) {
+                            continue;
+                        }
+                        values.getRow(row, rowValues);
+                        for( int span = firstSpan; span < endSpan; span++ ) {
+                            int zone = spans.spanZones[span];
+                            if (zone > zonesNum) {
+                                continue;
+                            }
+                            int toCol = Math.min(cols, spans.spanToCols[span]);
+                            for( int col = Math.max(0, spans.spanFromCols[span]); col < toCol; col++ ) {
+                                double value = rowValues[col];
+                                if (!isNovalue(value)) {
+                                    stripe.add(zone, value);
+                                }
+                            }
+                        }
+                    }
+                    stripes[s] = stripe;
+                }
+            }
+        });
+
+        merge(stripes);
+    }
+
+    private void merge( Stripe[] stripes ) {
+        Stripe first = stripes[0];
+        count = first.count;
+        sum = first.sum;
+        min = first.min;
+        max = first.max;
+        mean = first.mean;
+        squares = first.squares;
+        sketches = first.sketches;
+        for( int s = 1; s < stripes.length; s++ ) {
+            Stripe stripe = stripes[s];
+            for( int zone = 1; zone <= zonesNum; zone++ ) {
+                int n2 = stripe.count[zone];
+                if (n2 == 0) {
+                    continue;
+                }
+                int n1 = count[zone];
+                int n = n1 + n2;
+                if (n1 == 0) {
+                    min[zone] = stripe.min[zone];
+                    max[zone] = stripe.max[zone];
+                } else {
+                    min[zone] = Math.min(min[zone], stripe.min[zone]);
+                    max[zone] = Math.max(max[zone], stripe.max[zone]);
+                }
+                // the parallel formula of Chan et al. for the squares
+                double delta = stripe.mean[zone] - mean[zone];
+                mean[zone] = mean[zone] + delta * n2 / n;
+                squares[zone] = squares[zone] + stripe.squares[zone] + delta * delta * n1 * n2 / n;
+                sum[zone] = sum[zone] + stripe.sum[zone];
+                count[zone] = n;
+                if (sketches.length > 0) {
+                    if (sketches[zone] == null) {
+                        sketches[zone] = stripe.sketches[zone];
+                    } else {
+                        sketches[zone].merge(stripe.sketches[zone]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of zones.
+     */
+    public int getZonesNum() {
+        return zonesNum;
+    }
+
+    /**
+     * @param zone the zone id.
+     * @return the number of cells with value in the zone.
+     */
+    public int getCount( int zone ) {
+        return count[zone];
+    }
+
+    /**
+     * @param zone the zone id.
+     * @return the sum of the values of the zone.
+     */
+    public double getSum( int zone ) {
+        return sum[zone];
+    }
+
+    /**
+     * @param zone the zone id.
+     * @return the min value of the zone, NaN if the zone has no values.
+     */
+    public double getMin( int zone ) {
+        return count[zone] > 0 ? min[zone] : Double.NaN;
+    }
+
+    /**
+     * @param zone the zone id.
+     * @return the max value of the zone, NaN if the zone has no values.
+     */
+    public double getMax( int zone ) {
+        return count[zone] > 0 ? max[zone] : Double.NaN;
+    }
+
+    /**
+     * @param zone the zone id.
+     * @return the mean of the values of the zone, NaN if the zone has no values.
+     */
+    public double getMean( int zone ) {
+        return count[zone] > 0 ? mean[zone] : Double.NaN;
+    }
+
+    /**
+     * @param zone the zone id.
+     * @return the standard deviation of the values of the zone (population), NaN if the zone
+     *         has no values.
+     */
+    public double getStandardDeviation( int zone ) {
+        return count[zone] > 0 ? Math.sqrt(squares[zone] / count[zone]) : Double.NaN;
+    }
+
+    /**
+     * @param zone the zone id.
+     * @param index the index of the quantile in the probabilities given to
+     *        {@link #setQuantiles(double[])}.
+     * @return the approximated quantile, NaN if the zone has no values.
+     */
+    public double getQuantile( int zone, int index ) {
+        if (count[zone] == 0) {
+            return Double.NaN;
+        }
+        return sketches[zone].getQuantile(probabilities[index]);
+    }
+
+}
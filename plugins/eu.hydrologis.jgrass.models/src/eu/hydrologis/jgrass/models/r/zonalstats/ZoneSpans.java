@@ -0,0 +1,171 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.models.r.zonalstats;
+
+import java.util.Arrays;
+
+import eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer.SpanCollector;
+
+/**
+ * The zones of the {@link StatisticsTool}, as spans of cells of the rows of a raster.
+ * <p>
+ * Every span is a run of cells of a row belonging to a zone. Spans of different zones can
+ * overlap, so that a cell can be part of many zones, as for the polygons given by the
+ * {@link eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer PolygonRasterizer}, the spans
+ * being collected from it. The spans are kept in primitive arrays, ordered by row.
+ * </p>
+ * <p>
+ * Zone ids from a zone map can be sparse, as the ids of basins: {@link #toDenseZones()} numbers
+ * them from 1, so that the statistics need arrays only as large as the number of zones.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class ZoneSpans implements SpanCollector {
+
+    private final int rows;
+
+    /**
+     * The index of the first span of every row, up to the row of the last span.
+     */
+    private final int[] rowFirstSpan;
+
+    int spansNum = 0;
+
+    int[] spanFromCols = new int[64];
+
+    int[] spanToCols = new int[64];
+
+    int[] spanZones = new int[64];
+
+    private int lastRow = 0;
+
+    /**
+     * @param rows the number of rows of the raster.
+     */
+    public ZoneSpans( int rows ) {
+        this.rows = rows;
+        rowFirstSpan = new int[rows + 1];
+    }
+
+    /**
+     * Adds a span of cells.
+     *
+     * @param row the row, not before the row of the previous span.
+     * @param fromCol the first column of the span.
+     * @param toCol the column after the last one of the span.
+     * @param zone the zone id, positive.
+     */
+    public void collect( int row, int fromCol, int toCol, int zone ) {
+        if (row < lastRow || row >= rows) {
+            throw new IllegalArgumentException("The spans have to be added row after row."); //$NON-NLS-1$
+        }
+        if (zone < 1) {
+            throw new IllegalArgumentException("The zone ids have to be positive."); //$NON-NLS-1$
+        }
+        while( lastRow < row ) {
+            lastRow++;
+            rowFirstSpan[lastRow] = spansNum;
+        }
+        if (spansNum == spanZones.length) {
+            int size = 2 * spansNum;
+            spanFromCols = grow(spanFromCols, size);
+            spanToCols = grow(spanToCols, size);
+            spanZones = grow(spanZones, size);
+        }
+        spanFromCols[spansNum] = fromCol;
+        spanToCols[spansNum] = toCol;
+        spanZones[spansNum] = zone;
+        spansNum++;
+    }
+
+    /**
+     * @param row the row.
+     * @return the index of the first span of the row.
+     */
+    int firstSpan( int row ) {
+        return row <= lastRow ? rowFirstSpan[row] : spansNum;
+    }
+
+    /**
+     * @param row the row.
+     * @return the index after the last span of the row.
+     */
+    int endSpan( int row ) {
+        return firstSpan(row + 1);
+    }
+
+    /**
+     * Adds a row of a zone map, as a span for every run of cells with the same zone.
+     *
+     * @param row the row, after the rows already added.
+     * @param zones the zone ids of the cells of the row, 0 for no zone.
+     */
+    public void addRow( int row, int[] zones ) {
+        int col = 0;
+        while( col < zones.length ) {
+            int zone = zones[col];
+            int end = col + 1;
+            while( end < zones.length && zones[end] == zone ) {
+                end++;
+            }
+            if (zone != 0) {
+                collect(row, col, end, zone);
+            }
+            col = end;
+        }
+    }
+
+    /**
+     * Renumbers the zones from 1, in the order of their ids.
+     *
+     * @return the ids of the zones: the zone numbered <code>n</code> had id
+     *         <code>ids[n - 1]</code>.
+     */
+    public int[] toDenseZones() {
+        int[] ids = new int[spansNum];
+        System.arraycopy(spanZones, 0, ids, 0, spansNum);
+        Arrays.sort(ids);
+        int idsNum = 0;
+        for( int i = 0; i < spansNum; i++ ) {
+            if (idsNum == 0 || ids[i] != ids[idsNum - 1]) {
+                ids[idsNum++] = ids[i];
+            }
+        }
+        for( int s = 0; s < spansNum; s++ ) {
+            spanZones[s] = Arrays.binarySearch(ids, 0, idsNum, spanZones[s]) + 1;
+        }
+        int[] denseIds = new int[idsNum];
+        System.arraycopy(ids, 0, denseIds, 0, idsNum);
+        return denseIds;
+    }
+
+    /**
+     * @return the number of rows of the raster.
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    private static int[] grow( int[] array, int size ) {
+        int[] newArray = new int[size];
+        System.arraycopy(array, 0, newArray, 0, array.length);
+        return newArray;
+    }
+
+}
@@ -17,19 +17,20 @@
  */
 package eu.hydrologis.jgrass.models.r.zonalstats;
 
-import jaitools.numeric.Statistic;
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.LinkedHashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.List;
 
-import nl.alterra.openmi.sdk.backbone.ScalarSet;
-
-import org.geotools.coverage.grid.GridCoverage2D;
+import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.feature.FeatureCollection;
+import org.geotools.feature.FeatureCollections;
 import org.geotools.feature.FeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.feature.simple.SimpleFeatureType;
 import org.openmi.standard.IArgument;
@@ -39,22 +40,42 @@ import org.openmi.standard.IOutputExchangeItem;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
-import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Point;
 import com.vividsolutions.jts.geom.Polygon;
 
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.JGrassUtilities;
+import eu.hydrologis.jgrass.libs.utils.features.FeatureExtender;
+import eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
 import eu.hydrologis.openmi.JGrassFeatureValueSet;
-import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 
 /**
  * The zonalstats module.
+ * <p>
+ * Calculates the statistics of the values of a coverage in zones, given either as a zone map or
+ * as features. The zone map has the zone ids as values, positive integers. Polygon features are
+ * rasterized with a scanline, each feature being a zone that keeps all its cells also where
+ * features overlap, and point features, with the <code>buffer</code> argument, are taken as the
+ * circles of that radius around the points. The
+ * statistics are calculated by {@link StatisticsTool} and the result is a feature collection: the
+ * features with the statistics added as attributes or, for a zone map, a point in the center of
+ * every zone with its id and statistics.
+ * </p>
+ * <p>
+ * Arguments: <code>buffer</code>, the radius around points; <code>quantiles</code>, the comma
+ * separated probabilities of the quantiles to calculate, by default 0.25,0.5,0.75;
+ * {@link ModelsConstants#THREADS}, the number of threads.
+ * </p>
  * 
  * @author Andrea Antonello - www.hydrologis.com
  */
@@ -62,11 +83,13 @@ public class r_zonalstats extends ModelsBackbone {
 
     private final static String coverageInID = "coverage"; //$NON-NLS-1$
     private final static String featureInID = "feature"; //$NON-NLS-1$
+    private final static String zonesInID = "zones"; //$NON-NLS-1$
 
     private final static String outID = "out"; //$NON-NLS-1$ 
 
     private ILink coverageInLink = null;
     private ILink featureInLink = null;
+    private ILink zonesInLink = null;
 
     private ILink outLink = null;
 
@@ -74,12 +97,17 @@ public class r_zonalstats extends ModelsBackbone {
 
     private IInputExchangeItem coverageInputEI = null;
     private IInputExchangeItem featureInputEI = null;
+    private IInputExchangeItem zonesInputEI = null;
 
     private String modelParameters = ""; //$NON-NLS-1$
     private JGrassRegion activeRegion;
 
     private Double buffer = null;
 
+    private double[] quantiles = {0.25, 0.5, 0.75};
+
+    private int threads = 1;
+
     public r_zonalstats() {
         err = FluidUtils.newPrintStream(null, System.err);
         out = FluidUtils.newPrintStream(null, System.out);
@@ -115,6 +143,19 @@ public class r_zonalstats extends ModelsBackbone {
                         // check will be done later
                     }
                 }
+                if (key.compareTo("quantiles") == 0) {
+                    String[] quantilesStr = argument.getValue().split(","); //$NON-NLS-1$
+                    quantiles = new double[quantilesStr.length];
+                    for( int i = 0; i < quantilesStr.length; i++ ) {
+                        quantiles[i] = Double.parseDouble(quantilesStr[i].trim());
+                        if (quantiles[i] < 0.0 || quantiles[i] > 1.0) {
+                            throw new ModelsIllegalargumentException("The quantiles have to be between 0 and 1.", this);
+                        }
+                    }
+                }
+                if (key.compareTo(ModelsConstants.THREADS) == 0) {
+                    threads = Integer.parseInt(argument.getValue());
+                }
             }
 
         }
@@ -128,84 +169,201 @@ public class r_zonalstats extends ModelsBackbone {
 
         coverageInputEI = ModelsConstants.createRasterInputExchangeItem(this, activeRegion);
         featureInputEI = ModelsConstants.createFeatureCollectionInputExchangeItem(this, null);
-        outputEI = ModelsConstants.createDummyOutputExchangeItem(this);
+        zonesInputEI = ModelsConstants.createRasterInputExchangeItem(this, activeRegion);
+        outputEI = ModelsConstants.createFeatureCollectionOutputExchangeItem(this, null);
     }
 
     public IValueSet safeGetValues( ITime time, String linkID ) throws Exception {
+        if (!linkID.equals(outLink.getID())) {
+            return null;
+        }
+        int rows = activeRegion.getRows();
+        int cols = activeRegion.getCols();
+
+        DoubleRasterData values = ModelsConstants.getSharedRasterDataFromLink(coverageInLink, time, err);
+        if (values.getRows() != rows || values.getCols() != cols) {
+            throw new IOException("The coverage doesn't match the active region."); //$NON-NLS-1$
+        }
 
-        // get the coverage
-        GridCoverage2D coverage2D = ModelsConstants.getGridCoverage2DFromLink(coverageInLink, time, err);
-
-        // FIXME enable as soon as jaitools is uptodate 
-        
-        // // get the features
-        // IValueSet featuresValueSet = featureInLink.getSourceComponent().getValues(time,
-        // featureInLink.getID());
-        // FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection =
-        // ((JGrassFeatureValueSet) featuresValueSet)
-        // .getFeatureCollection();
-        // FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
-        // boolean isPolygonMode = false;
-        // boolean isPointMode = false;
-        // if (featureIterator.hasNext()) {
-        // SimpleFeature feature = featureIterator.next();
-        // Object geom = feature.getDefaultGeometry();
-        // if (geom instanceof Polygon || geom instanceof MultiPolygon) {
-        // isPolygonMode = true;
-        // }
-        // if (geom instanceof Point || geom instanceof MultiPoint) {
-        // isPointMode = true;
-        // }
-        // }
-        // featureCollection.close(featureIterator);
-        //
-        // Set<Statistic> statsSet = new LinkedHashSet<Statistic>();
-        // statsSet.add(Statistic.MIN);
-        // statsSet.add(Statistic.MAX);
-        // statsSet.add(Statistic.MEAN);
-        // statsSet.add(Statistic.MEDIAN);
-        // statsSet.add(Statistic.VARIANCE);
-        // statsSet.add(Statistic.SDEV);
-        // statsSet.add(Statistic.RANGE);
-        // statsSet.add(Statistic.APPROX_MEDIAN);
-        // statsSet.add(Statistic.SUM);
-        //
-        // Integer[] bands = new Integer[]{0};
-        // StatisticsTool statisticsTool = null;
-        // if (isPolygonMode) {
-        // statisticsTool = StatisticsTool.getInstance(statsSet, coverage2D, bands,
-        // featureCollection);
-        // } else if (isPointMode) {
-        // if (buffer == null) {
-        // throw new
-        // ModelsIllegalargumentException("In point mode the buffer argument has to be set.", this);
-        // }
-        // statisticsTool = StatisticsTool.getInstance(statsSet, coverage2D, bands,
-        // featureCollection, buffer);
-        // } else {
-        // throw new
-        // ModelsIllegalargumentException("Zonalstats can be operated only on Point and Polygon layers.",
-        // this);
-        // }
-        //
-        // statisticsTool.run();
-        //
-        // featureIterator = featureCollection.features();
-        // while( featureIterator.hasNext() ) {
-        // SimpleFeature feature = featureIterator.next();
-        // String id = feature.getID();
-        // Map<Statistic, Double[]> statistics = statisticsTool.getStatistics(id);
-        //
-        // out.println();
-        // out.println("Stats for feature of fid: " + id);
-        // for( Statistic statistic : statsSet ) {
-        // out.println(statistic.toString() + ":" + statistics.get(statistic)[0]);
-        // }
-        // }
-        // featureCollection.close(featureIterator);
-
-        ScalarSet scalarSet = new ScalarSet(new double[]{0.0});
-        return scalarSet;
+        FeatureCollection<SimpleFeatureType, SimpleFeature> outCollection;
+        if (featureInLink != null) {
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = ModelsConstants
+                    .getFeatureCollectionFromLink(featureInLink, time, err);
+            outCollection = featureStatistics(values, featureCollection);
+        } else if (zonesInLink != null) {
+            DoubleRasterData zonesData = ModelsConstants.getSharedRasterDataFromLink(zonesInLink, time, err);
+            if (zonesData.getRows() != rows || zonesData.getCols() != cols) {
+                throw new IOException("The zones map doesn't match the active region."); //$NON-NLS-1$
+            }
+            outCollection = zoneStatistics(values, zonesData);
+        } else {
+            throw new ModelsIllegalargumentException("Zonalstats needs either features or a zones map.", this);
+        }
+        return new JGrassFeatureValueSet(outCollection);
+    }
+
+    /**
+     * Calculates the statistics of the zones given by features, adding them to the features.
+     */
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> featureStatistics( DoubleRasterData values,
+            FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection ) throws Exception {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        PolygonRasterizer rasterizer = new PolygonRasterizer(activeRegion);
+        FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
+        try {
+            while( featureIterator.hasNext() ) {
+                SimpleFeature feature = featureIterator.next();
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (geometry instanceof Polygon || geometry instanceof MultiPolygon) {
+                    rasterizer.addPolygon(geometry, 0.0);
+                } else if (geometry != null && geometry.getDimension() == 0) {
+                    if (buffer == null) {
+                        throw new ModelsIllegalargumentException("In point mode the buffer argument has to be set.", this);
+                    }
+                    rasterizer.addPolygon(geometry.buffer(buffer), 0.0);
+                } else {
+                    throw new ModelsIllegalargumentException(
+                            "Zonalstats can be operated only on Point and Polygon layers.", this);
+                }
+                features.add(feature);
+            }
+        } finally {
+            featureCollection.close(featureIterator);
+        }
+
+        out.println("Rasterizing the zones..."); //$NON-NLS-1$
+        // as spans, so that overlapping features all keep their cells
+        ZoneSpans spans = new ZoneSpans(activeRegion.getRows());
+        rasterizer.rasterize(spans, new NullProgressMonitor());
+
+        StatisticsTool statisticsTool = runStatistics(values, spans, features.size());
+
+        FeatureCollection<SimpleFeatureType, SimpleFeature> outCollection = FeatureCollections.newCollection();
+        if (features.isEmpty()) {
+            return outCollection;
+        }
+        String[] names = statisticsNames();
+        Class< ? >[] classes = new Class< ? >[names.length];
+        classes[0] = Integer.class;
+        for( int i = 1; i < classes.length; i++ ) {
+            classes[i] = Double.class;
+        }
+        FeatureExtender extender = new FeatureExtender(featureCollection.getSchema(), names, classes);
+        for( int i = 0; i < features.size(); i++ ) {
+            outCollection.add(extender.extendFeature(features.get(i), statistics(statisticsTool, i + 1), i + 1));
+        }
+        return outCollection;
+    }
+
+    /**
+     * Calculates the statistics of the zones of a zone map, creating a point feature in the center
+     * of every zone.
+     */
+    private FeatureCollection<SimpleFeatureType, SimpleFeature> zoneStatistics( DoubleRasterData values,
+            DoubleRasterData zonesData ) throws Exception {
+        int rows = activeRegion.getRows();
+        int cols = activeRegion.getCols();
+        ZoneSpans spans = new ZoneSpans(rows);
+        double[] row = new double[cols];
+        int[] rowZones = new int[cols];
+        for( int i = 0; i < rows; i++ ) {
+            zonesData.getRow(i, row);
+            for( int j = 0; j < cols; j++ ) {
+                rowZones[j] = !isNovalue(row[j]) && row[j] >= 1.0 ? (int) row[j] : 0;
+            }
+            spans.addRow(i, rowZones);
+        }
+        // the ids can be sparse, as the ids of basins
+        int[] ids = spans.toDenseZones();
+        int zonesNum = ids.length;
+
+        // the centers of the zones
+        int[] cells = new int[zonesNum + 1];
+        double[] sumRows = new double[zonesNum + 1];
+        double[] sumCols = new double[zonesNum + 1];
+        for( int i = 0; i < rows; i++ ) {
+            for( int s = spans.firstSpan(i); s < spans.endSpan(i); s++ ) {
+                int zone = spans.spanZones[s];
+                int fromCol = spans.spanFromCols[s];
+                int spanCells = spans.spanToCols[s] - fromCol;
+                cells[zone] = cells[zone] + spanCells;
+                sumRows[zone] = sumRows[zone] + (double) i * spanCells;
+                sumCols[zone] = sumCols[zone] + (fromCol + (spanCells - 1) / 2.0) * spanCells;
+            }
+        }
+
+        StatisticsTool statisticsTool = runStatistics(values, spans, zonesNum);
+
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("zonalstats"); //$NON-NLS-1$
+        b.add("the_geom", Point.class); //$NON-NLS-1$
+        b.add("zone", Integer.class); //$NON-NLS-1$
+        String[] names = statisticsNames();
+        b.add(names[0], Integer.class);
+        for( int i = 1; i < names.length; i++ ) {
+            b.add(names[i], Double.class);
+        }
+        SimpleFeatureType type = b.buildFeatureType();
+        SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+        GeometryFactory gf = new GeometryFactory();
+        FeatureCollection<SimpleFeatureType, SimpleFeature> outCollection = FeatureCollections.newCollection();
+        for( int zone = 1; zone <= zonesNum; zone++ ) {
+            if (cells[zone] == 0) {
+                continue;
+            }
+            int centerRow = (int) Math.round(sumRows[zone] / cells[zone]);
+            int centerCol = (int) Math.round(sumCols[zone] / cells[zone]);
+            Coordinate center = JGrassUtilities.rowColToCenterCoordinates(activeRegion, centerRow, centerCol);
+            Object[] statistics = statistics(statisticsTool, zone);
+            Object[] attributes = new Object[statistics.length + 2];
+            attributes[0] = gf.createPoint(center);
+            attributes[1] = ids[zone - 1];
+            System.arraycopy(statistics, 0, attributes, 2, statistics.length);
+            builder.addAll(attributes);
+            outCollection.add(builder.buildFeature(type.getTypeName() + "." + ids[zone - 1])); //$NON-NLS-1$
+        }
+        return outCollection;
+    }
+
+    private StatisticsTool runStatistics( DoubleRasterData values, ZoneSpans spans, int zonesNum ) throws Exception {
+        out.println("Calculating the statistics of " + zonesNum + " zones..."); //$NON-NLS-1$ //$NON-NLS-2$
+        StatisticsTool statisticsTool = new StatisticsTool(zonesNum);
+        statisticsTool.setThreads(threads);
+        statisticsTool.setQuantiles(quantiles);
+        statisticsTool.run(values, spans);
+        return statisticsTool;
+    }
+
+    /**
+     * @return the names of the attributes of the statistics, the count first.
+     */
+    private String[] statisticsNames() {
+        String[] names = new String[6 + quantiles.length];
+        names[0] = "count"; //$NON-NLS-1$
+        names[1] = "min"; //$NON-NLS-1$
+        names[2] = "max"; //$NON-NLS-1$
+        names[3] = "mean"; //$NON-NLS-1$
+        names[4] = "sum"; //$NON-NLS-1$
+        names[5] = "stddev"; //$NON-NLS-1$
+        for( int i = 0; i < quantiles.length; i++ ) {
+            // as q50 for the median
+            names[6 + i] = "q" + Math.round(quantiles[i] * 100.0); //$NON-NLS-1$
+        }
+        return names;
+    }
+
+    private Object[] statistics( StatisticsTool statisticsTool, int zone ) {
+        Object[] statistics = new Object[6 + quantiles.length];
+        statistics[0] = statisticsTool.getCount(zone);
+        statistics[1] = statisticsTool.getMin(zone);
+        statistics[2] = statisticsTool.getMax(zone);
+        statistics[3] = statisticsTool.getMean(zone);
+        statistics[4] = statisticsTool.getSum(zone);
+        statistics[5] = statisticsTool.getStandardDeviation(zone);
+        for( int i = 0; i < quantiles.length; i++ ) {
+            statistics[6 + i] = statisticsTool.getQuantile(zone, i);
+        }
+        return statistics;
     }
 
     public void addLink( ILink link ) {
@@ -217,6 +375,9 @@ public class r_zonalstats extends ModelsBackbone {
         if (id.equals(featureInID)) {
             featureInLink = link;
         }
+        if (id.equals(zonesInID)) {
+            zonesInLink = link;
+        }
         if (id.equals(outID)) {
             outLink = link;
         }
@@ -230,12 +391,14 @@ public class r_zonalstats extends ModelsBackbone {
             return coverageInputEI;
         } else if (inputExchangeItemIndex == 1) {
             return featureInputEI;
+        } else if (inputExchangeItemIndex == 2) {
+            return zonesInputEI;
         } else
             return null;
     }
 
     public int getInputExchangeItemCount() {
-        return 2;
+        return 3;
     }
 
     public String getModelDescription() {
@@ -251,13 +414,16 @@ public class r_zonalstats extends ModelsBackbone {
     }
 
     public void removeLink( String linkID ) {
-        if (linkID.equals(coverageInLink.getID())) {
+        if (coverageInLink != null && linkID.equals(coverageInLink.getID())) {
             coverageInLink = null;
         }
-        if (linkID.equals(featureInLink.getID())) {
+        if (featureInLink != null && linkID.equals(featureInLink.getID())) {
             featureInLink = null;
         }
-        if (linkID.equals(outLink.getID())) {
+        if (zonesInLink != null && linkID.equals(zonesInLink.getID())) {
+            zonesInLink = null;
+        }
+        if (outLink != null && linkID.equals(outLink.getID())) {
             outLink = null;
         }
     }
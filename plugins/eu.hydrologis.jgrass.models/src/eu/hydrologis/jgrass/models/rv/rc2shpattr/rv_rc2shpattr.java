@@ -23,6 +23,8 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.geotools.feature.AttributeTypeBuilder;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureCollections;
@@ -163,14 +165,12 @@ public class rv_rc2shpattr extends ModelsBackbone {
 
             RasterData rasterData = null;
             if (rasterLink != null) {
-                IValueSet rasterValueSet = rasterLink.getSourceComponent().getValues(time,
-                        rasterLink.getID());
+                IValueSet rasterValueSet = LinkValueCache.requestValues(rasterLink, time);
                 rasterData = ((JGrassRasterValueSet) rasterValueSet).getJGrassRasterData();
             }
             FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = null;
             if (inShapeLink != null) {
-                IValueSet shapeValueSet = inShapeLink.getSourceComponent().getValues(time,
-                        inShapeLink.getID());
+                IValueSet shapeValueSet = LinkValueCache.requestValues(inShapeLink, time);
                 featureCollection = ((JGrassFeatureValueSet) shapeValueSet).getFeatureCollection();
             }
 
@@ -26,6 +26,8 @@ import java.text.MessageFormat;
 import javax.media.jai.iterator.RandomIterFactory;
 import javax.media.jai.iterator.WritableRandomIter;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureCollections;
@@ -51,6 +53,7 @@ import com.vividsolutions.jts.geom.LineSegment;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
 import eu.hydrologis.jgrass.libs.utils.JGrassUtilities;
+import eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer;
 import eu.hydrologis.libs.openmi.ModelsBackbone;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
@@ -163,7 +166,7 @@ public class v_to_rast extends ModelsBackbone {
 
             FeatureCollection<SimpleFeatureType, SimpleFeature> featureCollection = null;
             if (inShapeLink != null) {
-                IValueSet shapeValueSet = inShapeLink.getSourceComponent().getValues(time, inShapeLink.getID());
+                IValueSet shapeValueSet = LinkValueCache.requestValues(inShapeLink, time);
                 featureCollection = ((JGrassFeatureValueSet) shapeValueSet).getFeatureCollection();
             }
 
@@ -307,8 +310,10 @@ public class v_to_rast extends ModelsBackbone {
         Envelope envelope = activeRegion.getEnvelope();
         FeatureIterator<SimpleFeature> featureIterator = featureCollection.features();
         int index = 1;
+        // all the polygons are rasterized together
+        PolygonRasterizer rasterizer = new PolygonRasterizer(activeRegion);
         while( featureIterator.hasNext() ) {
-            out.println(MessageFormat.format("Rasterizing feature {0} of {1}", index++, num));
+            out.println(MessageFormat.format("Reading feature {0} of {1}", index++, num));
             SimpleFeature feature = featureIterator.next();
             Geometry geometry = (Geometry) feature.getDefaultGeometry();
             if (!envelope.contains(geometry.getEnvelopeInternal())) {
@@ -331,9 +336,11 @@ public class v_to_rast extends ModelsBackbone {
             } catch (NumberFormatException e) {
                 throw new IOException("A problem occurred while choosing the value with which to fill in the raster.");
             }
-            JGrassUtilities.rasterizePolygonGeometry(activeRegion, geometry, outIter, null, fillValue, new NullProgressMonitor());
+            rasterizer.addPolygon(geometry, fillValue);
         }
         featureCollection.close(featureIterator);
+        out.println(MessageFormat.format("Rasterizing {0} features", rasterizer.getFeaturesNum()));
+        rasterizer.rasterize(outIter, null, null, new NullProgressMonitor());
     }
 
     /**
@@ -12,6 +12,7 @@ import javax.media.jai.OperationRegistry;
 import javax.media.jai.RenderedOp;
 import javax.media.jai.registry.RIFRegistry;
 
+import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.operations.jai.UtilityJAI;
 import eu.hydrologis.libs.messages.Messages;
 
@@ -71,6 +72,16 @@ public class HMAspectDescriptor extends OperationDescriptorImpl {
     // memorize if the operation is already registered.
     private static boolean isRegistered = false;
 
+    /**
+     * Creates the operation computing the whole image in the calling thread.
+     * 
+     * @see #create(RenderedImage, double, double, PrintStream, PrintStream, boolean, int)
+     */
+    public static RenderedOp create( RenderedImage elevation, double dx, double dy,
+            PrintStream err, PrintStream out, boolean doTile ) {
+        return create(elevation, dx, dy, err, out, doTile, 1);
+    }
+
     /**
      * This is the <i>factory</i> of the RenderedOp.
      * <p>
@@ -86,10 +97,11 @@ public class HMAspectDescriptor extends OperationDescriptorImpl {
      * @param dx the x resolution.
      * @param dy the y resolution.
      * @param doTile is to set the cobbleSources parameter
+     * @param threads the number of threads computing the image when it is not tiled.
      * @return the image after the operation have worked, the aspect.
      */
     public static RenderedOp create( RenderedImage elevation, double dx,
-            double dy,PrintStream err,PrintStream out, boolean doTile ) {
+            double dy,PrintStream err,PrintStream out, boolean doTile, int threads ) {
         if (!isRegistered) {
             register(OPERATION_NAME, "example"); //$NON-NLS-1$
             isRegistered = true;
@@ -126,6 +138,9 @@ public class HMAspectDescriptor extends OperationDescriptorImpl {
 
         }
         // RenderingHints hints=null;
+        if (threads > 1) {
+            hints.put(JGrassAreaOpImage.KEY_COMPUTING_THREADS, threads);
+        }
         return JAI.create(OPERATION_NAME, parameterBlock, hints);
     }
     /**
@@ -16,7 +16,7 @@ import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.jgrass.models.h.aspect.h_aspect;
 import eu.hydrologis.libs.messages.MessageHelper;
 import eu.hydrologis.libs.messages.Messages;
@@ -70,7 +70,11 @@ public class HMAspectOpImage extends JGrassAreaOpImage {
         // of boundary.
         Rectangle region = new Rectangle(destRect.x + 1, destRect.y + 1, destRect.width - 2,
                 destRect.height - 2);
-        aspect(source.getData(), dest, region);
+        if (isComputingInStripes()) {
+            computeInStripes(source, dest, region);
+        } else {
+            aspect(source.getData(), dest, region);
+        }
     }
 
     @Override
@@ -97,7 +101,7 @@ public class HMAspectOpImage extends JGrassAreaOpImage {
         double aData = 0.0;
         double bData = 0.0;
 
-        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
+        IProgressMonitorJGrass pm = createProgressMonitor();
         pm.beginTask(MessageHelper.WORKING_ON + " h.aspect...", maxNRows - yOrigin);
 
         // Cycling into the valid region.
@@ -16,6 +16,7 @@ import javax.media.jai.RasterFactory;
 import javax.media.jai.RenderedOp;
 import javax.media.jai.registry.RIFRegistry;
 
+import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.operations.jai.UtilityJAI;
 import eu.hydrologis.jgrass.operations.jai.aspect.HMAspectRIF;
 
@@ -77,6 +78,16 @@ public class HMCurvaturesDescriptor extends OperationDescriptorImpl {
     // memorize if the operation is already registered.
     private static boolean isRegistered = false;
 
+    /**
+     * Creates the operation computing the whole image in the calling thread.
+     * 
+     * @see #create(RenderedImage, double, double, PrintStream, PrintStream, boolean, int)
+     */
+    public static RenderedOp create( RenderedImage elevation, double dx, double dy,
+            PrintStream err, PrintStream out, boolean doTile ) {
+        return create(elevation, dx, dy, err, out, doTile, 1);
+    }
+
     /**
      * This is the <i>factory</i> of the RenderedOp.
      * <p>
@@ -88,10 +99,11 @@ public class HMCurvaturesDescriptor extends OperationDescriptorImpl {
      * @param planarImage the source image
      * @param dir
      * @param delta
+     * @param threads the number of threads computing the image when it is not tiled.
      * @return the image after the operation have worked.
      */
     public static RenderedOp create( RenderedImage elevation, double dx, double dy,
-            PrintStream err, PrintStream out, boolean doTile ) {
+            PrintStream err, PrintStream out, boolean doTile, int threads ) {
         if (!isRegistered) {
             register(OPERATION_NAME, "example");
             isRegistered = true;
@@ -112,6 +124,9 @@ public class HMCurvaturesDescriptor extends OperationDescriptorImpl {
         RenderingHints hints = UtilityJAI.getRenderingHintsTailing(wTiling, hTiling, sm);
 
         // RenderingHints hints=null;
+        if (threads > 1) {
+            hints.put(JGrassAreaOpImage.KEY_COMPUTING_THREADS, threads);
+        }
         return JAI.create(OPERATION_NAME, parameterBlock, hints);
     }
     /**
@@ -18,7 +18,7 @@ import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.libs.messages.Messages;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 /**
@@ -85,7 +85,11 @@ public class HMCurvaturesOpImage extends JGrassAreaOpImage {
         // of boundary.
         Rectangle region = new Rectangle(destRect.x + 1, destRect.y + 1, destRect.width - 2,
                 destRect.height - 2);
-        curvatures(source.getData(), dest, region);
+        if (isComputingInStripes()) {
+            computeInStripes(source, dest, region);
+        } else {
+            curvatures(source.getData(), dest, region);
+        }
     }
 
     @Override
@@ -109,7 +113,8 @@ public class HMCurvaturesOpImage extends JGrassAreaOpImage {
 
         // create new matrix
         // first derivative
-        SampleModel sm = curvature.getSampleModel();
+        SampleModel sm = curvature.getSampleModel().createCompatibleSampleModel(destRect.width,
+                destRect.height);
         Point org = new Point(destRect.x, destRect.y);
         WritableRaster sxData = createWritableRaster(sm, org);
         WritableRaster syData = createWritableRaster(sm, org);
@@ -125,7 +130,7 @@ public class HMCurvaturesOpImage extends JGrassAreaOpImage {
 
         /*------------------------------------first derivative ----------------------------------------------*/
 
-        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
+        IProgressMonitorJGrass pm = createProgressMonitor();
         pm.beginTask("Calculating first derivates...", maxNCols - xOrigin);
         // calculate the firs order derivative
         for( int x = xOrigin; x < maxNCols; x++ ) {
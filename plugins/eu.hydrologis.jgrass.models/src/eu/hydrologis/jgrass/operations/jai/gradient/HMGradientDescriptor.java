@@ -29,6 +29,7 @@ import javax.media.jai.OperationRegistry;
 import javax.media.jai.RenderedOp;
 import javax.media.jai.registry.RIFRegistry;
 
+import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.operations.jai.UtilityJAI;
 
 /**
@@ -75,6 +76,16 @@ public class HMGradientDescriptor extends OperationDescriptorImpl {
         super(resources, supportedModes, numSources, paramNames, paramClasses, paramDefaults,
                 validParamValues);
     }
+    /**
+     * Creates the operation computing the whole image in the calling thread.
+     * 
+     * @see #create(RenderedImage, double, double, boolean, PrintStream, PrintStream, int)
+     */
+    public static RenderedOp create( RenderedImage elevation, double dx, double dy, boolean doTile,
+            PrintStream err, PrintStream out ) {
+        return create(elevation, dx, dy, doTile, err, out, 1);
+    }
+
     /**
      * This is the <i>factory</i> of the RenderedOp.
      * <p>
@@ -89,10 +100,11 @@ public class HMGradientDescriptor extends OperationDescriptorImpl {
      * @param dx the resolution in x direction.
      * @param dy the resolution in y direction.
      * @param doTile is the cobbleSource parameter.
+     * @param threads the number of threads computing the image when it is not tiled.
      * @return the image after the operation have worked.
      */
     public static RenderedOp create( RenderedImage elevation, double dx, double dy, boolean doTile,
-            PrintStream err, PrintStream out ) {
+            PrintStream err, PrintStream out, int threads ) {
         if (!isRegistered) {
             register(OPERATIONNAME, "example");
             isRegistered = true;
@@ -124,6 +136,9 @@ public class HMGradientDescriptor extends OperationDescriptorImpl {
         // hints=null;
 
         // RenderingHints hints=null;
+        if (threads > 1) {
+            hints.put(JGrassAreaOpImage.KEY_COMPUTING_THREADS, threads);
+        }
         return JAI.create(OPERATIONNAME, parameterBlock, hints);
     }
     /**
@@ -31,7 +31,7 @@ import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.libs.messages.MessageHelper;
 import eu.hydrologis.libs.messages.Messages;
 import  static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
@@ -92,7 +92,11 @@ public class HMGradientOperation extends JGrassAreaOpImage {
         // of boundary.
         Rectangle region = new Rectangle(destRect.x + 1, destRect.y + 1, destRect.width - 2,
                 destRect.height - 2);
-        gradient(source.getData(), gradientRaster, region);
+        if (isComputingInStripes()) {
+            computeInStripes(source, gradientRaster, region);
+        } else {
+            gradient(source.getData(), gradientRaster, region);
+        }
 
     }
 
@@ -121,7 +125,7 @@ public class HMGradientOperation extends JGrassAreaOpImage {
         int maxNRows = yOrigin + nrows;
         int maxNCols = xOrigin + ncols;
 
-        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
+        IProgressMonitorJGrass pm = createProgressMonitor();
         pm.beginTask(MessageHelper.WORKING_ON + "h.gradients...", maxNRows - yOrigin);
         for( int y = yOrigin; y < maxNRows; y++ ) {
             for( int x = xOrigin; x < maxNCols; x++ ) {
@@ -12,6 +12,7 @@ import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedOp;
 import javax.media.jai.registry.RIFRegistry;
 
+import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.operations.jai.UtilityJAI;
 
 /**
@@ -76,6 +77,16 @@ public class HMSlopeDescriptor extends OperationDescriptorImpl {
     // memorize if the operation is already registered.
     private static boolean isRegistered = false;
 
+    /**
+     * Creates the operation computing the whole image in the calling thread.
+     * 
+     * @see #create(PlanarImage, PlanarImage, PrintStream, PrintStream, boolean, double, double, int)
+     */
+    public static RenderedOp create( PlanarImage elevation, PlanarImage draindir, PrintStream out,
+            PrintStream err, boolean doTile, double dx, double dy ) {
+        return create(elevation, draindir, out, err, doTile, dx, dy, 1);
+    }
+
     /**
      * This is the <i>factory</i> of the RenderedOp.
      * <p>
@@ -87,10 +98,11 @@ public class HMSlopeDescriptor extends OperationDescriptorImpl {
      * @param planarImage the source image
      * @param dir
      * @param delta
+     * @param threads the number of threads computing the image when it is not tiled.
      * @return the image after the operation have worked.
      */
     public static RenderedOp create( PlanarImage elevation, PlanarImage draindir, PrintStream out,
-            PrintStream err, boolean doTile, double dx, double dy ) {
+            PrintStream err, boolean doTile, double dx, double dy, int threads ) {
         if (!isRegistered) {
             register();
             isRegistered = true;
@@ -108,6 +120,9 @@ public class HMSlopeDescriptor extends OperationDescriptorImpl {
         parameterBlock.add(dy);
         RenderingHints hints = UtilityJAI.getRenderingHintsTailing(wTiling, hTiling);
         // RenderingHints hints=null;
+        if (threads > 1) {
+            hints.put(JGrassAreaOpImage.KEY_COMPUTING_THREADS, threads);
+        }
         return JAI.create("SlopeDir", parameterBlock, hints);
     }
 
@@ -15,7 +15,7 @@ import javax.media.jai.PlanarImage;
 
 import eu.hydrologis.jgrass.libs.jai.JGrassAreaOpImage;
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
-import eu.hydrologis.jgrass.libs.utils.monitor.PrintStreamProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
 import eu.hydrologis.libs.messages.MessageHelper;
 import eu.hydrologis.libs.openmi.ModelsConstants;
 
@@ -64,7 +64,11 @@ public class HMSlopeOpImage extends JGrassAreaOpImage {
     @Override
     protected void computeRect( PlanarImage[] sources, WritableRaster dest, Rectangle destRect ) {
         Rectangle region = new Rectangle(destRect.x + 1, destRect.y + 1, destRect.width - 2, destRect.height - 2);
-        slope(sources[0].getData(), dest, region);
+        if (isComputingInStripes()) {
+            computeInStripes(sources[0], dest, region);
+        } else {
+            slope(sources[0].getData(), dest, region);
+        }
     }
 
     @Override
@@ -85,7 +89,10 @@ public class HMSlopeOpImage extends JGrassAreaOpImage {
         // Cycling into the valid region.
 
         Raster pitData = source;
-        Raster dirData = elevation.getData(destRect);
+        Raster dirData;
+        synchronized (elevation) {
+            dirData = elevation.getData(destRect);
+        }
 
         int[] point = new int[2];
 
@@ -104,7 +111,7 @@ public class HMSlopeOpImage extends JGrassAreaOpImage {
         int maxNRows = xOrigin + destRect.width;
         int maxNCols = yOrigin + destRect.height;
 
-        PrintStreamProgressMonitor pm = new PrintStreamProgressMonitor(out);
+        IProgressMonitorJGrass pm = createProgressMonitor();
         pm.beginTask(MessageHelper.WORKING_ON + "h.slope...", maxNRows - xOrigin);
         for( int i = xOrigin; i < maxNRows; i++ ) {
             for( int j = yOrigin; j < maxNCols; j++ ) {
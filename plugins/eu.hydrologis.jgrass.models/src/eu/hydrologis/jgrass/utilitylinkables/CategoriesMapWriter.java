@@ -6,6 +6,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
@@ -85,7 +87,7 @@ public class CategoriesMapWriter extends ModelsBackbone {
             err.println("An error occurred while linking the models.");
             return null;
         } else {
-            IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+            IValueSet valueSet = LinkValueCache.requestValues(inputLink, time);
             // writes categories
             try {
                 out.println("Writing categories for map: " + catsFileName);
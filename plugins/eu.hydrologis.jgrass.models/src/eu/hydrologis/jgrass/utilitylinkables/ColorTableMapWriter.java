@@ -29,6 +29,8 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IElementSet;
 import org.openmi.standard.IInputExchangeItem;
@@ -108,7 +110,7 @@ public class ColorTableMapWriter extends ModelsBackbone {
             err.println("Color table not set.");
             return null;
         } else {
-            IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+            IValueSet valueSet = LinkValueCache.requestValues(inputLink, time);
             // writes color table
             try {
                 out.println("Writing colors table");
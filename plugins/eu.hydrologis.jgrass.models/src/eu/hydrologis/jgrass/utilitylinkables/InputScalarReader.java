@@ -37,6 +37,7 @@ import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIOException;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.openmi.DoubleScalarSet;
 
 /**
  * A {@link LinkableComponent linkable component} that reads scalar values from file.
@@ -70,7 +71,7 @@ public class InputScalarReader extends ModelsBackbone {
 
     private File file;
 
-    private ScalarSet valueSet;
+    private DoubleScalarSet valueSet;
 
     public InputScalarReader() {
         super();
@@ -109,7 +110,7 @@ public class InputScalarReader extends ModelsBackbone {
          * this is read just once
          */
         if (valueSet == null) {
-            valueSet = new ScalarSet();
+            valueSet = new DoubleScalarSet();
             try {
                 boolean isFirst = true;
                 BufferedReader bR = new BufferedReader(new FileReader(file));
@@ -117,11 +118,11 @@ public class InputScalarReader extends ModelsBackbone {
                 while( (line = bR.readLine()) != null ) {
                     String[] splitLine = line.split("\\s+"); //$NON-NLS-1$
                     if (isFirst) {
-                        valueSet.add((double) splitLine.length);
+                        valueSet.addScalar(splitLine.length);
                         isFirst = false;
                     }
                     for( String numStr : splitLine ) {
-                        valueSet.add(new Double(numStr));
+                        valueSet.addScalar(Double.parseDouble(numStr));
                     }
                 }
                 bR.close();
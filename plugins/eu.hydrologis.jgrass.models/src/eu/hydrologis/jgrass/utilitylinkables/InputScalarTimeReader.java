@@ -38,6 +38,7 @@ import eu.hydrologis.libs.openmi.ModelsConstants;
 import eu.hydrologis.libs.openmi.ModelsIOException;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.openmi.DoubleScalarSet;
 
 /**
  * A {@link LinkableComponent linkable component} that reads scalar values from file.
@@ -115,7 +116,7 @@ public class InputScalarTimeReader extends ModelsBackbone {
     }
 
     public IValueSet safeGetValues( ITime time, String linkID ) throws Exception {
-        ScalarSet valueSet = new ScalarSet();
+        DoubleScalarSet valueSet = new DoubleScalarSet();
         if (time == null) {
             throw new ModelsIllegalargumentException("This reader is supposed to work with time. "
                     + "Maybe you want to use --iscalar instead of --itscalar?", this);
@@ -127,11 +128,11 @@ public class InputScalarTimeReader extends ModelsBackbone {
         if ((line = fileReader.readLine()) != null) {
             String[] splitLine = line.split("\\s+"); //$NON-NLS-1$
             if (isFirst) {
-                valueSet.add((double) splitLine.length);
+                valueSet.addScalar(splitLine.length);
                 isFirst = false;
             }
             for( String numStr : splitLine ) {
-                valueSet.add(new Double(numStr));
+                valueSet.addScalar(Double.parseDouble(numStr));
             }
         } else {
             throw new ModelsIOException("No more data available in the given file.", this);
@@ -25,6 +25,7 @@ import java.util.Date;
 import java.util.List;
 
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.GridLayout;
@@ -194,7 +195,7 @@ public class OutputChartWriter extends ModelsBackbone {
         /*
          * trigger the linked model
          */
-        IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(inputLink, time);
 
         if (valueSet instanceof ScalarSet && time == null && !chartType.equals(DISCHARGERAIN)) {
             // NO TIME DEPENDENCY
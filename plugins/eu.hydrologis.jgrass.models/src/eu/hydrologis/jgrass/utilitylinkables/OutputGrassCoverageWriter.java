@@ -33,6 +33,7 @@ import net.refractions.udig.catalog.IGeoResource;
 import net.refractions.udig.project.IMap;
 import net.refractions.udig.project.ui.ApplicationGIS;
 import nl.alterra.openmi.sdk.backbone.LinkableComponent;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
@@ -210,7 +211,7 @@ public class OutputGrassCoverageWriter extends ModelsBackbone {
         /*
          * trigger the linked model
          */
-        IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(inputLink, time);
         GridCoverage2D gridCoverage2D = ((JGrassGridCoverageValueSet) valueSet).getGridCoverage2D();
 
         /*
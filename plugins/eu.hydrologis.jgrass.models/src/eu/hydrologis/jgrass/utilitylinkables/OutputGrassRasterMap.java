@@ -32,6 +32,8 @@ import net.refractions.udig.catalog.IGeoResource;
 import net.refractions.udig.project.IMap;
 import net.refractions.udig.project.ui.ApplicationGIS;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
@@ -171,7 +173,7 @@ public class OutputGrassRasterMap extends ModelsBackbone {
         /*
          * trigger the linked model
          */
-        IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(inputLink, time);
 
         if (valueSet == null) {
             out.println("ograss warning: ignoring null value passed.");
@@ -30,6 +30,8 @@ import java.text.SimpleDateFormat;
 import net.refractions.udig.project.IMap;
 import net.refractions.udig.project.ui.ApplicationGIS;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.eclipse.core.runtime.NullProgressMonitor;
 import org.geotools.feature.FeatureCollection;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
@@ -105,7 +107,7 @@ public class OutputShapeWriter extends ModelsBackbone {
         /*
          * trigger the linked model
          */
-        IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(inputLink, time);
 
         if (valueSet == null) {
             throw new ModelsIllegalargumentException(
@@ -22,6 +22,7 @@ import java.io.PrintStream;
 import java.text.MessageFormat;
 
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
@@ -90,7 +91,7 @@ public class OutputStringWriter extends ModelsBackbone {
     }
 
     public IValueSet safeGetValues( ITime time, String linkID ) throws Exception {
-        IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(inputLink, time);
         if (file != null) {
             out = new PrintStream(file);
         }
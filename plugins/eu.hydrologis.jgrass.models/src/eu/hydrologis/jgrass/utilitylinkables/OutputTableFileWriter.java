@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 
 import nl.alterra.openmi.sdk.backbone.ValueSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.eclipse.jface.viewers.ArrayContentProvider;
 import org.eclipse.jface.viewers.ColumnWeightData;
@@ -127,7 +128,7 @@ public class OutputTableFileWriter extends ModelsBackbone {
         /*
          * trigger the linked model
          */
-        IValueSet valueSet = inputLink.getSourceComponent().getValues(time, inputLink.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(inputLink, time);
 
         if (valueSet instanceof ValueSet) {
 
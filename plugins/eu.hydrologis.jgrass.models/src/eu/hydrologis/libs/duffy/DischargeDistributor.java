@@ -17,6 +17,9 @@
  */
 package eu.hydrologis.libs.duffy;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 
 /**
@@ -69,6 +72,19 @@ public abstract class DischargeDistributor {
         superficialDischargeArray = new double[(int) intervals];
     }
 
+    /**
+     * Creates a copy of a discharge distributor, see {@link #copy()}.
+     * 
+     * @param distributor the distributor to copy.
+     */
+    protected DischargeDistributor( DischargeDistributor distributor ) {
+        this.startDateMillis = distributor.startDateMillis;
+        this.timeStepMillis = distributor.timeStepMillis;
+        this.parameters = distributor.parameters;
+        subSuperficialDischargeArray = distributor.subSuperficialDischargeArray.clone();
+        superficialDischargeArray = distributor.superficialDischargeArray.clone();
+    }
+
     /**
      * Creates a {@link DischargeDistributor discharge distributor}.
      * 
@@ -165,6 +181,91 @@ public abstract class DischargeDistributor {
         return subSuperficialDischargeArray[indexFromTimeInMillis(timeInMillis)];
     }
 
+    /**
+     * Creates a copy of the distributor, to run more simulations from the same state.
+     * 
+     * <p>
+     * The copy holds the discharges distributed so far in its own arrays, while the distribution
+     * curves, which don't change during the simulation, are shared with this distributor.
+     * </p>
+     * 
+     * @return the copy of the distributor.
+     */
+    public abstract DischargeDistributor copy();
+
+    /**
+     * Writes the discharges distributed so far, to be able to restart the simulation from the
+     * current time.
+     * 
+     * @param out the stream to write to.
+     * @throws IOException
+     */
+    public void writeState( DataOutput out ) throws IOException {
+        writeArray(out, superficialDischargeArray);
+        writeArray(out, subSuperficialDischargeArray);
+    }
+
+    /**
+     * Reads the discharges distributed so far, as written by {@link #writeState(DataOutput)}.
+     * 
+     * <p>
+     * The distributor has to be created for the same time horizont as the one the state was
+     * written by.
+     * </p>
+     * 
+     * @param in the stream to read from.
+     * @throws IOException if reading fails or the state refers to a different time horizont.
+     */
+    public void readState( DataInput in ) throws IOException {
+        double[] superficial = readArray(in);
+        double[] subSuperficial = readArray(in);
+        if (superficial == null || subSuperficial == null
+                || superficial.length != superficialDischargeArray.length
+                || subSuperficial.length != subSuperficialDischargeArray.length) {
+            throw new IOException(
+                    "The discharge distributor state was written for a different time horizont.");
+        }
+        superficialDischargeArray = superficial;
+        subSuperficialDischargeArray = subSuperficial;
+    }
+
+    /**
+     * Writes an array, that can be null, with its length.
+     * 
+     * @param out the stream to write to.
+     * @param array the array to write.
+     * @throws IOException
+     */
+    protected static void writeArray( DataOutput out, double[] array ) throws IOException {
+        if (array == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(array.length);
+        for( int i = 0; i < array.length; i++ ) {
+            out.writeDouble(array[i]);
+        }
+    }
+
+    /**
+     * Reads an array written by {@link #writeArray(DataOutput, double[])}.
+     * 
+     * @param in the stream to read from.
+     * @return the array read, or null if a null array was written.
+     * @throws IOException
+     */
+    protected static double[] readArray( DataInput in ) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        double[] array = new double[length];
+        for( int i = 0; i < length; i++ ) {
+            array[i] = in.readDouble();
+        }
+        return array;
+    }
+
     /**
      * Get the discharge array index for the current time.
      * 
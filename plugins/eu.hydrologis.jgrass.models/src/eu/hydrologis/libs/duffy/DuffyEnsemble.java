@@ -0,0 +1,269 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.libs.duffy;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
+import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
+
+/**
+ * An ensemble of simulations of the {@link DuffyModel duffy model} with perturbed rain and
+ * parameters.
+ *
+ * <p>
+ * The members share the network and the parameters of the hillslopes of the model they are
+ * created from, each one keeping only its state: the discharges and storages of the hillslopes,
+ * the discharges distributed in time and the integrator workspace. The first member is the
+ * control run, with the rain and the parameters of the model, the others have the hydraulic
+ * conductivity and the recession parameter of all the hillslopes multiplied by a factor drawn
+ * once, and the rain of every time step multiplied by a factor drawn every time step. The
+ * factors are lognormal with mean 1. Every member has its own random generator, seeded from the
+ * seed of the ensemble and the member number, so that a run gives the same results whatever the
+ * number of threads.
+ * </p>
+ * <p>
+ * The discharges at the output hillslopes can be written after every time step to a
+ * {@link DataOutput}, in columns of one output hillslope and all the members:
+ * <ul>
+ * <li>the number of members (int) and of output hillslopes (int)</li>
+ * <li>the indexes of the output hillslopes (int)</li>
+ * <li>for every time step the time in minutes (double), followed for every output hillslope by
+ * the discharge of every member (float)</li>
+ * </ul>
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class DuffyEnsemble {
+
+    /**
+     * The state of a member.
+     */
+    private static class Member {
+        private final DuffyModel model;
+        private final RungeKuttaFelberg rungeKutta;
+        private final Random random;
+        private final double[] rainArray;
+        private double[] conditions;
+
+        private Member( DuffyModel model, RungeKuttaFelberg rungeKutta, Random random,
+                double[] conditions ) {
+            this.model = model;
+            this.rungeKutta = rungeKutta;
+            this.random = random;
+            this.conditions = conditions;
+            rainArray = new double[conditions.length / 4];
+        }
+    }
+
+    private final Member[] members;
+    private final int[] outputIndexes;
+    private final int linksNum;
+    private final double rainSd;
+
+    private int threads = ParallelUtilities.getAvailableProcessors();
+    private ExecutorService pool = null;
+    private DataOutput output = null;
+
+    /**
+     * Creates the ensemble.
+     *
+     * @param model the model to share the network with. Its discharge distributors and
+     *        contributors have to be added already, the members start from the state of the
+     *        distributors.
+     * @param initialConditions the initial conditions of all the members.
+     * @param membersNum the number of members, the control run included.
+     * @param outputIndexes the indexes of the hillslopes the discharges are written for.
+     * @param rainSd the standard deviation of the logarithm of the rain factors.
+     * @param parameterSd the standard deviation of the logarithm of the parameter factors.
+     * @param seed the seed of the random factors.
+     * @param out the stream to log to.
+     * @param doLog whether the integrators log.
+     */
+    public DuffyEnsemble( DuffyModel model, double[] initialConditions, int membersNum,
+            int[] outputIndexes, double rainSd, double parameterSd, long seed, PrintStream out,
+            boolean doLog ) {
+        if (membersNum < 1) {
+            throw new ModelsIllegalargumentException(
+                    "The ensemble needs at least one member.", this); //$NON-NLS-1$
+        }
+        this.outputIndexes = outputIndexes;
+        this.rainSd = rainSd;
+        linksNum = initialConditions.length / 4;
+
+        members = new Member[membersNum];
+        for( int m = 0; m < membersNum; m++ ) {
+            Random random = new Random(seed + m);
+            double ksFactor = 1.0;
+            double recParamFactor = 1.0;
+            if (m > 0) {
+                ksFactor = lognormalFactor(random, parameterSd);
+                recParamFactor = lognormalFactor(random, parameterSd);
+            }
+            DuffyModel memberModel = new DuffyModel(model, ksFactor, recParamFactor);
+            RungeKuttaFelberg rungeKutta = new RungeKuttaFelberg(memberModel, 1e-2, 10 / 60.,
+                    out, doLog);
+            members[m] = new Member(memberModel, rungeKutta, random, initialConditions.clone());
+        }
+    }
+
+    /**
+     * @return a factor with lognormal distribution and mean 1.
+     */
+    private static double lognormalFactor( Random random, double sd ) {
+        if (sd <= 0.0) {
+            return 1.0;
+        }
+        return Math.exp(sd * random.nextGaussian() - 0.5 * sd * sd);
+    }
+
+    /**
+     * Sets the number of threads the members are run on.
+     *
+     * @param threads the number of threads, 1 to run the members in the calling thread. The
+     *        default is the number of available processors.
+     */
+    public synchronized void setThreads( int threads ) {
+        dispose();
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets the output the discharges are written to and writes its header.
+     *
+     * @param output the output, not closed by the ensemble.
+     * @throws IOException
+     */
+    public void setOutput( DataOutput output ) throws IOException {
+        this.output = output;
+        output.writeInt(members.length);
+        output.writeInt(outputIndexes.length);
+        for( int index : outputIndexes ) {
+            output.writeInt(index);
+        }
+    }
+
+    /**
+     * Solves all the members over a time step, see
+     * {@link RungeKuttaFelberg#solve(double, double, double, double[], double[], double[], double[], double[], double[], double[], double[], double[])}
+     * .
+     *
+     * <p>
+     * The arrays of the forcings are only read, every member perturbs the rain in its own array.
+     * </p>
+     *
+     * @throws Exception
+     */
+    public void solve( final double intervalStartTimeInMinutes,
+            final double intervalEndTimeInMinutes, final double[] rainArray,
+            final double[] radiationArray, final double[] netshortArray,
+            final double[] temperatureArray, final double[] humidityArray,
+            final double[] windspeedArray, final double[] pressureArray,
+            final double[] snowWaterEquivalentArray ) throws Exception {
+        RangeTask task = new RangeTask(){
+            public void run( int start, int end ) throws Exception {
+                for( int m = start; m < end; m++ ) {
+                    Member member = members[m];
+                    double rainFactor = 1.0;
+                    if (m > 0) {
+                        rainFactor = lognormalFactor(member.random, rainSd);
+                    }
+                    for( int i = 0; i < member.rainArray.length; i++ ) {
+                        member.rainArray[i] = rainFactor * rainArray[i];
+                    }
+                    member.rungeKutta.solve(intervalStartTimeInMinutes,
+                            intervalEndTimeInMinutes, 1, member.conditions, member.rainArray,
+                            radiationArray, netshortArray, temperatureArray, humidityArray,
+                            windspeedArray, pressureArray, snowWaterEquivalentArray);
+                    member.conditions = member.rungeKutta.getFinalCond();
+                    member.rungeKutta.setBasicTimeStep(10 / 60.);
+                }
+            }
+        };
+        runInPool(task);
+
+        if (output != null) {
+            output.writeDouble(intervalEndTimeInMinutes);
+            for( int index : outputIndexes ) {
+                for( Member member : members ) {
+                    output.writeFloat((float) (member.conditions[index] + member.conditions[index
+                            + linksNum]));
+                }
+            }
+        }
+    }
+
+    private synchronized void runInPool( RangeTask task ) throws Exception {
+        if (threads > 1 && members.length > 1 && pool == null) {
+            pool = ParallelUtilities.newFixedThreadPool(threads);
+        }
+        if (pool == null) {
+            task.run(0, members.length);
+        } else {
+            ParallelUtilities.runInChunks(pool, 0, members.length, threads, task);
+        }
+    }
+
+    /**
+     * @return the number of members, the control run included.
+     */
+    public int getMembersNum() {
+        return members.length;
+    }
+
+    /**
+     * Gets the discharges of a hillslope in all the members.
+     *
+     * @param index the index of the hillslope.
+     * @param discharges the array to put the discharges of the members in.
+     */
+    public void getDischarges( int index, double[] discharges ) {
+        for( int m = 0; m < members.length; m++ ) {
+            discharges[m] = members[m].conditions[index] + members[m].conditions[index + linksNum];
+        }
+    }
+
+    /**
+     * @param member the number of the member.
+     * @return the discharges and storages of the hillslopes of the member, in the same order as
+     *         the initial conditions. The array is reused by the following time steps.
+     */
+    public double[] getConditions( int member ) {
+        return members[member].conditions;
+    }
+
+    /**
+     * Stops the threads used to run the members, if any.
+     */
+    public synchronized void dispose() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        for( Member member : members ) {
+            member.model.dispose();
+        }
+    }
+
+}
@@ -32,11 +32,13 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
 import eu.hydrologis.libs.adige.DischargeContributor;
 import eu.hydrologis.libs.adige.HillSlope;
-import eu.hydrologis.libs.adige.PfafstetterNumber;
 import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
 
 /**
@@ -46,16 +48,17 @@ import eu.hydrologis.libs.openmi.ModelsIllegalargumentException;
  * used to simulate flows along the river network. The function is writen as a
  * {@link IBasicFunction.util.ordDiffEqSolver.BasicFunction} that is used by the
  * {@link hydroScalingAPI.util.ordDiffEqSolver.RungeKuttaFelberg}
+ * <p>
+ * The parameters and the connections of the hillslopes are read once at construction and kept
+ * in arrays indexed as the ordered hillslopes. The hillslopes are evaluated by network level, a
+ * level holding the hillslopes whose upstream hillslopes are all in the previous levels, so that
+ * the hillslopes of a level can be evaluated concurrently.
+ * </p>
  * 
  * @author Peter Furey
  */
 public class DuffyModel implements IBasicFunction {
     private Calendar myCalendar = Calendar.getInstance();
-    private double qd, qs, Q_trib, Qs_trib, K_Q;
-    private double flowdepth, hydrad, mannings_n;
-    // public double pcoe;
-
-    private double satsurf, mst, qdh, qds, inf, re, qe1, qe2;
 
     private double THRESHOLD_AREA = 500000; // 0.1Km2
     /*
@@ -65,6 +68,10 @@ public class DuffyModel implements IBasicFunction {
     public static final int ROUTING_CHEZY = 3;
     public static final int ROUTING_MANNING = 4;
     private static final double MSTMAX = 1;
+    /**
+     * The number of hillslopes of a level under which they are evaluated in the calling thread.
+     */
+    private static final int MIN_PARALLEL_HILLSLOPES = 64;
     private int routingType = ROUTING_CHEZY;
     private List<HillSlope> orderedHillslopes = null;
     private boolean doLog = false;
@@ -72,9 +79,58 @@ public class DuffyModel implements IBasicFunction {
 
     private boolean doPrint = false;
     private List<DischargeContributor> dischargeContributorList = new ArrayList<DischargeContributor>();
-    private HashMap<Integer, DischargeDistributor> hillslopeId2DischargeDistributor;
+    private DischargeContributor[] dischargeContributors = new DischargeContributor[0];
+    private DischargeDistributor[] dischargeDistributors;
     private final double deltaTinMinutes;
 
+    /*
+     * the parameters of the hillslopes
+     */
+    private final int linksNum;
+    private final HillSlope[] hillslopes;
+    private final double[] areas;
+    private final double[] minSupDischarges;
+    private final double[] minSubDischarges;
+    private final double[] s1residuals;
+    private final double[] s2residuals;
+    private final double[] s2Params;
+    private final double[] s2maxs;
+    private final double[] kss;
+    private final double[] etRates;
+    private final double[] mstExps;
+    private final double[] recParams;
+    private final boolean[] vegetation;
+    private final double[] linkWidths;
+    /*
+     * the powers of the link properties used by the routing
+     */
+    private final double[] powLinkWidths;
+    private final double[] powLinkLengths;
+    private final double[] powLinkSlopes;
+    private final double[] powLinkChezys;
+
+    /**
+     * The upstream hillslopes of the hillslope i are the ones from upstreamStart[i] (inclusive) to
+     * upstreamStart[i + 1] (exclusive) in {@link #upstreamIndexes}.
+     */
+    private final int[] upstreamStart;
+    private final int[] upstreamIndexes;
+    private final String[] upstreamPfafstetterNumbers;
+
+    /**
+     * The hillslopes of the level l are the ones from levelStart[l] (inclusive) to
+     * levelStart[l + 1] (exclusive) in {@link #levelHillslopes}. Null if the order of the
+     * hillslopes doesn't have the upstream ones after the downstream ones, in which case they are
+     * evaluated one after the other.
+     */
+    private int[] levelStart;
+    private int[] levelHillslopes;
+
+    private int threads = ParallelUtilities.getAvailableProcessors();
+    private ExecutorService pool = null;
+    /** whether the fluxes of the hillslopes are printed at the end of every time step */
+    private final boolean printFluxes;
+
     /**
      * Duffy model function.
      * 
@@ -96,7 +152,234 @@ public class DuffyModel implements IBasicFunction {
         this.out = out;
         this.deltaTinMinutes = deltaTinMinutes;
         this.doLog = doLog;
+        printFluxes = true;
+
+        linksNum = orderedHillslopes.size();
+        hillslopes = orderedHillslopes.toArray(new HillSlope[linksNum]);
+        areas = new double[linksNum];
+        minSupDischarges = new double[linksNum];
+        minSubDischarges = new double[linksNum];
+        s1residuals = new double[linksNum];
+        s2residuals = new double[linksNum];
+        s2Params = new double[linksNum];
+        s2maxs = new double[linksNum];
+        kss = new double[linksNum];
+        etRates = new double[linksNum];
+        mstExps = new double[linksNum];
+        recParams = new double[linksNum];
+        vegetation = new boolean[linksNum];
+        linkWidths = new double[linksNum];
+        powLinkWidths = new double[linksNum];
+        powLinkLengths = new double[linksNum];
+        powLinkSlopes = new double[linksNum];
+        powLinkChezys = new double[linksNum];
+        upstreamStart = new int[linksNum + 1];
+
+        double chezLawExpon = -1. / 3.;
+        double chezLawCoeff = 200. / Math.pow(0.000357911, chezLawExpon);
+        HashMap<HillSlope, Integer> hillslope2Index = new HashMap<HillSlope, Integer>();
+        for( int i = linksNum - 1; i >= 0; i-- ) {
+            // the first one, if a hillslope is listed more than once
+            hillslope2Index.put(hillslopes[i], i);
+        }
+        List<Integer> upstreamList = new ArrayList<Integer>();
+        for( int i = 0; i < linksNum; i++ ) {
+            HillSlope hillSlope = hillslopes[i];
+            HillSlope.Parameters parameters = hillSlope.parameters;
+            areas[i] = hillSlope.getHillslopeArea();
+            minSupDischarges[i] = parameters.getqqsupmin() * hillSlope.getUpstreamArea(null) / 1E6;
+            minSubDischarges[i] = parameters.getqqsubmin() * hillSlope.getUpstreamArea(null) / 1E6;
+            s1residuals[i] = parameters.getS1residual();
+            s2residuals[i] = parameters.getS2residual();
+            s2Params[i] = parameters.getS2Param();
+            s2maxs[i] = parameters.getS2max();
+            kss[i] = parameters.getKs();
+            etRates[i] = parameters.getETrate();
+            mstExps[i] = parameters.getMstExp();
+            recParams[i] = parameters.getRecParam();
+            vegetation[i] = hillSlope.hasVegetation();
+
+            double linkWidth = hillSlope.getLinkWidth(8.66, 0.6, 0.0);
+            double linkLength = hillSlope.getLinkLength();
+            double linkSlope = hillSlope.getLinkSlope();
+            double linkChezy = hillSlope.getLinkChezi(chezLawCoeff, chezLawExpon);
+            linkWidths[i] = linkWidth;
+            powLinkLengths[i] = Math.pow(linkLength, -1);
+            powLinkChezys[i] = Math.pow(linkChezy, 2. / 3.);
+            switch( routingType ) {
+            case 2:
+                powLinkWidths[i] = Math.pow(linkWidth, -1 / 3.);
+                powLinkSlopes[i] = Math.pow(linkSlope, 2 / 9.);
+                break;
+            case 3:
+                powLinkWidths[i] = Math.pow(linkWidth, -1. / 3.);
+                powLinkSlopes[i] = Math.pow(linkSlope, 1. / 3.);
+                break;
+            case 4:
+                powLinkSlopes[i] = Math.pow(linkSlope, 1 / 2.);
+                break;
+            }
+
+            upstreamStart[i] = upstreamList.size();
+            List<HillSlope> connectedUpstreamHillSlopes = hillSlope.getConnectedUpstreamElements();
+            if (connectedUpstreamHillSlopes != null) {
+                for( HillSlope upstreamHillSlope : connectedUpstreamHillSlopes ) {
+                    Integer index = hillslope2Index.get(upstreamHillSlope);
+                    if (index == null) {
+                        throw new ModelsIllegalargumentException("The hillslope "
+                                + upstreamHillSlope.getHillslopeId()
+                                + " upstream of the hillslope " + hillSlope.getHillslopeId()
+                                + " is not part of the network.", this);
+                    }
+                    upstreamList.add(index);
+                }
+            }
+        }
+        upstreamStart[linksNum] = upstreamList.size();
+        upstreamIndexes = new int[upstreamList.size()];
+        upstreamPfafstetterNumbers = new String[upstreamList.size()];
+        for( int j = 0; j < upstreamIndexes.length; j++ ) {
+            upstreamIndexes[j] = upstreamList.get(j);
+            upstreamPfafstetterNumbers[j] = hillslopes[upstreamIndexes[j]].getPfafstetterNumber()
+                    .toString();
+        }
+
+        createLevels();
+    }
+
+    /**
+     * Creates a model sharing the network, the parameters of the hillslopes and the discharge
+     * contributors with a given model, to run a member of an ensemble.
+     * 
+     * <p>
+     * The new model has its own copy of the discharge distributors of the given one, so the
+     * distributors have to be added to the given model before, and evaluates the hillslopes in
+     * the calling thread, since the members are supposed to run concurrently. The fluxes of the
+     * hillslopes are not printed.
+     * </p>
+     * 
+     * @param model the model to share the network with.
+     * @param ksFactor the factor the hydraulic conductivity of the hillslopes is multiplied by.
+     * @param recParamFactor the factor the recession parameter of the hillslopes is multiplied
+     *        by.
+     */
+    public DuffyModel( DuffyModel model, double ksFactor, double recParamFactor ) {
+        orderedHillslopes = model.orderedHillslopes;
+        routingType = model.routingType;
+        out = model.out;
+        deltaTinMinutes = model.deltaTinMinutes;
+        doLog = model.doLog;
+        printFluxes = false;
+        threads = 1;
+
+        linksNum = model.linksNum;
+        hillslopes = model.hillslopes;
+        areas = model.areas;
+        minSupDischarges = model.minSupDischarges;
+        minSubDischarges = model.minSubDischarges;
+        s1residuals = model.s1residuals;
+        s2residuals = model.s2residuals;
+        s2Params = model.s2Params;
+        s2maxs = model.s2maxs;
+        kss = scale(model.kss, ksFactor);
+        etRates = model.etRates;
+        mstExps = model.mstExps;
+        recParams = scale(model.recParams, recParamFactor);
+        vegetation = model.vegetation;
+        linkWidths = model.linkWidths;
+        powLinkWidths = model.powLinkWidths;
+        powLinkLengths = model.powLinkLengths;
+        powLinkSlopes = model.powLinkSlopes;
+        powLinkChezys = model.powLinkChezys;
+        upstreamStart = model.upstreamStart;
+        upstreamIndexes = model.upstreamIndexes;
+        upstreamPfafstetterNumbers = model.upstreamPfafstetterNumbers;
+        levelStart = model.levelStart;
+        levelHillslopes = model.levelHillslopes;
+
+        dischargeContributorList.addAll(model.dischargeContributorList);
+        dischargeContributors = model.dischargeContributors;
+        if (model.dischargeDistributors != null) {
+            dischargeDistributors = new DischargeDistributor[linksNum];
+            for( int i = 0; i < linksNum; i++ ) {
+                DischargeDistributor distributor = model.dischargeDistributors[i];
+                if (distributor != null) {
+                    dischargeDistributors[i] = distributor.copy();
+                }
+            }
+        }
+    }
+
+    private static double[] scale( double[] values, double factor ) {
+        if (factor == 1.0) {
+            return values;
+        }
+        double[] scaled = new double[values.length];
+        for( int i = 0; i < values.length; i++ ) {
+            scaled[i] = factor * values[i];
+        }
+        return scaled;
+    }
+
+    /**
+     * Groups the hillslopes by network level, the first level holding the ones without upstream
+     * hillslopes.
+     * <p>
+     * The hillslopes are evaluated from the last, which clamps the input of the upstream
+     * hillslopes before the downstream ones read it. The levels keep that, but only if all the
+     * upstream hillslopes come after the downstream ones, else the levels are not used.
+     * </p>
+     */
+    private void createLevels() {
+        int[] levels = new int[linksNum];
+        int levelsNum = 0;
+        for( int i = linksNum - 1; i >= 0; i-- ) {
+            int level = 0;
+            for( int j = upstreamStart[i]; j < upstreamStart[i + 1]; j++ ) {
+                int upstreamIndex = upstreamIndexes[j];
+                if (upstreamIndex <= i) {
+                    return;
+                }
+                level = Math.max(level, levels[upstreamIndex] + 1);
+            }
+            levels[i] = level;
+            levelsNum = Math.max(levelsNum, level + 1);
+        }
+
+        levelStart = new int[levelsNum + 1];
+        for( int i = 0; i < linksNum; i++ ) {
+            levelStart[levels[i] + 1]++;
+        }
+        for( int l = 0; l < levelsNum; l++ ) {
+            levelStart[l + 1] += levelStart[l];
+        }
+        levelHillslopes = new int[linksNum];
+        int[] position = new int[levelsNum];
+        System.arraycopy(levelStart, 0, position, 0, levelsNum);
+        for( int i = linksNum - 1; i >= 0; i-- ) {
+            levelHillslopes[position[levels[i]]++] = i;
+        }
+    }
 
+    /**
+     * Sets the number of threads used to evaluate the hillslopes of a network level.
+     * 
+     * @param threads the number of threads, 1 to evaluate the hillslopes in the calling thread.
+     *        The default is the number of available processors.
+     */
+    public synchronized void setThreads( int threads ) {
+        dispose();
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Stops the threads used to evaluate the hillslopes, if any.
+     */
+    public synchronized void dispose() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
     }
 
     /**
@@ -136,346 +419,316 @@ public class DuffyModel implements IBasicFunction {
             double[] radiationArray, double[] netshortArray, double[] temperatureArray,
             double[] humidityArray, double[] windspeedArray, double[] pressureArray,
             double[] snowWaterEquivalentArray, boolean isAtFinalSubtimestep ) {
-        // the input's length is twice the number of links... the first half
-        // corresponds to links
-        // discharge and the second to hillslopes storage
-        // System.out.println(input.length);
+        double[] output = new double[input.length];
+        eval(currentTimeInMinutes, input, rainArray, radiationArray, netshortArray,
+                temperatureArray, humidityArray, windspeedArray, pressureArray,
+                snowWaterEquivalentArray, isAtFinalSubtimestep, output);
+        return output;
+    }
+
+    public void eval( final double currentTimeInMinutes, final double[] input,
+            final double[] rainArray, final double[] radiationArray, final double[] netshortArray,
+            final double[] temperatureArray, final double[] humidityArray,
+            final double[] windspeedArray, final double[] pressureArray,
+            final double[] snowWaterEquivalentArray, final boolean isAtFinalSubtimestep,
+            final double[] output ) {
+        // the input's length is four times the number of links... the first quarter
+        // corresponds to links discharge, the others to the baseflow and the hillslopes storages
 
         // define the month
-        long currentTimeInMillis = (long) (currentTimeInMinutes * 60.0 * 1000.0);
+        final long currentTimeInMillis = (long) (currentTimeInMinutes * 60.0 * 1000.0);
         myCalendar.setTimeInMillis(currentTimeInMillis);
-        int currentMonth = myCalendar.get(Calendar.MONTH) + 1; // jan=1, dec=12
-
-        int linksNum = orderedHillslopes.size(); // linksConectionStruct.headsArray.length;
-        // double mstold = 0.0;
-
-        double[] output = new double[input.length];
+        final int currentMonth = myCalendar.get(Calendar.MONTH) + 1; // jan=1, dec=12
 
-        for( int i = linksNum - 1; i >= 0; i-- ) {
+        if (levelHillslopes == null) {
             // start from the last pieces
-            HillSlope currentHillslope = orderedHillslopes.get(i);
-            /*
-             * NOTE: Initial conditions are ... input[i] for link discharge
-             * input[i+nLi] for link base flow input[i+2*nLi] for unsaturated
-             * hillslope S1 input[i+3*nLi] for saturated hillslope S2 . input[]
-             * is updated for each time step in DiffEqSolver.RKF .
-             */
-
-            double prec_mphr = rainArray[i] / 1000.0; // input precipitation is in mm/h
-
-            double area_m2 = currentHillslope.getHillslopeArea();
-            // automatically in m2 from the features
-            /*
-             * Added some check for phisic consistency of the parameters
-             */
-            if (input[i + 3 * linksNum] != input[i + 3 * linksNum]) {
-                System.out.println();
-            }
-            double minsupdischarge = currentHillslope.parameters.getqqsupmin()
-                    * currentHillslope.getUpstreamArea(null) / 1E6;
-            if (input[i] < minsupdischarge) {
-                input[i] = minsupdischarge;
-                // System.out
-                // .println(
-                // "Current superficial discharge is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
-            }
-            double minsubdischarge = currentHillslope.parameters.getqqsubmin()
-                    * currentHillslope.getUpstreamArea(null) / 1E6;
-            if (input[i + linksNum] < minsubdischarge) {
-                input[i + linksNum] = minsubdischarge;
-                // System.out
-                // .println(
-                // "Current subsuperficial discharge is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
+            for( int i = linksNum - 1; i >= 0; i-- ) {
+                evalHillslope(i, currentTimeInMinutes, currentTimeInMillis, currentMonth, input,
+                        rainArray, radiationArray, netshortArray, temperatureArray,
+                        humidityArray, windspeedArray, pressureArray, snowWaterEquivalentArray,
+                        isAtFinalSubtimestep, output);
             }
-            if (input[i + 2 * linksNum] < currentHillslope.parameters.getS1residual()) {
-                input[i + 2 * linksNum] = currentHillslope.parameters.getS1residual();
-                // System.out
-                // .println(
-                // "Current S1 parameter is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
-            }
-            if (input[i + 3 * linksNum] < currentHillslope.parameters.getS2residual()) {
-                input[i + 3 * linksNum] = currentHillslope.parameters.getS2residual();
-                // System.out
-                // .println(
-                // "Current S2 parameter is less than the minimum value, setted to it for the basin "
-                // + currentHillslope.getHillslopeId());
+        } else {
+            for( int l = 0; l < levelStart.length - 1; l++ ) {
+                int from = levelStart[l];
+                int to = levelStart[l + 1];
+                RangeTask task = new RangeTask(){
+                    public void run( int start, int end ) {
+                        for( int h = start; h < end; h++ ) {
+                            evalHillslope(levelHillslopes[h], currentTimeInMinutes,
+                                    currentTimeInMillis, currentMonth, input, rainArray,
+                                    radiationArray, netshortArray, temperatureArray,
+                                    humidityArray, windspeedArray, pressureArray,
+                                    snowWaterEquivalentArray, isAtFinalSubtimestep, output);
+                        }
+                    }
+                };
+                if (threads < 2 || to - from < MIN_PARALLEL_HILLSLOPES) {
+                    try {
+                        task.run(from, to);
+                    } catch (Exception e) {
+                        // the task throws only unchecked exceptions
+                        throw (RuntimeException) e;
+                    }
+                } else {
+                    runInPool(from, to, task);
+                }
             }
+        }
+        doPrint = false;
+    }
 
-            /* HILLSLOPE FLUX CONDITIONS */
-            satsurf = currentHillslope.parameters.getS2Param() * (input[i + 3 * linksNum]); // dimless
-            // double areasat = satsurf * area_m2;
-            mst = (input[i + 2 * linksNum])
-                    / (currentHillslope.parameters.getS2max() - (input[i + 3 * linksNum])); // dimless
-            if (Double.isInfinite(mst)) {
-                mst = MSTMAX;
-            }
+    private synchronized void runInPool( int from, int to, RangeTask task ) {
+        if (pool == null) {
+            pool = ParallelUtilities.newFixedThreadPool(threads);
+        }
+        try {
+            ParallelUtilities.runInChunks(pool, from, to, threads, task);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
 
-            // if ((mst - mstold) > 0.01) {
-            // System.out.println("mst " + mst + "mstold " + mstold);
-            // mstold = mst;
-            // }
-            // Ku = hillSlopesInfo.Ks(currentHillslope)
-            // * (Math.pow(mst, hillSlopesInfo.MstExp(currentHillslope))); //
-            // mphr
-
-            /* HILLSLOPE S1-SURFACE FLUX VALUES */
-            if (prec_mphr < currentHillslope.parameters.getKs()) {
-                inf = (1.0 - satsurf) * area_m2 * prec_mphr; // m3phr
-                qdh = 0.0; // m3phr
-            } else {
-                inf = (1.0 - satsurf) * area_m2 * currentHillslope.parameters.getKs(); // m3phr
-                qdh = (1.0 - satsurf) * area_m2 * (prec_mphr - currentHillslope.parameters.getKs()); // m3phr
-            }
+    /**
+     * Evaluates the equations of a hillslope.
+     * 
+     * @param i the index of the hillslope.
+     */
+    private void evalHillslope( int i, double currentTimeInMinutes, long currentTimeInMillis,
+            int currentMonth, double[] input, double[] rainArray, double[] radiationArray,
+            double[] netshortArray, double[] temperatureArray, double[] humidityArray,
+            double[] windspeedArray, double[] pressureArray, double[] snowWaterEquivalentArray,
+            boolean isAtFinalSubtimestep, double[] output ) {
+        double qd, qs, Q_trib, Qs_trib, K_Q = 0.0;
+        double flowdepth, hydrad, mannings_n;
+        double satsurf, mst, qdh, qds, inf, re, qe1, qe2;
+        /*
+         * NOTE: Initial conditions are ... input[i] for link discharge
+         * input[i+nLi] for link base flow input[i+2*nLi] for unsaturated
+         * hillslope S1 input[i+3*nLi] for saturated hillslope S2 . input[]
+         * is updated for each time step in DiffEqSolver.RKF .
+         */
+
+        double prec_mphr = rainArray[i] / 1000.0; // input precipitation is in mm/h
+
+        double area_m2 = areas[i];
+        // automatically in m2 from the features
+        /*
+         * Added some check for phisic consistency of the parameters
+         */
+        if (input[i] < minSupDischarges[i]) {
+            input[i] = minSupDischarges[i];
+        }
+        if (input[i + linksNum] < minSubDischarges[i]) {
+            input[i + linksNum] = minSubDischarges[i];
+        }
+        if (input[i + 2 * linksNum] < s1residuals[i]) {
+            input[i + 2 * linksNum] = s1residuals[i];
+        }
+        if (input[i + 3 * linksNum] < s2residuals[i]) {
+            input[i + 3 * linksNum] = s2residuals[i];
+        }
 
-            if (currentHillslope.hasVegetation()) {
-                qe1 = currentHillslope.parameters.calculateEvapoTranspiration(currentMonth,
-                        radiationArray[i], pressureArray[i], temperatureArray[i], netshortArray[i],
-                        humidityArray[i], windspeedArray[i], input[i + 2 * linksNum],
-                        snowWaterEquivalentArray[i]);
-            } else {
-                if (input[i + 2 * linksNum] > currentHillslope.parameters.getS1residual()) {
-                    qe1 = currentHillslope.parameters.getETrate() * area_m2 * (1.0 - satsurf) * mst; // m3phr
-                } else {
-                    qe1 = 0.0;
-                }
-            }
+        /* HILLSLOPE FLUX CONDITIONS */
+        satsurf = s2Params[i] * (input[i + 3 * linksNum]); // dimless
+        mst = (input[i + 2 * linksNum]) / (s2maxs[i] - (input[i + 3 * linksNum])); // dimless
+        if (Double.isInfinite(mst)) {
+            mst = MSTMAX;
+        }
+
+        /* HILLSLOPE S1-SURFACE FLUX VALUES */
+        if (prec_mphr < kss[i]) {
+            inf = (1.0 - satsurf) * area_m2 * prec_mphr; // m3phr
+            qdh = 0.0; // m3phr
+        } else {
+            inf = (1.0 - satsurf) * area_m2 * kss[i]; // m3phr
+            qdh = (1.0 - satsurf) * area_m2 * (prec_mphr - kss[i]); // m3phr
+        }
 
-            /* HILLSLOPE S1-S2 FLUX VALUE */
-            // re = 1100.0
-            // * (input[i + 2 * linksNum] / currentHillslope.parameters.getS2max())
-            // + 300.0
-            // * ((input[i + 2 * linksNum] / currentHillslope.parameters.getS2max()) + 5)
-            // * Math.pow((input[i + 3 * linksNum] / currentHillslope.parameters.getS2max()),
-            // 2.0);
-            re = currentHillslope.parameters.getKs() * area_m2 * (1.0 - satsurf)
-                    * (Math.pow(mst, currentHillslope.parameters.getMstExp())); // m3phr
-
-            /* HILLSLOPE S2-SURFACE FLUX VALUES */
-            qds = satsurf * area_m2 * prec_mphr; // m3phr
-
-            if (currentHillslope.hasVegetation()) {
-                qe2 = currentHillslope.parameters.calculateEvapoTranspiration(currentMonth,
-                        radiationArray[i], pressureArray[i], temperatureArray[i], netshortArray[i],
-                        humidityArray[i], windspeedArray[i], input[i + 3 * linksNum],
-                        snowWaterEquivalentArray[i]);
+        if (vegetation[i]) {
+            qe1 = hillslopes[i].parameters.calculateEvapoTranspiration(currentMonth,
+                    radiationArray[i], pressureArray[i], temperatureArray[i], netshortArray[i],
+                    humidityArray[i], windspeedArray[i], input[i + 2 * linksNum],
+                    snowWaterEquivalentArray[i]);
+        } else {
+            if (input[i + 2 * linksNum] > s1residuals[i]) {
+                qe1 = etRates[i] * area_m2 * (1.0 - satsurf) * mst; // m3phr
             } else {
-                qe2 = currentHillslope.parameters.getETrate() * area_m2 * satsurf; // m3phr,
+                qe1 = 0.0;
             }
+        }
 
-            qs = currentHillslope.parameters.getRecParam() * (input[i + 3 * linksNum]); // m3phr
+        /* HILLSLOPE S1-S2 FLUX VALUE */
+        re = kss[i] * area_m2 * (1.0 - satsurf) * (Math.pow(mst, mstExps[i])); // m3phr
 
-            /* HILLSLOPE DIRECT RUNOFF (TOTAL) FLUXES */
-            // System.out.println("qdh = " + qdh);
-            // System.out.println("qds = " + qds);
-            qd = qdh + qds; // m3phr
+        /* HILLSLOPE S2-SURFACE FLUX VALUES */
+        qds = satsurf * area_m2 * prec_mphr; // m3phr
 
-            if (qs != qs || qd != qd) {
-                if (qs != qs) {
-                    throw new ModelsIllegalargumentException(
-                            "Subsuperficial discharge for the hillslope "
-                                    + currentHillslope.getHillslopeId() + " " + i + " is NaN", this);
-                } else {
-                    throw new ModelsIllegalargumentException("Timestep " + currentTimeInMinutes
-                            + "Superficial discharge for the hillslope "
-                            + currentHillslope.getHillslopeId() + " " + i + " is NaN"
-                            + "\nValue of qdh " + qdh + "\nValue of qds " + qds
-                            + "\nPrecipitation " + prec_mphr + "\nSatsurf " + satsurf, this); //$NON-NLS-1$ //$NON-NLS-2$
-                }
-            }
+        if (vegetation[i]) {
+            qe2 = hillslopes[i].parameters.calculateEvapoTranspiration(currentMonth,
+                    radiationArray[i], pressureArray[i], temperatureArray[i], netshortArray[i],
+                    humidityArray[i], windspeedArray[i], input[i + 3 * linksNum],
+                    snowWaterEquivalentArray[i]);
+        } else {
+            qe2 = etRates[i] * area_m2 * satsurf; // m3phr,
+        }
 
-            if (isAtFinalSubtimestep) {
-                System.out
-                        .println("timeinmin = " + currentTimeInMinutes + "\tbacino: " + i
-                                + "\tqdh = " + qdh + "\tqds = " + qds + "\tre = " + re + "\tqs = "
-                                + qs + "\tmst = " + mst + "\tinf = " + inf + "\tqe1 = " + qe1
-                                + "\tqe2 = " + qe2);
-            }
-            /*
-             * if the area is > 0.1 km2, we consider the delay effect
-             * of the hillslope.
-             */
-            if (area_m2 > THRESHOLD_AREA) {
-                // distribute the discharge
-                int hillslopeId = currentHillslope.getHillslopeId();
-                DischargeDistributor dischargeDistributor = hillslopeId2DischargeDistributor
-                        .get(hillslopeId);
-                qs = dischargeDistributor.calculateSubsuperficialDischarge(qs, satsurf,
-                        currentTimeInMillis);
-                qd = dischargeDistributor.calculateSuperficialDischarge(qd, satsurf,
-                        currentTimeInMillis);
+        qs = recParams[i] * (input[i + 3 * linksNum]); // m3phr
+
+        /* HILLSLOPE DIRECT RUNOFF (TOTAL) FLUXES */
+        qd = qdh + qds; // m3phr
+
+        if (qs != qs || qd != qd) {
+            if (qs != qs) {
+                throw new ModelsIllegalargumentException(
+                        "Subsuperficial discharge for the hillslope "
+                                + hillslopes[i].getHillslopeId() + " " + i + " is NaN", this);
+            } else {
+                throw new ModelsIllegalargumentException("Timestep " + currentTimeInMinutes
+                        + "Superficial discharge for the hillslope "
+                        + hillslopes[i].getHillslopeId() + " " + i + " is NaN"
+                        + "\nValue of qdh " + qdh + "\nValue of qds " + qds
+                        + "\nPrecipitation " + prec_mphr + "\nSatsurf " + satsurf, this); //$NON-NLS-1$ //$NON-NLS-2$
             }
+        }
 
-            /* LINK FLUX ( Q ) */
-            /*
-             * Below, i=link#, j=id of connecting links, Array[i][j]=link# for
-             * connecting link
-             */
-            /* LINK FLUX ( Q SUBSURFACE, BASE FLOW ) */
-            /*
-             * Below, i=link#, j=id of connecting links, Array[i][j]=link# for
-             * connecting link
-             */
-            Q_trib = 0.0D;
-            Qs_trib = 0.0D;
-
-            List<HillSlope> connectedUpstreamHillSlopes = currentHillslope
-                    .getConnectedUpstreamElements();
+        if (isAtFinalSubtimestep && printFluxes) {
+            out.println("timeinmin = " + currentTimeInMinutes + "\tbacino: " + i + "\tqdh = "
+                    + qdh + "\tqds = " + qds + "\tre = " + re + "\tqs = " + qs + "\tmst = " + mst
+                    + "\tinf = " + inf + "\tqe1 = " + qe1 + "\tqe2 = " + qe2);
+        }
+        /*
+         * if the area is > 0.1 km2, we consider the delay effect
+         * of the hillslope.
+         */
+        if (area_m2 > THRESHOLD_AREA) {
+            // distribute the discharge
+            DischargeDistributor dischargeDistributor = dischargeDistributors[i];
+            qs = dischargeDistributor.calculateSubsuperficialDischarge(qs, satsurf,
+                    currentTimeInMillis);
+            qd = dischargeDistributor.calculateSuperficialDischarge(qd, satsurf,
+                    currentTimeInMillis);
+        }
 
-            if (connectedUpstreamHillSlopes != null) {
-                for( HillSlope hillSlope : connectedUpstreamHillSlopes ) {
-                    PfafstetterNumber pNum = hillSlope.getPfafstetterNumber();
-                    int index = orderedHillslopes.indexOf(hillSlope);
-                    boolean doCalculate = true;
-                    for( DischargeContributor dContributor : dischargeContributorList ) {
-                        Double contributedDischarge = dContributor.getDischarge(pNum.toString(),
-                                input[index]);
-                        if (!isNovalue(contributedDischarge)) {
-                            if (doLog && doPrint) {
-                                out.println("----> For hillslope "
-                                        + currentHillslope.getPfafstetterNumber()
-                                        + " using hydrometer/dams data in pfafstetter: "
-                                        + pNum.toString() + "(meaning added "
-                                        + contributedDischarge + " instead of " + input[index]
-                                        + ")");
-                            }
-                            double dischargeRatio = 0.3;// input[index] / (input[index] +
-                            // input[index + linksNum]);
-                            Q_trib = dischargeRatio * contributedDischarge; // units m^3/s
-                            Qs_trib = contributedDischarge - Q_trib; // units m^3/s
-                            doCalculate = false;
-                        }
-                    }
-                    if (doCalculate) {
-                        // at the same position we can query the input array
-                        Q_trib += input[index]; // units m^3/s
-                        Qs_trib += input[index + linksNum]; // units m^3/s
+        /* LINK FLUX ( Q ) */
+        /* LINK FLUX ( Q SUBSURFACE, BASE FLOW ) */
+        Q_trib = 0.0D;
+        Qs_trib = 0.0D;
+
+        for( int j = upstreamStart[i]; j < upstreamStart[i + 1]; j++ ) {
+            int index = upstreamIndexes[j];
+            boolean doCalculate = true;
+            for( DischargeContributor dContributor : dischargeContributors ) {
+                Double contributedDischarge = dContributor.getDischarge(
+                        upstreamPfafstetterNumbers[j], input[index]);
+                if (!isNovalue(contributedDischarge)) {
+                    if (doLog && doPrint) {
+                        out.println("----> For hillslope " + hillslopes[i].getPfafstetterNumber()
+                                + " using hydrometer/dams data in pfafstetter: "
+                                + upstreamPfafstetterNumbers[j] + "(meaning added "
+                                + contributedDischarge + " instead of " + input[index] + ")");
                     }
+                    double dischargeRatio = 0.3;// input[index] / (input[index] +
+                    // input[index + linksNum]);
+                    Q_trib = dischargeRatio * contributedDischarge; // units m^3/s
+                    Qs_trib = contributedDischarge - Q_trib; // units m^3/s
+                    doCalculate = false;
                 }
-
             }
+            if (doCalculate) {
+                // at the same position we can query the input array
+                Q_trib += input[index]; // units m^3/s
+                Qs_trib += input[index + linksNum]; // units m^3/s
+            }
+        }
 
-            double linkWidth = currentHillslope.getLinkWidth(8.66, 0.6, 0.0);
-            double linkLength = currentHillslope.getLinkLength();
-            double linkSlope = currentHillslope.getLinkSlope();
-            double chezLawExpon = -1. / 3.;
-            double chezLawCoeff = 200. / Math.pow(0.000357911, chezLawExpon);
-            double linkChezy = currentHillslope.getLinkChezi(chezLawCoeff, chezLawExpon);
-
-            /* ROUTING RATE (K_Q) and CHANNEL VELOCITY (vc) */
-            // System.out.println(routingtype);
-            switch( routingType ) {
-            case 2: /* No Chezi explicitly */
-                K_Q = 8.796 * Math.pow(input[i], 1 / 3.) * Math.pow(linkWidth, -1 / 3.)
-                        * Math.pow(linkLength, -1) * Math.pow(linkSlope, 2 / 9.); // units
-                // 1/s*/
-                break;
-
-            case 3: /* Chezi explicit */
-                // System.out.println("Chezy");
-                K_Q = 3 / 2. * Math.pow(input[i], 1. / 3.) * Math.pow(linkChezy, 2. / 3.)
-                        * Math.pow(linkWidth, -1. / 3.) * Math.pow(linkLength, -1)
-                        * Math.pow(linkSlope, 1. / 3.); // units 1/s
-                break;
-
-            case 4: /* Mannings equation */
-                flowdepth = (1. / 3.) * Math.pow(input[i], 1. / 3.); // depth
-                // m,
-                // input m^3/s;
-                // general
-                // observed
-                // relation for
-                // gc from
-                // molnar and
-                // ramirez 1998
-                hydrad = (flowdepth * linkWidth) / (2.f * flowdepth + linkWidth); // m
-                mannings_n = 1; // 0.030f; // mannings n suggested by Jason via his
-                // observations at
-                // Whitewater for high flows. Low flows will have higher
-                // n ... up to 2x more.
-                K_Q = (Math.pow(hydrad, 2. / 3.) * Math.pow(linkSlope, 1 / 2.) / mannings_n) // m/s
-                        // ;
-                        // this
-                        // term
-                        // is v
-                        // from
-                        // mannings
-                        // eqn
-                        * Math.pow(linkLength, -1); // 1/s
-                break;
+        /* ROUTING RATE (K_Q) and CHANNEL VELOCITY (vc) */
+        switch( routingType ) {
+        case 2: /* No Chezi explicitly */
+            K_Q = 8.796 * Math.pow(input[i], 1 / 3.) * powLinkWidths[i] * powLinkLengths[i]
+                    * powLinkSlopes[i]; // units 1/s
+            break;
+
+        case 3: /* Chezi explicit */
+            K_Q = 3 / 2. * Math.pow(input[i], 1. / 3.) * powLinkChezys[i] * powLinkWidths[i]
+                    * powLinkLengths[i] * powLinkSlopes[i]; // units 1/s
+            break;
+
+        case 4: /* Mannings equation */
+            // depth m, input m^3/s; general observed relation for gc from molnar and ramirez
+            // 1998
+            flowdepth = (1. / 3.) * Math.pow(input[i], 1. / 3.);
+            hydrad = (flowdepth * linkWidths[i]) / (2.f * flowdepth + linkWidths[i]); // m
+            // mannings n suggested by Jason via his observations at Whitewater for high flows.
+            // Low flows will have higher n ... up to 2x more.
+            mannings_n = 1; // 0.030f;
+            // the first term is v from mannings eqn (m/s)
+            K_Q = (Math.pow(hydrad, 2. / 3.) * powLinkSlopes[i] / mannings_n) * powLinkLengths[i]; // 1/s
+            break;
 
-            }
+        }
 
-            /*
-             * if (i == 62) { System.out.println(" WD ratio ="+
-             * linksHydraulicInfo.Width(i)/flowdepth); System.out.println("
-             * Mannings v (m/s) =" +
-             * (Math.pow(hydrad,2./3.)*Math.pow(linksHydraulicInfo.Slope(i),1/2.)/mannings_n) );
-             * System.out.println(" K_Q =" +
-             * (Math.pow(hydrad,2./3.)*Math.pow(linksHydraulicInfo.Slope(i),1/2.)/mannings_n)
-             * *Math.pow(linksHydraulicInfo.Length(i),-1) ); }
-             */
-            if (input[i] == 0.0D)
-                K_Q = 1e-10;
-
-            if (qs != qs || qd != qd) {
-                System.out
-                        .println("Problems in basin: " + currentHillslope.getHillslopeId() + " " + i); //$NON-NLS-1$ //$NON-NLS-2$
-                if (area_m2 < THRESHOLD_AREA) {
-                    qd = 0.0;
-                    qs = 0.0;
-                    inf = 0.0;
-                    qe1 = 0.0;
-                    qe2 = 0.0;
-                    re = 0.0;
-                    System.out.println("All the contributes are setted to zero.");
-                }
+        if (input[i] == 0.0D)
+            K_Q = 1e-10;
+
+        if (qs != qs || qd != qd) {
+            out.println("Problems in basin: " + hillslopes[i].getHillslopeId() + " " + i); //$NON-NLS-1$ //$NON-NLS-2$
+            if (area_m2 < THRESHOLD_AREA) {
+                qd = 0.0;
+                qs = 0.0;
+                inf = 0.0;
+                qe1 = 0.0;
+                qe2 = 0.0;
+                re = 0.0;
+                out.println("All the contributes are setted to zero."); //$NON-NLS-1$
             }
+        }
 
-            /* OUTPUT */
-            if (area_m2 > THRESHOLD_AREA) {
-                // LINK dQ/dt; big () term is m^3/s, 60*K_Q is 1/min
-                output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
-                // 60.0 * K_Q * (Q_trib - input[i]) + (1.0 / 3600.0) * qd / deltaTinMinutes;
-                // LINK dQs/dt -> (m^3/s)/min
-                output[i + linksNum] = 60.0 * K_Q * (Qs_trib - input[i + linksNum]) + 60.0 * K_Q
-                        * (1.0 / 3600.) * (qs);
-                // HILLSLOPE dS1/dt -> m3/min
-                output[i + (2 * linksNum)] = (1.0 / 60.0) * (inf - re - qe1);
-                // HILLSLOPE dS2/dt -> m3/min
-                output[i + (3 * linksNum)] = (1.0 / 60.0) * (re - qs - qe2);
-            } else {
-                output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
-                output[i + linksNum] = 60.0D * K_Q
-                        * ((1.0D / 3600.) * (qs) + Qs_trib - input[i + linksNum]);
-                output[i + (2 * linksNum)] = (1.0D / 60.0) * (inf - re - qe1);
-                if (output[i + (2 * linksNum)] != output[i + (2 * linksNum)]
-                        || output[i + (2 * linksNum)] == 0.0) {
-                    throw new ModelsIllegalargumentException(
-                            "Invalid value of S1, please check the parameters."
-                                    + output[i + (2 * linksNum)], this);
-                }
-                output[i + (3 * linksNum)] = (1.0D / 60.0) * (re - qs - qe2);
-            }
-            if (output[i + (3 * linksNum)] != output[i + (3 * linksNum)]
-                    || output[i + (2 * linksNum)] == 0.) {
+        /* OUTPUT */
+        if (area_m2 > THRESHOLD_AREA) {
+            // LINK dQ/dt; big () term is m^3/s, 60*K_Q is 1/min
+            output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
+            // LINK dQs/dt -> (m^3/s)/min
+            output[i + linksNum] = 60.0 * K_Q * (Qs_trib - input[i + linksNum]) + 60.0 * K_Q
+                    * (1.0 / 3600.) * (qs);
+            // HILLSLOPE dS1/dt -> m3/min
+            output[i + (2 * linksNum)] = (1.0 / 60.0) * (inf - re - qe1);
+            // HILLSLOPE dS2/dt -> m3/min
+            output[i + (3 * linksNum)] = (1.0 / 60.0) * (re - qs - qe2);
+        } else {
+            output[i] = 60.0D * K_Q * ((1.0D / 3600.) * qd + Q_trib - input[i]);
+            output[i + linksNum] = 60.0D * K_Q
+                    * ((1.0D / 3600.) * (qs) + Qs_trib - input[i + linksNum]);
+            output[i + (2 * linksNum)] = (1.0D / 60.0) * (inf - re - qe1);
+            if (output[i + (2 * linksNum)] != output[i + (2 * linksNum)]
+                    || output[i + (2 * linksNum)] == 0.0) {
                 throw new ModelsIllegalargumentException(
-                        "Invalid value of S2, please check the parameters.", this);
+                        "Invalid value of S1, please check the parameters."
+                                + output[i + (2 * linksNum)], this);
             }
-
+            output[i + (3 * linksNum)] = (1.0D / 60.0) * (re - qs - qe2);
+        }
+        if (output[i + (3 * linksNum)] != output[i + (3 * linksNum)]
+                || output[i + (2 * linksNum)] == 0.) {
+            throw new ModelsIllegalargumentException(
+                    "Invalid value of S2, please check the parameters.", this);
         }
-        doPrint = false;
-
-        return output;
     }
+
     public void addDischargeContributor( DischargeContributor dischargeContributor ) {
         dischargeContributorList.add(dischargeContributor);
+        dischargeContributors = dischargeContributorList
+                .toArray(new DischargeContributor[dischargeContributorList.size()]);
     }
 
     public void addDischargeDistributor(
             HashMap<Integer, DischargeDistributor> hillslopeId2DischargeDistributor ) {
-        this.hillslopeId2DischargeDistributor = hillslopeId2DischargeDistributor;
+        dischargeDistributors = new DischargeDistributor[linksNum];
+        for( int i = 0; i < linksNum; i++ ) {
+            dischargeDistributors[i] = hillslopeId2DischargeDistributor.get(hillslopes[i]
+                    .getHillslopeId());
+        }
     }
 }
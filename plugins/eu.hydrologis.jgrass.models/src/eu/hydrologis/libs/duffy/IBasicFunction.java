@@ -4,4 +4,14 @@ public interface IBasicFunction {
     public double[] eval( double currentTimeInMinutes, double[] input, double[] precipitation,
             double[] radiationArray, double[] netshortArray, double[] temperatureArray,
             double[] humidityArray, double[] windspeedArray, double[] pressureArray, double[] snowWaterEquivalentArray, boolean isMainTimeStep );
+
+    /**
+     * Same as the other eval, writing the result in a given array instead of allocating one.
+     *
+     * @param output the array to fill, of the same length of the input.
+     */
+    public void eval( double currentTimeInMinutes, double[] input, double[] precipitation,
+            double[] radiationArray, double[] netshortArray, double[] temperatureArray,
+            double[] humidityArray, double[] windspeedArray, double[] pressureArray,
+            double[] snowWaterEquivalentArray, boolean isMainTimeStep, double[] output );
 }
@@ -3,6 +3,9 @@ package eu.hydrologis.libs.duffy;
 import static java.lang.Math.exp;
 import static java.lang.Math.pow;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -115,6 +118,38 @@ public class NashDischargeDistributor extends DischargeDistributor {
 
     }
 
+    private NashDischargeDistributor( NashDischargeDistributor distributor ) {
+        super(distributor);
+        startDateMillis = distributor.startDateMillis;
+        endDateMillis = distributor.endDateMillis;
+        avgSup10 = distributor.avgSup10;
+        avgSup30 = distributor.avgSup30;
+        avgSup60 = distributor.avgSup60;
+        varSup10 = distributor.varSup10;
+        varSup30 = distributor.varSup30;
+        varSup60 = distributor.varSup60;
+        avgSub = distributor.avgSub;
+        varSub = distributor.varSub;
+        vSup = distributor.vSup;
+        vSub = distributor.vSub;
+        nashArraySub = distributor.nashArraySub;
+        nashArraySup10 = distributor.nashArraySup10;
+        nashArraySup30 = distributor.nashArraySup30;
+        nashArraySup60 = distributor.nashArraySup60;
+        currentSup = distributor.currentSup;
+        previousSuperficialTimeInMillis = distributor.previousSuperficialTimeInMillis;
+        previousSubSuperficialTimeInMillis = distributor.previousSubSuperficialTimeInMillis;
+        // the contributions are replaced, never changed, so they can be shared
+        previousSuperficialContribution = distributor.previousSuperficialContribution;
+        previousSubSuperficialContribution = distributor.previousSubSuperficialContribution;
+        superficialArrayIndex = distributor.superficialArrayIndex;
+        subSuperficialArrayIndex = distributor.subSuperficialArrayIndex;
+    }
+
+    public DischargeDistributor copy() {
+        return new NashDischargeDistributor(this);
+    }
+
     private double[] calculateNashDistribution( long startDateMillis, long endDateMillis,
             long timeStepMillis, double avg, double var, double v ) {
         double k = var / avg;
@@ -237,6 +272,26 @@ public class NashDischargeDistributor extends DischargeDistributor {
         }
     }
 
+    public void writeState( DataOutput out ) throws IOException {
+        super.writeState(out);
+        out.writeLong(previousSuperficialTimeInMillis);
+        out.writeLong(previousSubSuperficialTimeInMillis);
+        out.writeInt(superficialArrayIndex);
+        out.writeInt(subSuperficialArrayIndex);
+        writeArray(out, previousSuperficialContribution);
+        writeArray(out, previousSubSuperficialContribution);
+    }
+
+    public void readState( DataInput in ) throws IOException {
+        super.readState(in);
+        previousSuperficialTimeInMillis = in.readLong();
+        previousSubSuperficialTimeInMillis = in.readLong();
+        superficialArrayIndex = in.readInt();
+        subSuperficialArrayIndex = in.readInt();
+        previousSuperficialContribution = readArray(in);
+        previousSubSuperficialContribution = readArray(in);
+    }
+
     protected void distributeIncomingSubSuperficialDischarge( double subSuperficialDischarge,
             double saturatedAreaPercentage, long currentTimeInMillis ) {
         double kSub = varSub / avgSub;
@@ -64,6 +64,18 @@ public class RungeKuttaFelberg {
     
     private boolean isAtFinalSubtimestep = true;
 
+    /*
+     * the workspace, allocated once and reused by all the steps
+     */
+    private double[] k0, k1, k2, k3, k4, k5;
+    private double[] carrier;
+    private double[] newYstar;
+    /**
+     * The two buffers the solutions of the steps are written to in turn, since the solution of a
+     * step is the initial condition of the next one.
+     */
+    private double[] solutionA, solutionB;
+
     /**
      * Creates new RKF
      * 
@@ -97,51 +109,53 @@ public class RungeKuttaFelberg {
             double[] temperatureArray, double[] humidityArray, double[] windspeedArray,
             double[] pressureArray, double[] snowWaterEquivalentArray ) {
 
-        double[] carrier = new double[initialConditions.length];
+        int n = initialConditions.length;
+        checkWorkspace(n);
+        // the solution goes in the buffer that doesn't hold the initial conditions
+        double[] newY = initialConditions == solutionA ? solutionB : solutionA;
 
-        double[] k0 = theFunction.eval(currentTimeInMinutes, initialConditions, rainArray,
-                radiationArray, netshortArray, temperatureArray, humidityArray, windspeedArray,
-                pressureArray, snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+        theFunction.eval(currentTimeInMinutes, initialConditions, rainArray, radiationArray,
+                netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
+                snowWaterEquivalentArray, false, k0);
+        for( int i = 0; i < n; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes * b[1][0] * k0[i]);
 
-        double[] k1 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
                 netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+                snowWaterEquivalentArray, false, k1);
+        for( int i = 0; i < n; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
                     * (b[2][0] * k0[i] + b[2][1] * k1[i]));
 
-        double[] k2 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
                 netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+                snowWaterEquivalentArray, false, k2);
+        for( int i = 0; i < n; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
                     * (b[3][0] * k0[i] + b[3][1] * k1[i] + b[3][2] * k2[i]));
 
-        double[] k3 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
                 netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+                snowWaterEquivalentArray, false, k3);
+        for( int i = 0; i < n; i++ )
             carrier[i] = Math.max(0, initialConditions[i] + timeStepInMinutes
                     * (b[4][0] * k0[i] + b[4][1] * k1[i] + b[4][2] * k2[i] + b[4][3] * k3[i]));
 
-        double[] k4 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
                 netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, false);
-        for( int i = 0; i < initialConditions.length; i++ )
+                snowWaterEquivalentArray, false, k4);
+        for( int i = 0; i < n; i++ )
             carrier[i] = Math.max(0,
                     initialConditions[i]
                             + timeStepInMinutes
                             * (b[5][0] * k0[i] + b[5][1] * k1[i] + b[5][2] * k2[i] + b[5][3]
                                     * k3[i] + b[5][4] * k4[i]));
 
-        double[] k5 = theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
+        theFunction.eval(currentTimeInMinutes, carrier, rainArray, radiationArray,
                 netshortArray, temperatureArray, humidityArray, windspeedArray, pressureArray,
-                snowWaterEquivalentArray, isAtFinalSubtimestep);
+                snowWaterEquivalentArray, isAtFinalSubtimestep, k5);
 
-        double[] newY = new double[initialConditions.length];
-        for( int i = 0; i < initialConditions.length; i++ ) {
+        for( int i = 0; i < n; i++ ) {
             newY[i] = initialConditions[i]
                     + timeStepInMinutes
                     * (c[0] * k0[i] + c[1] * k1[i] + c[2] * k2[i] + c[3] * k3[i] + c[4] * k4[i] + c[5]
@@ -153,8 +167,7 @@ public class RungeKuttaFelberg {
             }
         }
 
-        double[] newYstar = new double[initialConditions.length];
-        for( int i = 0; i < initialConditions.length; i++ ) {
+        for( int i = 0; i < n; i++ ) {
             newYstar[i] = initialConditions[i]
                     + timeStepInMinutes
                     * (cStar[0] * k0[i] + cStar[1] * k1[i] + cStar[2] * k2[i] + cStar[3] * k3[i]
@@ -167,7 +180,7 @@ public class RungeKuttaFelberg {
         }
 
         double delta = 0;
-        for( int i = 0; i < initialConditions.length; i++ ) {
+        for( int i = 0; i < n; i++ ) {
             if ((newY[i] + newYstar[i]) > 0)
                 delta = Math.max(delta, Math.abs(2 * (newY[i] - newYstar[i])
                         / (newY[i] + newYstar[i])));
@@ -343,26 +356,52 @@ public class RungeKuttaFelberg {
                 }
             }
 
-            thisDate.setTime((long) (currentTimeInMinutes * 60.0 * 1000.0));
-            double sum = 0;
-            for( double d : rainArray ) {
-                sum = sum + d;
+            if (doLog) {
+                thisDate.setTime((long) (currentTimeInMinutes * 60.0 * 1000.0));
+                double sum = 0;
+                for( double d : rainArray ) {
+                    sum = sum + d;
+                }
+                sum = sum / rainArray.length;
+                int hillslopeNum = rainArray.length;
+                double currentDischarge = initialConditions[0] + initialConditions[hillslopeNum];
+                outputStream.println(dateFormatter.format(thisDate)
+                        + " / "
+                        + dateFormatter.format(new Date(
+                                (long) (intervalEndTimeInMinutes * 60. * 1000.))) + " "
+                        + currentDischarge + " with avg rain: " + sum);
             }
-            sum = sum / rainArray.length;
-            int hillslopeNum = rainArray.length;
-            double currentDischarge = initialConditions[0] + initialConditions[hillslopeNum];
-            outputStream.println(dateFormatter.format(thisDate)
-                    + " / "
-                    + dateFormatter
-                            .format(new Date((long) (intervalEndTimeInMinutes * 60. * 1000.)))
-                    + " " + currentDischarge + " with avg rain: " + sum);
         } else {
             outputStream.println("WARNING, UNEXPECTED");
         }
 
-        finalCond = initialConditions;
+        if (finalCond == null || finalCond.length != initialConditions.length) {
+            finalCond = new double[initialConditions.length];
+        }
+        System.arraycopy(initialConditions, 0, finalCond, 0, initialConditions.length);
 
     }
+
+    /**
+     * Allocates the workspace for a number of equations, if it isn't already.
+     * 
+     * @param n the number of equations.
+     */
+    private void checkWorkspace( int n ) {
+        if (k0 != null && k0.length == n) {
+            return;
+        }
+        k0 = new double[n];
+        k1 = new double[n];
+        k2 = new double[n];
+        k3 = new double[n];
+        k4 = new double[n];
+        k5 = new double[n];
+        carrier = new double[n];
+        newYstar = new double[n];
+        solutionA = new double[n];
+        solutionB = new double[n];
+    }
     /**
      * Sets the valuo of the algorithm time step
      * 
@@ -372,6 +411,11 @@ public class RungeKuttaFelberg {
         basicTimeStepInMinutes = newBTS;
     }
 
+    /**
+     * @return the values at the end of the last solved interval. The array is reused by the
+     *         following calls of {@link #solve}, so it can be passed back as initial condition but
+     *         has to be copied to be kept.
+     */
     public double[] getFinalCond() {
         return finalCond;
     }
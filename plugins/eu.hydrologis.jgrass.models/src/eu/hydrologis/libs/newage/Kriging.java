@@ -30,6 +30,7 @@ import nl.alterra.openmi.sdk.backbone.ScalarSet;
 import nl.alterra.openmi.sdk.backbone.SpatialReference;
 import nl.alterra.openmi.sdk.backbone.TimeSpan;
 import nl.alterra.openmi.sdk.backbone.TimeStamp;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -318,8 +319,7 @@ public class Kriging implements ILinkableComponent {
          * the pulling link is the output link. Before we use that, we need to get the raw rain from
          * the input exchange item
          */
-        IValueSet rawRainValueSet = rawRainfallInputLink.getSourceComponent().getValues(time,
-                rawRainfallInputLink.getID());
+        IValueSet rawRainValueSet = LinkValueCache.requestValues(rawRainfallInputLink, time);
         int rainnum = ((ScalarSet) rawRainValueSet).size();
         if (rainnum != inputX.length) {
             System.out.println("Stations number and rain columns are not the same, but should!");
@@ -29,6 +29,7 @@ import nl.alterra.openmi.sdk.backbone.ScalarSet;
 import nl.alterra.openmi.sdk.backbone.SpatialReference;
 import nl.alterra.openmi.sdk.backbone.TimeSpan;
 import nl.alterra.openmi.sdk.backbone.TimeStamp;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.geotools.feature.FeatureCollection;
 import org.geotools.feature.FeatureIterator;
@@ -332,8 +333,7 @@ public class TemperatureInterpolator implements ILinkableComponent {
          * the pulling link is the output link (since here we have only one output link). Before we
          * use that, we need to get the temperature from the input exchange item
          */
-        IValueSet temperatureValueSet = temperatureInputLink.getSourceComponent().getValues(time,
-                temperatureInputLink.getID());
+        IValueSet temperatureValueSet = LinkValueCache.requestValues(temperatureInputLink, time);
         int temperaturenum = ((ScalarSet) temperatureValueSet).size();
         if (temperaturenum != stationsNum)
             throw new RuntimeException(
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.ViewType;
@@ -40,6 +41,8 @@ import org.openmi.standard.IQuantity;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
 
+import eu.hydrologis.jgrass.libs.map.CopyOnWriteRasterData;
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
 import eu.hydrologis.jgrass.libs.map.RasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 import eu.hydrologis.openmi.JGrassElementset;
@@ -254,7 +257,7 @@ public class ModelsConstants {
      */
     public static RasterData getRasterDataFromLink( ILink link, ITime time, PrintStream err )
             throws IOException {
-        IValueSet valueSet = link.getSourceComponent().getValues(time, link.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(link, time);
         JGrassRasterValueSet jgValueSet = null;
         if (valueSet instanceof JGrassRasterValueSet) {
             jgValueSet = (JGrassRasterValueSet) valueSet;
@@ -291,7 +294,53 @@ public class ModelsConstants {
      */
     public static GridCoverage2D getGridCoverage2DFromLink( ILink link, ITime time, PrintStream err )
             throws IOException {
-        IValueSet valueSet = link.getSourceComponent().getValues(time, link.getID());
+        JGrassGridCoverageValueSet jgValueSet = getGridCoverageValueSetFromLink(link, time, err);
+        return jgValueSet.getGridCoverage2D().view(ViewType.GEOPHYSICS);
+    }
+
+    /**
+     * Facility that returns a read only view of the values of the {@link GridCoverage2D coverage}
+     * of a {@link ILink link}.
+     * <p>
+     * The view is shared by all the models reading the same values and, when the coverage is
+     * backed by a raster of doubles, it is over the buffer of the raster itself, so no copy is
+     * done. Models that need to change the values have to use
+     * {@link #getCopyOnWriteRasterDataFromLink(ILink, ITime, PrintStream)}.
+     * </p>
+     * 
+     * @param link the link from which to retrieve the data.
+     * @param time the time for which to retrieve the data.
+     * @param err the console {@link PrintStream error stream} to which to log.
+     * @return the read only values of the geophysics view of the coverage.
+     * @throws IOException thrown if some linkage or read error occurred.
+     */
+    public static DoubleRasterData getSharedRasterDataFromLink( ILink link, ITime time,
+            PrintStream err ) throws IOException {
+        return getGridCoverageValueSetFromLink(link, time, err).getRasterData();
+    }
+
+    /**
+     * Facility that returns the values of the {@link GridCoverage2D coverage} of a
+     * {@link ILink link} for a model that changes them.
+     * <p>
+     * The values are read from the shared view until the first change, when they are copied.
+     * </p>
+     * 
+     * @param link the link from which to retrieve the data.
+     * @param time the time for which to retrieve the data.
+     * @param err the console {@link PrintStream error stream} to which to log.
+     * @return the values of the geophysics view of the coverage.
+     * @throws IOException thrown if some linkage or read error occurred.
+     * @see #getSharedRasterDataFromLink(ILink, ITime, PrintStream)
+     */
+    public static CopyOnWriteRasterData getCopyOnWriteRasterDataFromLink( ILink link, ITime time,
+            PrintStream err ) throws IOException {
+        return getGridCoverageValueSetFromLink(link, time, err).getCopyOnWriteRasterData();
+    }
+
+    private static JGrassGridCoverageValueSet getGridCoverageValueSetFromLink( ILink link,
+            ITime time, PrintStream err ) throws IOException {
+        IValueSet valueSet = LinkValueCache.requestValues(link, time);
         JGrassGridCoverageValueSet jgValueSet = null;
         if (valueSet instanceof JGrassGridCoverageValueSet) {
             jgValueSet = (JGrassGridCoverageValueSet) valueSet;
@@ -303,14 +352,13 @@ public class ModelsConstants {
             err.println(msg);
             throw new IOException(msg);
         }
-        GridCoverage2D gridCoverage = jgValueSet.getGridCoverage2D();
-        if (gridCoverage == null) {
+        if (jgValueSet.getGridCoverage2D() == null) {
             String msg = MessageFormat.format(
                     "An error occurred while reading the map from link {0}.", link.getID());
             err.println(msg);
             throw new IOException(msg);
         }
-        return gridCoverage.view(ViewType.GEOPHYSICS);
+        return jgValueSet;
     }
 
     /**
@@ -328,7 +376,7 @@ public class ModelsConstants {
      */
     public static FeatureCollection<SimpleFeatureType, SimpleFeature> getFeatureCollectionFromLink(
             ILink link, ITime time, PrintStream err ) throws IOException {
-        IValueSet valueSet = link.getSourceComponent().getValues(time, link.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(link, time);
         JGrassFeatureValueSet featureSet = null;
         if (valueSet instanceof JGrassFeatureValueSet) {
             featureSet = (JGrassFeatureValueSet) valueSet;
@@ -393,7 +441,7 @@ public class ModelsConstants {
      */
     public static ScalarSet getScalarSetFromLink( ILink link, ITime time, PrintStream err )
             throws IOException {
-        IValueSet valueSet = link.getSourceComponent().getValues(time, link.getID());
+        IValueSet valueSet = LinkValueCache.requestValues(link, time);
         ScalarSet valueScalars = null;
         if (valueSet instanceof ScalarSet) {
             valueScalars = (ScalarSet) valueSet;
@@ -455,6 +503,11 @@ public class ModelsConstants {
 
     public static final String DOTILE = "doTile";
 
+    /**
+     * the number of threads used by the models that can compute in parallel.
+     */
+    public static final String THREADS = "threads"; //$NON-NLS-1$
+
     public static final String RESOLUTION = "resolution";
 
 }
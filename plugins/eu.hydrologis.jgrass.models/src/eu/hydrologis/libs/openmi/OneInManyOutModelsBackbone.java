@@ -21,6 +21,8 @@ import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+
 import org.openmi.standard.IArgument;
 import org.openmi.standard.IInputExchangeItem;
 import org.openmi.standard.ILink;
@@ -143,12 +145,12 @@ public abstract class OneInManyOutModelsBackbone extends ModelsBackbone {
         if (time instanceof HydrologisDate) {
             HydrologisDate hTime = (HydrologisDate) time;
             if (previoushTime == null || !previoushTime.equals(hTime)) {
-                valueSet = inLink.getSourceComponent().getValues(time, inLink.getID());
+                valueSet = LinkValueCache.requestValues(inLink, time);
                 previoushTime = hTime;
             }
         } else {
             if (valueSet == null) {
-                valueSet = inLink.getSourceComponent().getValues(time, inLink.getID());
+                valueSet = LinkValueCache.requestValues(inLink, time);
             }
         }
         return valueSet;
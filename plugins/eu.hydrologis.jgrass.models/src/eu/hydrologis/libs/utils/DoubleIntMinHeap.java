@@ -0,0 +1,161 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+/**
+ * A binary min heap of int values ordered by a double key.
+ * <p>
+ * Keys and values are kept in two parallel primitive arrays, so that no object is created for the
+ * entries. Entries with the same key are returned in insertion order, which keeps the algorithms
+ * using the heap deterministic.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class DoubleIntMinHeap {
+
+    private double[] keys;
+
+    private int[] values;
+
+    /**
+     * The insertion counter of every entry, used to break the ties.
+     */
+    private long[] sequence;
+
+    private long counter = 0;
+
+    private int size = 0;
+
+    /**
+     * @param initialCapacity the number of entries the heap can hold before growing.
+     */
+    public DoubleIntMinHeap( int initialCapacity ) {
+        initialCapacity = Math.max(initialCapacity, 16);
+        keys = new double[initialCapacity];
+        values = new int[initialCapacity];
+        sequence = new long[initialCapacity];
+    }
+
+    /**
+     * Adds an entry.
+     *
+     * @param key the key.
+     * @param value the value.
+     */
+    public void push( double key, int value ) {
+        if (size == keys.length) {
+            int newCapacity = keys.length + (keys.length >> 1);
+            double[] newKeys = new double[newCapacity];
+            int[] newValues = new int[newCapacity];
+            long[] newSequence = new long[newCapacity];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            System.arraycopy(sequence, 0, newSequence, 0, size);
+            keys = newKeys;
+            values = newValues;
+            sequence = newSequence;
+        }
+        long seq = counter++;
+        int i = size++;
+        while( i > 0 ) {
+            int parent = (i - 1) >>> 1;
+            if (!isLess(key, seq, keys[parent], sequence[parent])) {
+                break;
+            }
+            keys[i] = keys[parent];
+            values[i] = values[parent];
+            sequence[i] = sequence[parent];
+            i = parent;
+        }
+        keys[i] = key;
+        values[i] = value;
+        sequence[i] = seq;
+    }
+
+    /**
+     * Removes the entry with the smallest key.
+     *
+     * @return the value of the removed entry.
+     */
+    public int pop() {
+        int top = values[0];
+        size--;
+        double key = keys[size];
+        int value = values[size];
+        long seq = sequence[size];
+        int i = 0;
+        int half = size >>> 1;
+        while( i < half ) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && isLess(keys[right], sequence[right], keys[child], sequence[child])) {
+                child = right;
+            }
+            if (!isLess(keys[child], sequence[child], key, seq)) {
+                break;
+            }
+            keys[i] = keys[child];
+            values[i] = values[child];
+            sequence[i] = sequence[child];
+            i = child;
+        }
+        keys[i] = key;
+        values[i] = value;
+        sequence[i] = seq;
+        return top;
+    }
+
+    private static boolean isLess( double key1, long seq1, double key2, long seq2 ) {
+        return key1 < key2 || (key1 == key2 && seq1 < seq2);
+    }
+
+    /**
+     * @return the smallest key.
+     */
+    public double peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * @return the value of the entry with the smallest key.
+     */
+    public int peekValue() {
+        return values[0];
+    }
+
+    /**
+     * @return the number of entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return true if there are no entries.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+}
@@ -38,6 +38,7 @@ import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
@@ -264,6 +265,12 @@ public class FluidUtils {
     /**
      * Sorts vector1 in ascending order, moving the values of the vector2 of the same indexes.
      * 
+     * <p>
+     * Equal values keep their order, novalues come first. If only the order is needed, use
+     * {@link #sortIndexes(double[], IProgressMonitorJGrass)}, which doesn't need the second
+     * vector.
+     * </p>
+     * 
      * @param vector1
      * @param vector2
      * @param monitor
@@ -271,10 +278,24 @@ public class FluidUtils {
      */
     public static void sort2DoubleVectors( double[] vector1, double[] vector2,
             IProgressMonitorJGrass monitor ) throws Exception {
-        QuickSortAlgorithm t = new QuickSortAlgorithm(monitor);
+        RadixSortAlgorithm t = new RadixSortAlgorithm(monitor);
         t.sort(vector1, vector2);
     }
 
+    /**
+     * Sorts the indexes of a vector in ascending order of its values, see
+     * {@link RadixSortAlgorithm}.
+     * 
+     * @param vector the values, which are not changed.
+     * @param monitor
+     * @return the indexes of the values in ascending order of the values.
+     * @throws Exception
+     */
+    public static int[] sortIndexes( double[] vector, IProgressMonitorJGrass monitor )
+            throws Exception {
+        return new RadixSortAlgorithm(monitor).sortIndexes(vector);
+    }
+
     // /**
     // * IS_ONTHEBORDER it controls if a pixel (i,j) is found on the border of the
     // * river basin
@@ -902,6 +923,24 @@ public class FluidUtils {
         return raster;
     }
 
+    /**
+     * Creates a single banded raster of doubles over an existing array, without copying it.
+     * 
+     * @param width the width of the raster.
+     * @param height the height of the raster.
+     * @param values the values in row major order, they become the buffer of the raster.
+     * @return the {@link WritableRaster}.
+     */
+    public static WritableRaster createDoubleWritableRaster( int width, int height, double[] values ) {
+        if (values.length < width * height) {
+            throw new IllegalArgumentException("The values don't fill the raster."); //$NON-NLS-1$
+        }
+        SampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_DOUBLE, width, height,
+                1, width, new int[]{0});
+        return RasterFactory.createWritableRaster(sampleModel, new DataBufferDouble(values,
+                width * height), null);
+    }
+
     /**
      * TODO
      * 
@@ -0,0 +1,258 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+
+import java.util.Arrays;
+
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
+
+/**
+ * Calculates the horizon angles of the pixels of an elevation map.
+ * <p>
+ * The horizon angle of a pixel in a direction is the highest elevation angle under which the
+ * terrain is seen looking in that direction, so that the sun in that direction lights the pixel
+ * only if it is higher than the horizon. Instead of marching a ray from every pixel for every
+ * elevation of the sun, the map is swept once for every direction: the pixels are visited along
+ * parallel lines, starting from the side of the map the direction points to, and the upper convex
+ * hull of the pixels already visited on a line is kept in a stack. The horizon of a pixel is given
+ * by the tangent from the pixel to the hull, and the pixels left below the tangent can't be the
+ * horizon of any pixel following on the line, so every pixel enters and leaves the stack once.
+ * </p>
+ * <p>
+ * As in the shadow algorithm of Corripio, the lines advance one pixel at a time along the main
+ * axis of the direction and are rounded to the nearest pixel on the other axis. They all start
+ * from the border the direction points to and are shifted by whole pixels, so that every pixel is
+ * crossed by exactly one line, which goes all the way to the border. Novalues don't hide other
+ * pixels and have novalue horizon, pixels with nothing in front of them have horizon
+ * <code>-PI/2</code>.
+ * </p>
+ * <p>
+ * All the data are kept in primitive arrays indexed by <code>row * cols + col</code>. The
+ * directions are azimuths in radians, 0 for north and growing clockwise.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class HorizonAngles {
+
+    private final int cols;
+
+    private final int rows;
+
+    private final double[] elevation;
+
+    private final double res;
+
+    /**
+     * The azimuths of the horizons calculated by {@link #calculate(double[], int)}, in ascending
+     * order.
+     */
+    private double[] azimuths;
+
+    private double[][] horizons;
+
+    /**
+     * @param elevation the elevations, indexed by <code>row * cols + col</code>.
+     * @param cols the number of columns.
+     * @param rows the number of rows.
+     * @param res the resolution, the same in both directions.
+     */
+    public HorizonAngles( double[] elevation, int cols, int rows, double res ) {
+        if (elevation.length != cols * rows) {
+            throw new IllegalArgumentException("The elevations don't match the size of the map.");
+        }
+        this.elevation = elevation;
+        this.cols = cols;
+        this.rows = rows;
+        this.res = res;
+    }
+
+    /**
+     * Calculates the horizon angles in a direction.
+     *
+     * @param azimuth the direction, in radians.
+     * @param horizon the array to put the horizon angles in radians in, or <code>null</code>.
+     * @return the horizon angles, in the given array if not <code>null</code>.
+     */
+    public double[] calculate( double azimuth, double[] horizon ) {
+        if (horizon == null) {
+            horizon = new double[cols * rows];
+        }
+        Arrays.fill(horizon, JGrassConstants.doubleNovalue);
+
+        double sunX = Math.sin(azimuth);
+        double sunY = -Math.cos(azimuth);
+        double den = Math.max(Math.abs(sunX), Math.abs(sunY));
+        // the lines move away from the direction, one pixel along the main axis
+        double stepX = -sunX / den;
+        double stepY = -sunY / den;
+        double stepLength = res / den;
+
+        int firstCol = sunX <= 0 ? 0 : cols - 1;
+        int firstRow = sunY <= 0 ? 0 : rows - 1;
+        int[] hullSteps = new int[Math.max(cols, rows)];
+        double[] hullElevations = new double[hullSteps.length];
+        if (Math.abs(sunX) >= Math.abs(sunY)) {
+            // one line for every row, including the ones entering the map from above or below
+            int margin = (int) Math.ceil(Math.abs(stepY) * cols) + 1;
+            for( int row = -margin; row < rows + margin; row++ ) {
+                sweep(firstCol, row, stepX, stepY, cols, stepLength, hullSteps, hullElevations,
+                        horizon);
+            }
+        } else {
+            int margin = (int) Math.ceil(Math.abs(stepX) * rows) + 1;
+            for( int col = -margin; col < cols + margin; col++ ) {
+                sweep(col, firstRow, stepX, stepY, rows, stepLength, hullSteps, hullElevations,
+                        horizon);
+            }
+        }
+        return horizon;
+    }
+
+    /**
+     * Sweeps a line, keeping the upper convex hull of the pixels in the steps and elevations
+     * arrays.
+     */
+    private void sweep( int startCol, int startRow, double stepX, double stepY, int steps,
+            double stepLength, int[] hullSteps, double[] hullElevations, double[] horizon ) {
+        int hullSize = 0;
+        for( int n = 0; n < steps; n++ ) {
+            int col = (int) Math.round(startCol + stepX * n);
+            int row = (int) Math.round(startRow + stepY * n);
+            if (col < 0 || col >= cols || row < 0 || row >= rows) {
+                continue;
+            }
+            int index = row * cols + col;
+            double z = elevation[index];
+            if (isNovalue(z)) {
+                continue;
+            }
+            // the hull pixels below the tangent from this pixel are of no more use
+            while( hullSize >= 2 ) {
+                double dzLast = hullElevations[hullSize - 1] - z;
+                double dzBefore = hullElevations[hullSize - 2] - z;
+                if (dzBefore * (n - hullSteps[hullSize - 1]) < dzLast
+                        * (n - hullSteps[hullSize - 2])) {
+                    break;
+                }
+                hullSize--;
+            }
+            if (hullSize > 0) {
+                double distance = (n - hullSteps[hullSize - 1]) * stepLength;
+                horizon[index] = Math.atan2(hullElevations[hullSize - 1] - z, distance);
+            } else {
+                horizon[index] = -Math.PI / 2.0;
+            }
+            hullSteps[hullSize] = n;
+            hullElevations[hullSize] = z;
+            hullSize++;
+        }
+    }
+
+    /**
+     * Calculates the horizon angles in many directions, one direction per thread.
+     * <p>
+     * The horizons are kept, to be used through {@link #getHorizon(int, double)}.
+     * </p>
+     *
+     * @param azimuths the directions, in radians between 0 and <code>2 PI</code> and in
+     *        ascending order.
+     * @param threads the number of threads to use.
+     * @return the horizon angles for every direction.
+     * @throws Exception
+     */
+    public double[][] calculate( double[] azimuths, int threads ) throws Exception {
+        final double[] directions = azimuths.clone();
+        final double[][] result = new double[directions.length][];
+        ParallelUtilities.runInChunks(0, directions.length, threads, new RangeTask(){
+            public void run( int start, int end ) {
+                for( int i = start; i < end; i++ ) {
+                    result[i] = calculate(directions[i], null);
+                }
+            }
+        });
+        this.azimuths = directions;
+        horizons = result;
+        return result;
+    }
+
+    /**
+     * Gets the horizon of a pixel in a direction, interpolating linearly between the directions
+     * calculated by {@link #calculate(double[], int)}.
+     *
+     * @param index the index of the pixel.
+     * @param azimuth the direction, in radians.
+     * @return the horizon angle in radians.
+     */
+    public double getHorizon( int index, double azimuth ) {
+        if (horizons == null) {
+            throw new IllegalStateException("The horizons have not been calculated.");
+        }
+        double twoPi = 2.0 * Math.PI;
+        azimuth = azimuth - twoPi * Math.floor(azimuth / twoPi);
+        int num = azimuths.length;
+        int next = 0;
+        while( next < num && azimuths[next] < azimuth ) {
+            next++;
+        }
+        if (next < num && azimuths[next] == azimuth) {
+            return horizons[next][index];
+        }
+        int previous;
+        double from;
+        double to;
+        if (next == 0 || next == num) {
+            // between the last direction and the first one
+            previous = num - 1;
+            next = 0;
+            from = azimuths[previous];
+            to = azimuths[next] + twoPi;
+            if (azimuth < from) {
+                azimuth = azimuth + twoPi;
+            }
+        } else {
+            previous = next - 1;
+            from = azimuths[previous];
+            to = azimuths[next];
+        }
+        double weight = (azimuth - from) / (to - from);
+        return (1.0 - weight) * horizons[previous][index] + weight * horizons[next][index];
+    }
+
+    /**
+     * Checks if a pixel is in the shadow of the terrain.
+     *
+     * @param index the index of the pixel.
+     * @param azimuth the azimuth of the sun, in radians.
+     * @param sunElevation the elevation of the sun over the horizontal plane, in radians.
+     * @return true if the sun is not higher than the horizon of the pixel.
+     */
+    public boolean isInShadow( int index, double azimuth, double sunElevation ) {
+        return sunElevation <= getHorizon(index, azimuth);
+    }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A sketch of the distribution of a stream of values, giving approximate quantiles in a small
+ * and fixed memory.
+ * <p>
+ * This is the sketch of Karnin, Lang and Liberty (KLL). The values are kept in levels, the ones
+ * in level <code>h</code> standing each for <code>2<sup>h</sup></code> values. When the sketch is
+ * full the lowest level over its capacity is compacted: its values are sorted and every other
+ * one, starting at random from the first or the second, goes up a level. The capacities shrink
+ * by a factor 2/3 going down from the top level, so the sketch keeps about <code>3 k</code>
+ * values whatever the number of values added, and the error on the rank of the quantiles is
+ * about <code>1.7 / k</code> of the number of values.
+ * </p>
+ * <p>
+ * Sketches can be merged, so that the values can be split among threads each with its own
+ * sketch. The random choices come from a seeded generator, so the same values added and merged in
+ * the same order give the same sketch.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class QuantileSketch {
+
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+
+    private final int k;
+
+    private final Random random;
+
+    private double[][] levels = new double[1][];
+
+    private int[] sizes = new int[1];
+
+    private int levelsNum = 1;
+
+    /**
+     * The number of values kept in all the levels, and the number they can keep.
+     */
+    private int size = 0;
+
+    private int capacity;
+
+    private long count = 0;
+
+    private double min = Double.NaN;
+
+    private double max = Double.NaN;
+
+    /**
+     * @param k the capacity of the top level, the higher the more precise the sketch.
+     * @param seed the seed of the random choices of the compactions.
+     */
+    public QuantileSketch( int k, long seed ) {
+        if (k < 2) {
+            throw new IllegalArgumentException("The capacity of the sketch has to be at least 2."); //$NON-NLS-1$
+        }
+        this.k = k;
+        random = new Random(seed);
+        // the levels grow as values come, so that sketches of few values stay small
+        levels[0] = new double[Math.min(k, 8)];
+        capacity = totalCapacity();
+    }
+
+    /**
+     * Adds a value.
+     *
+     * @param value the value, not NaN.
+     */
+    public void add( double value ) {
+        if (count == 0 || value < min) {
+            min = value;
+        }
+        if (count == 0 || value > max) {
+            max = value;
+        }
+        count++;
+        append(0, value);
+        size++;
+        if (size > capacity) {
+            compress();
+        }
+    }
+
+    /**
+     * Adds the values of an other sketch, which is not changed.
+     *
+     * @param other the sketch to merge.
+     */
+    public void merge( QuantileSketch other ) {
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0 || other.min < min) {
+            min = other.min;
+        }
+        if (count == 0 || other.max > max) {
+            max = other.max;
+        }
+        count = count + other.count;
+        for( int h = 0; h < other.levelsNum; h++ ) {
+            while( h >= levelsNum ) {
+                addLevel();
+            }
+            for( int i = 0; i < other.sizes[h]; i++ ) {
+                append(h, other.levels[h][i]);
+            }
+            size = size + other.sizes[h];
+        }
+        compress();
+    }
+
+    /**
+     * @return the number of values added.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets a quantile.
+     *
+     * @param probability the probability of the quantile, between 0 and 1.
+     * @return the approximated quantile, the exact min and max for 0 and 1, NaN if no value was
+     *         added.
+     */
+    public double getQuantile( double probability ) {
+        return getQuantiles(new double[]{probability})[0];
+    }
+
+    /**
+     * Gets many quantiles at once.
+     *
+     * @param probabilities the probabilities of the quantiles, between 0 and 1.
+     * @return the approximated quantiles.
+     * @see #getQuantile(double)
+     */
+    public double[] getQuantiles( double[] probabilities ) {
+        double[] quantiles = new double[probabilities.length];
+        if (count == 0) {
+            Arrays.fill(quantiles, Double.NaN);
+            return quantiles;
+        }
+
+        // all the values, sorted with their weights
+        double[] values = new double[size];
+        long[] weights = new long[size];
+        int[] starts = new int[levelsNum + 1];
+        for( int h = 0; h < levelsNum; h++ ) {
+            System.arraycopy(levels[h], 0, values, starts[h], sizes[h]);
+            Arrays.sort(values, starts[h], starts[h] + sizes[h]);
+            starts[h + 1] = starts[h] + sizes[h];
+        }
+        double[] sorted = new double[size];
+        int[] positions = starts.clone();
+        for( int i = 0; i < size; i++ ) {
+            int level = -1;
+            for( int h = 0; h < levelsNum; h++ ) {
+                if (positions[h] < starts[h + 1]
+                        && (level < 0 || values[positions[h]] < values[positions[level]])) {
+                    level = h;
+                }
+            }
+            sorted[i] = values[positions[level]++];
+            weights[i] = 1L << level;
+        }
+
+        for( int q = 0; q < probabilities.length; q++ ) {
+            double probability = probabilities[q];
+            if (probability <= 0.0) {
+                quantiles[q] = min;
+                continue;
+            }
+            if (probability >= 1.0) {
+                quantiles[q] = max;
+                continue;
+            }
+            double rank = probability * count;
+            long cumulated = 0;
+            quantiles[q] = max;
+            for( int i = 0; i < size; i++ ) {
+                cumulated = cumulated + weights[i];
+                if (cumulated >= rank) {
+                    quantiles[q] = sorted[i];
+                    break;
+                }
+            }
+        }
+        return quantiles;
+    }
+
+    private void append( int level, double value ) {
+        double[] array = levels[level];
+        if (sizes[level] == array.length) {
+            double[] newArray = new double[2 * array.length];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            levels[level] = newArray;
+            array = newArray;
+        }
+        array[sizes[level]++] = value;
+    }
+
+    private void addLevel() {
+        double[][] newLevels = new double[levelsNum + 1][];
+        int[] newSizes = new int[levelsNum + 1];
+        System.arraycopy(levels, 0, newLevels, 0, levelsNum);
+        System.arraycopy(sizes, 0, newSizes, 0, levelsNum);
+        newLevels[levelsNum] = new double[Math.min(levelCapacity(levelsNum, levelsNum + 1), 8)];
+        levels = newLevels;
+        sizes = newSizes;
+        levelsNum++;
+        capacity = totalCapacity();
+    }
+
+    private int levelCapacity( int level, int num ) {
+        return Math.max(2, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, num - 1 - level)));
+    }
+
+    private int totalCapacity() {
+        int total = 0;
+        for( int h = 0; h < levelsNum; h++ ) {
+            total = total + levelCapacity(h, levelsNum);
+        }
+        return total;
+    }
+
+    private void compress() {
+        while( size > capacity ) {
+            for( int h = 0; h < levelsNum; h++ ) {
+                if (sizes[h] >= levelCapacity(h, levelsNum)) {
+                    compact(h);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves every other value of a level up a level, keeping the smallest one if they are odd.
+     */
+    private void compact( int level ) {
+        if (level == levelsNum - 1) {
+            addLevel();
+        }
+        int num = sizes[level];
+        double[] array = levels[level];
+        Arrays.sort(array, 0, num);
+        int first = num % 2;
+        for( int i = first + (random.nextBoolean() ? 1 : 0); i < num; i = i + 2 ) {
+            append(level + 1, array[i]);
+        }
+        sizes[level] = first;
+        size = size - (num - first) / 2;
+    }
+
+}
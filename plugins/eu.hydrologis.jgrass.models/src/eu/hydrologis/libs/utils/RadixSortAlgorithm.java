@@ -0,0 +1,243 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.isNovalue;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities;
+import eu.hydrologis.jgrass.libs.utils.ParallelUtilities.RangeTask;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.monitor.IProgressMonitorJGrass;
+
+/**
+ * Sorts arrays of doubles, as the elevations of a map, with a radix sort on their bits.
+ * <p>
+ * The values are not moved: the sort gives back the permutation of the indexes that puts them in
+ * ascending order, so that besides the values only two arrays of ints are needed. The bits of
+ * every value are turned into a long with the same ordering, which is sorted 8 bits at a time
+ * starting from the least significant ones. The groups of bits that are the same for all the
+ * values, as the sign and the exponent of the elevations of a map often are, are skipped. Every
+ * pass counts the groups of bits of chunks of the indexes in parallel and then moves every chunk
+ * to its own positions, so the time is linear also on flat areas and the sort is stable: equal
+ * values keep the order of their indexes, whatever the number of threads.
+ * </p>
+ * <p>
+ * Novalues come before all the other values, as in {@link QuickSortAlgorithm}, and
+ * <code>-0.0</code> is equal to <code>0.0</code>.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class RadixSortAlgorithm {
+
+    private static final int DIGIT_BITS = 8;
+
+    private static final int DIGITS = 1 << DIGIT_BITS;
+
+    private static final int PASSES = 64 / DIGIT_BITS;
+
+    /**
+     * The minimum number of values of a chunk, smaller chunks are not worth a thread.
+     */
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    private IProgressMonitorJGrass monitor = new DummyProgressMonitor();
+
+    private int threads = ParallelUtilities.getAvailableProcessors();
+
+    public RadixSortAlgorithm( IProgressMonitorJGrass monitor ) {
+        if (monitor != null)
+            this.monitor = monitor;
+    }
+
+    /**
+     * Sets the number of threads used by the sort.
+     *
+     * @param threads the number of threads, 1 to sort in the calling thread. The default is the
+     *        number of available processors.
+     */
+    public void setThreads( int threads ) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sorts the indexes of the values.
+     *
+     * @param values the values, which are not changed.
+     * @return the indexes of the values in ascending order of the values.
+     * @throws Exception
+     */
+    public int[] sortIndexes( final double[] values ) throws Exception {
+        final int n = values.length;
+        int chunksNum = Math.max(1, Math.min(threads, n / MIN_CHUNK_SIZE));
+        final int chunkSize = Math.max(1, (n + chunksNum - 1) / chunksNum);
+        final int chunks = Math.max(1, (n + chunkSize - 1) / chunkSize);
+
+        monitor.beginTask("Sorting...", PASSES + 1);
+        ExecutorService pool = null;
+        if (chunks > 1) {
+            pool = ParallelUtilities.newFixedThreadPool(chunks);
+        }
+        try {
+            /*
+             * find the bits that change from value to value
+             */
+            final long[] and = new long[chunks];
+            final long[] or = new long[chunks];
+            final int[][] indexes = new int[2][n];
+            run(pool, chunks, new RangeTask(){
+                public void run( int start, int end ) {
+                    for( int c = start; c < end; c++ ) {
+                        long chunkAnd = -1L;
+                        long chunkOr = 0L;
+                        int last = Math.min(n, (c + 1) * chunkSize);
+                        for( int i = c * chunkSize; i < last; i++ ) {
+                            long key = key(values[i]);
+                            chunkAnd = chunkAnd & key;
+                            chunkOr = chunkOr | key;
+                            indexes[0][i] = i;
+                        }
+                        and[c] = chunkAnd;
+                        or[c] = chunkOr;
+                    }
+                }
+            });
+            long allAnd = -1L;
+            long allOr = 0L;
+            for( int c = 0; c < chunks; c++ ) {
+                allAnd = allAnd & and[c];
+                allOr = allOr | or[c];
+            }
+            long changing = allAnd ^ allOr;
+            monitor.worked(1);
+
+            final int[][] counts = new int[chunks][DIGITS];
+            int current = 0;
+            for( int pass = 0; pass < PASSES; pass++ ) {
+                final int shift = pass * DIGIT_BITS;
+                if (((changing >>> shift) & (DIGITS - 1)) == 0) {
+                    monitor.worked(1);
+                    continue;
+                }
+                final int[] from = indexes[current];
+                final int[] to = indexes[1 - current];
+
+                run(pool, chunks, new RangeTask(){
+                    public void run( int start, int end ) {
+                        for( int c = start; c < end; c++ ) {
+                            int[] chunkCounts = counts[c];
+                            Arrays.fill(chunkCounts, 0);
+                            int last = Math.min(n, (c + 1) * chunkSize);
+                            for( int i = c * chunkSize; i < last; i++ ) {
+                                chunkCounts[digit(values[from[i]], shift)]++;
+                            }
+                        }
+                    }
+                });
+                // every chunk moves its values after the ones of the chunks before
+                int position = 0;
+                for( int d = 0; d < DIGITS; d++ ) {
+                    for( int c = 0; c < chunks; c++ ) {
+                        int count = counts[c][d];
+                        counts[c][d] = position;
+                        position = position + count;
+                    }
+                }
+                run(pool, chunks, new RangeTask(){
+                    public void run( int start, int end ) {
+                        for( int c = start; c < end; c++ ) {
+                            int[] positions = counts[c];
+                            int last = Math.min(n, (c + 1) * chunkSize);
+                            for( int i = c * chunkSize; i < last; i++ ) {
+                                int index = from[i];
+                                to[positions[digit(values[index], shift)]++] = index;
+                            }
+                        }
+                    }
+                });
+                current = 1 - current;
+                monitor.worked(1);
+            }
+            return indexes[current];
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            monitor.done();
+        }
+    }
+
+    /**
+     * Sorts the values in ascending order, moving the values to follow in the same way.
+     *
+     * @param values the values to sort.
+     * @param valuesToFollow the values to move as the sorted ones, can be <code>null</code>.
+     * @throws Exception
+     */
+    public void sort( double[] values, double[] valuesToFollow ) throws Exception {
+        int[] indexes = sortIndexes(values);
+        double[] tmp = new double[values.length];
+        reorder(values, indexes, tmp);
+        if (valuesToFollow != null) {
+            reorder(valuesToFollow, indexes, tmp);
+        }
+    }
+
+    private static void reorder( double[] values, int[] indexes, double[] tmp ) {
+        for( int i = 0; i < indexes.length; i++ ) {
+            tmp[i] = values[indexes[i]];
+        }
+        System.arraycopy(tmp, 0, values, 0, indexes.length);
+    }
+
+    private static void run( ExecutorService pool, int chunks, RangeTask task ) throws Exception {
+        if (pool == null) {
+            task.run(0, chunks);
+        } else {
+            ParallelUtilities.runInChunks(pool, 0, chunks, chunks, task);
+        }
+    }
+
+    /**
+     * @return a long that has the same ordering of the value when compared as unsigned.
+     */
+    private static long key( double value ) {
+        if (isNovalue(value)) {
+            return 0L;
+        }
+        if (value == 0.0) {
+            // no -0.0
+            value = 0.0;
+        }
+        long bits = Double.doubleToLongBits(value);
+        return bits < 0 ? ~bits : bits ^ Long.MIN_VALUE;
+    }
+
+    private static int digit( double value, int shift ) {
+        return (int) (key(value) >>> shift) & (DIGITS - 1);
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.libs.utils;
+
+import javax.media.jai.iterator.RandomIter;
+
+import eu.hydrologis.libs.openmi.ModelsConstants;
+
+/**
+ * Accumulates values along the drainage directions in topological order.
+ * <p>
+ * Instead of walking downstream from every pixel to the outlet, which costs the number of pixels
+ * times the mean length of the paths, the in-degree of every pixel (the number of pixels draining
+ * into it) is calculated once and the pixels are then visited with a queue, starting from the
+ * sources: a pixel is visited only when all the pixels upstream of it have been visited. The
+ * accumulation is then a single pass over the pixels.
+ * </p>
+ * <p>
+ * The drainage directions follow the rules of the downstream walk used by h.tca: a pixel with a
+ * flow value between 1 and 8 drains into the neighbour pointed by {@link ModelsConstants#DIR}, a
+ * pixel with flow value 10 is an outlet and receives the water without passing it further, while
+ * all the other values (novalue, 0, 9) neither receive nor pass water.
+ * </p>
+ * <p>
+ * All the data are kept in primitive arrays indexed by <code>row * cols + col</code>.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class TopologicalFlowAccumulator {
+
+    /**
+     * The flow value of the outlets.
+     */
+    public static final int OUTLET = 10;
+
+    private final int cols;
+
+    private final int rows;
+
+    private final int[] flow;
+
+    /**
+     * The index of the pixel downstream of every pixel, -1 if the pixel doesn't drain anywhere.
+     */
+    private final int[] downstream;
+
+    /**
+     * The number of pixels draining into every pixel. After the sorting the pixels that are part
+     * of a loop are the only ones with a positive in-degree.
+     */
+    private final byte[] inDegree;
+
+    /**
+     * The pixels in topological order, the first <code>sortedCount</code> are valid.
+     */
+    private int[] order;
+
+    private int sortedCount;
+
+    /**
+     * @param flowRandomIter the iterator over the map of the drainage directions.
+     * @param cols the number of columns of the map.
+     * @param rows the number of rows of the map.
+     */
+    public TopologicalFlowAccumulator( RandomIter flowRandomIter, int cols, int rows ) {
+        this(readFlow(flowRandomIter, cols, rows), cols, rows);
+    }
+
+    /**
+     * @param flow the drainage directions, indexed by <code>row * cols + col</code>.
+     * @param cols the number of columns of the map.
+     * @param rows the number of rows of the map.
+     */
+    public TopologicalFlowAccumulator( int[] flow, int cols, int rows ) {
+        this.cols = cols;
+        this.rows = rows;
+        this.flow = flow;
+        int size = cols * rows;
+        downstream = new int[size];
+        inDegree = new byte[size];
+
+        int[][] dirs = ModelsConstants.DIR;
+        for( int r = 0, index = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++, index++ ) {
+                downstream[index] = -1;
+                int flowValue = flow[index];
+                if (flowValue < 1 || flowValue > 8) {
+                    continue;
+                }
+                int newRow = r + dirs[flowValue][0];
+                int newCol = c + dirs[flowValue][1];
+                if (newRow < 0 || newRow >= rows || newCol < 0 || newCol >= cols) {
+                    continue;
+                }
+                int newIndex = newRow * cols + newCol;
+                if (isReceiving(flow[newIndex])) {
+                    downstream[index] = newIndex;
+                    inDegree[newIndex]++;
+                }
+            }
+        }
+    }
+
+    private static int[] readFlow( RandomIter flowRandomIter, int cols, int rows ) {
+        int[] flow = new int[cols * rows];
+        for( int r = 0, index = 0; r < rows; r++ ) {
+            for( int c = 0; c < cols; c++, index++ ) {
+                flow[index] = (int) flowRandomIter.getSampleDouble(c, r, 0);
+            }
+        }
+        return flow;
+    }
+
+    /**
+     * @param flowValue the flow value of a pixel.
+     * @return true if the pixel receives the water of the pixels draining into it.
+     */
+    public static boolean isReceiving( int flowValue ) {
+        return (flowValue >= 1 && flowValue <= 8) || flowValue == OUTLET;
+    }
+
+    /**
+     * Sorts the pixels in topological order, from the sources to the outlets.
+     * <p>
+     * This is done only once, the order is then reused by every accumulation.
+     * </p>
+     */
+    private void sort() {
+        if (order != null) {
+            return;
+        }
+        int size = cols * rows;
+        order = new int[size];
+        int tail = 0;
+        for( int index = 0; index < size; index++ ) {
+            if (inDegree[index] == 0) {
+                order[tail++] = index;
+            }
+        }
+        for( int head = 0; head < tail; head++ ) {
+            int next = downstream[order[head]];
+            if (next != -1 && --inDegree[next] == 0) {
+                order[tail++] = next;
+            }
+        }
+        sortedCount = tail;
+    }
+
+    /**
+     * Checks the drainage directions for loops.
+     * <p>
+     * The loop reported is the one that the downstream walk of h.tca, visiting the pixels by rows,
+     * would reach first.
+     * </p>
+     *
+     * @return null if there are no loops, else the row and column of the first pixel of the loop
+     *         that is reached followed by the row and column of the pixel it drains into.
+     */
+    public int[] getLoop() {
+        sort();
+        int size = cols * rows;
+        if (sortedCount == size) {
+            return null;
+        }
+
+        /*
+         * the pixels that are not part of a loop are all sorted, so a walk from every pixel finds
+         * the first loop, marking the pixels already known to end in an outlet in order to walk
+         * every path only once.
+         */
+        boolean[] isDone = new boolean[size];
+        for( int index = 0; index < size; index++ ) {
+            int current = index;
+            while( current != -1 && !isDone[current] && inDegree[current] == 0 ) {
+                current = downstream[current];
+            }
+            if (current != -1 && !isDone[current]) {
+                int next = downstream[current];
+                return new int[]{current / cols, current % cols, next / cols, next % cols};
+            }
+            current = index;
+            while( current != -1 && !isDone[current] ) {
+                isDone[current] = true;
+                current = downstream[current];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Accumulates a quantity along the drainage directions.
+     * <p>
+     * Every pixel gets its own weight plus the accumulated values of all the pixels that drain
+     * into it. A weight of 1 for every pixel gives the total contributing area in number of pixels.
+     * </p>
+     *
+     * @param weights the weight of every pixel, indexed by <code>row * cols + col</code>.
+     * @return the accumulated values, indexed by <code>row * cols + col</code>.
+     * @throws IllegalStateException if the drainage directions contain loops.
+     * @see #getLoop()
+     */
+    public double[] accumulate( double[] weights ) {
+        sort();
+        if (sortedCount != cols * rows) {
+            throw new IllegalStateException("The drainage directions contain loops."); //$NON-NLS-1$
+        }
+        double[] accumulated = new double[weights.length];
+        System.arraycopy(weights, 0, accumulated, 0, weights.length);
+        for( int i = 0; i < sortedCount; i++ ) {
+            int index = order[i];
+            int next = downstream[index];
+            if (next != -1) {
+                accumulated[next] += accumulated[index];
+            }
+        }
+        return accumulated;
+    }
+
+    /**
+     * @return the drainage directions, indexed by <code>row * cols + col</code>.
+     */
+    public int[] getFlow() {
+        return flow;
+    }
+
+    /**
+     * @return the index of the pixel downstream of every pixel, -1 if the pixel doesn't drain
+     *         anywhere.
+     */
+    public int[] getDownstream() {
+        return downstream;
+    }
+
+}
@@ -0,0 +1,489 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.openmi;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+
+import org.openmi.standard.IScalarSet;
+
+/**
+ * <p>
+ * A {@link ScalarSet} that keeps its values in a growable <code>double</code> array instead of a
+ * list of {@link Double} objects.
+ * </p>
+ * <p>
+ * Since it is a {@link ScalarSet}, it can be passed to all the components that check for one and
+ * read it through the list methods. Those methods box the values they return, the components that
+ * exchange many values should instead use {@link #getScalar(int)}, {@link #addScalar(double)},
+ * {@link #getDoubles()} and {@link #setDoubles(double[])}, which never box.
+ * </p>
+ * <p>
+ * The storage of the {@link java.util.ArrayList} this class inherits from is never used: all the
+ * list methods, the bulk operations and the streams included, are redirected to the array.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class DoubleScalarSet extends ScalarSet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int DEFAULT_CAPACITY = 10;
+
+    private double[] values;
+
+    private int count = 0;
+
+    /**
+     * A list view of the values, used for the iterators and the sublists.
+     */
+    private transient List<Double> view;
+
+    /**
+     * Creates an empty set.
+     */
+    public DoubleScalarSet() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty set able to hold the given number of values before growing.
+     *
+     * @param capacity the initial capacity.
+     */
+    public DoubleScalarSet( int capacity ) {
+        super();
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity); //$NON-NLS-1$
+        }
+        values = new double[capacity];
+    }
+
+    /**
+     * Creates a set holding a copy of the given values.
+     *
+     * @param values the values to copy.
+     */
+    public DoubleScalarSet( double... values ) {
+        this(values.length);
+        System.arraycopy(values, 0, this.values, 0, values.length);
+        count = values.length;
+    }
+
+    /**
+     * Creates a set holding a copy of the values of another set.
+     *
+     * @param source the set to copy.
+     */
+    public DoubleScalarSet( IScalarSet source ) {
+        this(source == null ? DEFAULT_CAPACITY : source.getCount());
+        if (source != null) {
+            count = source.getCount();
+            if (source instanceof DoubleScalarSet) {
+                System.arraycopy(((DoubleScalarSet) source).values, 0, values, 0, count);
+            } else {
+                for( int i = 0; i < count; i++ ) {
+                    values[i] = source.getScalar(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Utility to read all the values of a scalar set without boxing them when possible.
+     *
+     * @param set the set to read.
+     * @return a new array with the values of the set.
+     */
+    public static double[] toDoubles( IScalarSet set ) {
+        if (set instanceof DoubleScalarSet) {
+            return ((DoubleScalarSet) set).getDoubles();
+        }
+        double[] result = new double[set.getCount()];
+        for( int i = 0; i < result.length; i++ ) {
+            result[i] = set.getScalar(i);
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The value is read directly from the array, without boxing.
+     * </p>
+     */
+    public double getScalar( int elementIndex ) {
+        checkIndex(elementIndex);
+        return values[elementIndex];
+    }
+
+    /**
+     * Sets the value of an element.
+     *
+     * @param elementIndex index in the scalar set.
+     * @param value the new value.
+     * @return the previous value.
+     */
+    public double setScalar( int elementIndex, double value ) {
+        checkIndex(elementIndex);
+        double old = values[elementIndex];
+        values[elementIndex] = value;
+        return old;
+    }
+
+    /**
+     * Appends a value to the set.
+     *
+     * @param value the value to append.
+     */
+    public void addScalar( double value ) {
+        ensureCapacity(count + 1);
+        values[count++] = value;
+    }
+
+    /**
+     * Appends some values to the set.
+     *
+     * @param newValues the array holding the values to append.
+     * @param offset the position in the array of the first value to append.
+     * @param length the number of values to append.
+     */
+    public void addDoubles( double[] newValues, int offset, int length ) {
+        ensureCapacity(count + length);
+        System.arraycopy(newValues, offset, values, count, length);
+        count += length;
+    }
+
+    /**
+     * Appends some values to the set.
+     *
+     * @param newValues the values to append.
+     */
+    public void addDoubles( double... newValues ) {
+        addDoubles(newValues, 0, newValues.length);
+    }
+
+    /**
+     * @return a copy of the values of the set.
+     */
+    public double[] getDoubles() {
+        double[] result = new double[count];
+        System.arraycopy(values, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Copies a range of the values into an array.
+     *
+     * @param srcIndex the index of the first value to copy.
+     * @param dest the array to copy the values into.
+     * @param destIndex the position in the array of the first copied value.
+     * @param length the number of values to copy.
+     */
+    public void getDoubles( int srcIndex, double[] dest, int destIndex, int length ) {
+        if (srcIndex < 0 || length < 0 || srcIndex + length > count) {
+            throw new IndexOutOfBoundsException("Range " + srcIndex + "-" + (srcIndex + length) //$NON-NLS-1$ //$NON-NLS-2$
+                    + " outside of the set of size " + count); //$NON-NLS-1$
+        }
+        System.arraycopy(values, srcIndex, dest, destIndex, length);
+    }
+
+    /**
+     * Replaces all the values of the set with a copy of the given ones.
+     *
+     * @param newValues the new values.
+     */
+    public void setDoubles( double[] newValues ) {
+        count = 0;
+        addDoubles(newValues, 0, newValues.length);
+    }
+
+    private void checkIndex( int index ) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private void insertRoom( int index, int length ) {
+        if (index < 0 || index > count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        ensureCapacity(count + length);
+        System.arraycopy(values, index, values, index + length, count - index);
+        count += length;
+    }
+
+    private List<Double> view() {
+        if (view == null) {
+            view = new AbstractList<Double>(){
+                public Double get( int index ) {
+                    return DoubleScalarSet.this.get(index);
+                }
+                public Double set( int index, Double element ) {
+                    return DoubleScalarSet.this.set(index, element);
+                }
+                public void add( int index, Double element ) {
+                    DoubleScalarSet.this.add(index, element);
+                }
+                public Double remove( int index ) {
+                    return DoubleScalarSet.this.remove(index);
+                }
+                public int size() {
+                    return count;
+                }
+            };
+        }
+        return view;
+    }
+
+    /*
+     * the java.util.ArrayList methods, redirected to the array
+     */
+
+    public void ensureCapacity( int minCapacity ) {
+        if (values != null && minCapacity > values.length) {
+            int newCapacity = Math.max(minCapacity, values.length * 3 / 2 + 1);
+            double[] newValues = new double[newCapacity];
+            System.arraycopy(values, 0, newValues, 0, count);
+            values = newValues;
+        }
+    }
+
+    public void trimToSize() {
+        if (count < values.length) {
+            double[] newValues = new double[count];
+            System.arraycopy(values, 0, newValues, 0, count);
+            values = newValues;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public boolean contains( Object o ) {
+        return indexOf(o) >= 0;
+    }
+
+    public int indexOf( Object o ) {
+        if (o instanceof Double) {
+            double value = ((Double) o).doubleValue();
+            for( int i = 0; i < count; i++ ) {
+                if (Double.compare(values[i], value) == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public int lastIndexOf( Object o ) {
+        if (o instanceof Double) {
+            double value = ((Double) o).doubleValue();
+            for( int i = count - 1; i >= 0; i-- ) {
+                if (Double.compare(values[i], value) == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    public Object clone() {
+        DoubleScalarSet clone = (DoubleScalarSet) super.clone();
+        clone.values = getDoubles();
+        clone.view = null;
+        return clone;
+    }
+
+    public Object[] toArray() {
+        Object[] result = new Object[count];
+        for( int i = 0; i < count; i++ ) {
+            result[i] = values[i];
+        }
+        return result;
+    }
+
+    public <T> T[] toArray( T[] a ) {
+        return view().toArray(a);
+    }
+
+    public Double get( int index ) {
+        return getScalar(index);
+    }
+
+    public Double set( int index, Double element ) {
+        return setScalar(index, element);
+    }
+
+    public boolean add( Double e ) {
+        addScalar(e);
+        return true;
+    }
+
+    public void add( int index, Double element ) {
+        insertRoom(index, 1);
+        values[index] = element;
+    }
+
+    public Double remove( int index ) {
+        double old = getScalar(index);
+        removeRange(index, index + 1);
+        return old;
+    }
+
+    public boolean remove( Object o ) {
+        int index = indexOf(o);
+        if (index < 0) {
+            return false;
+        }
+        removeRange(index, index + 1);
+        return true;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public boolean addAll( Collection< ? extends Double> c ) {
+        return addAll(count, c);
+    }
+
+    public boolean addAll( int index, Collection< ? extends Double> c ) {
+        insertRoom(index, c.size());
+        for( Double value : c ) {
+            values[index++] = value;
+        }
+        return c.size() != 0;
+    }
+
+    protected void removeRange( int fromIndex, int toIndex ) {
+        System.arraycopy(values, toIndex, values, fromIndex, count - toIndex);
+        count -= toIndex - fromIndex;
+    }
+
+    public boolean removeAll( Collection< ? > c ) {
+        return view().removeAll(c);
+    }
+
+    public boolean retainAll( Collection< ? > c ) {
+        return view().retainAll(c);
+    }
+
+    public Iterator<Double> iterator() {
+        return view().iterator();
+    }
+
+    public ListIterator<Double> listIterator() {
+        return view().listIterator();
+    }
+
+    public ListIterator<Double> listIterator( int index ) {
+        return view().listIterator(index);
+    }
+
+    public List<Double> subList( int fromIndex, int toIndex ) {
+        return view().subList(fromIndex, toIndex);
+    }
+
+    public void forEach( Consumer< ? super Double> action ) {
+        for( int i = 0; i < count; i++ ) {
+            action.accept(values[i]);
+        }
+    }
+
+    public boolean removeIf( Predicate< ? super Double> filter ) {
+        int kept = 0;
+        for( int i = 0; i < count; i++ ) {
+            if (!filter.test(values[i])) {
+                values[kept++] = values[i];
+            }
+        }
+        boolean removed = kept != count;
+        count = kept;
+        return removed;
+    }
+
+    public void replaceAll( UnaryOperator<Double> operator ) {
+        for( int i = 0; i < count; i++ ) {
+            values[i] = operator.apply(values[i]);
+        }
+    }
+
+    public void sort( Comparator< ? super Double> c ) {
+        if (c == null) {
+            // the natural order of Double, the one of Double.compare
+            Arrays.sort(values, 0, count);
+        } else {
+            Double[] boxed = new Double[count];
+            for( int i = 0; i < count; i++ ) {
+                boxed[i] = values[i];
+            }
+            Arrays.sort(boxed, c);
+            for( int i = 0; i < count; i++ ) {
+                values[i] = boxed[i];
+            }
+        }
+    }
+
+    public Spliterator<Double> spliterator() {
+        return view().spliterator();
+    }
+
+    public boolean equals( Object o ) {
+        if (o instanceof DoubleScalarSet) {
+            DoubleScalarSet other = (DoubleScalarSet) o;
+            if (other.count != count) {
+                return false;
+            }
+            for( int i = 0; i < count; i++ ) {
+                if (Double.compare(values[i], other.values[i]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return view().equals(o);
+    }
+
+    public int hashCode() {
+        return view().hashCode();
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) {
+ * HydroloGIS - www.hydrologis.com
+ * C.U.D.A.M. - http://www.unitn.it/dipartimenti/cudam
+ * The JGrass developer team - www.jgrass.org
+ * }
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Library General Public License as published by the Free
+ * Software Foundation; either version 2 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Library General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Library General Public License
+ * along with this library; if not, write to the Free Foundation, Inc., 59
+ * Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ */
+package eu.hydrologis.openmi;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import nl.alterra.openmi.sdk.backbone.FloatSet;
+
+import org.openmi.standard.IScalarSet;
+
+/**
+ * <p>
+ * The primitive counterpart of the {@link FloatSet}, keeping its values in a growable
+ * <code>float</code> array.
+ * </p>
+ * <p>
+ * It is also an {@link IScalarSet}, so that the components can read it through
+ * {@link #getScalar(int)} like any other scalar set. The list methods box the values, the bulk
+ * accessors {@link #getFloats()} and {@link #setFloats(float[])} don't.
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ * @see DoubleScalarSet
+ */
+public class FloatScalarSet extends AbstractList<Float>
+        implements
+            IScalarSet,
+            RandomAccess,
+            Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private float[] values;
+
+    private int count = 0;
+
+    /**
+     * Creates an empty set.
+     */
+    public FloatScalarSet() {
+        this(10);
+    }
+
+    /**
+     * Creates an empty set able to hold the given number of values before growing.
+     *
+     * @param capacity the initial capacity.
+     */
+    public FloatScalarSet( int capacity ) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity); //$NON-NLS-1$
+        }
+        values = new float[capacity];
+    }
+
+    /**
+     * Creates a set holding a copy of the given values.
+     *
+     * @param values the values to copy.
+     */
+    public FloatScalarSet( float... values ) {
+        this(values.length);
+        setFloats(values);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public boolean isValid( int elementIndex ) {
+        return elementIndex >= 0 && elementIndex < count;
+    }
+
+    public double getScalar( int elementIndex ) {
+        return getFloat(elementIndex);
+    }
+
+    /**
+     * @param elementIndex index in the set.
+     * @return the value of the element.
+     */
+    public float getFloat( int elementIndex ) {
+        checkIndex(elementIndex);
+        return values[elementIndex];
+    }
+
+    /**
+     * Sets the value of an element.
+     *
+     * @param elementIndex index in the set.
+     * @param value the new value.
+     */
+    public void setFloat( int elementIndex, float value ) {
+        checkIndex(elementIndex);
+        values[elementIndex] = value;
+    }
+
+    /**
+     * Appends a value to the set.
+     *
+     * @param value the value to append.
+     */
+    public void addFloat( float value ) {
+        ensureCapacity(count + 1);
+        values[count++] = value;
+    }
+
+    /**
+     * @return a copy of the values of the set.
+     */
+    public float[] getFloats() {
+        float[] result = new float[count];
+        System.arraycopy(values, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Replaces all the values of the set with a copy of the given ones.
+     *
+     * @param newValues the new values.
+     */
+    public void setFloats( float[] newValues ) {
+        count = 0;
+        ensureCapacity(newValues.length);
+        System.arraycopy(newValues, 0, values, 0, newValues.length);
+        count = newValues.length;
+        modCount++;
+    }
+
+    /**
+     * Grows the array, if needed, to hold at least the given number of values.
+     *
+     * @param minCapacity the minimum capacity.
+     */
+    public void ensureCapacity( int minCapacity ) {
+        if (minCapacity > values.length) {
+            int newCapacity = Math.max(minCapacity, values.length * 3 / 2 + 1);
+            float[] newValues = new float[newCapacity];
+            System.arraycopy(values, 0, newValues, 0, count);
+            values = newValues;
+        }
+    }
+
+    private void checkIndex( int index ) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Float get( int index ) {
+        return getFloat(index);
+    }
+
+    public Float set( int index, Float element ) {
+        float old = getFloat(index);
+        values[index] = element;
+        return old;
+    }
+
+    public void add( int index, Float element ) {
+        if (index < 0 || index > count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        ensureCapacity(count + 1);
+        System.arraycopy(values, index, values, index + 1, count - index);
+        values[index] = element;
+        count++;
+        modCount++;
+    }
+
+    public Float remove( int index ) {
+        float old = getFloat(index);
+        System.arraycopy(values, index + 1, values, index, count - index - 1);
+        count--;
+        modCount++;
+        return old;
+    }
+
+    public void clear() {
+        count = 0;
+        modCount++;
+    }
+
+    public String toString() {
+        return getClass().getSimpleName() + "[" + count + "] values are Float"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+}
@@ -23,23 +23,38 @@
 package eu.hydrologis.openmi;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.nio.DoubleBuffer;
 
 import javax.media.jai.RenderedOp;
 
 import nl.alterra.openmi.sdk.backbone.ValueSet;
 
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.ViewType;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
 
 import eu.hydrologis.jgrass.libs.iodrivers.geotools.JGrassGridCoverage2D;
 import eu.hydrologis.jgrass.libs.iodrivers.geotools.JGrassGridCoverage2D.GridCoverageBuilder;
 import eu.hydrologis.jgrass.libs.iodrivers.geotools.JGrassGridCoverage2D.WritableGridCoverageBuilder;
+import eu.hydrologis.jgrass.libs.map.CopyOnWriteRasterData;
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
 
 /**
  * Represents a {@link ValueSet} that wraps a {@link GridCoverage2D} object.
+ * <p>
+ * Linked models can read the values of the first band through {@link #getRasterData()}, a read
+ * only view shared by all of them. If the coverage is backed by a single raster of doubles the
+ * view is over the buffer of the raster itself, else the values are copied once. Models changing
+ * the values use {@link #getCopyOnWriteRasterData()}, which copies them only at the first change.
+ * </p>
  * 
  * @author Andrea Antonello (www.hydrologis.com)
  * @since 3.0
@@ -50,6 +65,15 @@ public class JGrassGridCoverageValueSet extends ValueSet {
 
     private GridCoverage2D gridCoverage2D = null;
 
+    /**
+     * The raster the coverage was created on, if any.
+     */
+    private WritableRaster raster = null;
+
+    private DoubleRasterData rasterData = null;
+
+    private boolean rasterBufferShared = false;
+
     /**
      * Cosntructor for {@link JGrassGridCoverageValueSet}.
      * 
@@ -78,6 +102,7 @@ public class JGrassGridCoverageValueSet extends ValueSet {
         JGrassGridCoverage2D jgrassGridCoverage2D = gridCoverageBuilder.writeRegion(writeRegion).crs(crs).dataRange(
                 new double[]{0.0, 4000.0}).build();
         gridCoverage2D = jgrassGridCoverage2D.getGridCoverage2D();
+        this.raster = raster;
     }
 
     /**
@@ -104,6 +129,113 @@ public class JGrassGridCoverageValueSet extends ValueSet {
         return gridCoverage2D;
     }
 
+    /**
+     * Getter for a read only view of the values of the first band of the coverage.
+     * <p>
+     * The view is created at the first call and shared by all the callers. Setting a value
+     * through it throws a {@link java.nio.ReadOnlyBufferException}.
+     * </p>
+     * 
+     * @return the values of the geophysics view of the coverage.
+     * @see #isRasterBufferShared()
+     */
+    public synchronized DoubleRasterData getRasterData() {
+        if (rasterData == null) {
+            rasterData = createRasterData();
+        }
+        return rasterData;
+    }
+
+    /**
+     * Getter for a view of the values of the first band of the coverage, which copies them at the
+     * first change.
+     * 
+     * @return a new view for the caller.
+     */
+    public CopyOnWriteRasterData getCopyOnWriteRasterData() {
+        return new CopyOnWriteRasterData(getRasterData());
+    }
+
+    /**
+     * @return <code>true</code> if the view returned by {@link #getRasterData()} is over the
+     *         buffer of the raster of the coverage, <code>false</code> if the values were copied.
+     */
+    public synchronized boolean isRasterBufferShared() {
+        getRasterData();
+        return rasterBufferShared;
+    }
+
+    private DoubleRasterData createRasterData() {
+        RenderedImage image = gridCoverage2D.view(ViewType.GEOPHYSICS).getRenderedImage();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        Raster single = raster;
+        if (single == null && image.getNumXTiles() == 1 && image.getNumYTiles() == 1) {
+            single = image.getTile(image.getMinTileX(), image.getMinTileY());
+        }
+        if (single != null && single.getWidth() == width && single.getHeight() == height) {
+            DoubleBuffer buffer = wrapBuffer(single);
+            if (buffer != null) {
+                rasterBufferShared = true;
+                return new DoubleRasterData(new DoubleBuffer[]{buffer}, height, width);
+            }
+        }
+
+        // copy the values once, tile by tile
+        double[] values = new double[width * height];
+        double[] tileRow = null;
+        for( int tileY = image.getMinTileY(); tileY < image.getMinTileY() + image.getNumYTiles(); tileY++ ) {
+            for( int tileX = image.getMinTileX(); tileX < image.getMinTileX() + image.getNumXTiles(); tileX++ ) {
+                Raster tile = image.getTile(tileX, tileY);
+                int minX = Math.max(tile.getMinX(), image.getMinX());
+                int maxX = Math.min(tile.getMinX() + tile.getWidth(), image.getMinX() + width);
+                int minY = Math.max(tile.getMinY(), image.getMinY());
+                int maxY = Math.min(tile.getMinY() + tile.getHeight(), image.getMinY() + height);
+                for( int y = minY; y < maxY; y++ ) {
+                    tileRow = tile.getSamples(minX, y, maxX - minX, 1, 0, tileRow);
+                    System.arraycopy(tileRow, 0, values, (y - image.getMinY()) * width + minX
+                            - image.getMinX(), maxX - minX);
+                }
+            }
+        }
+        rasterBufferShared = false;
+        return new DoubleRasterData(new DoubleBuffer[]{DoubleBuffer.wrap(values).asReadOnlyBuffer()},
+                height, width);
+    }
+
+    /**
+     * Wraps the first band of a raster of doubles without copying it.
+     * 
+     * @param raster the raster.
+     * @return the read only buffer over the values in row major order, or null if the layout of
+     *         the raster doesn't allow it.
+     */
+    private static DoubleBuffer wrapBuffer( Raster raster ) {
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        SampleModel sampleModel = raster.getSampleModel();
+        if (!(dataBuffer instanceof DataBufferDouble) || dataBuffer.getNumBanks() != 1
+                || !(sampleModel instanceof ComponentSampleModel)) {
+            return null;
+        }
+        ComponentSampleModel componentSampleModel = (ComponentSampleModel) sampleModel;
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        if (componentSampleModel.getPixelStride() != 1
+                || componentSampleModel.getScanlineStride() != width) {
+            return null;
+        }
+        int offset = dataBuffer.getOffset()
+                + componentSampleModel.getOffset(raster.getMinX()
+                        - raster.getSampleModelTranslateX(), raster.getMinY()
+                        - raster.getSampleModelTranslateY(), 0);
+        double[] bank = ((DataBufferDouble) dataBuffer).getData(0);
+        if (offset < 0 || offset + width * height > bank.length) {
+            return null;
+        }
+        return DoubleBuffer.wrap(bank, offset, width * height).slice().asReadOnlyBuffer();
+    }
+
     public String toString() {
         String msg = "JGrassGridCoverageValueSet extending ValueSet and wrapping:"; //$NON-NLS-1$
         msg = msg + gridCoverage2D.toString();
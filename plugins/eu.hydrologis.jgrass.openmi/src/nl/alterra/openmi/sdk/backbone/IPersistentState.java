@@ -0,0 +1,75 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 OpenMI Association
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ *    Contact info:
+ *      URL: www.openmi.org
+ *      Email: sourcecode@openmi.org
+ *      Discussion forum available at www.sourceforge.net
+ *
+ *      Coordinator: Roger Moore, CEH Wallingford, Wallingford, Oxon, UK
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.backbone;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Interface for linkable components (or model engines) that can write their
+ * state to a binary stream and read it back, so that a calculation can be
+ * resumed later on, in another process, from the same point.
+ * 
+ * The state should hold everything that changes while time steps are
+ * performed (state vectors, storages, the current time), not what is read
+ * again from the arguments or the inputs when the component is initialized.
+ * The state is read back after the component has been initialized and
+ * prepared with the same arguments as the one it was written by.
+ */
+public interface IPersistentState {
+
+    /**
+     * Tells if the state can be written and read back. Components that only
+     * pass the state on to something else, as a wrapper around an engine,
+     * can have nothing to save: they return false and their writeState()
+     * and readState() do nothing.
+     *
+     * @return true if the state is written by writeState()
+     */
+    public boolean isPersistent();
+
+    /**
+     * Writes the current state to the stream.
+     *
+     * @param out The stream to write the state to
+     * @throws IOException When writing fails
+     */
+    public void writeState(DataOutput out) throws IOException;
+
+    /**
+     * Reads a state written by writeState() from the stream and makes it
+     * the current state. Exactly the data written by writeState() must be
+     * read.
+     *
+     * @param in The stream to read the state from
+     * @throws IOException When reading fails or the state does not fit
+     */
+    public void readState(DataInput in) throws IOException;
+
+}
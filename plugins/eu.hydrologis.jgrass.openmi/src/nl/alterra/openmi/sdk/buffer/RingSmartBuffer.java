@@ -0,0 +1,856 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 OpenMI Association
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ *    Contact info:
+ *      URL: www.openmi.org
+ *      Email: sourcecode@openmi.org
+ *      Discussion forum available at www.sourceforge.net
+ *
+ *      Coordinator: Roger Moore, CEH Wallingford, Wallingford, Oxon, UK
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.buffer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.TimeSpan;
+import nl.alterra.openmi.sdk.backbone.TimeStamp;
+import nl.alterra.openmi.sdk.backbone.Vector;
+import nl.alterra.openmi.sdk.backbone.VectorSet;
+import org.openmi.standard.*;
+
+/**
+ * A variant of the SmartBuffer meant for long simulations, providing the same
+ * interpolation, extrapolation and aggregation of the buffered values.
+ * 
+ * The times are kept as Modified Julian Days in double arrays and the values
+ * in one double array per time step, all in a ring: the oldest time steps are
+ * removed by moving the start of the ring, and a buffer created with a
+ * maximum size evicts its oldest time step when a new one is added to it
+ * while full. The time steps involved in a mapping are found by binary
+ * search, so that requesting values costs O(log n) in the number of buffered
+ * time steps instead of O(n), and adding them and clearing the old ones
+ * does not move the remaining ones.
+ * 
+ * As for the SmartBuffer, the buffer may not contain mixtures of TimeSpans
+ * and TimeStamps or of ScalarSets and VectorSets, and all the value sets
+ * must have the same number of values. With the extended data verification
+ * on, only the added time step is checked against the last one, instead of
+ * checking the whole buffer at every call.
+ * 
+ * The results are the ones of the SmartBuffer, except for the time spans
+ * requested from buffered time stamps that start before the first of them:
+ * the SmartBuffer always gives NaN values there, since it divides by the
+ * distance of the first time stamp from itself.
+ */
+public class RingSmartBuffer implements Serializable {
+
+    private static final long serialVersionUID = 2185713799388342501L;
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /**
+     * Maximum number of buffered time steps, 0 if unbounded.
+     */
+    private int maximumSize;
+
+    /**
+     * Start times (or time stamps) of the buffered time steps, in the ring.
+     */
+    private double[] startTimes;
+
+    /**
+     * End times of the buffered time spans (or the time stamps), in the ring.
+     */
+    private double[] endTimes;
+
+    /**
+     * Values of the buffered time steps, in the ring. For vector sets the
+     * x, y and z components of every vector follow each other.
+     */
+    private double[][] data;
+
+    private int head = 0;
+    private int size = 0;
+
+    private boolean timeSpans;
+    private boolean vectors;
+    private int valueCount;
+
+    private double relaxationFactor = 1.0;
+    private boolean doExtendedDataVerification = true;
+
+    /**
+     * Creates an empty buffer that grows as needed.
+     */
+    public RingSmartBuffer() {
+        this(0);
+    }
+
+    /**
+     * Creates an empty buffer holding at most the given number of time steps.
+     * When full, adding a time step evicts the oldest one.
+     *
+     * @param maximumSize the maximum number of time steps, at least 2, or 0
+     *                    for an unbounded buffer
+     */
+    public RingSmartBuffer(int maximumSize) {
+        if (maximumSize < 0 || maximumSize == 1) {
+            throw new IllegalArgumentException("The maximum size must be 0 or at least 2");
+        }
+        this.maximumSize = maximumSize;
+        int capacity = maximumSize > 0 ? Math.min(maximumSize, DEFAULT_CAPACITY) : DEFAULT_CAPACITY;
+        startTimes = new double[capacity];
+        endTimes = new double[capacity];
+        data = new double[capacity][];
+    }
+
+    /**
+     * Copy constructor
+     *
+     * @param buffer the buffer to copy
+     */
+    public RingSmartBuffer(RingSmartBuffer buffer) {
+        this(buffer.maximumSize);
+        relaxationFactor = buffer.relaxationFactor;
+        doExtendedDataVerification = buffer.doExtendedDataVerification;
+        timeSpans = buffer.timeSpans;
+        vectors = buffer.vectors;
+        valueCount = buffer.valueCount;
+        ensureCapacity(buffer.size);
+        for (int n = 0; n < buffer.size; n++) {
+            int from = buffer.slot(n);
+            startTimes[n] = buffer.startTimes[from];
+            endTimes[n] = buffer.endTimes[from];
+            data[n] = buffer.data[from].clone();
+        }
+        size = buffer.size;
+    }
+
+    // @@@@@@@ GETTERS AND SETTERS @@@@@@@
+
+    /**
+     * GETTER for number of times
+     *
+     * @return time size
+     */
+    public int getTimesCount() {
+        return size;
+    }
+
+    /**
+     * GETTER for number of values
+     *
+     * @return number of values
+     */
+    public int getValuesCount() {
+        return valueCount;
+    }
+
+    /**
+     * GETTER for the maximum number of time steps
+     *
+     * @return the maximum number of time steps, 0 if unbounded
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * GETTER for Relaxation Factor
+     *
+     * @return Relaxation Factor
+     */
+    public double getRelaxationFactor() {
+        return relaxationFactor;
+    }
+
+    /**
+     * SETTER for Relaxation Factor
+     *
+     * @param value the relaxation factor to set
+     * @throws Exception
+     */
+    public void setRelaxationFactor(double value) throws Exception {
+        if (value < 0 || value > 1) {
+            throw new Exception("RelaxationFactor is out of range");
+        }
+        relaxationFactor = value;
+    }
+
+    /**
+     * GETTER for the flag that indicates whether or not to check the added data.
+     *
+     * @return the boolean flag for data verification
+     */
+    public boolean getDoExtendedDataVerification() {
+        return doExtendedDataVerification;
+    }
+
+    /**
+     * SETTER for the flag that indicates whether or not to check the added data.
+     *
+     * @param value boolean for data verification
+     */
+    public void setDoExtendedDataVerification(boolean value) {
+        doExtendedDataVerification = value;
+    }
+
+    // @@@@@@@ ADDING AND CLEARING @@@@@@@
+
+    /**
+     * Add corresponding values for time and values to the buffer. The values
+     * are copied, as in the SmartBuffer.
+     *
+     * @param time     the time of the values, TimeStamp or TimeSpan
+     * @param valueSet the values, ScalarSet or VectorSet
+     */
+    public void addValues(ITime time, IValueSet valueSet) {
+        boolean span;
+        double start;
+        double end;
+        if (time instanceof ITimeStamp) {
+            span = false;
+            start = ((ITimeStamp) time).getModifiedJulianDay();
+            end = start;
+        } else if (time instanceof ITimeSpan) {
+            span = true;
+            start = ((ITimeSpan) time).getStart().getModifiedJulianDay();
+            end = ((ITimeSpan) time).getEnd().getModifiedJulianDay();
+        } else {
+            throw new RuntimeException("Invalid datatype used for time argument in method AddValues");
+        }
+
+        boolean vector;
+        if (valueSet instanceof IScalarSet) {
+            vector = false;
+        } else if (valueSet instanceof IVectorSet) {
+            vector = true;
+        } else {
+            throw new RuntimeException("Invalid datatype used for values argument in method AddValues");
+        }
+
+        double[] slotValues = prepareSlot(span, start, end, vector, valueSet.getCount());
+        if (vector) {
+            for (int i = 0; i < valueCount; i++) {
+                IVector v = ((IVectorSet) valueSet).getVector(i);
+                slotValues[3 * i] = v.getXComponent();
+                slotValues[3 * i + 1] = v.getYComponent();
+                slotValues[3 * i + 2] = v.getZComponent();
+            }
+        } else {
+            for (int i = 0; i < valueCount; i++) {
+                slotValues[i] = ((IScalarSet) valueSet).getScalar(i);
+            }
+        }
+    }
+
+    /**
+     * Add the scalar values for a time stamp to the buffer. The values are
+     * copied.
+     *
+     * @param modifiedJulianDay the time stamp of the values
+     * @param scalars           the values
+     */
+    public void addValues(double modifiedJulianDay, double[] scalars) {
+        double[] slotValues = prepareSlot(false, modifiedJulianDay, modifiedJulianDay, false, scalars.length);
+        System.arraycopy(scalars, 0, slotValues, 0, scalars.length);
+    }
+
+    /**
+     * Checks a new time step, makes room for it and returns the array
+     * to copy its values in.
+     */
+    private double[] prepareSlot(boolean span, double start, double end, boolean vector, int count) {
+        if (size == 0) {
+            timeSpans = span;
+            vectors = vector;
+            valueCount = count;
+        } else {
+            if (span != timeSpans) {
+                throw new RuntimeException("Illegal data type for time in buffer");
+            }
+            if (vector != vectors) {
+                throw new RuntimeException("Illegal data type for values in buffer");
+            }
+            if (count != valueCount) {
+                throw new RuntimeException("Different numbers of values in the buffered value sets");
+            }
+        }
+
+        if (doExtendedDataVerification) {
+            if (span && start >= end) {
+                throw new RuntimeException("BeginTime is larger than or equal to EndTime in TimeSpan");
+            }
+            if (size > 0) {
+                double last = endTimes[slot(size - 1)];
+                if (span && start != last) {
+                    throw new RuntimeException("EndTime is not equal to StartTime for the following time step");
+                }
+                if (!span && start <= last) {
+                    throw new RuntimeException("TimeStamps are not encreasing in buffer");
+                }
+            }
+        }
+
+        if (maximumSize > 0 && size == maximumSize) {
+            // evict the oldest time step, reusing its values array
+            head = slot(1);
+            size--;
+        } else {
+            ensureCapacity(size + 1);
+        }
+
+        int s = slot(size);
+        startTimes[s] = start;
+        endTimes[s] = end;
+        int length = vector ? 3 * count : count;
+        if (data[s] == null || data[s].length != length) {
+            data[s] = new double[length];
+        }
+        size++;
+        return data[s];
+    }
+
+    /**
+     * Grows the ring, unrolling it to start at index 0.
+     */
+    private void ensureCapacity(int minCapacity) {
+        int capacity = startTimes.length;
+        if (minCapacity <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(minCapacity, capacity * 2);
+        if (maximumSize > 0) {
+            newCapacity = Math.min(newCapacity, maximumSize);
+        }
+        double[] newStarts = new double[newCapacity];
+        double[] newEnds = new double[newCapacity];
+        double[][] newData = new double[newCapacity][];
+        for (int n = 0; n < size; n++) {
+            int s = slot(n);
+            newStarts[n] = startTimes[s];
+            newEnds[n] = endTimes[s];
+            newData[n] = data[s];
+        }
+        startTimes = newStarts;
+        endTimes = newEnds;
+        data = newData;
+        head = 0;
+    }
+
+    /**
+     * Validates the buffer, as the SmartBuffer does. Throws an exception if
+     * the buffer is empty or its times are not in sequence.
+     */
+    public void checkBuffer() {
+        if (size == 0) {
+            throw new RuntimeException("Buffer is empty");
+        }
+        for (int n = 0; n < size; n++) {
+            if (timeSpans && start(n) >= end(n)) {
+                throw new RuntimeException("BeginTime is larger than or equal to EndTime in TimeSpan");
+            }
+            if (n > 0) {
+                if (timeSpans && start(n) != end(n - 1)) {
+                    throw new RuntimeException("EndTime is not equal to StartTime for the following time step");
+                }
+                if (!timeSpans && start(n) <= start(n - 1)) {
+                    throw new RuntimeException("TimeStamps are not encreasing in buffer");
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the buffer between start- and end- time of the time span: the
+     * time stamps strictly inside it, or the time spans strictly inside it.
+     *
+     * @param time timeSpan period to clear
+     */
+    public void clear(ITimeSpan time) {
+        double tb = time.getStart().getModifiedJulianDay();
+        double te = time.getEnd().getModifiedJulianDay();
+        int kept = 0;
+        for (int n = 0; n < size; n++) {
+            int s = slot(n);
+            boolean inside = timeSpans ? (startTimes[s] > tb && endTimes[s] < te)
+                    : (startTimes[s] > tb && startTimes[s] < te);
+            if (!inside) {
+                int d = slot(kept);
+                if (d != s) {
+                    double[] free = data[d];
+                    startTimes[d] = startTimes[s];
+                    endTimes[d] = endTimes[s];
+                    data[d] = data[s];
+                    data[s] = free;
+                }
+                kept++;
+            }
+        }
+        size = kept;
+    }
+
+    /**
+     * Clear all times and values in the buffer at or later than the specified
+     * time. If the specified time is type ITimeSpan the Start time is used.
+     *
+     * @param time the beginning period
+     * @throws Exception
+     */
+    public void clearAfter(ITime time) throws Exception {
+        double t;
+        if (time instanceof ITimeStamp) {
+            t = ((ITimeStamp) time).getModifiedJulianDay();
+        } else if (time instanceof ITimeSpan) {
+            t = ((ITimeSpan) time).getStart().getModifiedJulianDay();
+        } else {
+            throw new Exception("Wrong argument type for call to RingSmartBuffer.clearAfter()");
+        }
+        // keep the time steps starting before the time
+        size = countStartsBefore(t);
+    }
+
+    /**
+     * Clear all records in the buffer associated to a time earlier than the
+     * specified one, leaving one of them in the buffer. Time spans are
+     * earlier if they end before the time, as in Support.isBefore().
+     *
+     * @param time ending time for clearing
+     */
+    public void clearBefore(ITimeStamp time) {
+        double t = time.getModifiedJulianDay();
+
+        // the end times increase, find the first one that is not before the time
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (end(mid) < t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        int numberOfRecordsToRemove = low - 1;
+        if (numberOfRecordsToRemove > 0) {
+            head = slot(numberOfRecordsToRemove);
+            size -= numberOfRecordsToRemove;
+        }
+    }
+
+    // @@@@@@@ READING @@@@@@@
+
+    /**
+     * Return the time at a given index
+     *
+     * @param timeStep the time step index
+     * @return a new TimeStamp or TimeSpan
+     */
+    public ITime getTimeAt(int timeStep) {
+        checkIndex(timeStep);
+        if (timeSpans) {
+            return new TimeSpan(new TimeStamp(start(timeStep)), new TimeStamp(end(timeStep)));
+        }
+        return new TimeStamp(start(timeStep));
+    }
+
+    /**
+     * Return the values at a given index
+     *
+     * @param timeStep the time step index
+     * @return a copy of the values
+     */
+    public IValueSet getValuesAt(int timeStep) {
+        checkIndex(timeStep);
+        return createValueSet(data[slot(timeStep)]);
+    }
+
+    /**
+     * Get the values at a given time, interpolated, extrapolated or
+     * aggregated from the buffered ones.
+     *
+     * @param requestedTime the requested time
+     * @return the valueSet
+     * @throws Exception
+     */
+    public IValueSet getValues(ITime requestedTime) throws Exception {
+        if (requestedTime instanceof ITimeSpan) {
+            double trb = ((ITimeSpan) requestedTime).getStart().getModifiedJulianDay();
+            double tre = ((ITimeSpan) requestedTime).getEnd().getModifiedJulianDay();
+            if (doExtendedDataVerification && trb >= tre) {
+                throw new Exception("BeginTime is larger than or equal to EndTime in TimeSpan");
+            }
+            if (size == 0) {
+                return new ScalarSet();
+            }
+            double[] result = new double[data[head].length];
+            if (size == 1) {
+                System.arraycopy(data[head], 0, result, 0, result.length);
+            } else if (timeSpans) {
+                mapFromTimeSpansToTimeSpan(trb, tre, result);
+            } else {
+                mapFromTimeStampsToTimeSpan(trb, tre, result);
+            }
+            return createValueSet(result);
+        } else if (requestedTime instanceof ITimeStamp) {
+            if (size == 0) {
+                return new ScalarSet();
+            }
+            double[] result = new double[data[head].length];
+            getValues(((ITimeStamp) requestedTime).getModifiedJulianDay(), result);
+            return createValueSet(result);
+        }
+        throw new Exception("Requested TimeMapping not available in RingSmartBuffer Class");
+    }
+
+    /**
+     * Get the values at a given time stamp into an array, without creating
+     * any object. For vector sets the x, y and z components of every vector
+     * follow each other.
+     *
+     * @param modifiedJulianDay the requested time stamp
+     * @param result            the array to fill, at least as long as the
+     *                          number of values (three times for vectors)
+     */
+    public void getValues(double modifiedJulianDay, double[] result) {
+        if (size == 0) {
+            throw new RuntimeException("Buffer is empty");
+        }
+        if (size == 1) {
+            System.arraycopy(data[head], 0, result, 0, data[head].length);
+        } else if (timeSpans) {
+            mapFromTimeSpansToTimeStamp(modifiedJulianDay, result);
+        } else {
+            mapFromTimeStampsToTimeStamp(modifiedJulianDay, result);
+        }
+    }
+
+    private int slot(int n) {
+        int s = head + n;
+        return s >= startTimes.length ? s - startTimes.length : s;
+    }
+
+    private double start(int n) {
+        return startTimes[slot(n)];
+    }
+
+    private double end(int n) {
+        return endTimes[slot(n)];
+    }
+
+    private void checkIndex(int timeStep) {
+        if (timeStep < 0 || timeStep >= size) {
+            throw new IndexOutOfBoundsException("Index: " + timeStep + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Returns the number of time steps starting before the time, which is
+     * also the index of the first one starting at or after it.
+     */
+    private int countStartsBefore(double t) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (start(mid) < t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the index of the last time step starting at or before the
+     * time, -1 if none.
+     */
+    private int lastStartAtOrBefore(double t) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (start(mid) <= t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    private IValueSet createValueSet(double[] x) {
+        if (vectors) {
+            Vector[] v = new Vector[valueCount];
+            for (int i = 0; i < valueCount; i++) {
+                v[i] = new Vector(x[3 * i], x[3 * i + 1], x[3 * i + 2]);
+            }
+            return new VectorSet(v);
+        }
+        double[] xx = new double[valueCount];
+        System.arraycopy(x, 0, xx, 0, valueCount);
+        return new ScalarSet(xx);
+    }
+
+    // @@@@@@@ MAPPINGS @@@@@@@
+
+    /**
+     * Time stamps to time stamp: linear interpolation between the enclosing
+     * time stamps, or extrapolation from the first or last two.
+     */
+    private void mapFromTimeStampsToTimeStamp(double tr, double[] xr) {
+        int N = size;
+        int L = data[head].length;
+        double tb0 = start(0);
+        double tbN_1 = start(N - 1);
+
+        if (tr <= tb0) {
+            double[] s0 = data[slot(0)];
+            double[] s1 = data[slot(1)];
+            double tb1 = start(1);
+            for (int j = 0; j < L; j++) {
+                xr[j] = ((s0[j] - s1[j]) / (tb0 - tb1)) * (tr - tb0) * (1 - relaxationFactor) + s0[j];
+            }
+        } else if (tr > tbN_1) {
+            double[] sN_2 = data[slot(N - 2)];
+            double[] sN_1 = data[slot(N - 1)];
+            double tbN_2 = start(N - 2);
+            for (int j = 0; j < L; j++) {
+                xr[j] = ((sN_1[j] - sN_2[j]) / (tbN_1 - tbN_2)) * (tr - tbN_1) * (1 - relaxationFactor) + sN_1[j];
+            }
+        } else {
+            int n = Math.min(lastStartAtOrBefore(tr), N - 2);
+            double tbn1 = start(n);
+            double tbn2 = start(n + 1);
+            double[] sn1 = data[slot(n)];
+            double[] sn2 = data[slot(n + 1)];
+            for (int j = 0; j < L; j++) {
+                xr[j] = ((sn2[j] - sn1[j]) / (tbn2 - tbn1)) * (tr - tbn1) + sn1[j];
+            }
+        }
+    }
+
+    /**
+     * Time spans to time stamp: the values of the enclosing time span, or
+     * extrapolation from the first or last two.
+     */
+    private void mapFromTimeSpansToTimeStamp(double tr, double[] xr) {
+        int N = size;
+        int L = data[head].length;
+        double tbb0 = start(0);
+        double tbeN_1 = end(N - 1);
+
+        if (tr <= tbb0) {
+            double[] s0 = data[slot(0)];
+            double[] s1 = data[slot(1)];
+            double tbb1 = start(1);
+            for (int j = 0; j < L; j++) {
+                xr[j] = ((s0[j] - s1[j]) / (tbb0 - tbb1)) * (tr - tbb0) * (1 - relaxationFactor) + s0[j];
+            }
+        } else if (tr >= tbeN_1) {
+            double[] sN_2 = data[slot(N - 2)];
+            double[] sN_1 = data[slot(N - 1)];
+            double tbeN_2 = end(N - 2);
+            for (int j = 0; j < L; j++) {
+                xr[j] = ((sN_1[j] - sN_2[j]) / (tbeN_1 - tbeN_2)) * (tr - tbeN_1) * (1 - relaxationFactor) + sN_1[j];
+            }
+        } else {
+            int n = lastStartAtOrBefore(tr);
+            if (n >= 0 && tr < end(n)) {
+                System.arraycopy(data[slot(n)], 0, xr, 0, L);
+            } else {
+                // falls in a gap between time spans
+                Arrays.fill(xr, 0, L, 0.0);
+            }
+        }
+    }
+
+    /**
+     * Time spans to time span: the buffered values weighted by their overlap
+     * with the requested span, with extrapolation for the parts of it
+     * outside the buffer.
+     */
+    private void mapFromTimeSpansToTimeSpan(double trb, double tre, double[] xr) {
+        int N = size;
+        int L = data[head].length;
+        Arrays.fill(xr, 0, L, 0.0);
+
+        // only the spans ending after the requested start and starting before its end overlap it
+        int first = countEndsAtOrBefore(trb);
+        int last = countStartsBefore(tre) - 1;
+        for (int n = first; n <= last; n++) {
+            double tbbn = start(n);
+            double tben = end(n);
+            double[] sbn = data[slot(n)];
+
+            if (trb <= tbbn && tre >= tben) {
+                // buffered span fully included in the requested one
+                double f = (tben - tbbn) / (tre - trb);
+                for (int j = 0; j < L; j++) {
+                    xr[j] += sbn[j] * f;
+                }
+            } else if (tbbn <= trb && tre <= tben) {
+                // requested span included in the buffered one
+                for (int j = 0; j < L; j++) {
+                    xr[j] += sbn[j];
+                }
+            } else if (tbbn < trb && trb < tben && tre > tben) {
+                double f = (tben - trb) / (tre - trb);
+                for (int j = 0; j < L; j++) {
+                    xr[j] += sbn[j] * f;
+                }
+            } else if (trb < tbbn && tre > tbbn && tre < tben) {
+                double f = (tre - tbbn) / (tre - trb);
+                for (int j = 0; j < L; j++) {
+                    xr[j] += sbn[j] * f;
+                }
+            }
+        }
+
+        double tbb0 = start(0);
+        double tbe0 = end(0);
+        double tbe1 = end(1);
+        double[] s0 = data[slot(0)];
+        double[] s1 = data[slot(1)];
+
+        if (trb < tbb0 && tre > tbb0) {
+            for (int j = 0; j < L; j++) {
+                xr[j] += ((tbb0 - trb) / (tre - trb)) * (s0[j] - (1 - relaxationFactor) * ((tbb0 - trb) * (s1[j] - s0[j]) / (tbe1 - tbe0)));
+            }
+        }
+
+        double tbeN_1 = end(N - 1);
+        double tbbN_2 = start(N - 2);
+        double[] sN_1 = data[slot(N - 1)];
+        double[] sN_2 = data[slot(N - 2)];
+
+        if (tre > tbeN_1 && trb < tbeN_1) {
+            double tbbN_1 = start(N - 1);
+            for (int j = 0; j < L; j++) {
+                xr[j] += ((tre - tbeN_1) / (tre - trb)) * (sN_1[j] + (1 - relaxationFactor) * ((tre - tbbN_1) * (sN_1[j] - sN_2[j]) / (tbeN_1 - tbbN_2)));
+            }
+        }
+
+        if (trb >= tbeN_1) {
+            // as in the SmartBuffer the last values are extended unchanged
+            System.arraycopy(sN_1, 0, xr, 0, L);
+        }
+
+        if (tre <= tbb0) {
+            for (int j = 0; j < L; j++) {
+                xr[j] = s0[j] - (1 - relaxationFactor) * ((s1[j] - s0[j]) / (tbe1 - tbb0)) * (tbe0 + tbb0 - tre - trb);
+            }
+        }
+    }
+
+    /**
+     * Time stamps to time span: the average of the linear interpolation of
+     * the buffered values over the requested span, with extrapolation for
+     * the parts of it outside the buffer.
+     */
+    private void mapFromTimeStampsToTimeSpan(double trb, double tre, double[] xr) {
+        int N = size;
+        int L = data[head].length;
+        Arrays.fill(xr, 0, L, 0.0);
+
+        // only the intervals between time stamps that overlap the requested span contribute
+        int first = Math.max(countStartsAtOrBefore(trb) - 1, 0);
+        int last = Math.min(countStartsBefore(tre) - 1, N - 2);
+        for (int n = first; n <= last; n++) {
+            double tbn = start(n);
+            double tbnp1 = start(n + 1);
+            double[] sbn = data[slot(n)];
+            double[] sbnp1 = data[slot(n + 1)];
+
+            if (trb <= tbn && tre >= tbnp1) {
+                double f = (tbnp1 - tbn) / (tre - trb);
+                for (int j = 0; j < L; j++) {
+                    xr[j] += 0.5 * (sbn[j] + sbnp1[j]) * f;
+                }
+            } else if (tbn <= trb && tre <= tbnp1) {
+                for (int j = 0; j < L; j++) {
+                    xr[j] += sbn[j] + ((sbnp1[j] - sbn[j]) / (tbnp1 - tbn)) * ((tre + trb) / 2 - tbn);
+                }
+            } else if (tbn < trb && trb < tbnp1 && tre > tbnp1) {
+                for (int j = 0; j < L; j++) {
+                    xr[j] += (sbnp1[j] - (sbnp1[j] - sbn[j]) / (tbnp1 - tbn) * ((tbnp1 - trb) / 2)) * (tbnp1 - trb) / (tre - trb);
+                }
+            } else if (trb < tbn && tre > tbn && tre < tbnp1) {
+                for (int j = 0; j < L; j++) {
+                    xr[j] += (sbn[j] + (sbnp1[j] - sbn[j]) / (tbnp1 - tbn) * ((tre - tbn) / 2)) * (tre - tbn) / (tre - trb);
+                }
+            }
+        }
+
+        double tb0 = start(0);
+        double tb1 = start(1);
+        double tbN_1 = start(N - 1);
+        double tbN_2 = start(N - 2);
+        double[] s0 = data[slot(0)];
+        double[] s1 = data[slot(1)];
+        double[] sN_1 = data[slot(N - 1)];
+        double[] sN_2 = data[slot(N - 2)];
+
+        if (trb < tb0 && tre > tb0) {
+            for (int j = 0; j < L; j++) {
+                xr[j] += ((tb0 - trb) / (tre - trb)) * (s0[j] - (1 - relaxationFactor) * 0.5 * ((tb0 - trb) * (s1[j] - s0[j]) / (tb1 - tb0)));
+            }
+        }
+
+        if (tre > tbN_1 && trb < tbN_1) {
+            for (int j = 0; j < L; j++) {
+                xr[j] += ((tre - tbN_1) / (tre - trb)) * (sN_1[j] + (1 - relaxationFactor) * 0.5 * ((tre - tbN_1) * (sN_1[j] - sN_2[j]) / (tbN_1 - tbN_2)));
+            }
+        }
+
+        if (trb >= tbN_1) {
+            // as in the SmartBuffer the last values are extended unchanged
+            System.arraycopy(sN_1, 0, xr, 0, L);
+        }
+
+        if (tre <= tb0) {
+            for (int j = 0; j < L; j++) {
+                xr[j] = s0[j] - (1 - relaxationFactor) * ((s1[j] - s0[j]) / (tb1 - tb0)) * (tb0 - 0.5 * (trb + tre));
+            }
+        }
+    }
+
+    private int countEndsAtOrBefore(double t) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (end(mid) <= t) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int countStartsAtOrBefore(double t) {
+        return lastStartAtOrBefore(t) + 1;
+    }
+
+}
@@ -76,7 +76,7 @@ public class Composition extends LinkableComponentGroup {
     public void pull(Trigger trigger, ITime time) {
         if (getTriggers().contains(trigger)) {
             validate();
-            trigger.pull(time);
+            trigger.pull(time, getLinkValueCache());
         }
         else {
             throw new ConfigurationException(String.format("Requested trigger '%s' is unknown, can not provide values!", trigger));
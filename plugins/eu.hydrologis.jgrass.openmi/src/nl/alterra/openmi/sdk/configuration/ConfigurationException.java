@@ -40,4 +40,14 @@ public class ConfigurationException extends RuntimeException {
         super(message);
     }
 
+    /**
+     * Creates an instance with the specified message and cause.
+     *
+     * @param message The exception message
+     * @param cause   The exception that caused this one
+     */
+    public ConfigurationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
 }
@@ -0,0 +1,266 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 Alterra, Wageningen University and Research centre.
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.VectorSet;
+import org.openmi.standard.ILink;
+import org.openmi.standard.IScalarSet;
+import org.openmi.standard.ITime;
+import org.openmi.standard.ITimeSpan;
+import org.openmi.standard.ITimeStamp;
+import org.openmi.standard.IValueSet;
+import org.openmi.standard.IVectorSet;
+
+/**
+ * Cache for the values requested over links during a single time step of a
+ * composition. When a value set is requested again for the same time, the
+ * cached one is returned instead of asking the source component to compute
+ * it again.
+ * 
+ * Links without data operations that start from the same output (source
+ * component, quantity and element set) share their cached values, so that
+ * an output consumed by several components (fan-out) is computed only once.
+ * Links with data operations are cached on their own.
+ * 
+ * Every requester gets its own copy of the scalar and vector sets, so that
+ * a component changing the values it was given does not change those of
+ * the other requesters. The other value sets, as the maps and the features,
+ * are too big to be copied and are handed out to all the requesters, which
+ * must read them through their read only views. The cache is thread safe.
+ * 
+ * The components read the values of their input links through
+ * requestValues(), which uses the cache the links were registered with by
+ * the group they belong to (see LinkableComponentGroup.setLinkValueCache()).
+ */
+public class LinkValueCache {
+
+    /**
+     * The caches of the links of the groups being run.
+     */
+    private static final Map<ILink, LinkValueCache> linkCaches = new WeakHashMap<ILink, LinkValueCache>();
+
+    /**
+     * Cached values by link key.
+     */
+    private Map<Object, CachedValues> values = new HashMap<Object, CachedValues>();
+
+    /**
+     * Gets the values for the link at the specified time, from the cache
+     * if available, otherwise by calling getValues() of the source component
+     * of the link and storing the result.
+     *
+     * @param link The link to get the values for
+     * @param time The time to get the values for
+     * @return The values from the source component of the link
+     */
+    public IValueSet getValues(ILink link, ITime time) {
+        IValueSet result = get(link, time);
+        if (result == null) {
+            result = link.getSourceComponent().getValues(time, link.getID());
+            put(link, time, result);
+        }
+        return copyOf(result);
+    }
+
+    /**
+     * Gets the values for the link at the specified time, from the cache the
+     * link is registered with if any, otherwise by calling getValues() of the
+     * source component of the link. Components read the values of their
+     * input links with this method instead of calling the source component
+     * themselves.
+     *
+     * @param link The link to get the values for
+     * @param time The time to get the values for
+     * @return The values from the source component of the link
+     */
+    public static IValueSet requestValues(ILink link, ITime time) {
+        LinkValueCache cache;
+        synchronized (linkCaches) {
+            cache = linkCaches.get(link);
+        }
+        if (cache != null) {
+            return cache.getValues(link, time);
+        }
+        return link.getSourceComponent().getValues(time, link.getID());
+    }
+
+    /**
+     * Registers the cache to use for the values requested over the link
+     * through requestValues().
+     *
+     * @param link  The link to register
+     * @param cache LinkValueCache to use, or null to always calculate
+     */
+    static void register(ILink link, LinkValueCache cache) {
+        synchronized (linkCaches) {
+            if (cache == null) {
+                linkCaches.remove(link);
+            }
+            else {
+                linkCaches.put(link, cache);
+            }
+        }
+    }
+
+    /**
+     * Gets the cached values for the link at the specified time.
+     *
+     * @param link The link to get the values for
+     * @param time The time the values are requested for
+     * @return The cached values, or null if not available
+     */
+    public synchronized IValueSet get(ILink link, ITime time) {
+        CachedValues cached = values.get(createKey(link));
+        if ((cached != null) && isSameTime(cached.time, time)) {
+            return cached.values;
+        }
+        return null;
+    }
+
+    /**
+     * Stores the values computed for the link at the specified time,
+     * replacing those cached for a different time.
+     *
+     * @param link      The link the values were computed for
+     * @param time      The time the values were computed for
+     * @param valueSet  The computed values
+     */
+    public synchronized void put(ILink link, ITime time, IValueSet valueSet) {
+        values.put(createKey(link), new CachedValues(time, valueSet));
+    }
+
+    /**
+     * Removes all the cached values, to be called at the start of every
+     * time step.
+     */
+    public synchronized void clear() {
+        values.clear();
+    }
+
+    /**
+     * Gets the number of cached value sets.
+     *
+     * @return The number of cached value sets
+     */
+    public synchronized int size() {
+        return values.size();
+    }
+
+    /**
+     * Copies the scalar and vector sets, keeping their type when they can
+     * be cloned.
+     *
+     * @param valueSet The value set to copy
+     * @return The copy, or the value set itself if it is not copied
+     */
+    private static IValueSet copyOf(IValueSet valueSet) {
+        if (!(valueSet instanceof IScalarSet) && !(valueSet instanceof IVectorSet)) {
+            return valueSet;
+        }
+        if (valueSet instanceof ArrayList) {
+            return (IValueSet) ((ArrayList<?>) valueSet).clone();
+        }
+        if (valueSet instanceof IScalarSet) {
+            return new ScalarSet((IScalarSet) valueSet);
+        }
+        return new VectorSet((IVectorSet) valueSet);
+    }
+
+    private static Object createKey(ILink link) {
+        if (link.getDataOperationsCount() == 0) {
+            return new SourceKey(link);
+        }
+        return link.getID();
+    }
+
+    /**
+     * Checks if two times are the same time stamp or the same time span.
+     *
+     * @param a ITime
+     * @param b ITime
+     * @return True if both describe the same time
+     */
+    private static boolean isSameTime(ITime a, ITime b) {
+        if ((a instanceof ITimeStamp) && (b instanceof ITimeStamp)) {
+            return ((ITimeStamp) a).getModifiedJulianDay() == ((ITimeStamp) b).getModifiedJulianDay();
+        }
+        if ((a instanceof ITimeSpan) && (b instanceof ITimeSpan)) {
+            return isSameTime(((ITimeSpan) a).getStart(), ((ITimeSpan) b).getStart())
+                    && isSameTime(((ITimeSpan) a).getEnd(), ((ITimeSpan) b).getEnd());
+        }
+        return false;
+    }
+
+    /**
+     * Values cached with the time they were computed for.
+     */
+    private static class CachedValues {
+
+        private ITime time;
+        private IValueSet values;
+
+        CachedValues(ITime time, IValueSet values) {
+            this.time = time;
+            this.values = values;
+        }
+
+    }
+
+    /**
+     * Key identifying the output a link starts from, comparing the source
+     * component, quantity and element set by identity.
+     */
+    private static class SourceKey {
+
+        private Object component;
+        private Object quantity;
+        private Object elementSet;
+
+        SourceKey(ILink link) {
+            component = link.getSourceComponent();
+            quantity = link.getSourceQuantity();
+            elementSet = link.getSourceElementSet();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SourceKey)) {
+                return false;
+            }
+            SourceKey that = (SourceKey) o;
+            return (component == that.component) && (quantity == that.quantity)
+                    && (elementSet == that.elementSet);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(component) + System.identityHashCode(quantity))
+                    + System.identityHashCode(elementSet);
+        }
+
+    }
+
+}
@@ -72,6 +72,11 @@ public class LinkableComponentGroup extends LinkableComponent {
      */
     private LinkManager internalLinks = new LinkManager();
 
+    /**
+     * Optional cache for the values requested over the links of the group.
+     */
+    private LinkValueCache linkValueCache = null;
+
     /**
      * Creates an instance with the specified ID.
      *
@@ -417,6 +422,9 @@ public class LinkableComponentGroup extends LinkableComponent {
         ILinkableComponent realSource = link.getSourceComponent();
         if (realSource != null) {
             if (realSource != this) {
+                if (linkValueCache != null) {
+                    return linkValueCache.getValues(link, time);
+                }
                 return realSource.getValues(time, link.getID());
             }
         }
@@ -427,6 +435,36 @@ public class LinkableComponentGroup extends LinkableComponent {
         return new NullValueSet();
     }
 
+    /**
+     * Gets the cache used for the values requested over the links of the
+     * group.
+     *
+     * @return LinkValueCache, or null if values are always calculated
+     */
+    public LinkValueCache getLinkValueCache() {
+        return linkValueCache;
+    }
+
+    /**
+     * Sets the cache to use for the values requested over the links of the
+     * group and of the groups nested in it, also by the components reading
+     * them through LinkValueCache.requestValues(). The system deployer sets
+     * it while running a composition and clears it at every time step.
+     *
+     * @param cache LinkValueCache, or null to always calculate the values
+     */
+    public void setLinkValueCache(LinkValueCache cache) {
+        linkValueCache = cache;
+        for (ILink link : getLinks()) {
+            LinkValueCache.register(link, cache);
+        }
+        for (ILinkableComponent lc : components) {
+            if (lc instanceof LinkableComponentGroup) {
+                ((LinkableComponentGroup) lc).setLinkValueCache(cache);
+            }
+        }
+    }
+
     /**
      * Gets the total list of required initialisation arguments for all the
      * components in the group.
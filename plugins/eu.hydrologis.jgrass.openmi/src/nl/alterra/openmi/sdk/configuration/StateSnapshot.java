@@ -0,0 +1,265 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 Alterra, Wageningen University and Research centre.
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.configuration;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import nl.alterra.openmi.sdk.backbone.BackboneObject;
+import nl.alterra.openmi.sdk.backbone.IPersistentState;
+import org.openmi.standard.ILinkableComponent;
+
+/**
+ * Snapshot of the state of the components of a composition at a given time,
+ * taken from all the components (also in nested groups) that implement
+ * IPersistentState and are persistent. The snapshot can be written to a compact binary file
+ * and read back, to resume a calculation later on, or to start several
+ * calculations from the same state.
+ * 
+ * The states are stored by component ID, so the composition a snapshot is
+ * restored into must hold components with the same IDs, initialized in the
+ * same way as the ones the snapshot was taken from.
+ * 
+ * The file holds a header (magic number, version, time as Modified Julian
+ * Day, number of states) followed by the ID, length and bytes of the state
+ * of each component.
+ */
+public class StateSnapshot {
+
+    private static final int MAGIC = 0x4F4D4953; // "OMIS"
+    private static final int VERSION = 1;
+
+    private double time;
+    private Map<String, byte[]> states = new LinkedHashMap<String, byte[]>();
+
+    /**
+     * Creates an empty snapshot for the specified time.
+     *
+     * @param modifiedJulianDay The time the state refers to
+     */
+    public StateSnapshot(double modifiedJulianDay) {
+        this.time = modifiedJulianDay;
+    }
+
+    /**
+     * Takes a snapshot of the state of the components of the group.
+     *
+     * @param group             The group (or composition) to take the states from
+     * @param modifiedJulianDay The time the state refers to
+     * @return The snapshot
+     */
+    public static StateSnapshot capture(LinkableComponentGroup group, double modifiedJulianDay) {
+        StateSnapshot snapshot = new StateSnapshot(modifiedJulianDay);
+        for (IPersistentState component : collectComponents(group, new ArrayList<IPersistentState>())) {
+            String id = getStateID((ILinkableComponent) component);
+            if (snapshot.states.containsKey(id)) {
+                throw new ConfigurationException(String.format("More components with ID '%s', can not keep their states apart", id));
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try {
+                DataOutputStream out = new DataOutputStream(bytes);
+                component.writeState(out);
+                out.flush();
+            }
+            catch (IOException e) {
+                throw new ConfigurationException(String.format("Could not write the state of component '%s'", id), e);
+            }
+            snapshot.states.put(id, bytes.toByteArray());
+        }
+        return snapshot;
+    }
+
+    /**
+     * Restores the states of the snapshot into the components of the group.
+     * Every state in the snapshot must find its component.
+     *
+     * @param group The group (or composition) to restore the states into
+     */
+    public void restore(LinkableComponentGroup group) {
+        Map<String, IPersistentState> components = new LinkedHashMap<String, IPersistentState>();
+        for (IPersistentState component : collectComponents(group, new ArrayList<IPersistentState>())) {
+            components.put(getStateID((ILinkableComponent) component), component);
+        }
+
+        for (Map.Entry<String, byte[]> entry : states.entrySet()) {
+            IPersistentState component = components.get(entry.getKey());
+            if (component == null) {
+                throw new ConfigurationException(String.format("No component '%s' to restore the state into", entry.getKey()));
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.getValue()));
+            try {
+                component.readState(in);
+                if (in.available() > 0) {
+                    throw new IOException("Not all the state was read");
+                }
+            }
+            catch (IOException e) {
+                throw new ConfigurationException(String.format("Could not restore the state of component '%s'", entry.getKey()), e);
+            }
+        }
+    }
+
+    /**
+     * Gets the time the states refer to.
+     *
+     * @return The time as Modified Julian Day
+     */
+    public double getTime() {
+        return time;
+    }
+
+    /**
+     * Gets the IDs of the components a state is held for.
+     *
+     * @return List of component IDs
+     */
+    public List<String> getComponentIDs() {
+        return new ArrayList<String>(states.keySet());
+    }
+
+    /**
+     * Gets the state held for a component.
+     *
+     * @param componentID The ID of the component
+     * @return The state as written by the component, or null if not held
+     */
+    public byte[] getState(String componentID) {
+        return states.get(componentID);
+    }
+
+    /**
+     * Sets the state held for a component.
+     *
+     * @param componentID The ID of the component
+     * @param state       The state as written by the component
+     */
+    public void setState(String componentID, byte[] state) {
+        states.put(componentID, state);
+    }
+
+    /**
+     * Writes the snapshot to a file. The snapshot is written to a temporary
+     * file first, which then replaces the specified one, so that the file
+     * always holds a complete snapshot.
+     *
+     * @param file The file to write to
+     * @throws IOException When writing fails
+     */
+    public void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeDouble(time);
+            out.writeInt(states.size());
+            for (Map.Entry<String, byte[]> entry : states.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not replace the snapshot file " + file);
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Could not rename the snapshot file to " + file);
+        }
+    }
+
+    /**
+     * Reads a snapshot from a file written by write().
+     *
+     * @param file The file to read from
+     * @return The snapshot
+     * @throws IOException When reading fails or the file is not a snapshot
+     */
+    public static StateSnapshot read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a state snapshot file: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported state snapshot version " + version + ": " + file);
+            }
+
+            StateSnapshot snapshot = new StateSnapshot(in.readDouble());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String id = in.readUTF();
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                snapshot.states.put(id, state);
+            }
+            return snapshot;
+        }
+        catch (EOFException e) {
+            throw new IOException("Truncated state snapshot file: " + file);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Gets the ID the state of a component is stored by.
+     */
+    private static String getStateID(ILinkableComponent component) {
+        if (component instanceof BackboneObject) {
+            return ((BackboneObject) component).getID();
+        }
+        return component.getComponentID();
+    }
+
+    private static List<IPersistentState> collectComponents(LinkableComponentGroup group,
+            List<IPersistentState> components) {
+        for (ILinkableComponent lc : group.getLinkableComponents()) {
+            if (lc instanceof IPersistentState && ((IPersistentState) lc).isPersistent()) {
+                components.add((IPersistentState) lc);
+            }
+            if (lc instanceof LinkableComponentGroup) {
+                collectComponents((LinkableComponentGroup) lc, components);
+            }
+        }
+        return components;
+    }
+
+}
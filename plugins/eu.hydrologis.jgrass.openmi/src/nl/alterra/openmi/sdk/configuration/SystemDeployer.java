@@ -32,12 +32,28 @@
  ****************************************************************************/
 package nl.alterra.openmi.sdk.configuration;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 import nl.alterra.openmi.sdk.backbone.Event;
 import nl.alterra.openmi.sdk.backbone.Publisher;
 import nl.alterra.openmi.sdk.backbone.TimeStamp;
 import org.openmi.standard.IEvent;
 import org.openmi.standard.IArgument;
+import org.openmi.standard.ILink;
+import org.openmi.standard.ILinkableComponent;
 
 /**
  * The system deployer is a class for running a composition. Provided with
@@ -61,6 +77,31 @@ import org.openmi.standard.IArgument;
  * Non blocking calculations can be controlled by calling the pause(),
  * resume() and stop() methods. Blocking calculations (obviously) can not
  * be controlled this way.
+ * 
+ * The values requested over the links of the composition are cached for
+ * the duration of a time step (see LinkValueCache), so that an output
+ * consumed by several components is calculated only once.
+ * 
+ * When the maximum number of threads is set above one, the triggers are
+ * split in groups that do not share any component upstream of them, by
+ * following the links of the composition. The groups are pulled
+ * concurrently on a pool of at most that many threads, while the triggers
+ * within a group are pulled in sequence, in their order. In the same way,
+ * before a trigger is pulled, the input links of the components upstream
+ * of it are split in branches that do not share any component (as the
+ * sub-basins feeding a single basin), and the values of the branches are
+ * calculated concurrently and kept in the cache, where the components find
+ * them when they request the values of their inputs for the same time. A
+ * component is therefore never asked for values by two threads at the same
+ * time. Note that the events of the components in different groups and
+ * branches are then sent from different threads.
+ * 
+ * When a checkpoint file and interval are set, the state of the components
+ * that implement IPersistentState and are persistent is written to the file every that many
+ * time steps (see StateSnapshot). A calculation that was interrupted can
+ * then be restarted from the last checkpoint with one of the restart()
+ * methods, after the composition has been initialized again in the same
+ * way.
  */
 public class SystemDeployer extends Publisher implements Runnable {
 
@@ -74,6 +115,14 @@ public class SystemDeployer extends Publisher implements Runnable {
     private double timeStep;
     private ArrayList<Trigger> triggers = new ArrayList<Trigger>();
     private ArrayList<Thread> runningThreads = new ArrayList<Thread>();
+    private int maximumThreads = 1;
+    private LinkValueCache linkValueCache = new LinkValueCache();
+    private ArrayList<ArrayList<Trigger>> triggerGroups = new ArrayList<ArrayList<Trigger>>();
+    private Map<ILinkableComponent, List<ILink>> inputLinks = new HashMap<ILinkableComponent, List<ILink>>();
+    private ExecutorService executor = null;
+    private File checkpointFile = null;
+    private int checkpointInterval = 0;
+    private int stepsDone = 0;
 
     /**
      * Creates an instance with the specified ID.
@@ -189,6 +238,94 @@ public class SystemDeployer extends Publisher implements Runnable {
         }
     }
 
+    /**
+     * Gets the maximum number of threads used to pull independent triggers
+     * concurrently.
+     *
+     * @return The maximum number of threads, 1 if pulled in sequence
+     */
+    public int getMaximumThreads() {
+        return maximumThreads;
+    }
+
+    /**
+     * Sets the maximum number of threads used to pull the triggers that do
+     * not depend on the same components concurrently, if no simulation is
+     * already running. With 1 (the default) all the triggers are pulled in
+     * sequence.
+     *
+     * @param maximumThreads The maximum number of threads, at least 1
+     */
+    public void setMaximumThreads(int maximumThreads) {
+        if (maximumThreads < 1) {
+            throw new IllegalArgumentException("The maximum number of threads must be at least 1");
+        }
+        if (!running) {
+            this.maximumThreads = maximumThreads;
+        }
+    }
+
+    /**
+     * Gets the file the checkpoints are written to.
+     *
+     * @return The checkpoint file, null if no checkpoints are written
+     */
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Gets the number of time steps after which a checkpoint is written.
+     *
+     * @return The checkpoint interval in time steps, 0 if none are written
+     */
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * Sets the file the state of the components is written to every
+     * interval time steps, if no simulation is already running. Every
+     * checkpoint replaces the previous one. With a null file or an interval
+     * of 0 no checkpoints are written.
+     *
+     * @param file     The checkpoint file
+     * @param interval The number of time steps between checkpoints
+     */
+    public void setCheckpointing(File file, int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("The checkpoint interval can not be negative");
+        }
+        if (!running) {
+            checkpointFile = file;
+            checkpointInterval = interval;
+        }
+    }
+
+    /**
+     * Gets the cache holding the values requested over the links of the
+     * composition during the current time step.
+     *
+     * @return LinkValueCache
+     */
+    public LinkValueCache getLinkValueCache() {
+        return linkValueCache;
+    }
+
+    /**
+     * Gets the groups of triggers that are pulled concurrently, as built
+     * when the simulation was started.
+     *
+     * @return List of groups, each with the triggers pulled in sequence
+     */
+    public List<List<Trigger>> getTriggerGroups() {
+        List<List<Trigger>> result = new ArrayList<List<Trigger>>();
+        for (ArrayList<Trigger> group : triggerGroups) {
+            result.add(new ArrayList<Trigger>(group));
+        }
+        return result;
+    }
+
     /**
      * Returns the paused state of the deployer.
      *
@@ -269,6 +406,53 @@ public class SystemDeployer extends Publisher implements Runnable {
      * @param step  Simulation time steps in seconds
      */
     public void start(double start, double end, double step) {
+        start(start, end, step, null);
+    }
+
+    /**
+     * Restarts the execution from the last checkpoint written to the
+     * checkpoint file, for the current endTime and timeStep.
+     */
+    public void restart() {
+        if (checkpointFile == null) {
+            throw new ConfigurationException("No checkpoint file set to restart from.");
+        }
+        restart(checkpointFile, endTime, timeStep);
+    }
+
+    /**
+     * Restarts the execution from the state snapshot in the specified file.
+     * The calculation starts at the time of the snapshot.
+     *
+     * @param file The snapshot file to restart from
+     * @param end  double for simulation end Modified Julian Day
+     * @param step Simulation time steps in seconds
+     */
+    public void restart(File file, double end, double step) {
+        StateSnapshot snapshot;
+        try {
+            snapshot = StateSnapshot.read(file);
+        }
+        catch (IOException e) {
+            throw new ConfigurationException(String.format("Could not read the state snapshot '%s'", file), e);
+        }
+        restart(snapshot, end, step);
+    }
+
+    /**
+     * Restarts the execution from the specified state snapshot. The
+     * calculation starts at the time of the snapshot. The same snapshot can
+     * be used to start several compositions from the same state.
+     *
+     * @param snapshot The state snapshot to restart from
+     * @param end      double for simulation end Modified Julian Day
+     * @param step     Simulation time steps in seconds
+     */
+    public void restart(StateSnapshot snapshot, double end, double step) {
+        start(snapshot.getTime(), end, step, snapshot);
+    }
+
+    private void start(double start, double end, double step, StateSnapshot snapshot) {
         if ((!running) && (composition != null)) {
             runningThreads.clear();
             running = true;
@@ -285,6 +469,30 @@ public class SystemDeployer extends Publisher implements Runnable {
 
             composition.prepare();
 
+            if (snapshot != null) {
+                snapshot.restore(composition);
+
+                sendEvent(new Event(new TimeStamp(currentTime),
+                        IEvent.EventType.Informative,
+                        composition,
+                        String.format("Restored the state of composition '%s'", composition)));
+            }
+            stepsDone = 0;
+
+            linkValueCache.clear();
+            composition.setLinkValueCache(linkValueCache);
+            triggerGroups = createTriggerGroups();
+            if (maximumThreads > 1) {
+                executor = Executors.newFixedThreadPool(maximumThreads,
+                        new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "SystemDeployer " + getID());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            }
+
             sendEvent(new Event(new TimeStamp(currentTime),
                     IEvent.EventType.Informative,
                     composition,
@@ -309,6 +517,9 @@ public class SystemDeployer extends Publisher implements Runnable {
                     String.format("Finishing after calculation of composition '%s'", composition)));
 
             composition.finish();
+            composition.setLinkValueCache(null);
+            linkValueCache.clear();
+            shutdownExecutor();
         }
     }
 
@@ -370,16 +581,296 @@ public class SystemDeployer extends Publisher implements Runnable {
         // run calculation until the next time step
         TimeStamp nextStop = new TimeStamp(currentTime + timeStep / (24 * 3600));
 
-        for (Trigger t : triggers) {
-            composition.pull(t, nextStop);
+        // values cached during the previous time step are not valid anymore
+        linkValueCache.clear();
+
+        if (executor == null) {
+            for (Trigger t : triggers) {
+                composition.pull(t, nextStop);
+            }
+        }
+        else {
+            pullConcurrently(nextStop);
         }
 
         currentTime = nextStop.getModifiedJulianDay();
 
+        stepsDone++;
+        if ((checkpointFile != null) && (checkpointInterval > 0) && (stepsDone % checkpointInterval == 0)) {
+            writeCheckpoint();
+        }
+
         // if not done, start a new thread for the next run
         timeStepDone(Thread.currentThread());
     }
 
+    /**
+     * Writes the state of the composition at the current time to the
+     * checkpoint file.
+     */
+    private void writeCheckpoint() {
+        try {
+            StateSnapshot.capture(composition, currentTime).write(checkpointFile);
+        }
+        catch (IOException e) {
+            throw new ConfigurationException(String.format("Could not write the checkpoint '%s'", checkpointFile), e);
+        }
+
+        sendEvent(new Event(new TimeStamp(currentTime),
+                IEvent.EventType.Informative,
+                composition,
+                String.format("Written checkpoint of composition '%s'", composition)));
+    }
+
+    /**
+     * Pulls the groups of triggers concurrently, each group on its own
+     * thread of the pool, and waits for all of them to finish. The first
+     * failure of a group is thrown again once all the groups are done.
+     *
+     * @param time The time to pull the triggers for
+     */
+    private void pullConcurrently(final TimeStamp time) {
+        composition.validate();
+
+        ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+        for (final ArrayList<Trigger> group : triggerGroups) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    for (Trigger t : group) {
+                        calculateBranches(t, time, new HashSet<ILinkableComponent>());
+                        t.pull(time, linkValueCache);
+                    }
+                }
+            });
+        }
+        runConcurrently(tasks);
+    }
+
+    /**
+     * Calculates concurrently the values of the input links of a component
+     * that do not share any component upstream of them, going up to the
+     * components where the links branch. The values are kept in the cache
+     * for the time step. The links sharing components upstream are
+     * calculated in sequence, in their order.
+     *
+     * @param component The component to calculate the inputs of
+     * @param time      The time to calculate the values for
+     * @param visited   The components already visited downstream, to stop
+     *                  at the links going back
+     */
+    private void calculateBranches(ILinkableComponent component, final TimeStamp time,
+            final Set<ILinkableComponent> visited) {
+        List<ILink> links = inputLinks.get(component);
+        if ((links == null) || !visited.add(component)) {
+            return;
+        }
+
+        ArrayList<ArrayList<ILink>> branches = new ArrayList<ArrayList<ILink>>();
+        ArrayList<Set<ILinkableComponent>> branchComponents = new ArrayList<Set<ILinkableComponent>>();
+        for (ILink link : links) {
+            Set<ILinkableComponent> upstream = new HashSet<ILinkableComponent>();
+            collectUpstream(link.getSourceComponent(), inputLinks, upstream);
+
+            // merge all the branches sharing a component with this link
+            ArrayList<ILink> branch = new ArrayList<ILink>();
+            for (int i = branches.size() - 1; i >= 0; i--) {
+                if (!Collections.disjoint(branchComponents.get(i), upstream)) {
+                    branch.addAll(0, branches.remove(i));
+                    upstream.addAll(branchComponents.remove(i));
+                }
+            }
+            branch.add(link);
+            branches.add(branch);
+            branchComponents.add(upstream);
+        }
+
+        if (branches.size() == 1) {
+            // no branching here, look further upstream
+            for (ILink link : links) {
+                calculateBranches(link.getSourceComponent(), time, visited);
+            }
+            return;
+        }
+
+        ArrayList<Runnable> tasks = new ArrayList<Runnable>();
+        for (final ArrayList<ILink> branch : branches) {
+            tasks.add(new Runnable() {
+                public void run() {
+                    for (ILink link : branch) {
+                        calculateBranches(link.getSourceComponent(), time,
+                                new HashSet<ILinkableComponent>(visited));
+                        linkValueCache.getValues(link, time);
+                    }
+                }
+            });
+        }
+        runConcurrently(tasks);
+    }
+
+    /**
+     * Runs the tasks on the threads of the pool and waits for all of them
+     * to finish. The first task is run on the calling thread, as are the
+     * tasks no thread of the pool has started yet when they are waited for,
+     * so that tasks waiting for the tasks they submitted never wait for a
+     * thread of the pool. The first failure of a task is thrown again once
+     * all the tasks are done.
+     *
+     * @param tasks The tasks to run
+     */
+    private void runConcurrently(List<Runnable> tasks) {
+        ArrayList<FutureTask<Object>> futures = new ArrayList<FutureTask<Object>>();
+        final ArrayList<AtomicBoolean> started = new ArrayList<AtomicBoolean>();
+        for (int i = 0; i < tasks.size(); i++) {
+            final Runnable task = tasks.get(i);
+            final AtomicBoolean taskStarted = new AtomicBoolean(i == 0);
+            started.add(taskStarted);
+            FutureTask<Object> future = new FutureTask<Object>(new Runnable() {
+                public void run() {
+                    if (taskStarted.compareAndSet(false, true)) {
+                        task.run();
+                    }
+                }
+            }, null);
+            futures.add(future);
+            if (i > 0) {
+                executor.execute(future);
+            }
+        }
+
+        RuntimeException failure = null;
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                if ((i == 0) || started.get(i).compareAndSet(false, true)) {
+                    tasks.get(i).run();
+                }
+                else {
+                    futures.get(i).get();
+                }
+            }
+            catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            catch (ExecutionException e) {
+                if (failure == null) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        failure = (RuntimeException) e.getCause();
+                    }
+                    else {
+                        failure = new ConfigurationException("Pulling the triggers failed", e.getCause());
+                    }
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ConfigurationException("Interrupted while pulling the triggers", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Splits the triggers in groups that do not share any component upstream
+     * of them, following the links of the composition and of the groups
+     * nested in it. A nested group reached upstream is considered together
+     * with all its components. The groups keep the order of the triggers.
+     *
+     * @return The groups of triggers
+     */
+    private ArrayList<ArrayList<Trigger>> createTriggerGroups() {
+        ArrayList<Trigger> knownTriggers = composition.getTriggers();
+
+        // the links every component takes its input from
+        inputLinks = new HashMap<ILinkableComponent, List<ILink>>();
+        for (ILink link : collectLinks(composition, new ArrayList<ILink>())) {
+            List<ILink> list = inputLinks.get(link.getTargetComponent());
+            if (list == null) {
+                list = new ArrayList<ILink>();
+                inputLinks.put(link.getTargetComponent(), list);
+            }
+            list.add(link);
+        }
+
+        ArrayList<ArrayList<Trigger>> groups = new ArrayList<ArrayList<Trigger>>();
+        ArrayList<Set<ILinkableComponent>> groupComponents = new ArrayList<Set<ILinkableComponent>>();
+        for (Trigger t : triggers) {
+            if (!knownTriggers.contains(t)) {
+                throw new ConfigurationException(String.format("Requested trigger '%s' is unknown, can not provide values!", t));
+            }
+
+            Set<ILinkableComponent> upstream = new HashSet<ILinkableComponent>();
+            collectUpstream(t, inputLinks, upstream);
+
+            // merge all the groups sharing a component with this trigger
+            ArrayList<Trigger> group = new ArrayList<Trigger>();
+            for (int i = groups.size() - 1; i >= 0; i--) {
+                if (!Collections.disjoint(groupComponents.get(i), upstream)) {
+                    group.addAll(0, groups.remove(i));
+                    upstream.addAll(groupComponents.remove(i));
+                }
+            }
+            group.add(t);
+            groups.add(group);
+            groupComponents.add(upstream);
+        }
+
+        // keep the triggers of every group in the order they were given
+        for (ArrayList<Trigger> group : groups) {
+            ArrayList<Trigger> ordered = new ArrayList<Trigger>();
+            for (Trigger t : triggers) {
+                if (group.contains(t)) {
+                    ordered.add(t);
+                }
+            }
+            group.clear();
+            group.addAll(ordered);
+        }
+
+        return groups;
+    }
+
+    private static List<ILink> collectLinks(LinkableComponentGroup group, List<ILink> links) {
+        for (ILink link : group.getLinks()) {
+            links.add(link);
+        }
+        for (ILinkableComponent lc : group.getLinkableComponents()) {
+            if (lc instanceof LinkableComponentGroup) {
+                collectLinks((LinkableComponentGroup) lc, links);
+            }
+        }
+        return links;
+    }
+
+    private static void collectUpstream(ILinkableComponent component,
+            Map<ILinkableComponent, List<ILink>> inputLinks, Set<ILinkableComponent> upstream) {
+        if ((component == null) || !upstream.add(component)) {
+            return;
+        }
+
+        if (component instanceof LinkableComponentGroup) {
+            for (ILinkableComponent lc : ((LinkableComponentGroup) component).getLinkableComponents()) {
+                collectUpstream(lc, inputLinks, upstream);
+            }
+        }
+
+        List<ILink> list = inputLinks.get(component);
+        if (list != null) {
+            for (ILink link : list) {
+                collectUpstream(link.getSourceComponent(), inputLinks, upstream);
+            }
+        }
+    }
+
+    private void shutdownExecutor() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
     /**
      * Clears the system deployer. This will only work if the system is not
      * running. Its list of triggers will be cleared.
@@ -398,6 +889,9 @@ public class SystemDeployer extends Publisher implements Runnable {
      * might cause them to block) and the list of running threads cleared.
      */
     public void kill() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
         stop();
         for (Thread t : runningThreads) {
             t.stop();
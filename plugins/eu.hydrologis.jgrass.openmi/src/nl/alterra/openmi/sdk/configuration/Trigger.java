@@ -82,9 +82,25 @@ public class Trigger extends LinkableComponent {
      * @param time ITime to get values for
      */
     protected void pull(ITime time) {
+        pull(time, null);
+    }
+
+    /**
+     * 'Pulls' the trigger like pull(ITime), taking the values from the
+     * specified cache when they have already been calculated for the time.
+     *
+     * @param time  ITime to get values for
+     * @param cache LinkValueCache to use, or null to always calculate
+     */
+    protected void pull(ITime time, LinkValueCache cache) {
         if (allLinks.size() == 1) {
             ILink link = allLinks.get(0);
-            lastCalculatedValues = link.getSourceComponent().getValues(time, link.getID());
+            if (cache != null) {
+                lastCalculatedValues = cache.getValues(link, time);
+            }
+            else {
+                lastCalculatedValues = link.getSourceComponent().getValues(time, link.getID());
+            }
         }
         else {
             lastCalculatedValues = new NullValueSet();
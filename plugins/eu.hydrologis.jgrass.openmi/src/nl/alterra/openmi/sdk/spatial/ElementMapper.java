@@ -123,24 +123,25 @@ public class ElementMapper {
         }
 
         if (inputValues instanceof IScalarSet) {
+            double[] sourceValues = new double[strategy.getNumberOfColumns()];
+            for (int n = 0; n < sourceValues.length; n++) {
+                sourceValues[n] = ((IScalarSet) inputValues).getScalar(n);
+            }
             double[] outValues = new double[strategy.getNumberOfRows()];
             // --- Multiply the Values vector with the MappingMatrix ---
-            for (int i = 0; i < strategy.getNumberOfRows(); i++) {
-                outValues[i] = 0;
-                for (int n = 0; n < strategy.getNumberOfColumns(); n++) {
-                    outValues[i] += getMappingValue(i, n) * ((IScalarSet) inputValues).getScalar(n);
-                }
-            }
+            strategy.multiply(sourceValues, outValues);
             return new ScalarSet(outValues);
         }
 
         if (inputValues instanceof IVectorSet) {
             Vector[] outValues = new Vector[strategy.getNumberOfRows()];
+            int[] columns = strategy.getEntryColumns();
+            double[] values = strategy.getEntryValues();
             // --- Multiply the Values vector with the MappingMatrix ---
             for (int i = 0; i < strategy.getNumberOfRows(); i++) {
-                outValues[i].set(0, 0, 0);
-                for (int n = 0; n < strategy.getNumberOfColumns(); n++) {
-                    outValues[i].addVector(getMappingValue(i, n), 0, ((IVectorSet) inputValues).getVector(n));
+                outValues[i] = new Vector(0, 0, 0);
+                for (int k = strategy.getRowStart(i); k < strategy.getRowStart(i + 1); k++) {
+                    outValues[i].addVector(values[k], 0, ((IVectorSet) inputValues).getVector(columns[k]));
                 }
             }
             return new VectorSet(outValues);
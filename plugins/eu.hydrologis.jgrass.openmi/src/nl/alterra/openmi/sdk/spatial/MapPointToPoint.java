@@ -56,28 +56,35 @@ public class MapPointToPoint extends MappingStrategy {
      */
     public void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target)
             throws Exception {
-        // store distances into mapping matrix
-        for (int i = 0; i < numberOfRows; i++) {
-            XYPoint toPoint = XYGeometryTools.createXYPoint(target, i);
-            for (int j = 0; j < numberOfColumns; j++) {
-                mappingMatrix[i][j] = XYGeometryTools.calculatePointToPointDistance(
-                    toPoint, XYGeometryTools.createXYPoint(source, j));
-            }
-        }
-
-        // uses distances to calculate denominators
+        boolean inverse;
         switch (method) {
             case POINT_TO_POINT_NEAREST:
-                calculateDenominators(false);
+                inverse = false;
                 break;
 
             case POINT_TO_POINT_INVERSE:
-                calculateDenominators(true);
+                inverse = true;
                 break;
 
             default:
                 throw new Exception("Method unknown for point to point mapping");
         }
+
+        XYPoint[] fromPoints = new XYPoint[numberOfColumns];
+        for (int j = 0; j < numberOfColumns; j++) {
+            fromPoints[j] = XYGeometryTools.createXYPoint(source, j);
+        }
+
+        // every row holds the distances first, then their denominators
+        double[] row = new double[numberOfColumns];
+        for (int i = 0; i < numberOfRows; i++) {
+            XYPoint toPoint = XYGeometryTools.createXYPoint(target, i);
+            for (int j = 0; j < numberOfColumns; j++) {
+                row[j] = XYGeometryTools.calculatePointToPointDistance(toPoint, fromPoints[j]);
+            }
+            calculateDenominators(row, inverse);
+            addDenseRow(i, row);
+        }
     }
 
 }
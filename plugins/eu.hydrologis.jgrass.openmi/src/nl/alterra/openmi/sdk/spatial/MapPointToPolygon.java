@@ -55,33 +55,36 @@ public class MapPointToPolygon extends MappingStrategy {
      * @throws Exception
      */
     public void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target) throws Exception {
-        XYPolygon polygon;
-        int count;
+        if (method != ElementMappingMethod.POINT_TO_POLYGON_MEAN
+                && method != ElementMappingMethod.POINT_TO_POLYGON_SUM) {
+            throw new Exception("Method unknown for point to polygon mapping");
+        }
+
+        XYGridIndex sourceIndex = XYGeometryTools.createGridIndex(source);
+        int[] columns = new int[16];
+        double[] values = new double[16];
 
         for (int i = 0; i < numberOfRows; i++) {
-            polygon = XYGeometryTools.createXYPolygon(target, i);
-            count = 0;
+            XYPolygon polygon = XYGeometryTools.createXYPolygon(target, i);
 
-            for (int n = 0; n < numberOfColumns; n++) {
+            // only the points inside the envelope of the polygon can be inside it
+            int[] candidates = XYGeometryTools.findCandidates(sourceIndex, target, i);
+            if (candidates.length > columns.length) {
+                columns = new int[candidates.length];
+                values = new double[candidates.length];
+            }
+            int count = 0;
+            for (int n : candidates) {
                 if (XYGeometryTools.isPointInPolygon(XYGeometryTools.createXYPoint(source, n), polygon)) {
-                    switch (method) {
-                        case POINT_TO_POLYGON_MEAN:
-                            count++;
-                            break;
-                        case POINT_TO_POLYGON_SUM:
-                            count = 1;
-                            break;
-                        default:
-                            throw new Exception("Method unknown for point to polygon mapping");
-                    }
+                    columns[count++] = n;
                 }
             }
 
-            for (int n = 0; n < numberOfColumns; n++) {
-                if (XYGeometryTools.isPointInPolygon(XYGeometryTools.createXYPoint(source, n), polygon)) {
-                    mappingMatrix[i][n] = 1.0 / count;
-                }
+            double value = method == ElementMappingMethod.POINT_TO_POLYGON_MEAN ? 1.0 / count : 1.0;
+            for (int k = 0; k < count; k++) {
+                values[k] = value;
             }
+            addRow(i, columns, values, count);
         }
     }
 
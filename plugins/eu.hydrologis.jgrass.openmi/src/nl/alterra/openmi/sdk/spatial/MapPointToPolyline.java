@@ -55,27 +55,35 @@ public class MapPointToPolyline extends MappingStrategy {
      * @throws Exception
      */
     public void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target) throws Exception {
-        // store distances into mapping matrix
-        for (int i = 0; i < numberOfRows; i++) {
-            XYPolyline toPolyLine = XYGeometryTools.createXYPolyline(target, i);
-            for (int j = 0; j < numberOfColumns; j++) {
-                mappingMatrix[i][j] = XYGeometryTools.calculatePolylineToPointDistance(
-                    toPolyLine, XYGeometryTools.createXYPoint(source, j));
-            }
-        }
-
+        boolean inverse;
         switch (method) {
             case POINT_TO_POLYLINE_NEAREST:
-                calculateDenominators(false);
+                inverse = false;
                 break;
 
             case POINT_TO_POLYLINE_INVERSE:
-                calculateDenominators(true);
+                inverse = true;
                 break;
 
             default:
                 throw new Exception("Method unknown for point to polyline mapping");
         }
+
+        XYPoint[] fromPoints = new XYPoint[numberOfColumns];
+        for (int j = 0; j < numberOfColumns; j++) {
+            fromPoints[j] = XYGeometryTools.createXYPoint(source, j);
+        }
+
+        // every row holds the distances first, then their denominators
+        double[] row = new double[numberOfColumns];
+        for (int i = 0; i < numberOfRows; i++) {
+            XYPolyline toPolyLine = XYGeometryTools.createXYPolyline(target, i);
+            for (int j = 0; j < numberOfColumns; j++) {
+                row[j] = XYGeometryTools.calculatePolylineToPointDistance(toPolyLine, fromPoints[j]);
+            }
+            calculateDenominators(row, inverse);
+            addDenseRow(i, row);
+        }
     }
 
 }
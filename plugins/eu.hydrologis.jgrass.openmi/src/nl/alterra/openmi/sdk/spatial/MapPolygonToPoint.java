@@ -59,13 +59,28 @@ public class MapPolygonToPoint extends MappingStrategy {
             throw new Exception("Method unknown for polygon to point mapping");
         }
 
+        XYGridIndex sourceIndex = XYGeometryTools.createGridIndex(source);
+        int[] columns = new int[16];
+        double[] values = new double[16];
+
         for (int n = 0; n < numberOfRows; n++) {
             XYPoint point = XYGeometryTools.createXYPoint(target, n);
-            for (int i = 0; i < numberOfColumns; i++) {
+
+            // only the polygons whose envelope contains the point can contain it
+            int[] candidates = sourceIndex.query(point.getX(), point.getY(), point.getX(), point.getY());
+            if (candidates.length > columns.length) {
+                columns = new int[candidates.length];
+                values = new double[candidates.length];
+            }
+            int count = 0;
+            for (int i : candidates) {
                 if (XYGeometryTools.isPointInPolygon(point, XYGeometryTools.createXYPolygon(source, i))) {
-                    mappingMatrix[n][i] = 1.0;
+                    columns[count] = i;
+                    values[count] = 1.0;
+                    count++;
                 }
             }
+            addRow(n, columns, values, count);
         }
     }
 
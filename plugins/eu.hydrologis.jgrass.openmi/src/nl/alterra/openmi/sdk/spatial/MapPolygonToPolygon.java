@@ -55,38 +55,53 @@ public class MapPolygonToPolygon extends MappingStrategy {
      * @throws Exception
      */
     public void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target) throws Exception {
+        if (method != ElementMappingMethod.POLYGON_TO_POLYGON_WEIGHTED_MEAN
+                && method != ElementMappingMethod.POLYGON_TO_POLYGON_WEIGHTED_SUM) {
+            throw new Exception("Method unknown for polygon to polygon mapping");
+        }
+
+        XYGridIndex sourceIndex = XYGeometryTools.createGridIndex(source);
+        XYPolygon[] fromPolygons = new XYPolygon[numberOfColumns];
+        double[] values = new double[16];
+
         for (int i = 0; i < numberOfRows; i++) {
             XYPolygon toPolygon = XYGeometryTools.createXYPolygon(target, i);
             double area = toPolygon.getArea();
 
-            for (int j = 0; j < numberOfColumns; j++) {
-                XYPolygon fromPolygon = XYGeometryTools.createXYPolygon(source, j);
-                mappingMatrix[i][j] = XYGeometryTools.calculateSharedArea(toPolygon, fromPolygon);
+            // only the polygons with intersecting envelopes can share some area
+            int[] columns = XYGeometryTools.findCandidates(sourceIndex, target, i);
+            if (columns.length > values.length) {
+                values = new double[columns.length];
+            }
+            for (int k = 0; k < columns.length; k++) {
+                int j = columns[k];
+                if (fromPolygons[j] == null) {
+                    fromPolygons[j] = XYGeometryTools.createXYPolygon(source, j);
+                }
+                values[k] = XYGeometryTools.calculateSharedArea(toPolygon, fromPolygons[j]);
             }
 
             switch (method) {
                 case POLYGON_TO_POLYGON_WEIGHTED_MEAN:
                     double denominator = 0;
-                    for (int j = 0; j < numberOfColumns; j++) {
-                        denominator = denominator + mappingMatrix[i][j];
+                    for (int k = 0; k < columns.length; k++) {
+                        denominator = denominator + values[k];
                     }
 
                     if (Double.compare(denominator, 0.0) != 0) {
-                        for (int j = 0; j < numberOfColumns; j++) {
-                            mappingMatrix[i][j] = mappingMatrix[i][j] / denominator;
+                        for (int k = 0; k < columns.length; k++) {
+                            values[k] = values[k] / denominator;
                         }
                     }
                     break;
 
                 case POLYGON_TO_POLYGON_WEIGHTED_SUM:
-                    for (int j = 0; j < numberOfColumns; j++) {
-                        mappingMatrix[i][j] = mappingMatrix[i][j] / area;
+                    for (int k = 0; k < columns.length; k++) {
+                        values[k] = values[k] / area;
                     }
                     break;
-
-                default:
-                    throw new Exception("Method unknown for polygon to polygon mapping");
             }
+            addRow(i, columns, values, columns.length);
         }
     }
 
@@ -55,35 +55,36 @@ public class MapPolygonToPolyline extends MappingStrategy {
      * @throws Exception
      */
     public void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target) throws Exception {
+        if (method != ElementMappingMethod.POLYGON_TO_POLYLINE_WEIGHTED_MEAN
+                && method != ElementMappingMethod.POLYGON_TO_POLYLINE_WEIGHTED_SUM) {
+            throw new Exception("method unknown for polygon to polyline mapping");
+        }
+
+        XYGridIndex sourceIndex = XYGeometryTools.createGridIndex(source);
+        double[] values = new double[16];
+
         for (int i = 0; i < numberOfRows; i++) {
             XYPolyline polyline = XYGeometryTools.createXYPolyline(target, i);
             double lineLength = polyline.getLength();
 
-            switch (method) {
-                case POLYGON_TO_POLYLINE_WEIGHTED_MEAN:
-                    double sum = 0.0;
-                    for (int n = 0; n < numberOfColumns; n++) {
-                        XYPolygon polygon = XYGeometryTools.createXYPolygon(source, n);
-                        mappingMatrix[i][n] = XYGeometryTools.calculateLengthOfPolylineInsidePolygon(polyline, polygon) / lineLength;
-                        sum += mappingMatrix[i][n];
-                    }
-
-                    for (int n = 0; n < numberOfColumns; n++) {
-                        mappingMatrix[i][n] = mappingMatrix[i][n] / sum;
-                    }
-
-                    break;
-
-                case POLYGON_TO_POLYLINE_WEIGHTED_SUM:
-                    for (int n = 0; n < numberOfColumns; n++) {
-                        XYPolygon polygon = XYGeometryTools.createXYPolygon(source, n);
-                        mappingMatrix[i][n] = XYGeometryTools.calculateLengthOfPolylineInsidePolygon(polyline, polygon) / lineLength;
-                    }
-                    break;
+            // only the polygons whose envelope intersects the one of the line can contain part of it
+            int[] columns = XYGeometryTools.findCandidates(sourceIndex, target, i);
+            if (columns.length > values.length) {
+                values = new double[columns.length];
+            }
+            double sum = 0.0;
+            for (int k = 0; k < columns.length; k++) {
+                XYPolygon polygon = XYGeometryTools.createXYPolygon(source, columns[k]);
+                values[k] = XYGeometryTools.calculateLengthOfPolylineInsidePolygon(polyline, polygon) / lineLength;
+                sum += values[k];
+            }
 
-                default:
-                    throw new Exception("method unknown for polygon to polyline mapping");
+            if (method == ElementMappingMethod.POLYGON_TO_POLYLINE_WEIGHTED_MEAN && sum > 0) {
+                for (int k = 0; k < columns.length; k++) {
+                    values[k] = values[k] / sum;
+                }
             }
+            addRow(i, columns, values, columns.length);
         }
     }
 
@@ -55,27 +55,35 @@ public class MapPolylineToPoint extends MappingStrategy {
      * @throws Exception
      */
     public void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target) throws Exception {
-        // store distances into mapping matrix
-        for (int i = 0; i < numberOfRows; i++) {
-            XYPoint toPoint = XYGeometryTools.createXYPoint(target, i);
-            for (int j = 0; j < numberOfColumns; j++) {
-                mappingMatrix[i][j] = XYGeometryTools.calculatePolylineToPointDistance(XYGeometryTools.createXYPolyline(source, j), toPoint);
-            }
-        }
-
-        // uses distances to calculate denominators
+        boolean inverse;
         switch (method) {
             case POLYLINE_TO_POINT_NEAREST:
-                calculateDenominators(false);
+                inverse = false;
                 break;
 
             case POLYLINE_TO_POINT_INVERSE:
-                calculateDenominators(true);
+                inverse = true;
                 break;
 
             default:
                 throw new Exception("Method unknown for polyline to point mapping");
         }
+
+        XYPolyline[] fromPolylines = new XYPolyline[numberOfColumns];
+        for (int j = 0; j < numberOfColumns; j++) {
+            fromPolylines[j] = XYGeometryTools.createXYPolyline(source, j);
+        }
+
+        // every row holds the distances first, then their denominators
+        double[] row = new double[numberOfColumns];
+        for (int i = 0; i < numberOfRows; i++) {
+            XYPoint toPoint = XYGeometryTools.createXYPoint(target, i);
+            for (int j = 0; j < numberOfColumns; j++) {
+                row[j] = XYGeometryTools.calculatePolylineToPointDistance(fromPolylines[j], toPoint);
+            }
+            calculateDenominators(row, inverse);
+            addDenseRow(i, row);
+        }
     }
 
 }
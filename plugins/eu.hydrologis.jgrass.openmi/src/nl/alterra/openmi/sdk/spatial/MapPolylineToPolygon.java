@@ -55,35 +55,38 @@ public class MapPolylineToPolygon extends MappingStrategy {
      * @throws Exception
      */
     public void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target) throws Exception {
-        for (int i = 0; i < numberOfRows; i++) {
-            XYPolygon polygon = XYGeometryTools.createXYPolygon(target, i);
+        if (method != ElementMappingMethod.POLYLINE_TO_POLYGON_WEIGHTED_MEAN
+                && method != ElementMappingMethod.POLYLINE_TO_POLYGON_WEIGHTED_SUM) {
+            throw new Exception("Method unknown for polyline to polygon mapping");
+        }
 
-            switch (method) {
-                case POLYLINE_TO_POLYGON_WEIGHTED_MEAN:
-                    double totalLineLengthInPolygon = 0;
-                    for (int n = 0; n < numberOfColumns; n++) {
-                        XYPolyline polyline = XYGeometryTools.createXYPolyline(source, n);
-                        mappingMatrix[i][n] = XYGeometryTools.calculateLengthOfPolylineInsidePolygon(polyline, polygon);
-                        totalLineLengthInPolygon += mappingMatrix[i][n];
-                    }
+        XYGridIndex sourceIndex = XYGeometryTools.createGridIndex(source);
+        double[] values = new double[16];
 
-                    if (totalLineLengthInPolygon > 0) {
-                        for (int n = 0; n < numberOfColumns; n++) {
-                            mappingMatrix[i][n] = mappingMatrix[i][n] / totalLineLengthInPolygon;
-                        }
-                    }
-                    break;
+        for (int i = 0; i < numberOfRows; i++) {
+            XYPolygon polygon = XYGeometryTools.createXYPolygon(target, i);
 
-                case POLYLINE_TO_POLYGON_WEIGHTED_SUM:
-                    for (int n = 0; n < numberOfColumns; n++) {
-                        XYPolyline polyline = XYGeometryTools.createXYPolyline(source, n);
-                        mappingMatrix[i][n] = XYGeometryTools.calculateLengthOfPolylineInsidePolygon(polyline, polygon) / polyline.getLength();
-                    }
-                    break;
+            // only the lines whose envelope intersects the one of the polygon can be partly inside it
+            int[] columns = XYGeometryTools.findCandidates(sourceIndex, target, i);
+            if (columns.length > values.length) {
+                values = new double[columns.length];
+            }
+            double totalLineLengthInPolygon = 0;
+            for (int k = 0; k < columns.length; k++) {
+                XYPolyline polyline = XYGeometryTools.createXYPolyline(source, columns[k]);
+                values[k] = XYGeometryTools.calculateLengthOfPolylineInsidePolygon(polyline, polygon);
+                if (method == ElementMappingMethod.POLYLINE_TO_POLYGON_WEIGHTED_SUM) {
+                    values[k] = values[k] / polyline.getLength();
+                }
+                totalLineLengthInPolygon += values[k];
+            }
 
-                default:
-                    throw new Exception("Method unknown for polyline to polygon mapping");
+            if (method == ElementMappingMethod.POLYLINE_TO_POLYGON_WEIGHTED_MEAN && totalLineLengthInPolygon > 0) {
+                for (int k = 0; k < columns.length; k++) {
+                    values[k] = values[k] / totalLineLengthInPolygon;
+                }
             }
+            addRow(i, columns, values, columns.length);
         }
     }
 
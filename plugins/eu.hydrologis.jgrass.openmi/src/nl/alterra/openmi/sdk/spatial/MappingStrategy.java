@@ -50,14 +50,31 @@ import org.openmi.standard.IElementSet;
  * 
  * The MappingStrategy class and the initial descendent implementations
  * started from a refactoring of the giant .NET ElementMapper original.
+ * 
+ * The mapping matrix has a row for every target element and a column for
+ * every source element, but most of its entries are zero, since a target
+ * element usually gets its value from few source elements. The matrix is
+ * therefore kept in compressed sparse row (CSR) form: the non zero entries
+ * of every row are stored one after the other, with their column indices in
+ * ascending order. The descendents fill it one row at a time, in row order,
+ * through addRow or addDenseRow.
  */
 public abstract class MappingStrategy {
 
-    protected double[][] mappingMatrix;
     protected int numberOfRows;
     protected int numberOfColumns;
     protected boolean isInitialised = false;
 
+    /**
+     * The position of the first entry of every row in the columnIndices and
+     * entryValues arrays, plus the number of entries at the end.
+     */
+    protected int[] rowStart;
+    protected int[] columnIndices;
+    protected double[] entryValues;
+    private int numberOfEntries;
+    private int filledRows;
+
     /**
      * Initialise the MappingEntry Strategy.
      *
@@ -70,11 +87,19 @@ public abstract class MappingStrategy {
             throws Exception {
         numberOfRows = target.getElementCount();
         numberOfColumns = source.getElementCount();
-        mappingMatrix = new double[numberOfRows][numberOfColumns];
+        rowStart = new int[numberOfRows + 1];
+        columnIndices = new int[Math.max(16, numberOfRows)];
+        entryValues = new double[columnIndices.length];
+        numberOfEntries = 0;
+        filledRows = 0;
 
         // update matrix in specific implementations
         updateMappingMatrix(method, source, target);
 
+        // rows not added are empty
+        closeRowsBefore(numberOfRows);
+        trimToSize();
+
         isInitialised = true;
     }
 
@@ -90,6 +115,117 @@ public abstract class MappingStrategy {
     public abstract void updateMappingMatrix(ElementMappingMethod method, IElementSet source, IElementSet target)
             throws Exception;
 
+    /**
+     * Adds the entries of a row to the mapping matrix. Rows must be added in
+     * ascending order, rows that are skipped stay empty. Zero values are not
+     * stored.
+     *
+     * @param row       Zero based row index
+     * @param columns   The column indices of the entries, in ascending order
+     * @param values    The values of the entries
+     * @param count     The number of entries to add
+     */
+    protected void addRow(int row, int[] columns, double[] values, int count) {
+        if (row < filledRows || row >= numberOfRows) {
+            throw new IllegalStateException(String.format("Element MappingEntry: row %d added out of order", row));
+        }
+        closeRowsBefore(row);
+        ensureEntryCapacity(numberOfEntries + count);
+        for (int k = 0; k < count; k++) {
+            if (values[k] != 0.0) {
+                columnIndices[numberOfEntries] = columns[k];
+                entryValues[numberOfEntries] = values[k];
+                numberOfEntries++;
+            }
+        }
+        rowStart[row + 1] = numberOfEntries;
+        filledRows = row + 1;
+    }
+
+    /**
+     * Adds a row given as an array with a value for every column. Rows must
+     * be added in ascending order and only the non zero values are stored.
+     *
+     * @param row    Zero based row index
+     * @param values The values of all the columns of the row
+     */
+    protected void addDenseRow(int row, double[] values) {
+        if (row < filledRows || row >= numberOfRows) {
+            throw new IllegalStateException(String.format("Element MappingEntry: row %d added out of order", row));
+        }
+        closeRowsBefore(row);
+        int count = 0;
+        for (int j = 0; j < numberOfColumns; j++) {
+            if (values[j] != 0.0) {
+                count++;
+            }
+        }
+        ensureEntryCapacity(numberOfEntries + count);
+        for (int j = 0; j < numberOfColumns; j++) {
+            if (values[j] != 0.0) {
+                columnIndices[numberOfEntries] = j;
+                entryValues[numberOfEntries] = values[j];
+                numberOfEntries++;
+            }
+        }
+        rowStart[row + 1] = numberOfEntries;
+        filledRows = row + 1;
+    }
+
+    private void closeRowsBefore(int row) {
+        while (filledRows < row) {
+            rowStart[filledRows + 1] = numberOfEntries;
+            filledRows++;
+        }
+    }
+
+    private void ensureEntryCapacity(int capacity) {
+        if (capacity > columnIndices.length) {
+            int newLength = Math.max(capacity, columnIndices.length * 3 / 2 + 1);
+            int[] newColumns = new int[newLength];
+            double[] newValues = new double[newLength];
+            System.arraycopy(columnIndices, 0, newColumns, 0, numberOfEntries);
+            System.arraycopy(entryValues, 0, newValues, 0, numberOfEntries);
+            columnIndices = newColumns;
+            entryValues = newValues;
+        }
+    }
+
+    private void trimToSize() {
+        if (numberOfEntries < columnIndices.length) {
+            int[] newColumns = new int[numberOfEntries];
+            double[] newValues = new double[numberOfEntries];
+            System.arraycopy(columnIndices, 0, newColumns, 0, numberOfEntries);
+            System.arraycopy(entryValues, 0, newValues, 0, numberOfEntries);
+            columnIndices = newColumns;
+            entryValues = newValues;
+        }
+    }
+
+    /**
+     * Finds the position of the (row, column) entry in the entry arrays.
+     *
+     * @return The position, or (-(insertion point) - 1) if the entry is zero
+     */
+    private int findEntry(int row, int column) {
+        int low = rowStart[row];
+        int high = rowStart[row + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midColumn = columnIndices[mid];
+            if (midColumn < column) {
+                low = mid + 1;
+            }
+            else if (midColumn > column) {
+                high = mid - 1;
+            }
+            else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
     /**
      * Extracts the (row, column) element from the mapping matrix.
      *
@@ -100,11 +236,14 @@ public abstract class MappingStrategy {
      */
     public double getValueFromMappingMatrix(int row, int column) {
         validateIndicies(row, column);
-        return mappingMatrix[row][column];
+        int position = findEntry(row, column);
+        return position >= 0 ? entryValues[position] : 0.0;
     }
 
     /**
-     * Sets individual the (row, column) element in the mapping matrix.
+     * Sets individual the (row, column) element in the mapping matrix. Setting
+     * an entry that was zero has to shift the following entries, so this is
+     * meant for corrections, not for filling the matrix.
      *
      * @param value  Element value to set
      * @param row    Zero based row index
@@ -113,82 +252,158 @@ public abstract class MappingStrategy {
      */
     public void setValueInMappingMatrix(double value, int row, int column) {
         validateIndicies(row, column);
-        mappingMatrix[row][column] = value;
+        int position = findEntry(row, column);
+        if (position >= 0) {
+            entryValues[position] = value;
+            return;
+        }
+        if (value == 0.0) {
+            return;
+        }
+
+        position = -position - 1;
+        int[] newColumns = new int[numberOfEntries + 1];
+        double[] newValues = new double[numberOfEntries + 1];
+        System.arraycopy(columnIndices, 0, newColumns, 0, position);
+        System.arraycopy(entryValues, 0, newValues, 0, position);
+        newColumns[position] = column;
+        newValues[position] = value;
+        System.arraycopy(columnIndices, position, newColumns, position + 1, numberOfEntries - position);
+        System.arraycopy(entryValues, position, newValues, position + 1, numberOfEntries - position);
+        columnIndices = newColumns;
+        entryValues = newValues;
+        numberOfEntries++;
+        for (int i = row + 1; i <= numberOfRows; i++) {
+            rowStart[i]++;
+        }
+    }
+
+    /**
+     * Multiplies the mapping matrix with a vector of source values.
+     *
+     * @param sourceValues One value for every column (source element)
+     * @param targetValues Filled with one value for every row (target element)
+     */
+    public void multiply(double[] sourceValues, double[] targetValues) {
+        for (int i = 0; i < numberOfRows; i++) {
+            double sum = 0;
+            for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+                sum += entryValues[k] * sourceValues[columnIndices[k]];
+            }
+            targetValues[i] = sum;
+        }
+    }
+
+    /**
+     * Gets the number of non zero entries in the mapping matrix.
+     *
+     * @return The number of stored entries
+     */
+    public int getNumberOfEntries() {
+        return numberOfEntries;
     }
 
     /**
-     * Get the minimum column value in the matrix for the give row.
+     * Gets the position of the first entry of a row, the entries of the row
+     * end at the position returned for the next row.
      *
-     * @param row Row index
+     * @param row Zero based row index, up to the number of rows included
+     * @return The position in the arrays returned by getEntryColumns and getEntryValues
+     */
+    public int getRowStart(int row) {
+        return rowStart[row];
+    }
+
+    /**
+     * Gets the column indices of all the entries, row after row.
+     *
+     * @return The internal array of column indices, not to be modified
+     */
+    public int[] getEntryColumns() {
+        return columnIndices;
+    }
+
+    /**
+     * Gets the values of all the entries, row after row.
+     *
+     * @return The internal array of values, not to be modified
+     */
+    public double[] getEntryValues() {
+        return entryValues;
+    }
+
+    /**
+     * Get the minimum column value in the given row values.
+     *
+     * @param row The values of all the columns of a row
      * @return Minimum column value in the given row
      */
-    public double getMinColumnValue(int row) {
-        double min = mappingMatrix[row][0];
+    public double getMinColumnValue(double[] row) {
+        double min = row[0];
 
         for (int j = 1; j < numberOfColumns; j++) {
-            if (mappingMatrix[row][j] < min) {
-                min = mappingMatrix[row][j];
+            if (row[j] < min) {
+                min = row[j];
             }
         }
         return min;
     }
 
     /**
-     * Replace matrix values with row based denominators.
+     * Replace the distances of a row with row based denominators.
      *
+     * @param row     The values of all the columns of a row
      * @param inverse Calculate inverse denominators, or based on minimum column value
      */
-    public void calculateDenominators(boolean inverse) {
-        for (int i = 0; i < numberOfRows; i++) {
-            double min = getMinColumnValue(i);
-            if ((!inverse) || (Double.compare(min, 0.0) == 0)) {
-                setStandardColumnDenominators(i, min);
-            }
-            else {
-                setInverseColumnDenominators(i);
-            }
+    public void calculateDenominators(double[] row, boolean inverse) {
+        double min = getMinColumnValue(row);
+        if ((!inverse) || (Double.compare(min, 0.0) == 0)) {
+            setStandardColumnDenominators(row, min);
+        }
+        else {
+            setInverseColumnDenominators(row);
         }
     }
 
     /**
      * Replace column values with standard denominators.
      *
-     * @param row   The mapping matrix row to update
+     * @param row   The values of all the columns of a row
      * @param value The value to calculate the denominators for
      */
-    public void setStandardColumnDenominators(int row, double value) {
+    public void setStandardColumnDenominators(double[] row, double value) {
         int denominator = 0;
 
         for (int j = 0; j < numberOfColumns; j++) {
-            if (Double.compare(mappingMatrix[row][j], value) == 0) {
-                mappingMatrix[row][j] = 1.0;
+            if (Double.compare(row[j], value) == 0) {
+                row[j] = 1.0;
                 denominator++;
             }
             else {
-                mappingMatrix[row][j] = 0.0;
+                row[j] = 0.0;
             }
         }
 
         for (int j = 0; j < numberOfColumns; j++) {
-            mappingMatrix[row][j] = mappingMatrix[row][j] / denominator;
+            row[j] = row[j] / denominator;
         }
     }
 
     /**
      * Replace column values with inverse denominators.
      *
-     * @param row The mapping matrix row to update
+     * @param row The values of all the columns of a row
      */
-    public void setInverseColumnDenominators(int row) {
+    public void setInverseColumnDenominators(double[] row) {
         double denominator = 0;
 
         for (int j = 0; j < numberOfColumns; j++) {
-            mappingMatrix[row][j] = 1 / mappingMatrix[row][j];
-            denominator = denominator + mappingMatrix[row][j];
+            row[j] = 1 / row[j];
+            denominator = denominator + row[j];
         }
 
         for (int j = 0; j < numberOfColumns; j++) {
-            mappingMatrix[row][j] = mappingMatrix[row][j] / denominator;
+            row[j] = row[j] / denominator;
         }
     }
 
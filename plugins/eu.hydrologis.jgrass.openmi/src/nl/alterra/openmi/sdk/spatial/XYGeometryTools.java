@@ -118,6 +118,65 @@ public class XYGeometryTools {
         return xyPolygon;
     }
 
+    /**
+     * Calculates the envelope (bounding box) of the indexed element in a given
+     * element set.
+     *
+     * @param s     The IElementSet containing the element
+     * @param index The location in the element set
+     * @return The envelope as {minX, minY, maxX, maxY}
+     */
+    public static double[] getEnvelope(IElementSet s, int index) {
+        double[] envelope = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = 0; i < s.getVertexCount(index); i++) {
+            double x = s.getXCoordinate(index, i);
+            double y = s.getYCoordinate(index, i);
+            envelope[0] = Math.min(envelope[0], x);
+            envelope[1] = Math.min(envelope[1], y);
+            envelope[2] = Math.max(envelope[2], x);
+            envelope[3] = Math.max(envelope[3], y);
+        }
+        return envelope;
+    }
+
+    /**
+     * Creates a spatial index over the envelopes of all the elements in a
+     * given element set.
+     *
+     * @param s The IElementSet to index
+     * @return The index, whose element indices are the ones of the element set
+     */
+    public static XYGridIndex createGridIndex(IElementSet s) {
+        int count = s.getElementCount();
+        double[] minX = new double[count];
+        double[] minY = new double[count];
+        double[] maxX = new double[count];
+        double[] maxY = new double[count];
+        for (int i = 0; i < count; i++) {
+            double[] envelope = getEnvelope(s, i);
+            minX[i] = envelope[0];
+            minY[i] = envelope[1];
+            maxX[i] = envelope[2];
+            maxY[i] = envelope[3];
+        }
+        return new XYGridIndex(minX, minY, maxX, maxY);
+    }
+
+    /**
+     * Finds the elements of an indexed element set whose envelope intersects
+     * the envelope of the indexed element in another element set.
+     *
+     * @param index  The spatial index of the element set to search
+     * @param s      The IElementSet containing the query element
+     * @param sIndex The location of the query element in its element set
+     * @return The indices of the candidate elements, in ascending order
+     */
+    public static int[] findCandidates(XYGridIndex index, IElementSet s, int sIndex) {
+        double[] envelope = getEnvelope(s, sIndex);
+        return index.query(envelope[0], envelope[1], envelope[2], envelope[3]);
+    }
+
     /**
      * Static method that validates an object with an IElementSet interface. The method
      * raises an Exception in case IElementSet does not describe a valid ElementSet.
@@ -0,0 +1,226 @@
+/* ***************************************************************************
+ *
+ *    Copyright (C) 2006 OpenMI Association
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation; either
+ *    version 2.1 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ *
+ *    You should have received a copy of the GNU Lesser General Public
+ *    License along with this library; if not, write to the Free Software
+ *    Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+ *    or look at URL www.gnu.org/licenses/lgpl.html
+ *
+ *    Contact info:
+ *      URL: www.openmi.org
+ *      Email: sourcecode@openmi.org
+ *      Discussion forum available at www.sourceforge.net
+ *
+ *      Coordinator: Roger Moore, CEH Wallingford, Wallingford, Oxon, UK
+ *
+ ****************************************************************************/
+package nl.alterra.openmi.sdk.spatial;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid index over the envelopes (bounding boxes) of the elements of
+ * an element set, used by the mapping strategies to find the element pairs
+ * that can overlap without testing all of them.
+ * 
+ * Every element is registered in all the grid cells its envelope touches. A
+ * query collects the elements registered in the cells touched by the query
+ * envelope and keeps the ones whose envelope intersects it. Envelopes that
+ * just touch are considered intersecting, so elements sharing only an edge or
+ * a vertex are returned too.
+ * 
+ * The index is not thread safe, since queries reuse internal buffers.
+ */
+public class XYGridIndex {
+
+    private final int elementCount;
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+
+    private double originX;
+    private double originY;
+    private double cellWidth;
+    private double cellHeight;
+    private int gridColumns;
+    private int gridRows;
+
+    /**
+     * The position in cellElements of the first element of every cell, plus
+     * the total number of registrations at the end.
+     */
+    private int[] cellStart;
+    private int[] cellElements;
+
+    /**
+     * The query in which every element has been seen last, to return every
+     * element once even if it is registered in several cells.
+     */
+    private int[] queryStamps;
+    private int currentQuery = 0;
+    private int[] results;
+
+    /**
+     * Creates an index for the given envelopes.
+     *
+     * @param minX The minimum x of every envelope
+     * @param minY The minimum y of every envelope
+     * @param maxX The maximum x of every envelope
+     * @param maxY The maximum y of every envelope
+     */
+    public XYGridIndex(double[] minX, double[] minY, double[] maxX, double[] maxY) {
+        this.elementCount = minX.length;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        queryStamps = new int[elementCount];
+        results = new int[Math.max(16, (int) Math.sqrt(elementCount))];
+        buildGrid();
+    }
+
+    private void buildGrid() {
+        if (elementCount == 0) {
+            gridColumns = 1;
+            gridRows = 1;
+            cellWidth = 1;
+            cellHeight = 1;
+            cellStart = new int[2];
+            cellElements = new int[0];
+            return;
+        }
+
+        double extentMinX = Double.POSITIVE_INFINITY;
+        double extentMinY = Double.POSITIVE_INFINITY;
+        double extentMaxX = Double.NEGATIVE_INFINITY;
+        double extentMaxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < elementCount; i++) {
+            extentMinX = Math.min(extentMinX, minX[i]);
+            extentMinY = Math.min(extentMinY, minY[i]);
+            extentMaxX = Math.max(extentMaxX, maxX[i]);
+            extentMaxY = Math.max(extentMaxY, maxY[i]);
+        }
+
+        // about one cell per element
+        int side = Math.max(1, (int) Math.ceil(Math.sqrt(elementCount)));
+        originX = extentMinX;
+        originY = extentMinY;
+        double width = extentMaxX - extentMinX;
+        double height = extentMaxY - extentMinY;
+        gridColumns = width > 0 ? side : 1;
+        gridRows = height > 0 ? side : 1;
+        cellWidth = width > 0 ? width / gridColumns : 1;
+        cellHeight = height > 0 ? height / gridRows : 1;
+
+        // count the registrations of every cell, then fill them
+        cellStart = new int[gridColumns * gridRows + 1];
+        for (int i = 0; i < elementCount; i++) {
+            int c0 = column(minX[i]), c1 = column(maxX[i]);
+            int r0 = row(minY[i]), r1 = row(maxY[i]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellStart[r * gridColumns + c + 1]++;
+                }
+            }
+        }
+        for (int i = 1; i < cellStart.length; i++) {
+            cellStart[i] += cellStart[i - 1];
+        }
+        cellElements = new int[cellStart[cellStart.length - 1]];
+        int[] fill = new int[gridColumns * gridRows];
+        System.arraycopy(cellStart, 0, fill, 0, fill.length);
+        for (int i = 0; i < elementCount; i++) {
+            int c0 = column(minX[i]), c1 = column(maxX[i]);
+            int r0 = row(minY[i]), r1 = row(maxY[i]);
+            for (int r = r0; r <= r1; r++) {
+                for (int c = c0; c <= c1; c++) {
+                    cellElements[fill[r * gridColumns + c]++] = i;
+                }
+            }
+        }
+    }
+
+    private int column(double x) {
+        int c = (int) Math.floor((x - originX) / cellWidth);
+        return Math.max(0, Math.min(gridColumns - 1, c));
+    }
+
+    private int row(double y) {
+        int r = (int) Math.floor((y - originY) / cellHeight);
+        return Math.max(0, Math.min(gridRows - 1, r));
+    }
+
+    /**
+     * Gets the number of indexed elements.
+     *
+     * @return The number of elements
+     */
+    public int getElementCount() {
+        return elementCount;
+    }
+
+    /**
+     * Finds the elements whose envelope intersects the given envelope.
+     *
+     * @param qMinX The minimum x of the query envelope
+     * @param qMinY The minimum y of the query envelope
+     * @param qMaxX The maximum x of the query envelope
+     * @param qMaxY The maximum y of the query envelope
+     * @return The indices of the intersecting elements, in ascending order
+     */
+    public int[] query(double qMinX, double qMinY, double qMaxX, double qMaxY) {
+        if (elementCount == 0) {
+            return new int[0];
+        }
+
+        currentQuery++;
+        if (currentQuery == 0) {
+            // the stamps wrapped around, start over
+            Arrays.fill(queryStamps, 0);
+            currentQuery = 1;
+        }
+
+        int found = 0;
+        int c0 = column(qMinX), c1 = column(qMaxX);
+        int r0 = row(qMinY), r1 = row(qMaxY);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * gridColumns + c;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int element = cellElements[k];
+                    if (queryStamps[element] == currentQuery) {
+                        continue;
+                    }
+                    queryStamps[element] = currentQuery;
+                    if (minX[element] <= qMaxX && maxX[element] >= qMinX
+                            && minY[element] <= qMaxY && maxY[element] >= qMinY) {
+                        if (found == results.length) {
+                            int[] newResults = new int[results.length * 2];
+                            System.arraycopy(results, 0, newResults, 0, found);
+                            results = newResults;
+                        }
+                        results[found++] = element;
+                    }
+                }
+            }
+        }
+
+        int[] elements = new int[found];
+        System.arraycopy(results, 0, elements, 0, found);
+        Arrays.sort(elements);
+        return elements;
+    }
+
+}
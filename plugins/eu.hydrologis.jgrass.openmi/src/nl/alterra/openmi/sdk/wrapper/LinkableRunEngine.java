@@ -34,11 +34,19 @@
  ****************************************************************************/
 package nl.alterra.openmi.sdk.wrapper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import nl.alterra.openmi.sdk.backbone.Event;
+import nl.alterra.openmi.sdk.backbone.IPersistentState;
 import nl.alterra.openmi.sdk.backbone.LinkableComponent;
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
 import nl.alterra.openmi.sdk.backbone.TimeStamp;
@@ -65,8 +73,14 @@ import org.openmi.standard.IEvent.EventType;
  * SmartWrapper class and associated classes located in the Wrapper package,
  * Buffer package, and the Spatial package will provide you with one possible
  * way to go.
+ * 
+ * When the engine implements IPersistentState, its state together with the
+ * contents of the output buffers can be kept in memory (IManageState) or
+ * written to a stream (IPersistentState), to go back to it later on. Other
+ * engines are not persistent (see isPersistent()): they are left out of the
+ * state snapshots and keeping their state in memory is not supported.
  */
-public abstract class LinkableRunEngine extends LinkableComponent implements Serializable {
+public abstract class LinkableRunEngine extends LinkableComponent implements IManageState, IPersistentState, Serializable {
     
     // TODO: The elementset version number should be checked and the
     // elementmapper
@@ -87,6 +101,9 @@ public abstract class LinkableRunEngine extends LinkableComponent implements Ser
     protected ArrayList<String> validationWarningMessages;
     protected ArrayList<String> validationErrorMessages;
 
+    protected HashMap<String, byte[]> engineStates = new HashMap<String, byte[]>();
+    protected int stateCount = 0;
+
     // @@@@@@@ CONSTRUCTORS @@@@@@@
 
     /**
@@ -504,16 +521,120 @@ public abstract class LinkableRunEngine extends LinkableComponent implements Ser
         }
     }
 
+    /**
+     * Keeps the current state of the engine and of the output buffers.
+     *
+     * @return the ID of the kept state
+     * @see IManageState#keepCurrentState()
+     */
     public String keepCurrentState() {
-        throw new UnsupportedOperationException("keepCurrentState was called but the engine does not implement IManageState");
+        IPersistentState engine = getPersistentEngine("keepCurrentState");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            engine.writeState(out);
+            out.flush();
+
+            stateCount++;
+            String stateID = "State" + stateCount;
+            engineStates.put(stateID, bytes.toByteArray());
+            for (int i = 0; i < smartOutputLinkSet.smartLinkList.size(); i++) {
+                ((SmartOutputLink) smartOutputLinkSet.smartLinkList.get(i)).keepCurrentBufferState(stateID);
+            }
+            return stateID;
+        }
+        catch (IOException e) {
+            String message = "Exception in LinkableComponent. ComponentID: ";
+            message += this.getComponentID();
+            throw new RuntimeException(message, e);
+        }
     }
 
-    public void restoreState(String stateID) throws Exception {
-        throw new UnsupportedOperationException("restoreState was called but the engine does not implement IManageState");
+    /**
+     * Restores a state kept by keepCurrentState.
+     *
+     * @param stateID the ID of the kept state
+     * @see IManageState#restoreState(String)
+     */
+    public void restoreState(String stateID) {
+        IPersistentState engine = getPersistentEngine("restoreState");
+        try {
+            byte[] state = engineStates.get(stateID);
+            if (state == null) {
+                throw new Exception("Failed to find the state to restore. StateID = " + stateID);
+            }
+            engine.readState(new DataInputStream(new ByteArrayInputStream(state)));
+            for (int i = 0; i < smartOutputLinkSet.smartLinkList.size(); i++) {
+                ((SmartOutputLink) smartOutputLinkSet.smartLinkList.get(i)).restoreBufferState(stateID);
+            }
+        }
+        catch (Exception e) {
+            String message = "Exception in LinkableComponent. ComponentID: ";
+            message += this.getComponentID();
+            throw new RuntimeException(message, e);
+        }
     }
 
+    /**
+     * Removes a state kept by keepCurrentState.
+     *
+     * @param stateID the ID of the kept state
+     * @see IManageState#clearState(String)
+     */
     public void clearState(String stateID) {
-        throw new UnsupportedOperationException("clearState was called but the engine does not implement IManageState");
+        getPersistentEngine("clearState");
+        engineStates.remove(stateID);
+        for (int i = 0; i < smartOutputLinkSet.smartLinkList.size(); i++) {
+            ((SmartOutputLink) smartOutputLinkSet.smartLinkList.get(i)).clearBufferState(stateID);
+        }
+    }
+
+    /**
+     * @return true if the engine implements IPersistentState and can save its
+     *         state
+     * @see IPersistentState#isPersistent()
+     */
+    public boolean isPersistent() {
+        return engineApiAccess instanceof IPersistentState && ((IPersistentState) engineApiAccess).isPersistent();
+    }
+
+    /**
+     * Writes the state of the engine and the contents of the output buffers,
+     * nothing if the engine can not save its state.
+     *
+     * @see IPersistentState#writeState(DataOutput)
+     */
+    public void writeState(DataOutput out) throws IOException {
+        if (!isPersistent()) {
+            return;
+        }
+        ((IPersistentState) engineApiAccess).writeState(out);
+        smartOutputLinkSet.writeBufferStates(out);
+    }
+
+    /**
+     * Reads the state of the engine and the contents of the output buffers,
+     * nothing if the engine can not save its state.
+     *
+     * @see IPersistentState#readState(DataInput)
+     */
+    public void readState(DataInput in) throws IOException {
+        if (!isPersistent()) {
+            return;
+        }
+        ((IPersistentState) engineApiAccess).readState(in);
+        smartOutputLinkSet.readBufferStates(in);
+    }
+
+    /**
+     * @param method the name of the method needing the engine state
+     * @return the engine, if it implements IPersistentState
+     */
+    private IPersistentState getPersistentEngine(String method) {
+        if (!isPersistent()) {
+            throw new UnsupportedOperationException(method + " was called but the engine can not save its state");
+        }
+        return (IPersistentState) engineApiAccess;
     }
 
     /**
@@ -40,6 +40,7 @@ import org.openmi.standard.ITime;
 import org.openmi.standard.ITimeStamp;
 import nl.alterra.openmi.sdk.backbone.Event;
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
 
 /**
  * SmartInputLink class
@@ -71,7 +72,7 @@ public class SmartInputLink extends SmartLink {
         eventA.setSimulationTime((ITimeStamp) this.engineApiAccess.getCurrentTime());
         this.link.getTargetComponent().sendEvent(eventA);
 
-        IScalarSet sourceValueSet = (IScalarSet) link.getSourceComponent().getValues(InputTime, link.getID());
+        IScalarSet sourceValueSet = (IScalarSet) LinkValueCache.requestValues(link, InputTime);
         //The input values set is copied in order to avoid the risk that it is changed be the
         //provider.
         double missingValueDefinition = engineApiAccess.getMissingValueDefinition();
@@ -34,11 +34,22 @@
  ****************************************************************************/
 package nl.alterra.openmi.sdk.wrapper;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import org.openmi.standard.IScalarSet;
 import org.openmi.standard.ITime;
+import org.openmi.standard.ITimeSpan;
+import org.openmi.standard.ITimeStamp;
 import org.openmi.standard.IValueSet;
+import org.openmi.standard.IVector;
+import org.openmi.standard.IVectorSet;
 import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.TimeSpan;
+import nl.alterra.openmi.sdk.backbone.TimeStamp;
+import nl.alterra.openmi.sdk.backbone.Vector;
+import nl.alterra.openmi.sdk.backbone.VectorSet;
 import nl.alterra.openmi.sdk.buffer.SmartBuffer;
 import nl.alterra.openmi.sdk.spatial.ElementMapper;
 
@@ -159,6 +170,92 @@ public class SmartOutputLink extends SmartLink {
         bufferStates.remove(bufferStateID);
     }
 
+    /**
+     * Writes the times and values in the buffer to a stream
+     *
+     * @param out the stream to write to
+     * @throws IOException
+     */
+    public void writeBufferState(DataOutput out) throws IOException {
+        int count = smartBuffer.getTimesCount();
+        out.writeInt(count);
+        try {
+            for (int i = 0; i < count; i++) {
+                ITime time = smartBuffer.getTimeAt(i);
+                if (time instanceof ITimeSpan) {
+                    out.writeBoolean(true);
+                    out.writeDouble(((ITimeSpan) time).getStart().getModifiedJulianDay());
+                    out.writeDouble(((ITimeSpan) time).getEnd().getModifiedJulianDay());
+                }
+                else {
+                    out.writeBoolean(false);
+                    out.writeDouble(((ITimeStamp) time).getModifiedJulianDay());
+                }
+
+                IValueSet values = smartBuffer.getValuesAt(i);
+                out.writeBoolean(values instanceof IVectorSet);
+                out.writeInt(values.getCount());
+                for (int j = 0; j < values.getCount(); j++) {
+                    if (values instanceof IVectorSet) {
+                        IVector vector = ((IVectorSet) values).getVector(j);
+                        out.writeDouble(vector.getXComponent());
+                        out.writeDouble(vector.getYComponent());
+                        out.writeDouble(vector.getZComponent());
+                    }
+                    else {
+                        out.writeDouble(((IScalarSet) values).getScalar(j));
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException("Failed to write the buffer of link " + link.getID() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the times and values in the buffer with the ones written
+     * by writeBufferState
+     *
+     * @param in the stream to read from
+     * @throws IOException
+     */
+    public void readBufferState(DataInput in) throws IOException {
+        SmartBuffer buffer = new SmartBuffer();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            ITime time;
+            if (in.readBoolean()) {
+                TimeStamp start = new TimeStamp(in.readDouble());
+                time = new TimeSpan(start, new TimeStamp(in.readDouble()));
+            }
+            else {
+                time = new TimeStamp(in.readDouble());
+            }
+
+            boolean vectors = in.readBoolean();
+            int valuesCount = in.readInt();
+            if (vectors) {
+                Vector[] v = new Vector[valuesCount];
+                for (int j = 0; j < valuesCount; j++) {
+                    v[j] = new Vector(in.readDouble(), in.readDouble(), in.readDouble());
+                }
+                buffer.addValues(time, new VectorSet(v));
+            }
+            else {
+                double[] x = new double[valuesCount];
+                for (int j = 0; j < valuesCount; j++) {
+                    x[j] = in.readDouble();
+                }
+                buffer.addValues(time, new ScalarSet(x));
+            }
+        }
+        smartBuffer = buffer;
+    }
+
     private IValueSet convertUnit(IValueSet values) {
         double aSource = link.getSourceQuantity().getUnit().getConversionFactorToSI();
         double bSource = link.getSourceQuantity().getUnit().getOffSetToSI();
@@ -34,6 +34,9 @@
  ****************************************************************************/
 package nl.alterra.openmi.sdk.wrapper;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import org.openmi.standard.ILink;
 import org.openmi.standard.ITime;
 import org.openmi.standard.IValueSet;
@@ -110,4 +113,41 @@ public class SmartOutputLinkSet extends SmartLinkSet {
         }
     }
 
+    /**
+     * To write the buffers of all the links to a stream
+     *
+     * @param out the stream to write to
+     * @throws IOException
+     */
+    public void writeBufferStates(DataOutput out) throws IOException {
+        out.writeInt(smartLinkList.size());
+        for (int i = 0; i < smartLinkList.size(); i++) {
+            SmartOutputLink smartOutputLink = (SmartOutputLink) smartLinkList.get(i);
+            out.writeUTF(smartOutputLink.link.getID());
+            smartOutputLink.writeBufferState(out);
+        }
+    }
+
+    /**
+     * To read the buffers of all the links from a stream, as written by
+     * writeBufferStates. The links must be the same ones, in the same order
+     *
+     * @param in the stream to read from
+     * @throws IOException
+     */
+    public void readBufferStates(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count != smartLinkList.size()) {
+            throw new IOException("The state holds the buffers of " + count + " links instead of " + smartLinkList.size());
+        }
+        for (int i = 0; i < count; i++) {
+            SmartOutputLink smartOutputLink = (SmartOutputLink) smartLinkList.get(i);
+            String linkID = in.readUTF();
+            if (!linkID.equals(smartOutputLink.link.getID())) {
+                throw new IOException("The state holds the buffer of link " + linkID + " instead of " + smartOutputLink.link.getID());
+            }
+            smartOutputLink.readBufferState(in);
+        }
+    }
+
 }
\ No newline at end of file
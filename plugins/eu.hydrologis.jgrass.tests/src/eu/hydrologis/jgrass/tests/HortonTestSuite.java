@@ -4,14 +4,18 @@ import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import eu.hydrologis.jgrass.tests.models.TestAb;
 import eu.hydrologis.jgrass.tests.models.TestAspect;
+import eu.hydrologis.jgrass.tests.models.TestBandValuesReader;
 import eu.hydrologis.jgrass.tests.models.TestCb;
 import eu.hydrologis.jgrass.tests.models.TestCurvatures;
 import eu.hydrologis.jgrass.tests.models.TestD2O;
 import eu.hydrologis.jgrass.tests.models.TestD2O3d;
 import eu.hydrologis.jgrass.tests.models.TestDD;
 import eu.hydrologis.jgrass.tests.models.TestDiameters;
+import eu.hydrologis.jgrass.tests.models.TestDischargeDistributor;
 import eu.hydrologis.jgrass.tests.models.TestDistEuclidea;
 import eu.hydrologis.jgrass.tests.models.TestDrain;
+import eu.hydrologis.jgrass.tests.models.TestDuffyEnsemble;
+import eu.hydrologis.jgrass.tests.models.TestDuffyModel;
 import eu.hydrologis.jgrass.tests.models.TestExtractNetwork0;
 import eu.hydrologis.jgrass.tests.models.TestExtractNetwork1;
 import eu.hydrologis.jgrass.tests.models.TestFlow;
@@ -22,6 +26,7 @@ import eu.hydrologis.jgrass.tests.models.TestH2cd3D;
 import eu.hydrologis.jgrass.tests.models.TestHackLength;
 import eu.hydrologis.jgrass.tests.models.TestHackLength3D;
 import eu.hydrologis.jgrass.tests.models.TestHackStream;
+import eu.hydrologis.jgrass.tests.models.TestHorizonAngles;
 import eu.hydrologis.jgrass.tests.models.TestMagnitudo;
 import eu.hydrologis.jgrass.tests.models.TestMarkOutlets;
 import eu.hydrologis.jgrass.tests.models.TestMeanDrop;
@@ -31,14 +36,19 @@ import eu.hydrologis.jgrass.tests.models.TestNabla1;
 import eu.hydrologis.jgrass.tests.models.TestNetdif;
 import eu.hydrologis.jgrass.tests.models.TestNetnumbering;
 import eu.hydrologis.jgrass.tests.models.TestNetnumbering1;
+import eu.hydrologis.jgrass.tests.models.TestParallelAreaOperations;
 import eu.hydrologis.jgrass.tests.models.TestPitfiller;
+import eu.hydrologis.jgrass.tests.models.TestRasterSummary;
 import eu.hydrologis.jgrass.tests.models.TestRescaledDistance;
 import eu.hydrologis.jgrass.tests.models.TestRescaledDistance3d;
+import eu.hydrologis.jgrass.tests.models.TestRungeKuttaFelberg;
 import eu.hydrologis.jgrass.tests.models.TestSeol;
 import eu.hydrologis.jgrass.tests.models.TestShalstab;
 import eu.hydrologis.jgrass.tests.models.TestSlope;
 import eu.hydrologis.jgrass.tests.models.TestSplitSubBasin;
 import eu.hydrologis.jgrass.tests.models.TestSrahler;
+import eu.hydrologis.jgrass.tests.models.TestStationSelector;
+import eu.hydrologis.jgrass.tests.models.TestStatisticsTool;
 import eu.hydrologis.jgrass.tests.models.TestSumdownstream;
 import eu.hydrologis.jgrass.tests.models.TestTau;
 import eu.hydrologis.jgrass.tests.models.TestTc;
@@ -83,6 +93,7 @@ public class HortonTestSuite extends TestCase {
         suite.addTestSuite(TestNabla1.class);
         suite.addTestSuite(TestNetnumbering.class);
         suite.addTestSuite(TestNetnumbering1.class);
+        suite.addTestSuite(TestParallelAreaOperations.class);
         suite.addTestSuite(TestPitfiller.class);
         suite.addTestSuite(TestSeol.class);
         suite.addTestSuite(TestSlope.class);
@@ -104,6 +115,15 @@ public class HortonTestSuite extends TestCase {
 
         suite.addTestSuite(TestTrasmissivity.class);
         suite.addTestSuite(TestNetdif.class);
+        suite.addTestSuite(TestRungeKuttaFelberg.class);
+        suite.addTestSuite(TestDuffyModel.class);
+        suite.addTestSuite(TestDischargeDistributor.class);
+        suite.addTestSuite(TestDuffyEnsemble.class);
+        suite.addTestSuite(TestHorizonAngles.class);
+        suite.addTestSuite(TestStatisticsTool.class);
+        suite.addTestSuite(TestRasterSummary.class);
+        suite.addTestSuite(TestStationSelector.class);
+        suite.addTestSuite(TestBandValuesReader.class);
         
 
         return suite;
@@ -1,9 +1,22 @@
 package eu.hydrologis.jgrass.tests;
 
+import eu.hydrologis.jgrass.tests.libs.TestCompressedRasterWriting;
+import eu.hydrologis.jgrass.tests.libs.TestFlatRasterData;
 import eu.hydrologis.jgrass.tests.libs.TestJGrassCoverageReader;
 import eu.hydrologis.jgrass.tests.libs.TestJiffle;
+import eu.hydrologis.jgrass.tests.libs.TestMappedRasterReading;
+import eu.hydrologis.jgrass.tests.libs.TestMappedScratchStore;
 import eu.hydrologis.jgrass.tests.libs.TestOldJGrassRasterReader;
+import eu.hydrologis.jgrass.tests.libs.TestParallelRasterReading;
+import eu.hydrologis.jgrass.tests.libs.TestPolygonRasterizer;
 import eu.hydrologis.jgrass.tests.libs.TestPredefinedColorRules;
+import eu.hydrologis.jgrass.tests.libs.TestPrimitiveScalarSets;
+import eu.hydrologis.jgrass.tests.libs.TestRasterPolygonizer;
+import eu.hydrologis.jgrass.tests.libs.TestRingSmartBuffer;
+import eu.hydrologis.jgrass.tests.libs.TestSharedRasterData;
+import eu.hydrologis.jgrass.tests.libs.TestSparseElementMapper;
+import eu.hydrologis.jgrass.tests.libs.TestStateSnapshot;
+import eu.hydrologis.jgrass.tests.libs.TestSystemDeployer;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
@@ -15,7 +28,20 @@ public class JGrassTestSuite extends TestCase {
         suite.addTestSuite(TestJiffle.class);
         suite.addTestSuite(TestOldJGrassRasterReader.class);
         suite.addTestSuite(TestJGrassCoverageReader.class);
+        suite.addTestSuite(TestMappedRasterReading.class);
+        suite.addTestSuite(TestParallelRasterReading.class);
+        suite.addTestSuite(TestCompressedRasterWriting.class);
+        suite.addTestSuite(TestFlatRasterData.class);
+        suite.addTestSuite(TestMappedScratchStore.class);
+        suite.addTestSuite(TestPrimitiveScalarSets.class);
+        suite.addTestSuite(TestSparseElementMapper.class);
+        suite.addTestSuite(TestSystemDeployer.class);
+        suite.addTestSuite(TestRingSmartBuffer.class);
+        suite.addTestSuite(TestStateSnapshot.class);
+        suite.addTestSuite(TestSharedRasterData.class);
         suite.addTestSuite(TestJiffle.class);
+        suite.addTestSuite(TestPolygonRasterizer.class);
+        suite.addTestSuite(TestRasterPolygonizer.class);
         return suite;
     }
 }
@@ -0,0 +1,118 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.referencing.datum.PixelInCell;
+
+import eu.hydrologis.jgrass.libs.iodrivers.JGrassMapEnvironment;
+import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageReader;
+import eu.hydrologis.jgrass.libs.iodrivers.imageio.io.core.GrassBinaryRasterWriteHandler;
+import eu.hydrologis.jgrass.libs.iodrivers.imageio.io.core.RasterRowSource;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the compressed raster writing with one and more threads, both from a
+ * stream of rows and from an image.
+ *
+ * <p>
+ * The written files have to be the same whatever the number of threads.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestCompressedRasterWriting extends JGrassTestCase {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    public void testRowStreamWriting() throws IOException {
+        final double[][] mapData = GrassMapTest.mapData;
+        JGrassRegion fileRegion = GrassMapTest.fileRegion;
+        RasterRowSource rowSource = new RasterRowSource(){
+            public void readRow( int row, double[] values ) {
+                System.arraycopy(mapData[row], 0, values, 0, values.length);
+            }
+        };
+
+        File sequentialMap = write(rowSource, fileRegion, "test_write_1", 1);
+        GridCoverage2D coverage = read(sequentialMap);
+        checkMatrixEqual(coverage.getRenderedImage(), mapData, 0.0);
+
+        for( int threads : THREADS ) {
+            File map = write(rowSource, fileRegion, "test_write_" + threads, threads);
+            checkFilesEqual(sequentialMap, map);
+        }
+    }
+
+    public void testImageWriting() throws IOException {
+        File cellFolder = GrassMapTest.mapFile.getParentFile();
+        File mapFile = new File(cellFolder, "elevation.dem");
+        GridCoverage2D coverage = read(mapFile);
+        JGrassRegion region = new JGrassMapEnvironment(mapFile).getFileRegion();
+
+        File sequentialMap = null;
+        for( int threads : THREADS ) {
+            File map = write(coverage, region, "test_write_dem_" + threads, threads);
+            if (sequentialMap == null) {
+                sequentialMap = map;
+            } else {
+                checkFilesEqual(sequentialMap, map);
+            }
+        }
+    }
+
+    private File write( Object source, JGrassRegion region, String name, int threads )
+            throws IOException {
+        File mapset = GrassMapTest.jME.getMAPSET();
+        GrassBinaryRasterWriteHandler writeHandler = new GrassBinaryRasterWriteHandler(mapset,
+                name, null);
+        writeHandler.setWriteRegion(region);
+        writeHandler.setWritingThreads(threads);
+        if (source instanceof RasterRowSource) {
+            writeHandler.writeRaster((RasterRowSource) source, region.getCols(), region.getRows(),
+                    region.getWest(), region.getSouth(), region.getWEResolution(), region
+                            .getNSResolution(), Double.NaN);
+        } else {
+            writeHandler.writeRaster(((GridCoverage2D) source).getRenderedImage(), region
+                    .getCols(), region.getRows(), region.getWest(), region.getSouth(), region
+                    .getWEResolution(), region.getNSResolution(), Double.NaN);
+        }
+        writeHandler.close();
+        return new JGrassMapEnvironment(mapset, name).getCELL();
+    }
+
+    private GridCoverage2D read( File mapFile ) throws IOException {
+        GrassCoverageReader coverageReader = new GrassCoverageReader(PixelInCell.CELL_CENTER,
+                null, true, false, null);
+        coverageReader.setInput(mapFile);
+        return coverageReader.read(null);
+    }
+
+    private void checkFilesEqual( File expectedMap, File map ) throws IOException {
+        JGrassMapEnvironment expectedEnv = new JGrassMapEnvironment(expectedMap);
+        JGrassMapEnvironment env = new JGrassMapEnvironment(map);
+        assertTrue(Arrays.equals(readBytes(expectedEnv.getFCELL()), readBytes(env.getFCELL())));
+        assertTrue(Arrays.equals(readBytes(expectedEnv.getCELLMISC_NULL()), readBytes(env
+                .getCELLMISC_NULL())));
+    }
+
+    private byte[] readBytes( File file ) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read = 0;
+            while( read < bytes.length ) {
+                read += in.read(bytes, read, bytes.length - read);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+}
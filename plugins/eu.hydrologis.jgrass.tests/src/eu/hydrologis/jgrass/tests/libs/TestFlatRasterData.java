@@ -0,0 +1,123 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
+import eu.hydrologis.jgrass.libs.map.FlatRasterData;
+import eu.hydrologis.jgrass.libs.map.FloatRasterData;
+import eu.hydrologis.jgrass.libs.map.IntRasterData;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterData;
+import eu.hydrologis.jgrass.libs.map.RasterData;
+import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the {@link RasterData} implementations on flat buffers against the matrix based one.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestFlatRasterData extends JGrassTestCase {
+
+    public void testDoubleRasterData() throws IOException {
+        double[][] mapData = GrassMapTest.mapData;
+        int rows = mapData.length;
+        int cols = mapData[0].length;
+
+        checkRasterData(new DoubleRasterData(rows, cols), mapData, 0.0);
+        checkRasterData(new DoubleRasterData(rows, cols, null), mapData, 0.0);
+
+        File file = File.createTempFile("jgrass_flat", ".raw");
+        file.deleteOnExit();
+        checkRasterData(new DoubleRasterData(rows, cols, file), mapData, 0.0);
+        assertEquals((long) rows * cols * 8, file.length());
+
+        // a raster split in buffers of two rows
+        DoubleBuffer[] buffers = new DoubleBuffer[(rows + 1) / 2];
+        for( int i = 0; i < buffers.length; i++ ) {
+            int bufferRows = Math.min(2, rows - 2 * i);
+            buffers[i] = DoubleBuffer.allocate(bufferRows * cols);
+        }
+        DoubleRasterData splitData = new DoubleRasterData(buffers, rows, cols);
+        assertEquals(buffers.length, splitData.getBufferCount());
+        checkRasterData(splitData, mapData, 0.0);
+    }
+
+    public void testFloatRasterData() throws IOException {
+        double[][] mapData = GrassMapTest.mapData;
+        int rows = mapData.length;
+        int cols = mapData[0].length;
+
+        checkRasterData(new FloatRasterData(rows, cols), mapData, 1E-4);
+        checkRasterData(new FloatRasterData(rows, cols, null), mapData, 1E-4);
+    }
+
+    public void testIntRasterData() throws IOException {
+        double[][] flowData = GrassMapTest.flowData;
+        int rows = flowData.length;
+        int cols = flowData[0].length;
+
+        checkRasterData(new IntRasterData(rows, cols), flowData, 0.0);
+        checkRasterData(new IntRasterData(rows, cols, null), flowData, 0.0);
+
+        IntRasterData constant = IntRasterData.create(rows, cols, 3);
+        int[] row = new int[cols];
+        constant.getRow(rows - 1, row);
+        for( int col = 0; col < cols; col++ ) {
+            assertEquals(3, row[col]);
+        }
+    }
+
+    private void checkRasterData( FlatRasterData rasterData, double[][] matrix, double delta ) {
+        int rows = matrix.length;
+        int cols = matrix[0].length;
+        assertEquals(rows, rasterData.getRows());
+        assertEquals(cols, rasterData.getCols());
+
+        // set by rows and read by cell and index
+        for( int row = 0; row < rows; row++ ) {
+            rasterData.setRow(row, matrix[row]);
+        }
+        RasterData expected = new JGrassRasterData(matrix);
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                checkValue(expected.getValueAt(row, col), rasterData.getValueAt(row, col), delta);
+                checkValue(expected.getValueAt(row * cols + col), rasterData.getValueAt(row
+                        * cols + col), delta);
+            }
+        }
+
+        // set by index and read by rows
+        for( int index = 0; index < rows * cols; index++ ) {
+            rasterData.setValueAt(index, 0.0);
+        }
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                rasterData.setValueAt(row * cols + col, matrix[row][col]);
+            }
+        }
+        double[] rowValues = new double[cols];
+        for( int row = 0; row < rows; row++ ) {
+            rasterData.getRow(row, rowValues);
+            for( int col = 0; col < cols; col++ ) {
+                checkValue(matrix[row][col], rowValues[col], delta);
+            }
+        }
+        double[][] data = rasterData.getData();
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                checkValue(matrix[row][col], data[row][col], delta);
+            }
+        }
+    }
+
+    private void checkValue( double expected, double value, double delta ) {
+        if (Double.isNaN(expected)) {
+            assertTrue(Double.isNaN(value));
+        } else {
+            assertEquals(expected, value, delta);
+        }
+    }
+
+}
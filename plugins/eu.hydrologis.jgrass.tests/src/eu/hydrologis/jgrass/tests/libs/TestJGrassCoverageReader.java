@@ -80,6 +80,19 @@ public class TestJGrassCoverageReader extends JGrassTestCase {
 
         checkMatrixEqual(renderedImage, testMapRegion1);
 
+        // read the same regions in tiles that don't fit the map
+        coverageReader = new GrassCoverageReader(PixelInCell.CELL_CENTER, null, true, false, null);
+        params = new GrassCoverageReadParam(fileRegion, 3, 3);
+        coverageReader.setInput(jME.getCELL());
+        mapCoverage = coverageReader.read(params);
+        checkMatrixEqual(mapCoverage.getRenderedImage(), testMapFileRegion);
+
+        coverageReader = new GrassCoverageReader(PixelInCell.CELL_CENTER, null, true, false, null);
+        params = new GrassCoverageReadParam(testRegion1, 3, 3);
+        coverageReader.setInput(jME.getCELL());
+        mapCoverage = coverageReader.read(params);
+        checkMatrixEqual(mapCoverage.getRenderedImage(), testMapRegion1);
+
     }
 
 }
@@ -0,0 +1,103 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.media.jai.iterator.RectIter;
+import javax.media.jai.iterator.RectIterFactory;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.referencing.datum.PixelInCell;
+
+import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageReader;
+import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the memory mapped reading against the seeking reading for compressed
+ * integer, float and double maps.
+ *
+ * <p>
+ * The benchmark, run only if the <code>jgrass.benchmark</code> system
+ * property is true, reads every map {@link #LOOPS} times in both reading
+ * modes and prints the time used, to have a rough comparison.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestMappedRasterReading extends JGrassTestCase {
+
+    private static final int LOOPS = 20;
+
+    // CELL, FCELL and DCELL maps
+    private static final String[] MAPS = {"elevation.dem", "geology", "aspect", "testa"};
+
+    public void testMappedRasterReading() throws IOException {
+        File cellFolder = GrassMapTest.mapFile.getParentFile();
+        for( String map : MAPS ) {
+            File mapFile = new File(cellFolder, map);
+
+            GridCoverage2D seekCoverage = read(mapFile, false);
+            GridCoverage2D mappedCoverage = read(mapFile, true);
+            checkImagesEqual(seekCoverage.getRenderedImage(), mappedCoverage.getRenderedImage());
+        }
+    }
+
+    public void testMappedRasterReadingBenchmark() throws IOException {
+        if (!isBenchmarkEnabled()) {
+            return;
+        }
+        File cellFolder = GrassMapTest.mapFile.getParentFile();
+        for( String map : MAPS ) {
+            File mapFile = new File(cellFolder, map);
+
+            GridCoverage2D seekCoverage = null;
+            long t0 = System.currentTimeMillis();
+            for( int i = 0; i < LOOPS; i++ ) {
+                seekCoverage = read(mapFile, false);
+            }
+            long t1 = System.currentTimeMillis();
+            GridCoverage2D mappedCoverage = null;
+            for( int i = 0; i < LOOPS; i++ ) {
+                mappedCoverage = read(mapFile, true);
+            }
+            long t2 = System.currentTimeMillis();
+            System.out.println(map + ": seek reading " + (t1 - t0) + " ms, mapped reading "
+                    + (t2 - t1) + " ms");
+
+            checkImagesEqual(seekCoverage.getRenderedImage(), mappedCoverage.getRenderedImage());
+        }
+    }
+
+    private GridCoverage2D read( File mapFile, boolean mapped ) throws IOException {
+        GrassCoverageReader coverageReader = new GrassCoverageReader(PixelInCell.CELL_CENTER,
+                null, true, false, null);
+        coverageReader.setUseMemoryMappedReading(mapped);
+        coverageReader.setInput(mapFile);
+        return coverageReader.read(null);
+    }
+
+    private void checkImagesEqual( RenderedImage expected, RenderedImage image ) {
+        assertEquals(expected.getWidth(), image.getWidth());
+        assertEquals(expected.getHeight(), image.getHeight());
+        RectIter expectedIter = RectIterFactory.create(expected, null);
+        RectIter iter = RectIterFactory.create(image, null);
+        do {
+            do {
+                double expectedValue = expectedIter.getSampleDouble();
+                double value = iter.getSampleDouble();
+                if (Double.isNaN(expectedValue)) {
+                    assertTrue(Double.isNaN(value));
+                } else {
+                    assertEquals(expectedValue, value);
+                }
+                expectedIter.nextPixelDone();
+            } while( !iter.nextPixelDone() );
+            expectedIter.startPixels();
+            iter.startPixels();
+            expectedIter.nextLineDone();
+        } while( !iter.nextLineDone() );
+    }
+
+}
@@ -0,0 +1,107 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import eu.hydrologis.jgrass.libs.object.GDataObject;
+import eu.hydrologis.jgrass.libs.object.MappedScratchStore;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the {@link MappedScratchStore} and the file backed {@link GDataObject.GridData}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestMappedScratchStore extends JGrassTestCase {
+
+    public void testSegmentedStore() throws IOException {
+        // small segments to have many of them, with values spanning two segments
+        int segmentSize = 64;
+        long size = 100 * segmentSize + 12;
+        MappedScratchStore store = new MappedScratchStore(size, segmentSize, 3);
+        File file = store.getFile();
+        assertTrue(file.exists());
+        assertEquals(size, file.length());
+
+        for( long position = 0; position + 8 <= size; position += 12 ) {
+            store.putDouble(position, position * 0.5);
+            store.putInt(position + 8, (int) position);
+            assertTrue(store.getResidentSegmentCount() <= 3);
+        }
+        for( long position = 0; position + 8 <= size; position += 12 ) {
+            assertEquals(position * 0.5, store.getDouble(position), 0.0);
+            if (position + 12 <= size) {
+                assertEquals((int) position, store.getInt(position + 8));
+            }
+        }
+
+        byte[] bytes = new byte[3 * segmentSize];
+        for( int i = 0; i < bytes.length; i++ ) {
+            bytes[i] = (byte) i;
+        }
+        store.put(segmentSize - 5, bytes, 0, bytes.length);
+        byte[] read = new byte[bytes.length];
+        store.get(segmentSize - 5, read, 0, read.length);
+        for( int i = 0; i < bytes.length; i++ ) {
+            assertEquals(bytes[i], read[i]);
+        }
+        store.putFloat(size - 4, 1.5f);
+        assertEquals(1.5f, store.getFloat(size - 4), 0.0);
+
+        try {
+            store.getDouble(size - 4);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+
+        store.close();
+        assertFalse(file.exists());
+        assertEquals(0, store.getResidentSegmentCount());
+    }
+
+    public void testScratchDirectory() throws IOException {
+        File directory = new File(System.getProperty("java.io.tmpdir"), "jgrass_scratch_test");
+        directory.mkdirs();
+        MappedScratchStore.setScratchDirectory(directory);
+        try {
+            MappedScratchStore store = new MappedScratchStore(1024);
+            assertEquals(directory.getAbsoluteFile(), store.getFile().getParentFile()
+                    .getAbsoluteFile());
+            store.close();
+        } finally {
+            MappedScratchStore.setScratchDirectory(null);
+            directory.delete();
+        }
+    }
+
+    public void testFileBackedGridData() throws IOException {
+        GDataObject.GridData gridData = new GDataObject.GridData(800,
+                GDataObject.USE_BACKING_FILE);
+        MappedScratchStore store = gridData.getScratchStore();
+        assertNotNull(store);
+        File file = store.getFile();
+        assertTrue(file.exists());
+
+        ByteBuffer buffer = gridData.getReadBuffer();
+        assertEquals(800, buffer.capacity());
+        for( int i = 0; i < 100; i++ ) {
+            buffer.putDouble(i);
+        }
+        for( int i = 0; i < 100; i++ ) {
+            assertEquals(i, store.getDouble(i * 8), 0.0);
+        }
+
+        gridData.close();
+        assertFalse(file.exists());
+        assertNull(gridData.getReadBuffer());
+        // the buffer handed out is not unmapped by the close
+        assertEquals(99.0, buffer.getDouble(99 * 8), 0.0);
+
+        GDataObject.GridData memoryData = new GDataObject.GridData(800);
+        assertNull(memoryData.getScratchStore());
+        assertEquals(800, memoryData.getReadBuffer().capacity());
+    }
+
+}
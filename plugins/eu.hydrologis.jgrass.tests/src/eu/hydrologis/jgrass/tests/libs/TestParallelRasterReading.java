@@ -0,0 +1,148 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.GRASSBINARYRASTERMAP;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.media.jai.iterator.RectIter;
+import javax.media.jai.iterator.RectIterFactory;
+
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.opengis.referencing.datum.PixelInCell;
+
+import eu.hydrologis.jgrass.libs.iodrivers.JGrassMapEnvironment;
+import eu.hydrologis.jgrass.libs.iodrivers.geotools.GrassCoverageReader;
+import eu.hydrologis.jgrass.libs.map.JGrassRasterMapReader;
+import eu.hydrologis.jgrass.libs.map.RasterData;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the parallel row decoding against the sequential one, both for the
+ * coverage reader and the old raster reader, with 1, 2, 4 and 8 threads.
+ *
+ * <p>
+ * The benchmark, run only if the <code>jgrass.benchmark</code> system
+ * property is true, reads every map {@link #LOOPS} times with every number
+ * of threads and prints the time used, to have a rough comparison of the
+ * throughput.
+ * </p>
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestParallelRasterReading extends JGrassTestCase {
+
+    private static final int LOOPS = 20;
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    // CELL, FCELL and DCELL maps
+    private static final String[] MAPS = {"elevation.dem", "geology", "aspect", "testa"};
+
+    public void testParallelCoverageReading() throws IOException {
+        File cellFolder = GrassMapTest.mapFile.getParentFile();
+        for( String map : MAPS ) {
+            File mapFile = new File(cellFolder, map);
+            GridCoverage2D sequentialCoverage = read(mapFile, 1);
+
+            for( int threads : THREADS ) {
+                GridCoverage2D coverage = read(mapFile, threads);
+                checkImagesEqual(sequentialCoverage.getRenderedImage(), coverage
+                        .getRenderedImage());
+            }
+        }
+    }
+
+    public void testParallelCoverageReadingBenchmark() throws IOException {
+        if (!isBenchmarkEnabled()) {
+            return;
+        }
+        File cellFolder = GrassMapTest.mapFile.getParentFile();
+        for( String map : MAPS ) {
+            File mapFile = new File(cellFolder, map);
+            GridCoverage2D sequentialCoverage = read(mapFile, 1);
+
+            for( int threads : THREADS ) {
+                GridCoverage2D coverage = null;
+                long t0 = System.currentTimeMillis();
+                for( int i = 0; i < LOOPS; i++ ) {
+                    coverage = read(mapFile, threads);
+                }
+                long t1 = System.currentTimeMillis();
+                System.out.println(map + ": " + threads + " threads, " + (t1 - t0) + " ms");
+
+                checkImagesEqual(sequentialCoverage.getRenderedImage(), coverage
+                        .getRenderedImage());
+            }
+        }
+    }
+
+    public void testParallelOldReader() throws IOException {
+        File mapFile = GrassMapTest.mapFile;
+        JGrassMapEnvironment jME = GrassMapTest.jME;
+
+        // a region larger than the file, to have null rows and columns
+        JGrassRegion testRegion = new JGrassRegion(1640620.0, 1640980.0, 5139750.0, 5140050.0,
+                30.0, 30.0);
+        JGrassRegion[] regions = {GrassMapTest.fileRegion, testRegion};
+        for( JGrassRegion region : regions ) {
+            JGrassRasterMapReader sequentialReader = new JGrassRasterMapReader.BuilderFromMapPath(
+                    region, mapFile.getAbsolutePath()).maptype(GRASSBINARYRASTERMAP).build();
+            assertTrue(sequentialReader.open());
+            assertTrue(sequentialReader.hasMoreData());
+            RasterData expected = sequentialReader.getNextData();
+            double[] expectedRange = sequentialReader.getRange();
+            sequentialReader.close();
+
+            for( int threads : THREADS ) {
+                JGrassRasterMapReader reader = new JGrassRasterMapReader.BuilderFromPathAndNames(
+                        region, mapFile.getName(), jME.getMAPSET().getName(), jME.getLOCATION()
+                                .getAbsolutePath()).maptype(GRASSBINARYRASTERMAP).readingThreads(
+                        threads).build();
+                assertTrue(reader.open());
+                assertTrue(reader.hasMoreData());
+                RasterData data = reader.getNextData();
+                double[] range = reader.getRange();
+                reader.close();
+
+                checkMatrixEqual(data, expected.getData());
+                assertEquals(expectedRange[0], range[0]);
+                assertEquals(expectedRange[1], range[1]);
+            }
+        }
+    }
+
+    private GridCoverage2D read( File mapFile, int threads ) throws IOException {
+        GrassCoverageReader coverageReader = new GrassCoverageReader(PixelInCell.CELL_CENTER,
+                null, true, false, null);
+        coverageReader.setReadingThreads(threads);
+        coverageReader.setInput(mapFile);
+        return coverageReader.read(null);
+    }
+
+    private void checkImagesEqual( RenderedImage expected, RenderedImage image ) {
+        assertEquals(expected.getWidth(), image.getWidth());
+        assertEquals(expected.getHeight(), image.getHeight());
+        RectIter expectedIter = RectIterFactory.create(expected, null);
+        RectIter iter = RectIterFactory.create(image, null);
+        do {
+            do {
+                double expectedValue = expectedIter.getSampleDouble();
+                double value = iter.getSampleDouble();
+                if (Double.isNaN(expectedValue)) {
+                    assertTrue(Double.isNaN(value));
+                } else {
+                    assertEquals(expectedValue, value);
+                }
+                expectedIter.nextPixelDone();
+            } while( !iter.nextPixelDone() );
+            expectedIter.startPixels();
+            iter.startPixels();
+            expectedIter.nextLineDone();
+        } while( !iter.nextLineDone() );
+    }
+
+}
@@ -0,0 +1,111 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.io.WKTReader;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer;
+
+/**
+ * Test the {@link PolygonRasterizer}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+@SuppressWarnings("nls")
+public class TestPolygonRasterizer extends TestCase {
+
+    private JGrassRegion region = new JGrassRegion(0.0, 10.0, 0.0, 10.0, 10, 10);
+
+    public void testHole() throws Exception {
+        WKTReader reader = new WKTReader();
+        PolygonRasterizer rasterizer = new PolygonRasterizer(region);
+        rasterizer.addPolygon(reader
+                .read("POLYGON ((1 1, 9 1, 9 9, 1 9, 1 1), (3 3, 7 3, 7 7, 3 7, 3 3))"), 3.0);
+        double[] values = new double[100];
+        Arrays.fill(values, Double.NaN);
+        rasterizer.rasterize(values, null, new NullProgressMonitor());
+
+        for( int row = 0; row < 10; row++ ) {
+            for( int col = 0; col < 10; col++ ) {
+                boolean inside = row >= 1 && row <= 8 && col >= 1 && col <= 8;
+                boolean inHole = row >= 3 && row <= 6 && col >= 3 && col <= 6;
+                if (inside && !inHole) {
+                    assertEquals(3.0, values[row * 10 + col], 0.0);
+                } else {
+                    assertTrue(Double.isNaN(values[row * 10 + col]));
+                }
+            }
+        }
+    }
+
+    public void testManyFeatures() throws Exception {
+        WKTReader reader = new WKTReader();
+        PolygonRasterizer rasterizer = new PolygonRasterizer(region);
+        int first = rasterizer.addPolygon(reader
+                .read("MULTIPOLYGON (((0 0, 4 0, 4 4, 0 4, 0 0)), ((6 6, 10 6, 10 10, 6 10, 6 6)))"),
+                5.0);
+        int second = rasterizer.addPolygon(reader.read("POLYGON ((2 2, 8 2, 8 8, 2 8, 2 2))"), 7.0);
+        assertEquals(1, first);
+        assertEquals(2, second);
+        assertEquals(2, rasterizer.getFeaturesNum());
+
+        double[] values = new double[100];
+        int[] ids = new int[100];
+        rasterizer.rasterize(values, ids, new NullProgressMonitor());
+
+        // the rows start from the north
+        assertEquals(5.0, values[9 * 10 + 0], 0.0);
+        assertEquals(1, ids[9 * 10 + 0]);
+        assertEquals(5.0, values[0 * 10 + 9], 0.0);
+        assertEquals(1, ids[0 * 10 + 9]);
+        // the overlapping parts go to the last polygon
+        assertEquals(7.0, values[6 * 10 + 3], 0.0);
+        assertEquals(2, ids[6 * 10 + 3]);
+        assertEquals(7.0, values[3 * 10 + 6], 0.0);
+        assertEquals(2, ids[3 * 10 + 6]);
+        assertEquals(2, ids[5 * 10 + 5]);
+        // outside of all
+        assertEquals(0, ids[0 * 10 + 0]);
+        assertEquals(0, ids[9 * 10 + 9]);
+    }
+
+    public void testAgainstContains() throws Exception {
+        // a star crossing the borders of the region
+        JGrassRegion bigRegion = new JGrassRegion(0.0, 100.0, 0.0, 80.0, 80, 100);
+        Random random = new Random(3);
+        GeometryFactory factory = new GeometryFactory();
+        int num = 40;
+        Coordinate[] coordinates = new Coordinate[num + 1];
+        for( int i = 0; i < num; i++ ) {
+            double angle = 2.0 * Math.PI * i / num;
+            double radius = 10.0 + 50.0 * random.nextDouble();
+            coordinates[i] = new Coordinate(40.0 + radius * Math.cos(angle), 45.0 + radius
+                    * Math.sin(angle));
+        }
+        coordinates[num] = coordinates[0];
+        Polygon star = factory.createPolygon(factory.createLinearRing(coordinates), null);
+
+        PolygonRasterizer rasterizer = new PolygonRasterizer(bigRegion);
+        rasterizer.addPolygon(star, 1.0);
+        int[] ids = new int[80 * 100];
+        rasterizer.rasterize(null, ids, new NullProgressMonitor());
+
+        for( int row = 0; row < 80; row++ ) {
+            for( int col = 0; col < 100; col++ ) {
+                Coordinate center = new Coordinate(col + 0.5, 80.0 - row - 0.5);
+                boolean inside = star.contains(factory.createPoint(center));
+                assertEquals(inside ? 1 : 0, ids[row * 100 + col]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+
+import org.openmi.standard.IScalarSet;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.openmi.DoubleScalarSet;
+import eu.hydrologis.openmi.FloatScalarSet;
+import eu.hydrologis.openmi.IntegerScalarSet;
+
+/**
+ * Test the scalar sets backed by primitive arrays.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestPrimitiveScalarSets extends JGrassTestCase {
+
+    public void testDoubleScalarSet() {
+        DoubleScalarSet set = new DoubleScalarSet(2);
+        for( int i = 0; i < 100; i++ ) {
+            set.addScalar(i * 0.5);
+        }
+        assertEquals(100, set.getCount());
+        assertEquals(100, set.size());
+        assertTrue(set.isValid(99));
+        assertFalse(set.isValid(100));
+        assertEquals(49.5, set.getScalar(99), 0.0);
+
+        // the list methods used by the models reading a ScalarSet
+        ScalarSet scalarSet = set;
+        assertEquals(2, scalarSet.get(4).intValue());
+        scalarSet.add(0, 200.0);
+        assertEquals(101, scalarSet.size());
+        assertEquals(200.0, scalarSet.getScalar(0), 0.0);
+        assertEquals(0.0, scalarSet.getScalar(1), 0.0);
+        assertEquals(200.0, scalarSet.remove(0), 0.0);
+        int index = 0;
+        for( Iterator<Double> iterator = scalarSet.iterator(); iterator.hasNext(); ) {
+            assertEquals(index * 0.5, iterator.next(), 0.0);
+            index++;
+        }
+        assertEquals(100, index);
+        assertEquals(new ScalarSet(set.getDoubles()), set);
+        assertEquals(set, new DoubleScalarSet((IScalarSet) new ScalarSet(set.getDoubles())));
+        assertEquals(set.hashCode(), new ScalarSet(set.getDoubles()).hashCode());
+
+        // bulk accessors
+        double[] values = set.getDoubles();
+        assertEquals(100, values.length);
+        double[] range = new double[3];
+        set.getDoubles(10, range, 0, 3);
+        assertEquals(5.0, range[0], 0.0);
+        assertEquals(6.0, range[2], 0.0);
+        set.setDoubles(new double[]{1.0, 2.0});
+        assertEquals(2, set.getCount());
+        set.addDoubles(3.0, 4.0);
+        assertEquals(4.0, set.getScalar(3), 0.0);
+        assertTrue(DoubleScalarSet.toDoubles(new ScalarSet(new double[]{1.0, 2.0}))[1] == 2.0);
+
+        DoubleScalarSet clone = (DoubleScalarSet) set.clone();
+        clone.setScalar(0, -1.0);
+        assertEquals(1.0, set.getScalar(0), 0.0);
+
+        try {
+            set.getScalar(4);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        set.clear();
+        assertTrue(set.isEmpty());
+    }
+
+    public void testDoubleScalarSetBulkOperations() {
+        DoubleScalarSet set = new DoubleScalarSet(4.0, 1.0, 3.0, 2.0, 5.0);
+
+        final double[] sum = new double[1];
+        set.forEach(new Consumer<Double>(){
+            public void accept( Double value ) {
+                sum[0] += value;
+            }
+        });
+        assertEquals(15.0, sum[0], 0.0);
+        assertEquals(5, set.stream().count());
+        assertEquals(4.0, set.stream().iterator().next(), 0.0);
+
+        set.sort(null);
+        assertTrue(Arrays.equals(new double[]{1.0, 2.0, 3.0, 4.0, 5.0}, set.getDoubles()));
+        set.sort(Collections.<Double> reverseOrder());
+        assertTrue(Arrays.equals(new double[]{5.0, 4.0, 3.0, 2.0, 1.0}, set.getDoubles()));
+
+        set.replaceAll(new UnaryOperator<Double>(){
+            public Double apply( Double value ) {
+                return value * 10.0;
+            }
+        });
+        assertTrue(set.removeIf(new Predicate<Double>(){
+            public boolean test( Double value ) {
+                return value > 35.0;
+            }
+        }));
+        assertEquals(3, set.getCount());
+        assertTrue(Arrays.equals(new double[]{30.0, 20.0, 10.0}, set.getDoubles()));
+        assertEquals(3, set.spliterator().estimateSize());
+    }
+
+    public void testFloatAndIntegerScalarSets() {
+        FloatScalarSet floatSet = new FloatScalarSet(1.5f, 2.5f);
+        floatSet.addFloat(3.5f);
+        floatSet.add(0, 0.5f);
+        assertEquals(4, floatSet.getCount());
+        assertEquals(0.5, floatSet.getScalar(0), 0.0);
+        assertEquals(3.5f, floatSet.getFloats()[3], 0.0f);
+
+        IntegerScalarSet intSet = new IntegerScalarSet();
+        for( int i = 0; i < 50; i++ ) {
+            intSet.addInt(i);
+        }
+        intSet.remove(0);
+        assertEquals(49, intSet.getCount());
+        assertEquals(49.0, intSet.getScalar(48), 0.0);
+        assertEquals(1, intSet.getInts()[0]);
+        assertEquals(Integer.valueOf(5), intSet.get(4));
+    }
+
+}
@@ -0,0 +1,118 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.libs.utils.raster.RasterPolygonizer;
+import eu.hydrologis.jgrass.libs.utils.raster.RasterPolygonizer.PolygonCollector;
+
+/**
+ * Test the {@link RasterPolygonizer}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestRasterPolygonizer extends TestCase {
+
+    /*
+     * the polygons and their values by id, every id given once
+     */
+    private Polygon[] polygons = new Polygon[2000];
+
+    private double[] values = new double[2000];
+
+    private int polygonsNum = 0;
+
+    private PolygonCollector collector = new PolygonCollector(){
+        public void collect( int id, Polygon polygon, double value ) {
+            assertNull(polygons[id]);
+            polygons[id] = polygon;
+            values[id] = value;
+            polygonsNum++;
+        }
+    };
+
+    public void testHoles() throws Exception {
+        double n = Double.NaN;
+        double[] raster = {//
+        1, 1, 1, 1, 1, 1, //
+                1, 2, 2, 1, 1, 1, //
+                1, 2, 2, 1, n, 1, //
+                1, 1, 1, 1, 1, 1};
+        RasterPolygonizer polygonizer = new RasterPolygonizer(new JGrassRegion(0.0, 6.0, 0.0, 4.0,
+                4, 6));
+        assertEquals(2, polygonizer.polygonize(raster, collector, new DummyProgressMonitor()));
+
+        // the outer region has the other and the novalue as holes
+        Polygon outer = polygons[1];
+        assertEquals(1.0, values[1], 0.0);
+        assertEquals(2, outer.getNumInteriorRing());
+        assertEquals(5, outer.getExteriorRing().getCoordinates().length);
+        assertEquals(19.0, outer.getArea(), 0.0);
+
+        Polygon inner = polygons[2];
+        assertEquals(2.0, values[2], 0.0);
+        assertEquals(0, inner.getNumInteriorRing());
+        assertEquals(5, inner.getExteriorRing().getCoordinates().length);
+        assertEquals(4.0, inner.getArea(), 0.0);
+    }
+
+    public void testRandomRaster() throws Exception {
+        int rows = 30;
+        int cols = 40;
+        JGrassRegion region = new JGrassRegion(100.0, 180.0, 200.0, 260.0, rows, cols);
+        Random random = new Random(7);
+        double[] raster = new double[rows * cols];
+        for( int i = 0; i < raster.length; i++ ) {
+            int value = random.nextInt(4);
+            raster[i] = value == 0 ? Double.NaN : value;
+        }
+        RasterPolygonizer polygonizer = new RasterPolygonizer(region);
+        assertEquals(polygonizer.polygonize(raster, collector, new DummyProgressMonitor()),
+                polygonsNum);
+
+        // every cell center is in the polygon with its value, and the novalues in none
+        GeometryFactory factory = new GeometryFactory();
+        int[] cellPolygons = new int[rows * cols];
+        double[] areas = new double[polygonsNum + 1];
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                Coordinate center = new Coordinate(100.0 + 2.0 * col + 1.0, 260.0 - 2.0 * row - 1.0);
+                int index = row * cols + col;
+                for( int p = 1; p <= polygonsNum; p++ ) {
+                    if (polygons[p].contains(factory.createPoint(center))) {
+                        assertEquals(0, cellPolygons[index]);
+                        cellPolygons[index] = p;
+                        assertEquals(raster[index], values[p], 0.0);
+                        areas[p] = areas[p] + 4.0;
+                    }
+                }
+                assertEquals(Double.isNaN(raster[index]), cellPolygons[index] == 0);
+            }
+        }
+        for( int p = 1; p <= polygonsNum; p++ ) {
+            assertTrue(polygons[p].isValid());
+            assertEquals(areas[p], polygons[p].getArea(), 1E-9);
+        }
+
+        // cells with the same value next to each other are in the same polygon
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                int index = row * cols + col;
+                if (col + 1 < cols && raster[index] == raster[index + 1]) {
+                    assertEquals(cellPolygons[index], cellPolygons[index + 1]);
+                }
+                if (row + 1 < rows && raster[index] == raster[index + cols]) {
+                    assertEquals(cellPolygons[index], cellPolygons[index + cols]);
+                }
+            }
+        }
+    }
+
+}
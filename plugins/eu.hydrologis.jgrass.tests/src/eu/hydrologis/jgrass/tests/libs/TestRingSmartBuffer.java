@@ -0,0 +1,285 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.TimeSpan;
+import nl.alterra.openmi.sdk.backbone.TimeStamp;
+import nl.alterra.openmi.sdk.backbone.Vector;
+import nl.alterra.openmi.sdk.backbone.VectorSet;
+import nl.alterra.openmi.sdk.buffer.RingSmartBuffer;
+import nl.alterra.openmi.sdk.buffer.SmartBuffer;
+
+import org.openmi.standard.IScalarSet;
+import org.openmi.standard.ITime;
+import org.openmi.standard.IValueSet;
+import org.openmi.standard.IVector;
+import org.openmi.standard.IVectorSet;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the {@link RingSmartBuffer} against the {@link SmartBuffer}.
+ * <p>
+ * The long run test simulates an hourly run of some linked components, each one buffering the
+ * output of the previous one for a month. The number of simulated months can be set through the
+ * <code>jgrass.longrun.months</code> system property (default 2).
+ * </p>
+ * <p>
+ * The benchmark, run only if the <code>jgrass.benchmark</code> system property is true, does the
+ * same simulation for <code>jgrass.benchmark.years</code> years (default 10) and prints the time
+ * used, the heap used and the times kept by the buffers. The {@link SmartBuffer}, too slow for the
+ * whole period, is timed on a shorter one of <code>jgrass.benchmark.referenceYears</code> years
+ * (default 1).
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class TestRingSmartBuffer extends JGrassTestCase {
+
+    private static final double HOUR = 1.0 / 24.0;
+
+    public void testSameResultsAsSmartBuffer() throws Exception {
+        for( boolean spans : new boolean[]{false, true} ) {
+            for( boolean vectors : new boolean[]{false, true} ) {
+                for( double relaxation : new double[]{1.0, 0.5, 0.0} ) {
+                    SmartBuffer smartBuffer = new SmartBuffer();
+                    RingSmartBuffer ringBuffer = new RingSmartBuffer();
+                    smartBuffer.setRelaxationFactor(relaxation);
+                    ringBuffer.setRelaxationFactor(relaxation);
+
+                    // irregular time steps
+                    double t = 100.0;
+                    for( int n = 0; n < 40; n++ ) {
+                        double next = t + 0.1 + (n % 3) * 0.05;
+                        ITime time = spans ? new TimeSpan(new TimeStamp(t), new TimeStamp(next))
+                                : new TimeStamp(t);
+                        IValueSet values = createValues(vectors, n);
+                        smartBuffer.addValues(time, values);
+                        ringBuffer.addValues(time, values);
+                        t = next;
+                    }
+                    assertEquals(smartBuffer.getTimesCount(), ringBuffer.getTimesCount());
+
+                    for( double tr = 99.0; tr < t + 1.0; tr += 0.037 ) {
+                        assertSameValues(smartBuffer.getValues(new TimeStamp(tr)), ringBuffer
+                                .getValues(new TimeStamp(tr)));
+                        double tre = tr + 0.23;
+                        IValueSet ringValues = ringBuffer.getValues(new TimeSpan(new TimeStamp(tr),
+                                new TimeStamp(tre)));
+                        if (!spans && tr < 100.0) {
+                            // the SmartBuffer gives NaN there
+                            assertFalse(Double.isNaN(getValue(ringValues, 0)));
+                        } else {
+                            assertSameValues(smartBuffer.getValues(new TimeSpan(
+                                    new TimeStamp(tr), new TimeStamp(tre))), ringValues);
+                        }
+                    }
+
+                    smartBuffer.clearBefore(new TimeStamp(101.3));
+                    ringBuffer.clearBefore(new TimeStamp(101.3));
+                    smartBuffer.clearAfter(new TimeStamp(104.1));
+                    ringBuffer.clearAfter(new TimeStamp(104.1));
+                    assertEquals(smartBuffer.getTimesCount(), ringBuffer.getTimesCount());
+                    for( int n = 0; n < ringBuffer.getTimesCount(); n++ ) {
+                        assertEquals(smartBuffer.getTimeAt(n), ringBuffer.getTimeAt(n));
+                        assertSameValues(smartBuffer.getValuesAt(n), ringBuffer.getValuesAt(n));
+                    }
+                }
+            }
+        }
+    }
+
+    public void testRingEviction() throws Exception {
+        RingSmartBuffer buffer = new RingSmartBuffer(5);
+        double[] values = new double[3];
+        for( int n = 0; n < 12; n++ ) {
+            values[0] = n;
+            values[1] = 2 * n;
+            values[2] = -n;
+            buffer.addValues(n, values);
+            assertTrue(buffer.getTimesCount() <= 5);
+        }
+        assertEquals(5, buffer.getTimesCount());
+        assertEquals(new TimeStamp(7), buffer.getTimeAt(0));
+        assertEquals(11.0, ((IScalarSet) buffer.getValuesAt(4)).getScalar(0), 0.0);
+
+        double[] result = new double[3];
+        buffer.getValues(8.25, result);
+        assertEquals(8.25, result[0], 1E-12);
+        assertEquals(16.5, result[1], 1E-12);
+
+        // one time step before the time is kept
+        buffer.clearBefore(new TimeStamp(9.5));
+        assertEquals(3, buffer.getTimesCount());
+        assertEquals(new TimeStamp(9), buffer.getTimeAt(0));
+        buffer.addValues(12, values);
+        buffer.addValues(13, values);
+        buffer.addValues(14, values);
+        assertEquals(5, buffer.getTimesCount());
+        assertEquals(new TimeStamp(10), buffer.getTimeAt(0));
+
+        buffer.clearAfter(new TimeStamp(12));
+        assertEquals(2, buffer.getTimesCount());
+        assertEquals(new TimeStamp(11), buffer.getTimeAt(1));
+
+        RingSmartBuffer copy = new RingSmartBuffer(buffer);
+        buffer.clearBefore(new TimeStamp(100));
+        assertEquals(2, copy.getTimesCount());
+
+        try {
+            buffer.addValues(5, values);
+            fail();
+        } catch (RuntimeException e) {
+            // times have to increase
+        }
+    }
+
+    public void testLongRun() throws Exception {
+        int months = Integer.getInteger("jgrass.longrun.months", 2); //$NON-NLS-1$
+        int components = 4;
+        int elements = 20;
+        // every component keeps a month of the output of the previous one
+        double history = 30.0;
+        int steps = months * 30 * 24;
+
+        RingSmartBuffer[] buffers = new RingSmartBuffer[components];
+        for( int c = 0; c < components; c++ ) {
+            buffers[c] = new RingSmartBuffer();
+        }
+        double[] ringResult = runRing(buffers, steps, elements, history);
+        double[] smartResult = runSmart(steps, components, elements, history);
+        for( int i = 0; i < elements; i++ ) {
+            assertEquals(smartResult[i], ringResult[i], 1E-9);
+        }
+        // the buffers keep only the last month
+        for( RingSmartBuffer buffer : buffers ) {
+            assertTrue(buffer.getTimesCount() <= history / HOUR + 2);
+        }
+    }
+
+    public void testLongRunBenchmark() throws Exception {
+        if (!isBenchmarkEnabled()) {
+            return;
+        }
+        int years = Integer.getInteger("jgrass.benchmark.years", 10); //$NON-NLS-1$
+        int referenceYears = Integer.getInteger("jgrass.benchmark.referenceYears", 1); //$NON-NLS-1$
+        int components = 4;
+        int elements = 20;
+        double history = 30.0;
+
+        RingSmartBuffer[] buffers = new RingSmartBuffer[components];
+        for( int c = 0; c < components; c++ ) {
+            buffers[c] = new RingSmartBuffer();
+        }
+        long t0 = System.currentTimeMillis();
+        runRing(buffers, years * 365 * 24, elements, history);
+        long t1 = System.currentTimeMillis();
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+        System.out.println(years + " years hourly, " + components + " components: RingSmartBuffer " //$NON-NLS-1$ //$NON-NLS-2$
+                + (t1 - t0) + " ms, " + usedHeap / 1024 + " KB of heap used, " //$NON-NLS-1$ //$NON-NLS-2$
+                + buffers[0].getTimesCount() + " times kept by every buffer"); //$NON-NLS-1$
+        for( RingSmartBuffer buffer : buffers ) {
+            assertTrue(buffer.getTimesCount() <= history / HOUR + 2);
+        }
+
+        int steps = referenceYears * 365 * 24;
+        for( int c = 0; c < components; c++ ) {
+            buffers[c] = new RingSmartBuffer();
+        }
+        t0 = System.currentTimeMillis();
+        double[] ringResult = runRing(buffers, steps, elements, history);
+        t1 = System.currentTimeMillis();
+        double[] smartResult = runSmart(steps, components, elements, history);
+        long t2 = System.currentTimeMillis();
+        System.out.println(referenceYears + " years hourly, " + components //$NON-NLS-1$
+                + " components: RingSmartBuffer " + (t1 - t0) + " ms, SmartBuffer " + (t2 - t1) //$NON-NLS-1$ //$NON-NLS-2$
+                + " ms"); //$NON-NLS-1$
+        for( int i = 0; i < elements; i++ ) {
+            assertEquals(smartResult[i], ringResult[i], 1E-9);
+        }
+    }
+
+    private double[] runRing( RingSmartBuffer[] buffers, int steps, int elements, double history )
+            throws Exception {
+        int components = buffers.length;
+        double[] output = new double[elements];
+        double[] input = new double[elements];
+        for( int s = 0; s < steps; s++ ) {
+            double time = s * HOUR;
+            for( int i = 0; i < elements; i++ ) {
+                output[i] = Math.sin(time + i);
+            }
+            for( int c = 0; c < components; c++ ) {
+                buffers[c].addValues(time, output);
+                // the next component asks for the values in the middle of the last hour
+                buffers[c].getValues(time - 0.5 * HOUR, input);
+                for( int i = 0; i < elements; i++ ) {
+                    output[i] = 0.5 * (output[i] + input[i]);
+                }
+                buffers[c].clearBefore(new TimeStamp(time - history));
+            }
+        }
+        return output;
+    }
+
+    private double[] runSmart( int steps, int components, int elements, double history )
+            throws Exception {
+        SmartBuffer[] buffers = new SmartBuffer[components];
+        for( int c = 0; c < components; c++ ) {
+            buffers[c] = new SmartBuffer();
+        }
+        double[] output = new double[elements];
+        for( int s = 0; s < steps; s++ ) {
+            double time = s * HOUR;
+            for( int i = 0; i < elements; i++ ) {
+                output[i] = Math.sin(time + i);
+            }
+            for( int c = 0; c < components; c++ ) {
+                buffers[c].addValues(new TimeStamp(time), new ScalarSet(output));
+                IScalarSet input = (IScalarSet) buffers[c].getValues(new TimeStamp(time - 0.5
+                        * HOUR));
+                for( int i = 0; i < elements; i++ ) {
+                    output[i] = 0.5 * (output[i] + input.getScalar(i));
+                }
+                buffers[c].clearBefore(new TimeStamp(time - history));
+            }
+        }
+        return output;
+    }
+
+    private IValueSet createValues( boolean vectors, int n ) {
+        if (vectors) {
+            Vector[] v = new Vector[3];
+            for( int i = 0; i < v.length; i++ ) {
+                v[i] = new Vector(n + i, n * n - i, Math.sqrt(n + i));
+            }
+            return new VectorSet(v);
+        }
+        return new ScalarSet(new double[]{n, n * n, Math.sqrt(n)});
+    }
+
+    private double getValue( IValueSet values, int i ) {
+        if (values instanceof IVectorSet) {
+            return ((IVectorSet) values).getVector(i).getXComponent();
+        }
+        return ((IScalarSet) values).getScalar(i);
+    }
+
+    private void assertSameValues( IValueSet expected, IValueSet actual ) {
+        assertEquals(expected.getCount(), actual.getCount());
+        for( int i = 0; i < expected.getCount(); i++ ) {
+            if (expected instanceof IVectorSet) {
+                IVector e = ((IVectorSet) expected).getVector(i);
+                IVector a = ((IVectorSet) actual).getVector(i);
+                assertEquals(e.getXComponent(), a.getXComponent(), 1E-9);
+                assertEquals(e.getYComponent(), a.getYComponent(), 1E-9);
+                assertEquals(e.getZComponent(), a.getZComponent(), 1E-9);
+            } else {
+                assertEquals(((IScalarSet) expected).getScalar(i), ((IScalarSet) actual)
+                        .getScalar(i), 1E-9);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+import java.nio.ReadOnlyBufferException;
+
+import javax.media.jai.RasterFactory;
+
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+import eu.hydrologis.jgrass.libs.map.CopyOnWriteRasterData;
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.utils.FluidUtils;
+import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
+
+/**
+ * Test the shared and copy on write views of the values of a {@link JGrassGridCoverageValueSet}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestSharedRasterData extends JGrassTestCase {
+
+    private static final JGrassRegion REGION = GrassMapTest.fileRegion;
+
+    public void testSharedView() throws Exception {
+        double[][] map = GrassMapTest.mapData;
+        int rows = map.length;
+        int cols = map[0].length;
+        double[] values = new double[rows * cols];
+        for( int row = 0; row < rows; row++ ) {
+            System.arraycopy(map[row], 0, values, row * cols, cols);
+        }
+        WritableRaster raster = FluidUtils.createDoubleWritableRaster(cols, rows, values);
+        JGrassGridCoverageValueSet valueSet = new JGrassGridCoverageValueSet(raster, REGION,
+                DefaultGeographicCRS.WGS84);
+
+        DoubleRasterData shared = valueSet.getRasterData();
+        assertTrue(valueSet.isRasterBufferShared());
+        assertSame(shared, valueSet.getRasterData());
+        assertEquals(rows, shared.getRows());
+        assertEquals(cols, shared.getCols());
+        checkMap(map, shared);
+
+        // the view is over the buffer of the raster
+        raster.setSample(3, 2, 0, 1234.0);
+        assertEquals(1234.0, shared.getValueAt(2, 3), 0.0);
+        raster.setSample(3, 2, 0, map[2][3]);
+
+        try {
+            shared.setValueAt(0, 0, 1.0);
+            fail();
+        } catch (ReadOnlyBufferException e) {
+            // the shared view can't be changed
+        }
+
+        CopyOnWriteRasterData copy = valueSet.getCopyOnWriteRasterData();
+        assertFalse(copy.isCopied());
+        checkMap(map, copy);
+        copy.setValueAt(1, 2, -5.0);
+        assertTrue(copy.isCopied());
+        assertEquals(-5.0, copy.getValueAt(1, 2), 0.0);
+        assertEquals(map[1][2], shared.getValueAt(1, 2), 0.0);
+        assertEquals(map[1][2], raster.getSampleDouble(2, 1, 0), 0.0);
+        assertEquals(map[4][5], copy.getValueAt(4, 5), 0.0);
+    }
+
+    public void testCopiedView() throws Exception {
+        double[][] map = GrassMapTest.mapData;
+        int rows = map.length;
+        int cols = map[0].length;
+        // a raster of floats can't be shared
+        WritableRaster raster = RasterFactory.createBandedRaster(DataBuffer.TYPE_FLOAT, cols,
+                rows, 1, null);
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                raster.setSample(col, row, 0, map[row][col]);
+            }
+        }
+        JGrassGridCoverageValueSet valueSet = new JGrassGridCoverageValueSet(raster, REGION,
+                DefaultGeographicCRS.WGS84);
+
+        DoubleRasterData data = valueSet.getRasterData();
+        assertFalse(valueSet.isRasterBufferShared());
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                assertSameValue((float) map[row][col], data.getValueAt(row, col));
+            }
+        }
+        try {
+            data.setValueAt(0, 0, 1.0);
+            fail();
+        } catch (ReadOnlyBufferException e) {
+            // the copy is shared too
+        }
+    }
+
+    private void checkMap( double[][] map, DoubleRasterData data ) {
+        double[] row = new double[map[0].length];
+        for( int r = 0; r < map.length; r++ ) {
+            data.getRow(r, row);
+            for( int c = 0; c < row.length; c++ ) {
+                assertSameValue(map[r][c], row[c]);
+                assertSameValue(map[r][c], data.getValueAt(r, c));
+            }
+        }
+    }
+
+    private void checkMap( double[][] map, CopyOnWriteRasterData data ) {
+        for( int r = 0; r < map.length; r++ ) {
+            for( int c = 0; c < map[0].length; c++ ) {
+                assertSameValue(map[r][c], data.getValueAt(r, c));
+            }
+        }
+    }
+
+    private void assertSameValue( double expected, double actual ) {
+        if (Double.isNaN(expected)) {
+            assertTrue(Double.isNaN(actual));
+        } else {
+            assertEquals(expected, actual, 0.0);
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import nl.alterra.openmi.sdk.backbone.Element;
+import nl.alterra.openmi.sdk.backbone.ElementSet;
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.SpatialReference;
+import nl.alterra.openmi.sdk.backbone.Vector;
+import nl.alterra.openmi.sdk.backbone.VectorSet;
+import nl.alterra.openmi.sdk.backbone.Vertex;
+import nl.alterra.openmi.sdk.spatial.ElementMapper;
+import nl.alterra.openmi.sdk.spatial.XYGeometryTools;
+import nl.alterra.openmi.sdk.spatial.XYGridIndex;
+import nl.alterra.openmi.sdk.spatial.XYPolygon;
+
+import org.openmi.standard.IElementSet;
+import org.openmi.standard.IElementSet.ElementType;
+import org.openmi.standard.IScalarSet;
+import org.openmi.standard.IVector;
+import org.openmi.standard.IVectorSet;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the element mapper with the sparse mapping matrix against the weights calculated over
+ * all the element pairs.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestSparseElementMapper extends JGrassTestCase {
+
+    private static final int CELLS = 8;
+
+    public void testGridIndex() {
+        double[] minX = {0, 2, 5, -1};
+        double[] minY = {0, 2, 5, -1};
+        double[] maxX = {1, 3, 6, 10};
+        double[] maxY = {1, 3, 6, -0.5};
+        XYGridIndex index = new XYGridIndex(minX, minY, maxX, maxY);
+        assertEquals(4, index.getElementCount());
+
+        int[] found = index.query(0.5, 0.5, 2.5, 2.5);
+        assertEquals(2, found.length);
+        assertEquals(0, found[0]);
+        assertEquals(1, found[1]);
+
+        // touching envelopes intersect
+        found = index.query(6, 6, 7, 7);
+        assertEquals(1, found.length);
+        assertEquals(2, found[0]);
+
+        found = index.query(3.5, 3.5, 4.5, 4.5);
+        assertEquals(0, found.length);
+    }
+
+    public void testPolygonToPolygon() throws Exception {
+        IElementSet source = createGrid();
+        IElementSet target = createTargets();
+
+        for( String method : new String[]{"Weighted Mean", "Weighted Sum"} ) { //$NON-NLS-1$ //$NON-NLS-2$
+            ElementMapper mapper = new ElementMapper();
+            mapper.initialise(method, source, target);
+
+            for( int i = 0; i < target.getElementCount(); i++ ) {
+                XYPolygon toPolygon = XYGeometryTools.createXYPolygon(target, i);
+                double[] expected = new double[source.getElementCount()];
+                double sum = 0;
+                for( int j = 0; j < expected.length; j++ ) {
+                    expected[j] = XYGeometryTools.calculateSharedArea(toPolygon, XYGeometryTools
+                            .createXYPolygon(source, j));
+                    sum += expected[j];
+                }
+                for( int j = 0; j < expected.length; j++ ) {
+                    double weight = method.equals("Weighted Mean") ? expected[j] / sum : expected[j] //$NON-NLS-1$
+                            / toPolygon.getArea();
+                    assertEquals(weight, mapper.getMappingValue(i, j), 1E-12);
+                }
+            }
+
+            // a constant field stays constant with the mean and is scaled by the covered part
+            // of the target with the sum
+            double[] ones = new double[source.getElementCount()];
+            java.util.Arrays.fill(ones, 1.0);
+            IScalarSet mapped = (IScalarSet) mapper.mapValues(new ScalarSet(ones));
+            assertEquals(target.getElementCount(), mapped.getCount());
+            assertEquals(1.0, mapped.getScalar(0), 1E-12);
+            assertEquals(1.0, mapped.getScalar(1), 1E-12);
+        }
+    }
+
+    public void testPointToPolygonAndVectors() throws Exception {
+        ElementSet points = new ElementSet("points", "points", ElementType.XYPoint, //$NON-NLS-1$ //$NON-NLS-2$
+                new SpatialReference("")); //$NON-NLS-1$
+        for( int r = 0; r < CELLS; r++ ) {
+            for( int c = 0; c < CELLS; c++ ) {
+                Element element = new Element("p" + r + "_" + c); //$NON-NLS-1$ //$NON-NLS-2$
+                element.addVertex(new Vertex(c + 0.5, r + 0.5, 0));
+                points.addElement(element);
+            }
+        }
+        IElementSet target = createTargets();
+
+        ElementMapper mapper = new ElementMapper();
+        mapper.initialise("Mean", points, target); //$NON-NLS-1$
+        double[] values = new double[points.getElementCount()];
+        IVector[] vectors = new IVector[values.length];
+        for( int i = 0; i < values.length; i++ ) {
+            values[i] = i;
+            vectors[i] = new Vector(i, 1, 0);
+        }
+        // the square from 0.5 to 2.5 holds the centers of the cells 9, 10, 17 and 18
+        IScalarSet mapped = (IScalarSet) mapper.mapValues(new ScalarSet(values));
+        assertEquals((9 + 10 + 17 + 18) / 4.0, mapped.getScalar(0), 1E-12);
+
+        IVectorSet mappedVectors = (IVectorSet) mapper.mapValues(new VectorSet(vectors));
+        assertEquals(mapped.getScalar(0), mappedVectors.getVector(0).getXComponent(), 1E-12);
+        assertEquals(1.0, mappedVectors.getVector(0).getYComponent(), 1E-12);
+        assertEquals(0.0, mapper.getMappingValue(0, 0), 0.0);
+    }
+
+    /**
+     * @return a grid of unit squares.
+     */
+    private IElementSet createGrid() {
+        ElementSet grid = new ElementSet("grid", "grid", ElementType.XYPolygon, //$NON-NLS-1$ //$NON-NLS-2$
+                new SpatialReference("")); //$NON-NLS-1$
+        for( int r = 0; r < CELLS; r++ ) {
+            for( int c = 0; c < CELLS; c++ ) {
+                Element element = new Element("c" + r + "_" + c); //$NON-NLS-1$ //$NON-NLS-2$
+                element.addVertex(new Vertex(c, r, 0));
+                element.addVertex(new Vertex(c + 1, r, 0));
+                element.addVertex(new Vertex(c + 1, r + 1, 0));
+                element.addVertex(new Vertex(c, r + 1, 0));
+                grid.addElement(element);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * @return a square and a triangle inside the grid.
+     */
+    private IElementSet createTargets() {
+        ElementSet targets = new ElementSet("targets", "targets", ElementType.XYPolygon, //$NON-NLS-1$ //$NON-NLS-2$
+                new SpatialReference("")); //$NON-NLS-1$
+        Element square = new Element("square"); //$NON-NLS-1$
+        square.addVertex(new Vertex(0.5, 0.5, 0));
+        square.addVertex(new Vertex(2.5, 0.5, 0));
+        square.addVertex(new Vertex(2.5, 2.5, 0));
+        square.addVertex(new Vertex(0.5, 2.5, 0));
+        targets.addElement(square);
+        Element triangle = new Element("triangle"); //$NON-NLS-1$
+        triangle.addVertex(new Vertex(3.2, 1.1, 0));
+        triangle.addVertex(new Vertex(7.6, 2.3, 0));
+        triangle.addVertex(new Vertex(4.1, 6.7, 0));
+        targets.addElement(triangle);
+        return targets;
+    }
+
+}
@@ -0,0 +1,322 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import nl.alterra.openmi.sdk.backbone.IPersistentState;
+import nl.alterra.openmi.sdk.backbone.LinkableComponent;
+import nl.alterra.openmi.sdk.backbone.OutputExchangeItem;
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.backbone.TimeStamp;
+import nl.alterra.openmi.sdk.configuration.Composition;
+import nl.alterra.openmi.sdk.configuration.ConfigurationException;
+import nl.alterra.openmi.sdk.configuration.StateSnapshot;
+import nl.alterra.openmi.sdk.configuration.SystemDeployer;
+import nl.alterra.openmi.sdk.configuration.Trigger;
+import nl.alterra.openmi.sdk.wrapper.IEngine;
+import nl.alterra.openmi.sdk.wrapper.LinkableEngine;
+
+import org.openmi.standard.IArgument;
+import org.openmi.standard.IInputExchangeItem;
+import org.openmi.standard.ILink;
+import org.openmi.standard.IOutputExchangeItem;
+import org.openmi.standard.IScalarSet;
+import org.openmi.standard.ITime;
+import org.openmi.standard.ITimeSpan;
+import org.openmi.standard.ITimeStamp;
+import org.openmi.standard.IValueSet;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the checkpoints of the {@link SystemDeployer} and the state management of the
+ * {@link LinkableEngine}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestStateSnapshot extends JGrassTestCase {
+
+    /**
+     * A reservoir with a storage that depends on all the previous time steps.
+     */
+    private static class Reservoir extends LinkableComponent implements IPersistentState {
+        private final OutputExchangeItem output;
+        private double storage = 1.0;
+        private double lastTime = -1.0;
+
+        public Reservoir( String id ) {
+            super(id);
+            output = createOutputExchangeItem("out" + id, "out" + id, "out" + id); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+
+        public IValueSet getValuesHook( ITime time, ILink link ) {
+            double t = ((ITimeStamp) time).getModifiedJulianDay();
+            if (t != lastTime) {
+                storage = 0.9 * storage + Math.sin(t);
+                lastTime = t;
+            }
+            return new ScalarSet(new double[]{storage});
+        }
+
+        public boolean isPersistent() {
+            return true;
+        }
+
+        public void writeState( DataOutput out ) throws IOException {
+            out.writeDouble(storage);
+            out.writeDouble(lastTime);
+        }
+
+        public void readState( DataInput in ) throws IOException {
+            storage = in.readDouble();
+            lastTime = in.readDouble();
+        }
+    }
+
+    /**
+     * An engine counting its time steps.
+     */
+    private static class CountingEngine implements IEngine, IPersistentState {
+        private final boolean persistent;
+        private double time = 0.0;
+        private double total = 0.0;
+
+        public CountingEngine( boolean persistent ) {
+            this.persistent = persistent;
+        }
+
+        public boolean isPersistent() {
+            return persistent;
+        }
+
+        public boolean performTimeStep() {
+            time = time + 1.0;
+            total = total + time;
+            return true;
+        }
+
+        public void writeState( DataOutput out ) throws IOException {
+            out.writeDouble(time);
+            out.writeDouble(total);
+        }
+
+        public void readState( DataInput in ) throws IOException {
+            time = in.readDouble();
+            total = in.readDouble();
+        }
+
+        public ITime getCurrentTime() {
+            return new TimeStamp(time);
+        }
+
+        public ITimeStamp getEarliestNeededTime() {
+            return new TimeStamp(time);
+        }
+
+        public ITimeSpan getTimeHorizon() {
+            return null;
+        }
+
+        public void initialize( HashMap properties ) {
+        }
+
+        public void finish() {
+        }
+
+        public void dispose() {
+        }
+
+        public ITime getInputTime( String quantityID, String elementSetID ) {
+            return getCurrentTime();
+        }
+
+        public void setValues( String quantityID, String elementSetID, IValueSet values ) {
+        }
+
+        public IValueSet getValues( String quantityID, String elementSetID ) {
+            return new ScalarSet(new double[]{total});
+        }
+
+        public double getMissingValueDefinition() {
+            return -9999.0;
+        }
+
+        public String getComponentID() {
+            return "counter"; //$NON-NLS-1$
+        }
+
+        public String getComponentDescription() {
+            return "counter"; //$NON-NLS-1$
+        }
+
+        public String getModelID() {
+            return "counter"; //$NON-NLS-1$
+        }
+
+        public String getModelDescription() {
+            return "counter"; //$NON-NLS-1$
+        }
+
+        public int getInputExchangeItemCount() {
+            return 0;
+        }
+
+        public int getOutputExchangeItemCount() {
+            return 0;
+        }
+
+        public IOutputExchangeItem getOutputExchangeItem( int index ) {
+            return null;
+        }
+
+        public IInputExchangeItem getInputExchangeItem( int index ) {
+            return null;
+        }
+    }
+
+    public void testCheckpointAndRestart() throws Exception {
+        File file = File.createTempFile("jgrass_state", ".snapshot"); //$NON-NLS-1$ //$NON-NLS-2$
+        file.deleteOnExit();
+
+        // the whole run, with a checkpoint every 4 daily steps
+        Composition composition = new Composition("composition"); //$NON-NLS-1$
+        Trigger trigger = createComposition(composition);
+        SystemDeployer deployer = createDeployer(composition, trigger);
+        deployer.setCheckpointing(file, 4);
+        deployer.start(0.0, 10.0, 24 * 3600);
+        double expected = ((IScalarSet) trigger.getLastCalculatedValues()).getScalar(0);
+
+        StateSnapshot snapshot = StateSnapshot.read(file);
+        assertEquals(8.0, snapshot.getTime(), 1E-9);
+        assertEquals(1, snapshot.getComponentIDs().size());
+        assertEquals("reservoir", snapshot.getComponentIDs().get(0)); //$NON-NLS-1$
+        assertEquals(16, snapshot.getState("reservoir").length); //$NON-NLS-1$
+
+        // restart from the checkpoint with a new composition
+        for( int i = 0; i < 2; i++ ) {
+            Composition restarted = new Composition("composition"); //$NON-NLS-1$
+            Trigger restartedTrigger = createComposition(restarted);
+            SystemDeployer restartedDeployer = createDeployer(restarted, restartedTrigger);
+            if (i == 0) {
+                restartedDeployer.restart(file, 10.0, 24 * 3600);
+            } else {
+                // the same snapshot can start more runs
+                restartedDeployer.restart(snapshot, 10.0, 24 * 3600);
+            }
+            assertEquals(expected, ((IScalarSet) restartedTrigger.getLastCalculatedValues())
+                    .getScalar(0), 1E-12);
+        }
+
+        // a snapshot needs all its components
+        snapshot.setState("missing", new byte[0]); //$NON-NLS-1$
+        try {
+            snapshot.restore(composition);
+            fail();
+        } catch (ConfigurationException e) {
+            // expected
+        }
+    }
+
+    public void testNoSnapshotFile() throws Exception {
+        File file = File.createTempFile("jgrass_state", ".snapshot"); //$NON-NLS-1$ //$NON-NLS-2$
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        out.close();
+        try {
+            StateSnapshot.read(file);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        new StateSnapshot(3.5).write(file);
+        StateSnapshot snapshot = StateSnapshot.read(file);
+        assertEquals(3.5, snapshot.getTime(), 0.0);
+        assertEquals(0, snapshot.getComponentIDs().size());
+    }
+
+    public void testEngineStates() throws Exception {
+        final CountingEngine engine = new CountingEngine(true);
+        LinkableEngine linkableEngine = new LinkableEngine(){
+            protected void setEngineApiAccess() {
+                engineApiAccess = engine;
+            }
+        };
+        linkableEngine.initialize(new IArgument[0]);
+
+        engine.performTimeStep();
+        engine.performTimeStep();
+        String stateID = linkableEngine.keepCurrentState();
+        engine.performTimeStep();
+        assertEquals(6.0, engine.total, 0.0);
+
+        linkableEngine.restoreState(stateID);
+        assertEquals(2.0, engine.time, 0.0);
+        assertEquals(3.0, engine.total, 0.0);
+
+        linkableEngine.clearState(stateID);
+        try {
+            linkableEngine.restoreState(stateID);
+            fail();
+        } catch (RuntimeException e) {
+            // the state is gone
+        }
+    }
+
+    public void testNotPersistentEngine() throws Exception {
+        final CountingEngine engine = new CountingEngine(false);
+        LinkableEngine linkableEngine = new LinkableEngine(){
+            protected void setEngineApiAccess() {
+                engineApiAccess = engine;
+            }
+        };
+        linkableEngine.initialize(new IArgument[0]);
+        assertFalse(linkableEngine.isPersistent());
+
+        // the engine is left out of the snapshots, which still work for the others
+        Composition composition = new Composition("composition"); //$NON-NLS-1$
+        createComposition(composition);
+        composition.addComponent(linkableEngine);
+        StateSnapshot snapshot = StateSnapshot.capture(composition, 1.0);
+        assertEquals(1, snapshot.getComponentIDs().size());
+        assertEquals("reservoir", snapshot.getComponentIDs().get(0)); //$NON-NLS-1$
+        snapshot.restore(composition);
+
+        // and writes and reads nothing
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        linkableEngine.writeState(new DataOutputStream(bytes));
+        assertEquals(0, bytes.size());
+        linkableEngine.readState(new DataInputStream(new ByteArrayInputStream(new byte[0])));
+    }
+
+    private Trigger createComposition( Composition composition ) {
+        Reservoir reservoir = new Reservoir("reservoir"); //$NON-NLS-1$
+        Trigger trigger = new Trigger("trigger"); //$NON-NLS-1$
+        composition.addComponent(reservoir);
+        composition.addComponent(trigger);
+        assertNotNull(composition.createLink(reservoir, reservoir.output, trigger, trigger
+                .getInputExchangeItem(0)));
+        return trigger;
+    }
+
+    private SystemDeployer createDeployer( Composition composition, Trigger trigger ) {
+        SystemDeployer deployer = new SystemDeployer("deployer"); //$NON-NLS-1$
+        deployer.setComposition(composition);
+        ArrayList<Trigger> triggers = new ArrayList<Trigger>();
+        triggers.add(trigger);
+        deployer.setTriggers(triggers);
+        deployer.setBlocking(true);
+        return deployer;
+    }
+
+}
@@ -0,0 +1,209 @@
+package eu.hydrologis.jgrass.tests.libs;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import nl.alterra.openmi.sdk.backbone.InputExchangeItem;
+import nl.alterra.openmi.sdk.backbone.LinkableComponent;
+import nl.alterra.openmi.sdk.backbone.OutputExchangeItem;
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import nl.alterra.openmi.sdk.configuration.Composition;
+import nl.alterra.openmi.sdk.configuration.LinkValueCache;
+import nl.alterra.openmi.sdk.configuration.SystemDeployer;
+import nl.alterra.openmi.sdk.configuration.Trigger;
+
+import org.openmi.standard.ILink;
+import org.openmi.standard.IScalarSet;
+import org.openmi.standard.ITime;
+import org.openmi.standard.IValueSet;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the grouping of independent triggers, the concurrent calculation of the
+ * independent branches upstream of a trigger and the link value cache of the
+ * {@link SystemDeployer}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestSystemDeployer extends JGrassTestCase {
+
+    /**
+     * A source component counting how many times it is asked for values.
+     */
+    private static class CountingSource extends LinkableComponent {
+        final OutputExchangeItem output;
+        private final double value;
+        volatile int calls = 0;
+
+        public CountingSource( String id, double value ) {
+            super(id);
+            this.value = value;
+            output = createOutputExchangeItem("out" + id, "out" + id, "out" + id); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+
+        public IValueSet getValuesHook( ITime time, ILink link ) {
+            calls++;
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new ScalarSet(new double[]{value, calls});
+        }
+    }
+
+    /**
+     * A source component waiting for the other sources of the same barrier
+     * before returning its values.
+     */
+    private static class BarrierSource extends CountingSource {
+        private final CyclicBarrier barrier;
+        private volatile boolean concurrent = true;
+
+        public BarrierSource( String id, double value, CyclicBarrier barrier ) {
+            super(id, value);
+            this.barrier = barrier;
+        }
+
+        public IValueSet getValuesHook( ITime time, ILink link ) {
+            try {
+                barrier.await(2, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                concurrent = false;
+            }
+            return super.getValuesHook(time, link);
+        }
+    }
+
+    /**
+     * A component summing the first values of its inputs, read through the
+     * cache as the models do.
+     */
+    private static class Junction extends LinkableComponent {
+        private final OutputExchangeItem output;
+        private final InputExchangeItem input1;
+        private final InputExchangeItem input2;
+
+        public Junction( String id ) {
+            super(id);
+            output = createOutputExchangeItem("out" + id, "out" + id, "out" + id); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            input1 = createInputExchangeItem("in1" + id, "in1" + id, "in1" + id); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            input2 = createInputExchangeItem("in2" + id, "in2" + id, "in2" + id); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+
+        public IValueSet getValuesHook( ITime time, ILink link ) {
+            double sum = 0;
+            for( ILink input : allLinks ) {
+                if (input.getTargetComponent() == this) {
+                    sum += ((IScalarSet) LinkValueCache.requestValues(input, time)).getScalar(0);
+                }
+            }
+            return new ScalarSet(new double[]{sum});
+        }
+    }
+
+    public void testConcurrentBranches() {
+        Composition composition = new Composition("composition"); //$NON-NLS-1$
+        CyclicBarrier barrier = new CyclicBarrier(2);
+        BarrierSource a = new BarrierSource("a", 1.0, barrier); //$NON-NLS-1$
+        BarrierSource b = new BarrierSource("b", 2.0, barrier); //$NON-NLS-1$
+        Junction junction = new Junction("j"); //$NON-NLS-1$
+        Trigger t = new Trigger("t"); //$NON-NLS-1$
+        composition.addComponent(a);
+        composition.addComponent(b);
+        composition.addComponent(junction);
+        composition.addComponent(t);
+        assertNotNull(composition.createLink(a, a.output, junction, junction.input1));
+        assertNotNull(composition.createLink(b, b.output, junction, junction.input2));
+        assertNotNull(composition.createLink(junction, junction.output, t, t.getInputExchangeItem(0)));
+
+        SystemDeployer deployer = new SystemDeployer("deployer"); //$NON-NLS-1$
+        deployer.setComposition(composition);
+        ArrayList<Trigger> triggers = new ArrayList<Trigger>();
+        triggers.add(t);
+        deployer.setTriggers(triggers);
+        deployer.setBlocking(true);
+        deployer.setMaximumThreads(2);
+        deployer.start(0.0, 2.0, 24 * 3600);
+        assertFalse(deployer.isRunning());
+
+        // the two sub-branches were calculated at the same time, once per time step
+        assertTrue(a.concurrent);
+        assertTrue(b.concurrent);
+        assertEquals(2, a.calls);
+        assertEquals(2, b.calls);
+        assertEquals(3.0, ((IScalarSet) t.getLastCalculatedValues()).getScalar(0), 0.0);
+    }
+
+    public void testConcurrentDeployment() {
+        runDeployer(3);
+    }
+
+    public void testSequentialDeployment() {
+        runDeployer(1);
+    }
+
+    private void runDeployer( int threads ) {
+        Composition composition = new Composition("composition"); //$NON-NLS-1$
+        CountingSource a = new CountingSource("a", 1.0); //$NON-NLS-1$
+        CountingSource b = new CountingSource("b", 2.0); //$NON-NLS-1$
+        CountingSource c = new CountingSource("c", 3.0); //$NON-NLS-1$
+        Trigger t1 = new Trigger("t1"); //$NON-NLS-1$
+        Trigger t2 = new Trigger("t2"); //$NON-NLS-1$
+        Trigger t3 = new Trigger("t3"); //$NON-NLS-1$
+        Trigger t4 = new Trigger("t4"); //$NON-NLS-1$
+        composition.addComponent(a);
+        composition.addComponent(b);
+        composition.addComponent(c);
+        composition.addComponent(t1);
+        composition.addComponent(t2);
+        composition.addComponent(t3);
+        composition.addComponent(t4);
+        assertNotNull(composition.createLink(a, a.output, t1, t1.getInputExchangeItem(0)));
+        assertNotNull(composition.createLink(b, b.output, t2, t2.getInputExchangeItem(0)));
+        // the output of c is consumed twice
+        assertNotNull(composition.createLink(c, c.output, t3, t3.getInputExchangeItem(0)));
+        assertNotNull(composition.createLink(c, c.output, t4, t4.getInputExchangeItem(0)));
+
+        SystemDeployer deployer = new SystemDeployer("deployer"); //$NON-NLS-1$
+        deployer.setComposition(composition);
+        ArrayList<Trigger> triggers = new ArrayList<Trigger>();
+        triggers.add(t1);
+        triggers.add(t3);
+        triggers.add(t2);
+        triggers.add(t4);
+        deployer.setTriggers(triggers);
+        deployer.setBlocking(true);
+        deployer.setMaximumThreads(threads);
+        // two daily time steps
+        deployer.start(0.0, 2.0, 24 * 3600);
+        assertFalse(deployer.isRunning());
+
+        List<List<Trigger>> groups = deployer.getTriggerGroups();
+        assertEquals(3, groups.size());
+        assertEquals(4, groups.get(0).size() + groups.get(1).size() + groups.get(2).size());
+        boolean fanOutGrouped = false;
+        for( List<Trigger> group : groups ) {
+            if (group.contains(t3)) {
+                assertEquals(t3, group.get(0));
+                assertEquals(t4, group.get(1));
+                fanOutGrouped = true;
+            }
+        }
+        assertTrue(fanOutGrouped);
+
+        assertEquals(2, a.calls);
+        assertEquals(2, b.calls);
+        // the second consumer of c gets a copy of the cached values
+        assertEquals(2, c.calls);
+        assertNotSame(t3.getLastCalculatedValues(), t4.getLastCalculatedValues());
+        assertEquals(t3.getLastCalculatedValues(), t4.getLastCalculatedValues());
+        assertEquals(3.0, ((IScalarSet) t4.getLastCalculatedValues()).getScalar(0), 0.0);
+        assertEquals(2.0, ((IScalarSet) t2.getLastCalculatedValues()).getScalar(0), 0.0);
+        assertNull(composition.getLinkValueCache());
+    }
+
+}
@@ -0,0 +1,79 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import nl.alterra.openmi.sdk.backbone.ScalarSet;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.models.h.energybalance.BandValuesReader;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the {@link BandValuesReader} of h.energybalance, reusing its arrays and the basins of the
+ * rows, against reading every time step in new arrays.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestBandValuesReader extends JGrassTestCase {
+
+    public void testSameAsNewArrays() throws Exception {
+        int basinNum = 4;
+        int bandsNum = 3;
+        HashMap<Integer, Integer> basinid2BasinindexMap = new HashMap<Integer, Integer>();
+        for( int i = 0; i < basinNum; i++ ) {
+            basinid2BasinindexMap.put(10 * (i + 1), i);
+        }
+        BandValuesReader reader = new BandValuesReader(basinid2BasinindexMap, basinNum, bandsNum);
+
+        // the same layout twice, then other basins, an unknown one and the same basins reordered
+        int[][] steps = {{10, 20, 30, 40}, {10, 20, 30, 40}, {30, 99, 10}, {10, 99, 30},
+                {40, 20}};
+        Random random = new Random(3);
+        double[][] values = null;
+        for( int[] ids : steps ) {
+            double[] scalars = new double[1 + ids.length * (bandsNum + 1)];
+            scalars[0] = scalars.length - 1;
+            int index = 1;
+            for( int id : ids ) {
+                scalars[index++] = id;
+                for( int j = 0; j < bandsNum; j++ ) {
+                    scalars[index++] = random.nextDouble();
+                }
+            }
+            ScalarSet scalarSet = new ScalarSet(scalars);
+            double[][] previous = values;
+            values = reader.read(scalarSet, values, new DummyProgressMonitor(), "test"); //$NON-NLS-1$
+            if (previous != null) {
+                assertSame(previous, values);
+            }
+
+            double[][] expected = readInNewArrays(scalarSet, basinid2BasinindexMap, basinNum,
+                    bandsNum);
+            for( int i = 0; i < basinNum; i++ ) {
+                for( int j = 0; j < bandsNum; j++ ) {
+                    assertEquals(expected[i][j], values[i][j], 0.0);
+                }
+            }
+        }
+    }
+
+    /**
+     * The reading as done before, with new arrays every time step.
+     */
+    private static double[][] readInNewArrays( ScalarSet scalarSet,
+            HashMap<Integer, Integer> basinid2BasinindexMap, int basinNum, int bandsNum ) {
+        int perBasinColumns = bandsNum + 1;
+        double[][] values = new double[basinNum][bandsNum];
+        for( int i = 1; i < scalarSet.getCount(); i = i + perBasinColumns ) {
+            int tempId = (int) scalarSet.getScalar(i);
+            Integer index = basinid2BasinindexMap.get(tempId);
+            if (index != null) {
+                for( int j = 1; j < perBasinColumns; j++ ) {
+                    values[index][j - 1] = scalarSet.getScalar(i + j);
+                }
+            }
+        }
+        return values;
+    }
+
+}
@@ -32,6 +32,44 @@ public class TestCurvatures extends JGrassTestCase{
 
 
 public void testCurvatures() throws IOException {
+        PlanarImage[] images = runCurvatures(1);
+        checkMatrixEqual(images[0], GrassMapTest.profData, 0.0001);
+        checkMatrixEqual(images[1], GrassMapTest.planData, 0.0001);
+        checkMatrixEqual(images[2], GrassMapTest.tanData, 0.0001);
+    }
+
+    /**
+     * Test that the curvatures computed on more threads are the same as the ones computed in the
+     * calling thread.
+     */
+    public void testCurvaturesOnMoreThreads() throws IOException {
+        PlanarImage[] expected = runCurvatures(1);
+        PlanarImage[] images = runCurvatures(4);
+        for( int i = 0; i < images.length; i++ ) {
+            Raster expectedData = expected[i].getData();
+            Raster data = images[i].getData();
+            for( int y = data.getMinY(); y < data.getMinY() + data.getHeight(); y++ ) {
+                for( int x = data.getMinX(); x < data.getMinX() + data.getWidth(); x++ ) {
+                    double expectedValue = expectedData.getSampleDouble(x, y, 0);
+                    double value = data.getSampleDouble(x, y, 0);
+                    if (Double.isNaN(expectedValue)) {
+                        assertTrue(Double.isNaN(value));
+                    } else {
+                        assertEquals(expectedValue, value, 0.0);
+                    }
+                }
+            }
+        }
+        checkMatrixEqual(images[0], GrassMapTest.profData, 0.0001);
+    }
+
+    /**
+     * Runs h.curvatures on the test map.
+     * 
+     * @param threads the number of threads computing the maps.
+     * @return the images of the prof, plan and tang curvatures.
+     */
+    private PlanarImage[] runCurvatures( int threads ) throws IOException {
     
 
         JGrassMapEnvironment jGrassMapEnvironment = GrassMapTest.jME;
@@ -56,7 +94,7 @@ public void testCurvatures() throws IOException {
         String global_deltat = "-1";
         String global_remotedb = "null";
         h_curvatures curvatures = new h_curvatures(out, err);
-        Argument[] curvaturesARgs = new Argument[7];
+        Argument[] curvaturesARgs = new Argument[8];
         curvaturesARgs[0] = new Argument("grassdb", global_grassdb, true);
         curvaturesARgs[1] = new Argument("location", global_location, true);
         curvaturesARgs[2] = new Argument("mapset", global_mapset, true);
@@ -67,6 +105,7 @@ public void testCurvatures() throws IOException {
         curvaturesARgs[5] = new Argument("time_delta", global_deltat, true);
         curvaturesARgs[6] = new Argument("remotedburl", global_remotedb,
                 true);
+        curvaturesARgs[7] = new Argument("threads", String.valueOf(threads), true);
         curvatures.initialize(curvaturesARgs);
 
         DummyInputGrassCoverageMap igrass_pit = new DummyInputGrassCoverageMap(out, err,
@@ -184,23 +223,15 @@ public void testCurvatures() throws IOException {
         PlanarImage profImage = (PlanarImage) view.getRenderedImage();
 
 
-        checkMatrixEqual(profImage,
-                GrassMapTest.profData,0.0001);
-
         IValueSet planValueSet = curvatures.getValues(null, ograss_link_plan.getID());
         GridCoverage2D planGC = ((JGrassGridCoverageValueSet) planValueSet).getGridCoverage2D();
         view = planGC.view(ViewType.GEOPHYSICS);
         PlanarImage planImage = (PlanarImage) view.getRenderedImage();
- 
 
-        checkMatrixEqual(planImage,
-                GrassMapTest.planData,0.0001);
         IValueSet tanValueSet = curvatures.getValues(null, ograss_link_tan.getID());
         GridCoverage2D tanGC = ((JGrassGridCoverageValueSet) tanValueSet).getGridCoverage2D();
         view = tanGC.view(ViewType.GEOPHYSICS);
         PlanarImage tanImage = (PlanarImage) view.getRenderedImage();
-        checkMatrixEqual(tanImage,
-                GrassMapTest.tanData,0.0001);
 
 
         // set active region to the needed
@@ -210,5 +241,6 @@ public void testCurvatures() throws IOException {
                 .getActiveRegion();
         JGrassRegion.writeWINDToMapset(jGrassMapEnvironment
                 .getMAPSET().getAbsolutePath(), activeRegion);
+        return new PlanarImage[]{profImage, planImage, tanImage};
     }
 }
@@ -0,0 +1,59 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.util.HashMap;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.duffy.DischargeDistributor;
+
+/**
+ * Test the copies of a {@link DischargeDistributor}, as used by the members of an ensemble.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestDischargeDistributor extends JGrassTestCase {
+
+    private static final long TIMESTEP = 1800000L;
+
+    public void testCopy() throws Exception {
+        HashMap<Integer, Double> params = new HashMap<Integer, Double>();
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_10, 14491.22);
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_30, 14491.22);
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_60, 14491.22);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_10, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_30, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_60, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_AVG_SUB, 14491.22);
+        params.put(DischargeDistributor.PARAMS_VAR_SUB, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_V_SUP, 2.0);
+        params.put(DischargeDistributor.PARAMS_V_SUB, 0.1);
+        DischargeDistributor distributor = DischargeDistributor.createDischargeDistributor(
+                DischargeDistributor.DISTRIBUTOR_TYPE_NASH, 0, 200 * TIMESTEP, TIMESTEP, params);
+
+        long time = 0;
+        for( int i = 0; i < 20; i++ ) {
+            distributor.calculateSuperficialDischarge(100.0 + i, 0.15, time);
+            distributor.calculateSubsuperficialDischarge(50.0 + i, 0.4, time);
+            time = time + TIMESTEP;
+        }
+
+        // the copy goes on as the distributor it was copied from
+        DischargeDistributor copy = distributor.copy();
+        for( int i = 0; i < 50; i++ ) {
+            assertEquals(distributor.calculateSuperficialDischarge(3.0 * i, 0.3, time), copy
+                    .calculateSuperficialDischarge(3.0 * i, 0.3, time), 0.0);
+            assertEquals(distributor.calculateSubsuperficialDischarge(i, 0.3, time), copy
+                    .calculateSubsuperficialDischarge(i, 0.3, time), 0.0);
+            time = time + TIMESTEP;
+        }
+
+        // but has its own state
+        copy = distributor.copy();
+        distributor.calculateSuperficialDischarge(1000.0, 0.3, time);
+        copy.calculateSuperficialDischarge(0.0, 0.3, time);
+        time = time + TIMESTEP;
+        double discharge = distributor.calculateSuperficialDischarge(0.0, 0.3, time);
+        double copiedDischarge = copy.calculateSuperficialDischarge(0.0, 0.3, time);
+        assertTrue(discharge > copiedDischarge);
+    }
+
+}
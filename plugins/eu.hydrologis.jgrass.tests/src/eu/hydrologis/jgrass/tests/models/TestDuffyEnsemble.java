@@ -0,0 +1,166 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.adige.HillSlope;
+import eu.hydrologis.libs.adige.PfafstetterNumber;
+import eu.hydrologis.libs.duffy.DischargeDistributor;
+import eu.hydrologis.libs.duffy.DuffyEnsemble;
+import eu.hydrologis.libs.duffy.DuffyModel;
+
+/**
+ * Test that a {@link DuffyEnsemble} on a small network gives the same results on one thread
+ * and on more threads.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestDuffyEnsemble extends JGrassTestCase {
+
+    private static final long TIMESTEP = 1800000L;
+
+    private static final double TIMESTEP_MINUTES = TIMESTEP / 60000.0;
+
+    public void testSameOnMoreThreads() throws Exception {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        List<HillSlope> hillslopes = createNetwork();
+        int hillslopesNum = hillslopes.size();
+        DuffyModel model = new DuffyModel(hillslopes, 3, out, TIMESTEP_MINUTES, false);
+        model.addDischargeDistributor(createDistributors(hillslopes));
+
+        double[] initialConditions = new double[4 * hillslopesNum];
+        for( int i = 0; i < hillslopesNum; i++ ) {
+            HillSlope hillSlope = hillslopes.get(i);
+            double discharge = hillSlope.getUpstreamArea(null) / 1000000.0 * 0.01;
+            initialConditions[i] = 0.3 * discharge;
+            initialConditions[i + hillslopesNum] = 0.7 * discharge;
+            initialConditions[i + 2 * hillslopesNum] = 0.2 * hillSlope.parameters.getS2max();
+            initialConditions[i + 3 * hillslopesNum] = 0.25 * hillSlope.parameters.getS2max();
+        }
+
+        int membersNum = 7;
+        int[] outputIndexes = {0};
+        DuffyEnsemble sequential = new DuffyEnsemble(model, initialConditions, membersNum,
+                outputIndexes, 0.3, 0.2, 11L, out, false);
+        sequential.setThreads(1);
+        DuffyEnsemble parallel = new DuffyEnsemble(model, initialConditions, membersNum,
+                outputIndexes, 0.3, 0.2, 11L, out, false);
+        parallel.setThreads(3);
+
+        double[] rain = new double[hillslopesNum];
+        double[] zeros = new double[hillslopesNum];
+        double time = 0.0;
+        try {
+            for( int step = 0; step < 12; step++ ) {
+                Arrays.fill(rain, step < 6 ? 8.0 : 0.0);
+                sequential.solve(time, time + TIMESTEP_MINUTES, rain, zeros, zeros, zeros,
+                        zeros, zeros, zeros, zeros);
+                parallel.solve(time, time + TIMESTEP_MINUTES, rain, zeros, zeros, zeros, zeros,
+                        zeros, zeros, zeros);
+                time = time + TIMESTEP_MINUTES;
+
+                for( int m = 0; m < membersNum; m++ ) {
+                    double[] expected = sequential.getConditions(m);
+                    double[] conditions = parallel.getConditions(m);
+                    for( int i = 0; i < expected.length; i++ ) {
+                        assertEquals(expected[i], conditions[i], 0.0);
+                    }
+                }
+            }
+        } finally {
+            sequential.dispose();
+            parallel.dispose();
+            model.dispose();
+        }
+
+        // the members are perturbed
+        double[] discharges = new double[membersNum];
+        sequential.getDischarges(0, discharges);
+        assertTrue(discharges[0] != discharges[1]);
+    }
+
+    /**
+     * Creates a network of five hillslopes of 1 km2, the outlet being the first.
+     */
+    private static List<HillSlope> createNetwork() {
+        GeometryFactory gf = new GeometryFactory();
+
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("net"); //$NON-NLS-1$
+        b.add("the_geom", LineString.class); //$NON-NLS-1$
+        b.add("startelev", Double.class); //$NON-NLS-1$
+        b.add("endelev", Double.class); //$NON-NLS-1$
+        SimpleFeatureType netType = b.buildFeatureType();
+        b = new SimpleFeatureTypeBuilder();
+        b.setName("basins"); //$NON-NLS-1$
+        b.add("the_geom", Polygon.class); //$NON-NLS-1$
+        b.add("elev", Double.class); //$NON-NLS-1$
+        SimpleFeatureType basinType = b.buildFeatureType();
+
+        String[] pfafstetterNumbers = {"1", "2", "3", "4", "5"}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        List<HillSlope> elements = new ArrayList<HillSlope>();
+        for( int i = 0; i < pfafstetterNumbers.length; i++ ) {
+            double x = 1000.0 * i;
+            double endElevation = 100.0 + 20.0 * i;
+            LineString link = gf.createLineString(new Coordinate[]{new Coordinate(x, 0.0),
+                    new Coordinate(x + 800.0, 300.0)});
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(netType);
+            builder.addAll(new Object[]{link, endElevation + 15.0, endElevation});
+            SimpleFeature netFeature = builder.buildFeature("net." + i); //$NON-NLS-1$
+
+            Coordinate[] square = new Coordinate[]{new Coordinate(x, 0.0),
+                    new Coordinate(x + 1000.0, 0.0), new Coordinate(x + 1000.0, 1000.0),
+                    new Coordinate(x, 1000.0), new Coordinate(x, 0.0)};
+            Polygon basin = gf.createPolygon(gf.createLinearRing(square), null);
+            builder = new SimpleFeatureBuilder(basinType);
+            builder.addAll(new Object[]{basin, endElevation + 50.0});
+            SimpleFeature basinFeature = builder.buildFeature("basins." + i); //$NON-NLS-1$
+
+            elements.add(new HillSlope(netFeature, basinFeature, new PfafstetterNumber(
+                    pfafstetterNumbers[i]), i + 1, 1, 1, 2, -1));
+        }
+        HillSlope outlet = elements.get(0);
+        HillSlope.connectElements(elements);
+        List<HillSlope> orderedHillslopes = new ArrayList<HillSlope>();
+        outlet.getAllUpstreamElements(orderedHillslopes, null);
+        return orderedHillslopes;
+    }
+
+    private static HashMap<Integer, DischargeDistributor> createDistributors(
+            List<HillSlope> hillslopes ) {
+        HashMap<Integer, Double> params = new HashMap<Integer, Double>();
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_10, 14491.22);
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_30, 14491.22);
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_60, 14491.22);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_10, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_30, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_60, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_AVG_SUB, 14491.22);
+        params.put(DischargeDistributor.PARAMS_VAR_SUB, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_V_SUP, 2.0);
+        params.put(DischargeDistributor.PARAMS_V_SUB, 0.1);
+        HashMap<Integer, DischargeDistributor> distributors = new HashMap<Integer, DischargeDistributor>();
+        for( HillSlope hillSlope : hillslopes ) {
+            distributors.put(hillSlope.getHillslopeId(), DischargeDistributor
+                    .createDischargeDistributor(DischargeDistributor.DISTRIBUTOR_TYPE_NASH, 0,
+                            100 * TIMESTEP, TIMESTEP, params));
+        }
+        return distributors;
+    }
+
+}
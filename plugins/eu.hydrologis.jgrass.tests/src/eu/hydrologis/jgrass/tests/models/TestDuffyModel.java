@@ -0,0 +1,195 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.Polygon;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.adige.HillSlope;
+import eu.hydrologis.libs.adige.PfafstetterNumber;
+import eu.hydrologis.libs.duffy.DischargeDistributor;
+import eu.hydrologis.libs.duffy.DuffyModel;
+import eu.hydrologis.libs.duffy.RungeKuttaFelberg;
+
+/**
+ * Test that the {@link DuffyModel} gives the same discharges when the hillslopes of a network
+ * level are evaluated on one thread and on more threads.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestDuffyModel extends JGrassTestCase {
+
+    private static final long TIMESTEP = 1800000L;
+
+    private static final double TIMESTEP_MINUTES = TIMESTEP / 60000.0;
+
+    public void testSameDischargesOnMoreThreads() throws Exception {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        // the network has 85 headwater hillslopes, enough to evaluate the first level in parallel
+        List<HillSlope> hillslopes = createNetwork(3);
+        int hillslopesNum = hillslopes.size();
+        assertEquals(169, hillslopesNum);
+
+        DuffyModel sequentialModel = new DuffyModel(hillslopes, 3, out, TIMESTEP_MINUTES, false);
+        sequentialModel.addDischargeDistributor(createDistributors(hillslopes));
+        sequentialModel.setThreads(1);
+        DuffyModel parallelModel = new DuffyModel(hillslopes, 3, out, TIMESTEP_MINUTES, false);
+        parallelModel.addDischargeDistributor(createDistributors(hillslopes));
+        parallelModel.setThreads(4);
+        RungeKuttaFelberg sequential = new RungeKuttaFelberg(sequentialModel, 1e-2, 10 / 60.,
+                out, false);
+        RungeKuttaFelberg parallel = new RungeKuttaFelberg(parallelModel, 1e-2, 10 / 60., out,
+                false);
+
+        double[] initialConditions = new double[4 * hillslopesNum];
+        for( int i = 0; i < hillslopesNum; i++ ) {
+            HillSlope hillSlope = hillslopes.get(i);
+            double discharge = hillSlope.getUpstreamArea(null) / 1000000.0 * 0.01;
+            initialConditions[i] = 0.3 * discharge;
+            initialConditions[i + hillslopesNum] = 0.7 * discharge;
+            initialConditions[i + 2 * hillslopesNum] = 0.2 * hillSlope.parameters.getS2max();
+            initialConditions[i + 3 * hillslopesNum] = 0.25 * hillSlope.parameters.getS2max();
+        }
+        double[] sequentialConditions = initialConditions.clone();
+        double[] parallelConditions = initialConditions.clone();
+
+        // a rain that changes between the hillslopes, the same on every run
+        Random random = new Random(17L);
+        double[] rain = new double[hillslopesNum];
+        double[] zeros = new double[hillslopesNum];
+        double time = 0.0;
+        try {
+            for( int step = 0; step < 12; step++ ) {
+                for( int i = 0; i < hillslopesNum; i++ ) {
+                    rain[i] = step < 6 ? 10.0 * random.nextDouble() : 0.0;
+                }
+                sequential.solve(time, time + TIMESTEP_MINUTES, 1, sequentialConditions, rain,
+                        zeros, zeros, zeros, zeros, zeros, zeros, zeros);
+                sequentialConditions = sequential.getFinalCond().clone();
+                sequential.setBasicTimeStep(10 / 60.);
+                parallel.solve(time, time + TIMESTEP_MINUTES, 1, parallelConditions, rain, zeros,
+                        zeros, zeros, zeros, zeros, zeros, zeros);
+                parallelConditions = parallel.getFinalCond().clone();
+                parallel.setBasicTimeStep(10 / 60.);
+                time = time + TIMESTEP_MINUTES;
+
+                // the superficial and subsuperficial discharges of every link
+                for( int i = 0; i < 2 * hillslopesNum; i++ ) {
+                    double expected = sequentialConditions[i];
+                    assertEquals(expected, parallelConditions[i], 1E-9 * Math.abs(expected));
+                }
+            }
+        } finally {
+            sequentialModel.dispose();
+            parallelModel.dispose();
+        }
+
+        // the outlet discharge has been routed
+        assertTrue(sequentialConditions[0] > 0.0);
+    }
+
+    /**
+     * Creates a network of hillslopes of 1 km2, numbered after Pfafstetter, in which the
+     * tributaries are divided again down to the given depth. The outlet is the first.
+     */
+    private static List<HillSlope> createNetwork( int depth ) {
+        List<String> pfafstetterNumbers = new ArrayList<String>();
+        addPfafstetterNumbers(pfafstetterNumbers, "", depth); //$NON-NLS-1$
+
+        GeometryFactory gf = new GeometryFactory();
+
+        SimpleFeatureTypeBuilder b = new SimpleFeatureTypeBuilder();
+        b.setName("net"); //$NON-NLS-1$
+        b.add("the_geom", LineString.class); //$NON-NLS-1$
+        b.add("startelev", Double.class); //$NON-NLS-1$
+        b.add("endelev", Double.class); //$NON-NLS-1$
+        SimpleFeatureType netType = b.buildFeatureType();
+        b = new SimpleFeatureTypeBuilder();
+        b.setName("basins"); //$NON-NLS-1$
+        b.add("the_geom", Polygon.class); //$NON-NLS-1$
+        b.add("elev", Double.class); //$NON-NLS-1$
+        SimpleFeatureType basinType = b.buildFeatureType();
+
+        List<HillSlope> elements = new ArrayList<HillSlope>();
+        for( int i = 0; i < pfafstetterNumbers.size(); i++ ) {
+            String pfafstetterNumber = pfafstetterNumbers.get(i);
+            double x = 1000.0 * (i % 13);
+            double y = 1000.0 * (i / 13);
+            // the deeper in the network, the higher
+            double endElevation = 100.0 + 20.0 * pfafstetterNumber.length();
+            LineString link = gf.createLineString(new Coordinate[]{new Coordinate(x, y),
+                    new Coordinate(x + 800.0, y + 300.0)});
+            SimpleFeatureBuilder builder = new SimpleFeatureBuilder(netType);
+            builder.addAll(new Object[]{link, endElevation + 15.0, endElevation});
+            SimpleFeature netFeature = builder.buildFeature("net." + i); //$NON-NLS-1$
+
+            Coordinate[] square = new Coordinate[]{new Coordinate(x, y),
+                    new Coordinate(x + 1000.0, y), new Coordinate(x + 1000.0, y + 1000.0),
+                    new Coordinate(x, y + 1000.0), new Coordinate(x, y)};
+            Polygon basin = gf.createPolygon(gf.createLinearRing(square), null);
+            builder = new SimpleFeatureBuilder(basinType);
+            builder.addAll(new Object[]{basin, endElevation + 50.0});
+            SimpleFeature basinFeature = builder.buildFeature("basins." + i); //$NON-NLS-1$
+
+            elements.add(new HillSlope(netFeature, basinFeature, new PfafstetterNumber(
+                    pfafstetterNumber), i + 1, 1, 1, 2, -1));
+        }
+        HillSlope outlet = elements.get(0);
+        HillSlope.connectElements(elements);
+        List<HillSlope> orderedHillslopes = new ArrayList<HillSlope>();
+        outlet.getAllUpstreamElements(orderedHillslopes, null);
+        return orderedHillslopes;
+    }
+
+    /**
+     * Adds the numbers from 1 to 9 after the given prefix, dividing the tributaries (the even
+     * numbers) again until the depth is reached.
+     */
+    private static void addPfafstetterNumbers( List<String> pfafstetterNumbers, String prefix,
+            int depth ) {
+        for( int i = 1; i <= 9; i++ ) {
+            String pfafstetterNumber = prefix + i;
+            if (i % 2 == 0 && depth > 1) {
+                addPfafstetterNumbers(pfafstetterNumbers, pfafstetterNumber + ".", depth - 1); //$NON-NLS-1$
+            } else {
+                pfafstetterNumbers.add(pfafstetterNumber);
+            }
+        }
+    }
+
+    private static HashMap<Integer, DischargeDistributor> createDistributors(
+            List<HillSlope> hillslopes ) {
+        HashMap<Integer, Double> params = new HashMap<Integer, Double>();
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_10, 14491.22);
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_30, 14491.22);
+        params.put(DischargeDistributor.PARAMS_AVG_SUP_60, 14491.22);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_10, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_30, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_VAR_SUP_60, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_AVG_SUB, 14491.22);
+        params.put(DischargeDistributor.PARAMS_VAR_SUB, 34367480.0);
+        params.put(DischargeDistributor.PARAMS_V_SUP, 2.0);
+        params.put(DischargeDistributor.PARAMS_V_SUB, 0.1);
+        HashMap<Integer, DischargeDistributor> distributors = new HashMap<Integer, DischargeDistributor>();
+        for( HillSlope hillSlope : hillslopes ) {
+            distributors.put(hillSlope.getHillslopeId(), DischargeDistributor
+                    .createDischargeDistributor(DischargeDistributor.DISTRIBUTOR_TYPE_NASH, 0,
+                            100 * TIMESTEP, TIMESTEP, params));
+        }
+        return distributors;
+    }
+
+}
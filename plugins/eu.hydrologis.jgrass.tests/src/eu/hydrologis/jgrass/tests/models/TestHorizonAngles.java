@@ -0,0 +1,125 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.utils.HorizonAngles;
+
+/**
+ * Test the {@link HorizonAngles} sweep against the horizons found by marching from every pixel.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestHorizonAngles extends JGrassTestCase {
+
+    private static final int COLS = 37;
+    private static final int ROWS = 23;
+    private static final double RES = 10.0;
+
+    /**
+     * The directions, in degrees, with the steps along columns and rows.
+     */
+    private static final int[][] DIRECTIONS = {{0, 0, -1}, {45, 1, -1}, {90, 1, 0}, {135, 1, 1},
+            {180, 0, 1}, {225, -1, 1}, {270, -1, 0}, {315, -1, -1}};
+
+    public void testHorizons() throws Exception {
+        double[] elevation = createElevation();
+        HorizonAngles horizonAngles = new HorizonAngles(elevation, COLS, ROWS, RES);
+
+        double[] horizon = new double[elevation.length];
+        for( int[] direction : DIRECTIONS ) {
+            horizonAngles.calculate(Math.toRadians(direction[0]), horizon);
+            for( int row = 0; row < ROWS; row++ ) {
+                for( int col = 0; col < COLS; col++ ) {
+                    int index = row * COLS + col;
+                    if (JGrassConstants.isNovalue(elevation[index])) {
+                        assertTrue(JGrassConstants.isNovalue(horizon[index]));
+                    } else {
+                        double expected = march(elevation, col, row, direction[1], direction[2]);
+                        assertEquals(expected, horizon[index], 1E-12);
+                    }
+                }
+            }
+        }
+
+        // every valid pixel is crossed by a line, whatever the direction
+        for( int degrees = 0; degrees < 360; degrees = degrees + 7 ) {
+            horizonAngles.calculate(Math.toRadians(degrees), horizon);
+            for( int i = 0; i < horizon.length; i++ ) {
+                assertEquals(JGrassConstants.isNovalue(elevation[i]), JGrassConstants
+                        .isNovalue(horizon[i]));
+            }
+        }
+
+        // a flat map has no horizon, except where there is nothing in front
+        double[] flat = new double[elevation.length];
+        double[] flatHorizon = new HorizonAngles(flat, COLS, ROWS, RES).calculate(Math
+                .toRadians(33.0), null);
+        for( double angle : flatHorizon ) {
+            assertTrue(angle == 0.0 || angle == -Math.PI / 2.0);
+        }
+    }
+
+    public void testParallelHorizons() throws Exception {
+        double[] elevation = createElevation();
+        HorizonAngles horizonAngles = new HorizonAngles(elevation, COLS, ROWS, RES);
+        double[] azimuths = new double[36];
+        for( int i = 0; i < azimuths.length; i++ ) {
+            azimuths[i] = Math.toRadians(i * 10.0);
+        }
+        double[][] horizons = horizonAngles.calculate(azimuths, 4);
+        for( int i = 0; i < azimuths.length; i++ ) {
+            assertTrue(Arrays.equals(horizons[i], horizonAngles.calculate(azimuths[i], null)));
+        }
+
+        // the horizons between the directions are interpolated, also across north
+        int index = 5 * COLS + 11;
+        assertEquals(horizons[9][index], horizonAngles.getHorizon(index, Math.toRadians(90.0)),
+                0.0);
+        assertEquals((horizons[9][index] + horizons[10][index]) / 2.0, horizonAngles.getHorizon(
+                index, Math.toRadians(95.0)), 1E-12);
+        assertEquals((horizons[35][index] + horizons[0][index]) / 2.0, horizonAngles.getHorizon(
+                index, Math.toRadians(355.0)), 1E-12);
+        assertEquals((horizons[35][index] + horizons[0][index]) / 2.0, horizonAngles.getHorizon(
+                index, Math.toRadians(-5.0)), 1E-12);
+
+        double horizon = horizonAngles.getHorizon(index, Math.toRadians(95.0));
+        assertTrue(horizonAngles.isInShadow(index, Math.toRadians(95.0), horizon - 0.01));
+        assertFalse(horizonAngles.isInShadow(index, Math.toRadians(95.0), horizon + 0.01));
+    }
+
+    private double[] createElevation() {
+        Random random = new Random(3);
+        double[] elevation = new double[COLS * ROWS];
+        for( int i = 0; i < elevation.length; i++ ) {
+            elevation[i] = 100.0 * random.nextDouble();
+        }
+        elevation[5 * COLS + 7] = JGrassConstants.doubleNovalue;
+        elevation[12 * COLS + 30] = JGrassConstants.doubleNovalue;
+        return elevation;
+    }
+
+    /**
+     * Finds the horizon of a pixel visiting all the pixels in front of it.
+     */
+    private double march( double[] elevation, int col, int row, int stepCol, int stepRow ) {
+        double z = elevation[row * COLS + col];
+        double stepLength = RES * Math.sqrt(stepCol * stepCol + stepRow * stepRow);
+        double horizon = -Math.PI / 2.0;
+        for( int n = 1;; n++ ) {
+            int c = col + n * stepCol;
+            int r = row + n * stepRow;
+            if (c < 0 || c >= COLS || r < 0 || r >= ROWS) {
+                break;
+            }
+            double value = elevation[r * COLS + c];
+            if (!JGrassConstants.isNovalue(value)) {
+                horizon = Math.max(horizon, Math.atan2(value - z, n * stepLength));
+            }
+        }
+        return horizon;
+    }
+
+}
@@ -0,0 +1,151 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import javax.media.jai.PlanarImage;
+import javax.media.jai.TiledImage;
+
+import eu.hydrologis.jgrass.operations.jai.aspect.HMAspectDescriptor;
+import eu.hydrologis.jgrass.operations.jai.curvatures.HMCurvaturesDescriptor;
+import eu.hydrologis.jgrass.operations.jai.gradient.HMGradientDescriptor;
+import eu.hydrologis.jgrass.operations.jai.slope.HMSlopeDescriptor;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.utils.FluidUtils;
+
+/**
+ * Test the gradient, slope, aspect and curvatures operations computed in row stripes.
+ * <p>
+ * The images computed with more threads have to be the same of the ones computed in the calling
+ * thread.
+ * </p>
+ * <p>
+ * The benchmark, run only if the <code>jgrass.benchmark</code> system property is true, compares
+ * the images on a bigger DEM and prints the time used by every operation. The size of its DEM
+ * can be set through the <code>jgrass.benchmark.size</code> system property (default 10000, for
+ * a 10000x10000 map, which needs a lot of memory).
+ * </p>
+ *
+ * @author Andrea Antonello - www.hydrologis.com
+ */
+public class TestParallelAreaOperations extends JGrassTestCase {
+
+    private static final int[] THREADS = {1, 2, 4, 8};
+
+    private static final double RES = 10.0;
+
+    private final PrintStream out = new PrintStream(new ByteArrayOutputStream());
+
+    private final PrintStream err = System.err;
+
+    public void testParallelAreaOperations() {
+        runAreaOperations(400, false);
+    }
+
+    public void testParallelAreaOperationsBenchmark() {
+        if (!isBenchmarkEnabled()) {
+            return;
+        }
+        runAreaOperations(Integer.getInteger("jgrass.benchmark.size", 10000), true); //$NON-NLS-1$
+    }
+
+    /**
+     * Computes the operations on a synthetic DEM with every number of {@link #THREADS} and
+     * compares the images with the ones computed in the calling thread.
+     * 
+     * @param size the number of rows and columns of the DEM.
+     * @param printTimes if true, the time used by every operation is printed.
+     */
+    private void runAreaOperations( int size, boolean printTimes ) {
+        PlanarImage dem = createDem(size);
+        PlanarImage flow = createFlow(size);
+
+        Raster[] expected = new Raster[4];
+        for( int threads : THREADS ) {
+            Raster[] results = new Raster[4];
+
+            long t0 = System.currentTimeMillis();
+            results[0] = HMGradientDescriptor.create(dem, RES, RES, false, err, out, threads)
+                    .getData();
+            long t1 = System.currentTimeMillis();
+            results[1] = HMSlopeDescriptor.create(dem, flow, out, err, false, RES, RES, threads)
+                    .getData();
+            long t2 = System.currentTimeMillis();
+            results[2] = HMAspectDescriptor.create(dem, RES, RES, err, out, false, threads)
+                    .getData();
+            long t3 = System.currentTimeMillis();
+            results[3] = HMCurvaturesDescriptor.create(dem, RES, RES, err, out, false, threads)
+                    .getData();
+            long t4 = System.currentTimeMillis();
+            if (printTimes) {
+                System.out.println(size + "x" + size + ", " + threads + " threads: gradient " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                        + (t1 - t0) + " ms, slope " + (t2 - t1) + " ms, aspect " + (t3 - t2) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                        + " ms, curvatures " + (t4 - t3) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+
+            if (threads == 1) {
+                expected = results;
+            } else {
+                for( int i = 0; i < results.length; i++ ) {
+                    checkRasterEqual(expected[i], results[i], size);
+                }
+            }
+        }
+    }
+
+    /**
+     * A DEM made of a tilted plane with some hills on it, with a hole of novalues.
+     */
+    private PlanarImage createDem( int size ) {
+        WritableRaster raster = FluidUtils.createDoubleWritableRaster(size, size, null, null, null);
+        for( int y = 0; y < size; y++ ) {
+            for( int x = 0; x < size; x++ ) {
+                double value = 1000.0 - 0.5 * x - 0.3 * y + 20.0 * Math.sin(x * 0.05)
+                        * Math.cos(y * 0.07);
+                if (x > size / 3 && x < size / 3 + 5 && y > size / 2 && y < size / 2 + 7) {
+                    value = Double.NaN;
+                }
+                raster.setSample(x, y, 0, value);
+            }
+        }
+        return toImage(raster);
+    }
+
+    private PlanarImage createFlow( int size ) {
+        WritableRaster raster = FluidUtils.createDoubleWritableRaster(size, size, null, null, null);
+        for( int y = 0; y < size; y++ ) {
+            for( int x = 0; x < size; x++ ) {
+                raster.setSample(x, y, 0, 1 + (x + y) % 8);
+            }
+        }
+        return toImage(raster);
+    }
+
+    private PlanarImage toImage( WritableRaster raster ) {
+        TiledImage image = new TiledImage(0, 0, raster.getWidth(), raster.getHeight(), 0, 0,
+                raster.getSampleModel(), null);
+        image.setData(raster);
+        return image;
+    }
+
+    private void checkRasterEqual( Raster expected, Raster raster, int size ) {
+        int bands = expected.getNumBands();
+        assertEquals(bands, raster.getNumBands());
+        for( int b = 0; b < bands; b++ ) {
+            for( int y = 1; y < size - 1; y++ ) {
+                for( int x = 1; x < size - 1; x++ ) {
+                    double e = expected.getSampleDouble(x, y, b);
+                    double v = raster.getSampleDouble(x, y, b);
+                    if (Double.isNaN(e)) {
+                        assertTrue(Double.isNaN(v));
+                    } else {
+                        assertEquals(e, v, 0.0);
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -1,8 +1,11 @@
 package eu.hydrologis.jgrass.tests.models;
 
+import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.PrintStream;
 
+import javax.media.jai.TiledImage;
+
 import nl.alterra.openmi.sdk.backbone.Argument;
 import nl.alterra.openmi.sdk.backbone.Link;
 
@@ -10,8 +13,11 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.openmi.standard.IValueSet;
 
 import eu.hydrologis.jgrass.libs.iodrivers.JGrassMapEnvironment;
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
 import eu.hydrologis.jgrass.libs.map.RasterData;
 import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.monitor.DummyProgressMonitor;
+import eu.hydrologis.jgrass.models.h.pitfiller.PriorityFloodPitfiller;
 import eu.hydrologis.jgrass.models.h.pitfiller.h_pitfiller;
 import eu.hydrologis.jgrass.tests.utils.DummyInputGrassCoverageMap;
 import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
@@ -22,6 +28,7 @@ import eu.hydrologis.jgrass.utilitylinkables.OutputGrassCoverageWriter;
 import eu.hydrologis.jgrass.utilitylinkables.OutputGrassRasterMap;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
 import eu.hydrologis.openmi.JGrassRasterValueSet;
+import eu.hydrologis.libs.utils.FluidUtils;
 
 /**
  * Test pitfiller.
@@ -113,7 +120,81 @@ public class TestPitfiller extends JGrassTestCase {
 
     }
 
+    public void testPriorityFlood() {
+        double[][] mapData = GrassMapTest.mapData;
+        int rows = mapData.length;
+        int cols = mapData[0].length;
+        double[] dem = new double[rows * cols];
+        for( int i = 0; i < rows; i++ ) {
+            System.arraycopy(mapData[i], 0, dem, i * cols, cols);
+        }
+
+        // the plain priority-flood gives the same result of the TARDEM pitfiller
+        double[] pit = dem.clone();
+        new PriorityFloodPitfiller(false).fill(pit, cols, rows);
+        checkArrayEqual(pit, GrassMapTest.outPitData);
+
+        // filling the shared view copies it without changing it, a filled map is not copied
+        DoubleRasterData demData = new DoubleRasterData(rows, cols);
+        for( int i = 0; i < rows; i++ ) {
+            demData.setRow(i, mapData[i]);
+        }
+        double[] viewPit = new PriorityFloodPitfiller(false).fill(demData);
+        checkArrayEqual(viewPit, GrassMapTest.outPitData);
+        for( int i = 0; i < dem.length; i++ ) {
+            assertEquals(dem[i], demData.getValueAt(i));
+        }
+        DoubleRasterData pitData = new DoubleRasterData(rows, cols);
+        for( int i = 0; i < rows; i++ ) {
+            pitData.setRow(i, GrassMapTest.outPitData[i]);
+        }
+        assertNull(new PriorityFloodPitfiller(false).fill(pitData));
+
+        // and so does the tiled one
+        TiledImage demImage = new TiledImage(0, 0, cols, rows, 0, 0, FluidUtils
+                .createFromMatrix(mapData).getSampleModel(), null);
+        demImage.setData(FluidUtils.createFromMatrix(mapData));
+        for( int tileSize = 2; tileSize <= 5; tileSize++ ) {
+            RenderedImage tiledPit = new PriorityFloodPitfiller(false).fillTiled(demImage,
+                    tileSize, new DummyProgressMonitor());
+            checkMatrixEqual(tiledPit, GrassMapTest.outPitData, 0);
+        }
+
+        // the epsilon variant leaves a lower neighbour to every cell not draining outside
+        double[] epsilonPit = dem.clone();
+        new PriorityFloodPitfiller(true).fill(epsilonPit, cols, rows);
+        for( int i = 1; i < rows - 1; i++ ) {
+            for( int j = 1; j < cols - 1; j++ ) {
+                double value = epsilonPit[i * cols + j];
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                assertTrue(value >= dem[i * cols + j]);
+                assertTrue(value - GrassMapTest.outPitData[i][j] < 1E-6);
+                boolean hasOutlet = false;
+                for( int k = -1; k <= 1; k++ ) {
+                    for( int l = -1; l <= 1; l++ ) {
+                        double neighbour = epsilonPit[(i + k) * cols + j + l];
+                        hasOutlet = hasOutlet || Double.isNaN(neighbour) || neighbour < value;
+                    }
+                }
+                assertTrue(hasOutlet);
+            }
+        }
+    }
+
+    private void checkArrayEqual( double[] values, double[][] matrix ) {
+        int cols = matrix[0].length;
+        for( int i = 0; i < matrix.length; i++ ) {
+            for( int j = 0; j < cols; j++ ) {
+                double value = values[i * cols + j];
+                if (Double.isNaN(matrix[i][j])) {
+                    assertTrue(Double.isNaN(value));
+                } else {
+                    assertEquals(matrix[i][j], value);
+                }
+            }
+        }
+    }
 
-    
-    
 }
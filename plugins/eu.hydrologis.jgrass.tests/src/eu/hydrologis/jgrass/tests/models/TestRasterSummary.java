@@ -0,0 +1,91 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.media.jai.TiledImage;
+
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.models.r.summary.RasterSummary;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.utils.FluidUtils;
+
+/**
+ * Test the {@link RasterSummary} of r.summary on a tiled image.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestRasterSummary extends JGrassTestCase {
+
+    public void testSummary() throws Exception {
+        int cols = 230;
+        int rows = 170;
+        Random random = new Random(5);
+        WritableRaster raster = FluidUtils.createDoubleWritableRaster(cols, rows, null, null, null);
+        double[] values = new double[cols * rows];
+        int count = 0;
+        double sum = 0.0;
+        for( int y = 0; y < rows; y++ ) {
+            for( int x = 0; x < cols; x++ ) {
+                if (random.nextInt(10) == 0) {
+                    raster.setSample(x, y, 0, JGrassConstants.doubleNovalue);
+                } else {
+                    // all negative, the max has to be negative too
+                    double value = -500.0 + 50.0 * random.nextGaussian();
+                    raster.setSample(x, y, 0, value);
+                    values[count++] = value;
+                    sum = sum + value;
+                }
+            }
+        }
+        Arrays.sort(values, 0, count);
+        double mean = sum / count;
+        double squares = 0.0;
+        for( int i = 0; i < count; i++ ) {
+            squares = squares + (values[i] - mean) * (values[i] - mean);
+        }
+
+        // tiles not dividing the image
+        TiledImage image = new TiledImage(0, 0, cols, rows, 0, 0, raster.getSampleModel()
+                .createCompatibleSampleModel(64, 48), null);
+        image.setData(raster);
+
+        double[] probabilities = {0.0, 0.1, 0.5, 0.9, 1.0};
+        for( int threads = 1; threads <= 4; threads = threads + 3 ) {
+            RasterSummary summary = RasterSummary.summarize(image, threads);
+            assertEquals(count, summary.getCount());
+            assertEquals(values[0], summary.getMin(), 0.0);
+            assertEquals(values[count - 1], summary.getMax(), 0.0);
+            assertTrue(summary.getMax() < 0.0);
+            assertEquals(sum, summary.getSum(), 1E-6);
+            assertEquals(mean, summary.getMean(), 1E-9);
+            assertEquals(Math.sqrt(squares / count), summary.getStandardDeviation(), 1E-9);
+
+            // the histogram covers all the values, in at least half of the bins
+            double histogramMin = summary.getHistogramMin();
+            double width = summary.getHistogramBinWidth();
+            long[] histogram = summary.getHistogram();
+            assertEquals(RasterSummary.HISTOGRAM_BINS, histogram.length);
+            assertTrue(histogramMin <= values[0]);
+            assertTrue(values[count - 1] < histogramMin + histogram.length * width);
+            assertTrue(values[count - 1] - values[0] >= histogram.length / 2 * width - 2 * width);
+            long[] expected = new long[histogram.length];
+            for( int i = 0; i < count; i++ ) {
+                expected[(int) Math.floor((values[i] - histogramMin) / width)]++;
+            }
+            for( int b = 0; b < histogram.length; b++ ) {
+                assertEquals(expected[b], histogram[b]);
+            }
+
+            // the quantiles are within 2% of the ranks
+            double[] quantiles = summary.getQuantiles(probabilities);
+            for( int q = 0; q < probabilities.length; q++ ) {
+                int rank = Arrays.binarySearch(values, 0, count, quantiles[q]);
+                assertTrue(rank >= 0);
+                assertEquals(probabilities[q] * count, rank, 0.02 * count + 1);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.duffy.IBasicFunction;
+import eu.hydrologis.libs.duffy.RungeKuttaFelberg;
+
+/**
+ * Test the {@link RungeKuttaFelberg} integrator on linear reservoirs, which have an exact
+ * solution.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestRungeKuttaFelberg extends JGrassTestCase {
+
+    /**
+     * Reservoirs emptying at different rates, dy/dt = -k y.
+     */
+    private static class LinearReservoirs implements IBasicFunction {
+        private final double[] k;
+        private int allocatingCalls = 0;
+
+        public LinearReservoirs( double[] k ) {
+            this.k = k;
+        }
+
+        public double[] eval( double currentTimeInMinutes, double[] input,
+                double[] precipitation, double[] radiationArray, double[] netshortArray,
+                double[] temperatureArray, double[] humidityArray, double[] windspeedArray,
+                double[] pressureArray, double[] snowWaterEquivalentArray, boolean isMainTimeStep ) {
+            allocatingCalls++;
+            double[] output = new double[input.length];
+            eval(currentTimeInMinutes, input, precipitation, radiationArray, netshortArray,
+                    temperatureArray, humidityArray, windspeedArray, pressureArray,
+                    snowWaterEquivalentArray, isMainTimeStep, output);
+            return output;
+        }
+
+        public void eval( double currentTimeInMinutes, double[] input, double[] precipitation,
+                double[] radiationArray, double[] netshortArray, double[] temperatureArray,
+                double[] humidityArray, double[] windspeedArray, double[] pressureArray,
+                double[] snowWaterEquivalentArray, boolean isMainTimeStep, double[] output ) {
+            for( int i = 0; i < input.length; i++ ) {
+                output[i] = -k[i] * input[i];
+            }
+        }
+    }
+
+    public void testLinearReservoirs() throws Exception {
+        // two hillslopes, four equations each
+        double[] k = {0.001, 0.002, 0.0005, 0.003, 0.0015, 0.0001, 0.0025, 0.0008};
+        LinearReservoirs function = new LinearReservoirs(k);
+        PrintStream out = new PrintStream(new ByteArrayOutputStream());
+        RungeKuttaFelberg rungeKutta = new RungeKuttaFelberg(function, 1e-2, 10 / 60., out, false);
+
+        double[] start = {100.0, 50.0, 20.0, 10.0, 40.0, 30.0, 15.0, 5.0};
+        double[] rain = new double[2];
+        double[] initialConditions = start.clone();
+        double time = 1000.0;
+        // every interval is solved up to a second before its end
+        double integratedTime = 0.0;
+        double[] firstFinalCond = null;
+        for( int step = 0; step < 10; step++ ) {
+            rungeKutta.solve(time, time + 60.0, 1, initialConditions, rain, rain, rain, rain,
+                    rain, rain, rain, rain);
+            time = time + 60.0;
+            integratedTime = integratedTime + 60.0 - 1. / 60.;
+            initialConditions = rungeKutta.getFinalCond();
+            for( int i = 0; i < start.length; i++ ) {
+                double expected = start[i] * Math.exp(-k[i] * integratedTime);
+                assertEquals(expected, initialConditions[i], 1E-4 * expected);
+            }
+
+            // the final conditions are kept in the same array
+            if (firstFinalCond == null) {
+                firstFinalCond = initialConditions;
+            }
+            assertSame(firstFinalCond, initialConditions);
+        }
+        // the integrator doesn't ask for new arrays
+        assertEquals(0, function.allocatingCalls);
+    }
+
+}
@@ -0,0 +1,120 @@
+package eu.hydrologis.jgrass.tests.models;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import eu.hydrologis.jgrass.models.h.jami.StationSelector;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the {@link StationSelector} of h.jami against the selection of the stations as it was
+ * done before the stations were sorted once by distance.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestStationSelector extends JGrassTestCase {
+
+    public void testSameAsBefore() throws Exception {
+        Random random = new Random(5);
+        for( int test = 0; test < 2000; test++ ) {
+            // stations on a small grid, so that many are at the same distance
+            int stationsNum = 1 + random.nextInt(8);
+            int stationNum = 1 + random.nextInt(5);
+            double[] xs = new double[stationsNum];
+            double[] ys = new double[stationsNum];
+            boolean[] hasValue = new boolean[stationsNum];
+            for( int j = 0; j < stationsNum; j++ ) {
+                xs[j] = random.nextInt(4);
+                ys[j] = random.nextInt(4);
+                hasValue[j] = random.nextInt(10) < 6;
+            }
+            double x = random.nextInt(4);
+            double y = random.nextInt(4);
+            // the stations of the band, in the band order
+            int[] band = new int[stationsNum];
+            for( int j = 0; j < stationsNum; j++ ) {
+                band[j] = j;
+            }
+            for( int j = stationsNum - 1; j > 0; j-- ) {
+                int k = random.nextInt(j + 1);
+                int tmp = band[j];
+                band[j] = band[k];
+                band[k] = tmp;
+            }
+
+            int[] stations = band.clone();
+            double[] distances = new double[stationsNum];
+            for( int j = 0; j < stationsNum; j++ ) {
+                distances[j] = distance(x, y, xs[stations[j]], ys[stations[j]]);
+            }
+            StationSelector.sortByDistance(stations, distances);
+            int[] selected = new int[stationsNum + 1];
+            // a station of an other band already selected
+            selected[0] = -1;
+            int selectedNum = StationSelector.select(stations, distances, band, hasValue,
+                    stationNum, selected, 1);
+
+            List<Integer> expected = selectAsBefore(x, y, band, xs, ys, hasValue, stationNum);
+            int[] expectedArray = new int[expected.size()];
+            for( int j = 0; j < expectedArray.length; j++ ) {
+                expectedArray[j] = expected.get(j);
+            }
+            int[] selectedArray = new int[selectedNum - 1];
+            System.arraycopy(selected, 1, selectedArray, 0, selectedArray.length);
+            Arrays.sort(expectedArray);
+            Arrays.sort(selectedArray);
+            assertEquals(-1, selected[0]);
+            assertTrue(Arrays.equals(expectedArray, selectedArray));
+        }
+    }
+
+    private static double distance( double x1, double y1, double x2, double y2 ) {
+        double dx = x1 - x2;
+        double dy = y1 - y2;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    /**
+     * The selection as done before, with the stations ordered by distance in a map, so that of the
+     * stations at the same distance the last one is used.
+     */
+    private static List<Integer> selectAsBefore( double x, double y, int[] band, double[] xs,
+            double[] ys, boolean[] hasValue, int stationNum ) {
+        List<Integer> stationsToUse = new ArrayList<Integer>();
+        List<Integer> stationsLeftOver = new ArrayList<Integer>();
+        Map<Double, Integer> sortedByDistanceStationsMap = new TreeMap<Double, Integer>();
+        for( int stId : band ) {
+            if (!hasValue[stId]) {
+                stationsLeftOver.add(stId);
+                continue;
+            }
+            sortedByDistanceStationsMap.put(distance(x, y, xs[stId], ys[stId]), stId);
+        }
+        Collection<Integer> statIds = sortedByDistanceStationsMap.values();
+        Iterator<Integer> iterator = statIds.iterator();
+        for( int i = 0; i < statIds.size(); i++ ) {
+            if (i < stationNum) {
+                stationsToUse.add(iterator.next());
+            } else {
+                stationsLeftOver.add(iterator.next());
+            }
+        }
+        if (stationsToUse.size() < stationNum) {
+            for( int i = 0; i < stationNum - stationsToUse.size(); i++ ) {
+                if (i == stationsLeftOver.size()) {
+                    // this failed before, now the stations without values left are used
+                    break;
+                }
+                stationsToUse.add(stationsLeftOver.get(i));
+            }
+        }
+        return stationsToUse;
+    }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * JGrass - Free Open Source Java GIS http://www.jgrass.org
+ * (C) HydroloGIS - www.hydrologis.com
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package eu.hydrologis.jgrass.tests.models;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+import eu.hydrologis.jgrass.libs.map.DoubleRasterData;
+import eu.hydrologis.jgrass.libs.region.JGrassRegion;
+import eu.hydrologis.jgrass.libs.utils.JGrassConstants;
+import eu.hydrologis.jgrass.libs.utils.raster.PolygonRasterizer;
+import eu.hydrologis.jgrass.models.r.zonalstats.StatisticsTool;
+import eu.hydrologis.jgrass.models.r.zonalstats.ZoneSpans;
+import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+
+/**
+ * Test the {@link StatisticsTool} of r.zonalstats against the statistics calculated zone by
+ * zone.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestStatisticsTool extends JGrassTestCase {
+
+    public void testStatistics() throws Exception {
+        int rows = 120;
+        int cols = 90;
+        Random random = new Random(11);
+        DoubleRasterData values = new DoubleRasterData(rows, cols);
+        int[] zones = new int[rows * cols];
+        ZoneSpans spans = new ZoneSpans(rows);
+        int[] rowZones = new int[cols];
+        for( int i = 0; i < rows; i++ ) {
+            for( int j = 0; j < cols; j++ ) {
+                int index = i * cols + j;
+                // zone 0 is no zone, the ids are sparse
+                zones[index] = random.nextInt(7);
+                rowZones[j] = zones[index] * 1000003;
+                if (random.nextInt(20) == 0) {
+                    values.setValueAt(index, JGrassConstants.doubleNovalue);
+                } else {
+                    values.setValueAt(index, 1000.0 + 100.0 * zones[index] + 10.0
+                            * random.nextGaussian());
+                }
+            }
+            spans.addRow(i, rowZones);
+        }
+        int[] ids = spans.toDenseZones();
+        assertEquals(6, ids.length);
+        for( int zone = 1; zone <= ids.length; zone++ ) {
+            assertEquals(zone * 1000003, ids[zone - 1]);
+        }
+
+        // one zone more than in the map, that stays empty
+        int zonesNum = ids.length + 1;
+        double[] probabilities = {0.0, 0.1, 0.5, 0.9, 1.0};
+        StatisticsTool single = new StatisticsTool(zonesNum);
+        single.setThreads(1);
+        single.setQuantiles(probabilities);
+        single.run(values, spans);
+        StatisticsTool parallel = new StatisticsTool(zonesNum);
+        parallel.setThreads(4);
+        parallel.setQuantiles(probabilities);
+        parallel.run(values, spans);
+
+        for( int zone = 1; zone <= zonesNum; zone++ ) {
+            double[] zoneValues = new double[rows * cols];
+            int count = 0;
+            double sum = 0.0;
+            for( int i = 0; i < rows * cols; i++ ) {
+                double value = values.getValueAt(i);
+                if (zones[i] == zone && !JGrassConstants.isNovalue(value)) {
+                    zoneValues[count++] = value;
+                    sum = sum + value;
+                }
+            }
+            Arrays.sort(zoneValues, 0, count);
+            for( StatisticsTool tool : new StatisticsTool[]{single, parallel} ) {
+                assertEquals(count, tool.getCount(zone));
+                if (count == 0) {
+                    assertTrue(Double.isNaN(tool.getMean(zone)));
+                    assertTrue(Double.isNaN(tool.getQuantile(zone, 2)));
+                    continue;
+                }
+                double mean = sum / count;
+                double squares = 0.0;
+                for( int i = 0; i < count; i++ ) {
+                    squares = squares + (zoneValues[i] - mean) * (zoneValues[i] - mean);
+                }
+                assertEquals(sum, tool.getSum(zone), 1E-6);
+                assertEquals(mean, tool.getMean(zone), 1E-9);
+                assertEquals(zoneValues[0], tool.getMin(zone), 0.0);
+                assertEquals(zoneValues[count - 1], tool.getMax(zone), 0.0);
+                assertEquals(Math.sqrt(squares / count), tool.getStandardDeviation(zone), 1E-9);
+
+                // the quantiles are values of the zone within 2% of the ranks
+                for( int q = 0; q < probabilities.length; q++ ) {
+                    int rank = Arrays.binarySearch(zoneValues, 0, count, tool.getQuantile(zone, q));
+                    assertTrue(rank >= 0);
+                    assertEquals(probabilities[q] * count, rank, 0.02 * count + 1);
+                }
+                assertEquals(zoneValues[0], tool.getQuantile(zone, 0), 0.0);
+                assertEquals(zoneValues[count - 1], tool.getQuantile(zone, 4), 0.0);
+            }
+        }
+    }
+
+    public void testOverlappingPolygons() throws Exception {
+        int rows = 10;
+        int cols = 10;
+        DoubleRasterData values = new DoubleRasterData(rows, cols);
+        for( int i = 0; i < rows * cols; i++ ) {
+            values.setValueAt(i, i);
+        }
+
+        // two squares of 6 by 6 cells sharing 2 by 2 cells
+        GeometryFactory gf = new GeometryFactory();
+        PolygonRasterizer rasterizer = new PolygonRasterizer(new JGrassRegion(0.0, 10.0, 0.0,
+                10.0, rows, cols));
+        rasterizer.addPolygon(gf.createPolygon(gf.createLinearRing(new Coordinate[]{
+                new Coordinate(0, 0), new Coordinate(6, 0), new Coordinate(6, 6),
+                new Coordinate(0, 6), new Coordinate(0, 0)}), null), 0.0);
+        rasterizer.addPolygon(gf.createPolygon(gf.createLinearRing(new Coordinate[]{
+                new Coordinate(4, 4), new Coordinate(10, 4), new Coordinate(10, 10),
+                new Coordinate(4, 10), new Coordinate(4, 4)}), null), 0.0);
+        ZoneSpans spans = new ZoneSpans(rows);
+        rasterizer.rasterize(spans, new NullProgressMonitor());
+
+        StatisticsTool tool = new StatisticsTool(2);
+        tool.setThreads(3);
+        tool.setQuantiles(new double[]{0.5});
+        tool.run(values, spans);
+
+        // the first square is on the rows 4 to 9 and the columns 0 to 5, the second one on the
+        // rows 0 to 5 and the columns 4 to 9
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        for( int row = 0; row < rows; row++ ) {
+            for( int col = 0; col < cols; col++ ) {
+                if (row >= 4 && col <= 5) {
+                    sum1 = sum1 + row * cols + col;
+                }
+                if (row <= 5 && col >= 4) {
+                    sum2 = sum2 + row * cols + col;
+                }
+            }
+        }
+        assertEquals(36, tool.getCount(1));
+        assertEquals(36, tool.getCount(2));
+        assertEquals(sum1, tool.getSum(1), 1E-9);
+        assertEquals(sum2, tool.getSum(2), 1E-9);
+        assertEquals(40.0, tool.getMin(1), 0.0);
+        assertEquals(95.0, tool.getMax(1), 0.0);
+        assertEquals(4.0, tool.getMin(2), 0.0);
+        assertEquals(59.0, tool.getMax(2), 0.0);
+    }
+
+}
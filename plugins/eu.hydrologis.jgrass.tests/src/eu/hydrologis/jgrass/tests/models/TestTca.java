@@ -2,6 +2,7 @@ package eu.hydrologis.jgrass.tests.models;
 
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
 
 import nl.alterra.openmi.sdk.backbone.Argument;
 import nl.alterra.openmi.sdk.backbone.Link;
@@ -17,6 +18,7 @@ import eu.hydrologis.jgrass.tests.utils.DummyInputGrassCoverageMap;
 import eu.hydrologis.jgrass.tests.utils.DummyInputGrassRasterMap;
 import eu.hydrologis.jgrass.tests.utils.GrassMapTest;
 import eu.hydrologis.jgrass.tests.utils.JGrassTestCase;
+import eu.hydrologis.libs.utils.TopologicalFlowAccumulator;
 import eu.hydrologis.jgrass.utilitylinkables.OutputGrassCoverageWriter;
 import eu.hydrologis.jgrass.utilitylinkables.OutputGrassRasterMap;
 import eu.hydrologis.openmi.JGrassGridCoverageValueSet;
@@ -29,6 +31,40 @@ import eu.hydrologis.openmi.JGrassRasterValueSet;
 public class TestTca extends JGrassTestCase {
 
     public void testTca() throws IOException {
+        runTca(true);
+    }
+
+    public void testTcaWalkingDownstream() throws IOException {
+        runTca(false);
+    }
+
+    public void testLoopDetection() {
+        // the pixels at 1/1 and 1/2 drain one into the other
+        int[] flow = new int[]{//
+        0, 0, 0, 0,//
+                0, 1, 5, 0,//
+                0, 3, 0, 0,//
+                0, 0, 0, 0};
+        TopologicalFlowAccumulator accumulator = new TopologicalFlowAccumulator(flow, 4, 4);
+        int[] loop = accumulator.getLoop();
+        assertNotNull(loop);
+        assertEquals(1, loop[0]);
+        assertEquals(1, loop[1]);
+        assertEquals(1, loop[2]);
+        assertEquals(2, loop[3]);
+
+        flow[6] = 10;
+        accumulator = new TopologicalFlowAccumulator(flow, 4, 4);
+        assertNull(accumulator.getLoop());
+        double[] weights = new double[flow.length];
+        Arrays.fill(weights, 1.0);
+        double[] tca = accumulator.accumulate(weights);
+        assertEquals(1.0, tca[9]);
+        assertEquals(2.0, tca[5]);
+        assertEquals(3.0, tca[6]);
+    }
+
+    private void runTca( boolean useTopologicalEngine ) throws IOException {
 
         JGrassMapEnvironment jGrassMapEnvironment = GrassMapTest.jME;
 
@@ -56,6 +92,7 @@ public class TestTca extends JGrassTestCase {
         tcaARgs[4] = new Argument("time_ending_up", global_enddate, true);
         tcaARgs[5] = new Argument("time_delta", global_deltat, true);
         tcaARgs[6] = new Argument("remotedburl", global_remotedb, true);
+        tca.setUseTopologicalEngine(useTopologicalEngine);
         tca.initialize(tcaARgs);
 
         DummyInputGrassCoverageMap igrass_flow = new DummyInputGrassCoverageMap(out, err, GrassMapTest.flowData);
@@ -14,8 +14,21 @@ import static eu.hydrologis.jgrass.libs.utils.JGrassConstants.*;
 
 public class JGrassTestCase extends TestCase {
 
+    /**
+     * The system property enabling the timed benchmarks, which are skipped by default since they
+     * take long and print their times (-Djgrass.benchmark=true).
+     */
+    protected static final String BENCHMARK_PROPERTY = "jgrass.benchmark"; //$NON-NLS-1$
+
     protected String linkMessage = "there is a problem in a link";
 
+    /**
+     * @return true if the timed benchmarks have to be run.
+     */
+    protected static boolean isBenchmarkEnabled() {
+        return Boolean.getBoolean(BENCHMARK_PROPERTY);
+    }
+
     protected void checkMatrixEqual( RasterData rasterData, double[][] matrix ) {
         for( int i = 0; i < matrix.length; i++ ) {
             for( int j = 0; j < matrix[0].length; j++ ) {
@@ -0,0 +1,86 @@
+package eu.hydrologis.jgrass.tests.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import eu.hydrologis.libs.utils.RadixSortAlgorithm;
+
+/**
+ * Test the {@link RadixSortAlgorithm}.
+ *
+ * @author Andrea Antonello (www.hydrologis.com)
+ */
+public class TestRadixSort extends TestCase {
+
+    public void testSortIndexes() throws Exception {
+        double[] values = {4.0, Double.NaN, 2.0, 9.0, -0.0, 6.0, Double.NaN, 1.0, 4.0, -22.0, 16,
+                1.0, 0.0, Double.NaN, 1.0, -2.5};
+        RadixSortAlgorithm algorithm = new RadixSortAlgorithm(null);
+        int[] indexes = algorithm.sortIndexes(values);
+
+        // novalues first, equal values in the order of their indexes
+        int[] expected = {1, 6, 13, 9, 15, 4, 12, 7, 11, 14, 2, 0, 8, 5, 3, 10};
+        assertEquals(expected.length, indexes.length);
+        for( int i = 0; i < expected.length; i++ ) {
+            assertEquals(expected[i], indexes[i]);
+        }
+    }
+
+    public void testSort() throws Exception {
+        Random random = new Random(13);
+        double[] values = new double[1000];
+        double[] follow = new double[values.length];
+        for( int i = 0; i < values.length; i++ ) {
+            values[i] = 1000.0 * random.nextGaussian();
+            follow[i] = i;
+        }
+        double[] original = values.clone();
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        new RadixSortAlgorithm(null).sort(values, follow);
+        for( int i = 0; i < values.length; i++ ) {
+            assertEquals(sorted[i], values[i], 0.0);
+            assertEquals(values[i], original[(int) follow[i]], 0.0);
+        }
+    }
+
+    public void testThreads() throws Exception {
+        // enough values to be sorted in chunks, with many ties
+        Random random = new Random(7);
+        double[] values = new double[300000];
+        for( int i = 0; i < values.length; i++ ) {
+            if (random.nextInt(50) == 0) {
+                values[i] = Double.NaN;
+            } else {
+                values[i] = 500.0 + random.nextInt(2000) / 4.0;
+            }
+        }
+
+        RadixSortAlgorithm algorithm = new RadixSortAlgorithm(null);
+        algorithm.setThreads(1);
+        int[] single = algorithm.sortIndexes(values);
+        algorithm.setThreads(4);
+        int[] parallel = algorithm.sortIndexes(values);
+
+        assertEquals(values.length, single.length);
+        for( int i = 0; i < single.length; i++ ) {
+            assertEquals(single[i], parallel[i]);
+        }
+        for( int i = 1; i < single.length; i++ ) {
+            double previous = values[single[i - 1]];
+            double current = values[single[i]];
+            if (Double.isNaN(current)) {
+                assertTrue(Double.isNaN(previous));
+                assertTrue(single[i - 1] < single[i]);
+            } else if (!Double.isNaN(previous)) {
+                assertTrue(previous <= current);
+                if (previous == current) {
+                    assertTrue(single[i - 1] < single[i]);
+                }
+            }
+        }
+    }
+
+}